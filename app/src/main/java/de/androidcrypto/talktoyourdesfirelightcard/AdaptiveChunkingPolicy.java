@@ -0,0 +1,108 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * A ChunkingPolicy that calculates the largest chunks that fit into one command and one response frame.
+ * <p>
+ * The DESFire Light accepts short APDUs only, so all chunks are sized for short APDUs even when the reader
+ * reports extended length support (on many phones IsoDep.getMaxTransceiveLength returns 65279 then).
+ * <p>
+ * Write (command APDU): the maximum command data length is given by the maximum transceive length of the
+ * reader (IsoDep.getMaxTransceiveLength) less the APDU overhead (CLA INS P1 P2 Lc Le), limited to 255 bytes for
+ * short APDUs and to the frame length of the card. From this the CmdHeader (FileNo || Offset || Length = 7 bytes)
+ * is subtracted, for MACed and Full the MAC (8 bytes), and for Full the data needs to fit after padding to a
+ * multiple of 16 (the padding adds at least one byte).
+ * <p>
+ * Read (response APDU): the response data needs to fit into one response frame of the card, without the status
+ * bytes. For MACed and Full the MAC (8 bytes) is subtracted, for Full the padding is taken into account.
+ * A short APDU can return a maximum of 256 bytes.
+ * <p>
+ * Example for a reader with a maximum transceive length of 253 bytes and a card frame of 240 bytes:
+ * write Plain 233, MACed 225, Full 223 bytes; read Plain 240, MACed 232, Full 223 bytes.
+ */
+
+public class AdaptiveChunkingPolicy implements ChunkingPolicy {
+
+    public static final int MAXIMUM_RESPONSE_FRAME_LENGTH_DEFAULT = 240; // data bytes per response frame, see readFromADataFileRawFull
+    private static final int SHORT_APDU_OVERHEAD = 6; // CLA INS P1 P2 Lc Le
+    private static final int SHORT_APDU_MAXIMUM_COMMAND_DATA_LENGTH = 255;
+    private static final int SHORT_APDU_MAXIMUM_RESPONSE_DATA_LENGTH = 256;
+    private static final int COMMAND_HEADER_LENGTH = 7; // FileNo || Offset || Length
+    private static final int MAC_LENGTH = 8;
+    private static final int BLOCK_SIZE = 16;
+    private static final byte FILE_COMMUNICATION_SETTINGS_PLAIN = (byte) 0x00;
+    private static final byte FILE_COMMUNICATION_SETTINGS_MACED = (byte) 0x01;
+
+    private final int maxTransceiveLength;
+    private final boolean isExtendedLengthApduSupported;
+    private final int maximumResponseFrameLength;
+    private final int maximumCommandDataLength;
+    private final int maximumResponseDataLength;
+
+    /**
+     * @param maxTransceiveLength           | the maximum length of a command APDU, see IsoDep.getMaxTransceiveLength()
+     * @param isExtendedLengthApduSupported | see IsoDep.isExtendedLengthApduSupported(), informational only as the
+     *                                      | card accepts short APDUs only
+     * @param maximumResponseFrameLength    | the data bytes the card accepts in one command frame or returns in one
+     *                                      | response frame without the status bytes
+     */
+    public AdaptiveChunkingPolicy(int maxTransceiveLength, boolean isExtendedLengthApduSupported, int maximumResponseFrameLength) {
+        this.maxTransceiveLength = maxTransceiveLength;
+        this.isExtendedLengthApduSupported = isExtendedLengthApduSupported;
+        this.maximumResponseFrameLength = maximumResponseFrameLength;
+        // short APDUs only, whatever the reader supports
+        maximumCommandDataLength = Math.min(Math.min(maxTransceiveLength - SHORT_APDU_OVERHEAD, SHORT_APDU_MAXIMUM_COMMAND_DATA_LENGTH),
+                maximumResponseFrameLength);
+        maximumResponseDataLength = Math.min(maximumResponseFrameLength, SHORT_APDU_MAXIMUM_RESPONSE_DATA_LENGTH);
+        // the smallest Full command needs the header, one padded block and the MAC
+        if ((maximumCommandDataLength < COMMAND_HEADER_LENGTH + BLOCK_SIZE + MAC_LENGTH) || (maximumResponseDataLength < BLOCK_SIZE + MAC_LENGTH)) {
+            throw new IllegalArgumentException("maxTransceiveLength or maximumResponseFrameLength is too small");
+        }
+    }
+
+    /**
+     * creates the policy for the transport with the default response frame length of the card
+     */
+    public static AdaptiveChunkingPolicy forTransport(ApduTransport transport) {
+        return new AdaptiveChunkingPolicy(transport.getMaxTransceiveLength(), transport.isExtendedLengthApduSupported(), MAXIMUM_RESPONSE_FRAME_LENGTH_DEFAULT);
+    }
+
+    @Override
+    public int getMaximumReadLength(byte communicationSettings) {
+        return getMaximumDataLength(maximumResponseDataLength, communicationSettings);
+    }
+
+    @Override
+    public int getMaximumWriteLength(byte communicationSettings) {
+        return getMaximumDataLength(maximumCommandDataLength - COMMAND_HEADER_LENGTH, communicationSettings);
+    }
+
+    private static int getMaximumDataLength(int available, byte communicationSettings) {
+        if (communicationSettings == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+            return available;
+        }
+        if (communicationSettings == FILE_COMMUNICATION_SETTINGS_MACED) {
+            return available - MAC_LENGTH;
+        }
+        // Full: the padded data (at least one padding byte) needs to fit
+        return ((available - MAC_LENGTH) / BLOCK_SIZE) * BLOCK_SIZE - 1;
+    }
+
+    public int getMaxTransceiveLength() {
+        return maxTransceiveLength;
+    }
+
+    public boolean isExtendedLengthApduSupported() {
+        return isExtendedLengthApduSupported;
+    }
+
+    public int getMaximumResponseFrameLength() {
+        return maximumResponseFrameLength;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveChunkingPolicy maxTransceiveLength: " + maxTransceiveLength
+                + " extendedLength: " + isExtendedLengthApduSupported
+                + " maximumResponseFrameLength: " + maximumResponseFrameLength;
+    }
+}
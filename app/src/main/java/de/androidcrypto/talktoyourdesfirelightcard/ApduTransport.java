@@ -0,0 +1,41 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.io.IOException;
+
+/**
+ * This interface decouples the DESFire command classes (DesfireLight, DesfireEv3 and
+ * DesfireAuthenticateLegacy) from Android's IsoDep class. All command APDUs are send through
+ * an ApduTransport so the same command code can run against a real tag (IsoDepTransport) or
+ * any in-process implementation (InProcessTransport), e.g. a card emulator, a PC/SC bridge or
+ * a recorded-trace replayer.
+ *
+ * An implementation is expected to behave like IsoDep.transceive: the full command APDU is send
+ * and the full response APDU including the 2 status bytes is returned.
+ */
+
+public interface ApduTransport {
+
+    /**
+     * sends a command APDU to the PICC and returns the response APDU
+     *
+     * @param apdu | the complete command APDU
+     * @return the response APDU including the status bytes
+     * @throws IOException when the transmission failed (e.g. the tag was lost)
+     */
+    byte[] transceive(byte[] apdu) throws IOException;
+
+    /**
+     * @return true if the transport is ready to exchange APDUs with the PICC
+     */
+    boolean isConnected();
+
+    /**
+     * @return the maximum length of a command APDU that can be send in one transceive
+     */
+    int getMaxTransceiveLength();
+
+    /**
+     * @return true if command APDUs with an extended length field (Lc up to 65535) can be send
+     */
+    boolean isExtendedLengthApduSupported();
+}
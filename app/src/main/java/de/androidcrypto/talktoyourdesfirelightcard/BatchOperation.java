@@ -0,0 +1,138 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * This class describes one operation of a batch that is executed by DesfireLight.executeBatch, e.g. the
+ * fare flow select application -> authenticate -> read value -> debit -> write record -> commit.
+ * The operations are created with the static methods below and are immutable, the byte arrays are copied.
+ * <p>
+ * The file operations are validated against the file settings of the selected application before the first
+ * of them is sent to the card, see DesfireLight.executeBatch.
+ */
+
+public class BatchOperation {
+
+    public enum Type {
+        SELECT_APPLICATION, AUTHENTICATE_FIRST, AUTHENTICATE_NON_FIRST, READ_VALUE, CREDIT_VALUE, DEBIT_VALUE,
+        READ_DATA, WRITE_DATA, READ_RECORDS, WRITE_RECORD, COMMIT
+    }
+
+    private final Type type;
+    private final byte fileNumber; // the key number for authentication
+    private final int offset; // offset in the file or offset record
+    private final int length; // length of data, number of records or the value to credit or debit
+    private final byte[] data; // data to write, the AID for selection or the key for authentication
+    private final boolean isEnabledReturnTmcv;
+
+    private BatchOperation(Type type, byte fileNumber, int offset, int length, byte[] data, boolean isEnabledReturnTmcv) {
+        this.type = type;
+        this.fileNumber = fileNumber;
+        this.offset = offset;
+        this.length = length;
+        this.data = (data == null) ? null : data.clone();
+        this.isEnabledReturnTmcv = isEnabledReturnTmcv;
+    }
+
+    /**
+     * @param applicationIdentifier | length 3
+     */
+    public static BatchOperation selectApplication(byte[] applicationIdentifier) {
+        return new BatchOperation(Type.SELECT_APPLICATION, (byte) 0, 0, 0, applicationIdentifier, false);
+    }
+
+    /**
+     * @param keyNumber | in range 0..4
+     * @param key       | AES-128 key, length 16
+     */
+    public static BatchOperation authenticateFirst(byte keyNumber, byte[] key) {
+        return new BatchOperation(Type.AUTHENTICATE_FIRST, keyNumber, 0, 0, key, false);
+    }
+
+    /**
+     * @param keyNumber | in range 0..4
+     * @param key       | AES-128 key, length 16
+     */
+    public static BatchOperation authenticateNonFirst(byte keyNumber, byte[] key) {
+        return new BatchOperation(Type.AUTHENTICATE_NON_FIRST, keyNumber, 0, 0, key, false);
+    }
+
+    public static BatchOperation readValue(byte fileNumber) {
+        return new BatchOperation(Type.READ_VALUE, fileNumber, 0, 0, null, false);
+    }
+
+    public static BatchOperation creditValue(byte fileNumber, int changeValue) {
+        return new BatchOperation(Type.CREDIT_VALUE, fileNumber, 0, changeValue, null, false);
+    }
+
+    public static BatchOperation debitValue(byte fileNumber, int changeValue) {
+        return new BatchOperation(Type.DEBIT_VALUE, fileNumber, 0, changeValue, null, false);
+    }
+
+    public static BatchOperation readData(byte fileNumber, int offset, int length) {
+        return new BatchOperation(Type.READ_DATA, fileNumber, offset, length, null, false);
+    }
+
+    public static BatchOperation writeData(byte fileNumber, int offset, byte[] data) {
+        return new BatchOperation(Type.WRITE_DATA, fileNumber, offset, (data == null) ? 0 : data.length, data, false);
+    }
+
+    public static BatchOperation readRecords(byte fileNumber, int offsetRecord, int numberOfRecordsToRead) {
+        return new BatchOperation(Type.READ_RECORDS, fileNumber, offsetRecord, numberOfRecordsToRead, null, false);
+    }
+
+    public static BatchOperation writeRecord(byte fileNumber, int offset, byte[] data) {
+        return new BatchOperation(Type.WRITE_RECORD, fileNumber, offset, (data == null) ? 0 : data.length, data, false);
+    }
+
+    public static BatchOperation commit(boolean isEnabledReturnTmcv) {
+        return new BatchOperation(Type.COMMIT, (byte) 0, 0, 0, null, isEnabledReturnTmcv);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return true for operations that work on a file of the selected application
+     */
+    public boolean isFileOperation() {
+        return (type != Type.SELECT_APPLICATION) && (type != Type.AUTHENTICATE_FIRST)
+                && (type != Type.AUTHENTICATE_NON_FIRST) && (type != Type.COMMIT);
+    }
+
+    public byte getFileNumber() {
+        return fileNumber;
+    }
+
+    public byte getKeyNumber() {
+        return fileNumber;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getChangeValue() {
+        return length;
+    }
+
+    public byte[] getData() {
+        return (data == null) ? null : data.clone();
+    }
+
+    byte[] getDataInternal() {
+        return data;
+    }
+
+    public boolean isEnabledReturnTmcv() {
+        return isEnabledReturnTmcv;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchOperation " + type + " fileNumber: " + fileNumber + " offset: " + offset + " length: " + length;
+    }
+}
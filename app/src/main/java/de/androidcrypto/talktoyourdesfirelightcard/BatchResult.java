@@ -0,0 +1,112 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the result of DesfireLight.executeBatch. The batch stops on the first failing operation,
+ * the error code and reason are the ones of this operation.
+ * The results are stored per operation index:
+ * READ_VALUE: the value, READ_DATA and READ_RECORDS: the read data, COMMIT: the returned TMC || TMV (if enabled),
+ * all other operations have no result data.
+ */
+
+public class BatchResult {
+
+    private final int numberOfOperations;
+    private final byte[][] resultData;
+    private final int[] resultValues;
+    private int numberOfExecutedOperations;
+    private int failedOperationIndex = -1;
+    private byte[] errorCode = new byte[2];
+    private String errorCodeReason = "";
+    private long durationNanos;
+
+    BatchResult(int numberOfOperations) {
+        this.numberOfOperations = numberOfOperations;
+        resultData = new byte[numberOfOperations][];
+        resultValues = new int[numberOfOperations];
+        Arrays.fill(resultValues, -1);
+    }
+
+    void setResultData(int index, byte[] data) {
+        resultData[index] = data;
+    }
+
+    void setResultValue(int index, int value) {
+        resultValues[index] = value;
+    }
+
+    void setNumberOfExecutedOperations(int numberOfExecutedOperations) {
+        this.numberOfExecutedOperations = numberOfExecutedOperations;
+    }
+
+    void setFailure(int index, byte[] errorCode, String errorCodeReason) {
+        this.failedOperationIndex = index;
+        this.errorCode = (errorCode == null) ? new byte[2] : errorCode.clone();
+        this.errorCodeReason = errorCodeReason;
+    }
+
+    void setSuccess(byte[] errorCode) {
+        this.errorCode = errorCode.clone();
+        this.errorCodeReason = "SUCCESS";
+    }
+
+    void setDurationNanos(long durationNanos) {
+        this.durationNanos = durationNanos;
+    }
+
+    public boolean isSuccess() {
+        return (failedOperationIndex == -1);
+    }
+
+    public int getNumberOfOperations() {
+        return numberOfOperations;
+    }
+
+    /**
+     * @return the number of operations that were sent to the card, including the failed one
+     */
+    public int getNumberOfExecutedOperations() {
+        return numberOfExecutedOperations;
+    }
+
+    /**
+     * @return the index of the failed operation or -1 on success
+     */
+    public int getFailedOperationIndex() {
+        return failedOperationIndex;
+    }
+
+    /**
+     * @return the read data of the operation or NULL if the operation has no result data
+     */
+    public byte[] getData(int index) {
+        return resultData[index];
+    }
+
+    /**
+     * @return the value of a READ_VALUE operation or -1
+     */
+    public int getValue(int index) {
+        return resultValues[index];
+    }
+
+    public byte[] getErrorCode() {
+        return errorCode;
+    }
+
+    public String getErrorCodeReason() {
+        return errorCodeReason;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult success: " + isSuccess() + " executed: " + numberOfExecutedOperations + "/" + numberOfOperations
+                + " failedOperationIndex: " + failedOperationIndex + " errorCode: " + Utils.bytesToHexNpeUpperCase(errorCode)
+                + " reason: " + errorCodeReason + " durationUs: " + (durationNanos / 1000);
+    }
+}
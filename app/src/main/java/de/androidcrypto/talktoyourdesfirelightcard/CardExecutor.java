@@ -0,0 +1,93 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs all tag operations (transceive and crypto) one after the other on a single background thread.
+ * The NFC binder thread (onTagDiscovered) and the UI thread (button handlers) only queue a task and return at once,
+ * so a slow transceive never blocks the UI and the UI never delays a tag command.
+ * The tasks are run in the order of submission, as only one thread is used the IsoDep and the DesfireLight objects
+ * are never used by two threads at the same time.
+ * When a new tag is discovered the pending tasks for the previous tag are dropped with cancelPending().
+ */
+
+public class CardExecutor {
+
+    private static final String TAG = CardExecutor.class.getName();
+    private final ThreadPoolExecutor executor;
+    private volatile Thread cardThread;
+    private volatile long lastTaskDurationNanos;
+
+    public CardExecutor() {
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "CardExecutor");
+            thread.setDaemon(true);
+            cardThread = thread;
+            return thread;
+        });
+    }
+
+    /**
+     * queues the task, an exception thrown by the task is logged and ends the task only
+     *
+     * @param taskName | used for logging
+     * @return the Future of the task, e.g. to wait for the end of the task in tests
+     */
+    public Future<?> submit(String taskName, Runnable task) {
+        return executor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, taskName + " failed with Exception: " + e.getMessage());
+                throw e;
+            } finally {
+                lastTaskDurationNanos = System.nanoTime() - start;
+                Log.d(TAG, taskName + " finished in " + (lastTaskDurationNanos / 1000000) + " ms, queued tasks: " + executor.getQueue().size());
+            }
+        });
+    }
+
+    /**
+     * removes all tasks that are waiting in the queue, a running task is not interrupted
+     *
+     * @return the number of removed tasks
+     */
+    public int cancelPending() {
+        List<Runnable> pendingTasks = new ArrayList<>();
+        executor.getQueue().drainTo(pendingTasks);
+        for (Runnable pendingTask : pendingTasks) {
+            if (pendingTask instanceof Future) {
+                ((Future<?>) pendingTask).cancel(false);
+            }
+        }
+        if (pendingTasks.size() > 0) Log.d(TAG, "cancelled pending tasks: " + pendingTasks.size());
+        return pendingTasks.size();
+    }
+
+    /**
+     * @return true when called by a task on the card thread
+     */
+    public boolean isCardThread() {
+        return Thread.currentThread() == cardThread;
+    }
+
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    public long getLastTaskDurationNanos() {
+        return lastTaskDurationNanos;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,147 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is the declarative description of a card personalization: format the PICC (optional), create one
+ * AES application, create the files and change the application keys (optional).
+ * The layout is compiled once into the list of PersonalizationSteps that the PersonalizationEngine runs for
+ * each card, after the compilation the layout can't be changed anymore.
+ * <p>
+ * The order of the steps is fixed: FORMAT_PICC, CREATE_APPLICATION, SELECT_APPLICATION, the file steps in the
+ * order they were added and at last AUTHENTICATE with the application master key followed by the key changes.
+ * The application master key (key 0) is changed as the last step because the change ends the authenticated
+ * session (ChangeKey case 2).
+ */
+
+public class CardLayout {
+
+    private final String name;
+    private final byte[] applicationIdentifier;
+    private final int numberOfApplicationKeys;
+    private final List<PersonalizationStep> fileSteps = new ArrayList<>();
+    private boolean formatPicc;
+    private byte[] applicationKeyOld;
+    private KeyProvider applicationKeyProvider;
+    private byte applicationKeyVersion;
+    private List<PersonalizationStep> steps; // the compiled layout
+
+    /**
+     * @param name                    | the name of the layout, used in the logs only
+     * @param applicationIdentifier   | the AID of the application (length 3)
+     * @param numberOfApplicationKeys | 1..14
+     */
+    public CardLayout(String name, byte[] applicationIdentifier, int numberOfApplicationKeys) {
+        if ((applicationIdentifier == null) || (applicationIdentifier.length != 3)) {
+            throw new IllegalArgumentException("applicationIdentifier is not of length 3");
+        }
+        if ((numberOfApplicationKeys < 1) || (numberOfApplicationKeys > 14)) {
+            throw new IllegalArgumentException("numberOfApplicationKeys is not in range 1..14");
+        }
+        this.name = name;
+        this.applicationIdentifier = applicationIdentifier.clone();
+        this.numberOfApplicationKeys = numberOfApplicationKeys;
+    }
+
+    /**
+     * format the PICC before the application is created (authentication with the default DES Master Application Key),
+     * this deletes all applications on the card
+     */
+    public CardLayout formatPicc() {
+        checkNotCompiled();
+        this.formatPicc = true;
+        return this;
+    }
+
+    public CardLayout addStandardFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+        return addFileStep(PersonalizationStep.createStandardFile(fileNumber, communicationSettings, accessRights, fileSize));
+    }
+
+    public CardLayout addBackupFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+        return addFileStep(PersonalizationStep.createBackupFile(fileNumber, communicationSettings, accessRights, fileSize));
+    }
+
+    public CardLayout addValueFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue, boolean limitedCreditOperation) {
+        return addFileStep(PersonalizationStep.createValueFile(fileNumber, communicationSettings, accessRights, minimumValue, maximumValue, initialValue, limitedCreditOperation));
+    }
+
+    public CardLayout addLinearRecordFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+        return addFileStep(PersonalizationStep.createLinearRecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords));
+    }
+
+    public CardLayout addCyclicRecordFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+        return addFileStep(PersonalizationStep.createCyclicRecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords));
+    }
+
+    /**
+     * change all application keys at the end of the personalization. The new keys are taken from the key provider
+     * with the UID of the card, e.g. a DiversifiedKeyProvider that gives each card its own keys.
+     *
+     * @param keyOld      | the application keys of a new application (e.g. Constants.APPLICATION_KEY_MASTER_AES_DEFAULT)
+     * @param keyProvider | provides the new application keys
+     * @param keyVersion  | the version of the new keys
+     */
+    public CardLayout changeApplicationKeys(byte[] keyOld, KeyProvider keyProvider, byte keyVersion) {
+        checkNotCompiled();
+        if ((keyOld == null) || (keyOld.length != 16) || (keyProvider == null)) {
+            throw new IllegalArgumentException("keyOld is not of length 16 or keyProvider is NULL");
+        }
+        this.applicationKeyOld = keyOld.clone();
+        this.applicationKeyProvider = keyProvider;
+        this.applicationKeyVersion = keyVersion;
+        return this;
+    }
+
+    private CardLayout addFileStep(PersonalizationStep step) {
+        checkNotCompiled();
+        for (PersonalizationStep fileStep : fileSteps) {
+            if (fileStep.getFileNumber() == step.getFileNumber()) {
+                throw new IllegalArgumentException("the file number " + step.getFileNumber() + " is used twice");
+            }
+        }
+        fileSteps.add(step);
+        return this;
+    }
+
+    private void checkNotCompiled() {
+        if (steps != null) throw new IllegalStateException("the layout " + name + " is already compiled");
+    }
+
+    /**
+     * @return the compiled steps of the layout, the list is created once and can't be modified
+     */
+    public synchronized List<PersonalizationStep> getSteps() {
+        if (steps == null) {
+            List<PersonalizationStep> list = new ArrayList<>();
+            if (formatPicc) list.add(PersonalizationStep.formatPicc());
+            list.add(PersonalizationStep.createApplication(applicationIdentifier, numberOfApplicationKeys));
+            list.add(PersonalizationStep.selectApplication(applicationIdentifier));
+            list.addAll(fileSteps);
+            if (applicationKeyProvider != null) {
+                list.add(PersonalizationStep.authenticate((byte) 0, applicationKeyOld));
+                for (int keyNumber = numberOfApplicationKeys - 1; keyNumber >= 0; keyNumber--) {
+                    list.add(PersonalizationStep.changeApplicationKey((byte) keyNumber, applicationKeyVersion, applicationKeyOld));
+                }
+            }
+            steps = Collections.unmodifiableList(list);
+        }
+        return steps;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getApplicationIdentifier() {
+        return applicationIdentifier.clone();
+    }
+
+    /**
+     * @return the key provider for the new application keys or NULL when the keys are not changed
+     */
+    public KeyProvider getApplicationKeyProvider() {
+        return applicationKeyProvider;
+    }
+}
@@ -0,0 +1,28 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * This interface decides how many bytes of file data are read or written with one command when
+ * readFromADataFile and writeToADataFile split the data in chunks. Each chunk is a complete secure messaging
+ * command (own MAC and IV), so larger chunks mean fewer round trips.
+ * <p>
+ * The communication settings are the values from the file settings:
+ * 0x00 = Plain, 0x01 = MACed, 0x03 = Full enciphered
+ * <p>
+ * Implementations: AdaptiveChunkingPolicy (calculated from the transport and the card's frame size) and
+ * FixedChunkingPolicy (fixed chunk lengths)
+ */
+
+public interface ChunkingPolicy {
+
+    /**
+     * @param communicationSettings | the communication mode of the file
+     * @return the maximum number of file data bytes that are read with one command
+     */
+    int getMaximumReadLength(byte communicationSettings);
+
+    /**
+     * @param communicationSettings | the communication mode of the file
+     * @return the maximum number of file data bytes that are written with one command
+     */
+    int getMaximumWriteLength(byte communicationSettings);
+}
@@ -0,0 +1,93 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * This class describes a file command for the generic command executor (see DesfireLight.executeCommand):
+ * the command byte, the length of the CmdHeader, the direction of the data and the length of the response data.
+ * The communication mode is not part of the descriptor, it is taken from the file settings when the command is
+ * executed, the SecureMessagingEngine does the MAC and encryption for the given mode.
+ * <p>
+ * CmdHeader: send in plain and included in the MAC, e.g. FileNo || Offset || Length
+ * CmdData:   the data that is written, in Communication mode Full it is encrypted
+ * RespData:  the data that is read, in Communication mode Full it is decrypted
+ * <p>
+ * Commands that are part of the Transaction MAC Input (TMI) are marked, see TransactionMacTracker.
+ * <p>
+ * The descriptors are immutable, the table of known commands are the static fields below.
+ */
+
+public class CommandDescriptor {
+
+    public enum DataDirection {
+        NONE, COMMAND, RESPONSE
+    }
+
+    public static final int RESPONSE_DATA_LENGTH_VARIABLE = -1; // the length is given by the caller, e.g. from the CmdHeader
+
+    public static final CommandDescriptor GET_VALUE = new CommandDescriptor("getValue", (byte) 0x6C, 1, DataDirection.RESPONSE, 4, true);
+    public static final CommandDescriptor CREDIT_VALUE = new CommandDescriptor("creditValue", (byte) 0x0C, 1, DataDirection.COMMAND, 0, true);
+    public static final CommandDescriptor DEBIT_VALUE = new CommandDescriptor("debitValue", (byte) 0xDC, 1, DataDirection.COMMAND, 0, true);
+    public static final CommandDescriptor READ_DATA = new CommandDescriptor("readData", (byte) 0xAD, 7, DataDirection.RESPONSE, RESPONSE_DATA_LENGTH_VARIABLE, true);
+    public static final CommandDescriptor WRITE_DATA = new CommandDescriptor("writeData", (byte) 0x8D, 7, DataDirection.COMMAND, 0, true);
+    public static final CommandDescriptor GET_FILE_IDS = new CommandDescriptor("getFileIds", (byte) 0x6F, 0, DataDirection.RESPONSE, RESPONSE_DATA_LENGTH_VARIABLE);
+
+    private final String name;
+    private final byte command;
+    private final int headerLength;
+    private final DataDirection dataDirection;
+    private final int responseDataLength;
+    private final boolean isTransactionMacInput;
+
+    public CommandDescriptor(String name, byte command, int headerLength, DataDirection dataDirection, int responseDataLength) {
+        this(name, command, headerLength, dataDirection, responseDataLength, false);
+    }
+
+    /**
+     * @param name                  | used for logging
+     * @param command               | the command byte (INS)
+     * @param headerLength          | the length of the CmdHeader
+     * @param dataDirection         | COMMAND when CmdData is send, RESPONSE when RespData is received
+     * @param responseDataLength    | the length of RespData without padding or RESPONSE_DATA_LENGTH_VARIABLE
+     * @param isTransactionMacInput | true when the command is appended to the TMI in a transaction
+     */
+    public CommandDescriptor(String name, byte command, int headerLength, DataDirection dataDirection, int responseDataLength, boolean isTransactionMacInput) {
+        if (headerLength < 0) {
+            throw new IllegalArgumentException("headerLength is < 0");
+        }
+        this.name = name;
+        this.command = command;
+        this.headerLength = headerLength;
+        this.dataDirection = dataDirection;
+        this.responseDataLength = responseDataLength;
+        this.isTransactionMacInput = isTransactionMacInput;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte getCommand() {
+        return command;
+    }
+
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    public DataDirection getDataDirection() {
+        return dataDirection;
+    }
+
+    public int getResponseDataLength() {
+        return responseDataLength;
+    }
+
+    public boolean isTransactionMacInput() {
+        return isTransactionMacInput;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandDescriptor " + name + " command: " + Utils.byteToHex(command) + " headerLength: " + headerLength
+                + " dataDirection: " + dataDirection + " responseDataLength: " + responseDataLength;
+    }
+}
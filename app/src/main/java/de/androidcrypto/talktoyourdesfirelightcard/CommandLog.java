@@ -0,0 +1,138 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * This class is a fixed capacity ring buffer for the internal command log of the DESFire classes.
+ * Each entry holds the method name, a message or a label with a reference to a byte array and a timestamp
+ * (System.nanoTime). A method header entry starts a new block that is separated by an empty line in render().
+ * The byte arrays are rendered to hex strings only when the log is read with render(), so logging a byte array
+ * costs just a few field stores.
+ * <p>
+ * Note: the byte arrays are stored by reference, an array that is modified after logging is rendered with
+ * the modified content.
+ * When the log is disabled all log methods return immediately.
+ * When the capacity is reached the oldest entries are overwritten.
+ * <p>
+ * The class is not thread safe.
+ */
+
+public class CommandLog {
+
+    public static final int CAPACITY_DEFAULT = 512;
+
+    private final int capacity;
+    private final String[] methodNames;
+    private final String[] messages; // the message or the label of the byte array
+    private final byte[][] data;
+    private final boolean[] isDataEntry;
+    private final boolean[] isHeaderEntry;
+    private final long[] timestamps;
+    private int next = 0; // position for the next entry
+    private int size = 0;
+    private boolean enabled;
+
+    public CommandLog() {
+        this(CAPACITY_DEFAULT, true);
+    }
+
+    public CommandLog(int capacity, boolean enabled) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity is < 1");
+        }
+        this.capacity = capacity;
+        this.enabled = enabled;
+        methodNames = new String[capacity];
+        messages = new String[capacity];
+        data = new byte[capacity][];
+        isDataEntry = new boolean[capacity];
+        isHeaderEntry = new boolean[capacity];
+        timestamps = new long[capacity];
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void log(String methodName, String message) {
+        if (!enabled) return;
+        add(methodName, message, null, false, false);
+    }
+
+    /**
+     * logs the first entry of a method, e.g. 'started' with the parameters
+     */
+    public void logHeader(String methodName, String message) {
+        if (!enabled) return;
+        add(methodName, message, null, false, true);
+    }
+
+    public void log(String methodName, String label, byte[] data) {
+        if (!enabled) return;
+        add(methodName, label, data, true, false);
+    }
+
+    private void add(String methodName, String message, byte[] dataEntry, boolean isData, boolean isHeader) {
+        methodNames[next] = methodName;
+        messages[next] = message;
+        data[next] = dataEntry;
+        isDataEntry[next] = isData;
+        isHeaderEntry[next] = isHeader;
+        timestamps[next] = System.nanoTime();
+        next = (next + 1) % capacity;
+        if (size < capacity) size++;
+    }
+
+    /**
+     * removes all entries, the references are released when the slots are overwritten
+     */
+    public void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * renders all entries in chronological order in the format 'method: methodName' followed by the message,
+     * each method header starts with an empty line
+     */
+    public String render() {
+        return render(false);
+    }
+
+    /**
+     * renders all entries in chronological order, with includeTimestamps each entry starts with the time
+     * in microseconds since the first entry
+     */
+    public String render(boolean includeTimestamps) {
+        StringBuilder sb = new StringBuilder();
+        int first = (next - size + capacity) % capacity;
+        long startTimestamp = timestamps[first];
+        for (int i = 0; i < size; i++) {
+            int index = (first + i) % capacity;
+            if ((isHeaderEntry[index]) && (i > 0)) {
+                sb.append("\n");
+            }
+            if (includeTimestamps) {
+                sb.append("+").append((timestamps[index] - startTimestamp) / 1000).append("us ");
+            }
+            sb.append("method: ").append(methodNames[index]).append("\n");
+            if (isDataEntry[index]) {
+                sb.append(Utils.printData(messages[index], data[index]));
+            } else {
+                sb.append(messages[index]);
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,284 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class collects per command statistics of the communication with a DESFire tag:
+ * the number of commands, the number of chained frames (0xAF), the bytes send and received, a histogram of the
+ * transceive latency and the time spent in the session crypto (MAC, encryption and decryption with the
+ * SesAuthMACKey and SesAuthENCKey).
+ * <p>
+ * The transceive data is recorded by a MeteredTransport, the crypto time is recorded by DesfireLight.
+ * Crypto time for the command data (MAC and encryption) is done before the command is send, so it is
+ * attributed to the next command, crypto time for the response data is attributed to the last command.
+ * The crypto time is measured with System.nanoTime on the calling thread (the thread CPU time is not
+ * available on all Android versions).
+ * <p>
+ * Use getSnapshot() to get an immutable copy of the statistics, e.g. for exporting to a dashboard.
+ * The class is thread safe, the tag communication and the snapshot can run on different threads.
+ */
+
+public class CommandMetrics {
+
+    /**
+     * the upper bounds of the latency histogram buckets in microseconds, the last bucket takes all larger values
+     */
+    public static final long[] LATENCY_HISTOGRAM_BOUNDS_MICROS = new long[]{500, 1000, 2000, 5000, 10000, 20000, 50000, 100000};
+    private static final byte ADDITIONAL_FRAME = (byte) 0xAF;
+    private static final int NUMBER_OF_COMMANDS = 256;
+
+    private final Counter[] counters = new Counter[NUMBER_OF_COMMANDS];
+    private int lastCommand = -1; // -1 = no command send so far
+    private long pendingCryptoNanos = 0; // crypto time for the next command
+    private long startTimestamp = System.currentTimeMillis();
+
+    /**
+     * records one transceive, a frame with the command 0xAF is recorded as chained frame of the last command
+     *
+     * @param command         | the command byte of the APDU
+     * @param bytesSent       | the length of the command APDU
+     * @param bytesReceived   | the length of the response APDU, 0 when the transceive failed
+     * @param latencyNanos    | the duration of the transceive
+     */
+    public synchronized void recordTransceive(byte command, int bytesSent, int bytesReceived, long latencyNanos) {
+        Counter counter;
+        if ((command == ADDITIONAL_FRAME) && (lastCommand >= 0)) {
+            counter = counters[lastCommand];
+            counter.chainedFrames++;
+        } else {
+            lastCommand = command & 0xff;
+            counter = getCounter(lastCommand);
+            counter.count++;
+            counter.cryptoNanos += pendingCryptoNanos;
+            pendingCryptoNanos = 0;
+        }
+        counter.bytesSent += bytesSent;
+        counter.bytesReceived += bytesReceived;
+        counter.totalLatencyNanos += latencyNanos;
+        if (latencyNanos > counter.maxLatencyNanos) counter.maxLatencyNanos = latencyNanos;
+        counter.latencyHistogram[getHistogramBucket(latencyNanos)]++;
+    }
+
+    /**
+     * records the time spent in the session crypto
+     *
+     * @param cryptoNanos | the duration of the crypto operation
+     * @param isResponse  | true when the response data was processed (MAC verification, decryption), false
+     *                    for the command data (MAC, encryption)
+     */
+    public synchronized void recordCrypto(long cryptoNanos, boolean isResponse) {
+        if (isResponse && (lastCommand >= 0)) {
+            counters[lastCommand].cryptoNanos += cryptoNanos;
+        } else {
+            pendingCryptoNanos += cryptoNanos;
+        }
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < NUMBER_OF_COMMANDS; i++) {
+            counters[i] = null;
+        }
+        lastCommand = -1;
+        pendingCryptoNanos = 0;
+        startTimestamp = System.currentTimeMillis();
+    }
+
+    public synchronized Snapshot getSnapshot() {
+        List<CommandStatistics> commandStatistics = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_COMMANDS; i++) {
+            Counter counter = counters[i];
+            if (counter == null) continue;
+            commandStatistics.add(new CommandStatistics((byte) i, counter));
+        }
+        return new Snapshot(startTimestamp, System.currentTimeMillis(), commandStatistics);
+    }
+
+    private Counter getCounter(int command) {
+        if (counters[command] == null) {
+            counters[command] = new Counter();
+        }
+        return counters[command];
+    }
+
+    private static int getHistogramBucket(long latencyNanos) {
+        long latencyMicros = latencyNanos / 1000;
+        for (int i = 0; i < LATENCY_HISTOGRAM_BOUNDS_MICROS.length; i++) {
+            if (latencyMicros <= LATENCY_HISTOGRAM_BOUNDS_MICROS[i]) return i;
+        }
+        return LATENCY_HISTOGRAM_BOUNDS_MICROS.length;
+    }
+
+    private static class Counter {
+        long count;
+        long chainedFrames;
+        long bytesSent;
+        long bytesReceived;
+        long totalLatencyNanos;
+        long maxLatencyNanos;
+        long cryptoNanos;
+        final long[] latencyHistogram = new long[LATENCY_HISTOGRAM_BOUNDS_MICROS.length + 1];
+    }
+
+    /**
+     * section for the exported statistics
+     */
+
+    /**
+     * the statistics of one command, the counts of the histogram correspond to LATENCY_HISTOGRAM_BOUNDS_MICROS
+     */
+    public static class CommandStatistics {
+        private final byte command;
+        private final long count;
+        private final long chainedFrames;
+        private final long bytesSent;
+        private final long bytesReceived;
+        private final long totalLatencyNanos;
+        private final long maxLatencyNanos;
+        private final long cryptoNanos;
+        private final long[] latencyHistogram;
+
+        private CommandStatistics(byte command, Counter counter) {
+            this.command = command;
+            this.count = counter.count;
+            this.chainedFrames = counter.chainedFrames;
+            this.bytesSent = counter.bytesSent;
+            this.bytesReceived = counter.bytesReceived;
+            this.totalLatencyNanos = counter.totalLatencyNanos;
+            this.maxLatencyNanos = counter.maxLatencyNanos;
+            this.cryptoNanos = counter.cryptoNanos;
+            this.latencyHistogram = counter.latencyHistogram.clone();
+        }
+
+        public byte getCommand() {
+            return command;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getChainedFrames() {
+            return chainedFrames;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        public long getTotalLatencyNanos() {
+            return totalLatencyNanos;
+        }
+
+        public long getMaxLatencyNanos() {
+            return maxLatencyNanos;
+        }
+
+        public long getAverageLatencyNanos() {
+            long frames = count + chainedFrames;
+            if (frames == 0) return 0;
+            return totalLatencyNanos / frames;
+        }
+
+        public long getCryptoNanos() {
+            return cryptoNanos;
+        }
+
+        public long[] getLatencyHistogram() {
+            return latencyHistogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("command: ").append(Utils.byteToHex(command));
+            sb.append(" count: ").append(count);
+            sb.append(" chainedFrames: ").append(chainedFrames);
+            sb.append(" bytesSent: ").append(bytesSent);
+            sb.append(" bytesReceived: ").append(bytesReceived);
+            sb.append(" totalLatencyUs: ").append(totalLatencyNanos / 1000);
+            sb.append(" maxLatencyUs: ").append(maxLatencyNanos / 1000);
+            sb.append(" cryptoUs: ").append(cryptoNanos / 1000);
+            sb.append(" histogram: ");
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                if (i > 0) sb.append(",");
+                sb.append(latencyHistogram[i]);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * an immutable copy of the statistics of all commands that were send since the start or the last reset
+     */
+    public static class Snapshot {
+        private final long startTimestamp;
+        private final long snapshotTimestamp;
+        private final List<CommandStatistics> commandStatistics;
+
+        private Snapshot(long startTimestamp, long snapshotTimestamp, List<CommandStatistics> commandStatistics) {
+            this.startTimestamp = startTimestamp;
+            this.snapshotTimestamp = snapshotTimestamp;
+            this.commandStatistics = Collections.unmodifiableList(commandStatistics);
+        }
+
+        /**
+         * @return the time of the start or the last reset in milliseconds (System.currentTimeMillis)
+         */
+        public long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        public long getSnapshotTimestamp() {
+            return snapshotTimestamp;
+        }
+
+        /**
+         * @return the statistics ordered by the command byte
+         */
+        public List<CommandStatistics> getCommandStatistics() {
+            return commandStatistics;
+        }
+
+        /**
+         * @return the statistics of the command or NULL if the command was not send
+         */
+        public CommandStatistics getCommandStatistics(byte command) {
+            for (CommandStatistics statistics : commandStatistics) {
+                if (statistics.getCommand() == command) return statistics;
+            }
+            return null;
+        }
+
+        public long getTotalLatencyNanos() {
+            long total = 0;
+            for (CommandStatistics statistics : commandStatistics) {
+                total += statistics.getTotalLatencyNanos();
+            }
+            return total;
+        }
+
+        public long getTotalCryptoNanos() {
+            long total = 0;
+            for (CommandStatistics statistics : commandStatistics) {
+                total += statistics.getCryptoNanos();
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("CommandMetrics snapshot, duration ms: ").append(snapshotTimestamp - startTimestamp).append("\n");
+            for (CommandStatistics statistics : commandStatistics) {
+                sb.append(statistics.toString()).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+}
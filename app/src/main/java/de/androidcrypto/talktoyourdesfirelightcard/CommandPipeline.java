@@ -0,0 +1,148 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class builds the next secure messaging command of a batch on a worker thread while the current command
+ * is transceived. The CmdCounter and the TI are deterministic, so the MAC input, IV, encryption and MAC of the
+ * next command can be calculated before the response of the current command arrives.
+ * <p>
+ * The worker has its own SecureMessagingEngine for the session as the engine is not thread safe. A precomputed
+ * command is only used when take() is called for the same command (the CmdHeader array) and the same CmdCounter,
+ * in any other case or after discard() it is thrown away and the caller builds the command itself.
+ * <p>
+ * Only one command is precomputed at a time. All methods except the task itself run on the caller's thread.
+ * <p>
+ * All pipelines share one worker thread that ends after WORKER_KEEP_ALIVE_SECONDS without a task, so a new
+ * DesfireLight per tap with an enabled pipeline does not leave an idle thread behind. The worker engine of a
+ * pipeline is only touched by the tasks on this thread.
+ */
+
+public class CommandPipeline {
+
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 10;
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    private SecureMessagingEngine workerEngine; // used by the worker thread only
+    private Object workerSession; // the session the worker engine belongs to
+    private Future<byte[]> pendingCommand;
+    private byte[] pendingHeader;
+    private int pendingCmdCounter;
+    private int numberOfHits;
+    private int numberOfMisses;
+    private boolean isClosed;
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, "CommandPipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * starts building a command on the worker thread, a command that was not taken before is discarded
+     *
+     * @param session       | identifies the session, e.g. the SecureMessagingEngine of the card class
+     * @param sesAuthEncKey | the SesAuthENCKey of the session
+     * @param sesAuthMacKey | the SesAuthMACKey of the session
+     * @param ti            | the TI of the session
+     * @param command       | the command byte
+     * @param cmdCounter    | the CmdCounter the command is build with (before the increase)
+     * @param header        | the CmdHeader, used as key in take()
+     * @param data          | the CmdData or NULL
+     * @param mode          | COMMUNICATION_MODE_MACED or _FULL
+     */
+    public void submit(final Object session, byte[] sesAuthEncKey, byte[] sesAuthMacKey, byte[] ti, final byte command,
+                       final int cmdCounter, final byte[] header, final byte[] data, final byte mode) {
+        if (isClosed) throw new IllegalStateException("the pipeline is closed");
+        discard();
+        final byte[] encKey = sesAuthEncKey.clone();
+        final byte[] macKey = sesAuthMacKey.clone();
+        final byte[] transactionIdentifier = ti.clone();
+        pendingHeader = header;
+        pendingCmdCounter = cmdCounter;
+        pendingCommand = EXECUTOR.submit(() -> {
+            if (workerSession != session) {
+                workerEngine = new SecureMessagingEngine(encKey, macKey, transactionIdentifier);
+                workerSession = session;
+            }
+            return workerEngine.buildCommand(command, cmdCounter, header, data, mode);
+        });
+    }
+
+    /**
+     * returns the precomputed command when it was submitted for the same header and CmdCounter, waits for the
+     * worker if the command is not ready yet
+     *
+     * @return the command data (CmdHeader || (Encrypted) CmdData || MAC) or NULL
+     */
+    public byte[] take(byte[] header, int cmdCounter) {
+        if (pendingCommand == null) return null;
+        if ((pendingHeader != header) || (pendingCmdCounter != cmdCounter)) {
+            discard();
+            numberOfMisses++;
+            return null;
+        }
+        Future<byte[]> command = pendingCommand;
+        pendingCommand = null;
+        pendingHeader = null;
+        try {
+            byte[] commandData = command.get();
+            numberOfHits++;
+            return commandData;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // e.g. GeneralSecurityException on creating the worker engine, the caller builds the command
+        }
+        numberOfMisses++;
+        return null;
+    }
+
+    /**
+     * discards a submitted command, e.g. after a failed command
+     */
+    public void discard() {
+        if (pendingCommand != null) {
+            pendingCommand.cancel(false);
+            pendingCommand = null;
+            pendingHeader = null;
+        }
+    }
+
+    /**
+     * @return the number of commands that were used
+     */
+    public int getNumberOfHits() {
+        return numberOfHits;
+    }
+
+    /**
+     * @return the number of commands that were discarded on take() or could not be built
+     */
+    public int getNumberOfMisses() {
+        return numberOfMisses;
+    }
+
+    /**
+     * discards a submitted command and releases the worker engine with the session keys, the pipeline can not
+     * be used afterwards. The shared worker thread ends by itself when it is idle.
+     */
+    public void close() {
+        if (isClosed) return;
+        isClosed = true;
+        discard();
+        EXECUTOR.execute(() -> {
+            workerEngine = null;
+            workerSession = null;
+        });
+    }
+}
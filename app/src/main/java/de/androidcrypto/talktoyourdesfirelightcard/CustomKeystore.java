@@ -15,27 +15,29 @@ import androidx.security.crypto.MasterKeys;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.security.cert.CertificateException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
- * This class is responsible for secure storage of Mifare DES and AES-128 keys in a Bouncy Castle Keystore (BKS).
+ * This class is responsible for secure storage of Mifare DES and AES-128 keys in an encrypted key file (see MappedKeyStore).
+ * Former versions used a Bouncy Castle Keystore (BKS), its keys are imported once on first use.
  * For the first setup a 'passphrase' is used to derive the keystore password using 'initialize(char[] passphrase)'.
  * The derived keystore password is stored in Encrypted Shared Preferences but the salt is stored in 'Standard' = unencrypted Shared Preferences.
  * The reason for that is simple: if the app & keystore is part of the regular Google Drive backup the Encrypted Shared Preferences don't get part
@@ -51,9 +53,27 @@ import javax.crypto.spec.SecretKeySpec;
  * 4) store a secret key (DES or AES) by providing the key number
  * 5) read a secret key (DES or AES) by providing the key number, return is null when key is not present
  * 6) getKeystoreAliases() returns a List<String> containing all stored key aliases ('key_x')
+ * 7) keys with other aliases (e.g. diversified keys) are stored and read by 'storeKey(alias, key)' and 'readKey(alias)',
+ * use 'storeKeys' to store thousands of keys with one write
+ * <p>
+ * The key file is append-only and memory mapped: a store appends one record and a read decrypts one record found by
+ * an in-memory index instead of loading (and rewriting) the whole keystore. The MappedKeyStore is shared by all
+ * instances of this class and compacted when it holds more overwritten keys than live keys.
  * <p>
  * For recovery reasons you can re-enter the passphrase and the keystore password is derived using 'recoveryInitialization(char[] passphrase)'
  * <p>
+ * The PBKDF2 derivation takes some hundred milliseconds, use 'initializeAsync' and 'recoveryInitializationAsync' to run
+ * it on a background thread. The number of PBKDF2 iterations can be adapted to the speed of the device with
+ * 'calibratePbkdf2Iterations(targetDurationMillis)', the calibrated number is stored in the Shared Preferences and used
+ * by the next 'initialize'. The number of iterations used for the keystore password is stored with the salt, so a
+ * recalibration does not break 'recoveryInitialization'.
+ * <p>
+ * The keys read by 'readKey' are kept in an in-memory cache for KEY_CACHE_MAXIMUM_AGE_MILLIS, so a following
+ * 'readKey' for the same key does not need to read and decrypt the key file again. The cache is shared by
+ * all instances of the class (a new instance is created on each use), the cached keys are wiped on expiry (all
+ * expired keys are removed on each access of the cache), on eviction, on 'storeKey' for the key and on
+ * 'clearKeyCache' (e.g. call it in onPause of the activity), see ExpiringKeyCache.
+ * <p>
  * Call 'lastErrorMessage' is you want to know why an operation failed
  * <p>
  * The minimum Android SDK version is 23 (M) due to Encrypted Shared Preferences (minimum SDK 23)
@@ -63,15 +83,20 @@ public class CustomKeystore {
 
     private static final String TAG = CustomKeystore.class.getName();
     private final String keystoreType = "BKS"; // Bouncy Castle Keystore, available on Android SDK 1+
-    private final String keystoreFileName = "customkeystore.bks"; // located in internal storage / files
+    private final String keystoreFileName = "customkeystore.bks"; // former BKS keystore, imported to the key file
+    private final String keyFileName = "customkeystore.keys"; // located in internal storage / files
     private char[] keystorePassword;
     private byte[] keystorePasswordBytes;
     private final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
-    private int PBKDF2_NUMBER_ITERATIONS = 10000;
+    private static final int PBKDF2_NUMBER_ITERATIONS_DEFAULT = 10000;
+    private static final int PBKDF2_NUMBER_ITERATIONS_MINIMUM = 10000; // the calibration never goes below this number
+    private static final int PBKDF2_NUMBER_ITERATIONS_MAXIMUM = 1000000;
+    private static final int PBKDF2_CALIBRATION_ITERATIONS = 2000; // number of iterations for one calibration run
+    public static final long PBKDF2_TARGET_DURATION_MILLIS_DEFAULT = 300;
+    private int PBKDF2_NUMBER_ITERATIONS = PBKDF2_NUMBER_ITERATIONS_DEFAULT;
     private byte[] PBKDF2_SALT_BYTES;
     private final int PBKDF2_KEY_LENGTH = 256;
     private final String keyAlias = "key_";
-    private boolean isKeyAes = false;
 
     /**
      * section for shared preferences
@@ -80,6 +105,8 @@ public class CustomKeystore {
     private final String UNENCRYPTED_PREFERENCES_FILENAME = "custom_keystore_prefs";
     private final String PBKDF2_SALT = "pbkdf2_salt";
     private final String PBKDF2_ITERATIONS = "pbkdf2_iterations";
+    private final String PBKDF2_CALIBRATED_ITERATIONS = "pbkdf2_calibrated_iterations";
+    private final String PBKDF2_CALIBRATION_TARGET_MILLIS = "pbkdf2_calibration_target_millis";
 
     /**
      * section for encrypted shared preferences
@@ -89,6 +116,32 @@ public class CustomKeystore {
     private final String ENCRYPTED_PREFERENCES_FILENAME = "encrypted_custom_keystore_prefs";
     private final String KEYSTORE_PASSWORD_STORAGE = "keystore_password";
 
+    /**
+     * section for the in-memory key cache
+     */
+    private static final int KEY_CACHE_MAXIMUM_NUMBER_OF_ENTRIES = 16;
+    private static final long KEY_CACHE_MAXIMUM_AGE_MILLIS = 5 * 60 * 1000; // 5 minutes
+    private static final ExpiringKeyCache keyCache = new ExpiringKeyCache(KEY_CACHE_MAXIMUM_NUMBER_OF_ENTRIES, KEY_CACHE_MAXIMUM_AGE_MILLIS);
+    private static MappedKeyStore mappedKeyStore; // shared by all instances, see getMappedKeyStore
+
+    /**
+     * section for the background unlock
+     */
+    // one thread for all instances, so two unlocks never run in parallel
+    private static final ExecutorService unlockExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CustomKeystoreUnlock");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * the callback of initializeAsync, recoveryInitializationAsync and calibratePbkdf2IterationsAsync, it is called on
+     * the background thread, use runOnUiThread to update the UI
+     */
+    public interface UnlockCallback {
+        void onUnlockFinished(boolean success, String message);
+    }
+
     /**
      * general use
      */
@@ -135,11 +188,7 @@ public class CustomKeystore {
             lastErrorMessage = "Exception: " + e.getMessage();
             return;
         }
-        // generate keystore file
-        if (!isFilePresent(keystoreFileName)) {
-            boolean crSuc = createKeyStore();
-            Log.d(TAG, "create keystore success ? : " + crSuc);
-        }
+        // the key file is created on first use
         checkIsLibraryInitialized();
         Log.d(TAG, "initialized");
         if (isLibraryInitialized) {
@@ -158,6 +207,8 @@ public class CustomKeystore {
             lastErrorMessage = "The minimum Android SDK version is below 23 (M), aborted";
             return false;
         }
+        // a new keystore password uses the calibrated number of iterations (if present)
+        PBKDF2_NUMBER_ITERATIONS = getPbkdf2CalibratedNumberIterations();
         try {
             SecureRandom secureRandom = new SecureRandom();
             PBKDF2_SALT_BYTES = new byte[32];
@@ -188,6 +239,7 @@ public class CustomKeystore {
                 .apply();
         //keystorePassword = bytesToChars(keystorePasswordBytes);
         keystorePassword = convertByteArrayToCharArray(keystorePasswordBytes);
+        clearKeyCache();
         isLibraryInitialized = true;
         lastErrorMessage = "library is initialized";
         return true;
@@ -237,6 +289,7 @@ public class CustomKeystore {
                 .putString(KEYSTORE_PASSWORD_STORAGE, base64Encoding(keystorePasswordBytes))
                 .apply();
         keystorePassword = convertByteArrayToCharArray(keystorePasswordBytes);
+        clearKeyCache();
         isLibraryInitialized = true;
         lastErrorMessage = "library is initialized, the derived keystore password is restored";
         return true;
@@ -251,6 +304,14 @@ public class CustomKeystore {
         }
     }
 
+    private int getPbkdf2CalibratedNumberIterations() {
+        int iterations = sharedPreferences.getInt(PBKDF2_CALIBRATED_ITERATIONS, -1);
+        if (iterations < PBKDF2_NUMBER_ITERATIONS_MINIMUM) {
+            return PBKDF2_NUMBER_ITERATIONS_DEFAULT;
+        }
+        return iterations;
+    }
+
     private boolean getPbkdf2Salt() {
         String data = sharedPreferences.getString(PBKDF2_SALT, "");
         if (!TextUtils.isEmpty(data)) {
@@ -289,29 +350,90 @@ public class CustomKeystore {
      * section for keystore handling
      */
 
-    private boolean createKeyStore() {
-        boolean keystorePasswordAvailable = getKeystorePasswordBytes();
-        if (!keystorePasswordAvailable) {
-            Log.e(TAG, "No keystorePassword present, aborted: " + keystoreFileName);
-            return false;
+    /**
+     * returns the MappedKeyStore that is shared by all instances of this class, it is opened on first use and reopened
+     * when the keystore password changed. The keys of an existing BKS keystore file are imported once and the BKS
+     * file is deleted afterwards.
+     *
+     * @return the MappedKeyStore or NULL on failure (see lastErrorMessage)
+     */
+    private MappedKeyStore getMappedKeyStore() {
+        if ((keystorePasswordBytes == null) && (!getKeystorePasswordBytes())) {
+            Log.e(TAG, "No keystorePassword present, aborted: " + keyFileName);
+            lastErrorMessage = "No keystorePassword present, aborted: " + keyFileName;
+            return null;
+        }
+        synchronized (CustomKeystore.class) {
+            if (mappedKeyStore != null) {
+                if (mappedKeyStore.isOpenedWith(keystorePasswordBytes)) return mappedKeyStore;
+                mappedKeyStore.close();
+                mappedKeyStore = null;
+                clearKeyCache();
+            }
+            try {
+                MappedKeyStore keyStore = MappedKeyStore.open(new File(context.getFilesDir(), keyFileName), keystorePasswordBytes);
+                if (isFilePresent(keystoreFileName)) {
+                    migrateBksKeystore(keyStore);
+                }
+                mappedKeyStore = keyStore;
+                return keyStore;
+            } catch (IOException | GeneralSecurityException e) {
+                Log.e(TAG, "Exception on opening the key file, aborted");
+                Log.e(TAG, "Exception: " + e.getMessage());
+                lastErrorMessage = "Exception: " + e.getMessage();
+                return null;
+            }
         }
-        KeyStore ks = null;
+    }
+
+    /**
+     * imports all keys of the BKS keystore file used by former versions of this class, a key that is already present
+     * in the key file is newer and not overwritten. The BKS file is deleted when the import was successful.
+     */
+    private void migrateBksKeystore(MappedKeyStore keyStore) {
+        Map<String, byte[]> keys = new LinkedHashMap<>();
         try {
-            ks = KeyStore.getInstance(keystoreType);
-            ks.load(null, keystorePassword);
-            FileOutputStream fos = context.openFileOutput(keystoreFileName, Context.MODE_PRIVATE);
-            ks.store(fos, keystorePassword);
-            return true;
-        } catch (KeyStoreException | CertificateException | IOException |
-                 NoSuchAlgorithmException e) {
-            Log.e(TAG, "Exception: " + e.getMessage());
-            lastErrorMessage = "Exception: " + e.getMessage();
-            return false;
+            KeyStore bksKeyStore = KeyStore.getInstance(keystoreType);
+            FileInputStream fileInputStream = context.openFileInput(keystoreFileName);
+            try {
+                bksKeyStore.load(fileInputStream, keystorePassword);
+            } finally {
+                fileInputStream.close();
+            }
+            KeyStore.ProtectionParameter protectionParam = new KeyStore.PasswordProtection(keystorePassword);
+            Enumeration<String> aliases = bksKeyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                if (keyStore.containsAlias(alias)) continue;
+                KeyStore.Entry entry = bksKeyStore.getEntry(alias, protectionParam);
+                if (entry instanceof KeyStore.SecretKeyEntry) {
+                    keys.put(alias, ((KeyStore.SecretKeyEntry) entry).getSecretKey().getEncoded());
+                }
+            }
+            keyStore.putKeys(keys);
+        } catch (IOException | GeneralSecurityException e) {
+            // the BKS file is kept and the import is tried again on the next start
+            Log.e(TAG, "Exception on the migration of the BKS keystore: " + e.getMessage());
+            return;
+        } finally {
+            for (byte[] key : keys.values()) {
+                Arrays.fill(key, (byte) 0x00);
+            }
         }
+        boolean deleted = new File(context.getFilesDir(), keystoreFileName).delete();
+        Log.d(TAG, "migrated " + keys.size() + " keys from the BKS keystore, BKS file deleted: " + deleted);
     }
 
     @RequiresApi(api = Build.VERSION_CODES.M)
     public boolean storeKey(byte keyNumber, byte[] key) {
+        return storeKey(keyAlias + keyNumber, key);
+    }
+
+    /**
+     * stores the key under any alias, e.g. for diversified or master keys ('key_x' is used for the key numbers)
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public boolean storeKey(String alias, byte[] key) {
         if (isAndroidSdkVersionTooLow) {
             Log.e(TAG, "The minimum Android SDK version is below 23 (M), aborted");
             lastErrorMessage = "The minimum Android SDK version is below 23 (M), aborted";
@@ -328,46 +450,22 @@ public class CustomKeystore {
             lastErrorMessage = "key length is not 8 or 16, aborted";
             return false;
         }
-        if (key.length == 16) isKeyAes = true;
-        // build alias name
-        StringBuilder sb = new StringBuilder();
-        sb.append(keyAlias);
-        sb.append(keyNumber);
-        String alias = sb.toString();
-        Log.d(TAG, "alias: " + alias);
-        boolean keystorePasswordAvailable = getKeystorePasswordBytes();
-        if (!keystorePasswordAvailable) {
-            Log.e(TAG, "No keystorePassword present, aborted: " + keystoreFileName);
-            lastErrorMessage = "No keystorePassword present, aborted: " + keystoreFileName;
-            return false;
-        }
-        if (!isFilePresent(keystoreFileName)) {
-            Log.e(TAG, "No keystoreFile present, aborted: " + keystoreFileName);
-            lastErrorMessage = "No keystoreFile present, aborted: " + keystoreFileName;
+        if (TextUtils.isEmpty(alias)) {
+            Log.e(TAG, "alias is NULL or empty, aborted");
+            lastErrorMessage = "alias is NULL or empty, aborted";
             return false;
         }
+        Log.d(TAG, "alias: " + alias);
+        // the cached key is outdated, even when the storage fails
+        removeCachedKey(alias);
+        MappedKeyStore keyStore = getMappedKeyStore();
+        if (keyStore == null) return false;
         try {
-            SecretKey secretKey;
-            if (isKeyAes) {
-                secretKey = new SecretKeySpec(key, "AES");
-            } else {
-                secretKey = new SecretKeySpec(key, "DES");
-            }
-            KeyStore keyStore = KeyStore.getInstance(keystoreType);
-            FileInputStream fileInputStream = context.openFileInput(keystoreFileName);
-            keyStore.load(fileInputStream, keystorePassword);
-
             if (keyStore.containsAlias(alias)) {
                 Log.d(TAG, "alias is present in keyStore, overwritten: " + alias);
             }
-            //Creating the KeyStore.ProtectionParameter object
-            KeyStore.ProtectionParameter protectionParam = new KeyStore.PasswordProtection(keystorePassword);
-            //Creating SecretKeyEntry object
-            KeyStore.SecretKeyEntry secretKeyEntry = new KeyStore.SecretKeyEntry(secretKey);
-            keyStore.setEntry(alias, secretKeyEntry, protectionParam);
+            keyStore.putKey(alias, key);
             Log.d(TAG, "key is stored");
-            FileOutputStream fos = context.openFileOutput(keystoreFileName, Context.MODE_PRIVATE);
-            keyStore.store(fos, keystorePassword);
             lastErrorMessage = "key is stored";
             return true;
         } catch (IOException | GeneralSecurityException e) {
@@ -378,86 +476,232 @@ public class CustomKeystore {
         }
     }
 
+    /**
+     * stores all keys with one write to the key file, use this for bulk imports (e.g. thousands of diversified keys)
+     *
+     * @param keys | alias and key (length 8 or 16)
+     * @return true on success
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public boolean storeKeys(Map<String, byte[]> keys) {
+        if (isAndroidSdkVersionTooLow) {
+            Log.e(TAG, "The minimum Android SDK version is below 23 (M), aborted");
+            lastErrorMessage = "The minimum Android SDK version is below 23 (M), aborted";
+            return false;
+        }
+        for (Map.Entry<String, byte[]> entry : keys.entrySet()) {
+            byte[] key = entry.getValue();
+            if ((TextUtils.isEmpty(entry.getKey())) || (key == null) || ((key.length != 8) && (key.length != 16))) {
+                Log.e(TAG, "alias is empty or key length is not 8 or 16, aborted");
+                lastErrorMessage = "alias is empty or key length is not 8 or 16, aborted";
+                return false;
+            }
+            removeCachedKey(entry.getKey());
+        }
+        MappedKeyStore keyStore = getMappedKeyStore();
+        if (keyStore == null) return false;
+        try {
+            keyStore.putKeys(keys);
+            lastErrorMessage = "keys are stored: " + keys.size();
+            return true;
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(TAG, "Exception on keystore usage, aborted");
+            Log.e(TAG, "Exception: " + e.getMessage());
+            lastErrorMessage = "Exception: " + e.getMessage();
+            return false;
+        }
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.M)
     public byte[] readKey(byte keyNumber) {
+        return readKey(keyAlias + keyNumber);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public byte[] readKey(String alias) {
         if (isAndroidSdkVersionTooLow) {
             Log.e(TAG, "The minimum Android SDK version is below 23 (M), aborted");
             lastErrorMessage = "The minimum Android SDK version is below 23 (M), aborted";
             return null;
         }
-        Log.d(TAG, "readKey");
-        // build alias name
-        StringBuilder sb = new StringBuilder();
-        sb.append(keyAlias);
-        sb.append(keyNumber);
-        String alias = sb.toString();
         Log.d(TAG, "readKey, alias: " + alias);
-        boolean keystorePasswordAvailable = getKeystorePasswordBytes();
-        if (!keystorePasswordAvailable) {
-            Log.e(TAG, "No keystorePassword present, aborted: " + keystoreFileName);
-            lastErrorMessage = "No keystorePassword present, aborted: " + keystoreFileName;
-            return null;
+        byte[] cachedKey = getCachedKey(alias);
+        if (cachedKey != null) {
+            Log.d(TAG, "readKey, alias " + alias + " found in key cache");
+            lastErrorMessage = "success";
+            return cachedKey;
         }
-        if (!isFilePresent(keystoreFileName)) {
-            Log.d(TAG, "No keystoreFile present, aborted: " + keystoreFileName);
-            lastErrorMessage = "No keystoreFile present, aborted: " + keystoreFileName;
-            return null;
-        } else {
-            try {
-                KeyStore keyStore = KeyStore.getInstance(keystoreType);
-                FileInputStream fileInputStream = context.openFileInput(keystoreFileName);
-                keyStore.load(fileInputStream, keystorePassword);
-                //Creating the KeyStore.ProtectionParameter object
-                KeyStore.ProtectionParameter protectionParam = new KeyStore.PasswordProtection(keystorePassword);
-                // Creating the KeyStore.SecretKeyEntry object
-                KeyStore.SecretKeyEntry secretKeyEnt = (KeyStore.SecretKeyEntry) keyStore.getEntry(alias, protectionParam);
-                // Creating SecretKey object
-                if (secretKeyEnt == null) {
-                    Log.e(TAG, "no entry found, aborted");
-                    lastErrorMessage = "no entry found, aborted";
-                    return null;
-                }
-                SecretKey secretKey = secretKeyEnt.getSecretKey();
-                Log.d(TAG, "Algorithm used to generate key : " + secretKey.getAlgorithm());
-                byte[] retrievedKey = secretKey.getEncoded();
-                lastErrorMessage = "success";
-                return retrievedKey;
-            } catch (IOException | GeneralSecurityException e) {
-                Log.e(TAG, "Exception on keystore usage, aborted");
-                Log.e(TAG, "Exception: " + e.getMessage());
-                lastErrorMessage = "Exception: " + e.getMessage();
+        MappedKeyStore keyStore = getMappedKeyStore();
+        if (keyStore == null) return null;
+        try {
+            byte[] retrievedKey = keyStore.getKey(alias);
+            if (retrievedKey == null) {
+                Log.e(TAG, "no entry found, aborted");
+                lastErrorMessage = "no entry found, aborted";
                 return null;
             }
+            putCachedKey(alias, retrievedKey);
+            lastErrorMessage = "success";
+            return retrievedKey;
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Exception on keystore usage, aborted");
+            Log.e(TAG, "Exception: " + e.getMessage());
+            lastErrorMessage = "Exception: " + e.getMessage();
+            return null;
         }
     }
 
     public List<String> getKeystoreAliases() {
         Log.d(TAG, "getKeystoreAliases");
-        if (!isFilePresent(keystoreFileName)) {
-            Log.d(TAG, "No keystoreFile present, aborted: " + keystoreFileName);
-            return null;
-        } else {
+        MappedKeyStore keyStore = getMappedKeyStore();
+        if (keyStore == null) return null;
+        List<String> list = keyStore.getAliases();
+        Collections.sort(list);
+        Log.d(TAG, "list has entries: " + list.size());
+        lastErrorMessage = "success, list has entries: " + list.size();
+        return list;
+    }
+
+    /**
+     * section for background unlock and PBKDF2 calibration
+     */
+
+    /**
+     * runs initialize on a background thread, don't use this instance until the callback is called
+     *
+     * @param passphrase | is wiped after the derivation
+     * @param callback   | can be NULL
+     * @return the Future with the result of initialize
+     */
+    public Future<Boolean> initializeAsync(char[] passphrase, UnlockCallback callback) {
+        final char[] passphraseCopy = passphrase.clone();
+        return unlockExecutor.submit(() -> {
+            boolean success;
             try {
-                KeyStore keyStore = KeyStore.getInstance(keystoreType);
-                FileInputStream fileInputStream = context.openFileInput(keystoreFileName);
-                keyStore.load(fileInputStream, keystorePassword);
-
-                Enumeration<String> aliases = keyStore.aliases();
-                List<String> list = new ArrayList<>();
-                while (aliases.hasMoreElements()) {
-                    String ne = aliases.nextElement();
-                    list.add(ne);
-                }
-                Log.d(TAG, "list has entries: " + list.size());
-                lastErrorMessage = "success, list has entries: " + list.size();
-                return list;
-            } catch (IOException | GeneralSecurityException e) {
-                Log.e(TAG, "Exception on keystore usage, aborted");
-                Log.e(TAG, "Exception: " + e.getMessage());
-                lastErrorMessage = "Exception: " + e.getMessage();
-                return null;
+                success = initialize(passphraseCopy);
+            } finally {
+                Arrays.fill(passphraseCopy, (char) 0);
             }
+            if (callback != null) callback.onUnlockFinished(success, lastErrorMessage);
+            return success;
+        });
+    }
+
+    /**
+     * runs recoveryInitialization on a background thread, don't use this instance until the callback is called
+     *
+     * @param passphrase | is wiped after the derivation
+     * @param callback   | can be NULL
+     * @return the Future with the result of recoveryInitialization
+     */
+    public Future<Boolean> recoveryInitializationAsync(char[] passphrase, UnlockCallback callback) {
+        final char[] passphraseCopy = passphrase.clone();
+        return unlockExecutor.submit(() -> {
+            boolean success;
+            try {
+                success = recoveryInitialization(passphraseCopy);
+            } finally {
+                Arrays.fill(passphraseCopy, (char) 0);
+            }
+            if (callback != null) callback.onUnlockFinished(success, lastErrorMessage);
+            return success;
+        });
+    }
+
+    /**
+     * runs calibratePbkdf2Iterations on a background thread
+     *
+     * @param callback | can be NULL, the message contains the number of iterations
+     * @return the Future with the calibrated number of iterations or -1 on failure
+     */
+    public Future<Integer> calibratePbkdf2IterationsAsync(long targetDurationMillis, UnlockCallback callback) {
+        return unlockExecutor.submit(() -> {
+            int iterations = calibratePbkdf2Iterations(targetDurationMillis);
+            if (callback != null) callback.onUnlockFinished((iterations > 0), lastErrorMessage);
+            return iterations;
+        });
+    }
+
+    /**
+     * measures the speed of the PBKDF2 derivation on this device and calculates the number of iterations that takes
+     * about targetDurationMillis (minimum 10000, maximum 1000000 iterations). The number is stored in the Shared
+     * Preferences and used by the next initialize, an existing keystore password is not changed.
+     * Note: this takes about the targetDurationMillis, run it on a background thread (calibratePbkdf2IterationsAsync)
+     *
+     * @param targetDurationMillis | the duration of one key derivation, e.g. PBKDF2_TARGET_DURATION_MILLIS_DEFAULT
+     * @return the calibrated number of iterations or -1 on failure
+     */
+    public int calibratePbkdf2Iterations(long targetDurationMillis) {
+        lastErrorMessage = "";
+        if (isAndroidSdkVersionTooLow) {
+            Log.e(TAG, "The minimum Android SDK version is below 23 (M), aborted");
+            lastErrorMessage = "The minimum Android SDK version is below 23 (M), aborted";
+            return -1;
+        }
+        if (targetDurationMillis < 1) {
+            Log.e(TAG, "targetDurationMillis is < 1, aborted");
+            lastErrorMessage = "targetDurationMillis is < 1, aborted";
+            return -1;
         }
+        long durationNanos;
+        try {
+            SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
+            char[] passphrase = "calibration".toCharArray();
+            byte[] salt = new byte[32];
+            // the first run warms up the provider, the fastest of the following runs is taken
+            secretKeyFactory.generateSecret(new PBEKeySpec(passphrase, salt, PBKDF2_CALIBRATION_ITERATIONS, PBKDF2_KEY_LENGTH));
+            durationNanos = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                secretKeyFactory.generateSecret(new PBEKeySpec(passphrase, salt, PBKDF2_CALIBRATION_ITERATIONS, PBKDF2_KEY_LENGTH));
+                durationNanos = Math.min(durationNanos, System.nanoTime() - start);
+            }
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            Log.e(TAG, "Exception: " + e.getMessage());
+            lastErrorMessage = "Exception on PBKDF2 calibration: " + e.getMessage();
+            return -1;
+        }
+        durationNanos = Math.max(durationNanos, 1);
+        long iterations = PBKDF2_CALIBRATION_ITERATIONS * targetDurationMillis * 1000000L / durationNanos;
+        // round to full thousands
+        iterations = (iterations / 1000) * 1000;
+        iterations = Math.max(PBKDF2_NUMBER_ITERATIONS_MINIMUM, Math.min(PBKDF2_NUMBER_ITERATIONS_MAXIMUM, iterations));
+        try {
+            sharedPreferences.edit()
+                    .putInt(PBKDF2_CALIBRATED_ITERATIONS, (int) iterations)
+                    .putLong(PBKDF2_CALIBRATION_TARGET_MILLIS, targetDurationMillis)
+                    .apply();
+        } catch (Exception e) {
+            Log.e(TAG, "Error on storage of calibrated iterations: " + e.getMessage());
+            lastErrorMessage = "Exception: " + e.getMessage();
+            return -1;
+        }
+        Log.d(TAG, "PBKDF2 calibration: " + PBKDF2_CALIBRATION_ITERATIONS + " iterations in " + (durationNanos / 1000) + " us, calibrated iterations: " + iterations);
+        lastErrorMessage = "PBKDF2 calibrated iterations: " + iterations;
+        return (int) iterations;
+    }
+
+    /**
+     * section for key cache
+     */
+
+    /**
+     * removes and wipes all keys in the in-memory key cache, the next readKey loads the keys from the keystore file
+     */
+    public static void clearKeyCache() {
+        keyCache.clear();
+    }
+
+    private static byte[] getCachedKey(String alias) {
+        return keyCache.get(alias);
+    }
+
+    private static void putCachedKey(String alias, byte[] key) {
+        keyCache.put(alias, key);
+    }
+
+    private static void removeCachedKey(String alias) {
+        keyCache.remove(alias);
     }
 
     /**
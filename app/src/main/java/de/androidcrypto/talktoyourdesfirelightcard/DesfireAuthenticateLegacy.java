@@ -29,7 +29,7 @@ public class DesfireAuthenticateLegacy {
     private static final String TAG = DesfireAuthenticateLegacy.class.getName();
 
 
-    private IsoDep isoDep;
+    private ApduTransport transport;
     private boolean printToLog = true; // print data to log
     private String logData = "";
 
@@ -69,7 +69,11 @@ public class DesfireAuthenticateLegacy {
     private static final int MAXIMUM_FILE_SIZE = 32; // standard files could get larger but to avoid any framing this is hardcoded limit
 
     public DesfireAuthenticateLegacy(IsoDep isoDep, boolean printToLog) {
-        this.isoDep = isoDep;
+        this((isoDep == null) ? null : new IsoDepTransport(isoDep), printToLog);
+    }
+
+    public DesfireAuthenticateLegacy(ApduTransport transport, boolean printToLog) {
+        this.transport = transport;
         this.printToLog = printToLog;
     }
 
@@ -99,7 +103,7 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -112,7 +116,7 @@ public class DesfireAuthenticateLegacy {
             apdu = wrapMessage(SELECT_APPLICATION_COMMAND, applicationIdentifier);
             Log.d(TAG, methodName + printData(" apdu", apdu));
             // sample 905a000003d0d1d200
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -206,7 +210,7 @@ public class DesfireAuthenticateLegacy {
         try {
             apdu = wrapMessage(GET_FILE_SETTINGS_COMMAND, parameter);
             Log.d(TAG, methodName + printData(" apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -278,7 +282,7 @@ public class DesfireAuthenticateLegacy {
         try {
             wrappedCommand = wrapMessage(CHANGE_FILE_SETTINGS_COMMAND, parameter);
             Log.d(TAG, printData("wrappedCommand", wrappedCommand));
-            response = isoDep.transceive(wrappedCommand);
+            response = transport.transceive(wrappedCommand);
             Log.d(TAG, printData("response", response));
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
@@ -339,7 +343,7 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log(methodName,methodName + " lost connection to the card, aborted");
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -407,8 +411,8 @@ public class DesfireAuthenticateLegacy {
         System.out.println("*** 6");
         byte[] changeKeyDesResponse = new byte[0];
         try {
-            //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
-            changeKeyDesResponse = isoDep.transceive(apdu);
+            //response = transport.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
+            changeKeyDesResponse = transport.transceive(apdu);
             log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
@@ -469,7 +473,7 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log(methodName,methodName + " lost connection to the card, aborted");
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -541,8 +545,8 @@ public class DesfireAuthenticateLegacy {
         System.out.println("*** 6");
         byte[] changeKeyDesResponse = new byte[0];
         try {
-            //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
-            changeKeyDesResponse = isoDep.transceive(apdu);
+            //response = transport.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
+            changeKeyDesResponse = transport.transceive(apdu);
             log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
@@ -603,7 +607,7 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log(methodName,methodName + " lost connection to the card, aborted");
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -675,8 +679,8 @@ public class DesfireAuthenticateLegacy {
         System.out.println("*** 6");
         byte[] changeKeyDesResponse = new byte[0];
         try {
-            //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
-            changeKeyDesResponse = isoDep.transceive(apdu);
+            //response = transport.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
+            changeKeyDesResponse = transport.transceive(apdu);
             log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
@@ -704,7 +708,7 @@ public class DesfireAuthenticateLegacy {
         final String methodName = "formatPicc";
         log(methodName, methodName);
 
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log(methodName,"no or lost connection to the card, aborted");
             Log.e(TAG, methodName + " no or lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -734,7 +738,7 @@ public class DesfireAuthenticateLegacy {
         try {
             wrappedCommand = wrapMessage(FORMAT_PICC_COMMAND, null);
             Log.d(TAG, printData("wrappedCommand", wrappedCommand));
-            response = isoDep.transceive(wrappedCommand);
+            response = transport.transceive(wrappedCommand);
             Log.d(TAG, printData("response", response));
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
@@ -787,7 +791,7 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -799,7 +803,7 @@ public class DesfireAuthenticateLegacy {
         try {
             apdu = wrapMessage(AUTHENTICATE_DES_2K3DES_COMMAND, new byte[]{keyNo}); // 0x0A
             log(methodName, "- send auth apdu   " + printData("apdu    ", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, "- receive response " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -902,7 +906,7 @@ public class DesfireAuthenticateLegacy {
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, encryptedRndArndBLeftRotated);
             log(methodName, "- send auth apdu   " + printData("apdu    ", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, "- receive response " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -981,7 +985,7 @@ public class DesfireAuthenticateLegacy {
 
             //byte[] getChallengeResponse = nfcA.transceive(Utils.hexStringToByteArray(getChallengeCommand));
             //byte[] getChallengeResponse = nfcA.transceive(wrapMessage((byte) 0x1a, new byte[]{(byte) 0x01} ));
-            byte[] getChallengeResponse = isoDep.transceive(wrapMessage((byte) 0xaa, new byte[]{(byte) (keyId & 0xFF)}));
+            byte[] getChallengeResponse = transport.transceive(wrapMessage((byte) 0xaa, new byte[]{(byte) (keyId & 0xFF)}));
             //if (verbose) writeToUiAppend(logTextView, printData("getChallengeResponse", getChallengeResponse)); // this 16 bytes long
             // cf5e0ee09862d90391af
             // 91 af at the end shows there is more data
@@ -1040,7 +1044,7 @@ public class DesfireAuthenticateLegacy {
              * Sending the APDU containing the challenge answer.
              * It is expected to be return 18 bytes [rndA from the Card] + 9100
              */
-            byte[] challengeAnswerResponse = isoDep.transceive(challengeAnswerAPDU);
+            byte[] challengeAnswerResponse = transport.transceive(challengeAnswerAPDU);
             // response = channel.transmit(new CommandAPDU(challengeAnswerAPDU));
             //if (verbose) writeToUiAppend(logTextView, printData("challengeAnswerResponse", challengeAnswerResponse));
             byte[] challengeAnswerResp = Arrays.copyOf(challengeAnswerResponse, getChallengeResponse.length - 2);
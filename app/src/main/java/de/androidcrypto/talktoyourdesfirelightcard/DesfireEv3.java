@@ -17,6 +17,7 @@ import androidx.annotation.NonNull;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -97,13 +98,14 @@ public class DesfireEv3 {
     private static final String TAG = DesfireEv3.class.getName();
 
 
-    private final IsoDep isoDep;
+    private final ApduTransport transport; // all APDUs are send through this transport, see IsoDepTransport
     private String logData;
     private boolean authenticateEv2FirstSuccess = false;
     private boolean authenticateEv2NonFirstSuccess = false;
     private byte keyNumberUsedForAuthentication = -1;
     private byte[] SesAuthENCKey; // filled by authenticateAesEv2First
     private byte[] SesAuthMACKey; // filled by authenticateAesEv2First
+    private SecureMessagingEngine secureMessaging; // EV2 secure messaging with the session keys, filled by authenticateAesEv2First and NonFirst
     private int CmdCounter = 0; // filled / reset by authenticateAesEv2First
     private byte[] TransactionIdentifier; // reset by authenticateAesEv2First
     // note on TransactionIdentifier: LSB encoding
@@ -274,7 +276,17 @@ public class DesfireEv3 {
 
 
     public DesfireEv3(IsoDep isoDep) {
-        this.isoDep = isoDep;
+        this((isoDep == null) ? null : new IsoDepTransport(isoDep));
+    }
+
+    /**
+     * use this constructor to run the class with any other transport than IsoDep, e.g. an InProcessTransport
+     *
+     * @param transport
+     */
+
+    public DesfireEv3(ApduTransport transport) {
+        this.transport = transport;
         Log.i(TAG, "class is initialized");
         transactionMacReaderId = TRANSACTION_MAC_READER_ID_DEFAULT.clone();
     }
@@ -1260,14 +1272,14 @@ public class DesfireEv3 {
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
+        byte[] keyEncrypted = encryptSesAuthEnc(ivForCmdData, transactionMacKey);
         log(methodName, printData("keyEncrypted", keyEncrypted));
         byte[] iv2 = keyEncrypted.clone();
         log(methodName, printData("iv2", iv2));
@@ -1281,7 +1293,7 @@ public class DesfireEv3 {
         log(methodName, printData("keyVersionPadded", keyVersionPadded));
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
+        byte[] keyVersionPaddedEncrypted = encryptSesAuthEnc(iv2, keyVersionPadded);
         log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
 
         // Encrypted Data (both blocks)
@@ -1313,7 +1325,7 @@ public class DesfireEv3 {
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -1462,14 +1474,14 @@ public class DesfireEv3 {
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
+        byte[] keyEncrypted = encryptSesAuthEnc(ivForCmdData, transactionMacKey);
         log(methodName, printData("keyEncrypted", keyEncrypted));
         byte[] iv2 = keyEncrypted.clone();
         log(methodName, printData("iv2", iv2));
@@ -1483,7 +1495,7 @@ public class DesfireEv3 {
         log(methodName, printData("keyVersionPadded", keyVersionPadded));
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
+        byte[] keyVersionPaddedEncrypted = encryptSesAuthEnc(iv2, keyVersionPadded);
         log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
 
         // Encrypted Data (both blocks)
@@ -1519,7 +1531,7 @@ public class DesfireEv3 {
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -1697,14 +1709,14 @@ public class DesfireEv3 {
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
+        byte[] keyEncrypted = encryptSesAuthEnc(ivForCmdData, transactionMacKey);
         log(methodName, printData("keyEncrypted", keyEncrypted));
         byte[] iv2 = keyEncrypted.clone();
         log(methodName, printData("iv2", iv2));
@@ -1718,7 +1730,7 @@ public class DesfireEv3 {
         log(methodName, printData("keyVersionPadded", keyVersionPadded));
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
+        byte[] keyVersionPaddedEncrypted = encryptSesAuthEnc(iv2, keyVersionPadded);
         log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
 
         // Encrypted Data (both blocks)
@@ -1754,7 +1766,7 @@ public class DesfireEv3 {
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -1848,7 +1860,7 @@ public class DesfireEv3 {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -1874,14 +1886,14 @@ public class DesfireEv3 {
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, key);
+        byte[] keyEncrypted = encryptSesAuthEnc(ivForCmdData, key);
         log(methodName, printData("keyEncrypted", keyEncrypted));
         byte[] iv2 = keyEncrypted.clone();
         log(methodName, printData("iv2", iv2));
@@ -1895,7 +1907,7 @@ public class DesfireEv3 {
         log(methodName, printData("keyVersionPadded", keyVersionPadded));
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
+        byte[] keyVersionPaddedEncrypted = encryptSesAuthEnc(iv2, keyVersionPadded);
         log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
 
         // Encrypted Data (both blocks)
@@ -1929,7 +1941,7 @@ public class DesfireEv3 {
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -1956,7 +1968,7 @@ public class DesfireEv3 {
         try {
             apdu = wrapMessage(CREATE_TRANSACTION_MAC_FILE_COMMAND, createTransactionMacFileCommand);
             log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, printData("response", response));
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
@@ -2005,7 +2017,7 @@ public class DesfireEv3 {
         byte[] macInput2 = responseMacBaos.toByteArray();
         log(methodName, printData("macInput2", macInput2));
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
         log(methodName, printData("responseMACCalculated", responseMACCalculated));
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
         log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
@@ -2387,7 +2399,7 @@ public class DesfireEv3 {
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -2496,107 +2508,24 @@ public class DesfireEv3 {
         if (!checkIsDataFileType(fileNumber)) return false;
         if (!checkAuthentication()) return false; // logFile and errorCode are updated
         if (!checkIsoDep()) return false; // logFile and errorCode are updated
-
-        // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
-        byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
-        // Encrypting the Command Data
-        // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
-        ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
-        baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
-        baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosIvInput.write(padding1, 0, padding1.length);
-        byte[] ivInput = baosIvInput.toByteArray();
-        */
-        log(methodName, printData("ivInput", ivInput));
-
-        // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
-        byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
-        //        log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
-
-        // Encrypted Data (complete), concatenate all byte arrays
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                return false;
-            }
-        }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
-
-        // Generating the MAC for the Command APDU
-        // CmdHeader (FileNo || Offset || DataLength)
-        byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
-        byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offset", offsetBytes));
-        log(methodName, printData("length", lengthBytes));
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
-
-        // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
-        byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
-
-        log(methodName, printData("macInput", macInput));
-
-        // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        if (!checkSecureMessaging()) return false; // logFile and errorCode are updated
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
         // correct is the following concatenation:
-
-        // Data (CmdHeader || Encrypted Data || MAC)
-        ByteArrayOutputStream baosWriteDataCommand = new ByteArrayOutputStream();
-        baosWriteDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
-        baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
+        // Data (CmdHeader || Encrypted Data || MAC), the padding, encryption and MAC are done by the
+        // SecureMessagingEngine with the CmdCounter before the increase
+        // CmdHeader (FileNo || Offset || DataLength)
+        byte[] cmdHeader = new byte[7];
+        cmdHeader[0] = fileNumber;
+        System.arraycopy(Utils.intTo3ByteArrayInversed(offset), 0, cmdHeader, 1, 3); // LSB order
+        System.arraycopy(Utils.intTo3ByteArrayInversed(data.length), 0, cmdHeader, 4, 3); // LSB order
+        log(methodName, printData("cmdHeader", cmdHeader));
+        byte[] writeDataCommand = secureMessaging.buildCommand(WRITE_DATA_FILE_SECURE_COMMAND, CmdCounter, cmdHeader, data, FILE_COMMUNICATION_SETTINGS_FULL);
         log(methodName, printData("writeDataCommand", writeDataCommand));
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
             response = sendData(apdu);
@@ -2621,8 +2550,10 @@ public class DesfireEv3 {
         CmdCounter++;
         log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
+        byte[] responseData = secureMessaging.unwrapResponse(CmdCounter, response, FILE_COMMUNICATION_SETTINGS_FULL);
+        log(methodName, printData("responseMACTruncatedReceived  ", secureMessaging.getReceivedMac()));
+        log(methodName, printData("responseMACTruncatedCalculated", secureMessaging.getCalculatedMac()));
+        if (responseData != null) {
             log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
@@ -2703,14 +2634,14 @@ public class DesfireEv3 {
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         List<byte[]> dataBlockEncryptedList = new ArrayList<>();
         byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
 
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+            byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
             dataBlockEncryptedList.add(dataBlockEncrypted);
             ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
         }
@@ -2761,7 +2692,7 @@ public class DesfireEv3 {
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -3192,7 +3123,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -3318,52 +3249,18 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if (!checkIsDataFileType(fileNumber)) return null;
         if (!checkIsoDep()) return null; // logFile and errorCode are updated
+        if (!checkSecureMessaging()) return null; // logFile and errorCode are updated
 
-        // command header
-        byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
-        byte[] lengthBytes = Utils.intTo3ByteArrayInversed(length); // LSB order
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
+        // command header (FileNo || Offset || Length), the command is CmdHeader || MAC
+        byte[] cmdHeader = new byte[7];
+        cmdHeader[0] = fileNumber;
+        System.arraycopy(Utils.intTo3ByteArrayInversed(offset), 0, cmdHeader, 1, 3); // LSB order
+        System.arraycopy(Utils.intTo3ByteArrayInversed(length), 0, cmdHeader, 4, 3); // LSB order
         log(methodName, printData("cmdHeader", cmdHeader));
-
-        // MAC_Input
-        byte[] macInput = getMacInput(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(READ_DATA_FILE_SECURE_COMMAND); // 0xAD
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(cmdHeader, 0, cmdHeader.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        */
-
-        log(methodName, printData("macInput", macInput));
-
-        // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
-
-        // Constructing the full ReadData Command APDU
-        ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
-        baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] readDataCommand = baosReadDataCommand.toByteArray();
+        byte[] readDataCommand = secureMessaging.buildCommand(READ_DATA_FILE_SECURE_COMMAND, CmdCounter, cmdHeader, null, FILE_COMMUNICATION_SETTINGS_FULL);
         log(methodName, printData("readDataCommand", readDataCommand));
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
-        byte[] fullEncryptedData;
-        byte[] encryptedData;
-        byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand);
             response = sendData(apdu);
@@ -3379,7 +3276,6 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
             Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullEncryptedData = Arrays.copyOf(response, response.length - 2);
         } else {
             Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
             Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
@@ -3388,35 +3284,21 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
         log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-        // response length: 58 data: 8b61541d54f73901c8498c71dd45bae80578c4b1581aad439a806f37517c86ad4df8970279bbb8874ef279149aaa264c3e5eceb0e37a87699100
-
-        // the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
-        int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
-        encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
-
-        // start decrypting the data
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
-        byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // fixed to 0x5AA5
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
-        byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
-        log(methodName, printData("readData", readData));
-
-        if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
+        // the response is Enc(RespData || Padding) || MAC (8 bytes), the MAC is verified and the data decrypted with
+        // the CmdCounter after the increase
+        byte[] decryptedData = secureMessaging.unwrapResponse(CmdCounter, response, FILE_COMMUNICATION_SETTINGS_FULL);
+        log(methodName, printData("responseMACTruncatedReceived  ", secureMessaging.getReceivedMac()));
+        log(methodName, printData("responseMACTruncatedCalculated", secureMessaging.getCalculatedMac()));
+        if ((decryptedData != null) && (decryptedData.length < length)) {
+            Log.d(TAG, methodName + " FAILURE, response is too short");
+            errorCode = RESPONSE_LENGTH_ERROR.clone();
+            errorCodeReason = "response is too short";
+            return null;
+        }
+        if (decryptedData != null) {
+            log(methodName, printData("decryptedData", decryptedData));
+            byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
+            log(methodName, printData("readData", readData));
             log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
@@ -3586,7 +3468,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -3682,7 +3564,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -3746,9 +3628,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         decryptBaos.write(padding, 0, padding.length);
         byte[] ivInputResponse = decryptBaos.toByteArray();
         log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
+        byte[] ivResponse = encryptSesAuthEnc(startingIv, ivInputResponse);
         log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponse, encryptedData);
         log(methodName, printData("decryptedData", decryptedData)); // should be the cardUID || 9 zero bytes
         // 00000000800000000000000000000000 should be like value (4 bytes LSB) || 12 padding bytes (0x80..00)
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, 4);
@@ -3959,7 +3841,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -4070,7 +3952,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // Data (Value || Padding)
@@ -4083,7 +3965,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         log(methodName, printData("data", data));
 
         // Encrypt Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, data);
         log(methodName, printData("encryptedData", encryptedData));
 
         // Generating the MAC for the Command APDU
@@ -4114,7 +3996,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -4141,7 +4023,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
                 apdu = wrapMessage(DEBIT_VALUE_FILE_COMMAND, changeValueCommand);
             }
             log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, printData("response", response));
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
@@ -4384,7 +4266,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -4488,14 +4370,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         List<byte[]> dataBlockEncryptedList = new ArrayList<>();
         byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
 
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+            byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
             dataBlockEncryptedList.add(dataBlockEncrypted);
             ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
         }
@@ -4548,7 +4430,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -4821,7 +4703,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -4950,7 +4832,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -5004,9 +4886,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         decryptBaos.write(padding, 0, padding.length);
         byte[] ivInputResponse = decryptBaos.toByteArray();
         log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
+        byte[] ivResponse = encryptSesAuthEnc(startingIv, ivInputResponse);
         log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponse, encryptedData);
         log(methodName, printData("decryptedData", decryptedData)); // should be the cardUID || 9 zero bytes
         // the decrypted data contains the padding that needs to get removed
         // getFileSettings for file type and length information
@@ -5072,7 +4954,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             return false;
         }
 
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -5098,7 +4980,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -5117,7 +4999,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         try {
             apdu = wrapMessage(DELETE_TRANSACTION_MAC_FILE_COMMAND, deleteTransactionMacFileCommand);
             log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, printData("response", response));
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
@@ -5164,7 +5046,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
         log(methodName, printData("macInput2", macInput2));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
         log(methodName, printData("responseMACCalculated", responseMACCalculated));
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
         log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
@@ -5368,7 +5250,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -5478,7 +5360,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -5578,7 +5460,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFullReader = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFullReader = calculateSesAuthMac(macInput);
         log(methodName, printData("macFullReader", macFullReader));
         // now truncate the MAC
         byte[] macTruncatedReader = truncateMAC(macFullReader);
@@ -5643,9 +5525,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
         log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthENCKey, ivInputResponseReader);
+        byte[] ivResponseReader = encryptSesAuthEnc(startingIvReader, ivInputResponseReader);
         log(methodName, printData("ivResponseReader", ivResponseReader));
-        byte[] decryptedData = AES.decrypt(ivResponseReader, SesAuthENCKey, encryptedData);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponseReader, encryptedData);
         log(methodName, printData("decryptedData", decryptedData));
         log(methodName, "decryptedData is previous TMRI (latest TransactionMAC Reader ID");
         // Decrypted Response Data = (TMRI) : BDD40ED9F434F9DDCBF5821299CD2119 (16 bytes)
@@ -5782,7 +5664,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -5892,7 +5774,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -6009,7 +5891,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -6102,7 +5984,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -6134,7 +6016,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFullReader = calculateDiverseKey(SesAuthMACKey, macInputReader);
+        byte[] macFullReader = calculateSesAuthMac(macInputReader);
         log(methodName, printData("macFullReader", macFullReader));
         // now truncate the MAC
         byte[] macTruncatedReader = truncateMAC(macFullReader);
@@ -6154,7 +6036,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         try {
             apdu = wrapMessage(COMMIT_READER_ID_SECURE_COMMAND, commitTransactionReaderCommand);
             log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -6198,9 +6080,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
         log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthENCKey, ivInputResponseReader);
+        byte[] ivResponseReader = encryptSesAuthEnc(startingIvReader, ivInputResponseReader);
         log(methodName, printData("ivResponseReader", ivResponseReader));
-        byte[] decryptedData = AES.decrypt(ivResponseReader, SesAuthENCKey, encryptedData);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponseReader, encryptedData);
         log(methodName, printData("decryptedData", decryptedData));
         log(methodName, "decryptedData is TMRI (TransactionMAC Reader ID");
         // Decrypted Response Data = (TMRI) : BDD40ED9F434F9DDCBF5821299CD2119 (16 bytes)
@@ -6215,7 +6097,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMacBaosReader.write(encryptedData, 0, encryptedData.length);
         byte[] macInput2Reader = responseMacBaosReader.toByteArray();
         log(methodName, printData("macInput2Reader", macInput2Reader));
-        byte[] responseMACCalculatedReader = calculateDiverseKey(SesAuthMACKey, macInput2Reader);
+        byte[] responseMACCalculatedReader = calculateSesAuthMac(macInput2Reader);
         log(methodName, printData("responseMACTruncatedReceivedReader  ", responseMACTruncatedReceivedReader));
         log(methodName, printData("responseMACCalculatedReader", responseMACCalculatedReader));
         byte[] responseMACTruncatedCalculatedReader = truncateMAC(responseMACCalculatedReader);
@@ -6251,7 +6133,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -6270,7 +6152,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         try {
             apdu = wrapMessage(COMMIT_TRANSACTION_COMMAND, commitTransactionCommand);
             log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -6333,7 +6215,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMacBaos.write(responseTmcv, 0, responseTmcv.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
         log(methodName, printData("macInput", macInput2));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
         log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
         log(methodName, printData("responseMACCalculated", responseMACCalculated));
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
@@ -6385,7 +6267,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -6434,7 +6316,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // fixed data
@@ -6447,7 +6329,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         // padding is 12 bytes
 
         // Encrypted Data Block 1 = E(KSesAuthENC, Data Input)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, dataPadded);
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, dataPadded);
         log(methodName, printData("encryptedData", encryptedData));
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
@@ -6463,7 +6345,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -6513,7 +6395,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         byte[] macInput2 = responseMacBaos.toByteArray();
         log(methodName, printData("macInput2", macInput2));
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
         log(methodName, printData("responseMACCalculated", responseMACCalculated));
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
         log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
@@ -6614,9 +6496,9 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             return null;
         }
         System.arraycopy(returnStatusBytes(response), 0, errorCode, 0, 2);
-        byte[] responseData = Arrays.copyOfRange(response, 0, response.length - 2);
         if (checkResponse(response)) {
             Log.d(TAG, "response SUCCESS");
+            byte[] responseData = Arrays.copyOfRange(response, 0, response.length - 2);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = "SUCCESS";
             APPLICATION_ALL_FILE_IDS = responseData.clone();
@@ -6791,7 +6673,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // build the command data
@@ -6822,7 +6704,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         log(methodName, printData("commandDataPadded", commandDataPadded));
 
         // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, commandDataPadded);
         log(methodName, printData("encryptedData", encryptedData));
 
         // Generating the MAC for the Command APDU
@@ -6841,7 +6723,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -6995,7 +6877,7 @@ PERMISSION_DENIED
             errorCodeReason = "keyW is > 4 but not 14 or 15, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
             return false;
@@ -7067,7 +6949,7 @@ fileSize: 128
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // build the command data
@@ -7130,7 +7012,7 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
         log(methodName, printData("commandDataPadded", commandDataPadded));
 
         // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, commandDataPadded);
         log(methodName, printData("encryptedData", encryptedData));
 
         // Generating the MAC for the Command APDU
@@ -7146,7 +7028,7 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -7267,7 +7149,7 @@ PERMISSION_DENIED
             errorCodeReason = "keyW is > 4 but not 14 or 15, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA / DESFire EV3 tag ?), aborted";
             return false;
@@ -7341,7 +7223,7 @@ fileSize: 128
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // build the command data
@@ -7422,7 +7304,7 @@ fileSize: 128
             List<byte[]> dataBlockEncryptedList = new ArrayList<>();
             byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+                byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
                 dataBlockEncryptedList.add(dataBlockEncrypted);
                 ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
             }
@@ -7444,7 +7326,7 @@ fileSize: 128
         } else {
             Log.d(TAG, "The commandDataPadded length is = 16, encrypt in one run");
             // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
+            encryptedData = encryptSesAuthEnc(ivForCmdData, commandDataPadded);
         }
         log(methodName, printData("encryptedData", encryptedData));
 
@@ -7461,7 +7343,7 @@ fileSize: 128
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -7544,7 +7426,7 @@ fileSize: 128
             errorCodeReason = "commandData is NULL or of insufficient length, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA / DESFire EV3 tag ?), aborted";
             return false;
@@ -7607,7 +7489,7 @@ fileSize: 128
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // take the the command data as parameter
@@ -7627,7 +7509,7 @@ fileSize: 128
             List<byte[]> dataBlockEncryptedList = new ArrayList<>();
             byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+                byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
                 dataBlockEncryptedList.add(dataBlockEncrypted);
                 ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
             }
@@ -7649,7 +7531,7 @@ fileSize: 128
         } else {
             Log.d(TAG, "The commandDataPadded length is = 16, encrypt in one run");
             // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
+            encryptedData = encryptSesAuthEnc(ivForCmdData, commandDataPadded);
         }
         log(methodName, printData("encryptedData", encryptedData));
 
@@ -7666,7 +7548,7 @@ fileSize: 128
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -7743,7 +7625,7 @@ fileSize: 128
         }
         byte[] macInput = responseMacBaos.toByteArray();
         log(methodName, printData("macInput", macInput));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput);
         log(methodName, printData("responseMACTruncatedReceived  ", responseMAC));
         log(methodName, printData("responseMACCalculated", responseMACCalculated));
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
@@ -7769,13 +7651,7 @@ fileSize: 128
             log(methodName, "fullMAC is NULL or of wrong length, aborted");
             return null;
         }
-        int fullMACLength = fullMAC.length;
-        byte[] truncatedMAC = new byte[fullMACLength / 2];
-        int truncatedMACPos = 0;
-        for (int i = 1; i < fullMACLength; i += 2) {
-            truncatedMAC[truncatedMACPos] = fullMAC[i];
-            truncatedMACPos++;
-        }
+        byte[] truncatedMAC = SecureMessagingEngine.truncateMac(fullMAC);
         log(methodName, printData("truncatedMAC", truncatedMAC));
         return truncatedMAC;
     }
@@ -7977,6 +7853,7 @@ fileSize: 128
             if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
             CmdCounter = 0;
             TransactionIdentifier = ti.clone();
+            secureMessaging = getSecureMessagingEngine();
             authenticateEv2FirstSuccess = true;
             keyNumberUsedForAuthentication = keyNumber;
             invalidateAllAesLegacyData();
@@ -8176,6 +8053,7 @@ fileSize: 128
             log(methodName, "*** AUTHENTICATED ***");
             SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
             SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
+            secureMessaging = getSecureMessagingEngine(); // the TI is kept from authenticateAesEv2First
             if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
             if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
             //CmdCounter = 0; // is not resetted in EV2NonFirst
@@ -8586,6 +8464,40 @@ fileSize: 128
         return dataA;
     }
 
+    /**
+     * encrypts or decrypts with the SesAuthENCKey, using the SecureMessagingEngine that is created on authentication
+     * (no cipher lookup and key setup per call)
+     */
+
+    private byte[] encryptSesAuthEnc(byte[] iv, byte[] data) {
+        if (secureMessaging == null) return AES.encrypt(iv, SesAuthENCKey, data);
+        return secureMessaging.encrypt(iv, data);
+    }
+
+    private byte[] decryptSesAuthEnc(byte[] iv, byte[] data) {
+        if (secureMessaging == null) return AES.decrypt(iv, SesAuthENCKey, data);
+        return secureMessaging.decrypt(iv, data);
+    }
+
+    private SecureMessagingEngine getSecureMessagingEngine() {
+        try {
+            return new SecureMessagingEngine(SesAuthENCKey, SesAuthMACKey, TransactionIdentifier);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Exception on getSecureMessagingEngine: " + e.getMessage());
+            return null; // the crypto helpers fall back to the AES class and calculateDiverseKey
+        }
+    }
+
+    /**
+     * calculates the CMAC with the SesAuthMACKey, using the SecureMessagingEngine that is created on authentication
+     * (no cipher lookup and subkey derivation per call)
+     */
+
+    private byte[] calculateSesAuthMac(byte[] input) {
+        if (secureMessaging == null) return calculateDiverseKey(SesAuthMACKey, input);
+        return secureMessaging.calculateMac(input);
+    }
+
     private byte[] calculateDiverseKey(byte[] masterKey, byte[] input) {
         Log.d(TAG, "calculateDiverseKey" + printData(" masterKey", masterKey) + printData(" input", input));
         AesCmac mac = null;
@@ -8650,7 +8562,7 @@ fileSize: 128
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
@@ -8693,7 +8605,7 @@ fileSize: 128
         log(methodName, printData("data", data));
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, data);
         log(methodName, printData("encryptedData", encryptedData));
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
@@ -8712,7 +8624,7 @@ fileSize: 128
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -8732,7 +8644,7 @@ fileSize: 128
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
             log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, printData("response", response));
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
@@ -8782,7 +8694,7 @@ fileSize: 128
         byte[] macInput2 = responseMacBaos.toByteArray();
         log(methodName, printData("macInput2", macInput2));
 
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
         log(methodName, printData("responseMACCalculated", responseMACCalculated));
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
         log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
@@ -8832,7 +8744,7 @@ fileSize: 128
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
@@ -8875,7 +8787,7 @@ fileSize: 128
         log(methodName, printData("data", data));
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, data);
         log(methodName, printData("encryptedData", encryptedData));
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
@@ -8886,7 +8798,7 @@ fileSize: 128
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -8906,7 +8818,7 @@ fileSize: 128
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
             log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, printData("response", response));
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
@@ -9025,7 +8937,7 @@ fileSize: 128
         final String methodName = "formatPicc";
         log(methodName, methodName);
 
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log(methodName,"no or lost connection to the card, aborted");
             Log.e(TAG, methodName + " no or lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -9055,7 +8967,7 @@ fileSize: 128
         try {
             wrappedCommand = wrapMessage(FORMAT_PICC_COMMAND, null);
             Log.d(TAG, printData("wrappedCommand", wrappedCommand));
-            response = isoDep.transceive(wrappedCommand);
+            response = transport.transceive(wrappedCommand);
             Log.d(TAG, printData("response", response));
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
@@ -9144,7 +9056,7 @@ fileSize: 128
 
     private byte[] sendData(byte[] apdu) {
         String methodName = "sendData";
-        if (isoDep == null) {
+        if (transport == null) {
             Log.e(TAG, methodName + " isoDep is NULL");
             log(methodName, "isoDep is NULL, aborted");
             return null;
@@ -9152,7 +9064,7 @@ fileSize: 128
         log(methodName, printData("send apdu -->", apdu));
         byte[] recvBuffer;
         try {
-            recvBuffer = isoDep.transceive(apdu);
+            recvBuffer = transport.transceive(apdu);
         } catch (TagLostException e) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "TagLostException: " + e.getMessage();
@@ -9185,6 +9097,8 @@ fileSize: 128
     }
 
     private byte[] returnStatusBytes(byte[] data) {
+        // sendData returns NULL when the card is lost
+        if ((data == null) || (data.length < 2)) return RESPONSE_FAILURE.clone();
         return Arrays.copyOfRange(data, (data.length - 2), data.length);
     }
 
@@ -9584,8 +9498,18 @@ fileSize: 128
         return true;
     }
 
+    private boolean checkSecureMessaging() {
+        if (secureMessaging == null) {
+            log("checkSecureMessaging", "missing secure messaging engine, aborted");
+            errorCode = RESPONSE_FAILURE_MISSING_AUTHENTICATION.clone();
+            errorCodeReason = "missing secure messaging engine";
+            return false;
+        }
+        return true;
+    }
+
     private boolean checkIsoDep() {
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log("checkIsoDep", "lost connection to the card, aborted");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "lost connection to the card";
@@ -9685,6 +9609,7 @@ fileSize: 128
         keyNumberUsedForAuthentication = -1;
         SesAuthENCKey = null; // filled by authenticateAesEv2First
         SesAuthMACKey = null; // filled by authenticateAesEv2First
+        secureMessaging = null;
         CmdCounter = 0; // filled / resetted by authenticateAesEv2First
         TransactionIdentifier = null; // resetted by authenticateAesEv2First
     }
@@ -9695,6 +9620,7 @@ fileSize: 128
         keyNumberUsedForAuthentication = -1;
         SesAuthENCKey = null; // filled by authenticateAesEv2First
         SesAuthMACKey = null; // filled by authenticateAesEv2First
+        secureMessaging = null;
         //CmdCounter = 0; // filled / resetted by authenticateAesEv2First
         //TransactionIdentifier = null; // resetted by authenticateAesEv2First
     }
@@ -10112,7 +10038,7 @@ fileSize: 128
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -10174,9 +10100,9 @@ fileSize: 128
         decryptBaos.write(padding, 0, padding.length);
         byte[] ivInputResponse = decryptBaos.toByteArray();
         log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
+        byte[] ivResponse = encryptSesAuthEnc(startingIv, ivInputResponse);
         log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponse, encryptedData);
         log(methodName, printData("decryptedData", decryptedData));
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
         log(methodName, printData("readData", readData));
@@ -10285,19 +10211,19 @@ fileSize: 128
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
         log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
         log(methodName, printData("ivForCmdData", ivForCmdData));
 
         List<byte[]> dataBlockEncryptedList = new ArrayList<>();
         byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
 
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+            byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
             dataBlockEncryptedList.add(dataBlockEncrypted);
             ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
         }
 
-        //byte[] dataBlock2Encrypted = AES.encrypt(startingIv, SesAuthENCKey, dataBlock2); // todo is this correct ? or startingIv ?
+        //byte[] dataBlock2Encrypted = encryptSesAuthEnc(startingIv, dataBlock2); // todo is this correct ? or startingIv ?
 //        log(methodName, printData("startingIv", startingIv));
         for (int i = 0; i < numberOfDataBlocks; i++) {
             log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
@@ -10347,7 +10273,7 @@ fileSize: 128
 
         // generate the MAC (CMAC) with the SesAuthMACKey
         log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
+        byte[] macFull = calculateSesAuthMac(macInput);
         log(methodName, printData("macFull", macFull));
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
@@ -10371,7 +10297,7 @@ fileSize: 128
         try {
             apdu = wrapMessage(WRITE_STANDARD_FILE_SECURE_COMMAND, writeDataCommand);
             log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
+            response = transport.transceive(apdu);
             log(methodName, printData("response", response));
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
@@ -17,8 +17,10 @@ import androidx.annotation.NonNull;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
@@ -97,14 +99,21 @@ public class DesfireLight {
     private static final String TAG = DesfireLight.class.getName();
 
 
-    private final IsoDep isoDep;
-    private String logData;
+    private ApduTransport transport; // all APDUs are send through this transport, see IsoDepTransport
+    private CommandMetrics commandMetrics; // is NULL unless enableCommandMetrics was called
+    private final CommandLog commandLog = new CommandLog(); // bounded ring buffer, rendered in getLogData()
     private boolean authenticateEv2FirstSuccess = false;
     private boolean authenticateEv2NonFirstSuccess = false;
     private byte keyNumberUsedForAuthentication = -1;
     private byte[] SesAuthENCKey; // filled by authenticateAesEv2First
     private byte[] SesAuthMACKey; // filled by authenticateAesEv2First
+    private SecureMessagingEngine secureMessaging; // EV2 secure messaging with the session keys, filled by authenticateAesEv2First and NonFirst
     private int CmdCounter = 0; // filled / reset by authenticateAesEv2First
+    private CommandPipeline commandPipeline; // precomputes the next command of a batch, NULL when disabled
+    private SessionCache sessionCache; // sessions of recently seen cards for authenticateAesEv2Resume, NULL when disabled
+    private byte[] authenticationKeyCheckValue; // check value of the key used for authentication, filled only when a SessionCache is set
+    private KeyProvider keyProvider; // provides the (diversified) application keys, NULL when not set
+    private byte[] cardUid; // the UID of the tag, filled by the IsoDep constructor or setCardUid
     private byte[] TransactionIdentifier; // reset by authenticateAesEv2First
     // note on TransactionIdentifier: LSB encoding
 
@@ -152,6 +161,7 @@ public class DesfireLight {
     private final byte AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND = (byte) 0x77;
     private final byte AUTHENTICATE_AES_COMMAND = (byte) 0xAA;
     private final byte MORE_DATA_COMMAND = (byte) 0xAF;
+    private static final byte[] MORE_DATA_APDU = new byte[]{(byte) 0x90, (byte) 0xAF, (byte) 0x00, (byte) 0x00, (byte) 0x00}; // requests the next response frame
     private final byte GET_VERSION_INFO_COMMAND = (byte) 0x60;
     private final byte CREATE_APPLICATION_COMMAND = (byte) 0xCA;
     private final byte SELECT_APPLICATION_COMMAND = (byte) 0x5A;
@@ -211,7 +221,7 @@ public class DesfireLight {
     /**
      * class internal constants and limitations
      */
-    boolean printToLog = true; // logging data in internal log string
+    boolean printToLog = true; // logging data in the internal command log
 
     // for selecting the PICC level, e.g. to run the readSignature command
     public static final byte[] MASTER_APPLICATION_ISO_DF_NAME = Utils.hexStringToByteArray("D2760000850100");
@@ -232,8 +242,10 @@ public class DesfireLight {
     private final byte[] IV_LABEL_ENC = new byte[]{(byte) 0xA5, (byte) 0x5A}; // use as header for AES encryption
     private final byte[] IV_LABEL_DEC = new byte[]{(byte) 0x5A, (byte) 0xA5}; // use as header for AES decryption
     //private final int MAXIMUM_MESSAGE_LENGTH = 32;//
-    private final int MAXIMUM_WRITE_MESSAGE_LENGTH = 40;
-    private final int MAXIMUM_READ_MESSAGE_LENGTH = 40;
+    private final int MAXIMUM_WRITE_MESSAGE_LENGTH = 40; // used for Record files, Data files use the ChunkingPolicy
+    private final int MAXIMUM_READ_MESSAGE_LENGTH = 40; // used for Record files, Data files use the ChunkingPolicy
+    private ChunkingPolicy chunkingPolicy; // is created on first usage, see getChunkingPolicy()
+    private boolean isFullModeResponseChainingEnabled = true; // read Full mode Data files with one command, see readFromADataFileFullChained
     private static final byte MAXIMUM_NUMBER_OF_KEYS = 5; // the maximum of keys per application is 14
     private final int MAXIMUM_NUMBER_OF_FILES = 32; // as per datasheet DESFire EV3 this is valid for EV1, EV2 and EV3
     private static final int MAXIMUM_VALUES = 1000000;
@@ -278,6 +290,8 @@ public class DesfireLight {
     private boolean isTransactionMacCommitReaderId = false;
     private byte[] transactionMacFileReturnedTmcv; // if requested on commitTransaction the TMAC counter and Value are returned (only if TMAC file is present)
     private byte[] transactionMacReaderId; // necessary for Commit ReadId, filled on initialization with TRANSACTION_MAC_READER_ID_DEFAULT
+    private TransactionMacTracker transactionMacTracker; // optional, collects the Transaction MAC Input of the running transaction
+    private boolean isTransactionMacValueVerified = false; // true when the TMV returned on the last commit matches the expected TMV
 
     DesfireAuthenticateLegacy desfireD40;
 
@@ -287,7 +301,20 @@ public class DesfireLight {
 
 
     public DesfireLight(IsoDep isoDep) {
-        this.isoDep = isoDep;
+        this((isoDep == null) ? null : new IsoDepTransport(isoDep));
+        if ((isoDep != null) && (isoDep.getTag() != null)) {
+            cardUid = isoDep.getTag().getId();
+        }
+    }
+
+    /**
+     * use this constructor to run the class with any other transport than IsoDep, e.g. an InProcessTransport
+     *
+     * @param transport
+     */
+
+    public DesfireLight(ApduTransport transport) {
+        this.transport = transport;
         Log.i(TAG, "class is initialized");
         transactionMacReaderId = TRANSACTION_MAC_READER_ID_DEFAULT.clone();
     }
@@ -315,12 +342,12 @@ public class DesfireLight {
         decryptBaosReader.write(commandCounterLsbTest, 0, commandCounterLsbTest.length);
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
+        log(methodName, "ivInputResponseReader", ivInputResponseReader);
         byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthEncKeyTest, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
+        log(methodName, "ivResponseReader", ivResponseReader);
         DecryptedResponseTest = AES.decrypt(ivResponseReader, SesAuthEncKeyTest, EncryptedResponseDataTest);
-        log(methodName, printData("DecryptedResponse   Test", DecryptedResponseTest));
-        log(methodName, printData("DecryptedResponseExpTest", DecryptedResponseExpTest));
+        log(methodName, "DecryptedResponse   Test", DecryptedResponseTest);
+        log(methodName, "DecryptedResponseExpTest", DecryptedResponseExpTest);
         log(methodName, "decryptedData is previous TMRI (latest TransactionMAC Reader ID");
     }
 
@@ -336,7 +363,7 @@ public class DesfireLight {
     public boolean setTransactionMacReaderId(byte[] transactionMacReaderId) {
         String methodName = "setTransactionMacReaderId";
         log(methodName, "started");
-        log(methodName, printData("transactionMacReaderId", transactionMacReaderId));
+        log(methodName, "transactionMacReaderId", transactionMacReaderId);
         if ((transactionMacReaderId == null) || (transactionMacReaderId.length != 16)) {
             log(methodName, "transactionMacReaderId is NULL or not of length 16, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
@@ -365,7 +392,7 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
         log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
@@ -417,7 +444,7 @@ public class DesfireLight {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             return false;
         }
     }
@@ -442,7 +469,7 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
         log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
@@ -495,7 +522,7 @@ public class DesfireLight {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             return false;
         }
     }
@@ -515,9 +542,9 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
-        log(methodName, printData("isoApplicationIdentifier", isoApplicationIdentifier));
-        log(methodName, printData("applicationDfName", applicationDfName));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
+        log(methodName, "isoApplicationIdentifier", isoApplicationIdentifier);
+        log(methodName, "applicationDfName", applicationDfName);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
         log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
@@ -574,7 +601,7 @@ public class DesfireLight {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             return false;
         }
     }
@@ -589,9 +616,9 @@ public class DesfireLight {
 
     public boolean selectApplicationByAid(byte[] applicationIdentifier) {
         final String methodName = "selectApplication by AID";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         errorCode = new byte[2];
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
@@ -622,7 +649,7 @@ public class DesfireLight {
             errorCode = RESPONSE_OK.clone();
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             return false;
         }
     }
@@ -639,9 +666,9 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "selectApplicationIsoByDfName";
         log(methodName, "started", true);
-        log(methodName, printData("dfApplicationName", dfApplicationName));
+        log(methodName, "dfApplicationName", dfApplicationName);
 
-        if (isoDep == null) {
+        if (transport == null) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
             return false;
@@ -683,9 +710,9 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "selectApplicationIsoByIsoFileId";
         log(methodName, "started", true);
-        log(methodName, printData("isoFileIdentifier", isoFileIdentifier));
+        log(methodName, "isoFileIdentifier", isoFileIdentifier);
 
-        if (isoDep == null) {
+        if (transport == null) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
             return false;
@@ -731,9 +758,9 @@ public class DesfireLight {
         String logData = "";
         //final String methodName = "selectApplicationIsoByIsoFileIdGues";
         //log(methodName, "started", true);
-        //log(methodName, printData("isoFileIdentifier", isoFileIdentifier));
+        //log(methodName, "isoFileIdentifier", isoFileIdentifier);
 /*
-        if (isoDep == null) {
+        if (transport == null) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
             return false;
@@ -785,10 +812,10 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "selectFileIsoByIsoFileId";
         log(methodName, "started", true);
-        log(methodName, printData("fileId", isoFileId));
+        log(methodName, "fileId", isoFileId);
         //log(methodName, "fileId: " + fileId);
 
-        if (isoDep == null) {
+        if (transport == null) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a DESFire Light tag ?), aborted";
             return false;
@@ -836,7 +863,7 @@ public class DesfireLight {
 
     public boolean deleteSelectedApplication() {
         final String methodName = "deleteSelectedApplication";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -862,14 +889,14 @@ public class DesfireLight {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             return false;
         }
     }
 
     public List<byte[]> getApplicationIdsList() {
         final String methodName = "getApplicationIdsList";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
 
@@ -897,7 +924,7 @@ public class DesfireLight {
 
     public List<byte[]> getFileIdsIsoList() {
         final String methodName = "getFileIdsIsoList";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
 
@@ -975,12 +1002,12 @@ public class DesfireLight {
 
     public boolean createAStandardFileIso(byte fileNumber, byte[] isoFileId, CommunicationSettings communicationSettings, byte[] accessRights, int fileSize, boolean preEnableSdm) {
         final String methodName = "createAStandardFileIso";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
+        log(methodName, "isoFileId", isoFileId);
         log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
+        log(methodName, "accessRights", accessRights);
         log(methodName, "fileSize: " + fileSize);
         log(methodName, "preEnableSdm: " + preEnableSdm);
         errorCode = new byte[2];
@@ -1041,7 +1068,7 @@ public class DesfireLight {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             return false;
         }
     }
@@ -1062,11 +1089,11 @@ public class DesfireLight {
 
     private boolean createADataFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, boolean isStandardFile, int fileSize, boolean preEnableSdm) {
         final String methodName = "createADataFile";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
+        log(methodName, "accessRights", accessRights);
         log(methodName, "isStandardFile: " + isStandardFile);
         log(methodName, "fileSize: " + fileSize);
         log(methodName, "preEnableSdm: " + preEnableSdm);
@@ -1129,7 +1156,7 @@ public class DesfireLight {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -1137,11 +1164,11 @@ public class DesfireLight {
 
     public boolean createAValueFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue, boolean limitedCreditOperation) {
         final String methodName = "createAValueFile";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
+        log(methodName, "accessRights", accessRights);
         log(methodName, "minimumValue: " + minimumValue);
         log(methodName, "maximumValue: " + maximumValue);
         log(methodName, "initialValue: " + initialValue);
@@ -1222,7 +1249,7 @@ public class DesfireLight {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -1230,11 +1257,11 @@ public class DesfireLight {
 
     public boolean createALinearRecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
         final String methodName = "createALinearRecordFile";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
+        log(methodName, "accessRights", accessRights);
         log(methodName, "recordSize: " + recordSize);
         log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         return createARecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords, true);
@@ -1242,11 +1269,11 @@ public class DesfireLight {
 
     public boolean createACyclicRecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
         final String methodName = "createACyclicRecordFile";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
+        log(methodName, "accessRights", accessRights);
         log(methodName, "recordSize: " + recordSize);
         log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         return createARecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords, false);
@@ -1254,11 +1281,11 @@ public class DesfireLight {
 
     private boolean createARecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords, boolean isLinearRecordFile) {
         final String methodName = "createARecordFile";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
+        log(methodName, "accessRights", accessRights);
         log(methodName, "recordSize: " + recordSize);
         log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
@@ -1320,7 +1347,7 @@ public class DesfireLight {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -1433,7 +1460,7 @@ public class DesfireLight {
         log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
         log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
         log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        log(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -1489,8 +1516,8 @@ public class DesfireLight {
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -1498,22 +1525,22 @@ public class DesfireLight {
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptSesAuthEnc(ivForCmdData, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -1521,15 +1548,15 @@ public class DesfireLight {
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptSesAuthEnc(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -1542,7 +1569,7 @@ public class DesfireLight {
         baosCmdHeader.write(tmacAccessRights, 0, tmacAccessRights.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
@@ -1552,15 +1579,15 @@ public class DesfireLight {
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -1575,7 +1602,7 @@ public class DesfireLight {
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -1644,12 +1671,12 @@ public class DesfireLight {
         //private final byte ACCESS_RIGHTS_R_W_TMAC = (byte) 0x1F; // Read Access (key 01) & Write Access (no access)
 
         final String methodName = "createATransactionMacFileFull";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("tmacAccessRights", tmacAccessRights));
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        log(methodName, "tmacAccessRights", tmacAccessRights);
+        log(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -1691,8 +1718,8 @@ public class DesfireLight {
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -1700,22 +1727,22 @@ public class DesfireLight {
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptSesAuthEnc(ivForCmdData, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -1723,15 +1750,15 @@ public class DesfireLight {
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptSesAuthEnc(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -1744,7 +1771,7 @@ public class DesfireLight {
         baosCmdHeader.write(tmacAccessRightsModified, 0, tmacAccessRightsModified.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         byte[] macInput = getMacInput(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
@@ -1758,15 +1785,15 @@ public class DesfireLight {
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
         */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -1781,7 +1808,7 @@ public class DesfireLight {
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -1851,7 +1878,7 @@ public class DesfireLight {
         //private final byte ACCESS_RIGHTS_R_W_TMAC = (byte) 0x1F; // Read Access (key 01) & Write Access (no access)
 
         final String methodName = "createATransactionMacFileExtendedFull";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "communicationSettings: " + communicationSettings.toString());
@@ -1859,7 +1886,7 @@ public class DesfireLight {
         log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
         log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
         log(methodName, "enableCommitReaderId" + enableCommitReaderId);
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        log(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -1926,8 +1953,8 @@ public class DesfireLight {
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -1935,22 +1962,22 @@ public class DesfireLight {
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptSesAuthEnc(ivForCmdData, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -1958,15 +1985,15 @@ public class DesfireLight {
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptSesAuthEnc(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -1979,7 +2006,7 @@ public class DesfireLight {
         baosCmdHeader.write(tmacAccessRights, 0, tmacAccessRights.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         byte[] macInput = getMacInput(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
@@ -1993,15 +2020,15 @@ public class DesfireLight {
         byte[] macInput = baosMacInput.toByteArray();
 
  */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -2016,7 +2043,7 @@ public class DesfireLight {
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -2073,7 +2100,8 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "createTransactionMacFileEv2";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + printData(" TransactionMacKey", key));
+        log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "TransactionMacKey", key);
         // sanity checks
         if ((!authenticateEv2FirstSuccess) & (!authenticateEv2NonFirstSuccess)) {
             Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
@@ -2091,7 +2119,7 @@ public class DesfireLight {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -2103,8 +2131,8 @@ public class DesfireLight {
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -2112,22 +2140,22 @@ public class DesfireLight {
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, key);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptSesAuthEnc(ivForCmdData, key);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -2135,15 +2163,15 @@ public class DesfireLight {
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptSesAuthEnc(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -2158,7 +2186,7 @@ public class DesfireLight {
         //baosCmdHeader.write(ACCESS_RIGHTS_R_W_TMAC);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
@@ -2168,15 +2196,15 @@ public class DesfireLight {
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -2191,16 +2219,16 @@ public class DesfireLight {
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CREATE_TRANSACTION_MAC_FILE_COMMAND, createTransactionMacFileCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -2246,13 +2274,13 @@ public class DesfireLight {
         responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput2", macInput2));
+        log(methodName, "macInput2", macInput2);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -2355,7 +2383,7 @@ public class DesfireLight {
         final String methodName = "writeToADataFile";
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
         return writeToADataFile(fileNumber, 0, data);
     }
 
@@ -2366,7 +2394,7 @@ public class DesfireLight {
      * if the comm mode is 'MACed' it runs the Mac path,
      * if the comm mode is 'Full' it runs the Full.
      * The data is written to the  beginning of the file (offset = 0)
-     * If the data length exceeds the MAXIMUM_WRITE_MESSAGE_LENGTH the data will be written in chunks.
+     * If the data length exceeds the maximum write length of the ChunkingPolicy the data will be written in chunks.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      *
      * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
@@ -2382,7 +2410,7 @@ public class DesfireLight {
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkOffsetMinus(offset)) return false;
         if ((data == null) || (data.length < 1) || (data.length > MAXIMUM_FILE_SIZE)) {
@@ -2429,15 +2457,16 @@ public class DesfireLight {
             Log.d(TAG, printData("new data", data));
         }
 
-        // The chunking is done to avoid framing as the maximum command APDU length is limited to 66
-        // bytes including all overhead and attached MAC
+        // The chunking is done to avoid framing, the chunk length is given by the ChunkingPolicy
+        // (maximum command APDU length including all overhead, padding and attached MAC)
 
-        int numberOfWrites = dataLength / MAXIMUM_WRITE_MESSAGE_LENGTH;
-        int numberOfWritesMod = Utils.mod(dataLength, MAXIMUM_WRITE_MESSAGE_LENGTH);
+        int maximumWriteLength = getMaximumWriteLength(fileSettings.getCommunicationSettings());
+        int numberOfWrites = dataLength / maximumWriteLength;
+        int numberOfWritesMod = Utils.mod(dataLength, maximumWriteLength);
         if (numberOfWritesMod > 0) numberOfWrites++; // one extra write for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
+        Log.d(TAG, "data length: " + dataLength + " chunk length: " + maximumWriteLength + " numberOfWrites: " + numberOfWrites);
         boolean completeSuccess = true;
-        int numberOfDataToWrite = MAXIMUM_WRITE_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToWrite = maximumWriteLength; // we are starting with a maximum length
         int offsetChunk = 0;
         for (int i = 0; i < numberOfWrites; i++) {
             if (offsetChunk + numberOfDataToWrite > dataLength) {
@@ -2489,15 +2518,17 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "writeToADataFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset);
+        log(methodName, "data", data);
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > 40)) {
-            Log.e(TAG, methodName + " data is NULL or length is > 40, aborted");
-            log(methodName, "data is NULL or length is > 40, aborted");
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_PLAIN);
+        if ((data == null) || (data.length > maximumWriteLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumWriteLength + ", aborted");
+            log(methodName, "data is NULL or length is > " + maximumWriteLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > 40";
+            errorCodeReason = "data is NULL or length is > " + maximumWriteLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
@@ -2546,6 +2577,7 @@ public class DesfireLight {
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
             Log.d(TAG, methodName + " SUCCESS");
+            trackTransactionMac(WRITE_DATA_FILE_SECURE_COMMAND, getDataFileCommandHeader(fileNumber, offset, data.length), data);
             return true;
         } else {
             Log.d(TAG, methodName + " FAILURE");
@@ -2575,14 +2607,16 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "writeToADataFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset);
+        log(methodName, "data", data);
 
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_MACED);
+        if ((data == null) || (data.length > maximumWriteLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumWriteLength + ", aborted");
+            log(methodName, "data is NULL or length is > " + maximumWriteLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumWriteLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
@@ -2609,81 +2643,12 @@ public class DesfireLight {
         if (!checkAuthentication()) return false; // logFile and errorCode are updated
         if (!checkIsoDep()) return false; // logFile and errorCode are updated
 
-        // Generating the MAC for the Command APDU
+        // the command is CmdHeader || Data || MAC, the MAC is calculated by the command executor
+        // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData)
         // CmdHeader (FileNo || Offset || DataLength) Note: DataLength and NOT Data, e.g. 190000 for length = 25
-        byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
-        byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offsetBytes", offsetBytes));
-        log(methodName, printData("lengthBytes", lengthBytes));
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
-
-        // MAC_Input
-        //(Ins || CmdCounter || TI || CmdHeader || CmdData )
-        byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, data);
-        log(methodName, printData("macInput", macInput));
-
-        // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
-
-        // Constructing the full WriteData Command APDU
-        // Data (FileNo || Offset || DataLenght || Data)
-        ByteArrayOutputStream baosWriteDataCommand = new ByteArrayOutputStream();
-        baosWriteDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosWriteDataCommand.write(data, 0, data.length);
-        baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
-
-        byte[] response;
-        byte[] apdu;
-        byte[] responseMACTruncatedReceived;
-        try {
-            apdu = wrapMessage(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
-            response = sendData(apdu);
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-            return false;
-        }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            return false;
-        }
-
-        // note: after sending data to the card the commandCounter is increased by 1
-        CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-        //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return true;
-        } else {
-            log(methodName, methodName + " FAILURE");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " FAILURE";
-            return false;
-        }
+        byte[] cmdHeader = getDataFileCommandHeader(fileNumber, offset, data.length);
+        log(methodName, "cmdHeader", cmdHeader);
+        return (executeCommand(CommandDescriptor.WRITE_DATA, FILE_COMMUNICATION_SETTINGS_MACED, cmdHeader, data) != null);
     }
 
     /**
@@ -2702,18 +2667,20 @@ public class DesfireLight {
      * Note: check errorCode and errorCodeReason in case of failure
      */
 
-    private boolean writeToADataFileRawFull(byte fileNumber, int offset, byte[] data) {
+    boolean writeToADataFileRawFull(byte fileNumber, int offset, byte[] data) {
         String logData = "";
         final String methodName = "writeToADataFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset);
+        log(methodName, "data", data);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if ((data == null) || (data.length > maximumWriteLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumWriteLength + ", aborted");
+            log(methodName, "data is NULL or length is > " + maximumWriteLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumWriteLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
@@ -2739,143 +2706,17 @@ public class DesfireLight {
         if (!checkIsDataFileType(fileNumber)) return false;
         if (!checkAuthentication()) return false; // logFile and errorCode are updated
         if (!checkIsoDep()) return false; // logFile and errorCode are updated
-
-        // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
-        byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
-        // Encrypting the Command Data
-        // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
-        ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
-        baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
-        baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosIvInput.write(padding1, 0, padding1.length);
-        byte[] ivInput = baosIvInput.toByteArray();
-        */
-        log(methodName, printData("ivInput", ivInput));
-
-        // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
-        byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
-        //        log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
-
-        // Encrypted Data (complete), concatenate all byte arrays
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                return false;
-            }
-        }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
-
-        // Generating the MAC for the Command APDU
-        // CmdHeader (FileNo || Offset || DataLength)
-        byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
-        byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offset", offsetBytes));
-        log(methodName, printData("length", lengthBytes));
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
-
-        // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
-        byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
-
-        log(methodName, printData("macInput", macInput));
-
-        // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        if (!checkSecureMessaging()) return false; // logFile and errorCode are updated
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
         // correct is the following concatenation:
-
-        // Data (CmdHeader || Encrypted Data || MAC)
-        ByteArrayOutputStream baosWriteDataCommand = new ByteArrayOutputStream();
-        baosWriteDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
-        baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
-
-        byte[] response = new byte[0];
-        byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
-        try {
-            apdu = wrapMessage(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
-            response = sendData(apdu);
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-            return false;
-        }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            return false;
-        }
-
-        // note: after sending data to the card the commandCounter is increased by 1
-        CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-        //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return true;
-        } else {
-            log(methodName, methodName + " FAILURE");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " FAILURE";
-            return false;
-        }
+        // Data (CmdHeader || Encrypted Data || MAC), the padding, encryption and MAC are done by the
+        // command executor with the CmdCounter before the increase
+        // CmdHeader (FileNo || Offset || DataLength)
+        byte[] cmdHeader = getDataFileCommandHeader(fileNumber, offset, data.length);
+        log(methodName, "cmdHeader", cmdHeader);
+        return (executeCommand(CommandDescriptor.WRITE_DATA, FILE_COMMUNICATION_SETTINGS_FULL, cmdHeader, data) != null);
     }
 
     // use this if a Transaction MAC file is present in the application
@@ -2883,14 +2724,16 @@ public class DesfireLight {
         String logData = "";
         final String methodName = "writeToADataFileRawFullTmac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset);
+        log(methodName, "data", data);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if ((data == null) || (data.length > maximumWriteLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumWriteLength + ", aborted");
+            log(methodName, "data is NULL or length is > " + maximumWriteLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumWriteLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
@@ -2919,8 +2762,8 @@ public class DesfireLight {
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
         byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
+        log(methodName, "data unpad", data);
+        log(methodName, "data pad  ", dataPadded);
 
         int numberOfDataBlocks = dataPadded.length / 16;
         log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
@@ -2932,7 +2775,7 @@ public class DesfireLight {
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -2941,25 +2784,25 @@ public class DesfireLight {
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
          */
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         List<byte[]> dataBlockEncryptedList = new ArrayList<>();
         byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
 
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+            byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
             dataBlockEncryptedList.add(dataBlockEncrypted);
             ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
         }
-        //        log(methodName, printData("startingIv", startingIv));
+        //        log(methodName, "startingIv", startingIv);
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
+            log(methodName, "dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i));
         }
 
         // Encrypted Data (complete), concatenate all byte arrays
@@ -2974,20 +2817,20 @@ public class DesfireLight {
             }
         }
         byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offset", offsetBytes));
-        log(methodName, printData("length", lengthBytes));
+        log(methodName, "offset", offsetBytes);
+        log(methodName, "length", lengthBytes);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
@@ -3000,15 +2843,15 @@ public class DesfireLight {
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
         */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
@@ -3020,7 +2863,7 @@ public class DesfireLight {
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -3070,7 +2913,7 @@ public class DesfireLight {
      * If the comm mode is 'Plain' it runs the Plain path
      * If the comm mode is 'MACed' it runs the Mac path
      * If the comm mode is 'Full' it runs the Full path
-     * If the data length exceeds the MAXIMUM_READ_MESSAGE_LENGTH the data will be read in chunks.
+     * If the data length exceeds the maximum read length of the ChunkingPolicy the data will be read in chunks.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      *
      * @param fileNumber | in range 0..31 AND file is a Standard file
@@ -3148,21 +2991,34 @@ public class DesfireLight {
             if (!isMacedMode) log(methodName, "CommunicationMode is Full enciphered");
         }
 
-        // The chunking is done to avoid framing as the maximum command APDU length is limited
-        // bytes including all overhead and attached MAC
+        // in Full mode the complete data is read with one command, the PICC returns the data in several frames
+        if ((isFullModeResponseChainingEnabled) && (!isPlainMode) && (!isMacedMode) && (secureMessaging != null)) {
+            byte[] readData = readFromADataFileFullChained(fileNumber, offset, length);
+            if (readData == null) {
+                Log.e(TAG, methodName + " could not successfully read, aborted");
+                log(methodName, "could not successfully read, aborted");
+                return null; // errorCode is given by the read method before
+            }
+            log(methodName, "SUCCESS");
+            return readData;
+        }
+
+        // The chunking is done to avoid framing, the chunk length is given by the ChunkingPolicy
+        // (maximum response frame length including padding and attached MAC)
 
         int dataLength = length;
-        int numberOfRounds = dataLength / MAXIMUM_READ_MESSAGE_LENGTH;
-        int numberOfRoundsMod = Utils.mod(dataLength, MAXIMUM_READ_MESSAGE_LENGTH);
+        int maximumReadLength = getMaximumReadLength(commMode);
+        int numberOfRounds = dataLength / maximumReadLength;
+        int numberOfRoundsMod = Utils.mod(dataLength, maximumReadLength);
         if (numberOfRoundsMod > 0) numberOfRounds++; // one extra round for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
+        Log.d(TAG, "data length: " + dataLength + " chunk length: " + maximumReadLength + " numberOfRounds: " + numberOfRounds);
         boolean completeSuccess = true;
         int offsetChunk = offset;
-        int numberOfDataToRead = MAXIMUM_READ_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToRead = maximumReadLength; // we are starting with a maximum length
         byte[] dataToRead = new byte[length]; // complete data
         for (int i = 0; i < numberOfRounds; i++) {
-            if (offsetChunk + numberOfDataToRead > dataLength) {
-                numberOfDataToRead = dataLength - offsetChunk;
+            if (offsetChunk + numberOfDataToRead > offset + dataLength) {
+                numberOfDataToRead = offset + dataLength - offsetChunk;
             }
             byte[] dataToReadChunk = null;
             if (isPlainMode) {
@@ -3186,14 +3042,14 @@ public class DesfireLight {
             {
                 // copy the dataToReadChunk in the complete data array
                 // in some circumstances some additional data like a CRC or MAC is appended - this needs to get stripped off
-                int realLength = (i * MAXIMUM_READ_MESSAGE_LENGTH) + dataToReadChunk.length;
+                int realLength = (i * maximumReadLength) + dataToReadChunk.length;
                 if (realLength > dataToRead.length) {
-                    dataToReadChunk = Arrays.copyOfRange(dataToReadChunk, 0, dataToRead.length - (i * MAXIMUM_READ_MESSAGE_LENGTH));
+                    dataToReadChunk = Arrays.copyOfRange(dataToReadChunk, 0, dataToRead.length - (i * maximumReadLength));
 
                 }
-                System.arraycopy(dataToReadChunk, 0, dataToRead, (i * MAXIMUM_READ_MESSAGE_LENGTH), dataToReadChunk.length);
+                System.arraycopy(dataToReadChunk, 0, dataToRead, (i * maximumReadLength), dataToReadChunk.length);
             }
-            log(methodName, Utils.printData("dataToRead", dataToRead));
+            log(methodName, "dataToRead", dataToRead);
         }
         errorCode = RESPONSE_OK.clone();
         log(methodName, "SUCCESS");
@@ -3218,7 +3074,12 @@ public class DesfireLight {
             // responseTmcv length: 12 data: 04000000c2e11a34e0513de7
             // readTMACFile length: 12 data: 04000000c2e11a34e0513de7
             // TMAC counter: 4 tmacEnc length: 8 data: c2e11a34e0513de7
-            // todo last step is to calculate the TMV
+            // the TMV is calculated by the TransactionMacTracker, with the TMC known now the next transaction
+            // is tracked with the TMV calculated along with the commands
+            if ((transactionMacTracker != null) && (transactionMacTracker.isEmpty())) {
+                transactionMacTracker.start(tmacInt);
+                log("readFromATransactionMacFile", "the TransactionMacTracker is started with TMC " + tmacInt);
+            }
 
             // example: write To Record file
             // data: length: 256 data: 323032332e30382e32342032333a33333a3032000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f202122232425262728292a2b2c2d2e2f303132333435363738393a3b3c3d3e3f404142434445464748494a4b4c4d4e4f505152535455565758595a5b5c5d5e5f606162636465666768696a6b6c6d6e6f707172737475767778797a7b7c7d7e7f808182838485868788898a8b8c8d8e8f909192939495969798999a9b9c9d9e9fa0a1a2a3a4a5a6a7a8a9aaabacadaeafb0b1b2b3b4b5b6b7b8b9babbbcbdbebfc0c1c2c3c4c5c6c7c8c9cacbcccdcecfd0d1d2d3d4d5d6d7d8d9dadbdcdddedfe0e1e2e3e4e5e6e7e8e9eaebec
@@ -3253,35 +3114,6 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         return receivedData;
     }
 
-    private byte[] getSesTMMACKey(byte[] tmc, byte[] uid) {
-
-        // status: INCOMPLETE
-
-        // see MIFARE DESFire Light contactless application IC MF2DLHX0.pdf page 42
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        // the text is: a 1-byte label, distinguishing the purpose of the key: 31h for MACing and 32h for encryption
-        // the vector is described as: SV1 = 5Ah||00h||01h||00h||80h||(TMC+1)||UID
-        // so is 5A or 31 correct ?
-        byte macLabel = (byte) 0x5A;
-        //a 2-byte counter, fixed to 0001h as only 128-bit keys are generated.
-        byte[] counterLabel = new byte[]{(byte) 0x00, (byte) 0x01};
-        // a 2-byte length, fixed to 0080h as only 128-bit keys are generated.
-        byte[] lengthLabel = new byte[]{(byte) 0x00, (byte) 0x80};
-        byte[] c;
-        baos.write(macLabel);
-        baos.write(counterLabel, 0, counterLabel.length);
-        baos.write(lengthLabel, 0, lengthLabel.length);
-        int tmcOld = intFrom4ByteArrayInversed(tmc);
-        byte[] tmcNew = intTo2ByteArrayInversed(tmcOld + 1);
-        baos.write(tmcNew, 0, tmcNew.length);
-        baos.write(uid, 0, uid.length);
-        byte[] sv1 = baos.toByteArray();
-        Log.d(TAG, "getSesTMMACKey " + printData("sv1", sv1));
-        return sv1;
-    }
-
-
     /**
      * Read data from a Data file in Communication mode Plain, beginning at offset position and length of data.
      * As the amount of data that can be send from PICC to reader is limited and the PICC will chunk the
@@ -3352,7 +3184,10 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         errorCode = RESPONSE_OK.clone();
         errorCodeReason = "SUCCESS";
-        byte[] readData = Arrays.copyOfRange(getData(response), 0, length);
+        // the response is data || 9100, the data is copied once without the intermediate getData copy
+        byte[] readData = Arrays.copyOf(response, length);
+        if (length > response.length - 2) Arrays.fill(readData, response.length - 2, length, (byte) 0x00);
+        trackTransactionMac(READ_DATA_FILE_SECURE_COMMAND, commandParameter, readData);
         return readData;
     }
 
@@ -3381,11 +3216,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
-        if (length > MAXIMUM_READ_MESSAGE_LENGTH) {
-            Log.e(TAG, methodName + " length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
-            log(methodName, "length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
+        int maximumReadLength = getMaximumReadLength(FILE_COMMUNICATION_SETTINGS_MACED);
+        if (length > maximumReadLength) {
+            Log.e(TAG, methodName + " length is > " + maximumReadLength + ", aborted");
+            log(methodName, "length is > " + maximumReadLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "length is > MAXIMUM_READ_MESSAGE_LENGTH";
+            errorCodeReason = "length is > " + maximumReadLength;
             return null;
         }
         // getFileSettings for file type and length information
@@ -3417,98 +3253,140 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         if (!checkIsDataFileType(fileNumber)) return null;
         if (!checkIsoDep()) return null; // logFile and errorCode are updated
 
-        // Generating the MAC for the Command APDU
+        // the command is CmdHeader || MAC, the response is RespData || MAC (8 bytes), both MACs are
+        // calculated by the command executor
         // CmdHeader (FileNo || Offset || DataLength)
-        byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
-        byte[] lengthBytes = Utils.intTo3ByteArrayInversed(length); // LSB order
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
-
-        // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
-        byte[] macInput = getMacInput(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
-/*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(READ_DATA_FILE_SECURE_COMMAND); // 0xAD
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(cmdHeader, 0, cmdHeader.length);
-        byte[] macInput = baosMacInput.toByteArray();
+        byte[] cmdHeader = getDataFileCommandHeader(fileNumber, offset, length);
+        log(methodName, "cmdHeader", cmdHeader);
+        byte[] macedData = executeCommand(CommandDescriptor.READ_DATA, FILE_COMMUNICATION_SETTINGS_MACED, cmdHeader, null);
+        if (macedData == null) return null; // errorCode and errorCodeReason are set by executeCommand
+        if (macedData.length < length) {
+            Log.d(TAG, methodName + " FAILURE, response is too short");
+            errorCode = RESPONSE_LENGTH_ERROR.clone();
+            errorCodeReason = "response is too short";
+            return null;
+        }
+        byte[] readData = Arrays.copyOf(macedData, length);
+        log(methodName, "readData", readData);
+        return readData;
+    }
 
- */
-        log(methodName, printData("macInput", macInput));
+    /**
+     * Read data from a Data file in Communication mode Full with one ReadData command. The PICC returns
+     * the data in several frames (status 0xAF) when the response exceeds its frame size. Each frame is
+     * decrypted and fed to the response MAC calculation when it arrives, so the complete range costs one
+     * secure messaging command (one MAC, one IV and one CmdCounter increase) instead of one per chunk.
+     * This method needs the session CMAC and cipher that are created on authentication.
+     * DO NOT CALL this method from outside this class but use readFromADataFile
+     * as it uses the pre-read fileSettings
+     *
+     * @param fileNumber | in range 0..31
+     * @param offset     | offset in the file
+     * @param length     | length of data > 1
+     * @return the read data or NULL
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
 
-        // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
-
-        // Constructing the full ReadData Command APDU
-        // Data (FileNo || Offset || DataLength)
-        ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
-        baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
-
-        byte[] response;
-        byte[] apdu;
-        byte[] fullMacedData;
-        byte[] macedData;
-        byte[] responseMACTruncatedReceived;
+    byte[] readFromADataFileFullChained(byte fileNumber, int offset, int length) {
+        String logData = "";
+        final String methodName = "readFromADataFileFullChained";
+        log(methodName, "started", true);
+        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        // sanity checks
+        if (!checkFileNumber(fileNumber)) return null; // logFile and errorCode are updated
+        if (!checkAuthentication()) return null; // logFile and errorCode are updated
+        if (!checkOffsetMinus(offset)) return null;
+        if (length < 1) {
+            Log.e(TAG, methodName + " length is < 1, aborted");
+            log(methodName, "length is < 1, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "length is < 1";
+            return null;
+        }
+        // getFileSettings for file type, communication mode and length information
+        FileSettings fileSettings;
         try {
-            apdu = wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand);
-            response = sendData(apdu);
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
+            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        } catch (NullPointerException e) {
+            fileSettings = null;
+        }
+        if (fileSettings == null) {
+            Log.e(TAG, methodName + " could not read fileSettings, aborted");
+            log(methodName, "could not read fileSettings, aborted");
+            errorCode = RESPONSE_FAILURE_MISSING_GET_FILE_SETTINGS.clone();
+            errorCodeReason = "could not read fileSettings, aborted";
             return null;
         }
-
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullMacedData = Arrays.copyOf(response, response.length - 2);
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+        if ((!checkIsDataFileType(fileNumber)) && (!checkIsTransactionMacFileType(fileNumber))) return null;
+        if (fileSettings.getCommunicationSettings() != FILE_COMMUNICATION_SETTINGS_FULL) {
+            Log.e(TAG, methodName + " CommunicationMode is not Full enciphered, aborted");
+            log(methodName, "CommunicationMode is not Full enciphered, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "CommunicationMode is not Full enciphered";
+            return null;
+        }
+        int fileSize = fileSettings.getFileSizeInt();
+        if ((offset + length) > fileSize) {
+            Log.e(TAG, methodName + " (offset + length) is > fileSize, aborted");
+            log(methodName, "(offset + length) is > fileSize, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "(offset + length) is > fileSize";
             return null;
         }
+        if (!checkSecureMessaging()) return null; // logFile and errorCode are updated
+        if (!checkIsoDep()) return null; // logFile and errorCode are updated
+
+        // command header (FileNo || Offset || Length) and MAC
+        byte[] cmdHeader = new byte[7];
+        cmdHeader[0] = fileNumber;
+        System.arraycopy(Utils.intTo3ByteArrayInversed(offset), 0, cmdHeader, 1, 3); // LSB order
+        System.arraycopy(Utils.intTo3ByteArrayInversed(length), 0, cmdHeader, 4, 3); // LSB order
+        log(methodName, "cmdHeader", cmdHeader);
+        long start = getCryptoStart();
+        byte[] readDataCommand = secureMessaging.buildCommand(READ_DATA_FILE_SECURE_COMMAND, CmdCounter, cmdHeader, null, FILE_COMMUNICATION_SETTINGS_FULL);
+        recordCrypto(start, false);
+        log(methodName, "readDataCommand", readDataCommand);
+
+        // the response is the padded encrypted data followed by the 8 bytes MAC, each frame is decrypted and fed to the
+        // response MAC when it arrives. The response MAC and decryption use the CmdCounter after the increase
+        byte[] decryptedData = new byte[((length / 16) + 1) * 16]; // data with padding
+        SecureResponseStream responseStream = secureMessaging.getResponseStream();
+        start = getCryptoStart();
+        responseStream.start(TransactionIdentifier, CmdCounter + 1, true, decryptedData, 0, decryptedData.length);
+        recordCrypto(start, false);
+        if (!sendRequestChained(READ_DATA_FILE_SECURE_COMMAND, readDataCommand, responseStream)) {
+            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(errorCode));
+            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(errorCode));
+            return null; // errorCode and errorCodeReason are set by sendRequestChained
+        }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
         log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-
-        int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
-        macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
-        byte[] readData = Arrays.copyOfRange(macedData, 0, length);
-        log(methodName, printData("readData", readData));
-        if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return readData;
-        } else {
+        log(methodName, "received " + responseStream.getReceivedLength() + " bytes in " + responseStream.getNumberOfFrames() + " frames");
+        start = getCryptoStart();
+        boolean isMacVerified = responseStream.finish();
+        recordCrypto(start, true);
+        if (responseStream.getDataLength() < length) {
+            Log.d(TAG, methodName + " FAILURE, response is too short");
+            errorCode = RESPONSE_LENGTH_ERROR.clone();
+            errorCodeReason = "response is too short";
+            return null;
+        }
+        log(methodName, "responseMACTruncatedReceived  ", responseStream.getReceivedMac());
+        log(methodName, "responseMACTruncatedCalculated", responseStream.getCalculatedMac());
+        if (!isMacVerified) {
             log(methodName, methodName + " FAILURE");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " FAILURE";
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE, response MAC does not match";
             return null;
         }
+        byte[] readData = Arrays.copyOf(decryptedData, length);
+        log(methodName, "readData", readData);
+        trackTransactionMac(READ_DATA_FILE_SECURE_COMMAND, cmdHeader, readData);
+        log(methodName, methodName + " SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return readData;
     }
 
     /**
@@ -3525,10 +3403,10 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      * Note: check errorCode and errorCodeReason in case of failure
      */
 
-    private byte[] readFromADataFileRawFull(byte fileNumber, int offset, int length) {
+    byte[] readFromADataFileRawFull(byte fileNumber, int offset, int length) {
 
-        // the absolute maximum of data that can be read on a DESFire EV3 in one run is 239 bytes but this is limited
-        // here to 128 bytes. If you want to read more use the chunking method readFromStandardFile()
+        // the absolute maximum of data that can be read on a DESFire EV3 in one run is 239 bytes, the limit
+        // is given by the ChunkingPolicy. If you want to read more use the chunking method readFromADataFile()
 
         String logData = "";
         final String methodName = "readFromADataFileRawFull";
@@ -3537,11 +3415,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
-        if (length > MAXIMUM_READ_MESSAGE_LENGTH) {
-            Log.e(TAG, methodName + " length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
-            log(methodName, "length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
+        int maximumReadLength = getMaximumReadLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if (length > maximumReadLength) {
+            Log.e(TAG, methodName + " length is > " + maximumReadLength + ", aborted");
+            log(methodName, "length is > " + maximumReadLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "length is > MAXIMUM_READ_MESSAGE_LENGTH";
+            errorCodeReason = "length is > " + maximumReadLength;
             return null;
         }
         // getFileSettings for file type and length information
@@ -3573,115 +3452,24 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // todo if (!checkIsDataFileType(fileNumber)) return null; for tmac file as well
         //if (!checkIsDataFileType(fileNumber)) return null;
         if (!checkIsoDep()) return null; // logFile and errorCode are updated
-
-        // command header
-        byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
-        byte[] lengthBytes = Utils.intTo3ByteArrayInversed(length); // LSB order
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
-
-        // MAC_Input
-        byte[] macInput = getMacInput(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(READ_DATA_FILE_SECURE_COMMAND); // 0xAD
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(cmdHeader, 0, cmdHeader.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        */
-
-        log(methodName, printData("macInput", macInput));
-
-        // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
-
-        // Constructing the full ReadData Command APDU
-        ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
-        baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
-        byte[] response = new byte[0];
-        byte[] apdu = new byte[0];
-        byte[] fullEncryptedData;
-        byte[] encryptedData;
-        byte[] responseMACTruncatedReceived;
-        try {
-            apdu = wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand);
-            response = sendData(apdu);
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-            return null;
-        }
-
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullEncryptedData = Arrays.copyOf(response, response.length - 2);
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            return null;
-        }
-        // note: after sending data to the card the commandCounter is increased by 1
-        CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-        // response length: 58 data: 8b61541d54f73901c8498c71dd45bae80578c4b1581aad439a806f37517c86ad4df8970279bbb8874ef279149aaa264c3e5eceb0e37a87699100
-
-        // the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
-        int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
-        encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
-
-        // start decrypting the data
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
-        byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // fixed to 0x5AA5
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
-        byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
-        log(methodName, printData("readData", readData));
-
-        if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return readData;
-        } else {
-            log(methodName, methodName + " FAILURE");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " FAILURE";
+        if (!checkSecureMessaging()) return null; // logFile and errorCode are updated
+
+        // command header (FileNo || Offset || Length), the command is CmdHeader || MAC
+        // the response is Enc(RespData || Padding) || MAC (8 bytes), the MAC is verified and the data decrypted by
+        // the command executor with the CmdCounter after the increase
+        byte[] cmdHeader = getDataFileCommandHeader(fileNumber, offset, length);
+        log(methodName, "cmdHeader", cmdHeader);
+        byte[] decryptedData = executeCommand(CommandDescriptor.READ_DATA, FILE_COMMUNICATION_SETTINGS_FULL, cmdHeader, null);
+        if (decryptedData == null) return null; // errorCode and errorCodeReason are set by executeCommand
+        if (decryptedData.length < length) {
+            Log.d(TAG, methodName + " FAILURE, response is too short");
+            errorCode = RESPONSE_LENGTH_ERROR.clone();
+            errorCodeReason = "response is too short";
             return null;
         }
+        byte[] readData = Arrays.copyOf(decryptedData, length);
+        log(methodName, "readData", readData);
+        return readData;
     }
 
     // NOT WORKING
@@ -3740,7 +3528,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         errorCode = RESPONSE_OK.clone();
         errorCodeReason = "SUCCESS";
-        byte[] readData = Arrays.copyOfRange(getData(response), 0, length);
+        // the response is data || 9100, the data is copied once without the intermediate getData copy
+        byte[] readData = Arrays.copyOf(response, length);
+        if (length > response.length - 2) Arrays.fill(readData, response.length - 2, length, (byte) 0x00);
         return readData;
     }
 
@@ -3783,7 +3573,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // if the file settings grant a free access to read value this  will override any file communication settings
         if (fileSettings.isGetFreeValueAccessEnabled()) {
             log(methodName, "in fileSettings is a free read value access granted, read the value in Plain (overriding the Communication.Mode)");
-            return readFromAValueFileRawPlain(fileNumber);
+            return readFromAValueFileRaw(fileNumber, FILE_COMMUNICATION_SETTINGS_PLAIN);
         }
 
         // the check on authentication depends on the communication mode in file settings:
@@ -3803,313 +3593,39 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if (!checkIsoDep()) return -1;
 
-        boolean isPlainMode = false;
-        boolean isMacedMode = false;
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_MACED) {
-            isMacedMode = true;
-            log(methodName, "CommunicationMode is MACed");
-        }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_PLAIN) {
-            isPlainMode = true;
-            log(methodName, "CommunicationMode is Plain");
-        } else {
-            if (!isMacedMode) log(methodName, "CommunicationMode is Full enciphered");
-        }
-
-        if (isPlainMode) {
-            return readFromAValueFileRawPlain(fileNumber);
-        } else {
-            if (isMacedMode) {
-                return readFromAValueFileRawMac(fileNumber);
-            } else {
-                return readFromAValueFileRawFull(fileNumber);
-            }
-        }
+        log(methodName, "CommunicationMode is " + commMode);
+        return readFromAValueFileRaw(fileNumber, commMode);
     }
 
     /**
-     * read the value of a Value file in Communication mode Plain
+     * read the value of a Value file in Communication mode Plain, MACed or Full with the generic command executor
      * Note: There are no sanity checks on parameter, Communication mode or authentication status
      * so this method should be called by 'readFromAValueFile' only.
      *
-     * @param fileNumber | in range 0..31
+     * @param fileNumber        | in range 0..31
+     * @param communicationMode | the communication mode of the file
      * @return the integer value or -1 on failure
      */
-    private int readFromAValueFileRawPlain(byte fileNumber) {
-        String logData = "";
-        final String methodName = "readFromAValueFileRawPlain";
-        log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "started", true);
-        if (!checkIsoDep()) return -1;
-
-        byte[] apdu;
-        byte[] response;
-        try {
-            apdu = wrapMessage(GET_VALUE_COMMAND, new byte[]{fileNumber});
-            response = sendData(apdu);
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-            return -1;
-        }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
-            errorCodeReason = "SUCCESS";
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            errorCodeReason = "FAILURE";
-            return -1;
-        }
-        byte[] valueBytes = getData(response);
-        return Utils.byteArrayLength4InversedToInt(valueBytes);
+    private int readFromAValueFileRaw(byte fileNumber, byte communicationMode) {
+        // see Mifare DESFire Light Features and Hints AN12343.pdf pages 67 - 70
+        // Data (CmdHeader = File number || MAC), the response is the value (4 bytes LSB)
+        byte[] value = executeCommand(CommandDescriptor.GET_VALUE, communicationMode, new byte[]{fileNumber}, null);
+        if (value == null) return -1;
+        return byteArrayLength4InversedToInt(value);
     }
 
     /**
-     * read the value of a Value file in Communication mode MACed
-     * Note: There are no sanity checks on parameter, Communication mode or authentication status
-     * so this method should be called by 'readFromAValueFile' only.
+     * credits or debits the value of a Value file in Communication modes Plain, MACed or Full enciphered
      *
-     * @param fileNumber | in range 0..31
-     * @return the integer value or -1 on failure
+     * @param fileNumber  | in range 0..31
+     * @param changeValue | minimum 1, maximum depending on fileSettings
+     * @param isCredit    | true for crediting, false for debiting
+     * @return | true on success
      */
-    private int readFromAValueFileRawMac(byte fileNumber) {
+
+    public boolean changeAValueFile(byte fileNumber, int changeValue, boolean isCredit) {
         String logData = "";
-        final String methodName = "readFromAValueFileRawMac";
-        log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        if (!checkIsoDep()) return -1;
-
-        // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
-        byte[] macInput = getMacInput(GET_VALUE_COMMAND, new byte[]{fileNumber});
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(GET_VALUE_COMMAND); // 0x6C
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(fileNumber);
-        byte[] macInput = baosMacInput.toByteArray();
-        */
-        log(methodName, printData("macInput", macInput));
-
-        // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
-
-        // Data (CmdHeader = File number || MAC)
-        ByteArrayOutputStream baosGetValueCommand = new ByteArrayOutputStream();
-        baosGetValueCommand.write(fileNumber);
-        baosGetValueCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] getValueCommand = baosGetValueCommand.toByteArray();
-        log(methodName, printData("getValueCommand", getValueCommand));
-
-        byte[] response = new byte[0];
-        byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
-        byte[] fullMacedData;
-        byte[] macedData;
-        try {
-            apdu = wrapMessage(GET_VALUE_COMMAND, getValueCommand);
-            response = sendData(apdu);
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-            return -1;
-        }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
-            macedData = Arrays.copyOf(response, response.length - 2);
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            return -1;
-        }
-
-        // note: after sending data to the card the commandCounter is increased by 1
-        CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-
-        int dataLength = macedData.length - 8;
-        log(methodName, "The macedData is of length " + macedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The data length is " + dataLength);
-        byte[] data = Arrays.copyOfRange(macedData, 0, dataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(macedData, dataLength, macedData.length);
-        log(methodName, printData("data", data));
-
-        // verifying the received Response MAC
-        if (verifyResponseMac(responseMACTruncatedReceived, data)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return byteArrayLength4InversedToInt(data);
-        } else {
-            log(methodName, methodName + " FAILURE");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " FAILURE";
-            return -1;
-        }
-    }
-
-    /**
-     * read the value of a Value file in Communication mode Full
-     * Note: There are no sanity checks on parameter, Communication mode or authentication status
-     * so this method should be called by 'readFromAValueFile' only.
-     *
-     * @param fileNumber | in range 0..31
-     * @return the integer value or -1 on failure
-     */
-    private int readFromAValueFileRawFull(byte fileNumber) {
-        String logData = "";
-        final String methodName = "readFromAValueFileRawFull";
-        log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        if (!checkIsoDep()) return -1;
-
-        // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
-
-        // test data
-        //CmdCounter = 0;
-        //TransactionIdentifier = Utils.hexStringToByteArray("E412166F");
-        //SesAuthMACKey = Utils.hexStringToByteArray("D1CC5CE9FC9F1970348D33D01FAFEF8F");
-
-
-        byte[] macInput = getMacInput(GET_VALUE_COMMAND, new byte[]{fileNumber});
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(GET_VALUE_COMMAND); // 0x6C
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(fileNumber);
-        byte[] macInput = baosMacInput.toByteArray();
-        */
-        log(methodName, printData("macInput", macInput));
-        //log(methodName, printData("macInExp", Utils.hexStringToByteArray("6C0000E412166F03")));
-
-        // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
-        //log(methodName, printData("macTruncaExp", Utils.hexStringToByteArray("B775DA280F3E7300")));
-
-        // Data (CmdHeader = File number || MAC)
-        ByteArrayOutputStream baosGetValueCommand = new ByteArrayOutputStream();
-        baosGetValueCommand.write(fileNumber);
-        baosGetValueCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] getValueCommand = baosGetValueCommand.toByteArray();
-        log(methodName, printData("getValueCommand", getValueCommand));
-
-        byte[] response = new byte[0];
-        byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
-        byte[] fullEncryptedData;
-        byte[] encryptedData;
-        try {
-            apdu = wrapMessage(GET_VALUE_COMMAND, getValueCommand);
-            //               00000000300000
-            // AD0100CD73D8E500000000300000
-            // real    906c00000903b775da280f3e730000
-            // example 906C00000903B775DA280F3E730000
-            response = sendData(apdu);
-            //log(methodName, Utils.printData("send aExp -->", Utils.hexStringToByteArray("906C00000903B775DA280F3E730000")));
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-            return -1;
-        }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullEncryptedData = Arrays.copyOf(response, response.length - 2);
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            return -1;
-        }
-
-        // note: after sending data to the card the commandCounter is increased by 1
-        CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-
-        // the fullEncryptedData is xx bytes long, the first xx bytes are encryptedData and the last 8 bytes are the responseMAC
-        int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
-        encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
-
-        // start decrypting the data
-        //byte[] header = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
-        byte[] padding = hexStringToByteArray("0000000000000000"); // fixed 8 bytes
-        byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length);
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData)); // should be the cardUID || 9 zero bytes
-        // 00000000800000000000000000000000 should be like value (4 bytes LSB) || 12 padding bytes (0x80..00)
-        byte[] readData = Arrays.copyOfRange(decryptedData, 0, 4);
-        log(methodName, printData("readData", readData));
-
-        // verifying the received Response MAC
-        if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return byteArrayLength4InversedToInt(decryptedData);
-        } else {
-            log(methodName, methodName + " FAILURE");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " FAILURE";
-            return -1;
-        }
-    }
-
-    /**
-     * credits or debits the value of a Value file in Communication modes Plain, MACed or Full enciphered
-     *
-     * @param fileNumber  | in range 0..31
-     * @param changeValue | minimum 1, maximum depending on fileSettings
-     * @param isCredit    | true for crediting, false for debiting
-     * @return | true on success
-     */
-
-    public boolean changeAValueFile(byte fileNumber, int changeValue, boolean isCredit) {
-        String logData = "";
-        final String methodName = "changeAValueFile";
+        final String methodName = "changeAValueFile";
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "started", true);
         // sanity checks
@@ -4145,418 +3661,82 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if (!checkIsoDep()) return false;
 
-        boolean isPlainMode = false;
-        boolean isMacedMode = false;
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_MACED) {
-            isMacedMode = true;
-            log(methodName, "CommunicationMode is MACed");
-        }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_PLAIN) {
-            isPlainMode = true;
-            log(methodName, "CommunicationMode is Plain");
-        } else {
-            if (!isMacedMode) log(methodName, "CommunicationMode is Full enciphered");
-        }
-
-        if (isPlainMode) {
-            return changeAValueFileRawPlain(fileNumber, changeValue, isCredit);
-        } else {
-            if (isMacedMode) {
-                return changeAValueFileRawMac(fileNumber, changeValue, isCredit);
-            } else {
-                return changeAValueFileRawFull(fileNumber, changeValue, isCredit);
-            }
-        }
+        log(methodName, "CommunicationMode is " + commMode);
+        return changeAValueFileRaw(fileNumber, changeValue, isCredit, commMode);
     }
 
-
     /**
-     * credits or debits the value of a Value file in Communication mode Plain.
+     * credits or debits the value of a Value file in Communication mode Plain, MACed or Full with the generic
+     * command executor
      * Note: There are no sanity checks on parameter, Communication mode or authentication status
      * so this method should be called by 'changeAValueFile' only.
      *
-     * @param fileNumber  | in range 0..31
-     * @param changeValue | minimum 1, maximum depending on fileSettings
-     * @param isCredit    | true for crediting, false for debiting
+     * @param fileNumber        | in range 0..31
+     * @param changeValue       | minimum 1, maximum depending on fileSettings
+     * @param isCredit          | true for crediting, false for debiting
+     * @param communicationMode | the communication mode of the file
      * @return | true on success
      */
-    private boolean changeAValueFileRawPlain(byte fileNumber, int changeValue, boolean isCredit) {
-        String logData = "";
-        final String methodName = "changeAValueFileRawPlain";
-        log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
-
-        if (!checkValueMinus(changeValue)) return false;
-        if (!checkIsoDep()) return false;
-
-        byte[] changeValueBytes = Utils.intTo4ByteArrayInversed(changeValue);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(fileNumber);
-        baos.write(changeValueBytes, 0, changeValueBytes.length);
-        byte[] commandParameter = baos.toByteArray();
-        byte[] apdu;
-        byte[] response;
-        try {
-            if (isCredit) {
-                apdu = wrapMessage(CREDIT_VALUE_FILE_COMMAND, commandParameter);
-            } else {
-                apdu = wrapMessage(DEBIT_VALUE_FILE_COMMAND, commandParameter);
-            }
-            response = sendData(apdu);
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-            return false;
-        }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
-            return true;
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            errorCodeReason = "FAILURE";
-            return false;
-        }
+    private boolean changeAValueFileRaw(byte fileNumber, int changeValue, boolean isCredit, byte communicationMode) {
+        // see Mifare DESFire Light Features and Hints AN12343.pdf pages 70 - 71
+        // error in Feature and Hints page 70 point 23
+        // wrong: Data (CmdHeader || MAC) and Data Messaging
+        // correct: Data (CmdHeader || (Encrypted) Data || MAC), CmdHeader = FileNo, Data = Value (4 bytes LSB)
+        // Note: this document does not mention to submit a COMMIT command !
+        CommandDescriptor descriptor = isCredit ? CommandDescriptor.CREDIT_VALUE : CommandDescriptor.DEBIT_VALUE;
+        byte[] value = intTo4ByteArrayInversed(changeValue);
+        return (executeCommand(descriptor, communicationMode, new byte[]{fileNumber}, value) != null);
     }
 
     /**
-     * credits or debits the value of a Value file in Communication mode MACed.
-     * Note: There are no sanity checks on parameter, Communication mode or authentication status
-     * so this method should be called by 'changeAValueFile' only.
-     *
-     * @param fileNumber  | in range 0..31
-     * @param changeValue | minimum 1, maximum depending on fileSettings
-     * @param isCredit    | true for crediting, false for debiting
-     * @return | true on success
+     * section for record files
      */
 
-    private boolean changeAValueFileRawMac(byte fileNumber, int changeValue, boolean isCredit) {
+    /**
+     * The method writes a byte array to a Linear or Cyclic Record file. The communication mode is read out from
+     * 'getFileSettings command'. If the comm mode is 'Plain' it runs the Plain path, otherwise it
+     * uses the 'Full' path. If the comm mode is 'MACed' the method ends a there is no method available
+     * within this class to handle those files, sorry.
+     * The data is written to the offset position of the file
+     * If the data length exceeds the MAXIMUM_WRITE_MESSAGE_LENGTH the data will be written in chunks.
+     * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
+     * If the data length exceeds record size the data is truncated
+     *
+     * @param fileNumber | in range 0..31 AND file is a Linear or Cyclic Record file
+     * @param offset     | position to write the data, starting with 0
+     * @param data
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean writeToARecordFile(byte fileNumber, int offset, byte[] data) {
         String logData = "";
-        final String methodName = "changeAValueFileRawMac";
+        final String methodName = "writeToARecordFile";
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
-
-        if (!checkValueMinus(changeValue)) return false;
-        if (!checkAuthentication()) return false;
+        log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
+        if (!checkFileNumber(fileNumber)) return false;
+        if (!checkOffsetMinus(offset)) return false;
+        if ((data == null) || (data.length < 1) || (data.length > MAXIMUM_FILE_SIZE)) {
+            log(methodName, "data length not in range 1..MAXIMUM_FILE_SIZE, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "data length not in range 1..MAXIMUM_FILE_SIZE";
+            return false;
+        }
         if (!checkIsoDep()) return false;
-
-        // see Mifare DESFire Light Features and Hints AN12343.pdf pages 70 - 71
-        // Cmd.CreditValue in AES Secure Messaging using CommMode.Full
-        // this is based on the credit a value on a value file on a DESFire Light card
-        // Note: this document does not mention to submit a COMMIT command !
-
-        if (changeValue < 1) {
-            Log.e(TAG, methodName + " minimum changeValue is 1, aborted");
-            System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
+        if (!checkFileNumberExisting(fileNumber)) return false;
+        // checking fileSettings for Communication.mode
+        FileSettings fileSettings;
+        try {
+            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        } catch (NullPointerException e) {
+            Log.e(TAG, methodName + " could not read fileSettings, aborted");
+            log(methodName, "could not read fileSettings, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "could not read fileSettings, aborted";
             return false;
         }
-
-        // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number || changeValueLength) )
-        byte[] changeValueBytes = intTo4ByteArrayInversed(changeValue);
-        byte[] macInput;
-        if (isCredit) {
-            macInput = getMacInput(CREDIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, changeValueBytes);
-        } else {
-            macInput = getMacInput(DEBIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, changeValueBytes);
-        }
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] changeValueBytes = intTo4ByteArrayInversed(changeValue);
-        log(methodName, printData("changeValueBytes", changeValueBytes));
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        if (isCredit) {
-            baosMacInput.write(CREDIT_VALUE_FILE_COMMAND); // 0x0C
-        } else {
-            baosMacInput.write(DEBIT_VALUE_FILE_COMMAND); // 0xDC
-        }
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(fileNumber);
-        baosMacInput.write(changeValueBytes, 0, changeValueBytes.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        */
-        log(methodName, printData("macInput", macInput));
-
-        // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
-
-        // Data (CmdHeader = File number || changeValue || MAC)
-        ByteArrayOutputStream baosChangeValueCommand = new ByteArrayOutputStream();
-        baosChangeValueCommand.write(fileNumber);
-        baosChangeValueCommand.write(changeValueBytes, 0, changeValueBytes.length);
-        baosChangeValueCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] changeValueCommand = baosChangeValueCommand.toByteArray();
-        log(methodName, printData("changeValueCommand", changeValueCommand));
-
-        byte[] response;
-        byte[] apdu;
-        byte[] responseMACTruncatedReceived;
-        try {
-            if (isCredit) {
-                apdu = wrapMessage(CREDIT_VALUE_FILE_COMMAND, changeValueCommand);
-            } else {
-                apdu = wrapMessage(DEBIT_VALUE_FILE_COMMAND, changeValueCommand);
-            }
-            response = sendData(apdu);
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
-            return false;
-        }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            return false;
-        }
-
-        // note: after sending data to the card the commandCounter is increased by 1
-        CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return true;
-        } else {
-            log(methodName, methodName + " FAILURE");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " FAILURE";
-            return false;
-        }
-    }
-
-    /**
-     * credits or debits the value of a Value file in Communication mode Full enciphered.
-     * Note: There are no sanity checks on parameter, Communication mode or authentication status
-     * so this method should be called by 'changeAValueFile' only.
-     *
-     * @param fileNumber  | in range 0..31
-     * @param changeValue | minimum 1, maximum depending on fileSettings
-     * @param isCredit    | true for crediting, false for debiting
-     * @return | true on success
-     */
-
-    private boolean changeAValueFileRawFull(byte fileNumber, int changeValue, boolean isCredit) {
-        String logData = "";
-        final String methodName = "changeAValueFileRawFull";
-        log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
-
-        if (!checkValueMinus(changeValue)) return false;
-        if (!checkAuthentication()) return false;
-        if (!checkIsoDep()) return false;
-
-        // see Mifare DESFire Light Features and Hints AN12343.pdf pages 70 - 71
-        // Cmd.CreditValue in AES Secure Messaging using CommMode.Full
-        // this is based on the credit a value on a value file on a DESFire Light card
-        // Note: this document does not mention to submit a COMMIT command !
-
-        if (changeValue < 1) {
-            Log.e(TAG, methodName + " minimum changeValue is 1, aborted");
-            System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
-            return false;
-        }
-
-        // encrypting the command data
-        // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
-        ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
-        baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
-        baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosIvInput.write(padding1, 0, padding1.length);
-        byte[] ivInput = baosIvInput.toByteArray();*/
-        log(methodName, printData("ivInput", ivInput));
-
-        // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
-        byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        // Data (Value || Padding)
-        // 71000000800000000000000000000000 ( 4 bytes LSB value || 12 bytes padding, starting with 0x80 00)
-        byte[] value = intTo4ByteArrayInversed(changeValue);
-        log(methodName, printData("value", value));
-        byte[] padding2 = hexStringToByteArray("800000000000000000000000"); // 12 bytes
-        log(methodName, printData("padding2", padding2));
-        byte[] data = concatenate(value, padding2);
-        log(methodName, printData("data", data));
-
-        // Encrypt Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
-
-        // Generating the MAC for the Command APDU
-        // CmdHeader = FileNo
-
-        // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
-        byte[] macInput;
-        if (isCredit) {
-            macInput = getMacInput(CREDIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, encryptedData);
-        } else {
-            macInput = getMacInput(DEBIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, encryptedData);
-        }
-
-        /*
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        if (isCredit) {
-            baosMacInput.write(CREDIT_VALUE_FILE_COMMAND); // 0x0C
-        } else {
-            baosMacInput.write(DEBIT_VALUE_FILE_COMMAND); // 0xDC
-        }
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(fileNumber);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        */
-        log(methodName, printData("macInput", macInput));
-
-        // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
-        // now truncate the MAC
-        byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
-
-        // error in Feature and Hints page 70 point 23
-        // wrong: Data (CmdHeader || MAC) and Data Messaging
-        // correct: see below
-        // Data (CmdHeader || Encrypted Data || MAC)
-        ByteArrayOutputStream baosChangeValueCommand = new ByteArrayOutputStream();
-        baosChangeValueCommand.write(fileNumber);
-        baosChangeValueCommand.write(encryptedData, 0, encryptedData.length);
-        baosChangeValueCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] changeValueCommand = baosChangeValueCommand.toByteArray();
-        log(methodName, printData("changeCommand", changeValueCommand));
-
-        byte[] response = new byte[0];
-        byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
-        try {
-            if (isCredit) {
-                apdu = wrapMessage(CREDIT_VALUE_FILE_COMMAND, changeValueCommand);
-            } else {
-                apdu = wrapMessage(DEBIT_VALUE_FILE_COMMAND, changeValueCommand);
-            }
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
-            //Log.d(TAG, methodName + printData(" response", response));
-        } catch (IOException e) {
-            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
-            System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
-            return false;
-        }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
-        if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-        } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
-            return false;
-        }
-
-        // note: after sending data to the card the commandCounter is increased by 1
-        CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return true;
-        } else {
-            log(methodName, methodName + " FAILURE");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " FAILURE";
-            return false;
-        }
-    }
-
-    /**
-     * section for record files
-     */
-
-    /**
-     * The method writes a byte array to a Linear or Cyclic Record file. The communication mode is read out from
-     * 'getFileSettings command'. If the comm mode is 'Plain' it runs the Plain path, otherwise it
-     * uses the 'Full' path. If the comm mode is 'MACed' the method ends a there is no method available
-     * within this class to handle those files, sorry.
-     * The data is written to the offset position of the file
-     * If the data length exceeds the MAXIMUM_WRITE_MESSAGE_LENGTH the data will be written in chunks.
-     * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
-     * If the data length exceeds record size the data is truncated
-     *
-     * @param fileNumber | in range 0..31 AND file is a Linear or Cyclic Record file
-     * @param offset     | position to write the data, starting with 0
-     * @param data
-     * @return true on success
-     * Note: check errorCode and errorCodeReason in case of failure
-     */
-    public boolean writeToARecordFile(byte fileNumber, int offset, byte[] data) {
-        String logData = "";
-        final String methodName = "writeToARecordFile";
-        log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
-        if (!checkFileNumber(fileNumber)) return false;
-        if (!checkOffsetMinus(offset)) return false;
-        if ((data == null) || (data.length < 1) || (data.length > MAXIMUM_FILE_SIZE)) {
-            log(methodName, "data length not in range 1..MAXIMUM_FILE_SIZE, aborted");
-            errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data length not in range 1..MAXIMUM_FILE_SIZE";
-            return false;
-        }
-        if (!checkIsoDep()) return false;
-        if (!checkFileNumberExisting(fileNumber)) return false;
-        // checking fileSettings for Communication.mode
-        FileSettings fileSettings;
-        try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
-        } catch (NullPointerException e) {
-            Log.e(TAG, methodName + " could not read fileSettings, aborted");
-            log(methodName, "could not read fileSettings, aborted");
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "could not read fileSettings, aborted";
-            return false;
-        }
-        if (!checkIsRecordFileType(fileNumber)) return false;
+        if (!checkIsRecordFileType(fileNumber)) return false;
 
         boolean isPlainMode = false;
         boolean isMacedMode = false;
@@ -4628,7 +3808,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -4666,6 +3846,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
             Log.d(TAG, methodName + " SUCCESS");
+            trackTransactionMac(WRITE_RECORD_FILE_SECURE_COMMAND, getDataFileCommandHeader(fileNumber, offset, data.length), data);
             return true;
         } else {
             Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
@@ -4681,20 +3862,20 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength) Note: DataLength and NOT Data, e.g. 190000 for length = 25
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offsetBytes", offsetBytes));
-        log(methodName, printData("lengthBytes", lengthBytes));
+        log(methodName, "offsetBytes", offsetBytes);
+        log(methodName, "lengthBytes", lengthBytes);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         //(Ins || CmdCounter || TI || CmdHeader || CmdData )
@@ -4709,16 +3890,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosMacInput.write(data, 0, data.length);
         byte[] macInput = baosMacInput.toByteArray();
         */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full WriteData Command APDU
         // Data (FileNo || Offset || DataLength || Data)
@@ -4727,7 +3908,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosWriteDataCommand.write(data, 0, data.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response;
         byte[] apdu;
@@ -4759,6 +3940,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
             log(methodName, methodName + " SUCCESS");
+            trackTransactionMac(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, data);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
@@ -4777,7 +3959,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         final String methodName = "writeToARecordFileRawFull";
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("dataToWrite", data));
+        log(methodName, "dataToWrite", data);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkOffsetMinus(offset)) return false;
@@ -4791,8 +3973,8 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
         byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
+        log(methodName, "data unpad", data);
+        log(methodName, "data pad  ", dataPadded);
 
         int numberOfDataBlocks = dataPadded.length / 16;
         log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
@@ -4804,7 +3986,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -4813,25 +3995,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
         */
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         List<byte[]> dataBlockEncryptedList = new ArrayList<>();
         byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
 
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+            byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
             dataBlockEncryptedList.add(dataBlockEncrypted);
             ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
         }
-        // log(methodName, printData("startingIv", startingIv));
+        // log(methodName, "startingIv", startingIv);
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
+            log(methodName, "dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i));
         }
 
         // Encrypted Data (complete), concatenate all byte arrays
@@ -4846,7 +4028,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             }
         }
         byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
@@ -4854,13 +4036,13 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         //int offsetBytes = 0; // read from the beginning
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] dataSizeBytes = Utils.intTo3ByteArrayInversed(dataSizeInt); // LSB order
-        log(methodName, printData("dataSizeBytes", dataSizeBytes));
+        log(methodName, "dataSizeBytes", dataSizeBytes);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(dataSizeBytes, 0, dataSizeBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         byte[] macInput = getMacInput(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
@@ -4874,15 +4056,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] macInput = baosMacInput.toByteArray();
 
          */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || Encrypted Data || MAC)
         ByteArrayOutputStream baosWriteRecordCommand = new ByteArrayOutputStream();
@@ -4890,7 +4072,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosWriteRecordCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteRecordCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeRecordCommand = baosWriteRecordCommand.toByteArray();
-        log(methodName, printData("writeRecordCommand", writeRecordCommand));
+        log(methodName, "writeRecordCommand", writeRecordCommand);
 
         byte[] response;
         byte[] apdu;
@@ -4923,6 +4105,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
             log(methodName, methodName + " SUCCESS");
+            trackTransactionMac(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, data);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
@@ -5090,7 +4273,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             return null;
         }
         // as we authenticated before reading the PICC is adding 8 bytes long MAC that is stripped off
-        return Arrays.copyOf(fullData, fullData.length - 8);
+        byte[] readData = Arrays.copyOf(fullData, fullData.length - 8);
+        trackTransactionMac(READ_RECORD_FILE_SECURE_COMMAND, commandParameter, readData);
+        return readData;
     }
 
 
@@ -5132,14 +4317,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCmdHeader.write(offsetRecordBytes, 0, offsetRecordBytes.length);
         baosCmdHeader.write(numberOfRecordsToReadBytes, 0, numberOfRecordsToReadBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
         byte[] macInput = getMacInput(READ_RECORD_FILE_COMMAND, cmdHeader);
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(READ_RECORD_FILE_COMMAND); // 0xBB
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -5147,15 +4332,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         byte[] macInput = baosMacInput.toByteArray();
         */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         // Data (FileNo || Offset || DataLength)
@@ -5163,7 +4348,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        log(methodName, "readDataCommand", readDataCommand);
 
         byte[] response;
         byte[] fullMacedData;
@@ -5189,7 +4374,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         log(methodName, "The macedData length is " + macedDataLength);
         macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
+        log(methodName, "macedData", macedData);
 
         // getFileSettings for file type and length information
         FileSettings fileSettings;
@@ -5207,10 +4392,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         int fullRecords = fullLength / recordSize;
         Log.e(TAG, "fullRecords: " + fullRecords);
         byte[] readData = Arrays.copyOfRange(macedData, 0, (fullRecords * recordSize)); // just return the real data
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
         if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
             log(methodName, methodName + " SUCCESS");
+            trackTransactionMac(READ_RECORD_FILE_SECURE_COMMAND, cmdHeader, readData);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
@@ -5260,14 +4446,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCmdHeader.write(offsetRecordBytes, 0, offsetRecordBytes.length);
         baosCmdHeader.write(numberOfRecordsToReadBytes, 0, numberOfRecordsToReadBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader )
         byte[] macInput = getMacInput(READ_RECORD_FILE_SECURE_COMMAND, cmdHeader);
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(READ_RECORD_FILE_COMMAND); // 0xAB
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -5276,15 +4462,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] macInput = baosMacInput.toByteArray();
 
          */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadRecords Command APDU
         // Data (CmdHeader || MAC)
@@ -5293,7 +4479,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosReadRecordCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadRecordCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadRecordCommand.toByteArray();
-        log(methodName, printData("readRecordCommand", readDataCommand));
+        log(methodName, "readRecordCommand", readDataCommand);
         byte[] response;
         byte[] apdu;
         byte[] fullEncryptedData;
@@ -5320,7 +4506,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         log(methodName, "The encryptedData length is " + encryptedDataLength);
         encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // start decrypting the data
         byte[] header = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
@@ -5333,11 +4519,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         decryptBaos.write(padding, 0, padding.length);
         byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData)); // should be the cardUID || 9 zero bytes
+        log(methodName, "ivInputResponse", ivInputResponse);
+        byte[] ivResponse = encryptSesAuthEnc(startingIv, ivInputResponse);
+        log(methodName, "ivResponse", ivResponse);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponse, encryptedData);
+        log(methodName, "decryptedData", decryptedData); // should be the cardUID || 9 zero bytes
         // the decrypted data contains the padding that needs to get removed
         // getFileSettings for file type and length information
         FileSettings fileSettings;
@@ -5355,10 +4541,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         int fullRecords = fullLength / recordSize;
         Log.e(TAG, "fullRecords: " + fullRecords);
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, ((fullRecords - 1) * recordSize)); // just return the real data, -1 is for adjusting the padding
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
             log(methodName, methodName + " SUCCESS");
+            trackTransactionMac(READ_RECORD_FILE_SECURE_COMMAND, cmdHeader, readData);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
@@ -5402,7 +4589,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             return false;
         }
 
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -5417,38 +4604,38 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(DELETE_TRANSACTION_MAC_FILE_COMMAND); // 0xDF
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosMacInput.write(fileNumber);
         byte[] macInput = baosMacInput.toByteArray();*/
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = fileNumber || MAC)
         ByteArrayOutputStream baosDeleteTransactionMacFileCommand = new ByteArrayOutputStream();
         baosDeleteTransactionMacFileCommand.write(fileNumber);
         baosDeleteTransactionMacFileCommand.write(macTruncated, 0, macTruncated.length);
         byte[] deleteTransactionMacFileCommand = baosDeleteTransactionMacFileCommand.toByteArray();
-        log(methodName, printData("deleteTransactionMacFileCommand", deleteTransactionMacFileCommand));
+        log(methodName, "deleteTransactionMacFileCommand", deleteTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(DELETE_TRANSACTION_MAC_FILE_COMMAND, deleteTransactionMacFileCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -5493,12 +4680,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput2", macInput2));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        log(methodName, "macInput2", macInput2);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -5693,23 +4880,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
         // c707002c2b4e8e00
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -5744,7 +4931,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
@@ -5752,7 +4939,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
@@ -5804,15 +4991,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{commitTransactionOptionEnabledReturnTmcv});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -5824,7 +5011,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(commitTransactionOptionEnabledReturnTmcv);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -5859,20 +5046,21 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
             log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "responseTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
             log(methodName, methodName + " SUCCESS");
+            finishTransactionMacTracking(transactionMacFileReturnedTmcv);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
@@ -5894,32 +5082,32 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         if (!checkIsoDep()) return false;
 
         // Constructing the full CommitReaderID Command APDU
-        log(methodName, printData("transactionMacReaderId", transactionMacReaderId));
+        log(methodName, "transactionMacReaderId", transactionMacReaderId);
         //byte[] READER_ID = hexStringToByteArray("28BF1982BE086FBC60A22DAEB66613EE"); // 16 bytes
         byte[] iv0Reader = new byte[16];
-        //log(methodName, printData("READER_ID", READER_ID));
-        log(methodName, printData("iv0Reader", iv0Reader));
+        //log(methodName, "READER_ID", READER_ID);
+        log(methodName, "iv0Reader", iv0Reader);
 
         // MAC_Input (Ins || CmdCounter || TI || Data (= Reader ID) )
         byte[] macInput = getMacInput(COMMIT_READER_ID_SECURE_COMMAND, transactionMacReaderId);
 
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFullReader = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFullReader", macFullReader));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFullReader = calculateSesAuthMac(macInput);
+        log(methodName, "macFullReader", macFullReader);
         // now truncate the MAC
         byte[] macTruncatedReader = truncateMAC(macFullReader);
-        log(methodName, printData("macTruncatedReader", macTruncatedReader));
+        log(methodName, "macTruncatedReader", macTruncatedReader);
 
         // construction of the commitTransactionData Data (Encrypted Data || MAC)
         ByteArrayOutputStream baosCommitTransactionReaderCommand = new ByteArrayOutputStream();
         baosCommitTransactionReaderCommand.write(transactionMacReaderId, 0, transactionMacReaderId.length);
         baosCommitTransactionReaderCommand.write(macTruncatedReader, 0, macTruncatedReader.length);
         byte[] commitTransactionReaderCommand = baosCommitTransactionReaderCommand.toByteArray();
-        log(methodName, printData("commitTransactionReaderCommand", commitTransactionReaderCommand));
+        log(methodName, "commitTransactionReaderCommand", commitTransactionReaderCommand);
 
 
         byte[] response;
@@ -5957,7 +5145,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedData = Arrays.copyOfRange(encryptedResponseData, 0, encryptedDataLength);
         byte[] responseMACTruncatedReceived = Arrays.copyOfRange(encryptedResponseData, encryptedDataLength, encryptedResponseData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // start decrypting the data
         boolean isTestMode = false;
@@ -5972,16 +5160,17 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthENCKey, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
-        byte[] decryptedData = AES.decrypt(ivResponseReader, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        log(methodName, "ivInputResponseReader", ivInputResponseReader);
+        byte[] ivResponseReader = encryptSesAuthEnc(startingIvReader, ivInputResponseReader);
+        log(methodName, "ivResponseReader", ivResponseReader);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponseReader, encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         log(methodName, "decryptedData is previous TMRI (latest TransactionMAC Reader ID");
         // Decrypted Response Data = (TMRI) : BDD40ED9F434F9DDCBF5821299CD2119 (16 bytes)
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
             log(methodName, methodName + " SUCCESS");
+            if (transactionMacTracker != null) transactionMacTracker.appendCommitReaderId(transactionMacReaderId);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
@@ -6000,13 +5189,13 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      * @param options
      * @return
      */
-    private byte[] getMacInput(byte command, byte[] options) {
+    byte[] getMacInput(byte command, byte[] options) {
         String methodName = "getMacInput";
         log(methodName, "started", true);
-        log(methodName, printData("options", options));
+        log(methodName, "options", options);
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(command);
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -6015,7 +5204,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             baosMacInput.write(options, 0, options.length);
         }
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
         return macInput;
     }
 
@@ -6027,14 +5216,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      * @return
      */
 
-    private byte[] getMacInput(byte command, byte[] options, byte[] data) {
+    byte[] getMacInput(byte command, byte[] options, byte[] data) {
         String methodName = "getMacInput";
         log(methodName, "started", true);
-        log(methodName, printData("options", options));
-        log(methodName, printData("data", data));
+        log(methodName, "options", options);
+        log(methodName, "data", data);
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(command);
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -6046,7 +5235,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             baosMacInput.write(data, 0, data.length);
         }
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
         return macInput;
     }
 
@@ -6061,8 +5250,8 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -6070,7 +5259,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
         return ivInput;
     }
 
@@ -6100,7 +5289,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(COMMIT_TRANSACTION_COMMAND); // 0xC7
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -6108,22 +5297,22 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosMacInput.write(COMMIT_TRANSACTION_OPTION);
         byte[] macInput = baosMacInput.toByteArray();
         */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6158,7 +5347,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
@@ -6166,7 +5355,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
@@ -6210,7 +5399,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(COMMIT_TRANSACTION_COMMAND); // 0xC7
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -6218,15 +5407,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         //baosMacInput.write(COMMIT_TRANSACTION_OPTION);
         baosMacInput.write(COMMIT_TRANSACTION_OPTION_ENABLED);
         byte[] macInput = baosMacInput.toByteArray();*/
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -6238,7 +5427,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION_ENABLED);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6273,20 +5462,21 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
             log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
             log(methodName, methodName + " SUCCESS");
+            finishTransactionMacTracking(transactionMacFileReturnedTmcv);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
@@ -6327,7 +5517,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(COMMIT_TRANSACTION_COMMAND); // 0xC7
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -6335,15 +5525,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         //baosMacInput.write(COMMIT_TRANSACTION_OPTION);
         baosMacInput.write(COMMIT_TRANSACTION_OPTION_ENABLED);
         byte[] macInput = baosMacInput.toByteArray();*/
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -6355,7 +5545,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION_ENABLED);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6390,20 +5580,21 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
             log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
             log(methodName, methodName + " SUCCESS");
+            finishTransactionMacTracking(transactionMacFileReturnedTmcv);
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
@@ -6432,7 +5623,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -6444,38 +5635,38 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // we do need a ReaderId
         byte[] READER_ID = hexStringToByteArray("28BF1982BE086FBC60A22DAEB66613EE"); // 16 bytes
         byte[] iv0Reader = new byte[16];
-        log(methodName, printData("READER_ID", READER_ID));
-        log(methodName, printData("iv0Reader", iv0Reader));
+        log(methodName, "READER_ID", READER_ID);
+        log(methodName, "iv0Reader", iv0Reader);
 
         // MAC_Input (Ins || CmdCounter || TI || Data (= Reader ID) )
         byte[] macInputReader = getMacInput(COMMIT_READER_ID_SECURE_COMMAND, READER_ID);
         /*
         byte[] commandCounterLsb1Reader = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1Reader));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1Reader);
         ByteArrayOutputStream baosMacInputReader = new ByteArrayOutputStream();
         baosMacInputReader.write(COMMIT_READER_ID_SECURE_COMMAND); // 0xC8
         baosMacInputReader.write(commandCounterLsb1Reader, 0, commandCounterLsb1Reader.length);
         baosMacInputReader.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosMacInputReader.write(READER_ID, 0, READER_ID.length);
         byte[] macInputReader = baosMacInputReader.toByteArray();*/
-        log(methodName, printData("macInputReader", macInputReader));
+        log(methodName, "macInputReader", macInputReader);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFullReader = calculateDiverseKey(SesAuthMACKey, macInputReader);
-        log(methodName, printData("macFullReader", macFullReader));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFullReader = calculateSesAuthMac(macInputReader);
+        log(methodName, "macFullReader", macFullReader);
         // now truncate the MAC
         byte[] macTruncatedReader = truncateMAC(macFullReader);
-        log(methodName, printData("macTruncatedReader", macTruncatedReader));
+        log(methodName, "macTruncatedReader", macTruncatedReader);
 
         // construction of the commitTransactionData Data (Encrypted Data || MAC)
         ByteArrayOutputStream baosCommitTransactionReaderCommand = new ByteArrayOutputStream();
         baosCommitTransactionReaderCommand.write(READER_ID, 0, READER_ID.length); // todo check if the READ_ID is UNENCRYPTED send ??
         baosCommitTransactionReaderCommand.write(macTruncatedReader, 0, macTruncatedReader.length);
         byte[] commitTransactionReaderCommand = baosCommitTransactionReaderCommand.toByteArray();
-        log(methodName, printData("commitTransactionReaderCommand", commitTransactionReaderCommand));
+        log(methodName, "commitTransactionReaderCommand", commitTransactionReaderCommand);
 
 
         byte[] response = new byte[0];
@@ -6483,9 +5674,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] encryptedResponseData;
         try {
             apdu = wrapMessage(COMMIT_READER_ID_SECURE_COMMAND, commitTransactionReaderCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "transceive failed: " + e.getMessage(), false);
@@ -6514,7 +5705,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedData = Arrays.copyOfRange(encryptedResponseData, 0, encryptedDataLength);
         byte[] responseMACTruncatedReceivedReader = Arrays.copyOfRange(encryptedResponseData, encryptedDataLength, encryptedResponseData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // start decrypting the data
         // IV_Input_Response = 0x5A || 0xA5 || TI || CmdCtr || 0x0000000000000000 (8 bytes padding)
@@ -6527,11 +5718,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         decryptBaosReader.write(commandCounterLsb2Reader, 0, commandCounterLsb2Reader.length);
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthENCKey, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
-        byte[] decryptedData = AES.decrypt(ivResponseReader, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        log(methodName, "ivInputResponseReader", ivInputResponseReader);
+        byte[] ivResponseReader = encryptSesAuthEnc(startingIvReader, ivInputResponseReader);
+        log(methodName, "ivResponseReader", ivResponseReader);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponseReader, encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         log(methodName, "decryptedData is TMRI (TransactionMAC Reader ID");
         // Decrypted Response Data = (TMRI) : BDD40ED9F434F9DDCBF5821299CD2119 (16 bytes)
 
@@ -6544,12 +5735,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMacBaosReader.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         responseMacBaosReader.write(encryptedData, 0, encryptedData.length);
         byte[] macInput2Reader = responseMacBaosReader.toByteArray();
-        log(methodName, printData("macInput2Reader", macInput2Reader));
-        byte[] responseMACCalculatedReader = calculateDiverseKey(SesAuthMACKey, macInput2Reader);
-        log(methodName, printData("responseMACTruncatedReceivedReader  ", responseMACTruncatedReceivedReader));
-        log(methodName, printData("responseMACCalculatedReader", responseMACCalculatedReader));
+        log(methodName, "macInput2Reader", macInput2Reader);
+        byte[] responseMACCalculatedReader = calculateSesAuthMac(macInput2Reader);
+        log(methodName, "responseMACTruncatedReceivedReader  ", responseMACTruncatedReceivedReader);
+        log(methodName, "responseMACCalculatedReader", responseMACCalculatedReader);
         byte[] responseMACTruncatedCalculatedReader = truncateMAC(responseMACCalculatedReader);
-        log(methodName, printData("responseMACTruncatedCalculatedReader", responseMACTruncatedCalculatedReader));
+        log(methodName, "responseMACTruncatedCalculatedReader", responseMACTruncatedCalculatedReader);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculatedReader, responseMACTruncatedReceivedReader)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -6570,38 +5761,38 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(COMMIT_TRANSACTION_COMMAND); // 0xC7
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosMacInput.write(COMMIT_TRANSACTION_OPTION);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
 
         response = new byte[0];
         apdu = new byte[0];
         byte[] fullResponseData;
         try {
             apdu = wrapMessage(COMMIT_TRANSACTION_COMMAND, commitTransactionCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "transceive failed: " + e.getMessage(), false);
@@ -6629,7 +5820,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
@@ -6640,14 +5831,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             // sample: TMV (TMAC Value)   : 94A3205E41588BA9 (8 bytes)
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
             // split up the data to TMC and TMV
             byte[] tmcByte = Arrays.copyOfRange(responseTmcv, 0, 4);
             byte[] tmvByte = Arrays.copyOfRange(responseTmcv, 4, 12);
             int tmcInt = byteArrayLength4InversedToInt(tmcByte);
-            log(methodName, printData("tmcByte", tmcByte));
+            log(methodName, "tmcByte", tmcByte);
             log(methodName, "tmcInt: " + tmcInt);
-            log(methodName, printData("tmvByte", tmvByte));
+            log(methodName, "tmvByte", tmvByte);
 
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
@@ -6662,12 +5853,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         responseMacBaos.write(responseTmcv, 0, responseTmcv.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput", macInput2));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        log(methodName, "macInput", macInput2);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -6698,7 +5889,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // status: NOT WORKING (throwing AE error ?)
 
-        logData = "";
+        commandLog.clear();
         final String methodName = "enableTransactionTimerFull";
         //log(methodName, "fileNumber: " + fileNumber, true);
 
@@ -6715,7 +5906,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -6727,7 +5918,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         int transactionTimerNumberOfSeconds = 1;
         byte[] transactionTimerNumberOfSecondsBytes = intTo4ByteArrayInversed(transactionTimerNumberOfSeconds);
         //byte[] transactionTimerNumberOfSecondsBytes = intTo3ByteArrayInversed(transactionTimerNumberOfSeconds);
-        log(methodName, printData("transactionTimerNumberOfSecondsBytes", transactionTimerNumberOfSecondsBytes));
+        log(methodName, "transactionTimerNumberOfSecondsBytes", transactionTimerNumberOfSecondsBytes);
 
         // using a fixed fileNumber for Value file enciphered = 0x08
         // upper limit is 0xE8030000 = 1000
@@ -6744,14 +5935,14 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosData.write(transactionTimerEnable);
         baosData.write(transactionTimerNumberOfSecondsBytes, 0, transactionTimerNumberOfSecondsBytes.length);
         byte[] data = baosData.toByteArray();
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypting the Command Data
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -6759,26 +5950,26 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // fixed data
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
         byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
+        log(methodName, "data unpad", data);
+        log(methodName, "data pad  ", dataPadded);
 
         // padding is 12 bytes
 
         // Encrypted Data Block 1 = E(KSesAuthENC, Data Input)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, dataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, dataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         // CmdHeader = optionOfSetConfiguration
@@ -6789,15 +5980,15 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosMacInput.write(optionOfSetConfiguration);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || Encrypted Data || MAC)
         // CmdHeader = optionOfSetConfiguration
@@ -6806,7 +5997,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosSetConfigurationCommand.write(encryptedData, 0, encryptedData.length);
         baosSetConfigurationCommand.write(macTruncated, 0, macTruncated.length);
         byte[] setConfigurationCommand = baosSetConfigurationCommand.toByteArray();
-        log(methodName, printData("setConfigurationCommand", setConfigurationCommand));
+        log(methodName, "setConfigurationCommand", setConfigurationCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -6841,13 +6032,13 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput2", macInput2));
+        log(methodName, "macInput2", macInput2);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -6877,7 +6068,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
 
     public boolean deleteFile(byte fileNumber) {
         final String methodName = "deleteFile";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -6918,7 +6109,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             return false;
         }
     }
@@ -6926,7 +6117,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
     // authenticate with Application Master key first !
     public boolean deleteFileMac(byte fileNumber) {
         final String methodName = "deleteFileMac";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         log(methodName, "fileNumber: " + fileNumber);
         errorCode = new byte[2];
@@ -6956,15 +6147,15 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
         byte[] macInput = getMacInput(DELETE_FILE_COMMAND, new byte[]{fileNumber});
 
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         // Data (FileNo || Offset || DataLength)
@@ -6972,7 +6163,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosDeleteFileCommand.write(fileNumber);
         baosDeleteFileCommand.write(macTruncated, 0, macTruncated.length);
         byte[] deleteFileCommand = baosDeleteFileCommand.toByteArray();
-        log(methodName, printData("deleteFileCommand", deleteFileCommand));
+        log(methodName, "deleteFileCommand", deleteFileCommand);
 
         byte[] apdu;
         byte[] response;
@@ -6992,7 +6183,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with errorCode", errorCode);
             return false;
         }
     }
@@ -7006,7 +6197,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
      */
     public byte[] getAllFileIds() {
         final String methodName = "getAllFileIDs";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -7052,7 +6243,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
      */
     public byte[] getAllFileIdsIso() {
         final String methodName = "getAllFileIDsIso";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -7096,7 +6287,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
      */
     public FileSettings[] getAllFileSettings() {
         final String methodName = "getAllFileSettings";
-        logData = "";
+        commandLog.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -7236,7 +6427,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         /*
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -7245,13 +6436,13 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
         */
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7274,15 +6465,15 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosCommandData.write(accessRightsRwCar);
         baosCommandData.write(accessRightsRW);
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, commandDataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
@@ -7296,15 +6487,15 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
         */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -7316,7 +6507,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -7454,7 +6645,7 @@ PERMISSION_DENIED
             errorCodeReason = "keyW is > 4 but not 14 or 15, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
             return false;
@@ -7513,7 +6704,7 @@ fileSize: 128
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -7521,13 +6712,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7563,7 +6754,7 @@ fileSize: 128
             baosCommandData.write(SDMMACInputOffset, 0, SDMMACInputOffset.length);
         }
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         /*
 from: NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf page 34
@@ -7586,11 +6777,11 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, commandDataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
@@ -7601,15 +6792,15 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
         baosMacInput.write(fileNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -7621,7 +6812,7 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -7726,7 +6917,7 @@ PERMISSION_DENIED
             errorCodeReason = "keyW is > 4 but not 14 or 15, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA / DESFire EV3 tag ?), aborted";
             return false;
@@ -7787,7 +6978,7 @@ fileSize: 128
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -7795,13 +6986,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7824,9 +7015,9 @@ fileSize: 128
         byte[] ENCPICCDataOffset = Utils.intTo3ByteArrayInversed(encPiccDataOffset); // e.g. 0x200000 for NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf example on pages 31 + 34
         byte[] SDMMACOffset = Utils.intTo3ByteArrayInversed(sdmMacOffset);      // e.g. 0x430000
         byte[] SDMMACInputOffset = Utils.intTo3ByteArrayInversed(sdmMacInputOffset); // e.g. 0x430000
-        log(methodName, printData("ENCPICCDataOffset", ENCPICCDataOffset));
-        log(methodName, printData("SDMMACOffset     ", SDMMACOffset));
-        log(methodName, printData("SDMMACInputOffset", SDMMACInputOffset));
+        log(methodName, "ENCPICCDataOffset", ENCPICCDataOffset);
+        log(methodName, "SDMMACOffset     ", SDMMACOffset);
+        log(methodName, "SDMMACInputOffset", SDMMACInputOffset);
         /*
         values using server data: https://sdm.nfcdeveloper.com/tag
         ENCPICCDataOffset length: 3 data: 2a0000 (42d)
@@ -7847,7 +7038,7 @@ fileSize: 128
             baosCommandData.write(SDMMACInputOffset, 0, SDMMACInputOffset.length);
         }
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // this is the working command for encrypted PICC data
         //                                    4000e0c1 f121 2a0000500000500000
@@ -7855,7 +7046,7 @@ fileSize: 128
         // todo this is manually added by NdefForSdm value test 10 = encrypted PICC data and encrypted file data
         // status: working !
         //commandData = hexStringToByteArray("4000e0d1f1212a00004f00004f0000200000750000");
-        //log(methodName, printData("commandData", commandData));
+        //log(methodName, "commandData", commandData);
 
         // todo this is manually added by NdefForSdm value test 11 = NO encrypted PICC data but encrypted file data
         //commandData = hexStringToByteArray("4000e011f1f12500002500002000004b0000");
@@ -7865,11 +7056,11 @@ fileSize: 128
         // https://sdm.nfcdeveloper.com/tag?picc_data=1D963945833B280C8E0CE5D3F86127E0&enc=AFAE6C123CC478734FED103FD6851AA8&cmac=FCAC93426335D213
 
 
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         byte[] encryptedData;
         // if commandDataPadded is longer than 16 bytes we need to encrypt in chunks
@@ -7881,12 +7072,12 @@ fileSize: 128
             List<byte[]> dataBlockEncryptedList = new ArrayList<>();
             byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+                byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
                 dataBlockEncryptedList.add(dataBlockEncrypted);
                 ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
             }
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
+                log(methodName, "dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i));
             }
             // Encrypted Data (complete), concatenate all byte arrays
             ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
@@ -7903,9 +7094,9 @@ fileSize: 128
         } else {
             Log.d(TAG, "The commandDataPadded length is = 16, encrypt in one run");
             // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
+            encryptedData = encryptSesAuthEnc(ivForCmdData, commandDataPadded);
         }
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
@@ -7916,15 +7107,15 @@ fileSize: 128
         baosMacInput.write(fileNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -7936,7 +7127,7 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -8003,7 +7194,7 @@ fileSize: 128
             errorCodeReason = "commandData is NULL or of insufficient length, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA / DESFire EV3 tag ?), aborted";
             return false;
@@ -8053,7 +7244,7 @@ fileSize: 128
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -8061,20 +7252,20 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // take the the command data as parameter
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         byte[] encryptedData;
         // if commandDataPadded is longer than 16 bytes we need to encrypt in chunks
@@ -8086,12 +7277,12 @@ fileSize: 128
             List<byte[]> dataBlockEncryptedList = new ArrayList<>();
             byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+                byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
                 dataBlockEncryptedList.add(dataBlockEncrypted);
                 ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
             }
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
+                log(methodName, "dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i));
             }
             // Encrypted Data (complete), concatenate all byte arrays
             ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
@@ -8108,9 +7299,9 @@ fileSize: 128
         } else {
             Log.d(TAG, "The commandDataPadded length is = 16, encrypt in one run");
             // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
+            encryptedData = encryptSesAuthEnc(ivForCmdData, commandDataPadded);
         }
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
@@ -8121,15 +7312,15 @@ fileSize: 128
         baosMacInput.write(fileNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -8141,7 +7332,7 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -8190,7 +7381,7 @@ fileSize: 128
      * @return true if MAC equals the calculated MAC
      */
 
-    private boolean verifyResponseMac(byte[] responseMAC, byte[] responseData) {
+    boolean verifyResponseMac(byte[] responseMAC, byte[] responseData) {
         final String methodName = "verifyResponseMac";
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
         ByteArrayOutputStream responseMacBaos = new ByteArrayOutputStream();
@@ -8201,12 +7392,12 @@ fileSize: 128
             responseMacBaos.write(responseData, 0, responseData.length);
         }
         byte[] macInput = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput", macInput));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMAC));
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        log(methodName, "macInput", macInput);
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput);
+        log(methodName, "responseMACTruncatedReceived  ", responseMAC);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMAC)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -8221,21 +7412,15 @@ fileSize: 128
         }
     }
 
-    private byte[] truncateMAC(byte[] fullMAC) {
+    byte[] truncateMAC(byte[] fullMAC) {
         final String methodName = "truncateMAC";
-        log(methodName, printData("fullMAC", fullMAC), true);
+        log(methodName, "fullMAC", fullMAC);
         if ((fullMAC == null) || (fullMAC.length < 2)) {
             log(methodName, "fullMAC is NULL or of wrong length, aborted");
             return null;
         }
-        int fullMACLength = fullMAC.length;
-        byte[] truncatedMAC = new byte[fullMACLength / 2];
-        int truncatedMACPos = 0;
-        for (int i = 1; i < fullMACLength; i += 2) {
-            truncatedMAC[truncatedMACPos] = fullMAC[i];
-            truncatedMACPos++;
-        }
-        log(methodName, printData("truncatedMAC", truncatedMAC));
+        byte[] truncatedMAC = SecureMessagingEngine.truncateMac(fullMAC);
+        log(methodName, "truncatedMAC", truncatedMAC);
         return truncatedMAC;
     }
 
@@ -8270,10 +7455,11 @@ fileSize: 128
         // see example in Mifare DESFire Light Features and Hints AN12343.pdf pages 33 ff
         // and MIFARE DESFire Light contactless application IC MF2DLHX0.pdf pages 52 ff
         boolean debug = false; // if true each single step is print out for debugging purposes
-        logData = "";
+        commandLog.clear();
         invalidateAllData();
         final String methodName = "authenticateAesEv2First";
-        log(methodName, printData("key", key) + " keyNumber: " + keyNumber, true);
+        log(methodName, "keyNumber: " + keyNumber, true);
+        log(methodName, "key", key);
         errorCode = new byte[2];
         // sanity checks
         if (!checkKeyNumber(keyNumber)) return false;
@@ -8293,11 +7479,11 @@ fileSize: 128
             byte[] parameter = new byte[2];
             parameter[0] = keyNumber;
             parameter[1] = (byte) 0x00; // is already 0x00
-            if (debug) log(methodName, printData("parameter", parameter));
+            if (debug) log(methodName, "parameter", parameter);
             apdu = wrapMessage(AUTHENTICATE_AES_EV2_FIRST_COMMAND, parameter);
-            if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
+            if (debug) log(methodName, "get enc rndB apdu", apdu);
             response = sendData(apdu);
-            if (debug) log(methodName, "get enc rndB " + printData("response", response));
+            if (debug) log(methodName, "get enc rndB response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "IOException: " + e.getMessage());
@@ -8309,57 +7495,59 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            log(methodName, "expected to get get 0xAF as error code but found, aborted: errorCode", responseBytes);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response, 16 bytes long
         // R-APDU (Part 1) (E(Kx, RndB)) || SW1 || SW2
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
-        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes " + printData("iv0", iv0));
+        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes iv0", iv0);
         if (debug)
-            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key and iv0");
+            log(methodName, "key", key);
+            log(methodName, "iv0", iv0);
         byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
-        if (debug) log(methodName, printData("rndB", rndB));
+        if (debug) log(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) log(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) log(methodName, "rndA", rndA);
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) log(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is 16 zero bytes");
         byte[] iv1 = new byte[16];
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
         byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, rndArndB_leftRotated_enc);
-            if (debug) log(methodName, "send rndArndB_leftRotated_enc " + printData("apdu", apdu));
+            if (debug) log(methodName, "send rndArndB_leftRotated_enc apdu", apdu);
             response = sendData(apdu);
             if (debug)
-                log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
+                log(methodName, "send rndArndB_leftRotated_enc response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "IOException: " + e.getMessage());
@@ -8371,7 +7559,7 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            log(methodName, "expected to get get 0x00 as error code but found, aborted: errorCode", responseBytes);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
@@ -8379,17 +7567,17 @@ fileSize: 128
         // R-APDU (Part 2) E(Kx, TI || RndA' || PDcap2 || PCDcap2) || Response Code
         if (debug) log(methodName, "step 10 received encrypted data from PICC");
         byte[] data_enc = getData(response);
-        if (debug) log(methodName, printData("data_enc", data_enc));
+        if (debug) log(methodName, "data_enc", data_enc);
 
         //IV is now reset to zero bytes
         if (debug) log(methodName, "step 11 iv2 is 16 zero bytes");
         byte[] iv2 = new byte[16];
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted data
         if (debug) log(methodName, "step 12 decrypt data_enc with iv2 and key");
         byte[] data = AES.decrypt(iv2, key, data_enc);
-        if (debug) log(methodName, printData("data", data));
+        if (debug) log(methodName, "data", data);
         // data is 32 bytes long, e.g. a1487b61f69cef65a09742b481152325a7cb8fc6000000000000000000000000
         /**
          * structure of data
@@ -8411,33 +7599,35 @@ fileSize: 128
         System.arraycopy(data, 20, pDcap2, 0, 6);
         System.arraycopy(data, 26, pCDcap2, 0, 6);
         if (debug) log(methodName, "step 13 full data needs to get split up in 4 values");
-        if (debug) log(methodName, printData("data", data));
-        if (debug) log(methodName, printData("ti", ti));
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
-        if (debug) log(methodName, printData("pDcap2", pDcap2));
-        if (debug) log(methodName, printData("pCDcap2", pCDcap2));
+        if (debug) log(methodName, "data", data);
+        if (debug) log(methodName, "ti", ti);
+        if (debug) log(methodName, "rndA_leftRotated", rndA_leftRotated);
+        if (debug) log(methodName, "pDcap2", pDcap2);
+        if (debug) log(methodName, "pCDcap2", pCDcap2);
 
         // PCD compares send and received RndA
         if (debug) log(methodName, "step 14 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received ", rndA_received));
+        if (debug) log(methodName, "rndA_received ", rndA_received);
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
-        //log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        //log(methodName, "rndA received ", rndA_received);
+        if (debug) log(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) log(methodName, "rndB          ", rndB);
 
         if (debug) log(methodName, "**** auth result ****");
         if (rndAEqual) {
             log(methodName, "*** AUTHENTICATED ***");
             SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
             SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
-            if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
-            if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
+            if (debug) log(methodName, "SesAuthENCKey ", SesAuthENCKey);
+            if (debug) log(methodName, "SesAuthMACKey ", SesAuthMACKey);
             CmdCounter = 0;
             TransactionIdentifier = ti.clone();
+            secureMessaging = getSecureMessagingEngine();
             authenticateEv2FirstSuccess = true;
             keyNumberUsedForAuthentication = keyNumber;
+            if (sessionCache != null) authenticationKeyCheckValue = SessionState.calculateKeyCheckValue(key);
             invalidateAllAesLegacyData();
         } else {
             log(methodName, "****   FAILURE   ****");
@@ -8482,10 +7672,11 @@ fileSize: 128
          */
 
         boolean debug = false; // if true each single step is print out for debugging purposes
-        logData = "";
+        commandLog.clear();
         invalidateAllDataNonFirst();
         final String methodName = "authenticateAesEv2NonFirst";
-        log(methodName, printData("key", key) + " keyNo: " + keyNumber, true);
+        log(methodName, "keyNo: " + keyNumber, true);
+        log(methodName, "key", key);
         errorCode = new byte[2];
         // sanity checks
         if (!authenticateEv2FirstSuccess) {
@@ -8497,7 +7688,7 @@ fileSize: 128
         if (!checkKeyNumber(keyNumber)) return false;
         if (!checkKey(key)) return false;
         if (!checkIsoDep()) return false;
-        invalidateAllData();
+        // the TI and CmdCounter of the running session are kept, see invalidateAllDataNonFirst
         if (debug) log(methodName, "step 01 get encrypted rndB from card");
         if (debug)
             log(methodName, "This method is using the AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND so it will work with AES-based application only");
@@ -8511,11 +7702,11 @@ fileSize: 128
              */
             byte[] parameter = new byte[1];
             parameter[0] = keyNumber;
-            if (debug) log(methodName, printData("parameter", parameter));
+            if (debug) log(methodName, "parameter", parameter);
             apdu = wrapMessage(AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND, parameter);
-            if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
+            if (debug) log(methodName, "get enc rndB apdu", apdu);
             response = sendData(apdu);
-            if (debug) log(methodName, "get enc rndB " + printData("response", response));
+            if (debug) log(methodName, "get enc rndB response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "IOException: " + e.getMessage());
@@ -8527,56 +7718,58 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            log(methodName, "expected to get get 0xAF as error code but found, aborted: errorCode", responseBytes);
             return false;
         }
         // now we know that we can work with the response, 16 bytes long
         // R-APDU (Part 1) (E(Kx, RndB)) || SW1 || SW2
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
-        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes " + printData("iv0", iv0));
+        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes iv0", iv0);
         if (debug)
-            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key and iv0");
+            log(methodName, "key", key);
+            log(methodName, "iv0", iv0);
         byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
-        if (debug) log(methodName, printData("rndB", rndB));
+        if (debug) log(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) log(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) log(methodName, "rndA", rndA);
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) log(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is 16 zero bytes");
         byte[] iv1 = new byte[16];
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
         byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, rndArndB_leftRotated_enc);
-            if (debug) log(methodName, "send rndArndB_leftRotated_enc " + printData("apdu", apdu));
+            if (debug) log(methodName, "send rndArndB_leftRotated_enc apdu", apdu);
             response = sendData(apdu);
             if (debug)
-                log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
+                log(methodName, "send rndArndB_leftRotated_enc response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "IOException: " + e.getMessage());
@@ -8588,7 +7781,7 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            log(methodName, "expected to get get 0x00 as error code but found, aborted: errorCode", responseBytes);
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -8596,17 +7789,17 @@ fileSize: 128
         // R-APDU (Part 2) E(Kx, RndA' || Response Code
         if (debug) log(methodName, "step 10 received encrypted data from PICC");
         byte[] data_enc = getData(response);
-        if (debug) log(methodName, printData("data_enc", data_enc));
+        if (debug) log(methodName, "data_enc", data_enc);
 
         //IV is now reset to zero bytes
         if (debug) log(methodName, "step 11 iv2 is 16 zero bytes");
         byte[] iv2 = new byte[16];
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted data
         if (debug) log(methodName, "step 12 decrypt data_enc with iv2 and key");
         byte[] data = AES.decrypt(iv2, key, data_enc);
-        if (debug) log(methodName, printData("data", data));
+        if (debug) log(methodName, "data", data);
         // data is 32 bytes long, e.g. a1487b61f69cef65a09742b481152325a7cb8fc6000000000000000000000000
         /**
          * structure of data
@@ -8618,29 +7811,31 @@ fileSize: 128
         // split data not necessary, data is rndA_leftRotated
         byte[] rndA_leftRotated = data.clone();
         if (debug) log(methodName, "step 13 full data is rndA_leftRotated only");
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
+        if (debug) log(methodName, "rndA_leftRotated", rndA_leftRotated);
 
         // PCD compares send and received RndA
         if (debug) log(methodName, "step 14 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received ", rndA_received));
+        if (debug) log(methodName, "rndA_received ", rndA_received);
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
 
-        //log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        //log(methodName, "rndA received ", rndA_received);
+        if (debug) log(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) log(methodName, "rndB          ", rndB);
         if (debug) log(methodName, "**** auth result ****");
         if (rndAEqual) {
             log(methodName, "*** AUTHENTICATED ***");
             SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
             SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
-            if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
-            if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
+            secureMessaging = getSecureMessagingEngine(); // the TI is kept from authenticateAesEv2First
+            if (debug) log(methodName, "SesAuthENCKey ", SesAuthENCKey);
+            if (debug) log(methodName, "SesAuthMACKey ", SesAuthMACKey);
             //CmdCounter = 0; // is not resetted in EV2NonFirst
             //TransactionIdentifier = ti.clone(); // is not resetted in EV2NonFirst
             authenticateEv2NonFirstSuccess = true;
             keyNumberUsedForAuthentication = keyNumber;
+            if (sessionCache != null) authenticationKeyCheckValue = SessionState.calculateKeyCheckValue(key);
             invalidateAllAesLegacyData();
         } else {
             log(methodName, "****   FAILURE   ****");
@@ -8667,11 +7862,12 @@ fileSize: 128
 
     public boolean authenticateAesLegacy(byte keyNumber, byte[] key) {
         boolean debug = false;
-        logData = "";
+        commandLog.clear();
         invalidateAllData();
         invalidateAllAesLegacyData();
         String methodName = "authenticateAesLegacy";
-        log(methodName, "keyNumber: " + keyNumber + printData(" key", key), true);
+        log(methodName, "keyNumber: " + keyNumber, true);
+        log(methodName, "key", key);
         errorCode = new byte[2];
         // sanity checks
         if (!checkKeyNumber(keyNumber)) return false;
@@ -8683,9 +7879,9 @@ fileSize: 128
         byte[] response = new byte[0];
         try {
             apdu = wrapMessage(AUTHENTICATE_AES_COMMAND, new byte[]{keyNumber});
-            if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
+            if (debug) log(methodName, "get enc rndB apdu", apdu);
             response = sendData(apdu);
-            if (debug) log(methodName, "get enc rndB " + printData("response", response));
+            if (debug) log(methodName, "get enc rndB response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "IOException: " + e.getMessage());
@@ -8697,58 +7893,60 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            log(methodName, "expected to get get 0xAF as error code but found, aborted: errorCode", responseBytes);
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
-        if (debug) log(methodName, "step 02 initial iv0 is 16 zero bytes " + printData("iv0", iv0));
+        if (debug) log(methodName, "step 02 initial iv0 is 16 zero bytes iv0", iv0);
         if (debug)
-            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key and iv0");
+            log(methodName, "key", key);
+            log(methodName, "iv0", iv0);
         byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
         byte[] rndBSession = rndB.clone();
-        if (debug) log(methodName, printData("rndB", rndB));
+        if (debug) log(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) log(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) log(methodName, "rndA", rndA);
         byte[] rndASession = rndA.clone();
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) log(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is encryptedRndB received from the tag");
         byte[] iv1 = rndB_enc.clone();
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
         byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, rndArndB_leftRotated_enc);
-            if (debug) log(methodName, "send rndArndB_leftRotated_enc " + printData("apdu", apdu));
+            if (debug) log(methodName, "send rndArndB_leftRotated_enc apdu", apdu);
             response = sendData(apdu);
             if (debug)
-                log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
+                log(methodName, "send rndArndB_leftRotated_enc response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "IOException: " + e.getMessage());
@@ -8760,38 +7958,38 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            log(methodName, "expected to get get 0x00 as error code but found, aborted: errorCode", responseBytes);
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response
         if (debug) log(methodName, "step 10 received encrypted rndA LEFT rotated from PICC");
         byte[] rndA_leftRotated_enc = getData(response);
-        if (debug) log(methodName, printData("rndA_leftRotated_enc", rndA_leftRotated_enc));
+        if (debug) log(methodName, "rndA_leftRotated_enc", rndA_leftRotated_enc);
 
         //IV is now the last 16 bytes of RndAB_rot_enc
         if (debug)
-            log(methodName, "step 11 iv2 is now the last 16 bytes of rndArndB_leftRotated_enc: " + printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+            log(methodName, "step 11 iv2 is now the last 16 bytes of rndArndB_leftRotated_enc: rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
         int rndArndB_leftRotated_encLength = rndArndB_leftRotated_enc.length;
         byte[] iv2 = Arrays.copyOfRange(rndArndB_leftRotated_enc,
                 rndArndB_leftRotated_encLength - 16, rndArndB_leftRotated_encLength);
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted RndA_rot
         if (debug) log(methodName, "step 12 decrypt rndA_leftRotated_enc with iv2 and key");
         byte[] rndA_leftRotated = AES.decrypt(iv2, key, rndA_leftRotated_enc);
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
+        if (debug) log(methodName, "rndA_leftRotated", rndA_leftRotated);
 
         if (debug) log(methodName, "step 13 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received", rndA_received));
+        if (debug) log(methodName, "rndA_received", rndA_received);
 
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
 
-        if (debug) log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        if (debug) log(methodName, "rndA received ", rndA_received);
+        if (debug) log(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) log(methodName, "rndB          ", rndB);
         log(methodName, "**** auth result ****");
         if (rndAEqual) {
             log(methodName, "*** AUTHENTICATED ***");
@@ -8823,7 +8021,9 @@ fileSize: 128
         // see MIFARE DESFire Light contactless application IC pdf, page 28
         boolean debug = false; // if true each single step is print out for debugging purposes
         final String methodName = "getSesAuthEncKey";
-        log(methodName, printData("rndA", rndA) + printData(" rndB", rndB) + printData(" authenticationKey", authenticationKey));
+        log(methodName, "rndA", rndA);
+        log(methodName, "rndB", rndB);
+        log(methodName, "authenticationKey", authenticationKey);
         // sanity checks
         if ((rndA == null) || (rndA.length != 16)) {
             log(methodName, "rndA is NULL or wrong length, aborted");
@@ -8848,204 +8048,1164 @@ fileSize: 128
         System.arraycopy(length, 0, cmacInput, 4, 2);
         System.arraycopy(rndA, 0, cmacInput, 6, 2);
 
-        byte[] rndA02to07 = new byte[6];
-        byte[] rndB00to05 = new byte[6];
-        rndA02to07 = Arrays.copyOfRange(rndA, 2, 8);
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndA02to07", rndA02to07));
-        rndB00to05 = Arrays.copyOfRange(rndB, 0, 6);
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("rndB00to05", rndB00to05));
-        byte[] xored = xor(rndA02to07, rndB00to05);
-        if (debug) log(methodName, printData("xored     ", xored));
-        System.arraycopy(xored, 0, cmacInput, 8, 6);
-        System.arraycopy(rndB, 6, cmacInput, 14, 10);
-        System.arraycopy(rndA, 8, cmacInput, 24, 8);
+        byte[] rndA02to07 = new byte[6];
+        byte[] rndB00to05 = new byte[6];
+        rndA02to07 = Arrays.copyOfRange(rndA, 2, 8);
+        if (debug) log(methodName, "rndA     ", rndA);
+        if (debug) log(methodName, "rndA02to07", rndA02to07);
+        rndB00to05 = Arrays.copyOfRange(rndB, 0, 6);
+        if (debug) log(methodName, "rndB     ", rndB);
+        if (debug) log(methodName, "rndB00to05", rndB00to05);
+        byte[] xored = xor(rndA02to07, rndB00to05);
+        if (debug) log(methodName, "xored     ", xored);
+        System.arraycopy(xored, 0, cmacInput, 8, 6);
+        System.arraycopy(rndB, 6, cmacInput, 14, 10);
+        System.arraycopy(rndA, 8, cmacInput, 24, 8);
+
+        if (debug) log(methodName, "rndA     ", rndA);
+        if (debug) log(methodName, "rndB     ", rndB);
+        if (debug) log(methodName, "cmacInput", cmacInput);
+        byte[] iv = new byte[16];
+        if (debug) log(methodName, "iv       ", iv);
+        byte[] cmac = calculateDiverseKey(authenticationKey, cmacInput);
+        if (debug) log(methodName, "cmacOut ", cmac);
+        return cmac;
+    }
+
+    /**
+     * calculate the SessionAuthMacKey after a successful authenticateAesEv2First
+     * It uses the AesMac class for CMAC
+     * The code is tested with example values in Mifare DESFire Light Features and Hints AN12343.pdf
+     * on pages 33..35
+     *
+     * @param rndA              is the random generated 16 bytes long key A from reader
+     * @param rndB              is the random generated 16 bytes long key B from PICC
+     * @param authenticationKey is the 16 bytes long AES key used for authentication
+     * @return the 16 bytes long MAC key
+     */
+
+    private byte[] getSesAuthMacKey(byte[] rndA, byte[] rndB, byte[] authenticationKey) {
+        // see
+        // see MIFARE DESFire Light contactless application IC pdf, page 28
+        boolean debug = false; // if true each single step is print out for debugging purposes
+        final String methodName = "getSesAuthMacKey";
+        log(methodName, "rndA", rndA);
+        log(methodName, "rndB", rndB);
+        log(methodName, "authenticationKey", authenticationKey);
+        // sanity checks
+        if ((rndA == null) || (rndA.length != 16)) {
+            log(methodName, "rndA is NULL or wrong length, aborted");
+            return null;
+        }
+        if ((rndB == null) || (rndB.length != 16)) {
+            log(methodName, "rndB is NULL or wrong length, aborted");
+            return null;
+        }
+        if ((authenticationKey == null) || (authenticationKey.length != 16)) {
+            log(methodName, "authenticationKey is NULL or wrong length, aborted");
+            return null;
+        }
+        // see Mifare DESFire Light Features and Hints AN12343.pdf page 35
+        byte[] cmacInput = new byte[32];
+        byte[] labelEnc = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
+        byte[] counter = new byte[]{(byte) (0x00), (byte) (0x01)}; // fixed to 0x0001
+        byte[] length = new byte[]{(byte) (0x00), (byte) (0x80)}; // fixed to 0x0080
+
+        System.arraycopy(labelEnc, 0, cmacInput, 0, 2);
+        System.arraycopy(counter, 0, cmacInput, 2, 2);
+        System.arraycopy(length, 0, cmacInput, 4, 2);
+        System.arraycopy(rndA, 0, cmacInput, 6, 2);
+
+        byte[] rndA02to07 = new byte[6];
+        byte[] rndB00to05 = new byte[6];
+        rndA02to07 = Arrays.copyOfRange(rndA, 2, 8);
+        if (debug) log(methodName, "rndA     ", rndA);
+        if (debug) log(methodName, "rndA02to07", rndA02to07);
+        rndB00to05 = Arrays.copyOfRange(rndB, 0, 6);
+        if (debug) log(methodName, "rndB     ", rndB);
+        if (debug) log(methodName, "rndB00to05", rndB00to05);
+        byte[] xored = xor(rndA02to07, rndB00to05);
+        if (debug) log(methodName, "xored     ", xored);
+        System.arraycopy(xored, 0, cmacInput, 8, 6);
+        System.arraycopy(rndB, 6, cmacInput, 14, 10);
+        System.arraycopy(rndA, 8, cmacInput, 24, 8);
+
+        if (debug) log(methodName, "rndA     ", rndA);
+        if (debug) log(methodName, "rndB     ", rndB);
+        if (debug) log(methodName, "cmacInput", cmacInput);
+        byte[] iv = new byte[16];
+        if (debug) log(methodName, "iv       ", iv);
+        byte[] cmac = calculateDiverseKey(authenticationKey, cmacInput);
+        if (debug) log(methodName, "cmacOut ", cmac);
+        return cmac;
+    }
+
+    private byte[] getSesSDMFileReadENCKey(byte[] sdmFileReadKey, byte[] uid, byte[] sdmReadCounter) {
+        // see NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf pages 13 - 14
+        // see NTAG 424 DNA NT4H2421Gx.pdf page 41
+        boolean debug = false; // if true each single step is print out for debugging purposes
+        final String methodName = "getSesSDMFileReadENCKey";
+        log(methodName, "started", true);
+        log(methodName, "sdmFileReadKey", sdmFileReadKey);
+        log(methodName, "uid", uid);
+        log(methodName, "sdmReadCounter", sdmReadCounter);
+        // sanity checks
+        if ((sdmFileReadKey == null) || (sdmFileReadKey.length != 16)) {
+            log(methodName, "sdmFileReadKey is NULL or wrong length, aborted");
+            return null;
+        }
+        if ((uid == null) || (uid.length != 7)) {
+            log(methodName, "uid is NULL or wrong length, aborted");
+            return null;
+        }
+        if ((sdmReadCounter == null) || (sdmReadCounter.length != 3)) {
+            log(methodName, "sdmReadCounter is NULL or wrong length, aborted");
+            return null;
+        }
+        // CMAC calculation when CMACInputOffset = CMACOffset
+        byte[] cmacInput = new byte[16];
+        byte[] labelSdmEnc = new byte[]{(byte) (0xC3), (byte) (0x3C)}; // fixed to 0xC33C
+        byte[] counter = new byte[]{(byte) (0x00), (byte) (0x01)}; // fixed to 0x0001
+        byte[] length = new byte[]{(byte) (0x00), (byte) (0x80)}; // fixed to 0x0080
+        System.arraycopy(labelSdmEnc, 0, cmacInput, 0, 2);
+        System.arraycopy(counter, 0, cmacInput, 2, 2);
+        System.arraycopy(length, 0, cmacInput, 4, 2);
+        System.arraycopy(uid, 0, cmacInput, 6, 7);
+        System.arraycopy(sdmReadCounter, 0, cmacInput, 13, 3);
+        // todo this method is working only when UID and readCtr are present, if not the byte array is filled up with 00 to 16 bytes
+        if (debug) log(methodName, "cmacInput", cmacInput);
+        byte[] cmac = calculateDiverseKey(sdmFileReadKey, cmacInput);
+        if (debug) log(methodName, "cmacOutput", cmac);
+        return cmac;
+    }
+
+    private byte[] getRandomData(byte[] key) {
+        log("getRandomData", "key", key);
+        //Log.d(TAG, "getRandomData " + printData("var", var));
+        int keyLength = key.length;
+        return getRandomData(keyLength);
+    }
+
+    /**
+     * generates a random 8 bytes long array
+     *
+     * @return 8 bytes long byte[]
+     */
+    private byte[] getRandomData(int length) {
+        log("getRandomData", "length: " + length, true);
+        //Log.d(TAG, "getRandomData " + " length: " + length);
+        byte[] value = new byte[length];
+        SecureRandom secureRandom = new SecureRandom();
+        secureRandom.nextBytes(value);
+        return value;
+    }
+
+    // rotate the array one byte to the left
+    private byte[] rotateLeft(byte[] data) {
+        log("rotateLeft", "data", data);
+        byte[] ret = new byte[data.length];
+        System.arraycopy(data, 1, ret, 0, data.length - 1);
+        ret[data.length - 1] = data[0];
+        return ret;
+    }
+
+    // rotate the array one byte to the right
+    private static byte[] rotateRight(byte[] data) {
+        byte[] unrotated = new byte[data.length];
+        for (int i = 1; i < data.length; i++) {
+            unrotated[i] = data[i - 1];
+        }
+        unrotated[0] = data[data.length - 1];
+        return unrotated;
+    }
+
+    private static byte[] concatenate(byte[] dataA, byte[] dataB) {
+        byte[] concatenated = new byte[dataA.length + dataB.length];
+        for (int i = 0; i < dataA.length; i++) {
+            concatenated[i] = dataA[i];
+        }
+
+        for (int i = 0; i < dataB.length; i++) {
+            concatenated[dataA.length + i] = dataB[i];
+        }
+        return concatenated;
+    }
+
+    private byte[] xor(byte[] dataA, byte[] dataB) {
+        log("xor", "started", true);
+        log("xor", "dataA", dataA);
+        log("xor", "dataB", dataB);
+        if ((dataA == null) || (dataB == null)) {
+            Log.e(TAG, "xor - dataA or dataB is NULL, aborted");
+            return null;
+        }
+        // sanity check - both arrays need to be of the same length
+        int dataALength = dataA.length;
+        int dataBLength = dataB.length;
+        if (dataALength != dataBLength) {
+            Log.e(TAG, "xor - dataA and dataB lengths are different, aborted (dataA: " + dataALength + " dataB: " + dataBLength + " bytes)");
+            return null;
+        }
+        for (int i = 0; i < dataALength; i++) {
+            dataA[i] ^= dataB[i];
+        }
+        return dataA;
+    }
+
+    /**
+     * encrypts or decrypts with the SesAuthENCKey, using the SecureMessagingEngine that is created on authentication
+     * (no cipher lookup and key setup per call)
+     */
+
+    private byte[] encryptSesAuthEnc(byte[] iv, byte[] data) {
+        long start = getCryptoStart();
+        byte[] encryptedData;
+        if (secureMessaging == null) {
+            encryptedData = AES.encrypt(iv, SesAuthENCKey, data);
+        } else {
+            encryptedData = secureMessaging.encrypt(iv, data);
+        }
+        recordCrypto(start, false);
+        return encryptedData;
+    }
+
+    private byte[] decryptSesAuthEnc(byte[] iv, byte[] data) {
+        long start = getCryptoStart();
+        byte[] decryptedData;
+        if (secureMessaging == null) {
+            decryptedData = AES.decrypt(iv, SesAuthENCKey, data);
+        } else {
+            decryptedData = secureMessaging.decrypt(iv, data);
+        }
+        recordCrypto(start, true);
+        return decryptedData;
+    }
+
+    /**
+     * encrypts the padded command data with the IV for CmdData, using the CmdCounter before the increase
+     * Note: the data is not encrypted in place as the command log keeps a reference to the plain data
+     */
+
+    private byte[] encryptCommandData(byte[] dataPadded) {
+        if (secureMessaging == null) {
+            return AES.encrypt(AES.encrypt(new byte[16], SesAuthENCKey, getIvInput()), SesAuthENCKey, dataPadded);
+        }
+        long start = getCryptoStart();
+        byte[] encryptedData = secureMessaging.encryptCommandData(CmdCounter, dataPadded);
+        recordCrypto(start, false);
+        return encryptedData;
+    }
+
+    /**
+     * decrypts the response data with the IV for RespData, using the CmdCounter after the increase
+     */
+
+    private byte[] decryptResponseData(byte[] encryptedData) {
+        if (secureMessaging == null) {
+            byte[] ivInputResponse = new byte[16];
+            System.arraycopy(IV_LABEL_DEC, 0, ivInputResponse, 0, 2);
+            System.arraycopy(TransactionIdentifier, 0, ivInputResponse, 2, 4);
+            System.arraycopy(intTo2ByteArrayInversed(CmdCounter), 0, ivInputResponse, 6, 2);
+            return AES.decrypt(AES.encrypt(new byte[16], SesAuthENCKey, ivInputResponse), SesAuthENCKey, encryptedData);
+        }
+        long start = getCryptoStart();
+        byte[] decryptedData = secureMessaging.decryptResponseData(CmdCounter, encryptedData);
+        recordCrypto(start, true);
+        return decryptedData;
+    }
+
+    private SecureMessagingEngine getSecureMessagingEngine() {
+        try {
+            return new SecureMessagingEngine(SesAuthENCKey, SesAuthMACKey, TransactionIdentifier);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Exception on getSecureMessagingEngine: " + e.getMessage());
+            return null; // the crypto helpers fall back to the AES class and calculateDiverseKey
+        }
+    }
+
+    /**
+     * calculates the CMAC with the SesAuthMACKey, using the SecureMessagingEngine that is created on authentication
+     * (no cipher lookup and subkey derivation per call)
+     */
+
+    private byte[] calculateSesAuthMac(byte[] input) {
+        long start = getCryptoStart();
+        byte[] mac;
+        if (secureMessaging == null) {
+            mac = calculateDiverseKey(SesAuthMACKey, input);
+        } else {
+            mac = secureMessaging.calculateMac(input);
+        }
+        // the MAC input for a response starts with the response code 0x00, for a command with the command byte
+        recordCrypto(start, ((input != null) && (input.length > 0) && (input[0] == (byte) 0x00)));
+        return mac;
+    }
+
+    /**
+     * section for transaction MAC tracking
+     */
+
+    /**
+     * sets the TransactionMacTracker for the card. All commands of a transaction that are part of the Transaction MAC
+     * Input (ReadData, WriteData, GetValue, Credit, Debit, ReadRecords, WriteRecord and CommitReaderId) are appended to
+     * the tracker when they are issued, on a successful commit with a Transaction MAC file present the expected TMV is
+     * calculated and compared with the TMV returned by the card (when requested with isEnabledReturnTmcv).
+     * The TMI, TMC and the expected TMV of the last commit are available from the tracker, e.g. for the back office.
+     * Set to NULL to disable the tracking.
+     *
+     * @param transactionMacTracker | created with the UID of the card and the AppTransactionMACKey
+     */
+    public void setTransactionMacTracker(TransactionMacTracker transactionMacTracker) {
+        this.transactionMacTracker = transactionMacTracker;
+        isTransactionMacValueVerified = false;
+    }
+
+    public TransactionMacTracker getTransactionMacTracker() {
+        return transactionMacTracker;
+    }
+
+    /**
+     * @return true when the TMV returned on the last commit matches the TMV calculated by the TransactionMacTracker
+     */
+    public boolean isTransactionMacValueVerified() {
+        return isTransactionMacValueVerified;
+    }
+
+    /**
+     * appends a command to the TMI, the commands on the Transaction MAC file itself are not part of the TMI and
+     * unauthenticated commands are skipped when the file option 'exclude unauthenticated operations' is set
+     */
+    private void trackTransactionMac(byte command, byte[] header, byte[] data) {
+        if ((transactionMacTracker == null) || (!isTransactionMacFilePresent) || (transactionMacFileSettings == null)) return;
+        if ((secureMessaging == null) && (!authenticateAesLegacySuccess) && (transactionMacFileSettings.isExcludeUnauthenticatedOperationsFromTMI())) {
+            return;
+        }
+        if ((header.length > 0) && (header[0] == transactionMacFileSettings.getFileNumber())) return;
+        transactionMacTracker.append(command, header, data);
+        log("trackTransactionMac", "command " + Utils.byteToHex(command) + " appended, TMI length: " + transactionMacTracker.getInputLength());
+    }
+
+    /**
+     * calculates the expected TMV after a successful commit and compares it with the returned TMC || TMV
+     *
+     * @param returnedTmcv | TMC || TMV returned by the commit or NULL when not requested
+     */
+    private void finishTransactionMacTracking(byte[] returnedTmcv) {
+        final String methodName = "finishTransactionMacTracking";
+        isTransactionMacValueVerified = false;
+        if (transactionMacTracker == null) return;
+        if (transactionMacTracker.isEmpty()) {
+            // the card does not change the TMC and TMV on a commit with an empty TMI
+            transactionMacTracker.reset();
+            log(methodName, "the TMI is empty, the TMC and TMV are unchanged");
+            return;
+        }
+        boolean isTmcvReturned = ((returnedTmcv != null) && (returnedTmcv.length == 12));
+        int transactionMacCounter = isTmcvReturned ? intFrom4ByteArrayInversed(Arrays.copyOf(returnedTmcv, 4)) : TransactionMacTracker.TRANSACTION_MAC_COUNTER_UNKNOWN;
+        byte[] expectedTmv = transactionMacTracker.finish(transactionMacCounter);
+        if (expectedTmv == null) {
+            log(methodName, "the expected TMV can't be calculated (AppTransactionMACKey or TMC unknown), the TMI is kept for a later verification");
+            return;
+        }
+        log(methodName, "TMC: " + transactionMacTracker.getLastTransactionMacCounter());
+        log(methodName, "expected TMV", expectedTmv);
+        if (isTmcvReturned) {
+            isTransactionMacValueVerified = MessageDigest.isEqual(expectedTmv, Arrays.copyOfRange(returnedTmcv, 4, 12));
+            log(methodName, "the returned TMV " + (isTransactionMacValueVerified ? "matches" : "does NOT match") + " the expected TMV");
+        }
+    }
+
+    /**
+     * section for key provider
+     */
+
+    /**
+     * sets the KeyProvider that is asked for the application keys in authenticateAesEv2First(keyNumber),
+     * authenticateAesEv2NonFirst(keyNumber) and changeApplicationKeyFull(keyNumber, keyVersion, keyOld)
+     * (default NULL = the keys need to be given to the methods)
+     */
+    public void setKeyProvider(KeyProvider keyProvider) {
+        this.keyProvider = keyProvider;
+    }
+
+    public KeyProvider getKeyProvider() {
+        return keyProvider;
+    }
+
+    /**
+     * sets the UID of the card that is used for the KeyProvider, the IsoDep constructor takes the UID from the tag.
+     * Note: a card with random ID returns a new UID on each tap, read the real UID with getCardUid first
+     *
+     * @param uid | the UID of the card (usually 7 bytes)
+     */
+    public void setCardUid(byte[] uid) {
+        this.cardUid = (uid == null) ? null : uid.clone();
+    }
+
+    /**
+     * authenticateAesEv2First with the key of the KeyProvider for the card UID, the selected application and the key number
+     *
+     * @param keyNumber (00..14) but maximum is defined during application setup
+     * @return TRUE when authentication was successful
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean authenticateAesEv2First(byte keyNumber) {
+        byte[] key = getKeyFromProvider("authenticateAesEv2First", keyNumber);
+        if (key == null) return false;
+        try {
+            return authenticateAesEv2First(keyNumber, key);
+        } finally {
+            Arrays.fill(key, (byte) 0x00);
+        }
+    }
+
+    /**
+     * authenticateAesEv2NonFirst with the key of the KeyProvider for the card UID, the selected application and the key number
+     *
+     * @param keyNumber (00..14) but maximum is defined during application setup
+     * @return TRUE when authentication was successful
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean authenticateAesEv2NonFirst(byte keyNumber) {
+        byte[] key = getKeyFromProvider("authenticateAesEv2NonFirst", keyNumber);
+        if (key == null) return false;
+        try {
+            return authenticateAesEv2NonFirst(keyNumber, key);
+        } finally {
+            Arrays.fill(key, (byte) 0x00);
+        }
+    }
+
+    /**
+     * changes the application key to the key of the KeyProvider, e.g. to personalize a card with diversified keys
+     *
+     * @param keyNumber  | the key number to change
+     * @param keyVersion | the new key version
+     * @param keyOld     | the current key (e.g. the default AES key), length 16
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean changeApplicationKeyFull(byte keyNumber, byte keyVersion, byte[] keyOld) {
+        byte[] keyNew = getKeyFromProvider("changeApplicationKeyFull", keyNumber);
+        if (keyNew == null) return false;
+        try {
+            return changeApplicationKeyFull(keyNumber, keyVersion, keyNew, keyOld);
+        } finally {
+            Arrays.fill(keyNew, (byte) 0x00);
+        }
+    }
+
+    private byte[] getKeyFromProvider(String methodName, byte keyNumber) {
+        if (keyProvider == null) {
+            Log.e(TAG, methodName + " no KeyProvider is set, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "no KeyProvider is set";
+            return null;
+        }
+        if (cardUid == null) {
+            Log.e(TAG, methodName + " the card UID is unknown, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "the card UID is unknown, call setCardUid";
+            return null;
+        }
+        if (selectedApplicationId == null) {
+            Log.e(TAG, methodName + " no application is selected, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "no application is selected";
+            return null;
+        }
+        if (!checkKeyNumber(keyNumber)) return null;
+        byte[] key = keyProvider.getKey(cardUid, selectedApplicationId, keyNumber);
+        if (!checkKey(key)) {
+            errorCodeReason = "the KeyProvider has no valid key for keyNumber " + keyNumber;
+            return null;
+        }
+        return key;
+    }
+
+    /**
+     * section for session resumption
+     */
+
+    /**
+     * sets the SessionCache that is used by authenticateAesEv2Resume and saveSession (default NULL = disabled).
+     * The cache should be kept by the activity as a new DesfireLight instance is created on each tap. Set the
+     * cache before authenticating, the check value of the authentication key is only calculated with a cache.
+     */
+    public void setSessionCache(SessionCache sessionCache) {
+        this.sessionCache = sessionCache;
+    }
+
+    public SessionCache getSessionCache() {
+        return sessionCache;
+    }
+
+    /**
+     * authenticates with the key on the application and reuses an EV2 session when the card (identified by its
+     * UID) was authenticated before on the same connection and the session is found in the SessionCache:
+     * 1. direct continuation: when the cached session was authenticated with the same key number and key (compared
+     * by the key check value) the session (TI, session keys, CmdCounter, file settings) is restored and verified
+     * with a MACed GetFileIds command, no selection and authentication are necessary
+     * 2. when the cached session was authenticated with another key number an authenticateAesEv2NonFirst is run
+     * in the restored session (the TI and CmdCounter are kept)
+     * 3. in all other cases (no session cached, another key, a session of another connection, the card does not
+     * know the session any longer) the application is selected and authenticateAesEv2First is run.
+     * After a successful authentication the session is stored in the cache, call saveSession at the end of the
+     * tap to store the latest CmdCounter.
+     * Note: a resume only helps within one connection (the same ApduTransport). The card loses the session on
+     * every field reset, so when the card is removed and presented again (a new IsoDep on the next tap) the
+     * cached session is dropped without a round trip and the method runs select and authenticateAesEv2First.
+     * Note: without a SessionCache this method is selectApplicationByAid and authenticateAesEv2First
+     *
+     * @param uid                   | the UID of the tag (e.g. tag.getId()), a random ID does not get a cache hit
+     * @param applicationIdentifier | length 3
+     * @param keyNumber             | (00..14) but maximum is defined during application setup
+     * @param key                   | AES key with length of 16 bytes
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean authenticateAesEv2Resume(byte[] uid, byte[] applicationIdentifier, byte keyNumber, byte[] key) {
+        final String methodName = "authenticateAesEv2Resume";
+        log(methodName, "started", true);
+        log(methodName, "uid", uid);
+        log(methodName, "applicationIdentifier", applicationIdentifier);
+        log(methodName, "keyNumber: " + keyNumber);
+        // sanity checks
+        if ((uid == null) || (uid.length == 0)) {
+            log(methodName, "uid is NULL or empty, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "uid is NULL or empty";
+            return false;
+        }
+        if (!checkApplicationIdentifier(applicationIdentifier)) return false;
+        if (!checkKeyNumber(keyNumber)) return false;
+        if (!checkKey(key)) return false;
+        if (!checkIsoDep()) return false;
+
+        if (sessionCache != null) {
+            SessionState sessionState = sessionCache.get(uid, applicationIdentifier);
+            if (sessionState != null) {
+                log(methodName, "found " + sessionState);
+                if (!sessionState.isSameConnection(transport)) {
+                    log(methodName, "the session was stored on another connection and is lost by the field reset, run authenticateAesEv2First");
+                } else if ((sessionState.getKeyNumber() == keyNumber) && (!sessionState.matchesKey(key))) {
+                    log(methodName, "the session was authenticated with another key, run authenticateAesEv2First");
+                } else if (resumeSession(sessionState)) {
+                    if (sessionState.getKeyNumber() == keyNumber) {
+                        log(methodName, "the session is continued");
+                        saveSession(uid);
+                        return true;
+                    }
+                    log(methodName, "the session was authenticated with key " + sessionState.getKeyNumber() + ", run authenticateAesEv2NonFirst");
+                    if (authenticateAesEv2NonFirst(keyNumber, key)) {
+                        saveSession(uid);
+                        return true;
+                    }
+                }
+                sessionCache.remove(uid, applicationIdentifier);
+                invalidateAllData();
+            }
+        }
+        if (!selectApplicationByAid(applicationIdentifier)) return false;
+        if (!authenticateAesEv2First(keyNumber, key)) return false;
+        saveSession(uid);
+        return true;
+    }
+
+    /**
+     * restores a cached session and verifies it with a GetFileIds command in Communication mode MACed, the
+     * response MAC is only correct when the card still holds the session with the same CmdCounter
+     *
+     * @return true when the card accepted the session
+     */
+    private boolean resumeSession(SessionState sessionState) {
+        final String methodName = "resumeSession";
+        invalidateAllNonAuthenticationData();
+        invalidateAllData();
+        selectedApplicationId = sessionState.getApplicationIdentifier();
+        APPLICATION_ALL_FILE_IDS = sessionState.getFileIds();
+        APPLICATION_ALL_FILE_SETTINGS = sessionState.getFileSettings();
+        if (APPLICATION_ALL_FILE_SETTINGS != null) {
+            for (FileSettings fileSettings : APPLICATION_ALL_FILE_SETTINGS) {
+                if ((fileSettings != null) && (fileSettings.getFileType() == FileSettings.TRANSACTION_MAC_FILE_TYPE)) {
+                    isTransactionMacFilePresent = true;
+                    transactionMacFileSettings = fileSettings;
+                    if (fileSettings.getAccessRightsRw() != 15) isTransactionMacCommitReaderId = true;
+                }
+            }
+        }
+        TransactionIdentifier = sessionState.getTransactionIdentifier();
+        SesAuthENCKey = sessionState.getSesAuthEncKey();
+        SesAuthMACKey = sessionState.getSesAuthMacKey();
+        CmdCounter = sessionState.getCmdCounter();
+        secureMessaging = getSecureMessagingEngine();
+        authenticateEv2FirstSuccess = true;
+        keyNumberUsedForAuthentication = sessionState.getKeyNumber();
+        authenticationKeyCheckValue = sessionState.getKeyCheckValue();
+        byte[] fileIds = executeCommand(CommandDescriptor.GET_FILE_IDS, FILE_COMMUNICATION_SETTINGS_MACED, new byte[0], null);
+        if (fileIds == null) {
+            log(methodName, "the card did not accept the cached session: " + errorCodeReason);
+            invalidateAllData();
+            invalidateAllNonAuthenticationData();
+            return false;
+        }
+        log(methodName, "the session is accepted, the CmdCounter is " + CmdCounter);
+        return true;
+    }
+
+    /**
+     * stores the current EV2 session in the SessionCache, call this at the end of a tap so the next tap of the
+     * same card can continue with the latest CmdCounter
+     *
+     * @param uid | the UID of the tag (e.g. tag.getId())
+     * @return true when the session was stored, false when there is no cache or no authenticated session
+     * Note: a session that was authenticated before the SessionCache was set has no key check value and is not stored
+     */
+    public boolean saveSession(byte[] uid) {
+        if ((sessionCache == null) || (uid == null) || (selectedApplicationId == null)) return false;
+        if ((!authenticateEv2FirstSuccess) && (!authenticateEv2NonFirstSuccess)) return false;
+        if ((TransactionIdentifier == null) || (SesAuthENCKey == null) || (SesAuthMACKey == null)) return false;
+        if ((authenticationKeyCheckValue == null) || (transport == null)) return false;
+        sessionCache.put(new SessionState(uid, selectedApplicationId, keyNumberUsedForAuthentication, TransactionIdentifier, SesAuthENCKey,
+                SesAuthMACKey, CmdCounter, APPLICATION_ALL_FILE_IDS, APPLICATION_ALL_FILE_SETTINGS, authenticationKeyCheckValue,
+                transport, System.currentTimeMillis()));
+        log("saveSession", "the session is stored, the CmdCounter is " + CmdCounter);
+        return true;
+    }
+
+    /**
+     * section for the command executor
+     */
+
+    /**
+     * executes a file command that is described by a CommandDescriptor in the given communication mode. This is
+     * the single path for all commands in the descriptor table, the MAC and encryption are done by the
+     * SecureMessagingEngine. The CmdCounter is increased after a successful response in Communication mode MACed
+     * and Full, and in Plain mode when there is an authenticated session.
+     * Note: There are no sanity checks on the file settings or the authentication status, this is done by the caller.
+     *
+     * @param descriptor        | the command, see the table in CommandDescriptor
+     * @param communicationMode | FILE_COMMUNICATION_SETTINGS_PLAIN, _MACED or _FULL
+     * @param header            | the CmdHeader, the length needs to match the descriptor
+     * @param data              | the CmdData, NULL when the descriptor has no COMMAND data direction
+     * @return the RespData (trimmed to the response data length of the descriptor, in Full mode with
+     * variable length including the padding), an empty array for commands without response data or NULL on failure
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    private byte[] executeCommand(CommandDescriptor descriptor, byte communicationMode, byte[] header, byte[] data) {
+        return executeCommand(descriptor, communicationMode, header, data, null);
+    }
+
+    /**
+     * executes a file command as above, when the command pipeline is enabled the next command of a batch is
+     * build on the worker thread while this command is transceived
+     *
+     * @param nextCommand | the next prepared command of the batch or NULL
+     */
+    private byte[] executeCommand(CommandDescriptor descriptor, byte communicationMode, byte[] header, byte[] data, PreparedBatchCommand nextCommand) {
+        final String methodName = "executeCommand " + descriptor.getName();
+        log(methodName, "started", true);
+        log(methodName, "communicationMode: " + communicationMode);
+        log(methodName, "header", header);
+        log(methodName, "data", data);
+        if ((header == null) || (header.length != descriptor.getHeaderLength())) {
+            log(methodName, "header is NULL or not of length " + descriptor.getHeaderLength() + ", aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "header is NULL or not of length " + descriptor.getHeaderLength();
+            return null;
+        }
+        boolean isPlainMode = (communicationMode == FILE_COMMUNICATION_SETTINGS_PLAIN);
+        if ((!isPlainMode) && (!checkSecureMessaging())) return null;
+        if (!checkIsoDep()) return null;
+
+        byte[] commandData;
+        if (isPlainMode) {
+            commandData = (data == null) ? header : concatenate(header, data);
+        } else {
+            commandData = (commandPipeline == null) ? null : commandPipeline.take(header, CmdCounter);
+            if (commandData != null) {
+                log(methodName, "the command was precomputed by the command pipeline");
+            } else {
+                long start = getCryptoStart();
+                commandData = secureMessaging.buildCommand(descriptor.getCommand(), CmdCounter, header, data, communicationMode);
+                recordCrypto(start, false);
+            }
+        }
+        log(methodName, "commandData", commandData);
+        if ((commandPipeline != null) && (nextCommand != null) && (secureMessaging != null)
+                && (nextCommand.communicationMode != FILE_COMMUNICATION_SETTINGS_PLAIN)) {
+            // in an authenticated session every successful command increases the CmdCounter by 1
+            commandPipeline.submit(secureMessaging, SesAuthENCKey, SesAuthMACKey, TransactionIdentifier, nextCommand.descriptor.getCommand(),
+                    CmdCounter + 1, nextCommand.header, nextCommand.data, nextCommand.communicationMode);
+        }
+        byte[] response;
+        try {
+            response = sendData(wrapMessage(descriptor.getCommand(), commandData));
+        } catch (IOException e) {
+            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
+            log(methodName, "transceive failed: " + e.getMessage(), false);
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
+            return null;
+        }
+        if (response == null) return null; // errorCode and errorCodeReason are set by sendData
+        byte[] responseBytes = returnStatusBytes(response);
+        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        if (!checkResponse(response)) {
+            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            errorCodeReason = methodName + " FAILURE";
+            return null;
+        }
+
+        byte[] responseData;
+        if (isPlainMode) {
+            responseData = getData(response);
+            if (secureMessaging != null) {
+                // in an authenticated session the PICC increases the CmdCounter on Plain commands as well
+                CmdCounter++;
+                log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+            }
+        } else {
+            // note: after sending data to the card the commandCounter is increased by 1
+            CmdCounter++;
+            log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+            long start = getCryptoStart();
+            responseData = secureMessaging.unwrapResponse(CmdCounter, response, communicationMode);
+            recordCrypto(start, true);
+            log(methodName, "responseMACTruncatedReceived  ", secureMessaging.getReceivedMac());
+            log(methodName, "responseMACTruncatedCalculated", secureMessaging.getCalculatedMac());
+            if (responseData == null) {
+                log(methodName, methodName + " FAILURE");
+                errorCode = RESPONSE_FAILURE.clone();
+                errorCodeReason = methodName + " FAILURE, response MAC does not match";
+                return null;
+            }
+        }
+        int responseDataLength = descriptor.getResponseDataLength();
+        if (descriptor.getDataDirection() != CommandDescriptor.DataDirection.RESPONSE) {
+            responseData = new byte[0];
+        } else if (responseDataLength != CommandDescriptor.RESPONSE_DATA_LENGTH_VARIABLE) {
+            if (responseData.length < responseDataLength) {
+                Log.d(TAG, methodName + " FAILURE, response is too short");
+                errorCode = RESPONSE_LENGTH_ERROR.clone();
+                errorCodeReason = "response is too short";
+                return null;
+            }
+            // strips the padding in Full mode
+            responseData = Arrays.copyOf(responseData, responseDataLength);
+        }
+        log(methodName, "responseData", responseData);
+        if ((transactionMacTracker != null) && (descriptor.isTransactionMacInput())) {
+            byte[] transactionMacData = (descriptor.getDataDirection() == CommandDescriptor.DataDirection.COMMAND) ? data : responseData;
+            if (descriptor == CommandDescriptor.READ_DATA) {
+                // the variable length RespData in Full mode includes the padding
+                int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(header, 4, 7));
+                if ((length > 0) && (length < transactionMacData.length)) transactionMacData = Arrays.copyOf(transactionMacData, length);
+            }
+            trackTransactionMac(descriptor.getCommand(), header, transactionMacData);
+        }
+        log(methodName, methodName + " SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return responseData;
+    }
+
+    /**
+     * builds the CmdHeader of a ReadData or WriteData command: FileNo || Offset || Length (LSB order)
+     */
+    private byte[] getDataFileCommandHeader(byte fileNumber, int offset, int length) {
+        byte[] cmdHeader = new byte[CommandDescriptor.READ_DATA.getHeaderLength()];
+        cmdHeader[0] = fileNumber;
+        System.arraycopy(Utils.intTo3ByteArrayInversed(offset), 0, cmdHeader, 1, 3);
+        System.arraycopy(Utils.intTo3ByteArrayInversed(length), 0, cmdHeader, 4, 3);
+        return cmdHeader;
+    }
+
+    /**
+     * section for batch operations
+     */
+
+    /**
+     * executes a list of operations back to back, e.g. select application -> authenticate -> read value -> debit
+     * -> write record -> commit in one tap. The file operations are validated once against the file settings of
+     * the selected application (APPLICATION_ALL_FILE_SETTINGS) at the beginning of the batch or directly after a
+     * SELECT_APPLICATION, before the next command is sent to the card. All command headers, value bytes and data
+     * chunks are built in this step as well.
+     * The batch stops on the first failure, nothing is rolled back: an open transaction on the card is discarded
+     * when the next authentication or selection is done.
+     * Value and Data file operations are executed by the command executor, Record file operations and the
+     * commit use the regular methods of this class.
+     *
+     * @param operations | the ordered list of operations
+     * @return the BatchResult, see BatchResult.isSuccess() and getFailedOperationIndex()
+     */
+    public BatchResult executeBatch(List<BatchOperation> operations) {
+        final String methodName = "executeBatch";
+        log(methodName, "started", true);
+        long start = System.nanoTime();
+        if ((operations == null) || (operations.size() == 0)) {
+            log(methodName, "operations are NULL or empty, aborted");
+            BatchResult batchResult = new BatchResult(0);
+            batchResult.setFailure(0, RESPONSE_PARAMETER_ERROR, "operations are NULL or empty");
+            return batchResult;
+        }
+        int numberOfOperations = operations.size();
+        log(methodName, "numberOfOperations: " + numberOfOperations);
+        BatchResult batchResult = new BatchResult(numberOfOperations);
+        PreparedBatchCommand[][] preparedCommands = new PreparedBatchCommand[numberOfOperations][];
+        int preparedUpTo = 0; // operations below this index are validated
+        for (int i = 0; i < numberOfOperations; i++) {
+            BatchOperation operation = operations.get(i);
+            if ((operation.getType() != BatchOperation.Type.SELECT_APPLICATION) && (i >= preparedUpTo)) {
+                preparedUpTo = prepareBatchOperations(operations, i, preparedCommands);
+                if (preparedUpTo < 0) {
+                    int failedIndex = -preparedUpTo - 1;
+                    log(methodName, "validation of operation " + failedIndex + " failed, aborted");
+                    batchResult.setFailure(failedIndex, errorCode, errorCodeReason);
+                    batchResult.setNumberOfExecutedOperations(i);
+                    batchResult.setDurationNanos(System.nanoTime() - start);
+                    return batchResult;
+                }
+            }
+            log(methodName, "operation " + i + ": " + operation);
+            batchResult.setNumberOfExecutedOperations(i + 1);
+            if (!executeBatchOperation(operation, preparedCommands[i], batchResult, i)) {
+                log(methodName, "operation " + i + " FAILURE, aborted");
+                if (commandPipeline != null) commandPipeline.discard();
+                batchResult.setFailure(i, errorCode, errorCodeReason);
+                batchResult.setDurationNanos(System.nanoTime() - start);
+                return batchResult;
+            }
+            if (operation.getType() == BatchOperation.Type.SELECT_APPLICATION) {
+                preparedUpTo = i + 1; // the file settings are read again on selection
+            }
+        }
+        batchResult.setSuccess(RESPONSE_OK);
+        batchResult.setDurationNanos(System.nanoTime() - start);
+        log(methodName, batchResult.toString());
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return batchResult;
+    }
+
+    /**
+     * a command of a Value or Data file operation that is built before the batch is sent to the card
+     */
+    private static class PreparedBatchCommand {
+        final CommandDescriptor descriptor;
+        final byte communicationMode;
+        final byte[] header;
+        final byte[] data;
+        final int resultOffset; // position of the read data in the result
+        final int resultLength;
+        PreparedBatchCommand nextCommand; // the command that directly follows in the batch, used by the command pipeline
 
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
-        byte[] iv = new byte[16];
-        if (debug) log(methodName, printData("iv       ", iv));
-        byte[] cmac = calculateDiverseKey(authenticationKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOut ", cmac));
-        return cmac;
+        PreparedBatchCommand(CommandDescriptor descriptor, byte communicationMode, byte[] header, byte[] data, int resultOffset, int resultLength) {
+            this.descriptor = descriptor;
+            this.communicationMode = communicationMode;
+            this.header = header;
+            this.data = data;
+            this.resultOffset = resultOffset;
+            this.resultLength = resultLength;
+        }
     }
 
     /**
-     * calculate the SessionAuthMacKey after a successful authenticateAesEv2First
-     * It uses the AesMac class for CMAC
-     * The code is tested with example values in Mifare DESFire Light Features and Hints AN12343.pdf
-     * on pages 33..35
+     * validates and prepares all file operations beginning at startIndex up to the next SELECT_APPLICATION
      *
-     * @param rndA              is the random generated 16 bytes long key A from reader
-     * @param rndB              is the random generated 16 bytes long key B from PICC
-     * @param authenticationKey is the 16 bytes long AES key used for authentication
-     * @return the 16 bytes long MAC key
+     * @return the index of the first not prepared operation or (-index - 1) of the failed operation,
+     * errorCode and errorCodeReason are set by the failing check
      */
+    private int prepareBatchOperations(List<BatchOperation> operations, int startIndex, PreparedBatchCommand[][] preparedCommands) {
+        final String methodName = "prepareBatchOperations";
+        int index = startIndex;
+        PreparedBatchCommand lastCommand = null; // the last prepared command when there is no other command after it
+        while (index < operations.size()) {
+            BatchOperation operation = operations.get(index);
+            if (operation.getType() == BatchOperation.Type.SELECT_APPLICATION) break;
+            if (operation.isFileOperation()) {
+                if (APPLICATION_ALL_FILE_SETTINGS == null) {
+                    log(methodName, "missing file settings, select the application first, aborted");
+                    errorCode = RESPONSE_FAILURE_MISSING_GET_FILE_SETTINGS.clone();
+                    errorCodeReason = "missing file settings, select the application first";
+                    return -index - 1;
+                }
+                PreparedBatchCommand[] prepared = prepareBatchOperation(operation);
+                if (prepared == null) {
+                    errorCodeReason = "operation " + index + " " + operation.getType() + ": " + errorCodeReason;
+                    return -index - 1;
+                }
+                preparedCommands[index] = prepared;
+                for (PreparedBatchCommand command : prepared) {
+                    if (lastCommand != null) lastCommand.nextCommand = command;
+                    lastCommand = command;
+                }
+            }
+            if ((!operation.isFileOperation()) || (preparedCommands[index].length == 0)) {
+                // authentication, commit and Record file operations send commands that are not prepared
+                lastCommand = null;
+            }
+            index++;
+        }
+        log(methodName, "operations " + startIndex + " to " + (index - 1) + " are prepared");
+        return index;
+    }
 
-    private byte[] getSesAuthMacKey(byte[] rndA, byte[] rndB, byte[] authenticationKey) {
-        // see
-        // see MIFARE DESFire Light contactless application IC pdf, page 28
-        boolean debug = false; // if true each single step is print out for debugging purposes
-        final String methodName = "getSesAuthMacKey";
-        log(methodName, printData("rndA", rndA) + printData(" rndB", rndB) + printData(" authenticationKey", authenticationKey));
-        // sanity checks
-        if ((rndA == null) || (rndA.length != 16)) {
-            log(methodName, "rndA is NULL or wrong length, aborted");
+    /**
+     * validates one file operation against the file settings and builds its commands
+     *
+     * @return the prepared commands (an empty array for Record file operations) or NULL on failure
+     */
+    private PreparedBatchCommand[] prepareBatchOperation(BatchOperation operation) {
+        final String methodName = "prepareBatchOperation";
+        byte fileNumber = operation.getFileNumber();
+        if (!checkFileNumber(fileNumber)) return null;
+        FileSettings fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        if (fileSettings == null) {
+            log(methodName, "file " + fileNumber + " is not existing, aborted");
+            errorCode = RESPONSE_FAILURE_MISSING_GET_FILE_SETTINGS.clone();
+            errorCodeReason = "file " + fileNumber + " is not existing";
             return null;
         }
-        if ((rndB == null) || (rndB.length != 16)) {
-            log(methodName, "rndB is NULL or wrong length, aborted");
-            return null;
+        byte communicationMode = fileSettings.getCommunicationSettings();
+        byte[] header = new byte[]{fileNumber};
+        switch (operation.getType()) {
+            case READ_VALUE: {
+                if (!checkIsValueFileType(fileNumber)) return null;
+                if (fileSettings.isGetFreeValueAccessEnabled()) {
+                    communicationMode = FILE_COMMUNICATION_SETTINGS_PLAIN;
+                }
+                return new PreparedBatchCommand[]{new PreparedBatchCommand(CommandDescriptor.GET_VALUE, communicationMode, header, null, 0, 0)};
+            }
+            case CREDIT_VALUE:
+            case DEBIT_VALUE: {
+                if (!checkIsValueFileType(fileNumber)) return null;
+                if (!checkValueMinus(operation.getChangeValue())) return null;
+                CommandDescriptor descriptor = (operation.getType() == BatchOperation.Type.CREDIT_VALUE) ? CommandDescriptor.CREDIT_VALUE : CommandDescriptor.DEBIT_VALUE;
+                return new PreparedBatchCommand[]{new PreparedBatchCommand(descriptor, communicationMode, header, intTo4ByteArrayInversed(operation.getChangeValue()), 0, 0)};
+            }
+            case READ_DATA:
+            case WRITE_DATA: {
+                if (!checkIsDataFileType(fileNumber)) return null;
+                if (!checkOffsetMinus(operation.getOffset())) return null;
+                int length = operation.getLength();
+                if ((length < 1) || (operation.getOffset() + length > fileSettings.getFileSizeInt())) {
+                    log(methodName, "length is < 1 or (offset + length) is > fileSize, aborted");
+                    errorCode = RESPONSE_PARAMETER_ERROR.clone();
+                    errorCodeReason = "length is < 1 or (offset + length) is > fileSize";
+                    return null;
+                }
+                boolean isRead = (operation.getType() == BatchOperation.Type.READ_DATA);
+                int chunkLength = isRead ? getMaximumReadLength(communicationMode) : getMaximumWriteLength(communicationMode);
+                int numberOfChunks = (length + chunkLength - 1) / chunkLength;
+                PreparedBatchCommand[] prepared = new PreparedBatchCommand[numberOfChunks];
+                for (int i = 0; i < numberOfChunks; i++) {
+                    int chunkOffset = i * chunkLength;
+                    int lengthOfChunk = Math.min(chunkLength, length - chunkOffset);
+                    byte[] cmdHeader = getDataFileCommandHeader(fileNumber, operation.getOffset() + chunkOffset, lengthOfChunk);
+                    if (isRead) {
+                        prepared[i] = new PreparedBatchCommand(CommandDescriptor.READ_DATA, communicationMode, cmdHeader, null, chunkOffset, lengthOfChunk);
+                    } else {
+                        byte[] chunk = Arrays.copyOfRange(operation.getDataInternal(), chunkOffset, chunkOffset + lengthOfChunk);
+                        prepared[i] = new PreparedBatchCommand(CommandDescriptor.WRITE_DATA, communicationMode, cmdHeader, chunk, chunkOffset, 0);
+                    }
+                }
+                return prepared;
+            }
+            case READ_RECORDS:
+            case WRITE_RECORD: {
+                if (!checkIsRecordFileType(fileNumber)) return null;
+                if (!checkOffsetMinus(operation.getOffset())) return null;
+                if ((operation.getType() == BatchOperation.Type.WRITE_RECORD)
+                        && ((operation.getLength() < 1) || (operation.getOffset() + operation.getLength() > fileSettings.getRecordSizeInt()))) {
+                    log(methodName, "data length is < 1 or (offset + data length) is > recordSize, aborted");
+                    errorCode = RESPONSE_PARAMETER_ERROR.clone();
+                    errorCodeReason = "data length is < 1 or (offset + data length) is > recordSize";
+                    return null;
+                }
+                // the record file methods are called on execution
+                return new PreparedBatchCommand[0];
+            }
+            default:
+                errorCode = RESPONSE_PARAMETER_ERROR.clone();
+                errorCodeReason = "operation is not a file operation";
+                return null;
         }
-        if ((authenticationKey == null) || (authenticationKey.length != 16)) {
-            log(methodName, "authenticationKey is NULL or wrong length, aborted");
-            return null;
+    }
+
+    /**
+     * executes one operation of the batch, file operations use the prepared commands
+     *
+     * @return true on success, errorCode and errorCodeReason are set on failure
+     */
+    private boolean executeBatchOperation(BatchOperation operation, PreparedBatchCommand[] prepared, BatchResult batchResult, int index) {
+        switch (operation.getType()) {
+            case SELECT_APPLICATION:
+                return selectApplicationByAid(operation.getDataInternal());
+            case AUTHENTICATE_FIRST:
+                return authenticateAesEv2First(operation.getKeyNumber(), operation.getDataInternal());
+            case AUTHENTICATE_NON_FIRST:
+                return authenticateAesEv2NonFirst(operation.getKeyNumber(), operation.getDataInternal());
+            case READ_VALUE: {
+                PreparedBatchCommand command = prepared[0];
+                byte[] value = executeCommand(command.descriptor, command.communicationMode, command.header, null, command.nextCommand);
+                if (value == null) return false;
+                batchResult.setResultValue(index, byteArrayLength4InversedToInt(value));
+                return true;
+            }
+            case CREDIT_VALUE:
+            case DEBIT_VALUE:
+            case WRITE_DATA: {
+                for (PreparedBatchCommand command : prepared) {
+                    if (executeCommand(command.descriptor, command.communicationMode, command.header, command.data, command.nextCommand) == null) return false;
+                }
+                return true;
+            }
+            case READ_DATA: {
+                byte[] readData = new byte[operation.getLength()];
+                for (PreparedBatchCommand command : prepared) {
+                    byte[] chunk = executeCommand(command.descriptor, command.communicationMode, command.header, null, command.nextCommand);
+                    if (chunk == null) return false;
+                    if (chunk.length < command.resultLength) {
+                        errorCode = RESPONSE_LENGTH_ERROR.clone();
+                        errorCodeReason = "response is too short";
+                        return false;
+                    }
+                    System.arraycopy(chunk, 0, readData, command.resultOffset, command.resultLength);
+                }
+                batchResult.setResultData(index, readData);
+                return true;
+            }
+            case READ_RECORDS: {
+                byte[] records = readFromARecordFile(operation.getFileNumber(), operation.getOffset(), operation.getLength());
+                if (records == null) return false;
+                batchResult.setResultData(index, records);
+                return true;
+            }
+            case WRITE_RECORD:
+                return writeToARecordFile(operation.getFileNumber(), operation.getOffset(), operation.getDataInternal());
+            case COMMIT: {
+                if (!commitTransactionFull(operation.isEnabledReturnTmcv())) return false;
+                batchResult.setResultData(index, transactionMacFileReturnedTmcv);
+                return true;
+            }
+            default:
+                errorCode = RESPONSE_PARAMETER_ERROR.clone();
+                errorCodeReason = "unknown operation";
+                return false;
         }
-        // see Mifare DESFire Light Features and Hints AN12343.pdf page 35
-        byte[] cmacInput = new byte[32];
-        byte[] labelEnc = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
-        byte[] counter = new byte[]{(byte) (0x00), (byte) (0x01)}; // fixed to 0x0001
-        byte[] length = new byte[]{(byte) (0x00), (byte) (0x80)}; // fixed to 0x0080
+    }
 
-        System.arraycopy(labelEnc, 0, cmacInput, 0, 2);
-        System.arraycopy(counter, 0, cmacInput, 2, 2);
-        System.arraycopy(length, 0, cmacInput, 4, 2);
-        System.arraycopy(rndA, 0, cmacInput, 6, 2);
+    /**
+     * section for chunking
+     */
 
-        byte[] rndA02to07 = new byte[6];
-        byte[] rndB00to05 = new byte[6];
-        rndA02to07 = Arrays.copyOfRange(rndA, 2, 8);
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndA02to07", rndA02to07));
-        rndB00to05 = Arrays.copyOfRange(rndB, 0, 6);
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("rndB00to05", rndB00to05));
-        byte[] xored = xor(rndA02to07, rndB00to05);
-        if (debug) log(methodName, printData("xored     ", xored));
-        System.arraycopy(xored, 0, cmacInput, 8, 6);
-        System.arraycopy(rndB, 6, cmacInput, 14, 10);
-        System.arraycopy(rndA, 8, cmacInput, 24, 8);
+    private int getMaximumReadLength(byte communicationSettings) {
+        return getChunkingPolicy().getMaximumReadLength(communicationSettings);
+    }
 
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
-        byte[] iv = new byte[16];
-        if (debug) log(methodName, printData("iv       ", iv));
-        byte[] cmac = calculateDiverseKey(authenticationKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOut ", cmac));
-        return cmac;
+    private int getMaximumWriteLength(byte communicationSettings) {
+        return getChunkingPolicy().getMaximumWriteLength(communicationSettings);
     }
 
-    private byte[] getSesSDMFileReadENCKey(byte[] sdmFileReadKey, byte[] uid, byte[] sdmReadCounter) {
-        // see NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf pages 13 - 14
-        // see NTAG 424 DNA NT4H2421Gx.pdf page 41
-        boolean debug = false; // if true each single step is print out for debugging purposes
-        final String methodName = "getSesSDMFileReadENCKey";
-        log(methodName, printData("sdmFileReadKey", sdmFileReadKey) + printData(" uid", uid) + printData(" sdmReadCounter", sdmReadCounter), true);
-        // sanity checks
-        if ((sdmFileReadKey == null) || (sdmFileReadKey.length != 16)) {
-            log(methodName, "sdmFileReadKey is NULL or wrong length, aborted");
-            return null;
-        }
-        if ((uid == null) || (uid.length != 7)) {
-            log(methodName, "uid is NULL or wrong length, aborted");
-            return null;
-        }
-        if ((sdmReadCounter == null) || (sdmReadCounter.length != 3)) {
-            log(methodName, "sdmReadCounter is NULL or wrong length, aborted");
-            return null;
+    /**
+     * returns the ChunkingPolicy used by readFromADataFile and writeToADataFile. If no policy was set an
+     * AdaptiveChunkingPolicy for the maximum transceive length of the transport is created (short APDUs only)
+     */
+    public ChunkingPolicy getChunkingPolicy() {
+        if (chunkingPolicy == null) {
+            if (transport == null) {
+                chunkingPolicy = new FixedChunkingPolicy();
+            } else {
+                chunkingPolicy = AdaptiveChunkingPolicy.forTransport(transport);
+            }
+            log("getChunkingPolicy", chunkingPolicy.toString());
         }
-        // CMAC calculation when CMACInputOffset = CMACOffset
-        byte[] cmacInput = new byte[16];
-        byte[] labelSdmEnc = new byte[]{(byte) (0xC3), (byte) (0x3C)}; // fixed to 0xC33C
-        byte[] counter = new byte[]{(byte) (0x00), (byte) (0x01)}; // fixed to 0x0001
-        byte[] length = new byte[]{(byte) (0x00), (byte) (0x80)}; // fixed to 0x0080
-        System.arraycopy(labelSdmEnc, 0, cmacInput, 0, 2);
-        System.arraycopy(counter, 0, cmacInput, 2, 2);
-        System.arraycopy(length, 0, cmacInput, 4, 2);
-        System.arraycopy(uid, 0, cmacInput, 6, 7);
-        System.arraycopy(sdmReadCounter, 0, cmacInput, 13, 3);
-        // todo this method is working only when UID and readCtr are present, if not the byte array is filled up with 00 to 16 bytes
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
-        byte[] cmac = calculateDiverseKey(sdmFileReadKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOutput", cmac));
-        return cmac;
+        return chunkingPolicy;
     }
 
-    private byte[] getRandomData(byte[] key) {
-        log("getRandomData", printData("key", key), true);
-        //Log.d(TAG, "getRandomData " + printData("var", var));
-        int keyLength = key.length;
-        return getRandomData(keyLength);
+    /**
+     * when enabled (default) readFromADataFile reads a Data file in Communication mode Full with one command
+     * and the PICC returns the data in several frames, when disabled the data is read in chunks given by the
+     * ChunkingPolicy
+     */
+    public void setFullModeResponseChainingEnabled(boolean isFullModeResponseChainingEnabled) {
+        this.isFullModeResponseChainingEnabled = isFullModeResponseChainingEnabled;
     }
 
     /**
-     * generates a random 8 bytes long array
-     *
-     * @return 8 bytes long byte[]
+     * when enabled executeBatch builds the next secure messaging command on a worker thread while the current
+     * command is transceived (default disabled). The worker thread is shared by all instances and ends when
+     * it is idle, disabling releases the session keys of the worker.
      */
-    private byte[] getRandomData(int length) {
-        log("getRandomData", "length: " + length, true);
-        //Log.d(TAG, "getRandomData " + " length: " + length);
-        byte[] value = new byte[length];
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(value);
-        return value;
+    public void setCommandPipelineEnabled(boolean isCommandPipelineEnabled) {
+        if (isCommandPipelineEnabled) {
+            if (commandPipeline == null) commandPipeline = new CommandPipeline();
+        } else if (commandPipeline != null) {
+            commandPipeline.close();
+            commandPipeline = null;
+        }
     }
 
-    // rotate the array one byte to the left
-    private byte[] rotateLeft(byte[] data) {
-        log("rotateLeft", printData("data", data), true);
-        byte[] ret = new byte[data.length];
-        System.arraycopy(data, 1, ret, 0, data.length - 1);
-        ret[data.length - 1] = data[0];
-        return ret;
+    /**
+     * @return the CommandPipeline (for the number of used and discarded commands) or NULL when disabled
+     */
+    public CommandPipeline getCommandPipeline() {
+        return commandPipeline;
     }
 
-    // rotate the array one byte to the right
-    private static byte[] rotateRight(byte[] data) {
-        byte[] unrotated = new byte[data.length];
-        for (int i = 1; i < data.length; i++) {
-            unrotated[i] = data[i - 1];
-        }
-        unrotated[0] = data[data.length - 1];
-        return unrotated;
+    /**
+     * sets the ChunkingPolicy, e.g. a FixedChunkingPolicy for readers with a small frame size or an
+     * AdaptiveChunkingPolicy with the frame size of the card
+     *
+     * @param chunkingPolicy | NULL resets to the default AdaptiveChunkingPolicy
+     */
+    public void setChunkingPolicy(ChunkingPolicy chunkingPolicy) {
+        this.chunkingPolicy = chunkingPolicy;
     }
 
-    private static byte[] concatenate(byte[] dataA, byte[] dataB) {
-        byte[] concatenated = new byte[dataA.length + dataB.length];
-        for (int i = 0; i < dataA.length; i++) {
-            concatenated[i] = dataA[i];
-        }
+    /**
+     * section for command metrics
+     */
 
-        for (int i = 0; i < dataB.length; i++) {
-            concatenated[dataA.length + i] = dataB[i];
-        }
-        return concatenated;
+    private long getCryptoStart() {
+        if (commandMetrics == null) return 0;
+        return System.nanoTime();
     }
 
-    private byte[] xor(byte[] dataA, byte[] dataB) {
-        log("xor", printData("dataA", dataA) + printData(" dataB", dataB), true);
-        if ((dataA == null) || (dataB == null)) {
-            Log.e(TAG, "xor - dataA or dataB is NULL, aborted");
-            return null;
-        }
-        // sanity check - both arrays need to be of the same length
-        int dataALength = dataA.length;
-        int dataBLength = dataB.length;
-        if (dataALength != dataBLength) {
-            Log.e(TAG, "xor - dataA and dataB lengths are different, aborted (dataA: " + dataALength + " dataB: " + dataBLength + " bytes)");
+    private void recordCrypto(long start, boolean isResponse) {
+        if (commandMetrics == null) return;
+        commandMetrics.recordCrypto(System.nanoTime() - start, isResponse);
+    }
+
+    /**
+     * starts recording per command metrics (count, chained frames, bytes, transceive latency and the time spent
+     * in the session crypto). All following APDUs are send through a MeteredTransport.
+     * Calling the method again returns the running CommandMetrics.
+     *
+     * @return the CommandMetrics, use getSnapshot() to read the statistics
+     * or NULL if there is no transport
+     */
+    public CommandMetrics enableCommandMetrics() {
+        if (commandMetrics != null) return commandMetrics;
+        if (transport == null) {
+            Log.e(TAG, "enableCommandMetrics: transport is NULL, aborted");
             return null;
         }
-        for (int i = 0; i < dataALength; i++) {
-            dataA[i] ^= dataB[i];
-        }
-        return dataA;
+        commandMetrics = new CommandMetrics();
+        transport = new MeteredTransport(transport, commandMetrics);
+        return commandMetrics;
+    }
+
+    /**
+     * @return the CommandMetrics or NULL if enableCommandMetrics was not called
+     */
+    public CommandMetrics getCommandMetrics() {
+        return commandMetrics;
     }
 
-    private byte[] calculateDiverseKey(byte[] masterKey, byte[] input) {
+    byte[] calculateDiverseKey(byte[] masterKey, byte[] input) {
         Log.d(TAG, "calculateDiverseKey" + printData(" masterKey", masterKey) + printData(" input", input));
         AesCmac mac = null;
         try {
@@ -9077,8 +9237,8 @@ fileSize: 128
         log(methodName, "started", true);
         log(methodName, "keyNumber: " + keyNumber);
         log(methodName, "keyVersion: " + keyVersion);
-        log(methodName, printData("keyNew", keyNew));
-        log(methodName, printData("keyOld", keyOld));
+        log(methodName, "keyNew", keyNew);
+        log(methodName, "keyOld", keyOld);
         // sanity checks
         if (!checkAuthentication()) return false;
         if (!checkKeyNumber(keyNumber)) return false;
@@ -9096,7 +9256,7 @@ fileSize: 128
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -9104,13 +9264,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();*/
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
         // 0123456789012345678901234567890100A0A608688000000000000000000000
@@ -9130,9 +9290,9 @@ fileSize: 128
             for (int i = 0; i < keyOld.length; i++) {
                 keyNewXor[i] ^= keyOld[i % keyOld.length];
             }
-            log(methodName, printData("keyNewXor", keyNewXor));
+            log(methodName, "keyNewXor", keyNewXor);
             byte[] crc32 = CRC32.get(keyNew);
-            log(methodName, printData("crc32 of keyNew", crc32));
+            log(methodName, "crc32 of keyNew", crc32);
             byte[] padding = hexStringToByteArray("8000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNewXor, 0, keyNewXor.length);
@@ -9149,11 +9309,11 @@ fileSize: 128
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
         }
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
         // C40000BC354CD50180D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
@@ -9167,15 +9327,15 @@ fileSize: 128
         baosMacInput.write(keyNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();*/
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = keyNumber || Encrypted Data || MAC)
         ByteArrayOutputStream baosChangeKeyCommand = new ByteArrayOutputStream();
@@ -9183,16 +9343,16 @@ fileSize: 128
         baosChangeKeyCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeKeyCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeKeyCommand = baosChangeKeyCommand.toByteArray();
-        log(methodName, printData("changeKeyCommand", changeKeyCommand));
+        log(methodName, "changeKeyCommand", changeKeyCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -9239,13 +9399,13 @@ fileSize: 128
         responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput2", macInput2));
+        log(methodName, "macInput2", macInput2);
 
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        byte[] responseMACCalculated = calculateSesAuthMac(macInput2);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -9271,8 +9431,8 @@ fileSize: 128
         log(methodName, "started", true);
         log(methodName, "keyNumber: " + keyNumber);
         log(methodName, "keyVersion: " + keyVersion);
-        log(methodName, printData("keyNew", keyNew));
-        log(methodName, printData("keyOld", keyOld));
+        log(methodName, "keyNew", keyNew);
+        log(methodName, "keyOld", keyOld);
         // sanity checks
         if (!checkAuthentication()) return false;
         if (!checkKeyNumber(keyNumber)) return false;
@@ -9286,13 +9446,13 @@ fileSize: 128
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
         // 0123456789012345678901234567890100A0A608688000000000000000000000
@@ -9312,9 +9472,9 @@ fileSize: 128
             for (int i = 0; i < keyOld.length; i++) {
                 keyNewXor[i] ^= keyOld[i % keyOld.length];
             }
-            log(methodName, printData("keyNewXor", keyNewXor));
+            log(methodName, "keyNewXor", keyNewXor);
             byte[] crc32 = CRC32.get(keyNew);
-            log(methodName, printData("crc32 of keyNew", crc32));
+            log(methodName, "crc32 of keyNew", crc32);
             byte[] padding = hexStringToByteArray("8000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNewXor, 0, keyNewXor.length);
@@ -9331,25 +9491,25 @@ fileSize: 128
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
         }
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptSesAuthEnc(ivForCmdData, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
         // C40000BC354CD50180D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
         // C4 0000 BC354CD5 01 80D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
         byte[] macInput = getMacInput(CHANGE_KEY_SECURE_COMMAND, new byte[]{keyNumber}, encryptedData);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = keyNumber || Encrypted Data || MAC)
         ByteArrayOutputStream baosChangeKeyCommand = new ByteArrayOutputStream();
@@ -9357,16 +9517,16 @@ fileSize: 128
         baosChangeKeyCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeKeyCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeKeyCommand = baosChangeKeyCommand.toByteArray();
-        log(methodName, printData("changeKeyCommand", changeKeyCommand));
+        log(methodName, "changeKeyCommand", changeKeyCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
@@ -9494,13 +9654,13 @@ fileSize: 128
     }
 
     public boolean formatPicc() {
-        logData = "";
+        commandLog.clear();
         final String methodName = "formatPicc";
         log(methodName, methodName);
 
         // NOT AVAILABLE ON DESFire Light
 
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log(methodName,"no or lost connection to the card, aborted");
             Log.e(TAG, methodName + " no or lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -9530,7 +9690,7 @@ fileSize: 128
         try {
             wrappedCommand = wrapMessage(FORMAT_PICC_COMMAND, null);
             Log.d(TAG, printData("wrappedCommand", wrappedCommand));
-            response = isoDep.transceive(wrappedCommand);
+            response = transport.transceive(wrappedCommand);
             Log.d(TAG, printData("response", response));
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
@@ -9568,7 +9728,6 @@ fileSize: 128
 
     private byte[] sendRequest(byte command, byte[] parameters) {
         try {
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
             byte[] recvBuffer = sendData(wrapMessage(command, parameters));
 
             //writeToUiAppend(readResult, printData("sendRequest recvBuffer", recvBuffer));
@@ -9580,17 +9739,33 @@ fileSize: 128
                 errorCode = RESPONSE_FAILURE.clone();
                 return RESPONSE_FAILURE.clone();
             }
+            // a single frame response is returned without any copy
+            if ((recvBuffer[recvBuffer.length - 2] == (byte) 0x91) && (recvBuffer[recvBuffer.length - 1] == (byte) 0x00)) {
+                return recvBuffer;
+            }
+            // the frames are collected in one buffer that leaves room for the status bytes
+            byte[] output = new byte[Math.max(64, recvBuffer.length * 2)];
+            int outputLength = 0;
             while (true) {
                 if (recvBuffer[recvBuffer.length - 2] != (byte) 0x91) {
                     errorCode = RESPONSE_FAILURE.clone();
                     return RESPONSE_FAILURE.clone();
                 }
-                output.write(recvBuffer, 0, recvBuffer.length - 2);
+                int frameLength = recvBuffer.length - 2;
+                if (outputLength + frameLength + 2 > output.length) {
+                    output = Arrays.copyOf(output, Math.max(output.length * 2, outputLength + frameLength + 2));
+                }
+                System.arraycopy(recvBuffer, 0, output, outputLength, frameLength);
+                outputLength += frameLength;
                 byte status = recvBuffer[recvBuffer.length - 1];
                 if (status == (byte) 0x00) {
                     break;
                 } else if (status == (byte) 0xAF) {
                     recvBuffer = sendData(wrapMessage((byte) 0xAF, null));
+                    if ((recvBuffer == null) || (recvBuffer.length < 2)) {
+                        errorCode = RESPONSE_FAILURE.clone();
+                        return RESPONSE_FAILURE.clone();
+                    }
                 } else if (status == (byte) 0x9D) {
                     errorCode = RESPONSE_PERMISSION_DENIED_ERROR.clone();
                     errorCodeReason = "Permission denied";
@@ -9605,12 +9780,11 @@ fileSize: 128
                     return recvBuffer;
                 }
             }
-            byte[] data = output.toByteArray();
             // adding return codes
-            byte[] returnData = new byte[data.length + 2];
-            System.arraycopy(data, 0, returnData, 0, data.length);
-            System.arraycopy(RESPONSE_OK, 0, returnData, data.length, RESPONSE_OK.length);
-            return returnData;
+            System.arraycopy(RESPONSE_OK, 0, output, outputLength, RESPONSE_OK.length);
+            outputLength += RESPONSE_OK.length;
+            if (outputLength == output.length) return output;
+            return Arrays.copyOf(output, outputLength);
         } catch (IOException e) {
             Log.e(TAG, "transceive failed, IOException:\n" + e.getMessage());
             log("sendRequest", "transceive failed: " + e.getMessage(), false);
@@ -9620,17 +9794,64 @@ fileSize: 128
         }
     }
 
+    /**
+     * sends a secure messaging command and feeds the response data of each received frame directly to the
+     * SecureResponseStream (decryption and MAC calculation), the response data is not collected.
+     * The stream needs to be started before and finished by the caller.
+     *
+     * @return true when all frames were received with status 0x9100 at the end, on failure the errorCode
+     * and errorCodeReason are set
+     */
+    private boolean sendRequestChained(byte command, byte[] parameters, SecureResponseStream responseStream) {
+        byte[] apdu;
+        try {
+            apdu = wrapMessage(command, parameters);
+        } catch (IOException e) {
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "IOException: " + e.getMessage();
+            return false;
+        }
+        while (true) {
+            byte[] recvBuffer = sendData(apdu); // errorCode and errorCodeReason are set on failure
+            if (recvBuffer == null) return false;
+            if ((recvBuffer.length < 2) || (recvBuffer[recvBuffer.length - 2] != (byte) 0x91)) {
+                errorCode = RESPONSE_FAILURE.clone();
+                errorCodeReason = "unexpected response";
+                return false;
+            }
+            byte status = recvBuffer[recvBuffer.length - 1];
+            if ((status != (byte) 0x00) && (status != MORE_DATA_COMMAND)) {
+                System.arraycopy(recvBuffer, recvBuffer.length - 2, errorCode, 0, 2);
+                errorCodeReason = "FAILURE with status code: " + Integer.toHexString(status & 0xFF);
+                return false;
+            }
+            long start = getCryptoStart();
+            boolean success = responseStream.update(recvBuffer, 0, recvBuffer.length - 2);
+            recordCrypto(start, true);
+            if (!success) {
+                errorCode = RESPONSE_LENGTH_ERROR.clone();
+                errorCodeReason = "response is longer than expected";
+                return false;
+            }
+            if (status == (byte) 0x00) {
+                errorCode = RESPONSE_OK.clone();
+                return true;
+            }
+            apdu = MORE_DATA_APDU;
+        }
+    }
+
     private byte[] sendData(byte[] apdu) {
         String methodName = "sendData";
-        if (isoDep == null) {
+        if (transport == null) {
             Log.e(TAG, methodName + " isoDep is NULL");
             log(methodName, "isoDep is NULL, aborted");
             return null;
         }
-        log(methodName, printData("send apdu -->", apdu));
+        log(methodName, "send apdu -->", apdu);
         byte[] recvBuffer;
         try {
-            recvBuffer = isoDep.transceive(apdu);
+            recvBuffer = transport.transceive(apdu);
         } catch (TagLostException e) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "TagLostException: " + e.getMessage();
@@ -9644,7 +9865,7 @@ fileSize: 128
             e.printStackTrace();
             return null;
         }
-        log(methodName, printData("received  <--", recvBuffer));
+        log(methodName, "received  <--", recvBuffer);
         return recvBuffer;
     }
 
@@ -9654,6 +9875,10 @@ fileSize: 128
         stream.write(command);
         stream.write((byte) 0x00);
         stream.write((byte) 0x00);
+        if ((parameters != null) && (parameters.length > 255)) {
+            // the card accepts short APDUs only
+            throw new IOException("the command data of " + parameters.length + " bytes does not fit into a short APDU");
+        }
         if (parameters != null) {
             stream.write((byte) parameters.length);
             stream.write(parameters);
@@ -9674,14 +9899,14 @@ fileSize: 128
      * byte array if this APDU has no body.
      */
     private byte[] getData(byte[] responseAPDU) {
-        log("getData", printData("responseAPDU", responseAPDU), true);
+        log("getData", "responseAPDU", responseAPDU);
         if ((responseAPDU == null) || (responseAPDU.length < 2)) {
             Log.e(TAG, "responseApdu is NULL or length is < 2, aborted");
             return null;
         }
         byte[] data = new byte[responseAPDU.length - 2];
         System.arraycopy(responseAPDU, 0, data, 0, data.length);
-        log("getData", printData("responseData", data));
+        log("getData", "responseData", data);
         return data;
     }
 
@@ -10068,8 +10293,18 @@ fileSize: 128
         return true;
     }
 
+    private boolean checkSecureMessaging() {
+        if (secureMessaging == null) {
+            log("checkSecureMessaging", "missing secure messaging engine, aborted");
+            errorCode = RESPONSE_FAILURE_MISSING_AUTHENTICATION.clone();
+            errorCodeReason = "missing secure messaging engine";
+            return false;
+        }
+        return true;
+    }
+
     private boolean checkIsoDep() {
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log("checkIsoDep", "lost connection to the card, aborted");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "lost connection to the card";
@@ -10157,6 +10392,8 @@ fileSize: 128
 
     private void invalidateAllNonAuthenticationData() {
         selectedApplicationId = null;
+        // a new selection aborts the transaction on the card
+        if (transactionMacTracker != null) transactionMacTracker.reset();
         APPLICATION_ALL_FILE_SETTINGS = null;
         isTransactionMacFilePresent = false;
         transactionMacFileSettings = null;
@@ -10167,8 +10404,10 @@ fileSize: 128
         authenticateEv2FirstSuccess = false;
         authenticateEv2NonFirstSuccess = false;
         keyNumberUsedForAuthentication = -1;
+        authenticationKeyCheckValue = null;
         SesAuthENCKey = null; // filled by authenticateAesEv2First
         SesAuthMACKey = null; // filled by authenticateAesEv2First
+        secureMessaging = null;
         CmdCounter = 0; // filled / resetted by authenticateAesEv2First
         TransactionIdentifier = null; // resetted by authenticateAesEv2First
     }
@@ -10177,8 +10416,10 @@ fileSize: 128
         // authenticateEv2FirstSuccess = false; skip out, is necessary for the NonFirst method
         authenticateEv2NonFirstSuccess = false;
         keyNumberUsedForAuthentication = -1;
+        authenticationKeyCheckValue = null;
         SesAuthENCKey = null; // filled by authenticateAesEv2First
         SesAuthMACKey = null; // filled by authenticateAesEv2First
+        secureMessaging = null;
         //CmdCounter = 0; // filled / resetted by authenticateAesEv2First
         //TransactionIdentifier = null; // resetted by authenticateAesEv2First
     }
@@ -10197,14 +10438,30 @@ fileSize: 128
         log(methodName, data, false);
     }
 
+    /**
+     * logs a message, a method header starts a new block in getLogData(). The message is mirrored to logcat.
+     */
     private void log(String methodName, String data, boolean isMethodHeader) {
         if (printToLog) {
-            logData += "method: " + methodName + "\n" + data + "\n";
-            //logData += "\n" + methodName + ":\n" + data + "\n\n";
+            if (isMethodHeader) {
+                commandLog.logHeader(methodName, data);
+            } else {
+                commandLog.log(methodName, data);
+            }
             Log.d(TAG, "method: " + methodName + ": " + data);
         }
     }
 
+    /**
+     * logs a byte array, the array is stored by reference and converted to a hex string only in getLogData()
+     * Note: byte arrays are not mirrored to logcat, they may hold key material and would be formatted eagerly
+     */
+    private void log(String methodName, String dataName, byte[] data) {
+        if (printToLog) {
+            commandLog.log(methodName, dataName, data);
+        }
+    }
+
     /**
      * getter
      */
@@ -10218,7 +10475,7 @@ fileSize: 128
     }
 
     public String getLogData() {
-        return logData;
+        return commandLog.render();
     }
 
     public byte getKeyNumberUsedForAuthentication() {
@@ -10403,7 +10660,7 @@ fileSize: 128
                 // copy the dataToReadChunk in the complete data array
                 System.arraycopy(dataToReadChunk, 0, dataToRead, (i * MAXIMUM_READ_MESSAGE_LENGTH), dataToReadChunk.length);
             }
-            log(methodName, Utils.printData("dataToRead", dataToRead));
+            log(methodName, "dataToRead", dataToRead);
         }
         errorCode = RESPONSE_OK.clone();
         log(methodName, "SUCCESS");
@@ -10588,34 +10845,34 @@ fileSize: 128
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(READ_STANDARD_FILE_SECURE_COMMAND); // 0xAD
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
         baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        log(methodName, "readDataCommand", readDataCommand);
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] fullEncryptedData;
@@ -10653,7 +10910,7 @@ fileSize: 128
         log(methodName, "The encryptedData length is " + encryptedDataLength);
         encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // start decrypting the data
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
@@ -10665,13 +10922,13 @@ fileSize: 128
         decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         decryptBaos.write(padding, 0, padding.length);
         byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        log(methodName, "ivInputResponse", ivInputResponse);
+        byte[] ivResponse = encryptSesAuthEnc(startingIv, ivInputResponse);
+        log(methodName, "ivResponse", ivResponse);
+        byte[] decryptedData = decryptSesAuthEnc(ivResponse, encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
@@ -10694,7 +10951,8 @@ fileSize: 128
         //int offsetA = 0;
         final String methodName = "writeToStandardFileRawFull EV2";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + Utils.printData(" data", dataToWrite) + " offset: " + offsetInt);
+        log(methodName, "fileNumber: " + fileNumber + " offset: " + offsetInt);
+        log(methodName, "data", dataToWrite);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
         if ((dataToWrite == null) || (dataToWrite.length > 40)) {
@@ -10750,8 +11008,8 @@ fileSize: 128
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging fullMode
         byte[] dataPadded = paddingWriteData(dataToWriteCorrectLength);
-        log(methodName, printData("data unpad", dataToWriteCorrectLength));
-        log(methodName, printData("data pad  ", dataPadded));
+        log(methodName, "data unpad", dataToWriteCorrectLength);
+        log(methodName, "data pad  ", dataPadded);
 
         int numberOfDataBlocks = dataPadded.length / 16;
         log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
@@ -10762,7 +11020,7 @@ fileSize: 128
         // MAC_Input
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
         log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] header = new byte[]{(byte) (0xA5), (byte) (0x5A)}; // fixed to 0xA55A
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
@@ -10772,30 +11030,30 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptSesAuthEnc(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         List<byte[]> dataBlockEncryptedList = new ArrayList<>();
         byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
 
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+            byte[] dataBlockEncrypted = encryptSesAuthEnc(ivDataEncryption, dataBlockList.get(i));
             dataBlockEncryptedList.add(dataBlockEncrypted);
             ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
         }
 
-        //byte[] dataBlock2Encrypted = AES.encrypt(startingIv, SesAuthENCKey, dataBlock2); // todo is this correct ? or startingIv ?
-//        log(methodName, printData("startingIv", startingIv));
+        //byte[] dataBlock2Encrypted = encryptSesAuthEnc(startingIv, dataBlock2); // todo is this correct ? or startingIv ?
+//        log(methodName, "startingIv", startingIv);
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
+            log(methodName, "dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i));
         }
-        //log(methodName, printData("dataBlock1Encrypted", dataBlock1Encrypted));
-        //log(methodName, printData("dataBlock2Encrypted", dataBlock2Encrypted));
+        //log(methodName, "dataBlock1Encrypted", dataBlock1Encrypted);
+        //log(methodName, "dataBlock2Encrypted", dataBlock2Encrypted);
 
         // Encrypted Data (complete), concatenate all byte arrays
 
@@ -10810,7 +11068,7 @@ fileSize: 128
             }
         }
         byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
@@ -10819,13 +11077,13 @@ fileSize: 128
         //byte[] offset = Utils.intTo3ByteArrayInversed(offsetBytes); // LSB order
         byte[] offset = Utils.intTo3ByteArrayInversed(offsetInt); // LSB order
         byte[] length = Utils.intTo3ByteArrayInversed(fileSize); // LSB order
-        log(methodName, printData("length", length));
+        log(methodName, "length", length);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offset, 0, 3);
         baosCmdHeader.write(length, 0, 3);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
@@ -10835,15 +11093,15 @@ fileSize: 128
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSesAuthMac(macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
@@ -10855,16 +11113,16 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(WRITE_STANDARD_FILE_SECURE_COMMAND, writeDataCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
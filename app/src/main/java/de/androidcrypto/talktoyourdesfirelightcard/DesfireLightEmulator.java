@@ -0,0 +1,1543 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import de.androidcrypto.talktoyourdesfirelightcard.nfcjlib.CRC32;
+
+/**
+ * This class is a software emulation of a Mifare DESFire Light PICC that runs in plain Java without
+ * any Android dependencies. Use it together with an InProcessTransport to run the DesfireLight class
+ * (or any other APDU based code) without a real tag, e.g. for load and latency tests:
+ * <p>
+ * DesfireLightEmulator emulator = DesfireLightEmulator.createDefaultLight(uid);
+ * DesfireLight desfireLight = new DesfireLight(new InProcessTransport(emulator));
+ * <p>
+ * supported commands (native DESFire APDUs '90 cmd 00 00 Lc data 00'):
+ * - authenticateEV2First (0x71) and authenticateEV2NonFirst (0x77) including the 0xAF part 2
+ * - getVersion (0x60), getFileIds (0x6F), getIsoFileIds (0x61), getFileSettings (0xF5)
+ * - selectApplication (0x5A)
+ * - readData (0xAD/0xBD) and writeData (0x8D/0x3D) on Standard, Backup and Transaction MAC files
+ * - getValue (0x6C), credit (0x0C), debit (0xDC) and limitedCredit (0x1C) on Value files
+ * - readRecords (0xAB/0xBB) and writeRecord (0x8B/0x3B) on Linear and Cyclic Record files
+ * - commitTransaction (0xC7), abortTransaction (0xA7), commitReaderId (0xC8)
+ * - createTransactionMacFile (0xCE) and deleteFile (0xDF)
+ * - changeKey (0xC4) of the application keys
+ * - createApplication (0xCA) on an empty PICC (see createEmptyPicc), createStdDataFile (0xCD), createBackupDataFile (0xCB),
+ * createValueFile (0xCC), createLinearRecordFile (0xC1) and createCyclicRecordFile (0xC0), for the personalization of new cards
+ * supported ISO commands: select by DF name, select by ISO file identifier
+ * <p>
+ * The secure messaging (MACed and Full enciphered) is done with real AES and CMAC crypto as described in
+ * MIFARE DESFire Light contactless application IC MF2DLHX0.pdf and Mifare DESFire Light Features and Hints AN12343.pdf.
+ * The command counter is increased on each command in authenticated state (including commands in Plain mode like
+ * a free GetValue), an error response resets the authentication. The Transaction MAC (TMC and TMV) is calculated
+ * when a Transaction MAC file is present. The emulator builds the TMI and the TMV with its own code, independent of
+ * the TransactionMacTracker of the reader side, so a test against the emulator checks the reader implementation.
+ * <p>
+ * Limitations: only one application (created with free access, no PICC master key), AES keys only, no LRP, no changeFileSettings, no key versions, no command chaining
+ * from the reader to the PICC (the response chaining with 0xAF is supported).
+ * The access rights interpretation follows the convention used in this app: byte 0 = RW | CAR, byte 1 = R | W.
+ * <p>
+ * The class is not thread safe, use one instance per simulated tag.
+ */
+
+public class DesfireLightEmulator implements InProcessTransport.ApduProcessor {
+
+    /**
+     * status codes of the PICC (second byte after 0x91)
+     */
+
+    private static final byte OPERATION_OK = (byte) 0x00;
+    private static final byte ILLEGAL_COMMAND_CODE = (byte) 0x1C;
+    private static final byte INTEGRITY_ERROR = (byte) 0x1E;
+    private static final byte NO_SUCH_KEY = (byte) 0x40;
+    private static final byte LENGTH_ERROR = (byte) 0x7E;
+    private static final byte PERMISSION_DENIED = (byte) 0x9D;
+    private static final byte PARAMETER_ERROR = (byte) 0x9E;
+    private static final byte APPLICATION_NOT_FOUND = (byte) 0xA0;
+    private static final byte AUTHENTICATION_ERROR = (byte) 0xAE;
+    private static final byte ADDITIONAL_FRAME = (byte) 0xAF;
+    private static final byte BOUNDARY_ERROR = (byte) 0xBE;
+    private static final byte COMMAND_ABORTED = (byte) 0xCA;
+    private static final byte COUNT_ERROR = (byte) 0xCE;
+    private static final byte DUPLICATE_ERROR = (byte) 0xDE;
+    private static final byte FILE_NOT_FOUND = (byte) 0xF0;
+
+    private static final byte[] ISO_OK = new byte[]{(byte) 0x90, (byte) 0x00};
+    private static final byte[] ISO_WRONG_LENGTH = new byte[]{(byte) 0x67, (byte) 0x00};
+    private static final byte[] ISO_FILE_NOT_FOUND = new byte[]{(byte) 0x6A, (byte) 0x82};
+    private static final byte[] ISO_INS_NOT_SUPPORTED = new byte[]{(byte) 0x6D, (byte) 0x00};
+    private static final byte[] ISO_CLA_NOT_SUPPORTED = new byte[]{(byte) 0x6E, (byte) 0x00};
+
+    /**
+     * commands
+     */
+
+    private static final byte AUTHENTICATE_AES_EV2_FIRST_COMMAND = (byte) 0x71;
+    private static final byte AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND = (byte) 0x77;
+    private static final byte MORE_DATA_COMMAND = (byte) 0xAF;
+    private static final byte GET_VERSION_INFO_COMMAND = (byte) 0x60;
+    private static final byte SELECT_APPLICATION_COMMAND = (byte) 0x5A;
+    private static final byte SELECT_ISO_COMMAND = (byte) 0xA4;
+    private static final byte GET_FILE_IDS_COMMAND = (byte) 0x6F;
+    private static final byte GET_FILE_IDS_ISO_COMMAND = (byte) 0x61;
+    private static final byte GET_FILE_SETTINGS_COMMAND = (byte) 0xF5;
+    private static final byte READ_DATA_FILE_COMMAND = (byte) 0xBD;
+    private static final byte READ_DATA_FILE_SECURE_COMMAND = (byte) 0xAD;
+    private static final byte WRITE_DATA_FILE_COMMAND = (byte) 0x3D;
+    private static final byte WRITE_DATA_FILE_SECURE_COMMAND = (byte) 0x8D;
+    private static final byte GET_VALUE_COMMAND = (byte) 0x6C;
+    private static final byte CREDIT_VALUE_FILE_COMMAND = (byte) 0x0C;
+    private static final byte DEBIT_VALUE_FILE_COMMAND = (byte) 0xDC;
+    private static final byte LIMITED_CREDIT_VALUE_FILE_COMMAND = (byte) 0x1C;
+    private static final byte READ_RECORD_FILE_COMMAND = (byte) 0xBB;
+    private static final byte READ_RECORD_FILE_SECURE_COMMAND = (byte) 0xAB;
+    private static final byte WRITE_RECORD_FILE_COMMAND = (byte) 0x3B;
+    private static final byte WRITE_RECORD_FILE_SECURE_COMMAND = (byte) 0x8B;
+    private static final byte COMMIT_TRANSACTION_COMMAND = (byte) 0xC7;
+    private static final byte ABORT_TRANSACTION_COMMAND = (byte) 0xA7;
+    private static final byte COMMIT_READER_ID_SECURE_COMMAND = (byte) 0xC8;
+    private static final byte CREATE_TRANSACTION_MAC_FILE_COMMAND = (byte) 0xCE;
+    private static final byte DELETE_FILE_COMMAND = (byte) 0xDF;
+    private static final byte CHANGE_KEY_COMMAND = (byte) 0xC4;
+    private static final byte CREATE_APPLICATION_COMMAND = (byte) 0xCA;
+    private static final byte CREATE_STANDARD_FILE_COMMAND = (byte) 0xCD;
+    private static final byte CREATE_BACKUP_FILE_COMMAND = (byte) 0xCB;
+    private static final byte CREATE_VALUE_FILE_COMMAND = (byte) 0xCC;
+    private static final byte CREATE_LINEAR_RECORD_FILE_COMMAND = (byte) 0xC1;
+    private static final byte CREATE_CYCLIC_RECORD_FILE_COMMAND = (byte) 0xC0;
+
+    /**
+     * constants
+     */
+
+    public static final byte FILE_COMMUNICATION_SETTINGS_PLAIN = (byte) 0x00;
+    public static final byte FILE_COMMUNICATION_SETTINGS_MACED = (byte) 0x01;
+    public static final byte FILE_COMMUNICATION_SETTINGS_FULL = (byte) 0x03;
+    public static final byte[] APPLICATION_IDENTIFIER_DEFAULT = new byte[]{(byte) 0x01, (byte) 0x00, (byte) 0x00};
+    public static final byte[] MASTER_APPLICATION_IDENTIFIER = new byte[3];
+    public static final int NUMBER_OF_APPLICATION_KEYS = 5; // a DESFire Light application has 5 AES keys (0..4)
+    private static final int MAXIMUM_NUMBER_OF_FILES = 32;
+    private static final int MAXIMUM_RESPONSE_FRAME_LENGTH_DEFAULT = 240; // data bytes per response frame, without status bytes
+    private static final int KEY_FREE_ACCESS = 0x0E;
+    private static final int KEY_NEVER = 0x0F;
+    private static final byte[] VERSION_HARDWARE = new byte[]{(byte) 0x04, (byte) 0x08, (byte) 0x01, (byte) 0x30, (byte) 0x00, (byte) 0x13, (byte) 0x05}; // DESFire Light
+    private static final byte[] VERSION_SOFTWARE = new byte[]{(byte) 0x04, (byte) 0x08, (byte) 0x01, (byte) 0x30, (byte) 0x00, (byte) 0x13, (byte) 0x05};
+
+    /**
+     * the PICC
+     */
+
+    private final byte[] uid;
+    private byte[] applicationIdentifier;
+    private final byte[] applicationDfName;
+    private final byte[] applicationIsoFileId;
+    private boolean isApplicationPresent = true; // false on an empty PICC until createApplication
+    private int numberOfApplicationKeys = NUMBER_OF_APPLICATION_KEYS;
+    private final byte[][] applicationKeys = new byte[NUMBER_OF_APPLICATION_KEYS][];
+    private final EmulatedFile[] files = new EmulatedFile[MAXIMUM_NUMBER_OF_FILES];
+    private boolean isApplicationSelected = false;
+    private int maximumResponseFrameLength = MAXIMUM_RESPONSE_FRAME_LENGTH_DEFAULT;
+
+    /**
+     * session state
+     */
+
+    private boolean isAuthenticated = false;
+    private int authenticationKeyNumber = -1;
+    private SessionCipher sesAuthEncCipher;
+    private SessionCmac sesAuthMacCmac;
+    private byte[] transactionIdentifier;
+    private int cmdCounter = 0;
+    // state of a running authentication between part 1 and part 2
+    private byte pendingAuthenticationCommand = 0;
+    private int pendingAuthenticationKeyNumber = -1;
+    private byte[] pendingRndB;
+    // response chaining
+    private byte[] pendingResponseData;
+    private int pendingResponseOffset;
+    private int maximumResponseFrameLengthOverride = 0; // the getVersion response uses fixed frame sizes
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Cipher aesCipher;
+
+    /**
+     * a file in the emulated application, committed data and pending (not yet committed) data are held separately
+     */
+
+    private static class EmulatedFile {
+        byte fileNumber;
+        byte fileType;
+        byte communicationSettings;
+        byte[] accessRights; // byte 0 = RW | CAR, byte 1 = R | W
+        byte[] isoFileId; // null if not present
+        // Standard and Backup files
+        byte[] data;
+        byte[] pendingData;
+        // Value files
+        int value, minimumValue, maximumValue, limitedCreditValue;
+        boolean limitedCreditEnabled, freeGetValueEnabled;
+        Integer pendingValue;
+        // Linear and Cyclic Record files
+        int recordSize, maximumNumberOfRecords;
+        List<byte[]> records = new ArrayList<>();
+        byte[] pendingRecord;
+        // Transaction MAC file
+        byte[] transactionMacKey;
+        byte transactionMacKeyVersion;
+        byte transactionMacFileOption;
+        int transactionMacCounter;
+        byte[] transactionMacValue = new byte[8];
+        byte[] transactionMacReaderId = new byte[16];
+        ByteArrayOutputStream transactionMacInput = new ByteArrayOutputStream(); // the TMI of the running transaction
+        byte[] transactionMacReaderIdCurrent; // TMRICur, the reader id of the running transaction
+
+        int getAccessRw() {
+            return (accessRights[0] >> 4) & 0x0F;
+        }
+
+        int getAccessCar() {
+            return accessRights[0] & 0x0F;
+        }
+
+        int getAccessR() {
+            return (accessRights[1] >> 4) & 0x0F;
+        }
+
+        int getAccessW() {
+            return accessRights[1] & 0x0F;
+        }
+
+        boolean hasPendingChanges() {
+            return (pendingData != null) || (pendingValue != null) || (pendingRecord != null);
+        }
+    }
+
+    /**
+     * creates an emulated PICC with an empty application, all application keys are AES default keys (16 * 0x00)
+     *
+     * @param uid                   | 7 bytes
+     * @param applicationIdentifier | 3 bytes, for native select application
+     * @param applicationDfName     | ISO DF name, for ISO select by DF name
+     * @param applicationIsoFileId  | 2 bytes, for ISO select by file identifier
+     */
+
+    public DesfireLightEmulator(byte[] uid, byte[] applicationIdentifier, byte[] applicationDfName, byte[] applicationIsoFileId) {
+        if ((uid == null) || (uid.length != 7)) {
+            throw new IllegalArgumentException("uid is NULL or not of length 7");
+        }
+        if ((applicationIdentifier == null) || (applicationIdentifier.length != 3)) {
+            throw new IllegalArgumentException("applicationIdentifier is NULL or not of length 3");
+        }
+        this.uid = uid.clone();
+        this.applicationIdentifier = applicationIdentifier.clone();
+        this.applicationDfName = (applicationDfName == null) ? new byte[0] : applicationDfName.clone();
+        this.applicationIsoFileId = (applicationIsoFileId == null) ? new byte[0] : applicationIsoFileId.clone();
+        for (int i = 0; i < NUMBER_OF_APPLICATION_KEYS; i++) {
+            applicationKeys[i] = new byte[16];
+        }
+        try {
+            aesCipher = Cipher.getInstance("AES/CBC/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/CBC/NoPadding is not available", e);
+        }
+    }
+
+    /**
+     * creates an emulated DESFire Light with the pre-defined files of the delivery configuration (see readme.md):
+     * file 0x00 Standard 256 bytes, 0x01 Cyclic Record 4 * 16 bytes, 0x03 Value, 0x04 Standard 256 bytes,
+     * 0x0F Transaction MAC with enabled CommitReaderId and 0x1F Standard 32 bytes (FCI).
+     * All application keys are AES default keys.
+     *
+     * @param uid | 7 bytes
+     * @return the emulator
+     */
+
+    public static DesfireLightEmulator createDefaultLight(byte[] uid) {
+        DesfireLightEmulator emulator = new DesfireLightEmulator(uid, APPLICATION_IDENTIFIER_DEFAULT,
+                DesfireLight.APPLICATION_DF_NAME_DEFAULT, DesfireLight.APPLICATION_ISO_FILE_ID_DEFAULT);
+        // access rights: RW | CAR, R | W
+        emulator.addStandardFile((byte) 0x00, new byte[]{(byte) 0xEF, (byte) 0x00}, FILE_COMMUNICATION_SETTINGS_FULL, new byte[]{(byte) 0x30, (byte) 0x1F}, 256);
+        // one record of a cyclic record file is reserved for the transaction, so 5 records give 4 usable entries
+        emulator.addCyclicRecordFile((byte) 0x01, new byte[]{(byte) 0xEF, (byte) 0x01}, FILE_COMMUNICATION_SETTINGS_FULL, new byte[]{(byte) 0x30, (byte) 0x12}, 16, 5);
+        emulator.addValueFile((byte) 0x03, FILE_COMMUNICATION_SETTINGS_FULL, new byte[]{(byte) 0x30, (byte) 0x12}, 0, 1000000, 0, true);
+        emulator.files[0x03].limitedCreditValue = 111;
+        emulator.files[0x03].freeGetValueEnabled = true;
+        emulator.addStandardFile((byte) 0x04, new byte[]{(byte) 0xEF, (byte) 0x04}, FILE_COMMUNICATION_SETTINGS_FULL, new byte[]{(byte) 0x30, (byte) 0x12}, 256);
+        emulator.addTransactionMacFile((byte) 0x0F, FILE_COMMUNICATION_SETTINGS_FULL, new byte[]{(byte) 0x10, (byte) 0x1F}, new byte[16]);
+        emulator.addStandardFile((byte) 0x1F, new byte[]{(byte) 0xEF, (byte) 0x1F}, FILE_COMMUNICATION_SETTINGS_PLAIN, new byte[]{(byte) 0x30, (byte) 0xEF}, 32);
+        return emulator;
+    }
+
+    /**
+     * creates an emulated PICC without an application, e.g. a new card for a personalization. The application is
+     * created with createApplication (0xCA) without an authentication (default PICC master key settings), it gets
+     * up to 5 AES default keys and no ISO DF name or ISO file identifier.
+     *
+     * @param uid | 7 bytes
+     * @return the emulator
+     */
+
+    public static DesfireLightEmulator createEmptyPicc(byte[] uid) {
+        DesfireLightEmulator emulator = new DesfireLightEmulator(uid, MASTER_APPLICATION_IDENTIFIER, null, null);
+        emulator.isApplicationPresent = false;
+        return emulator;
+    }
+
+    /**
+     * section for setting up the emulated application
+     */
+
+    public void setApplicationKey(int keyNumber, byte[] key) {
+        if ((keyNumber < 0) || (keyNumber >= NUMBER_OF_APPLICATION_KEYS)) {
+            throw new IllegalArgumentException("keyNumber is not in range 0.." + (NUMBER_OF_APPLICATION_KEYS - 1));
+        }
+        if ((key == null) || (key.length != 16)) {
+            throw new IllegalArgumentException("key is NULL or not of length 16");
+        }
+        applicationKeys[keyNumber] = key.clone();
+    }
+
+    public void addStandardFile(byte fileNumber, byte[] isoFileId, byte communicationSettings, byte[] accessRights, int fileSize) {
+        addDataFile(fileNumber, isoFileId, DesfireLight.STANDARD_FILE_TYPE, communicationSettings, accessRights, fileSize);
+    }
+
+    public void addBackupFile(byte fileNumber, byte[] isoFileId, byte communicationSettings, byte[] accessRights, int fileSize) {
+        addDataFile(fileNumber, isoFileId, DesfireLight.BACKUP_FILE_TYPE, communicationSettings, accessRights, fileSize);
+    }
+
+    private void addDataFile(byte fileNumber, byte[] isoFileId, byte fileType, byte communicationSettings, byte[] accessRights, int fileSize) {
+        EmulatedFile file = newFile(fileNumber, fileType, communicationSettings, accessRights);
+        file.isoFileId = (isoFileId == null) ? null : isoFileId.clone();
+        file.data = new byte[fileSize];
+        files[fileNumber] = file;
+    }
+
+    public void addValueFile(byte fileNumber, byte communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue, boolean limitedCreditEnabled) {
+        EmulatedFile file = newFile(fileNumber, DesfireLight.VALUE_FILE_TYPE, communicationSettings, accessRights);
+        file.minimumValue = minimumValue;
+        file.maximumValue = maximumValue;
+        file.value = initialValue;
+        file.limitedCreditEnabled = limitedCreditEnabled;
+        files[fileNumber] = file;
+    }
+
+    public void addLinearRecordFile(byte fileNumber, byte[] isoFileId, byte communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+        addRecordFile(fileNumber, isoFileId, DesfireLight.LINEAR_RECORD_FILE_TYPE, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+    }
+
+    public void addCyclicRecordFile(byte fileNumber, byte[] isoFileId, byte communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+        addRecordFile(fileNumber, isoFileId, DesfireLight.CYCLIC_RECORD_FILE_TYPE, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+    }
+
+    private void addRecordFile(byte fileNumber, byte[] isoFileId, byte fileType, byte communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+        EmulatedFile file = newFile(fileNumber, fileType, communicationSettings, accessRights);
+        file.isoFileId = (isoFileId == null) ? null : isoFileId.clone();
+        file.recordSize = recordSize;
+        file.maximumNumberOfRecords = maximumNumberOfRecords;
+        files[fileNumber] = file;
+    }
+
+    public void addTransactionMacFile(byte fileNumber, byte communicationSettings, byte[] accessRights, byte[] transactionMacKey) {
+        EmulatedFile file = newFile(fileNumber, DesfireLight.TRANSACTION_MAC_FILE_TYPE, communicationSettings, accessRights);
+        file.transactionMacFileOption = communicationSettings;
+        file.transactionMacKey = transactionMacKey.clone();
+        files[fileNumber] = file;
+    }
+
+    private EmulatedFile newFile(byte fileNumber, byte fileType, byte communicationSettings, byte[] accessRights) {
+        if ((fileNumber < 0) || (fileNumber >= MAXIMUM_NUMBER_OF_FILES)) {
+            throw new IllegalArgumentException("fileNumber is not in range 0.." + (MAXIMUM_NUMBER_OF_FILES - 1));
+        }
+        if ((accessRights == null) || (accessRights.length != 2)) {
+            throw new IllegalArgumentException("accessRights is NULL or not of length 2");
+        }
+        if (files[fileNumber] != null) {
+            throw new IllegalArgumentException("fileNumber " + fileNumber + " is already in use");
+        }
+        EmulatedFile file = new EmulatedFile();
+        file.fileNumber = fileNumber;
+        file.fileType = fileType;
+        file.communicationSettings = communicationSettings;
+        file.accessRights = accessRights.clone();
+        return file;
+    }
+
+    public void setMaximumResponseFrameLength(int maximumResponseFrameLength) {
+        if (maximumResponseFrameLength < 16) {
+            throw new IllegalArgumentException("maximumResponseFrameLength is < 16");
+        }
+        this.maximumResponseFrameLength = maximumResponseFrameLength;
+    }
+
+    /**
+     * simulates a new tap of the tag: the PICC is reset, the authentication and all not committed data are lost
+     */
+
+    public void reset() {
+        isApplicationSelected = false;
+        invalidateAuthentication();
+        abortTransaction();
+        pendingResponseData = null;
+    }
+
+    /**
+     * section for APDU processing
+     */
+
+    @Override
+    public byte[] process(byte[] apdu) throws IOException {
+        try {
+            return processApdu(apdu);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("crypto failure in emulator: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] processApdu(byte[] apdu) throws GeneralSecurityException {
+        if ((apdu == null) || (apdu.length < 4)) {
+            return ISO_WRONG_LENGTH.clone();
+        }
+        if (apdu[0] == (byte) 0x00) {
+            return processIsoCommand(apdu);
+        }
+        if (apdu[0] != (byte) 0x90) {
+            return ISO_CLA_NOT_SUPPORTED.clone();
+        }
+        byte command = apdu[1];
+        byte[] data = getCommandData(apdu);
+        if (data == null) {
+            return status(LENGTH_ERROR);
+        }
+        if (command == MORE_DATA_COMMAND) {
+            if (pendingAuthenticationCommand != 0) {
+                return authenticatePart2(data);
+            }
+            if (pendingResponseData != null) {
+                return nextResponseFrame();
+            }
+            return status(COMMAND_ABORTED);
+        }
+        // any other command aborts a running authentication or response chaining
+        pendingResponseData = null;
+        if (pendingAuthenticationCommand != 0) {
+            pendingAuthenticationCommand = 0;
+            invalidateAuthentication();
+        }
+        byte[] response = processNativeCommand(command, data);
+        // an error response in authenticated state resets the authentication
+        byte statusCode = response[response.length - 1];
+        if ((isAuthenticated) && (statusCode != OPERATION_OK) && (statusCode != ADDITIONAL_FRAME)) {
+            invalidateAuthentication();
+        }
+        return response;
+    }
+
+    private byte[] processNativeCommand(byte command, byte[] data) throws GeneralSecurityException {
+        switch (command) {
+            case AUTHENTICATE_AES_EV2_FIRST_COMMAND:
+            case AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND:
+                return authenticatePart1(command, data);
+            case GET_VERSION_INFO_COMMAND:
+                return getVersion();
+            case SELECT_APPLICATION_COMMAND:
+                return selectApplication(data);
+            case CREATE_APPLICATION_COMMAND:
+                return createApplication(data);
+        }
+        if (!isApplicationSelected) {
+            return status(APPLICATION_NOT_FOUND);
+        }
+        switch (command) {
+            case GET_FILE_IDS_COMMAND:
+                return getFileIds();
+            case GET_FILE_IDS_ISO_COMMAND:
+                return getIsoFileIds();
+            case GET_FILE_SETTINGS_COMMAND:
+                return getFileSettings(data);
+            case READ_DATA_FILE_COMMAND:
+            case READ_DATA_FILE_SECURE_COMMAND:
+                return readData(command, data);
+            case WRITE_DATA_FILE_COMMAND:
+            case WRITE_DATA_FILE_SECURE_COMMAND:
+                return writeData(command, data);
+            case GET_VALUE_COMMAND:
+                return getValue(data);
+            case CREDIT_VALUE_FILE_COMMAND:
+            case DEBIT_VALUE_FILE_COMMAND:
+            case LIMITED_CREDIT_VALUE_FILE_COMMAND:
+                return changeValue(command, data);
+            case READ_RECORD_FILE_COMMAND:
+            case READ_RECORD_FILE_SECURE_COMMAND:
+                return readRecords(command, data);
+            case WRITE_RECORD_FILE_COMMAND:
+            case WRITE_RECORD_FILE_SECURE_COMMAND:
+                return writeRecord(command, data);
+            case COMMIT_TRANSACTION_COMMAND:
+                return commitTransaction(data);
+            case ABORT_TRANSACTION_COMMAND:
+                return abortTransactionCommand(data);
+            case COMMIT_READER_ID_SECURE_COMMAND:
+                return commitReaderId(data);
+            case CREATE_TRANSACTION_MAC_FILE_COMMAND:
+                return createTransactionMacFile(data);
+            case DELETE_FILE_COMMAND:
+                return deleteFile(data);
+            case CHANGE_KEY_COMMAND:
+                return changeKey(data);
+            case CREATE_STANDARD_FILE_COMMAND:
+            case CREATE_BACKUP_FILE_COMMAND:
+            case CREATE_VALUE_FILE_COMMAND:
+            case CREATE_LINEAR_RECORD_FILE_COMMAND:
+            case CREATE_CYCLIC_RECORD_FILE_COMMAND:
+                return createFile(command, data);
+            default:
+                return status(ILLEGAL_COMMAND_CODE);
+        }
+    }
+
+    /**
+     * returns the data field of a wrapped command '90 cmd 00 00 [Lc data] 00' or NULL if the length is invalid
+     */
+    private static byte[] getCommandData(byte[] apdu) {
+        if (apdu.length <= 5) {
+            return new byte[0]; // 90 cmd 00 00 [Le]
+        }
+        int lc = apdu[4] & 0xFF;
+        // the card accepts short APDUs only, an extended length APDU (90 cmd 00 00 00 Lc1 Lc2 data Le1 Le2) is too long
+        if ((apdu.length < 5 + lc) || (apdu.length > 5 + lc + 1)) {
+            return null;
+        }
+        return Arrays.copyOfRange(apdu, 5, 5 + lc);
+    }
+
+    /**
+     * section for ISO commands
+     */
+
+    private byte[] processIsoCommand(byte[] apdu) {
+        if (apdu[1] != SELECT_ISO_COMMAND) {
+            return ISO_INS_NOT_SUPPORTED.clone();
+        }
+        if (apdu.length < 5) {
+            return ISO_WRONG_LENGTH.clone();
+        }
+        byte p1 = apdu[2];
+        byte p2 = apdu[3];
+        int lc = apdu[4] & 0xFF;
+        if (apdu.length < 5 + lc) {
+            return ISO_WRONG_LENGTH.clone();
+        }
+        byte[] name = Arrays.copyOfRange(apdu, 5, 5 + lc);
+        if (p1 == (byte) 0x04) {
+            // select by DF name
+            if ((!isApplicationPresent) || (!Arrays.equals(name, applicationDfName))) {
+                return ISO_FILE_NOT_FOUND.clone();
+            }
+            selectApplicationInternal();
+            if (p2 == (byte) 0x0C) return ISO_OK.clone();
+            // return the FCI = content of file 0x1F if present
+            EmulatedFile fciFile = files[0x1F];
+            byte[] fci = ((fciFile != null) && (fciFile.data != null)) ? fciFile.data : new byte[0];
+            return concatenate(fci, ISO_OK);
+        }
+        if (p1 == (byte) 0x00) {
+            // select by file identifier: the application DF or an EF within the selected application
+            if (isApplicationPresent && Arrays.equals(name, applicationIsoFileId)) {
+                selectApplicationInternal();
+                return ISO_OK.clone();
+            }
+            if (isApplicationSelected) {
+                for (EmulatedFile file : files) {
+                    if ((file != null) && (file.isoFileId != null) && (Arrays.equals(file.isoFileId, name))) {
+                        return ISO_OK.clone();
+                    }
+                }
+            }
+            return ISO_FILE_NOT_FOUND.clone();
+        }
+        return ISO_FILE_NOT_FOUND.clone();
+    }
+
+    /**
+     * section for application handling and general information
+     */
+
+    private byte[] selectApplication(byte[] data) {
+        if (data.length != 3) return status(LENGTH_ERROR);
+        if (Arrays.equals(data, MASTER_APPLICATION_IDENTIFIER)) {
+            isApplicationSelected = false;
+            invalidateAuthentication();
+            abortTransaction();
+            return status(OPERATION_OK);
+        }
+        if ((!isApplicationPresent) || (!Arrays.equals(data, applicationIdentifier))) {
+            return status(APPLICATION_NOT_FOUND);
+        }
+        selectApplicationInternal();
+        return status(OPERATION_OK);
+    }
+
+    /**
+     * creates the application on an empty PICC, data = AID || key settings 1 || key settings 2 (0x80 | number of keys)
+     */
+    private byte[] createApplication(byte[] data) {
+        if (isApplicationSelected) return status(PERMISSION_DENIED);
+        if (data.length != 5) return status(LENGTH_ERROR);
+        byte[] aid = Arrays.copyOf(data, 3);
+        if (Arrays.equals(aid, MASTER_APPLICATION_IDENTIFIER)) return status(PARAMETER_ERROR);
+        if (isApplicationPresent) {
+            return status(Arrays.equals(aid, applicationIdentifier) ? DUPLICATE_ERROR : COUNT_ERROR);
+        }
+        int numberOfKeys = data[4] & 0x0F;
+        if (((data[4] & 0xC0) != 0x80) || (numberOfKeys < 1) || (numberOfKeys > NUMBER_OF_APPLICATION_KEYS)) {
+            return status(PARAMETER_ERROR);
+        }
+        applicationIdentifier = aid;
+        numberOfApplicationKeys = numberOfKeys;
+        isApplicationPresent = true;
+        return status(OPERATION_OK);
+    }
+
+    private void selectApplicationInternal() {
+        isApplicationSelected = true;
+        invalidateAuthentication();
+        abortTransaction();
+    }
+
+    private byte[] getVersion() {
+        // the version is returned in 3 frames: hardware (7), software (7), production data (14)
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(VERSION_SOFTWARE, 0, VERSION_SOFTWARE.length);
+        baos.write(uid, 0, uid.length);
+        baos.write(new byte[5], 0, 5); // batch number
+        baos.write((byte) 0x20); // production week
+        baos.write((byte) 0x23); // production year
+        pendingResponseData = baos.toByteArray();
+        pendingResponseOffset = 0;
+        if (isAuthenticated) cmdCounter++;
+        byte[] response = new byte[VERSION_HARDWARE.length + 2];
+        System.arraycopy(VERSION_HARDWARE, 0, response, 0, VERSION_HARDWARE.length);
+        response[response.length - 2] = (byte) 0x91;
+        response[response.length - 1] = ADDITIONAL_FRAME;
+        maximumResponseFrameLengthOverride = 7;
+        return response;
+    }
+
+    private byte[] getFileIds() throws GeneralSecurityException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (EmulatedFile file : files) {
+            if (file != null) baos.write(file.fileNumber);
+        }
+        return responseInformation(baos.toByteArray());
+    }
+
+    private byte[] getIsoFileIds() throws GeneralSecurityException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (EmulatedFile file : files) {
+            if ((file != null) && (file.isoFileId != null)) baos.write(file.isoFileId, 0, 2);
+        }
+        return responseInformation(baos.toByteArray());
+    }
+
+    private byte[] getFileSettings(byte[] data) throws GeneralSecurityException {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        EmulatedFile file = getFile(data[0]);
+        if (file == null) return status(FILE_NOT_FOUND);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(file.fileType);
+        baos.write(file.communicationSettings);
+        baos.write(file.accessRights, 0, 2);
+        switch (file.fileType) {
+            case DesfireLight.STANDARD_FILE_TYPE:
+            case DesfireLight.BACKUP_FILE_TYPE:
+                baos.write(intTo3ByteArrayInversed(file.data.length), 0, 3);
+                break;
+            case DesfireLight.VALUE_FILE_TYPE:
+                baos.write(intTo4ByteArrayInversed(file.minimumValue), 0, 4);
+                baos.write(intTo4ByteArrayInversed(file.maximumValue), 0, 4);
+                baos.write(intTo4ByteArrayInversed(file.limitedCreditValue), 0, 4);
+                baos.write((file.limitedCreditEnabled ? 0x01 : 0x00) | (file.freeGetValueEnabled ? 0x02 : 0x00));
+                break;
+            case DesfireLight.LINEAR_RECORD_FILE_TYPE:
+            case DesfireLight.CYCLIC_RECORD_FILE_TYPE:
+                baos.write(intTo3ByteArrayInversed(file.recordSize), 0, 3);
+                baos.write(intTo3ByteArrayInversed(file.maximumNumberOfRecords), 0, 3);
+                baos.write(intTo3ByteArrayInversed(file.records.size()), 0, 3);
+                break;
+            case DesfireLight.TRANSACTION_MAC_FILE_TYPE:
+                baos.write((byte) 0x02); // TMKeyOption: AES
+                baos.write(file.transactionMacKeyVersion);
+                break;
+        }
+        return responseInformation(baos.toByteArray());
+    }
+
+    /**
+     * section for authentication
+     */
+
+    private byte[] authenticatePart1(byte command, byte[] data) throws GeneralSecurityException {
+        if (!isApplicationSelected) return status(APPLICATION_NOT_FOUND);
+        if (data.length < 1) return status(LENGTH_ERROR);
+        int keyNumber = data[0] & 0xFF;
+        if (keyNumber >= numberOfApplicationKeys) {
+            invalidateAuthentication();
+            return status(NO_SUCH_KEY);
+        }
+        if ((command == AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND) && (!isAuthenticated)) {
+            return status(PERMISSION_DENIED);
+        }
+        pendingRndB = randomBytes(16);
+        pendingAuthenticationKeyNumber = keyNumber;
+        pendingAuthenticationCommand = command;
+        byte[] rndBEnc = aes(Cipher.ENCRYPT_MODE, applicationKeys[keyNumber], new byte[16], pendingRndB);
+        return concatenate(rndBEnc, new byte[]{(byte) 0x91, ADDITIONAL_FRAME});
+    }
+
+    private byte[] authenticatePart2(byte[] data) throws GeneralSecurityException {
+        byte command = pendingAuthenticationCommand;
+        pendingAuthenticationCommand = 0;
+        if (data.length != 32) {
+            invalidateAuthentication();
+            return status(LENGTH_ERROR);
+        }
+        byte[] key = applicationKeys[pendingAuthenticationKeyNumber];
+        byte[] rndArndBRotated = aes(Cipher.DECRYPT_MODE, key, new byte[16], data);
+        byte[] rndA = Arrays.copyOfRange(rndArndBRotated, 0, 16);
+        byte[] rndBRotatedReceived = Arrays.copyOfRange(rndArndBRotated, 16, 32);
+        if (!Arrays.equals(rotateLeft(pendingRndB), rndBRotatedReceived)) {
+            invalidateAuthentication();
+            abortTransaction();
+            return status(AUTHENTICATION_ERROR);
+        }
+        byte[] rndARotated = rotateLeft(rndA);
+        byte[] responseData;
+        if (command == AUTHENTICATE_AES_EV2_FIRST_COMMAND) {
+            transactionIdentifier = randomBytes(4);
+            cmdCounter = 0;
+            // TI || RndA' || PDcap2 || PCDcap2
+            responseData = new byte[32];
+            System.arraycopy(transactionIdentifier, 0, responseData, 0, 4);
+            System.arraycopy(rndARotated, 0, responseData, 4, 16);
+        } else {
+            // NonFirst: TI and CmdCounter are kept
+            responseData = rndARotated;
+        }
+        sesAuthEncCipher = new SessionCipher(getSessionKey(new byte[]{(byte) 0xA5, (byte) 0x5A}, rndA, pendingRndB, key));
+        sesAuthMacCmac = new SessionCmac(getSessionKey(new byte[]{(byte) 0x5A, (byte) 0xA5}, rndA, pendingRndB, key));
+        isAuthenticated = true;
+        authenticationKeyNumber = pendingAuthenticationKeyNumber;
+        byte[] responseDataEnc = aes(Cipher.ENCRYPT_MODE, key, new byte[16], responseData);
+        return concatenate(responseDataEnc, new byte[]{(byte) 0x91, OPERATION_OK});
+    }
+
+    /**
+     * session key derivation, see Mifare DESFire Light Features and Hints AN12343.pdf page 35
+     * SV = label || 0x0001 || 0x0080 || RndA[15..14] || (RndA[13..8] XOR RndB[15..10]) || RndB[9..0] || RndA[7..0]
+     */
+    private byte[] getSessionKey(byte[] label, byte[] rndA, byte[] rndB, byte[] key) {
+        byte[] sv = new byte[32];
+        System.arraycopy(label, 0, sv, 0, 2);
+        sv[2] = (byte) 0x00;
+        sv[3] = (byte) 0x01;
+        sv[4] = (byte) 0x00;
+        sv[5] = (byte) 0x80;
+        System.arraycopy(rndA, 0, sv, 6, 2);
+        for (int i = 0; i < 6; i++) {
+            sv[8 + i] = (byte) (rndA[2 + i] ^ rndB[i]);
+        }
+        System.arraycopy(rndB, 6, sv, 14, 10);
+        System.arraycopy(rndA, 8, sv, 24, 8);
+        return cmac(key, sv);
+    }
+
+    private void invalidateAuthentication() {
+        isAuthenticated = false;
+        authenticationKeyNumber = -1;
+        sesAuthEncCipher = null;
+        sesAuthMacCmac = null;
+        transactionIdentifier = null;
+        cmdCounter = 0;
+    }
+
+    /**
+     * section for Data files
+     */
+
+    private byte[] readData(byte command, byte[] data) throws GeneralSecurityException {
+        if (data.length < 7) return status(LENGTH_ERROR);
+        EmulatedFile file = getFile(data[0]);
+        if (file == null) return status(FILE_NOT_FOUND);
+        boolean isTmacFile = (file.fileType == DesfireLight.TRANSACTION_MAC_FILE_TYPE);
+        if ((file.fileType != DesfireLight.STANDARD_FILE_TYPE) && (file.fileType != DesfireLight.BACKUP_FILE_TYPE) && (!isTmacFile)) {
+            return status(PARAMETER_ERROR);
+        }
+        byte commMode = getCommunicationMode(file, file.getAccessR(), file.getAccessRw(), KEY_NEVER);
+        if (commMode < 0) return accessDenied();
+        byte[] header = Arrays.copyOfRange(data, 0, 7);
+        if (!verifyCommandMac(commMode, command, header, Arrays.copyOfRange(data, 7, data.length))) {
+            return status(INTEGRITY_ERROR);
+        }
+        byte[] content = isTmacFile ? concatenate(intTo4ByteArrayInversed(file.transactionMacCounter), file.transactionMacValue) : file.data;
+        int offset = intFrom3ByteArrayInversed(data, 1);
+        int length = intFrom3ByteArrayInversed(data, 4);
+        if (length == 0) length = content.length - offset;
+        if ((offset < 0) || (length < 0) || (offset + length > content.length)) {
+            return status(BOUNDARY_ERROR);
+        }
+        byte[] readData = Arrays.copyOfRange(content, offset, offset + length);
+        if (!isTmacFile) {
+            appendTransactionMacInput(command, header, readData);
+        }
+        return response(commMode, readData);
+    }
+
+    private byte[] writeData(byte command, byte[] data) throws GeneralSecurityException {
+        if (data.length < 7) return status(LENGTH_ERROR);
+        EmulatedFile file = getFile(data[0]);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((file.fileType != DesfireLight.STANDARD_FILE_TYPE) && (file.fileType != DesfireLight.BACKUP_FILE_TYPE)) {
+            return status(PARAMETER_ERROR);
+        }
+        byte commMode = getCommunicationMode(file, file.getAccessW(), file.getAccessRw(), KEY_NEVER);
+        if (commMode < 0) return accessDenied();
+        byte[] header = Arrays.copyOfRange(data, 0, 7);
+        int offset = intFrom3ByteArrayInversed(data, 1);
+        int length = intFrom3ByteArrayInversed(data, 4);
+        byte[] writeData = getCommandData(commMode, command, header, Arrays.copyOfRange(data, 7, data.length), length);
+        if (writeData == null) return status(INTEGRITY_ERROR);
+        if (writeData.length != length) return status(LENGTH_ERROR);
+        if ((offset < 0) || (offset + length > file.data.length)) {
+            return status(BOUNDARY_ERROR);
+        }
+        if (file.fileType == DesfireLight.BACKUP_FILE_TYPE) {
+            if (file.pendingData == null) file.pendingData = file.data.clone();
+            System.arraycopy(writeData, 0, file.pendingData, offset, length);
+        } else {
+            System.arraycopy(writeData, 0, file.data, offset, length);
+        }
+        appendTransactionMacInput(command, header, writeData);
+        return response(commMode, null);
+    }
+
+    /**
+     * section for Value files
+     */
+
+    private byte[] getValue(byte[] data) throws GeneralSecurityException {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        EmulatedFile file = getFile(data[0]);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if (file.fileType != DesfireLight.VALUE_FILE_TYPE) return status(PARAMETER_ERROR);
+        // a free GetValue access overrides the communication mode of the file
+        byte commMode = file.freeGetValueEnabled ? FILE_COMMUNICATION_SETTINGS_PLAIN : getCommunicationMode(file, file.getAccessR(), file.getAccessW(), file.getAccessRw());
+        if (commMode < 0) return accessDenied();
+        byte[] header = new byte[]{data[0]};
+        if (!verifyCommandMac(commMode, GET_VALUE_COMMAND, header, Arrays.copyOfRange(data, 1, data.length))) {
+            return status(INTEGRITY_ERROR);
+        }
+        byte[] value = intTo4ByteArrayInversed(file.value); // GetValue returns the committed value
+        appendTransactionMacInput(GET_VALUE_COMMAND, header, value);
+        return response(commMode, value);
+    }
+
+    private byte[] changeValue(byte command, byte[] data) throws GeneralSecurityException {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        EmulatedFile file = getFile(data[0]);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if (file.fileType != DesfireLight.VALUE_FILE_TYPE) return status(PARAMETER_ERROR);
+        byte commMode;
+        if (command == CREDIT_VALUE_FILE_COMMAND) {
+            commMode = getCommunicationMode(file, file.getAccessRw(), KEY_NEVER, KEY_NEVER);
+        } else if (command == DEBIT_VALUE_FILE_COMMAND) {
+            commMode = getCommunicationMode(file, file.getAccessR(), file.getAccessW(), file.getAccessRw());
+        } else {
+            if (!file.limitedCreditEnabled) return status(PERMISSION_DENIED);
+            commMode = getCommunicationMode(file, file.getAccessW(), file.getAccessRw(), KEY_NEVER);
+        }
+        if (commMode < 0) return accessDenied();
+        byte[] header = new byte[]{data[0]};
+        byte[] valueBytes = getCommandData(commMode, command, header, Arrays.copyOfRange(data, 1, data.length), 4);
+        if (valueBytes == null) return status(INTEGRITY_ERROR);
+        if (valueBytes.length != 4) return status(LENGTH_ERROR);
+        int changeValue = intFrom4ByteArrayInversed(valueBytes, 0);
+        if (changeValue < 0) return status(PARAMETER_ERROR);
+        long currentValue = (file.pendingValue == null) ? file.value : file.pendingValue;
+        long newValue;
+        if (command == DEBIT_VALUE_FILE_COMMAND) {
+            newValue = currentValue - changeValue;
+            if (newValue < file.minimumValue) return status(BOUNDARY_ERROR);
+        } else {
+            if ((command == LIMITED_CREDIT_VALUE_FILE_COMMAND) && (changeValue > file.limitedCreditValue)) {
+                return status(BOUNDARY_ERROR);
+            }
+            newValue = currentValue + changeValue;
+            if (newValue > file.maximumValue) return status(BOUNDARY_ERROR);
+        }
+        file.pendingValue = (int) newValue;
+        appendTransactionMacInput(command, header, valueBytes);
+        return response(commMode, null);
+    }
+
+    /**
+     * section for Record files
+     */
+
+    private byte[] readRecords(byte command, byte[] data) throws GeneralSecurityException {
+        if (data.length < 7) return status(LENGTH_ERROR);
+        EmulatedFile file = getFile(data[0]);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((file.fileType != DesfireLight.LINEAR_RECORD_FILE_TYPE) && (file.fileType != DesfireLight.CYCLIC_RECORD_FILE_TYPE)) {
+            return status(PARAMETER_ERROR);
+        }
+        byte commMode = getCommunicationMode(file, file.getAccessR(), file.getAccessRw(), KEY_NEVER);
+        if (commMode < 0) return accessDenied();
+        byte[] header = Arrays.copyOfRange(data, 0, 7);
+        if (!verifyCommandMac(commMode, command, header, Arrays.copyOfRange(data, 7, data.length))) {
+            return status(INTEGRITY_ERROR);
+        }
+        // recordNumber 0 is the newest record, the records are returned in chronological order
+        int recordNumber = intFrom3ByteArrayInversed(data, 1);
+        int recordCount = intFrom3ByteArrayInversed(data, 4);
+        int existingRecords = file.records.size();
+        if (recordNumber >= existingRecords) return status(BOUNDARY_ERROR);
+        if (recordCount == 0) recordCount = existingRecords - recordNumber;
+        if (recordNumber + recordCount > existingRecords) return status(BOUNDARY_ERROR);
+        int newestIndex = existingRecords - 1 - recordNumber;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = newestIndex - recordCount + 1; i <= newestIndex; i++) {
+            byte[] record = file.records.get(i);
+            baos.write(record, 0, record.length);
+        }
+        byte[] readData = baos.toByteArray();
+        appendTransactionMacInput(command, header, readData);
+        return response(commMode, readData);
+    }
+
+    private byte[] writeRecord(byte command, byte[] data) throws GeneralSecurityException {
+        if (data.length < 7) return status(LENGTH_ERROR);
+        EmulatedFile file = getFile(data[0]);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((file.fileType != DesfireLight.LINEAR_RECORD_FILE_TYPE) && (file.fileType != DesfireLight.CYCLIC_RECORD_FILE_TYPE)) {
+            return status(PARAMETER_ERROR);
+        }
+        byte commMode = getCommunicationMode(file, file.getAccessW(), file.getAccessRw(), KEY_NEVER);
+        if (commMode < 0) return accessDenied();
+        byte[] header = Arrays.copyOfRange(data, 0, 7);
+        int offset = intFrom3ByteArrayInversed(data, 1);
+        int length = intFrom3ByteArrayInversed(data, 4);
+        byte[] writeData = getCommandData(commMode, command, header, Arrays.copyOfRange(data, 7, data.length), length);
+        if (writeData == null) return status(INTEGRITY_ERROR);
+        if (writeData.length != length) return status(LENGTH_ERROR);
+        if ((offset < 0) || (length < 1) || (offset + length > file.recordSize)) {
+            return status(BOUNDARY_ERROR);
+        }
+        if ((file.pendingRecord == null) && (file.fileType == DesfireLight.LINEAR_RECORD_FILE_TYPE)
+                && (file.records.size() >= file.maximumNumberOfRecords)) {
+            return status(BOUNDARY_ERROR); // a full linear record file needs to get cleared before
+        }
+        // all writes within one transaction are going to the same new record
+        if (file.pendingRecord == null) file.pendingRecord = new byte[file.recordSize];
+        System.arraycopy(writeData, 0, file.pendingRecord, offset, length);
+        appendTransactionMacInput(command, header, writeData);
+        return response(commMode, null);
+    }
+
+    /**
+     * section for transactions
+     */
+
+    private byte[] commitTransaction(byte[] data) throws GeneralSecurityException {
+        byte commMode = isAuthenticated ? FILE_COMMUNICATION_SETTINGS_MACED : FILE_COMMUNICATION_SETTINGS_PLAIN;
+        byte[] header = new byte[0];
+        byte[] macData = data;
+        if ((commMode == FILE_COMMUNICATION_SETTINGS_MACED) && (data.length == 9)) {
+            header = new byte[]{data[0]};
+            macData = Arrays.copyOfRange(data, 1, data.length);
+        } else if ((commMode == FILE_COMMUNICATION_SETTINGS_PLAIN) && (data.length == 1)) {
+            header = new byte[]{data[0]};
+            macData = new byte[0];
+        }
+        if (!verifyCommandMac(commMode, COMMIT_TRANSACTION_COMMAND, header, macData)) {
+            return status(INTEGRITY_ERROR);
+        }
+        boolean isReturnTmcv = (header.length == 1) && (header[0] == (byte) 0x01);
+        EmulatedFile tmacFile = getTransactionMacFile();
+        if ((isReturnTmcv) && (tmacFile == null)) return status(PARAMETER_ERROR);
+        if ((tmacFile != null) && (tmacFile.getAccessRw() != KEY_NEVER)
+                && (tmacFile.transactionMacReaderIdCurrent == null) && (tmacFile.transactionMacInput.size() > 0)) {
+            return status(PERMISSION_DENIED); // the CommitReaderId command is mandatory when enabled
+        }
+        // commit all pending changes
+        for (EmulatedFile file : files) {
+            if (file == null) continue;
+            if (file.pendingData != null) file.data = file.pendingData;
+            if (file.pendingValue != null) file.value = file.pendingValue;
+            if (file.pendingRecord != null) {
+                if ((file.fileType == DesfireLight.CYCLIC_RECORD_FILE_TYPE) && (file.records.size() >= file.maximumNumberOfRecords - 1)) {
+                    file.records.remove(0); // one record of a cyclic record file is reserved for the transaction
+                }
+                file.records.add(file.pendingRecord);
+            }
+            file.pendingData = null;
+            file.pendingValue = null;
+            file.pendingRecord = null;
+        }
+        // calculate the Transaction MAC
+        byte[] tmcv = null;
+        if (tmacFile != null) {
+            if (tmacFile.transactionMacInput.size() > 0) {
+                tmacFile.transactionMacCounter++;
+                tmacFile.transactionMacValue = calculateTransactionMacValue(tmacFile);
+                if (tmacFile.transactionMacReaderIdCurrent != null) {
+                    tmacFile.transactionMacReaderId = tmacFile.transactionMacReaderIdCurrent;
+                }
+            }
+            resetTransactionMacInput(tmacFile);
+            tmcv = concatenate(intTo4ByteArrayInversed(tmacFile.transactionMacCounter), tmacFile.transactionMacValue);
+        }
+        return response(commMode, isReturnTmcv ? tmcv : null);
+    }
+
+    private byte[] abortTransactionCommand(byte[] data) throws GeneralSecurityException {
+        byte commMode = isAuthenticated ? FILE_COMMUNICATION_SETTINGS_MACED : FILE_COMMUNICATION_SETTINGS_PLAIN;
+        if (!verifyCommandMac(commMode, ABORT_TRANSACTION_COMMAND, new byte[0], data)) {
+            return status(INTEGRITY_ERROR);
+        }
+        abortTransaction();
+        return response(commMode, null);
+    }
+
+    private void abortTransaction() {
+        for (EmulatedFile file : files) {
+            if (file == null) continue;
+            file.pendingData = null;
+            file.pendingValue = null;
+            file.pendingRecord = null;
+        }
+        EmulatedFile tmacFile = getTransactionMacFile();
+        if (tmacFile != null) resetTransactionMacInput(tmacFile);
+    }
+
+    private byte[] commitReaderId(byte[] data) throws GeneralSecurityException {
+        EmulatedFile tmacFile = getTransactionMacFile();
+        if ((tmacFile == null) || (tmacFile.getAccessRw() == KEY_NEVER)) return status(PERMISSION_DENIED);
+        int readerIdKey = tmacFile.getAccessRw();
+        if ((readerIdKey != KEY_FREE_ACCESS) && ((!isAuthenticated) || (authenticationKeyNumber != readerIdKey))) {
+            return accessDenied();
+        }
+        if (!isAuthenticated) {
+            if (data.length != 16) return status(LENGTH_ERROR);
+            appendTransactionMacInputReaderId(tmacFile, data);
+            return concatenate(tmacFile.transactionMacReaderId, new byte[]{(byte) 0x91, OPERATION_OK});
+        }
+        // the reader id is send MACed, the previous reader id is returned Full enciphered
+        if (data.length != 24) return status(LENGTH_ERROR);
+        byte[] readerId = Arrays.copyOfRange(data, 0, 16);
+        if (!verifyCommandMac(FILE_COMMUNICATION_SETTINGS_MACED, COMMIT_READER_ID_SECURE_COMMAND, new byte[0], data)) {
+            return status(INTEGRITY_ERROR);
+        }
+        appendTransactionMacInputReaderId(tmacFile, readerId);
+        return response(FILE_COMMUNICATION_SETTINGS_FULL, tmacFile.transactionMacReaderId);
+    }
+
+    /**
+     * section for file management
+     */
+
+    private byte[] createTransactionMacFile(byte[] data) throws GeneralSecurityException {
+        if (!isAuthenticated) return status(AUTHENTICATION_ERROR);
+        if (authenticationKeyNumber != 0) return status(PERMISSION_DENIED);
+        if (data.length < 5) return status(LENGTH_ERROR);
+        byte fileOption = data[1];
+        boolean isTmcLimitPresent = ((fileOption & 0x20) != 0);
+        int headerLength = isTmcLimitPresent ? 9 : 5;
+        if (data.length < headerLength) return status(LENGTH_ERROR);
+        byte[] header = Arrays.copyOfRange(data, 0, headerLength);
+        byte[] keyData = getCommandData(FILE_COMMUNICATION_SETTINGS_FULL, CREATE_TRANSACTION_MAC_FILE_COMMAND, header, Arrays.copyOfRange(data, headerLength, data.length), 17);
+        if (keyData == null) return status(INTEGRITY_ERROR);
+        if (keyData.length != 17) return status(LENGTH_ERROR);
+        byte fileNumber = data[0];
+        if ((fileNumber < 0) || (fileNumber >= MAXIMUM_NUMBER_OF_FILES)) return status(PARAMETER_ERROR);
+        if (files[fileNumber] != null) return status(DUPLICATE_ERROR);
+        if (getTransactionMacFile() != null) return status(DUPLICATE_ERROR); // only one TMAC file per application
+        addTransactionMacFile(fileNumber, (byte) (fileOption & 0x03), new byte[]{data[2], data[3]}, Arrays.copyOfRange(keyData, 0, 16));
+        files[fileNumber].transactionMacFileOption = fileOption;
+        files[fileNumber].transactionMacKeyVersion = keyData[16];
+        return response(FILE_COMMUNICATION_SETTINGS_MACED, null);
+    }
+
+    private byte[] deleteFile(byte[] data) throws GeneralSecurityException {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        byte commMode = isAuthenticated ? FILE_COMMUNICATION_SETTINGS_MACED : FILE_COMMUNICATION_SETTINGS_PLAIN;
+        byte[] header = new byte[]{data[0]};
+        if (!verifyCommandMac(commMode, DELETE_FILE_COMMAND, header, Arrays.copyOfRange(data, 1, data.length))) {
+            return status(INTEGRITY_ERROR);
+        }
+        EmulatedFile file = getFile(data[0]);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((!isAuthenticated) || (authenticationKeyNumber != 0)) return status(PERMISSION_DENIED);
+        files[file.fileNumber] = null;
+        return response(commMode, null);
+    }
+
+    /**
+     * creates a Standard, Backup, Value, Linear or Cyclic Record file, the files are created with free access
+     * (default application master key settings), in authenticated state the command is MACed.
+     * data = FileNo || [ISOFileID] || FileOption || AccessRights || file type specific settings, the Value file has
+     * no ISOFileID
+     */
+    private byte[] createFile(byte command, byte[] data) throws GeneralSecurityException {
+        int settingsLength;
+        switch (command) {
+            case CREATE_VALUE_FILE_COMMAND:
+                settingsLength = 13; // minimum value || maximum value || value || limited credit
+                break;
+            case CREATE_LINEAR_RECORD_FILE_COMMAND:
+            case CREATE_CYCLIC_RECORD_FILE_COMMAND:
+                settingsLength = 6; // record size || maximum number of records
+                break;
+            default:
+                settingsLength = 3; // file size
+        }
+        byte commMode = isAuthenticated ? FILE_COMMUNICATION_SETTINGS_MACED : FILE_COMMUNICATION_SETTINGS_PLAIN;
+        int macLength = isAuthenticated ? 8 : 0;
+        int headerLength = data.length - macLength;
+        int isoFileIdLength = headerLength - 4 - settingsLength;
+        if ((isoFileIdLength != 0) && ((isoFileIdLength != 2) || (command == CREATE_VALUE_FILE_COMMAND))) {
+            return status(LENGTH_ERROR);
+        }
+        byte[] header = Arrays.copyOf(data, headerLength);
+        if (!verifyCommandMac(commMode, command, header, Arrays.copyOfRange(data, headerLength, data.length))) {
+            return status(INTEGRITY_ERROR);
+        }
+        byte fileNumber = header[0];
+        if ((fileNumber < 0) || (fileNumber >= MAXIMUM_NUMBER_OF_FILES)) return status(PARAMETER_ERROR);
+        if (files[fileNumber] != null) return status(DUPLICATE_ERROR);
+        byte[] isoFileId = (isoFileIdLength == 0) ? null : Arrays.copyOfRange(header, 1, 3);
+        int offset = 1 + isoFileIdLength;
+        byte communicationSettings = (byte) (header[offset] & 0x03); // without the SDM bit
+        byte[] accessRights = Arrays.copyOfRange(header, offset + 1, offset + 3);
+        offset += 3;
+        switch (command) {
+            case CREATE_VALUE_FILE_COMMAND:
+                int minimumValue = intFrom4ByteArrayInversed(header, offset);
+                int maximumValue = intFrom4ByteArrayInversed(header, offset + 4);
+                int value = intFrom4ByteArrayInversed(header, offset + 8);
+                if ((minimumValue > maximumValue) || (value < minimumValue) || (value > maximumValue)) return status(PARAMETER_ERROR);
+                addValueFile(fileNumber, communicationSettings, accessRights, minimumValue, maximumValue, value, ((header[offset + 12] & 0x01) != 0));
+                files[fileNumber].freeGetValueEnabled = ((header[offset + 12] & 0x02) != 0);
+                break;
+            case CREATE_LINEAR_RECORD_FILE_COMMAND:
+            case CREATE_CYCLIC_RECORD_FILE_COMMAND:
+                int recordSize = intFrom3ByteArrayInversed(header, offset);
+                int maximumNumberOfRecords = intFrom3ByteArrayInversed(header, offset + 3);
+                if ((recordSize < 1) || (maximumNumberOfRecords < 1)) return status(PARAMETER_ERROR);
+                if (command == CREATE_LINEAR_RECORD_FILE_COMMAND) {
+                    addLinearRecordFile(fileNumber, isoFileId, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+                } else {
+                    addCyclicRecordFile(fileNumber, isoFileId, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+                }
+                break;
+            default:
+                int fileSize = intFrom3ByteArrayInversed(header, offset);
+                if (fileSize < 1) return status(PARAMETER_ERROR);
+                if (command == CREATE_STANDARD_FILE_COMMAND) {
+                    addStandardFile(fileNumber, isoFileId, communicationSettings, accessRights, fileSize);
+                } else {
+                    addBackupFile(fileNumber, isoFileId, communicationSettings, accessRights, fileSize);
+                }
+        }
+        return response(commMode, null);
+    }
+
+    /**
+     * section for key management
+     */
+
+    /**
+     * changes an application key, only the application master key (key 0) is allowed to change keys.
+     * Case 1, key number != authenticated key number: data = (KeyNew XOR KeyOld) || KeyVer || CRC32(KeyNew), the
+     * response is MACed.
+     * Case 2, key number == authenticated key number: data = KeyNew || KeyVer, the response has no MAC and the
+     * authentication is invalidated.
+     */
+    private byte[] changeKey(byte[] data) throws GeneralSecurityException {
+        if (!isAuthenticated) return status(AUTHENTICATION_ERROR);
+        if (data.length < 1) return status(LENGTH_ERROR);
+        byte keyNumber = data[0];
+        boolean isAuthenticationKey = (keyNumber == authenticationKeyNumber);
+        int keyDataLength = isAuthenticationKey ? 17 : 21;
+        byte[] keyData = getCommandData(FILE_COMMUNICATION_SETTINGS_FULL, CHANGE_KEY_COMMAND, new byte[]{keyNumber}, Arrays.copyOfRange(data, 1, data.length), keyDataLength);
+        if (keyData == null) return status(INTEGRITY_ERROR);
+        if (keyData.length != keyDataLength) return status(LENGTH_ERROR);
+        if ((keyNumber < 0) || (keyNumber >= numberOfApplicationKeys)) return status(NO_SUCH_KEY);
+        if (authenticationKeyNumber != 0) return status(PERMISSION_DENIED);
+        byte[] keyNew = Arrays.copyOf(keyData, 16);
+        if (isAuthenticationKey) {
+            applicationKeys[keyNumber] = keyNew;
+            invalidateAuthentication();
+            return status(OPERATION_OK);
+        }
+        for (int i = 0; i < 16; i++) {
+            keyNew[i] ^= applicationKeys[keyNumber][i];
+        }
+        if (!Arrays.equals(CRC32.get(keyNew), Arrays.copyOfRange(keyData, 17, 21))) return status(INTEGRITY_ERROR);
+        applicationKeys[keyNumber] = keyNew;
+        return response(FILE_COMMUNICATION_SETTINGS_MACED, null);
+    }
+
+    /**
+     * section for access rights and secure messaging
+     */
+
+    private EmulatedFile getFile(byte fileNumber) {
+        if ((fileNumber < 0) || (fileNumber >= MAXIMUM_NUMBER_OF_FILES)) return null;
+        return files[fileNumber];
+    }
+
+    private EmulatedFile getTransactionMacFile() {
+        for (EmulatedFile file : files) {
+            if ((file != null) && (file.fileType == DesfireLight.TRANSACTION_MAC_FILE_TYPE)) return file;
+        }
+        return null;
+    }
+
+    /**
+     * checks the access rights and returns the communication mode for the command
+     *
+     * @return the communication mode of the file when authenticated with one of the keys, Plain on free access
+     * or -1 when the access is denied
+     */
+    private byte getCommunicationMode(EmulatedFile file, int key1, int key2, int key3) {
+        if (isAuthenticated) {
+            if ((authenticationKeyNumber == key1) || (authenticationKeyNumber == key2) || (authenticationKeyNumber == key3)) {
+                return file.communicationSettings;
+            }
+        }
+        if ((key1 == KEY_FREE_ACCESS) || (key2 == KEY_FREE_ACCESS) || (key3 == KEY_FREE_ACCESS)) {
+            return FILE_COMMUNICATION_SETTINGS_PLAIN;
+        }
+        return -1;
+    }
+
+    private byte[] accessDenied() {
+        return status(isAuthenticated ? PERMISSION_DENIED : AUTHENTICATION_ERROR);
+    }
+
+    /**
+     * verifies the MAC of a command in communication mode MACed or Full, in mode Plain the macData needs to be empty
+     *
+     * @param macData | the command data following the header including the 8 bytes MAC
+     */
+    private boolean verifyCommandMac(byte commMode, byte command, byte[] header, byte[] macData) throws GeneralSecurityException {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+            return (macData.length == 0);
+        }
+        if (macData.length < 8) {
+            invalidateAuthentication();
+            return false;
+        }
+        byte[] commandData = Arrays.copyOfRange(macData, 0, macData.length - 8);
+        byte[] macReceived = Arrays.copyOfRange(macData, macData.length - 8, macData.length);
+        // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData)
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(command);
+        baos.write(intTo2ByteArrayInversed(cmdCounter), 0, 2);
+        baos.write(transactionIdentifier, 0, transactionIdentifier.length);
+        baos.write(header, 0, header.length);
+        baos.write(commandData, 0, commandData.length);
+        byte[] macCalculated = sesAuthMacCmac.calculateTruncatedMac(baos.toByteArray());
+        if (!Arrays.equals(macCalculated, macReceived)) {
+            invalidateAuthentication();
+            abortTransaction();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * returns the plain command data after verifying the MAC (MACed and Full) and decrypting (Full)
+     *
+     * @param macData    | the command data following the header, in MACed and Full mode including the 8 bytes MAC
+     * @param dataLength | the expected length of the plain data, used to strip off the padding in Full mode
+     * @return the plain data or NULL on a MAC failure
+     */
+    private byte[] getCommandData(byte commMode, byte command, byte[] header, byte[] macData, int dataLength) throws GeneralSecurityException {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+            return macData;
+        }
+        if (!verifyCommandMac(commMode, command, header, macData)) {
+            return null;
+        }
+        byte[] commandData = Arrays.copyOfRange(macData, 0, macData.length - 8);
+        if (commMode == FILE_COMMUNICATION_SETTINGS_MACED) {
+            return commandData;
+        }
+        if ((commandData.length == 0) || ((commandData.length % 16) != 0)) {
+            return new byte[0]; // results in a length error
+        }
+        // the command data is encrypted with the IV for CmdData
+        byte[] iv = new byte[16];
+        sesAuthEncCipher.computeCommandIv(transactionIdentifier, cmdCounter, iv, 0);
+        byte[] decrypted = sesAuthEncCipher.decrypt(iv, commandData);
+        if (dataLength > decrypted.length) return new byte[0];
+        return Arrays.copyOf(decrypted, dataLength);
+    }
+
+    /**
+     * builds the response in the given communication mode, the command counter is increased when authenticated
+     * the response is chunked in frames when exceeding the maximum response frame length
+     */
+    private byte[] response(byte commMode, byte[] responseData) throws GeneralSecurityException {
+        if (responseData == null) responseData = new byte[0];
+        if (isAuthenticated) cmdCounter++;
+        byte[] fullResponse;
+        if ((!isAuthenticated) || (commMode == FILE_COMMUNICATION_SETTINGS_PLAIN)) {
+            fullResponse = responseData;
+        } else {
+            byte[] data = responseData;
+            if ((commMode == FILE_COMMUNICATION_SETTINGS_FULL) && (responseData.length > 0)) {
+                // the response data is encrypted with the IV for RespData
+                byte[] iv = new byte[16];
+                sesAuthEncCipher.computeResponseIv(transactionIdentifier, cmdCounter, iv, 0);
+                data = sesAuthEncCipher.encrypt(iv, padding(responseData));
+            }
+            fullResponse = concatenate(data, getResponseMac(data));
+        }
+        return chainResponse(fullResponse);
+    }
+
+    /**
+     * response for commands like getFileIds or getFileSettings: the data is send in plain, when authenticated
+     * the response MAC is appended
+     */
+    private byte[] responseInformation(byte[] responseData) throws GeneralSecurityException {
+        return response(isAuthenticated ? FILE_COMMUNICATION_SETTINGS_MACED : FILE_COMMUNICATION_SETTINGS_PLAIN, responseData);
+    }
+
+    private byte[] getResponseMac(byte[] responseData) {
+        // MAC_Input (RC || CmdCounter || TI || ResponseData)
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(OPERATION_OK);
+        baos.write(intTo2ByteArrayInversed(cmdCounter), 0, 2);
+        baos.write(transactionIdentifier, 0, transactionIdentifier.length);
+        baos.write(responseData, 0, responseData.length);
+        return sesAuthMacCmac.calculateTruncatedMac(baos.toByteArray());
+    }
+
+    private byte[] chainResponse(byte[] fullResponse) {
+        maximumResponseFrameLengthOverride = 0;
+        if (fullResponse.length <= maximumResponseFrameLength) {
+            return concatenate(fullResponse, new byte[]{(byte) 0x91, OPERATION_OK});
+        }
+        pendingResponseData = fullResponse;
+        pendingResponseOffset = 0;
+        return nextResponseFrame();
+    }
+
+    private byte[] nextResponseFrame() {
+        int frameLength = (maximumResponseFrameLengthOverride > 0) ? maximumResponseFrameLengthOverride : maximumResponseFrameLength;
+        maximumResponseFrameLengthOverride = 0;
+        int remaining = pendingResponseData.length - pendingResponseOffset;
+        int length = Math.min(remaining, frameLength);
+        byte[] frame = new byte[length + 2];
+        System.arraycopy(pendingResponseData, pendingResponseOffset, frame, 0, length);
+        pendingResponseOffset += length;
+        frame[length] = (byte) 0x91;
+        if (pendingResponseOffset < pendingResponseData.length) {
+            frame[length + 1] = ADDITIONAL_FRAME;
+        } else {
+            frame[length + 1] = OPERATION_OK;
+            pendingResponseData = null;
+        }
+        return frame;
+    }
+
+    private static byte[] status(byte statusCode) {
+        return new byte[]{(byte) 0x91, statusCode};
+    }
+
+    /**
+     * section for the Transaction MAC
+     * see MIFARE DESFire Light contactless application IC MF2DLHX0.pdf pages 42 - 47
+     */
+
+    private void appendTransactionMacInput(byte command, byte[] header, byte[] data) {
+        EmulatedFile tmacFile = getTransactionMacFile();
+        if (tmacFile == null) return;
+        if ((!isAuthenticated) && ((tmacFile.transactionMacFileOption & 0x10) != 0)) {
+            return; // exclude unauthenticated operations from TMI
+        }
+        // the plain and secure command variants are written with the command code of the secure command
+        byte tmiCommand = command;
+        if (command == READ_DATA_FILE_COMMAND) tmiCommand = READ_DATA_FILE_SECURE_COMMAND;
+        if (command == WRITE_DATA_FILE_COMMAND) tmiCommand = WRITE_DATA_FILE_SECURE_COMMAND;
+        if (command == READ_RECORD_FILE_COMMAND) tmiCommand = READ_RECORD_FILE_SECURE_COMMAND;
+        if (command == WRITE_RECORD_FILE_COMMAND) tmiCommand = WRITE_RECORD_FILE_SECURE_COMMAND;
+        if ((command == GET_VALUE_COMMAND) || (command == CREDIT_VALUE_FILE_COMMAND)
+                || (command == DEBIT_VALUE_FILE_COMMAND) || (command == LIMITED_CREDIT_VALUE_FILE_COMMAND)) {
+            // TMI = TMI || Cmd || FileNo || Value || ZeroPadding
+            byte[] tmiData = concatenate(concatenate(new byte[]{tmiCommand}, header), data);
+            tmacFile.transactionMacInput.write(zeroPadding(tmiData), 0, 16);
+            return;
+        }
+        // TMI = TMI || Cmd || CmdHeader || ZeroPadding || Data || ZeroPadding
+        byte[] tmiHeader = zeroPadding(concatenate(new byte[]{tmiCommand}, header));
+        byte[] tmiData = zeroPadding(data);
+        tmacFile.transactionMacInput.write(tmiHeader, 0, tmiHeader.length);
+        tmacFile.transactionMacInput.write(tmiData, 0, tmiData.length);
+    }
+
+    private void appendTransactionMacInputReaderId(EmulatedFile tmacFile, byte[] readerId) {
+        // TMI = TMI || Cmd || TMRICur || ZeroPadding
+        byte[] tmiData = zeroPadding(concatenate(new byte[]{COMMIT_READER_ID_SECURE_COMMAND}, readerId));
+        tmacFile.transactionMacInput.write(tmiData, 0, tmiData.length);
+        tmacFile.transactionMacReaderIdCurrent = readerId.clone();
+    }
+
+    private static void resetTransactionMacInput(EmulatedFile tmacFile) {
+        tmacFile.transactionMacInput.reset();
+        tmacFile.transactionMacReaderIdCurrent = null;
+    }
+
+    // TMV = MACtTM(SesTMMACKey, TMI), the TMC is already increased
+    private byte[] calculateTransactionMacValue(EmulatedFile tmacFile) {
+        // SV1 = 5Ah || 00h || 01h || 00h || 80h || (TMC + 1) || UID
+        byte[] sv1 = concatenate(concatenate(new byte[]{(byte) 0x5A, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x80},
+                intTo4ByteArrayInversed(tmacFile.transactionMacCounter)), uid);
+        byte[] sesTMMACKey = cmac(tmacFile.transactionMacKey, sv1);
+        byte[] fullMac = cmac(sesTMMACKey, tmacFile.transactionMacInput.toByteArray());
+        byte[] transactionMacValue = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            transactionMacValue[i] = fullMac[2 * i + 1];
+        }
+        return transactionMacValue;
+    }
+
+    /**
+     * section for crypto
+     */
+
+    private byte[] aes(int mode, byte[] key, byte[] iv, byte[] data) throws GeneralSecurityException {
+        aesCipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        return aesCipher.doFinal(data);
+    }
+
+    private static byte[] cmac(byte[] key, byte[] data) {
+        try {
+            AesCmac mac = new AesCmac();
+            mac.init(new SecretKeySpec(key, "AES"));
+            mac.updateBlock(data);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("CMAC calculation failed", e);
+        }
+    }
+
+    // padding method 2 (0x80 followed by 0x00), a card always pads, data that is a multiple of 16 bytes gets a full block
+    private static byte[] padding(byte[] data) {
+        byte[] padded = new byte[((data.length / 16) + 1) * 16];
+        System.arraycopy(data, 0, padded, 0, data.length);
+        padded[data.length] = (byte) 0x80;
+        return padded;
+    }
+
+    // zero padding to a multiple of 16 bytes, data that is a multiple of 16 bytes is not padded
+    private static byte[] zeroPadding(byte[] data) {
+        return Arrays.copyOf(data, ((data.length + 15) / 16) * 16);
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] random = new byte[length];
+        secureRandom.nextBytes(random);
+        return random;
+    }
+
+    /**
+     * internal utility methods, this class does not use the Utils class to stay independent of Android
+     */
+
+    private static byte[] rotateLeft(byte[] data) {
+        byte[] rotated = new byte[data.length];
+        System.arraycopy(data, 1, rotated, 0, data.length - 1);
+        rotated[data.length - 1] = data[0];
+        return rotated;
+    }
+
+    private static byte[] concatenate(byte[] dataA, byte[] dataB) {
+        byte[] concatenated = new byte[dataA.length + dataB.length];
+        System.arraycopy(dataA, 0, concatenated, 0, dataA.length);
+        System.arraycopy(dataB, 0, concatenated, dataA.length, dataB.length);
+        return concatenated;
+    }
+
+    private static byte[] intTo2ByteArrayInversed(int value) {
+        return new byte[]{(byte) value, (byte) (value >> 8)};
+    }
+
+    private static byte[] intTo3ByteArrayInversed(int value) {
+        return new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16)};
+    }
+
+    private static byte[] intTo4ByteArrayInversed(int value) {
+        return new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)};
+    }
+
+    private static int intFrom3ByteArrayInversed(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16);
+    }
+
+    private static int intFrom4ByteArrayInversed(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+    }
+
+    /**
+     * getter
+     */
+
+    public byte[] getUid() {
+        return uid.clone();
+    }
+
+    public boolean isAuthenticated() {
+        return isAuthenticated;
+    }
+
+    public int getCmdCounter() {
+        return cmdCounter;
+    }
+
+    public byte[] getTransactionIdentifier() {
+        return transactionIdentifier;
+    }
+
+    public byte[] getFileData(byte fileNumber) {
+        EmulatedFile file = getFile(fileNumber);
+        return ((file == null) || (file.data == null)) ? null : file.data.clone();
+    }
+
+    public int getValue(byte fileNumber) {
+        EmulatedFile file = getFile(fileNumber);
+        return (file == null) ? 0 : file.value;
+    }
+
+    public int getTransactionMacCounter() {
+        EmulatedFile tmacFile = getTransactionMacFile();
+        return (tmacFile == null) ? 0 : tmacFile.transactionMacCounter;
+    }
+
+    public byte[] getTransactionMacValue() {
+        EmulatedFile tmacFile = getTransactionMacFile();
+        return (tmacFile == null) ? null : tmacFile.transactionMacValue.clone();
+    }
+}
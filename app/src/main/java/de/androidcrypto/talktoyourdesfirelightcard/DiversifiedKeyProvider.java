@@ -0,0 +1,67 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * This KeyProvider diversifies the application keys from one AES-128 master key per card as described in
+ * AN10922 (see KeyDiversification). The diversification input is
+ * M = UID || AID || KeyNumber || SystemIdentifier (maximum 31 bytes)
+ * so each card, application and key number gets its own key.
+ * The derived keys are stored in a KeyCache under the master key id, a card that is presented again gets
+ * its keys from the cache.
+ */
+
+public class DiversifiedKeyProvider implements KeyProvider {
+
+    private final String masterKeyId;
+    private final byte[] systemIdentifier;
+    private final KeyDiversification keyDiversification;
+    private final KeyCache keyCache;
+
+    /**
+     * @param masterKeyId      | identifies the master key in the KeyCache, e.g. the alias in the keystore
+     * @param masterKey        | AES-128 master key (16 bytes)
+     * @param systemIdentifier | appended to the diversification input, can be empty
+     * @param keyCache         | the cache for the derived keys, can be shared with other providers
+     */
+    public DiversifiedKeyProvider(String masterKeyId, byte[] masterKey, byte[] systemIdentifier, KeyCache keyCache) throws GeneralSecurityException {
+        if ((masterKeyId == null) || (keyCache == null)) {
+            throw new IllegalArgumentException("masterKeyId or keyCache is NULL");
+        }
+        this.masterKeyId = masterKeyId;
+        this.systemIdentifier = (systemIdentifier == null) ? new byte[0] : systemIdentifier.clone();
+        this.keyDiversification = new KeyDiversification(masterKey);
+        this.keyCache = keyCache;
+    }
+
+    @Override
+    public byte[] getKey(byte[] uid, byte[] applicationIdentifier, byte keyNumber) {
+        if ((uid == null) || (applicationIdentifier == null)) return null;
+        byte[] key = keyCache.get(masterKeyId, uid, applicationIdentifier, keyNumber);
+        if (key != null) return key;
+        int inputLength = uid.length + applicationIdentifier.length + 1 + systemIdentifier.length;
+        if (inputLength > KeyDiversification.MAXIMUM_DIVERSIFICATION_INPUT_LENGTH) return null;
+        byte[] diversificationInput = new byte[inputLength];
+        System.arraycopy(uid, 0, diversificationInput, 0, uid.length);
+        System.arraycopy(applicationIdentifier, 0, diversificationInput, uid.length, applicationIdentifier.length);
+        diversificationInput[uid.length + applicationIdentifier.length] = keyNumber;
+        System.arraycopy(systemIdentifier, 0, diversificationInput, inputLength - systemIdentifier.length, systemIdentifier.length);
+        try {
+            synchronized (keyDiversification) {
+                key = keyDiversification.diversify(diversificationInput);
+            }
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+        keyCache.put(masterKeyId, uid, applicationIdentifier, keyNumber, key);
+        return key;
+    }
+
+    public String getMasterKeyId() {
+        return masterKeyId;
+    }
+
+    public KeyCache getKeyCache() {
+        return keyCache;
+    }
+}
@@ -0,0 +1,96 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a bounded LRU cache for decrypted keys, keyed by the alias, used by CustomKeystore.
+ * An entry expires maximumAgeMillis after it was stored. Each get and put removes all expired entries, not only
+ * the requested one, so a key that is not read again does not stay in memory after its age.
+ * The keys are copied on put and get, the key of an expired, evicted, replaced or removed entry is wiped.
+ * All methods are synchronized, one cache can be shared by several instances.
+ */
+
+public class ExpiringKeyCache {
+
+    private final int maximumNumberOfEntries;
+    private final long maximumAgeMillis;
+    // access order, the eldest entry is the least recently used one
+    private final LinkedHashMap<String, CachedKey> keys = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static class CachedKey {
+        private final byte[] key;
+        private final long timestampMillis;
+
+        private CachedKey(byte[] key, long timestampMillis) {
+            this.key = key;
+            this.timestampMillis = timestampMillis;
+        }
+    }
+
+    /**
+     * @param maximumNumberOfEntries | minimum 1
+     * @param maximumAgeMillis       | the time a key is kept after it was stored, minimum 1
+     */
+    public ExpiringKeyCache(int maximumNumberOfEntries, long maximumAgeMillis) {
+        if (maximumNumberOfEntries < 1) {
+            throw new IllegalArgumentException("maximumNumberOfEntries is < 1");
+        }
+        if (maximumAgeMillis < 1) {
+            throw new IllegalArgumentException("maximumAgeMillis is < 1");
+        }
+        this.maximumNumberOfEntries = maximumNumberOfEntries;
+        this.maximumAgeMillis = maximumAgeMillis;
+    }
+
+    /**
+     * @return a copy of the cached key or NULL if there is none or it is expired
+     */
+    public synchronized byte[] get(String alias) {
+        removeExpired();
+        CachedKey cachedKey = keys.get(alias);
+        if (cachedKey == null) return null;
+        return cachedKey.key.clone();
+    }
+
+    public synchronized void put(String alias, byte[] key) {
+        removeExpired();
+        remove(alias);
+        keys.put(alias, new CachedKey(key.clone(), System.currentTimeMillis()));
+        while (keys.size() > maximumNumberOfEntries) {
+            Iterator<Map.Entry<String, CachedKey>> iterator = keys.entrySet().iterator();
+            Arrays.fill(iterator.next().getValue().key, (byte) 0x00);
+            iterator.remove();
+        }
+    }
+
+    public synchronized void remove(String alias) {
+        CachedKey cachedKey = keys.remove(alias);
+        if (cachedKey != null) Arrays.fill(cachedKey.key, (byte) 0x00);
+    }
+
+    public synchronized void clear() {
+        for (CachedKey cachedKey : keys.values()) {
+            Arrays.fill(cachedKey.key, (byte) 0x00);
+        }
+        keys.clear();
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    private void removeExpired() {
+        long nowMillis = System.currentTimeMillis();
+        Iterator<CachedKey> iterator = keys.values().iterator();
+        while (iterator.hasNext()) {
+            CachedKey cachedKey = iterator.next();
+            if (nowMillis - cachedKey.timestampMillis > maximumAgeMillis) {
+                Arrays.fill(cachedKey.key, (byte) 0x00);
+                iterator.remove();
+            }
+        }
+    }
+}
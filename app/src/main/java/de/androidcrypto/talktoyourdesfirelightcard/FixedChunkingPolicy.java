@@ -0,0 +1,43 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * A ChunkingPolicy with fixed chunk lengths for all communication modes, e.g. for readers that can not
+ * transmit larger frames. The default lengths of 40 bytes are the values that were used before the
+ * AdaptiveChunkingPolicy was introduced.
+ */
+
+public class FixedChunkingPolicy implements ChunkingPolicy {
+
+    public static final int MAXIMUM_READ_LENGTH_DEFAULT = 40;
+    public static final int MAXIMUM_WRITE_LENGTH_DEFAULT = 40;
+
+    private final int maximumReadLength;
+    private final int maximumWriteLength;
+
+    public FixedChunkingPolicy() {
+        this(MAXIMUM_READ_LENGTH_DEFAULT, MAXIMUM_WRITE_LENGTH_DEFAULT);
+    }
+
+    public FixedChunkingPolicy(int maximumReadLength, int maximumWriteLength) {
+        if ((maximumReadLength < 1) || (maximumWriteLength < 1)) {
+            throw new IllegalArgumentException("maximumReadLength or maximumWriteLength is < 1");
+        }
+        this.maximumReadLength = maximumReadLength;
+        this.maximumWriteLength = maximumWriteLength;
+    }
+
+    @Override
+    public int getMaximumReadLength(byte communicationSettings) {
+        return maximumReadLength;
+    }
+
+    @Override
+    public int getMaximumWriteLength(byte communicationSettings) {
+        return maximumWriteLength;
+    }
+
+    @Override
+    public String toString() {
+        return "FixedChunkingPolicy read: " + maximumReadLength + " write: " + maximumWriteLength;
+    }
+}
@@ -0,0 +1,90 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.io.IOException;
+
+/**
+ * An ApduTransport that runs in the same process without any NFC hardware. Each command APDU is
+ * handed over to an ApduProcessor (e.g. a software card emulator, a bridge to a PC/SC reader or a
+ * replayer for recorded traces) that returns the response APDU.
+ * <p>
+ * The transport can be disconnected to simulate a tag that is removed from the reader, any
+ * following transceive will throw an IOException like IsoDep does.
+ */
+
+public class InProcessTransport implements ApduTransport {
+
+    /**
+     * the 'card side' of an InProcessTransport
+     */
+    public interface ApduProcessor {
+        /**
+         * @param apdu | the complete command APDU
+         * @return the response APDU including the status bytes
+         * @throws IOException when the processor cannot answer the command
+         */
+        byte[] process(byte[] apdu) throws IOException;
+    }
+
+    private static final int MAXIMUM_TRANSCEIVE_LENGTH_DEFAULT = 253; // the value IsoDep returns on most Android devices
+
+    private final ApduProcessor apduProcessor;
+    private final int maxTransceiveLength;
+    private boolean isConnected = true;
+    private boolean isExtendedLengthApduSupported = false;
+
+    public InProcessTransport(ApduProcessor apduProcessor) {
+        this(apduProcessor, MAXIMUM_TRANSCEIVE_LENGTH_DEFAULT);
+    }
+
+    public InProcessTransport(ApduProcessor apduProcessor, int maxTransceiveLength) {
+        if (apduProcessor == null) {
+            throw new IllegalArgumentException("apduProcessor is NULL");
+        }
+        this.apduProcessor = apduProcessor;
+        this.maxTransceiveLength = maxTransceiveLength;
+    }
+
+    @Override
+    public byte[] transceive(byte[] apdu) throws IOException {
+        if (!isConnected) {
+            throw new IOException("transport is not connected");
+        }
+        if (apdu == null) {
+            throw new IOException("apdu is NULL");
+        }
+        if (apdu.length > maxTransceiveLength) {
+            throw new IOException("apdu length " + apdu.length + " exceeds the maximum transceive length of " + maxTransceiveLength);
+        }
+        return apduProcessor.process(apdu);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return maxTransceiveLength;
+    }
+
+    @Override
+    public boolean isExtendedLengthApduSupported() {
+        return isExtendedLengthApduSupported;
+    }
+
+    /**
+     * simulates a reader with extended length support, the DESFire classes send short APDUs only
+     */
+    public void setExtendedLengthApduSupported(boolean isExtendedLengthApduSupported) {
+        this.isExtendedLengthApduSupported = isExtendedLengthApduSupported;
+    }
+
+    public void connect() {
+        isConnected = true;
+    }
+
+    public void close() {
+        isConnected = false;
+    }
+}
@@ -0,0 +1,43 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import android.nfc.tech.IsoDep;
+
+import java.io.IOException;
+
+/**
+ * The default ApduTransport that sends all APDUs to a real tag using Android's IsoDep class.
+ * Exceptions thrown by IsoDep (e.g. TagLostException) are passed through unchanged.
+ */
+
+public class IsoDepTransport implements ApduTransport {
+
+    private final IsoDep isoDep;
+
+    public IsoDepTransport(IsoDep isoDep) {
+        this.isoDep = isoDep;
+    }
+
+    @Override
+    public byte[] transceive(byte[] apdu) throws IOException {
+        return isoDep.transceive(apdu);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isoDep.isConnected();
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return isoDep.getMaxTransceiveLength();
+    }
+
+    @Override
+    public boolean isExtendedLengthApduSupported() {
+        return isoDep.isExtendedLengthApduSupported();
+    }
+
+    public IsoDep getIsoDep() {
+        return isoDep;
+    }
+}
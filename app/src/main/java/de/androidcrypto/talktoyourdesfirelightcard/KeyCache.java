@@ -0,0 +1,85 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a bounded LRU cache for derived (diversified) keys, keyed by the master key id, the UID of the
+ * card, the AID and the key number. A card that is presented again gets its keys without a new derivation.
+ * The keys are copied on put and get, the key of an evicted entry is wiped.
+ * All methods are synchronized, one cache can be shared by several KeyProviders.
+ */
+
+public class KeyCache {
+
+    public static final int DEFAULT_MAXIMUM_NUMBER_OF_ENTRIES = 64;
+
+    private final int maximumNumberOfEntries;
+    private final LinkedHashMap<String, byte[]> keys;
+    private int numberOfHits;
+    private int numberOfMisses;
+
+    public KeyCache() {
+        this(DEFAULT_MAXIMUM_NUMBER_OF_ENTRIES);
+    }
+
+    /**
+     * @param maximumNumberOfEntries | minimum 1
+     */
+    public KeyCache(int maximumNumberOfEntries) {
+        if (maximumNumberOfEntries < 1) {
+            throw new IllegalArgumentException("maximumNumberOfEntries is < 1");
+        }
+        this.maximumNumberOfEntries = maximumNumberOfEntries;
+        // access order, the eldest entry is the least recently used one
+        this.keys = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return a copy of the cached key or NULL
+     */
+    public synchronized byte[] get(String masterKeyId, byte[] uid, byte[] applicationIdentifier, byte keyNumber) {
+        byte[] key = keys.get(getCacheKey(masterKeyId, uid, applicationIdentifier, keyNumber));
+        if (key == null) {
+            numberOfMisses++;
+            return null;
+        }
+        numberOfHits++;
+        return key.clone();
+    }
+
+    public synchronized void put(String masterKeyId, byte[] uid, byte[] applicationIdentifier, byte keyNumber, byte[] key) {
+        byte[] oldKey = keys.put(getCacheKey(masterKeyId, uid, applicationIdentifier, keyNumber), key.clone());
+        if (oldKey != null) Arrays.fill(oldKey, (byte) 0x00);
+        while (keys.size() > maximumNumberOfEntries) {
+            Iterator<Map.Entry<String, byte[]>> iterator = keys.entrySet().iterator();
+            Arrays.fill(iterator.next().getValue(), (byte) 0x00);
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        for (byte[] key : keys.values()) {
+            Arrays.fill(key, (byte) 0x00);
+        }
+        keys.clear();
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    public synchronized int getNumberOfHits() {
+        return numberOfHits;
+    }
+
+    public synchronized int getNumberOfMisses() {
+        return numberOfMisses;
+    }
+
+    private static String getCacheKey(String masterKeyId, byte[] uid, byte[] applicationIdentifier, byte keyNumber) {
+        return masterKeyId + ":" + Utils.bytesToHexNpeUpperCase(uid) + ":" + Utils.bytesToHexNpeUpperCase(applicationIdentifier) + ":" + keyNumber;
+    }
+}
@@ -0,0 +1,89 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class diversifies an AES-128 key as described in NXP's AN10922 Symmetric key diversifications.pdf,
+ * chapter 2.2 AES-128 key diversification:
+ * D = 01h || M, M is the diversification input (e.g. UID || AID || System Identifier) with a length of 1..31 bytes
+ * the diversified key is the AES CMAC of D with the master key, with one difference to the CMAC of AesCmac:
+ * when D is shorter than 32 bytes it is padded with 80h 00h .. to 32 bytes (and not to the next block) and the
+ * subkey K2 is used for the last block, a D of 32 bytes is not padded and K1 is used.
+ * <p>
+ * The AES cipher is looked up and initialized once per instance and the subkeys are derived in the constructor,
+ * so the class is not thread safe.
+ */
+
+public class KeyDiversification {
+
+    public static final int MAXIMUM_DIVERSIFICATION_INPUT_LENGTH = 31;
+    private static final int BLOCK_SIZE = 16;
+    private static final int DIVERSIFICATION_LENGTH = 32;
+    private static final byte DIVERSIFICATION_CONSTANT_AES_128 = (byte) 0x01;
+    private static final byte CONSTANT = (byte) 0x87;
+
+    private final Cipher aesCipher;
+    private final byte[] k1 = new byte[BLOCK_SIZE];
+    private final byte[] k2 = new byte[BLOCK_SIZE];
+
+    /**
+     * @param masterKey | AES-128 master key (16 bytes)
+     */
+    public KeyDiversification(byte[] masterKey) throws GeneralSecurityException {
+        if ((masterKey == null) || (masterKey.length != 16)) {
+            throw new IllegalArgumentException("masterKey is NULL or not of length 16");
+        }
+        aesCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        aesCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(masterKey, "AES"));
+        byte[] l = aesCipher.doFinal(new byte[BLOCK_SIZE]);
+        doubleSubKey(l, k1);
+        doubleSubKey(k1, k2);
+        Arrays.fill(l, (byte) 0x00);
+    }
+
+    private static void doubleSubKey(byte[] k, byte[] result) {
+        int carry = 0;
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            int b = k[i] & 0xFF;
+            result[i] = (byte) ((b << 1) | carry);
+            carry = b >>> 7;
+        }
+        if (carry != 0) result[BLOCK_SIZE - 1] ^= CONSTANT;
+    }
+
+    /**
+     * @param diversificationInput | M, length 1..31 bytes
+     * @return the diversified AES-128 key (16 bytes)
+     */
+    public byte[] diversify(byte[] diversificationInput) throws GeneralSecurityException {
+        if ((diversificationInput == null) || (diversificationInput.length < 1) || (diversificationInput.length > MAXIMUM_DIVERSIFICATION_INPUT_LENGTH)) {
+            throw new IllegalArgumentException("diversificationInput is NULL or not of length 1.." + MAXIMUM_DIVERSIFICATION_INPUT_LENGTH);
+        }
+        // D = 01h || M || padding
+        byte[] d = new byte[DIVERSIFICATION_LENGTH];
+        d[0] = DIVERSIFICATION_CONSTANT_AES_128;
+        System.arraycopy(diversificationInput, 0, d, 1, diversificationInput.length);
+        int length = diversificationInput.length + 1;
+        byte[] subKey = k1;
+        if (length < DIVERSIFICATION_LENGTH) {
+            d[length] = (byte) 0x80;
+            subKey = k2;
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            d[BLOCK_SIZE + i] ^= subKey[i];
+        }
+        // CBC with zero IV over the two blocks, the last cipher block is the CMAC
+        byte[] state = aesCipher.doFinal(d, 0, BLOCK_SIZE);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            state[i] ^= d[BLOCK_SIZE + i];
+        }
+        byte[] diversifiedKey = aesCipher.doFinal(state);
+        Arrays.fill(d, (byte) 0x00);
+        Arrays.fill(state, (byte) 0x00);
+        return diversifiedKey;
+    }
+}
@@ -0,0 +1,19 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * A KeyProvider returns the AES-128 key of an application key for a given card, e.g. a key that is diversified
+ * from a master key with the UID of the card (see DiversifiedKeyProvider).
+ * DesfireLight asks the provider in authenticateAesEv2First(keyNumber), authenticateAesEv2NonFirst(keyNumber)
+ * and changeApplicationKeyFull(keyNumber, keyVersion, keyOld) with the UID that was set by setCardUid.
+ */
+
+public interface KeyProvider {
+
+    /**
+     * @param uid                   | the UID of the card
+     * @param applicationIdentifier | the AID of the selected application (length 3)
+     * @param keyNumber             | the application key number
+     * @return the key (16 bytes) or NULL when the provider has no key
+     */
+    byte[] getKey(byte[] uid, byte[] applicationIdentifier, byte keyNumber);
+}
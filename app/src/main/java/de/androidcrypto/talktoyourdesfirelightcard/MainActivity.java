@@ -200,6 +200,12 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     private DesfireLight desfireLight;
     private boolean isDesfireLight = false;
 
+    // all tag operations run on the card thread, the UI updates are collected and run in one pass on the UI thread
+    private final CardExecutor cardExecutor = new CardExecutor();
+    private final UiUpdateQueue uiUpdateQueue = new UiUpdateQueue(this::runOnUiThread);
+    // mirrors the state of swAuthenticateEv2First, the switch is read on the card thread
+    private volatile boolean isAuthenticateEv2FirstSwitchOn = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -240,6 +246,7 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         // authenticate workflow
         llSectionAuthentication = findViewById(R.id.llSectionAuthentication);
         swAuthenticateEv2First = findViewById(R.id.swAuthenticationEv2First);
+        swAuthenticateEv2First.setOnCheckedChangeListener((buttonView, isChecked) -> isAuthenticateEv2FirstSwitchOn = isChecked);
         authM0D = findViewById(R.id.btnAuthM0D);
         authM0C = findViewById(R.id.btnAuthM0C);
         authA0DLeg = findViewById(R.id.btnAuthA0DLeg);
@@ -290,191 +297,203 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         applicationSelect.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "select an application";
-                writeToUiAppend(output, logString);
-                if (!isDesfireEv3Available()) return;
-
-                isFileListRead = false; // invalidates the data
-
-                // select the Application
-                boolean success = desfireLight.selectApplicationIsoByDfName(DesfireLight.APPLICATION_DF_NAME_DEFAULT);
-                byte[] errorCodeDf = desfireLight.getErrorCode();
-                String errorCodeReason = desfireLight.getErrorCodeReason();
-                if (!success) {
-                    writeToUiAppend(output, "cannot select Master Application, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(errorCodeDf), COLOR_RED);
-                    return;
-                }
-                selectedApplicationId = DesfireLight.APPLICATION_DF_NAME_DEFAULT.clone();
-                applicationSelected.setText(Utils.bytesToHexNpe(selectedApplicationId));
-                writeToUiAppend(output, "selected application DF Name: " + Utils.bytesToHexNpe(selectedApplicationId));
-                writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                byte[] fci = desfireLight.getFILE_CONTROL_INFORMATION();
-                if ((fci != null) && (fci.length > 2)) {
-                    writeToUiAppend(output, printData("file control information", fci));
-                    writeToUiAppend(output, "fci:" + new String(fci, StandardCharsets.UTF_8));
-                }
+                runOnCardThread("applicationSelect", () -> {
+                    clearOutputFields();
+                    String logString = "select an application";
+                    writeToUiAppend(output, logString);
+                    if (!isDesfireEv3Available()) return;
+
+                    isFileListRead = false; // invalidates the data
+
+                    // select the Application
+                    boolean success = desfireLight.selectApplicationIsoByDfName(DesfireLight.APPLICATION_DF_NAME_DEFAULT);
+                    byte[] errorCodeDf = desfireLight.getErrorCode();
+                    String errorCodeReason = desfireLight.getErrorCodeReason();
+                    if (!success) {
+                        writeToUiAppend(output, "cannot select Master Application, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(errorCodeDf), COLOR_RED);
+                        return;
+                    }
+                    selectedApplicationId = DesfireLight.APPLICATION_DF_NAME_DEFAULT.clone();
+                    String selectedApplicationIdString = Utils.bytesToHexNpe(selectedApplicationId);
+                    postUiUpdate(() -> applicationSelected.setText(selectedApplicationIdString));
+                    writeToUiAppend(output, "selected application DF Name: " + Utils.bytesToHexNpe(selectedApplicationId));
+                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                    byte[] fci = desfireLight.getFILE_CONTROL_INFORMATION();
+                    if ((fci != null) && (fci.length > 2)) {
+                        writeToUiAppend(output, printData("file control information", fci));
+                        writeToUiAppend(output, "fci:" + new String(fci, StandardCharsets.UTF_8));
+                    }
+                });
             }
          });
 
         fileSelect.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "select a file";
-                writeToUiAppend(output, logString);
-                if (!isDesfireEv3Available()) return;
-
-                if (selectedApplicationId == null) {
-                    writeToUiAppend(output, "You need to select an application first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-
-                // on application selection the file ids where read from the application, together with the file settings
-                // if we already got this information this steps are skipped
-                if (!isFileListRead) {
-                    Log.d(TAG, "getAllFileIds and allFileSettings");
-                    allFileIds = desfireLight.getAllFileIds();
-                    allFileSettings = desfireLight.getAllFileSettings();
-                    byte[] responseCode = desfireLight.getErrorCode();
-                    if ((allFileIds == null) || (allFileIds.length == 0)) {
-                        writeToUiAppend(output, "no file IDs found, aborted");
+                runOnCardThread("fileSelect", () -> {
+                    clearOutputFields();
+                    String logString = "select a file";
+                    writeToUiAppend(output, logString);
+                    if (!isDesfireEv3Available()) return;
+
+                    if (selectedApplicationId == null) {
+                        writeToUiAppend(output, "You need to select an application first, aborted");
                         writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
                         return;
                     }
-                    if ((allFileSettings == null) || (allFileSettings.length == 0)) {
-                        writeToUiAppend(output, "no file settings found, aborted");
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                        return;
+
+                    // on application selection the file ids where read from the application, together with the file settings
+                    // if we already got this information this steps are skipped
+                    if (!isFileListRead) {
+                        Log.d(TAG, "getAllFileIds and allFileSettings");
+                        allFileIds = desfireLight.getAllFileIds();
+                        allFileSettings = desfireLight.getAllFileSettings();
+                        byte[] responseCode = desfireLight.getErrorCode();
+                        if ((allFileIds == null) || (allFileIds.length == 0)) {
+                            writeToUiAppend(output, "no file IDs found, aborted");
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                            return;
+                        }
+                        if ((allFileSettings == null) || (allFileSettings.length == 0)) {
+                            writeToUiAppend(output, "no file settings found, aborted");
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                            return;
+                        }
+                        isFileListRead = true;
+                        isTransactionMacFilePresent = desfireLight.isTransactionMacFilePresent();
+                        isCommitReaderIdEnabled = desfireLight.isTransactionMacCommitReaderId();
+                    } else {
+                        Log.d(TAG, "getAllFileIds and allFileSettings SKIPPED");
                     }
-                    isFileListRead = true;
-                    isTransactionMacFilePresent = desfireLight.isTransactionMacFilePresent();
-                    isCommitReaderIdEnabled = desfireLight.isTransactionMacCommitReaderId();
-                } else {
-                    Log.d(TAG, "getAllFileIds and allFileSettings SKIPPED");
-                }
 
-                String[] fileList = new String[allFileIds.length];
-                for (int i = 0; i < allFileIds.length; i++) {
-                    // get the file type for each entry
-                    byte fileId = allFileIds[i];
-                    FileSettings fileSettings = allFileSettings[fileId];
-                    //Log.d(TAG, fileSettings.dump());
-                    String fileTypeName = "unknown";
-                    fileTypeName = fileSettings.getFileTypeName();
-                    String communicationMode = fileSettings.getCommunicationSettingsName();
-                    fileList[i] = String.valueOf(fileId) + " (" + fileTypeName + "|" + communicationMode + ")";
-                }
+                    String[] fileList = new String[allFileIds.length];
+                    for (int i = 0; i < allFileIds.length; i++) {
+                        // get the file type for each entry
+                        byte fileId = allFileIds[i];
+                        FileSettings fileSettings = allFileSettings[fileId];
+                        //Log.d(TAG, fileSettings.dump());
+                        String fileTypeName = "unknown";
+                        fileTypeName = fileSettings.getFileTypeName();
+                        String communicationMode = fileSettings.getCommunicationSettingsName();
+                        fileList[i] = String.valueOf(fileId) + " (" + fileTypeName + "|" + communicationMode + ")";
+                    }
 
 
-                // setup the alert builder
-                AlertDialog.Builder builder = new AlertDialog.Builder(view.getContext());
-                builder.setTitle("Choose a file");
+                    // the dialog is shown on the UI thread
+                    postUiUpdate(() -> {
+                        // setup the alert builder
+                        AlertDialog.Builder builder = new AlertDialog.Builder(view.getContext());
+                        builder.setTitle("Choose a file");
+
+                        FileSettings[] finalAllFileSettings = allFileSettings;
+                        builder.setItems(fileList, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                allLayoutsInvisible();
+                                writeToUiAppend(output, "you  selected nr " + which + " = " + fileList[which]);
+                                selectedFileId = String.valueOf(allFileIds[which]);
+                                // here we are reading the fileSettings
+                                String outputString = fileList[which] + " ";
+                                byte fileIdByte = Byte.parseByte(selectedFileId);
+
+                                byte[] isoFileId = Utils.hexStringToByteArray("EF1F"); // fileNumber 31 use for FCI
+                                // see https://cardwerk.com/smart-card-standard-iso7816-4-section-5-basic-organizations/ point 5.1.5 for more information
+                                runOnCardThread("selectFileIsoByFileId", () -> {
+                                    boolean suc = desfireLight.selectFileIsoByFileId(isoFileId);
+                                    Log.e(TAG, "selectFileIsoByFileId suc: " + suc);
+                                });
+
+                                selectedFileSettings = finalAllFileSettings[fileIdByte];
+                                outputString += "(" + selectedFileSettings.getFileTypeName();
+                                selectedFileSize = selectedFileSettings.getFileSizeInt();
+                                outputString += " size: " + selectedFileSize + ")";
+                                writeToUiAppend(output, outputString);
+                                fileSelected.setText(fileList[which]);
+                                writeToUiAppendBorderColor(errorCode, errorCodeLayout, "file selected", COLOR_GREEN);
+                                selectedFileType = selectedFileSettings.getFileType();
+                                if (selectedFileType == FileSettings.STANDARD_FILE_TYPE) {
+                                    llSectionDataFiles.setVisibility(View.VISIBLE);
+                                }
+                                if (selectedFileType == FileSettings.BACKUP_FILE_TYPE) {
+                                    llSectionDataFiles.setVisibility(View.VISIBLE);
+                                }
+                                if (selectedFileType == FileSettings.VALUE_FILE_TYPE) {
+                                    llSectionValueFiles.setVisibility(View.VISIBLE);
+                                }
+                                if (selectedFileType == FileSettings.LINEAR_RECORD_FILE_TYPE) {
+                                    llSectionRecordFiles.setVisibility(View.VISIBLE);
+                                }
+                                if (selectedFileType == FileSettings.CYCLIC_RECORD_FILE_TYPE) {
+                                    llSectionRecordFiles.setVisibility(View.VISIBLE);
+                                }
+                                llSectionAuthentication.setVisibility(View.VISIBLE);
+                                llSectionFileActions.setVisibility(View.VISIBLE);
 
-                FileSettings[] finalAllFileSettings = allFileSettings;
-                builder.setItems(fileList, new DialogInterface.OnClickListener() {
-                    @Override
-                    public void onClick(DialogInterface dialog, int which) {
-                        allLayoutsInvisible();
-                        writeToUiAppend(output, "you  selected nr " + which + " = " + fileList[which]);
-                        selectedFileId = String.valueOf(allFileIds[which]);
-                        // here we are reading the fileSettings
-                        String outputString = fileList[which] + " ";
-                        byte fileIdByte = Byte.parseByte(selectedFileId);
-
-                        byte[] isoFileId = Utils.hexStringToByteArray("EF1F"); // fileNumber 31 use for FCI
-                        // see https://cardwerk.com/smart-card-standard-iso7816-4-section-5-basic-organizations/ point 5.1.5 for more information
-                        boolean suc = desfireLight.selectFileIsoByFileId(isoFileId);
-                        Log.e(TAG, "selectFileIsoByFileId suc: " + suc);
-
-                        selectedFileSettings = finalAllFileSettings[fileIdByte];
-                        outputString += "(" + selectedFileSettings.getFileTypeName();
-                        selectedFileSize = selectedFileSettings.getFileSizeInt();
-                        outputString += " size: " + selectedFileSize + ")";
-                        writeToUiAppend(output, outputString);
-                        fileSelected.setText(fileList[which]);
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "file selected", COLOR_GREEN);
-                        selectedFileType = selectedFileSettings.getFileType();
-                        if (selectedFileType == FileSettings.STANDARD_FILE_TYPE) {
-                            llSectionDataFiles.setVisibility(View.VISIBLE);
-                        }
-                        if (selectedFileType == FileSettings.BACKUP_FILE_TYPE) {
-                            llSectionDataFiles.setVisibility(View.VISIBLE);
-                        }
-                        if (selectedFileType == FileSettings.VALUE_FILE_TYPE) {
-                            llSectionValueFiles.setVisibility(View.VISIBLE);
-                        }
-                        if (selectedFileType == FileSettings.LINEAR_RECORD_FILE_TYPE) {
-                            llSectionRecordFiles.setVisibility(View.VISIBLE);
-                        }
-                        if (selectedFileType == FileSettings.CYCLIC_RECORD_FILE_TYPE) {
-                            llSectionRecordFiles.setVisibility(View.VISIBLE);
-                        }
-                        llSectionAuthentication.setVisibility(View.VISIBLE);
-                        llSectionFileActions.setVisibility(View.VISIBLE);
+                                if (selectedFileSettings.getCommunicationSettings() == (byte) 0x00) {
+                                    // make a switch visible
+                                    swAuthenticateEv2First.setVisibility(View.VISIBLE);
+                                    swAuthenticateEv2First.setChecked(false);
+                                } else {
+                                    swAuthenticateEv2First.setVisibility(View.GONE);
+                                    swAuthenticateEv2First.setChecked(false);
+                                }
+                                vibrateShort();
+                            }
+                        });
 
-                        if (selectedFileSettings.getCommunicationSettings() == (byte) 0x00) {
-                            // make a switch visible
-                            swAuthenticateEv2First.setVisibility(View.VISIBLE);
-                            swAuthenticateEv2First.setChecked(false);
-                        } else {
-                            swAuthenticateEv2First.setVisibility(View.GONE);
-                            swAuthenticateEv2First.setChecked(false);
+                        // Transaction MAC file is present in this application
+                        if ((isTransactionMacFilePresent) && (isCommitReaderIdEnabled)) {
+                            showDialogWarningCommitReaderId();
                         }
-                        vibrateShort();
-                    }
-                });
-
-                // Transaction MAC file is present in this application
-                if ((isTransactionMacFilePresent) && (isCommitReaderIdEnabled)) {
-                    showDialogWarningCommitReaderId();
-                }
 
-                // create and show the alert dialog
-                AlertDialog dialog = builder.create();
-                dialog.show();
+                        // create and show the alert dialog
+                        AlertDialog dialog = builder.create();
+                        dialog.show();
+                    });
+                });
             }
         });
 
         getFileSettings.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "get file settings";
-                writeToUiAppend(output, logString);
-                if (!isDesfireEv3Available()) return;
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
-                byte[] responseData = new byte[2];
-                byte[] result = desfireAuthenticateLegacy.getFileSettings(fileIdByte);
-                responseData = desfireAuthenticateLegacy.getErrorCode();
-                if (result == null) {
-                    // something gone wrong
-                    writeToUiAppend(output, logString + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkResponseMoreData(responseData)) {
-                        writeToUiAppend(output, "the data I'm receiving is too long to read, sorry");
-                    }
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with the Application Master Key ?");
-                    }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(output, desfireAuthenticateLegacy.getLogData());
-                    return;
-                } else {
-                    writeToUiAppend(output, logString + " ID: " + fileIdByte + printData(" data", result));
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    // get the data in the  FileSettings class
-                    selectedFileSettings = new FileSettings(fileIdByte, result);
-                    writeToUiAppend(output, selectedFileSettings.dump());
-                    vibrateShort();
-                }
+                runOnCardThread("getFileSettings", () -> {
+                    clearOutputFields();
+                    String logString = "get file settings";
+                    writeToUiAppend(output, logString);
+                    if (!isDesfireEv3Available()) return;
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
+                    byte[] responseData = new byte[2];
+                    byte[] result = desfireAuthenticateLegacy.getFileSettings(fileIdByte);
+                    responseData = desfireAuthenticateLegacy.getErrorCode();
+                    if (result == null) {
+                        // something gone wrong
+                        writeToUiAppend(output, logString + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkResponseMoreData(responseData)) {
+                            writeToUiAppend(output, "the data I'm receiving is too long to read, sorry");
+                        }
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with the Application Master Key ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(output, desfireAuthenticateLegacy.getLogData());
+                        return;
+                    } else {
+                        writeToUiAppend(output, logString + " ID: " + fileIdByte + printData(" data", result));
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        // get the data in the  FileSettings class
+                        selectedFileSettings = new FileSettings(fileIdByte, result);
+                        writeToUiAppend(output, selectedFileSettings.dump());
+                        vibrateShort();
+                    }
+                });
             }
         });
 
@@ -485,163 +504,167 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         fileDataRead.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "read from a data file";
-                writeToUiAppend(output, logString);
-                if (!isDesfireEv3Available()) return;
-
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
-                int fileSizeInt = selectedFileSettings.getFileSizeInt();
-
-                // pre-check if fileNumber is existing
-                boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
-                if (!isFileExisting) {
-                    writeToUiAppend(output, logString + " The file does not exist, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
-                    return;
-                }
-
-                byte[] responseData = new byte[2];
-                byte[] result = desfireLight.readFromADataFile(fileIdByte, 0, fileSizeInt);
-                responseData = desfireLight.getErrorCode();
-                if (result == null) {
-                    // something gone wrong
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkResponseMoreData(responseData)) {
-                        writeToUiAppend(output, "the file is too long to read, sorry");
+                runOnCardThread("fileDataRead", () -> {
+                    clearOutputFields();
+                    String logString = "read from a data file";
+                    writeToUiAppend(output, logString);
+                    if (!isDesfireEv3Available()) return;
+
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
                     }
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a READ ACCESS KEY ?");
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
+                    int fileSizeInt = selectedFileSettings.getFileSizeInt();
+
+                    // pre-check if fileNumber is existing
+                    boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
+                    if (!isFileExisting) {
+                        writeToUiAppend(output, logString + " The file does not exist, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber: " + fileIdByte + printData(" data", result));
-                    writeToUiAppend(output, logString + " fileNumber: " + fileIdByte + " data: \n" + new String(result, StandardCharsets.UTF_8));
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                }
+
+                    byte[] responseData = new byte[2];
+                    byte[] result = desfireLight.readFromADataFile(fileIdByte, 0, fileSizeInt);
+                    responseData = desfireLight.getErrorCode();
+                    if (result == null) {
+                        // something gone wrong
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkResponseMoreData(responseData)) {
+                            writeToUiAppend(output, "the file is too long to read, sorry");
+                        }
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a READ ACCESS KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber: " + fileIdByte + printData(" data", result));
+                        writeToUiAppend(output, logString + " fileNumber: " + fileIdByte + " data: \n" + new String(result, StandardCharsets.UTF_8));
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                    }
+                });
             }
         });
 
         fileDataWrite.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "write to a data file";
-                writeToUiAppend(output, logString);
-                if (!isDesfireEv3Available()) return;
-
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
-                int fileSizeInt = selectedFileSettings.getFileSizeInt();
-
-                // pre-check if fileNumber is existing
-                boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
-                if (!isFileExisting) {
-                    writeToUiAppend(output, logString + " The file does not exist, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
-                    return;
-                }
+                runOnCardThread("fileDataWrite", () -> {
+                    clearOutputFields();
+                    String logString = "write to a data file";
+                    writeToUiAppend(output, logString);
+                    if (!isDesfireEv3Available()) return;
+
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
+                    int fileSizeInt = selectedFileSettings.getFileSizeInt();
+
+                    // pre-check if fileNumber is existing
+                    boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
+                    if (!isFileExisting) {
+                        writeToUiAppend(output, logString + " The file does not exist, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
+                        return;
+                    }
 
-                // we are going to write a timestamp to the file, filled up with testData
-                byte[] fullDataToWrite = new byte[fileSizeInt];
-                String dataToWrite = Utils.getTimestamp();
-                byte[] dataToWriteBytes = dataToWrite.getBytes(StandardCharsets.UTF_8);
-                if (dataToWriteBytes.length >= fileSizeInt) {
-                    // if the file is smaller than the timestamp we do write only parts of the timestamp
-                    System.arraycopy(dataToWriteBytes, 0, fullDataToWrite, 0, fileSizeInt);
-                } else {
-                    System.arraycopy(dataToWriteBytes, 0, fullDataToWrite, 0, dataToWriteBytes.length);
-                    // now filling up the fullData with testData
-                    byte[] testData = Utils.generateTestData(fileSizeInt - dataToWriteBytes.length);
-                    System.arraycopy(testData, 0, fullDataToWrite, dataToWriteBytes.length, testData.length);
-                }
+                    // we are going to write a timestamp to the file, filled up with testData
+                    byte[] fullDataToWrite = new byte[fileSizeInt];
+                    String dataToWrite = Utils.getTimestamp();
+                    byte[] dataToWriteBytes = dataToWrite.getBytes(StandardCharsets.UTF_8);
+                    if (dataToWriteBytes.length >= fileSizeInt) {
+                        // if the file is smaller than the timestamp we do write only parts of the timestamp
+                        System.arraycopy(dataToWriteBytes, 0, fullDataToWrite, 0, fileSizeInt);
+                    } else {
+                        System.arraycopy(dataToWriteBytes, 0, fullDataToWrite, 0, dataToWriteBytes.length);
+                        // now filling up the fullData with testData
+                        byte[] testData = Utils.generateTestData(fileSizeInt - dataToWriteBytes.length);
+                        System.arraycopy(testData, 0, fullDataToWrite, dataToWriteBytes.length, testData.length);
+                    }
 
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.writeToADataFile(fileIdByte, 0, fullDataToWrite);
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.writeToADataFile(fileIdByte, 0, fullDataToWrite);
 
-                responseData = desfireLight.getErrorCode();
+                    responseData = desfireLight.getErrorCode();
 
-                if (success) {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                    if (success) {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
-                if (selectedFileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) {
-                    vibrateShort();
-                }
-                ;
-
-                if (selectedFileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE) {
-                    // it is a Backup file where we need to submit a commit command to confirm the write
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is a Backup file, run COMMIT");
-                    byte commMode = selectedFileSettings.getCommunicationSettings();
-                    if (commMode == (byte) 0x00) {
-                        // Plain
-                        // this fails when a Transaction MAC file with enabled Commit ReaderId option is existent
-                        success = desfireLight.commitTransactionPlain();
-                    }
-                    if ((commMode == (byte) 0x01) || (commMode == (byte) 0x03)) {
-                        // MACed or Full enciphered
-                        if (desfireLight.isTransactionMacFilePresent()) {
-                            if (desfireLight.isTransactionMacCommitReaderId()) {
-                                // this  is hardcoded when working with TransactionMAC files AND enabled CommitReaderId feature
-                                writeToUiAppend(output, "A TransactionMAC file is present with ENABLED CommitReaderId");
-                                success = desfireLight.commitTransactionFull(true);
+                    if (selectedFileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) {
+                        vibrateShort();
+                    }
+                    ;
+
+                    if (selectedFileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE) {
+                        // it is a Backup file where we need to submit a commit command to confirm the write
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is a Backup file, run COMMIT");
+                        byte commMode = selectedFileSettings.getCommunicationSettings();
+                        if (commMode == (byte) 0x00) {
+                            // Plain
+                            // this fails when a Transaction MAC file with enabled Commit ReaderId option is existent
+                            success = desfireLight.commitTransactionPlain();
+                        }
+                        if ((commMode == (byte) 0x01) || (commMode == (byte) 0x03)) {
+                            // MACed or Full enciphered
+                            if (desfireLight.isTransactionMacFilePresent()) {
+                                if (desfireLight.isTransactionMacCommitReaderId()) {
+                                    // this  is hardcoded when working with TransactionMAC files AND enabled CommitReaderId feature
+                                    writeToUiAppend(output, "A TransactionMAC file is present with ENABLED CommitReaderId");
+                                    success = desfireLight.commitTransactionFull(true);
+                                } else {
+                                    writeToUiAppend(output, "A TransactionMAC file is present with DISABLED CommitReaderId");
+                                    success = desfireLight.commitTransactionFullReturnTmv();
+                                }
                             } else {
-                                writeToUiAppend(output, "A TransactionMAC file is present with DISABLED CommitReaderId");
-                                success = desfireLight.commitTransactionFullReturnTmv();
+                                // no transaction mac file is present
+                                writeToUiAppend(output, "A TransactionMAC file is NOT present, running regular commitTransaction");
+                                success = desfireLight.commitTransactionWithoutTmacFull();
+                                Log.d(TAG, desfireLight.getLogData());
                             }
-                        } else {
-                            // no transaction mac file is present
-                            writeToUiAppend(output, "A TransactionMAC file is NOT present, running regular commitTransaction");
-                            success = desfireLight.commitTransactionWithoutTmacFull();
-                            Log.d(TAG, desfireLight.getLogData());
                         }
-                    }
 
-                    responseData = desfireLight.getErrorCode();
-                    if (success) {
-                        writeToUiAppend(output, "data is written to Backup file number " + fileIdByte);
-                        // return the Transaction MAC counter and value
-                        if (isTransactionMacFilePresent) {
-                            byte[] returnedTmacCV = desfireLight.getTransactionMacFileReturnedTmcv();
-                            writeToUiAppend(output, printData("returned TMAC counter and value", returnedTmacCV));
-                            if ((returnedTmacCV != null) && (returnedTmacCV.length == 12)) {
-                                byte[] tmc = Arrays.copyOfRange(returnedTmacCV, 0, 4);
-                                byte[] tmacEnc = Arrays.copyOfRange(returnedTmacCV, 4, 12);
-                                int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
-                                writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                        responseData = desfireLight.getErrorCode();
+                        if (success) {
+                            writeToUiAppend(output, "data is written to Backup file number " + fileIdByte);
+                            // return the Transaction MAC counter and value
+                            if (isTransactionMacFilePresent) {
+                                byte[] returnedTmacCV = desfireLight.getTransactionMacFileReturnedTmcv();
+                                writeToUiAppend(output, printData("returned TMAC counter and value", returnedTmacCV));
+                                if ((returnedTmacCV != null) && (returnedTmacCV.length == 12)) {
+                                    byte[] tmc = Arrays.copyOfRange(returnedTmacCV, 0, 4);
+                                    byte[] tmacEnc = Arrays.copyOfRange(returnedTmacCV, 4, 12);
+                                    int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
+                                    writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                                }
                             }
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit SUCCESS", COLOR_GREEN);
+                            vibrateShort();
+                        } else {
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit" + " FAILURE with error code: " + EV3.getErrorCode(responseData), COLOR_RED);
+                            writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                            return;
                         }
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit SUCCESS", COLOR_GREEN);
-                        vibrateShort();
-                    } else {
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit" + " FAILURE with error code: " + EV3.getErrorCode(responseData), COLOR_RED);
-                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                        return;
                     }
-                }
+                });
             }
         });
 
@@ -652,244 +675,250 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         fileValueRead.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "fileValueRead";
-                writeToUiAppend(output, logString);
+                runOnCardThread("fileValueRead", () -> {
+                    clearOutputFields();
+                    String logString = "fileValueRead";
+                    writeToUiAppend(output, logString);
 
-                if (!isDesfireEv3Available()) return;
+                    if (!isDesfireEv3Available()) return;
 
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
 
-                // pre-check if fileNumber is existing
-                boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
-                if (!isFileExisting) {
-                    writeToUiAppend(output, logString + " The file does not exist, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
-                    return;
-                }
+                    // pre-check if fileNumber is existing
+                    boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
+                    if (!isFileExisting) {
+                        writeToUiAppend(output, logString + " The file does not exist, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
+                        return;
+                    }
 
-                byte[] responseData = new byte[2];
-                int result = desfireLight.readFromAValueFile(fileIdByte);
-                responseData = desfireLight.getErrorCode();
-                if (result < 0) {
-                    // something gone wrong
-                    writeToUiAppend(output, logString + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a READ ACCESS KEY ?");
+                    byte[] responseData = new byte[2];
+                    int result = desfireLight.readFromAValueFile(fileIdByte);
+                    responseData = desfireLight.getErrorCode();
+                    if (result < 0) {
+                        // something gone wrong
+                        writeToUiAppend(output, logString + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a READ ACCESS KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        return;
+                    } else {
+                        writeToUiAppend(output, logString + " ID: " + fileIdByte + " value: " + result);
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    return;
-                } else {
-                    writeToUiAppend(output, logString + " ID: " + fileIdByte + " value: " + result);
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                }
+                });
             }
         });
 
         fileValueCredit.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "fileValueCredit";
-                writeToUiAppend(output, logString);
+                runOnCardThread("fileValueCredit", () -> {
+                    clearOutputFields();
+                    String logString = "fileValueCredit";
+                    writeToUiAppend(output, logString);
 
-                if (!isDesfireEv3Available()) return;
+                    if (!isDesfireEv3Available()) return;
 
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
 
-                // pre-check if fileNumber is existing
-                boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
-                if (!isFileExisting) {
-                    writeToUiAppend(output, logString + " The file does not exist, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
-                    return;
-                }
-                int creditValueChange = 123; // fixed for demonstration
-                writeToUiAppend(output, "CREDIT the value by " + creditValueChange + " units");
-
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.changeAValueFile(fileIdByte, creditValueChange, true);
-                responseData = desfireLight.getErrorCode();
-                if (success) {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                    // pre-check if fileNumber is existing
+                    boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
+                    if (!isFileExisting) {
+                        writeToUiAppend(output, logString + " The file does not exist, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
+                        return;
                     }
-                    if (checkBoundaryError(responseData)) {
-                        writeToUiAppend(output, "as we received a Boundary Error - did you try to CREDIT upper of MAXIMUM LIMIT ?");
-                        writeToUiAppend(output, "Note: you need to AUTHENTICATE again when trying to access the Value file again !");
+                    int creditValueChange = 123; // fixed for demonstration
+                    writeToUiAppend(output, "CREDIT the value by " + creditValueChange + " units");
+
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.changeAValueFile(fileIdByte, creditValueChange, true);
+                    responseData = desfireLight.getErrorCode();
+                    if (success) {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                        }
+                        if (checkBoundaryError(responseData)) {
+                            writeToUiAppend(output, "as we received a Boundary Error - did you try to CREDIT upper of MAXIMUM LIMIT ?");
+                            writeToUiAppend(output, "Note: you need to AUTHENTICATE again when trying to access the Value file again !");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
 
-                if (selectedFileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
-                    // it is a Value file where we need to submit a commit command to confirm the write
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is a Value file, run COMMIT");
-                    byte commMode = selectedFileSettings.getCommunicationSettings();
-                    if (commMode == (byte) 0x00) {
-                        // Plain
-                        // this fails when a Transaction MAC file with enabled Commit ReaderId option is existent
-                        success = desfireLight.commitTransactionPlain();
-                    }
-                    if ((commMode == (byte) 0x01) || (commMode == (byte) 0x03)) {
-                        // MACed or Full enciphered
-                        if (desfireLight.isTransactionMacFilePresent()) {
-                            if (desfireLight.isTransactionMacCommitReaderId()) {
-                                // this  is hardcoded when working with TransactionMAC files AND enabled CommitReaderId feature
-                                writeToUiAppend(output, "A TransactionMAC file is present with ENABLED CommitReaderId");
-                                success = desfireLight.commitTransactionFull(true);
+                    if (selectedFileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
+                        // it is a Value file where we need to submit a commit command to confirm the write
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is a Value file, run COMMIT");
+                        byte commMode = selectedFileSettings.getCommunicationSettings();
+                        if (commMode == (byte) 0x00) {
+                            // Plain
+                            // this fails when a Transaction MAC file with enabled Commit ReaderId option is existent
+                            success = desfireLight.commitTransactionPlain();
+                        }
+                        if ((commMode == (byte) 0x01) || (commMode == (byte) 0x03)) {
+                            // MACed or Full enciphered
+                            if (desfireLight.isTransactionMacFilePresent()) {
+                                if (desfireLight.isTransactionMacCommitReaderId()) {
+                                    // this  is hardcoded when working with TransactionMAC files AND enabled CommitReaderId feature
+                                    writeToUiAppend(output, "A TransactionMAC file is present with ENABLED CommitReaderId");
+                                    success = desfireLight.commitTransactionFull(true);
+                                } else {
+                                    writeToUiAppend(output, "A TransactionMAC file is present with DISABLED CommitReaderId");
+                                    success = desfireLight.commitTransactionFullReturnTmv();
+                                }
                             } else {
-                                writeToUiAppend(output, "A TransactionMAC file is present with DISABLED CommitReaderId");
-                                success = desfireLight.commitTransactionFullReturnTmv();
+                                // no transaction mac file is present
+                                writeToUiAppend(output, "A TransactionMAC file is NOT present, running regular commitTransaction");
+                                success = desfireLight.commitTransactionWithoutTmacFull();
+                                Log.d(TAG, desfireLight.getLogData());
                             }
-                        } else {
-                            // no transaction mac file is present
-                            writeToUiAppend(output, "A TransactionMAC file is NOT present, running regular commitTransaction");
-                            success = desfireLight.commitTransactionWithoutTmacFull();
-                            Log.d(TAG, desfireLight.getLogData());
                         }
-                    }
 
-                    responseData = desfireLight.getErrorCode();
-                    if (success) {
-                        writeToUiAppend(output, "data is written to Value file number " + fileIdByte);
-                        // return the Transaction MAC counter and value
-                        if (isTransactionMacFilePresent) {
-                            byte[] returnedTmacCV = desfireLight.getTransactionMacFileReturnedTmcv();
-                            writeToUiAppend(output, printData("returned TMAC counter and value", returnedTmacCV));
-                            if ((returnedTmacCV != null) && (returnedTmacCV.length == 12)) {
-                                byte[] tmc = Arrays.copyOfRange(returnedTmacCV, 0, 4);
-                                byte[] tmacEnc = Arrays.copyOfRange(returnedTmacCV, 4, 12);
-                                int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
-                                writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                        responseData = desfireLight.getErrorCode();
+                        if (success) {
+                            writeToUiAppend(output, "data is written to Value file number " + fileIdByte);
+                            // return the Transaction MAC counter and value
+                            if (isTransactionMacFilePresent) {
+                                byte[] returnedTmacCV = desfireLight.getTransactionMacFileReturnedTmcv();
+                                writeToUiAppend(output, printData("returned TMAC counter and value", returnedTmacCV));
+                                if ((returnedTmacCV != null) && (returnedTmacCV.length == 12)) {
+                                    byte[] tmc = Arrays.copyOfRange(returnedTmacCV, 0, 4);
+                                    byte[] tmacEnc = Arrays.copyOfRange(returnedTmacCV, 4, 12);
+                                    int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
+                                    writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                                }
                             }
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit SUCCESS", COLOR_GREEN);
+                            vibrateShort();
+                        } else {
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit" + " FAILURE with error code: " + EV3.getErrorCode(responseData), COLOR_RED);
+                            writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                            return;
                         }
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit SUCCESS", COLOR_GREEN);
-                        vibrateShort();
-                    } else {
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit" + " FAILURE with error code: " + EV3.getErrorCode(responseData), COLOR_RED);
-                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                        return;
                     }
-                }
+                });
             }
         });
 
         fileValueDebit.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "fileValueDebit";
-                writeToUiAppend(output, logString);
+                runOnCardThread("fileValueDebit", () -> {
+                    clearOutputFields();
+                    String logString = "fileValueDebit";
+                    writeToUiAppend(output, logString);
 
-                if (!isDesfireEv3Available()) return;
+                    if (!isDesfireEv3Available()) return;
 
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
 
-                // pre-check if fileNumber is existing
-                boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
-                if (!isFileExisting) {
-                    writeToUiAppend(output, logString + " The file does not exist, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
-                    return;
-                }
-                int creditValueChange = 111; // fixed for demonstration
-                writeToUiAppend(output, "DEBIT the value by " + creditValueChange + " units");
-
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.changeAValueFile(fileIdByte, creditValueChange, false);
-                responseData = desfireLight.getErrorCode();
-                if (success) {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                    // pre-check if fileNumber is existing
+                    boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
+                    if (!isFileExisting) {
+                        writeToUiAppend(output, logString + " The file does not exist, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
+                        return;
                     }
-                    if (checkBoundaryError(responseData)) {
-                        writeToUiAppend(output, "as we received a Boundary Error - did you try to DEBIT below MINIMUM LIMIT ?");
-                        writeToUiAppend(output, "Note: you need to authenticate again when trying to access the Value file again !");
+                    int creditValueChange = 111; // fixed for demonstration
+                    writeToUiAppend(output, "DEBIT the value by " + creditValueChange + " units");
+
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.changeAValueFile(fileIdByte, creditValueChange, false);
+                    responseData = desfireLight.getErrorCode();
+                    if (success) {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                        }
+                        if (checkBoundaryError(responseData)) {
+                            writeToUiAppend(output, "as we received a Boundary Error - did you try to DEBIT below MINIMUM LIMIT ?");
+                            writeToUiAppend(output, "Note: you need to authenticate again when trying to access the Value file again !");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
 
-                if (selectedFileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
-                    // it is a Value file where we need to submit a commit command to confirm the write
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is a Value file, run COMMIT");
-                    byte commMode = selectedFileSettings.getCommunicationSettings();
-                    if (commMode == (byte) 0x00) {
-                        // Plain
-                        // this fails when a Transaction MAC file with enabled Commit ReaderId option is existent
-                        success = desfireLight.commitTransactionPlain();
-                    }
-                    if ((commMode == (byte) 0x01) || (commMode == (byte) 0x03)) {
-                        // MACed or Full enciphered
-                        if (desfireLight.isTransactionMacFilePresent()) {
-                            if (desfireLight.isTransactionMacCommitReaderId()) {
-                                // this  is hardcoded when working with TransactionMAC files AND enabled CommitReaderId feature
-                                writeToUiAppend(output, "A TransactionMAC file is present with ENABLED CommitReaderId");
-                                success = desfireLight.commitTransactionFull(true);
+                    if (selectedFileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
+                        // it is a Value file where we need to submit a commit command to confirm the write
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is a Value file, run COMMIT");
+                        byte commMode = selectedFileSettings.getCommunicationSettings();
+                        if (commMode == (byte) 0x00) {
+                            // Plain
+                            // this fails when a Transaction MAC file with enabled Commit ReaderId option is existent
+                            success = desfireLight.commitTransactionPlain();
+                        }
+                        if ((commMode == (byte) 0x01) || (commMode == (byte) 0x03)) {
+                            // MACed or Full enciphered
+                            if (desfireLight.isTransactionMacFilePresent()) {
+                                if (desfireLight.isTransactionMacCommitReaderId()) {
+                                    // this  is hardcoded when working with TransactionMAC files AND enabled CommitReaderId feature
+                                    writeToUiAppend(output, "A TransactionMAC file is present with ENABLED CommitReaderId");
+                                    success = desfireLight.commitTransactionFull(true);
+                                } else {
+                                    writeToUiAppend(output, "A TransactionMAC file is present with DISABLED CommitReaderId");
+                                    success = desfireLight.commitTransactionFullReturnTmv();
+                                }
                             } else {
-                                writeToUiAppend(output, "A TransactionMAC file is present with DISABLED CommitReaderId");
-                                success = desfireLight.commitTransactionFullReturnTmv();
+                                // no transaction mac file is present
+                                writeToUiAppend(output, "A TransactionMAC file is NOT present, running regular commitTransaction");
+                                success = desfireLight.commitTransactionWithoutTmacFull();
+                                Log.d(TAG, desfireLight.getLogData());
                             }
-                        } else {
-                            // no transaction mac file is present
-                            writeToUiAppend(output, "A TransactionMAC file is NOT present, running regular commitTransaction");
-                            success = desfireLight.commitTransactionWithoutTmacFull();
-                            Log.d(TAG, desfireLight.getLogData());
                         }
-                    }
 
-                    responseData = desfireLight.getErrorCode();
-                    if (success) {
-                        writeToUiAppend(output, "data is written to Value file number " + fileIdByte);
-                        // return the Transaction MAC counter and value
-                        if (isTransactionMacFilePresent) {
-                            byte[] returnedTmacCV = desfireLight.getTransactionMacFileReturnedTmcv();
-                            writeToUiAppend(output, printData("returned TMAC counter and value", returnedTmacCV));
-                            if ((returnedTmacCV != null) && (returnedTmacCV.length == 12)) {
-                                byte[] tmc = Arrays.copyOfRange(returnedTmacCV, 0, 4);
-                                byte[] tmacEnc = Arrays.copyOfRange(returnedTmacCV, 4, 12);
-                                int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
-                                writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                        responseData = desfireLight.getErrorCode();
+                        if (success) {
+                            writeToUiAppend(output, "data is written to Value file number " + fileIdByte);
+                            // return the Transaction MAC counter and value
+                            if (isTransactionMacFilePresent) {
+                                byte[] returnedTmacCV = desfireLight.getTransactionMacFileReturnedTmcv();
+                                writeToUiAppend(output, printData("returned TMAC counter and value", returnedTmacCV));
+                                if ((returnedTmacCV != null) && (returnedTmacCV.length == 12)) {
+                                    byte[] tmc = Arrays.copyOfRange(returnedTmacCV, 0, 4);
+                                    byte[] tmacEnc = Arrays.copyOfRange(returnedTmacCV, 4, 12);
+                                    int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
+                                    writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                                }
                             }
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit SUCCESS", COLOR_GREEN);
+                            vibrateShort();
+                        } else {
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit" + " FAILURE with error code: " + EV3.getErrorCode(responseData), COLOR_RED);
+                            writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                            return;
                         }
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit SUCCESS", COLOR_GREEN);
-                        vibrateShort();
-                    } else {
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit" + " FAILURE with error code: " + EV3.getErrorCode(responseData), COLOR_RED);
-                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                        return;
                     }
-                }
+                });
             }
         });
 
@@ -900,167 +929,171 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         fileRecordRead.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "read from a record file";
-                writeToUiAppend(output, logString);
-                if (!isDesfireEv3Available()) return;
-
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
-                int fileSizeInt = selectedFileSettings.getRecordSizeInt();
-
-                // pre-check if fileNumber is existing
-                boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
-                if (!isFileExisting) {
-                    writeToUiAppend(output, logString + " The file does not exist, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
-                    return;
-                }
-
-                byte[] responseData = new byte[2];
-                //byte[] result = desfireLight.readFromARecordFile(fileIdByte, 0, fileSizeInt);
-                byte[] result = desfireLight.readFromARecordFile(fileIdByte, 0, 0);
-                responseData = desfireLight.getErrorCode();
-                if (result == null) {
-                    // something gone wrong
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkResponseMoreData(responseData)) {
-                        writeToUiAppend(output, "the file is too long to read, sorry");
-                    }
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a READ ACCESS KEY ?");
+                runOnCardThread("fileRecordRead", () -> {
+                    clearOutputFields();
+                    String logString = "read from a record file";
+                    writeToUiAppend(output, logString);
+                    if (!isDesfireEv3Available()) return;
+
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
                     }
-                    if (checkBoundaryError(responseData)) {
-                        writeToUiAppend(output, "as we received a Boundary Error - there might be NO records to read");
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
+                    int fileSizeInt = selectedFileSettings.getRecordSizeInt();
+
+                    // pre-check if fileNumber is existing
+                    boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
+                    if (!isFileExisting) {
+                        writeToUiAppend(output, logString + " The file does not exist, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                } else {
-                    // split the records
-                    List<byte[]> recordList = divideArrayToList(result, selectedFileSettings.getRecordSizeInt());
-                    for (int i = 0; i < recordList.size(); i++) {
-                        writeToUiAppend(output, logString + " fileNumber: " + fileIdByte + " record: " + i + "\n");
-                        writeToUiAppend(output, printData("\ndata", recordList.get(i)));
-                        writeToUiAppend(output, "data: \n" + new String(recordList.get(i), StandardCharsets.UTF_8));
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+
+                    byte[] responseData = new byte[2];
+                    //byte[] result = desfireLight.readFromARecordFile(fileIdByte, 0, fileSizeInt);
+                    byte[] result = desfireLight.readFromARecordFile(fileIdByte, 0, 0);
+                    responseData = desfireLight.getErrorCode();
+                    if (result == null) {
+                        // something gone wrong
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkResponseMoreData(responseData)) {
+                            writeToUiAppend(output, "the file is too long to read, sorry");
+                        }
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a READ ACCESS KEY ?");
+                        }
+                        if (checkBoundaryError(responseData)) {
+                            writeToUiAppend(output, "as we received a Boundary Error - there might be NO records to read");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
+                    } else {
+                        // split the records
+                        List<byte[]> recordList = divideArrayToList(result, selectedFileSettings.getRecordSizeInt());
+                        for (int i = 0; i < recordList.size(); i++) {
+                            writeToUiAppend(output, logString + " fileNumber: " + fileIdByte + " record: " + i + "\n");
+                            writeToUiAppend(output, printData("\ndata", recordList.get(i)));
+                            writeToUiAppend(output, "data: \n" + new String(recordList.get(i), StandardCharsets.UTF_8));
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        }
+                        vibrateShort();
                     }
-                    vibrateShort();
-                }
+                });
             }
         });
 
         fileRecordWrite.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "write to a record file";
-                writeToUiAppend(output, logString);
-                if (!isDesfireEv3Available()) return;
-
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
-                int fileSizeInt = selectedFileSettings.getRecordSizeInt();
-
-                // pre-check if fileNumber is existing
-                boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
-                if (!isFileExisting) {
-                    writeToUiAppend(output, logString + " The file does not exist, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
-                    return;
-                }
+                runOnCardThread("fileRecordWrite", () -> {
+                    clearOutputFields();
+                    String logString = "write to a record file";
+                    writeToUiAppend(output, logString);
+                    if (!isDesfireEv3Available()) return;
+
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
+                    int fileSizeInt = selectedFileSettings.getRecordSizeInt();
+
+                    // pre-check if fileNumber is existing
+                    boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
+                    if (!isFileExisting) {
+                        writeToUiAppend(output, logString + " The file does not exist, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
+                        return;
+                    }
 
-                // we are going to write a timestamp to the file, filled up with testData
-                byte[] fullDataToWrite = new byte[fileSizeInt];
-                String dataToWrite = Utils.getTimestamp();
-                byte[] dataToWriteBytes = dataToWrite.getBytes(StandardCharsets.UTF_8);
-                if (dataToWriteBytes.length >= fileSizeInt) {
-                    // if the file is smaller than the timestamp we do write only parts of the timestamp
-                    System.arraycopy(dataToWriteBytes, 0, fullDataToWrite, 0, fileSizeInt);
-                } else {
-                    System.arraycopy(dataToWriteBytes, 0, fullDataToWrite, 0, dataToWriteBytes.length);
-                    // now filling up the fullData with testData
-                    byte[] testData = Utils.generateTestData(fileSizeInt - dataToWriteBytes.length);
-                    System.arraycopy(testData, 0, fullDataToWrite, dataToWriteBytes.length, testData.length);
-                }
+                    // we are going to write a timestamp to the file, filled up with testData
+                    byte[] fullDataToWrite = new byte[fileSizeInt];
+                    String dataToWrite = Utils.getTimestamp();
+                    byte[] dataToWriteBytes = dataToWrite.getBytes(StandardCharsets.UTF_8);
+                    if (dataToWriteBytes.length >= fileSizeInt) {
+                        // if the file is smaller than the timestamp we do write only parts of the timestamp
+                        System.arraycopy(dataToWriteBytes, 0, fullDataToWrite, 0, fileSizeInt);
+                    } else {
+                        System.arraycopy(dataToWriteBytes, 0, fullDataToWrite, 0, dataToWriteBytes.length);
+                        // now filling up the fullData with testData
+                        byte[] testData = Utils.generateTestData(fileSizeInt - dataToWriteBytes.length);
+                        System.arraycopy(testData, 0, fullDataToWrite, dataToWriteBytes.length, testData.length);
+                    }
 
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.writeToARecordFile(fileIdByte, 0, fullDataToWrite);
-                responseData = desfireLight.getErrorCode();
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.writeToARecordFile(fileIdByte, 0, fullDataToWrite);
+                    responseData = desfireLight.getErrorCode();
 
-                if (success) {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                    if (success) {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
-                if ((selectedFileSettings.getFileType() == FileSettings.LINEAR_RECORD_FILE_TYPE) || (selectedFileSettings.getFileType() == FileSettings.CYCLIC_RECORD_FILE_TYPE)) {
-                    // it is a Record file where we need to submit a commit command to confirm the write
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is a Record file, run COMMIT");
-                    byte commMode = selectedFileSettings.getCommunicationSettings();
-                    if (commMode == (byte) 0x00) {
-                        // Plain
-                        // this fails when a Transaction MAC file with enabled Commit ReaderId option is existent
-                        success = desfireLight.commitTransactionPlain();
-                    }
-                    if ((commMode == (byte) 0x01) || (commMode == (byte) 0x03)) {
-                        // MACed or Full enciphered
-
-                        if (desfireLight.isTransactionMacFilePresent()) {
-                            if (desfireLight.isTransactionMacCommitReaderId()) {
-                                // this  is hardcoded when working with TransactionMAC files AND enabled CommitReaderId feature
-                                writeToUiAppend(output, "A TransactionMAC file is present with ENABLED CommitReaderId");
-                                success = desfireLight.commitTransactionFull(true);
+                    if ((selectedFileSettings.getFileType() == FileSettings.LINEAR_RECORD_FILE_TYPE) || (selectedFileSettings.getFileType() == FileSettings.CYCLIC_RECORD_FILE_TYPE)) {
+                        // it is a Record file where we need to submit a commit command to confirm the write
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is a Record file, run COMMIT");
+                        byte commMode = selectedFileSettings.getCommunicationSettings();
+                        if (commMode == (byte) 0x00) {
+                            // Plain
+                            // this fails when a Transaction MAC file with enabled Commit ReaderId option is existent
+                            success = desfireLight.commitTransactionPlain();
+                        }
+                        if ((commMode == (byte) 0x01) || (commMode == (byte) 0x03)) {
+                            // MACed or Full enciphered
+
+                            if (desfireLight.isTransactionMacFilePresent()) {
+                                if (desfireLight.isTransactionMacCommitReaderId()) {
+                                    // this  is hardcoded when working with TransactionMAC files AND enabled CommitReaderId feature
+                                    writeToUiAppend(output, "A TransactionMAC file is present with ENABLED CommitReaderId");
+                                    success = desfireLight.commitTransactionFull(true);
+                                } else {
+                                    writeToUiAppend(output, "A TransactionMAC file is present with DISABLED CommitReaderId");
+                                    success = desfireLight.commitTransactionFullReturnTmv();
+                                }
                             } else {
-                                writeToUiAppend(output, "A TransactionMAC file is present with DISABLED CommitReaderId");
-                                success = desfireLight.commitTransactionFullReturnTmv();
+                                // no transaction mac file is present
+                                writeToUiAppend(output, "A TransactionMAC file is NOT present, running regular commitTransaction");
+                                success = desfireLight.commitTransactionWithoutTmacFull();
+                                Log.d(TAG, desfireLight.getLogData());
                             }
-                        } else {
-                            // no transaction mac file is present
-                            writeToUiAppend(output, "A TransactionMAC file is NOT present, running regular commitTransaction");
-                            success = desfireLight.commitTransactionWithoutTmacFull();
-                            Log.d(TAG, desfireLight.getLogData());
                         }
-                    }
 
-                    responseData = desfireLight.getErrorCode();
-                    if (success) {
-                        writeToUiAppend(output, "data is written to Record file number " + fileIdByte);
-                        // return the Transaction MAC counter and value
-                        if (isTransactionMacFilePresent) {
-                            byte[] returnedTmacCV = desfireLight.getTransactionMacFileReturnedTmcv();
-                            writeToUiAppend(output, printData("returned TMAC counter and value", returnedTmacCV));
-                            if ((returnedTmacCV != null) && (returnedTmacCV.length == 12)) {
-                                byte[] tmc = Arrays.copyOfRange(returnedTmacCV, 0, 4);
-                                byte[] tmacEnc = Arrays.copyOfRange(returnedTmacCV, 4, 12);
-                                int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
-                                writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                        responseData = desfireLight.getErrorCode();
+                        if (success) {
+                            writeToUiAppend(output, "data is written to Record file number " + fileIdByte);
+                            // return the Transaction MAC counter and value
+                            if (isTransactionMacFilePresent) {
+                                byte[] returnedTmacCV = desfireLight.getTransactionMacFileReturnedTmcv();
+                                writeToUiAppend(output, printData("returned TMAC counter and value", returnedTmacCV));
+                                if ((returnedTmacCV != null) && (returnedTmacCV.length == 12)) {
+                                    byte[] tmc = Arrays.copyOfRange(returnedTmacCV, 0, 4);
+                                    byte[] tmacEnc = Arrays.copyOfRange(returnedTmacCV, 4, 12);
+                                    int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
+                                    writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                                }
                             }
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit SUCCESS", COLOR_GREEN);
+                            vibrateShort();
+                        } else {
+                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit" + " FAILURE with error code: " + EV3.getErrorCode(responseData), COLOR_RED);
+                            writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                            return;
                         }
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit SUCCESS", COLOR_GREEN);
-                        vibrateShort();
-                    } else {
-                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, "commit" + " FAILURE with error code: " + EV3.getErrorCode(responseData), COLOR_RED);
-                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                        return;
                     }
-                }
+                });
             }
         });
 
@@ -1074,95 +1107,103 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         authA0DLeg.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate Legacy with DEFAULT AES key number 0x00 = application master key";
-                writeToUiAppend(output, logString);
+                runOnCardThread("authA0DLeg", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate Legacy with DEFAULT AES key number 0x00 = application master key";
+                    writeToUiAppend(output, logString);
 
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.authenticateAesLegacy(Constants.APPLICATION_KEY_MASTER_NUMBER, Constants.APPLICATION_KEY_MASTER_AES_DEFAULT);
-                responseData = desfireLight.getErrorCode();
-                if (success) {
-                    Log.d(TAG, logString + " SUCCESS");
-                    writeToUiAppend(output, logString + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                    return;
-                } else {
-                    writeToUiAppend(output, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData));
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.authenticateAesLegacy(Constants.APPLICATION_KEY_MASTER_NUMBER, Constants.APPLICATION_KEY_MASTER_AES_DEFAULT);
+                    responseData = desfireLight.getErrorCode();
+                    if (success) {
+                        Log.d(TAG, logString + " SUCCESS");
+                        writeToUiAppend(output, logString + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                        return;
+                    } else {
+                        writeToUiAppend(output, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData));
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                });
             }
         });
 
         authA0DEv2.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with DEFAULT AES key number 0x00 = application master key";
-                writeToUiAppend(output, logString);
+                runOnCardThread("authA0DEv2", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with DEFAULT AES key number 0x00 = application master key";
+                    writeToUiAppend(output, logString);
 
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.authenticateAesEv2First(Constants.APPLICATION_KEY_MASTER_NUMBER, Constants.APPLICATION_KEY_MASTER_AES_DEFAULT);
-                responseData = desfireLight.getErrorCode();
-                if (success) {
-                    Log.d(TAG, logString + " SUCCESS");
-                    writeToUiAppend(output, logString + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                    return;
-                } else {
-                    writeToUiAppend(output, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData));
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.authenticateAesEv2First(Constants.APPLICATION_KEY_MASTER_NUMBER, Constants.APPLICATION_KEY_MASTER_AES_DEFAULT);
+                    responseData = desfireLight.getErrorCode();
+                    if (success) {
+                        Log.d(TAG, logString + " SUCCESS");
+                        writeToUiAppend(output, logString + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                        return;
+                    } else {
+                        writeToUiAppend(output, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData));
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                });
             }
         });
 
         authA0CLeg.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate Legacy with CHANGED AES key number 0x00 = application master key";
-                writeToUiAppend(output, logString);
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.authenticateAesLegacy(Constants.APPLICATION_KEY_MASTER_NUMBER, Constants.APPLICATION_KEY_MASTER_AES);
-                responseData = desfireLight.getErrorCode();
-                if (success) {
-                    Log.d(TAG, logString + " SUCCESS");
-                    writeToUiAppend(output, logString + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                    return;
-                } else {
-                    writeToUiAppend(output, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData));
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
+                runOnCardThread("authA0CLeg", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate Legacy with CHANGED AES key number 0x00 = application master key";
+                    writeToUiAppend(output, logString);
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.authenticateAesLegacy(Constants.APPLICATION_KEY_MASTER_NUMBER, Constants.APPLICATION_KEY_MASTER_AES);
+                    responseData = desfireLight.getErrorCode();
+                    if (success) {
+                        Log.d(TAG, logString + " SUCCESS");
+                        writeToUiAppend(output, logString + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                        return;
+                    } else {
+                        writeToUiAppend(output, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData));
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                });
             }
         });
 
         authA0CEv2.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with CHANGED AES key number 0x00 = application master key";
-                writeToUiAppend(output, logString);
+                runOnCardThread("authA0CEv2", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with CHANGED AES key number 0x00 = application master key";
+                    writeToUiAppend(output, logString);
 
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.authenticateAesEv2First(Constants.APPLICATION_KEY_MASTER_NUMBER, Constants.APPLICATION_KEY_MASTER_AES);
-                responseData = desfireLight.getErrorCode();
-                if (success) {
-                    Log.d(TAG, logString + " SUCCESS");
-                    writeToUiAppend(output, logString + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                    return;
-                } else {
-                    writeToUiAppend(output, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData));
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.authenticateAesEv2First(Constants.APPLICATION_KEY_MASTER_NUMBER, Constants.APPLICATION_KEY_MASTER_AES);
+                    responseData = desfireLight.getErrorCode();
+                    if (success) {
+                        Log.d(TAG, logString + " SUCCESS");
+                        writeToUiAppend(output, logString + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                        return;
+                    } else {
+                        writeToUiAppend(output, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData));
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                });
             }
         });
 
@@ -1172,123 +1213,139 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         authA1D.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with DEFAULT AES key number 0x01 = read access key";
-                writeToUiAppend(output, logString);
-                // the method runs all outputs
-                boolean success = authAes(Constants.APPLICATION_KEY_R_NUMBER, Constants.APPLICATION_KEY_R_AES_DEFAULT);
+                runOnCardThread("authA1D", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with DEFAULT AES key number 0x01 = read access key";
+                    writeToUiAppend(output, logString);
+                    // the method runs all outputs
+                    boolean success = authAes(Constants.APPLICATION_KEY_R_NUMBER, Constants.APPLICATION_KEY_R_AES_DEFAULT);
+                });
             }
         });
 
         authA1C.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with CHANGED AES key number 0x01 = read access key";
-                writeToUiAppend(output, logString);
-                // the method runs all outputs
-                boolean success = authAes(Constants.APPLICATION_KEY_R_NUMBER, Constants.APPLICATION_KEY_R_AES);
+                runOnCardThread("authA1C", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with CHANGED AES key number 0x01 = read access key";
+                    writeToUiAppend(output, logString);
+                    // the method runs all outputs
+                    boolean success = authAes(Constants.APPLICATION_KEY_R_NUMBER, Constants.APPLICATION_KEY_R_AES);
+                });
             }
         });
 
         authA2D.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with DEFAULT AES key number 0x02 = write access key";
-                writeToUiAppend(output, logString);
-                // the method runs all outputs
-                boolean success = authAes(Constants.APPLICATION_KEY_W_NUMBER, Constants.APPLICATION_KEY_W_AES_DEFAULT);
+                runOnCardThread("authA2D", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with DEFAULT AES key number 0x02 = write access key";
+                    writeToUiAppend(output, logString);
+                    // the method runs all outputs
+                    boolean success = authAes(Constants.APPLICATION_KEY_W_NUMBER, Constants.APPLICATION_KEY_W_AES_DEFAULT);
+                });
             }
         });
 
         authA2C.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with CHANGED AES key number 0x02 = write access key";
-                writeToUiAppend(output, logString);
-                // the method runs all outputs
-                boolean success = authAes(Constants.APPLICATION_KEY_W_NUMBER, Constants.APPLICATION_KEY_W_AES);
+                runOnCardThread("authA2C", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with CHANGED AES key number 0x02 = write access key";
+                    writeToUiAppend(output, logString);
+                    // the method runs all outputs
+                    boolean success = authAes(Constants.APPLICATION_KEY_W_NUMBER, Constants.APPLICATION_KEY_W_AES);
+                });
             }
         });
 
         authA3D.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with DEFAULT AES key number 0x03 = read & write access key";
-                writeToUiAppend(output, logString);
-                // the method runs all outputs
-                boolean success = authAes(Constants.APPLICATION_KEY_RW_NUMBER, Constants.APPLICATION_KEY_RW_AES_DEFAULT);
+                runOnCardThread("authA3D", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with DEFAULT AES key number 0x03 = read & write access key";
+                    writeToUiAppend(output, logString);
+                    // the method runs all outputs
+                    boolean success = authAes(Constants.APPLICATION_KEY_RW_NUMBER, Constants.APPLICATION_KEY_RW_AES_DEFAULT);
+                });
             }
         });
 
         authA3C.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with CHANGED AES key number 0x03 = read & write access key";
-                writeToUiAppend(output, logString);
-                // the method runs all outputs
-                boolean success = authAes(Constants.APPLICATION_KEY_RW_NUMBER, Constants.APPLICATION_KEY_RW_AES);
+                runOnCardThread("authA3C", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with CHANGED AES key number 0x03 = read & write access key";
+                    writeToUiAppend(output, logString);
+                    // the method runs all outputs
+                    boolean success = authAes(Constants.APPLICATION_KEY_RW_NUMBER, Constants.APPLICATION_KEY_RW_AES);
+                });
             }
         });
 
         authA4D.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with DEFAULT AES key number 0x04 = undefined key";
-                writeToUiAppend(output, logString);
-                // the method runs all outputs
-                boolean success = authAes(Constants.APPLICATION_KEY_4_NUMBER, Constants.APPLICATION_KEY_4_AES_DEFAULT);
+                runOnCardThread("authA4D", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with DEFAULT AES key number 0x04 = undefined key";
+                    writeToUiAppend(output, logString);
+                    // the method runs all outputs
+                    boolean success = authAes(Constants.APPLICATION_KEY_4_NUMBER, Constants.APPLICATION_KEY_4_AES_DEFAULT);
+                });
             }
         });
 
         authA4C.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "authenticate EV2 First with CHANGED AES key number 0x04 = undefined key";
-                writeToUiAppend(output, logString);
-                // the method runs all outputs
-                boolean success = authAes(Constants.APPLICATION_KEY_4_NUMBER, Constants.APPLICATION_KEY_4_AES);
-
-                /*
-                // this is getting the  key from customKeystore as test
-                CustomKeystore customKeystore = new CustomKeystore(view.getContext());
-
-                boolean isInitialized = customKeystore.isLibraryInitialized();
-                if (!isInitialized) {
-                    customKeystore.initialize("123456".toCharArray());
-                }
+                runOnCardThread("authA4C", () -> {
+                    clearOutputFields();
+                    String logString = "authenticate EV2 First with CHANGED AES key number 0x04 = undefined key";
+                    writeToUiAppend(output, logString);
+                    // the method runs all outputs
+                    boolean success = authAes(Constants.APPLICATION_KEY_4_NUMBER, Constants.APPLICATION_KEY_4_AES);
+
+                    /*
+                    // this is getting the  key from customKeystore as test
+                    CustomKeystore customKeystore = new CustomKeystore(view.getContext());
+
+                    boolean isInitialized = customKeystore.isLibraryInitialized();
+                    if (!isInitialized) {
+                        customKeystore.initialize("123456".toCharArray());
+                    }
 
-                List<String> keyAliasesList = customKeystore.getKeystoreAliases();
+                    List<String> keyAliasesList = customKeystore.getKeystoreAliases();
 
-                boolean isInitializedRecovery = customKeystore.recoveryInitialization("123456".toCharArray());
-                if (!isInitializedRecovery) {
-                    Log.d(TAG, "Error during recovery initialization of CustomKeystore");
-                    return;
-                }
+                    boolean isInitializedRecovery = customKeystore.recoveryInitialization("123456".toCharArray());
+                    if (!isInitializedRecovery) {
+                        Log.d(TAG, "Error during recovery initialization of CustomKeystore");
+                        return;
+                    }
 
 
-                byte[] keyToStore = '12345678901234567890123456789012';
-                boolean writeSuccess = customKeystore.storeKey((byte) 0x02, keyToStore);
-                if (!writeSuccess) {
-                    Log.d(TAG, "Error during storing a key in the CustomKeystore with this key number");
-                    return;
-                }
+                    byte[] keyToStore = '12345678901234567890123456789012';
+                    boolean writeSuccess = customKeystore.storeKey((byte) 0x02, keyToStore);
+                    if (!writeSuccess) {
+                        Log.d(TAG, "Error during storing a key in the CustomKeystore with this key number");
+                        return;
+                    }
 
-                byte[] key = customKeystore.readKey(Constants.APPLICATION_KEY_W_NUMBER);
-                if (key == null) {
-                    writeToUiAppend(output, "There is no key stored in the CustomKeystore with this key number");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE, you did not store a key in CustomKeystore, aorted", COLOR_RED);
-                    return;
-                }
-                boolean success = authAesEv3(Constants.APPLICATION_KEY_W_NUMBER, key);
-                //boolean success = authAesEv3(Constants.APPLICATION_KEY_W_NUMBER, Constants.APPLICATION_KEY_W_AES);
-                */
+                    byte[] key = customKeystore.readKey(Constants.APPLICATION_KEY_W_NUMBER);
+                    if (key == null) {
+                        writeToUiAppend(output, "There is no key stored in the CustomKeystore with this key number");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE, you did not store a key in CustomKeystore, aorted", COLOR_RED);
+                        return;
+                    }
+                    boolean success = authAesEv3(Constants.APPLICATION_KEY_W_NUMBER, key);
+                    //boolean success = authAesEv3(Constants.APPLICATION_KEY_W_NUMBER, Constants.APPLICATION_KEY_W_AES);
+                    */
+                });
             }
         });
 
@@ -1299,59 +1356,63 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         changeKeyA1ToC.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "change key to CHANGED for AES key number 0x01 = read & write access key";
-                writeToUiAppend(output, logString);
+                runOnCardThread("changeKeyA1ToC", () -> {
+                    clearOutputFields();
+                    String logString = "change key to CHANGED for AES key number 0x01 = read & write access key";
+                    writeToUiAppend(output, logString);
 
-                if (selectedApplicationId == null) {
-                    writeToUiAppend(output, "You need to select an application first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
+                    if (selectedApplicationId == null) {
+                        writeToUiAppend(output, "You need to select an application first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
 
-                byte keyVersion = (byte) 0x01;
-                boolean success = desfireLight.changeApplicationKeyFull(Constants.APPLICATION_KEY_RW_NUMBER, keyVersion, Constants.APPLICATION_KEY_RW_AES, Constants.APPLICATION_KEY_RW_AES_DEFAULT);
-                byte[] responseData = desfireLight.getErrorCode();
+                    byte keyVersion = (byte) 0x01;
+                    boolean success = desfireLight.changeApplicationKeyFull(Constants.APPLICATION_KEY_RW_NUMBER, keyVersion, Constants.APPLICATION_KEY_RW_AES, Constants.APPLICATION_KEY_RW_AES_DEFAULT);
+                    byte[] responseData = desfireLight.getErrorCode();
 
-                if (success) {
-                    writeToUiAppend(output, logString + " keyVersion " + keyVersion + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                } else {
-                    writeToUiAppend(output, logString + " keyVersion " + keyVersion + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a APPLICATION MASTER KEY ?");
+                    if (success) {
+                        writeToUiAppend(output, logString + " keyVersion " + keyVersion + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                    } else {
+                        writeToUiAppend(output, logString + " keyVersion " + keyVersion + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a APPLICATION MASTER KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
+                });
             }
         });
 
         changeKeyA1ToD.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "change key to DEFAULT for AES key number 0x01 = read & write access key";
-                writeToUiAppend(output, logString);
-                byte keyVersion = (byte) 0x01;
-                boolean success = changeApplicationKey(Constants.APPLICATION_KEY_RW_NUMBER, keyVersion, Constants.APPLICATION_KEY_RW_AES_DEFAULT, Constants.APPLICATION_KEY_RW_AES);
-                byte[] responseData = desfireLight.getErrorCode();
+                runOnCardThread("changeKeyA1ToD", () -> {
+                    clearOutputFields();
+                    String logString = "change key to DEFAULT for AES key number 0x01 = read & write access key";
+                    writeToUiAppend(output, logString);
+                    byte keyVersion = (byte) 0x01;
+                    boolean success = changeApplicationKey(Constants.APPLICATION_KEY_RW_NUMBER, keyVersion, Constants.APPLICATION_KEY_RW_AES_DEFAULT, Constants.APPLICATION_KEY_RW_AES);
+                    byte[] responseData = desfireLight.getErrorCode();
 
-                if (success) {
-                    writeToUiAppend(output, logString + " keyVersion " + keyVersion + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                } else {
-                    writeToUiAppend(output, logString + " keyVersion " + keyVersion + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a APPLICATION MASTER KEY ?");
+                    if (success) {
+                        writeToUiAppend(output, logString + " keyVersion " + keyVersion + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                    } else {
+                        writeToUiAppend(output, logString + " keyVersion " + keyVersion + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a APPLICATION MASTER KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
+                });
             }
         });
 
@@ -1362,72 +1423,76 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         changeFileSettings0000.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "change the fileSettings (all keys to 0000)";
-                writeToUiAppend(output, logString);
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
-                DesfireLight.CommunicationSettings commSettings = selectedFileSettings.getDesfireEv3CommunicationSettings();
-                // this leaves the existing communication mode settings
-                int keyRw = 0;
-                int keyCar = 0;
-                int keyR = 0;
-                int keyW = 0;
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.changeFileSettings(fileIdByte, commSettings, keyRw, keyCar, keyR, keyW);
-                responseData = desfireLight.getErrorCode();
-                if (success) {
-                    writeToUiAppend(output, logString + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                } else {
-                    // NOTE: don't forget to authenticate with CAR key
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(errorCode, "Did you forget to authenticate with the CAR key ?");
+                runOnCardThread("changeFileSettings0000", () -> {
+                    clearOutputFields();
+                    String logString = "change the fileSettings (all keys to 0000)";
+                    writeToUiAppend(output, logString);
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
                     }
-                }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
+                    DesfireLight.CommunicationSettings commSettings = selectedFileSettings.getDesfireEv3CommunicationSettings();
+                    // this leaves the existing communication mode settings
+                    int keyRw = 0;
+                    int keyCar = 0;
+                    int keyR = 0;
+                    int keyW = 0;
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.changeFileSettings(fileIdByte, commSettings, keyRw, keyCar, keyR, keyW);
+                    responseData = desfireLight.getErrorCode();
+                    if (success) {
+                        writeToUiAppend(output, logString + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                    } else {
+                        // NOTE: don't forget to authenticate with CAR key
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(errorCode, "Did you forget to authenticate with the CAR key ?");
+                        }
+                    }
+                });
             }
         });
 
         changeFileSettings1234.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "change the fileSettings (all keys to 1234 = default)";
-                writeToUiAppend(output, logString);
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
-                DesfireLight.CommunicationSettings commSettings = selectedFileSettings.getDesfireEv3CommunicationSettings();
-                // this leaves the existing communication mode settings
-                int keyRw = 1;
-                int keyCar = 2;
-                int keyR = 3;
-                int keyW = 4;
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.changeFileSettings(fileIdByte, commSettings, keyRw, keyCar, keyR, keyW);
-                responseData = desfireLight.getErrorCode();
-                if (success) {
-                    writeToUiAppend(output, logString + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                } else {
-                    // NOTE: don't forget to authenticate with CAR key
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(errorCode, "Did you forget to authenticate with the CAR key ?");
+                runOnCardThread("changeFileSettings1234", () -> {
+                    clearOutputFields();
+                    String logString = "change the fileSettings (all keys to 1234 = default)";
+                    writeToUiAppend(output, logString);
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
                     }
-                }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
+                    DesfireLight.CommunicationSettings commSettings = selectedFileSettings.getDesfireEv3CommunicationSettings();
+                    // this leaves the existing communication mode settings
+                    int keyRw = 1;
+                    int keyCar = 2;
+                    int keyR = 3;
+                    int keyW = 4;
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.changeFileSettings(fileIdByte, commSettings, keyRw, keyCar, keyR, keyW);
+                    responseData = desfireLight.getErrorCode();
+                    if (success) {
+                        writeToUiAppend(output, logString + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                    } else {
+                        // NOTE: don't forget to authenticate with CAR key
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(errorCode, "Did you forget to authenticate with the CAR key ?");
+                        }
+                    }
+                });
             }
         });
 
@@ -1439,169 +1504,177 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         fileTransactionMacCreate.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "create a TransactionMAC file Disabled Commit ReaderId";
-                writeToUiAppend(output, logString);
+                runOnCardThread("fileTransactionMacCreate", () -> {
+                    clearOutputFields();
+                    String logString = "create a TransactionMAC file Disabled Commit ReaderId";
+                    writeToUiAppend(output, logString);
 
-                byte fileIdByte = DesfireLight.TRANSACTION_MAC_FILE_NUMBER;
-                writeToUiAppend(output, "using a pre defined fileNumber: " + fileIdByte);
-                writeToUiAppend(output, printData("using a predefined TMAC key", TRANSACTION_MAC_KEY_AES));
-                writeToUiAppend(output, "Note: you need to authenticate with the Application Master Key and EV2-type first !");
+                    byte fileIdByte = DesfireLight.TRANSACTION_MAC_FILE_NUMBER;
+                    writeToUiAppend(output, "using a pre defined fileNumber: " + fileIdByte);
+                    writeToUiAppend(output, printData("using a predefined TMAC key", TRANSACTION_MAC_KEY_AES));
+                    writeToUiAppend(output, "Note: you need to authenticate with the Application Master Key and EV2-type first !");
 
-                byte[] responseData = new byte[2];
+                    byte[] responseData = new byte[2];
 
-                // this is the file creation with disabled Commit Reader Id option
-                boolean success = desfireLight.createATransactionMacFileFull(fileIdByte, DesfireLight.CommunicationSettings.Plain, 2, 1, TRANSACTION_MAC_KEY_AES);
+                    // this is the file creation with disabled Commit Reader Id option
+                    boolean success = desfireLight.createATransactionMacFileFull(fileIdByte, DesfireLight.CommunicationSettings.Plain, 2, 1, TRANSACTION_MAC_KEY_AES);
 
-                // this is the file creation with enabled Commit Reader Id option
-                //boolean success = desfireLight.createATransactionMacFileExtendedFull(fileIdByte, DesfireEv3.CommunicationSettings.Plain, 1, 2, 1, true, TRANSACTION_MAC_KEY_AES);
+                    // this is the file creation with enabled Commit Reader Id option
+                    //boolean success = desfireLight.createATransactionMacFileExtendedFull(fileIdByte, DesfireEv3.CommunicationSettings.Plain, 1, 2, 1, true, TRANSACTION_MAC_KEY_AES);
 
-                responseData = desfireLight.getErrorCode();
+                    responseData = desfireLight.getErrorCode();
 
-                if (success) {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                    if (success) {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
+                });
             }
         });
 
         fileTransactionMacCreateReaderId.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "create a TransactionMAC file Enabled Commit ReaderId";
-                writeToUiAppend(output, logString);
+                runOnCardThread("fileTransactionMacCreateReaderId", () -> {
+                    clearOutputFields();
+                    String logString = "create a TransactionMAC file Enabled Commit ReaderId";
+                    writeToUiAppend(output, logString);
 
-                byte fileIdByte = DesfireLight.TRANSACTION_MAC_FILE_NUMBER;
-                writeToUiAppend(output, "using a pre defined fileNumber: " + fileIdByte);
-                writeToUiAppend(output, printData("using a predefined TMAC key", TRANSACTION_MAC_KEY_AES));
-                writeToUiAppend(output, "Note: you need to authenticate with the Application Master Key and EV2-type first !");
+                    byte fileIdByte = DesfireLight.TRANSACTION_MAC_FILE_NUMBER;
+                    writeToUiAppend(output, "using a pre defined fileNumber: " + fileIdByte);
+                    writeToUiAppend(output, printData("using a predefined TMAC key", TRANSACTION_MAC_KEY_AES));
+                    writeToUiAppend(output, "Note: you need to authenticate with the Application Master Key and EV2-type first !");
 
-                byte[] responseData = new byte[2];
+                    byte[] responseData = new byte[2];
 
-                // this is the file creation with disabled Commit Reader Id option
-                //boolean success = desfireLight.createATransactionMacFileFull(fileIdByte, DesfireEv3.CommunicationSettings.Plain, 2, 1, TRANSACTION_MAC_KEY_AES);
+                    // this is the file creation with disabled Commit Reader Id option
+                    //boolean success = desfireLight.createATransactionMacFileFull(fileIdByte, DesfireEv3.CommunicationSettings.Plain, 2, 1, TRANSACTION_MAC_KEY_AES);
 
-                // this is the file creation with enabled Commit Reader Id option
-                boolean success = desfireLight.createATransactionMacFileExtendedFull(fileIdByte, DesfireLight.CommunicationSettings.Plain, 1, 2, 1, true, TRANSACTION_MAC_KEY_AES);
+                    // this is the file creation with enabled Commit Reader Id option
+                    boolean success = desfireLight.createATransactionMacFileExtendedFull(fileIdByte, DesfireLight.CommunicationSettings.Plain, 1, 2, 1, true, TRANSACTION_MAC_KEY_AES);
 
-                responseData = desfireLight.getErrorCode();
+                    responseData = desfireLight.getErrorCode();
 
-                if (success) {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                    if (success) {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a WRITE ACCESS KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
+                });
             }
         });
 
         fileTransactionMacDelete.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "delete a TransactionMAC file";
-                writeToUiAppend(output, logString);
-                byte fileIdByte = DesfireLight.TRANSACTION_MAC_FILE_NUMBER;
-                writeToUiAppend(output, "using a pre defined fileNumber: " + fileIdByte);
-                writeToUiAppend(output, printData("using a predefined TMAC key", TRANSACTION_MAC_KEY_AES));
-                writeToUiAppend(output, "Note: DO authenticate with the Application Master Key first !");
-
-                byte[] responseData = new byte[2];
-                boolean success = desfireLight.deleteFileMac(fileIdByte);
-                responseData = desfireLight.getErrorCode();
+                runOnCardThread("fileTransactionMacDelete", () -> {
+                    clearOutputFields();
+                    String logString = "delete a TransactionMAC file";
+                    writeToUiAppend(output, logString);
+                    byte fileIdByte = DesfireLight.TRANSACTION_MAC_FILE_NUMBER;
+                    writeToUiAppend(output, "using a pre defined fileNumber: " + fileIdByte);
+                    writeToUiAppend(output, printData("using a predefined TMAC key", TRANSACTION_MAC_KEY_AES));
+                    writeToUiAppend(output, "Note: DO authenticate with the Application Master Key first !");
+
+                    byte[] responseData = new byte[2];
+                    boolean success = desfireLight.deleteFileMac(fileIdByte);
+                    responseData = desfireLight.getErrorCode();
 
-                if (success) {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with the APPLICATION MASTER KEY ?");
+                    if (success) {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " SUCCESS");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with the APPLICATION MASTER KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                }
+                });
             }
         });
 
         fileTransactionMacRead.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "read from a transaction MAC file";
-                writeToUiAppend(output, logString);
-                if (!isDesfireEv3Available()) return;
-
-                // check that a file was selected before
-                if (TextUtils.isEmpty(selectedFileId)) {
-                    writeToUiAppend(output, "You need to select a file first, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
-                byte fileIdByte = Byte.parseByte(selectedFileId);
-
-                // pre-check if fileNumber is existing
-                boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
-                if (!isFileExisting) {
-                    writeToUiAppend(output, logString + " The file does not exist, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
-                    return;
-                }
+                runOnCardThread("fileTransactionMacRead", () -> {
+                    clearOutputFields();
+                    String logString = "read from a transaction MAC file";
+                    writeToUiAppend(output, logString);
+                    if (!isDesfireEv3Available()) return;
+
+                    // check that a file was selected before
+                    if (TextUtils.isEmpty(selectedFileId)) {
+                        writeToUiAppend(output, "You need to select a file first, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
+                    }
+                    byte fileIdByte = Byte.parseByte(selectedFileId);
 
-                boolean isTransactionMacFile = desfireLight.checkIsTransactionMacFileType(fileIdByte);
-                if (!isTransactionMacFile) {
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is NOT a TransactionMAC file, aborted");
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
-                    return;
-                }
+                    // pre-check if fileNumber is existing
+                    boolean isFileExisting = desfireLight.checkFileNumberExisting(fileIdByte);
+                    if (!isFileExisting) {
+                        writeToUiAppend(output, logString + " The file does not exist, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " File not found error", COLOR_RED);
+                        return;
+                    }
 
-                byte[] responseData = new byte[2];
-                byte[] result = desfireLight.readFromATransactionMacFile(fileIdByte);
-                responseData = desfireLight.getErrorCode();
-                if (result == null) {
-                    // something gone wrong
-                    writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
-                    if (checkResponseMoreData(responseData)) {
-                        writeToUiAppend(output, "the file is too long to read, sorry");
+                    boolean isTransactionMacFile = desfireLight.checkIsTransactionMacFileType(fileIdByte);
+                    if (!isTransactionMacFile) {
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " is NOT a TransactionMAC file, aborted");
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE", COLOR_RED);
+                        return;
                     }
-                    if (checkAuthenticationError(responseData)) {
-                        writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a READ ACCESS KEY ?");
+
+                    byte[] responseData = new byte[2];
+                    byte[] result = desfireLight.readFromATransactionMacFile(fileIdByte);
+                    responseData = desfireLight.getErrorCode();
+                    if (result == null) {
+                        // something gone wrong
+                        writeToUiAppend(output, logString + " fileNumber " + fileIdByte + " FAILURE with error " + EV3.getErrorCode(responseData));
+                        if (checkResponseMoreData(responseData)) {
+                            writeToUiAppend(output, "the file is too long to read, sorry");
+                        }
+                        if (checkAuthenticationError(responseData)) {
+                            writeToUiAppend(output, "as we received an Authentication Error - did you forget to AUTHENTICATE with a READ ACCESS KEY ?");
+                        }
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                        writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
+                        return;
+                    } else {
+                        writeToUiAppend(output, logString + " fileNumber: " + fileIdByte + printData(" data", result));
+                        // todo: verify tmacEnc page 64 and some more pages
+                        if (result.length == 12) {
+                            byte[] tmc = Arrays.copyOfRange(result, 0, 4);
+                            byte[] tmacEnc = Arrays.copyOfRange(result, 4, 12);
+                            int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
+                            writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
+                        }
+                        // see Mifare DESFire Light Features and Hints AN12343.pdf
+                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                        vibrateShort();
                     }
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                    writeToUiAppend(errorCode, "Error reason: " + desfireLight.getErrorCodeReason());
-                    return;
-                } else {
-                    writeToUiAppend(output, logString + " fileNumber: " + fileIdByte + printData(" data", result));
-                    // todo: verify tmacEnc page 64 and some more pages
-                    if (result.length == 12) {
-                        byte[] tmc = Arrays.copyOfRange(result, 0, 4);
-                        byte[] tmacEnc = Arrays.copyOfRange(result, 4, 12);
-                        int tmcInt = Utils.intFrom4ByteArrayInversed(tmc);
-                        writeToUiAppend(output, "TMAC counter: " + tmcInt + printData(" tmacEnc", tmacEnc));
-                    }
-                    // see Mifare DESFire Light Features and Hints AN12343.pdf
-                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                    vibrateShort();
-                }
+                });
             }
         });
 
@@ -1618,190 +1691,192 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         getTagVersion.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                // get the tag version data
-                clearOutputFields();
-                String logString = "getCardVersion";
-                writeToUiAppend(output, logString);
+                runOnCardThread("getTagVersion", () -> {
+                    // get the tag version data
+                    clearOutputFields();
+                    String logString = "getCardVersion";
+                    writeToUiAppend(output, logString);
+
+                    // this predefined in the header
+                    // GET_VERSION_COMMAND = (byte) 0x60;
+
+                    // manually building the command string
+                    byte[] command = new byte[5];
+                    command[0] = (byte) 0x90; // fixed as trailer for wrapped commands
+                    command[1] = GET_VERSION_COMMAND;
+                    command[2] = (byte) 0x00; // is 0x00
+                    command[3] = (byte) 0x00; // length of data, i 0 because we do not have any additional data to send
+                    command[4] = (byte) 0x00; // trailing '00'
+                    writeToUiAppend(output, "build the getVersion command manually");
+                    writeToUiAppend(output, printData("command", command));
+
+                    // we are sending this command to the PICC
+                    byte[] response = new byte[0];
+                    try {
+                        response = isoDep.transceive(command);
+                        writeToUiAppend(output, printData("response from PICC", response));
+                    } catch (NullPointerException e) {
+                        Log.e(TAG, logString + " transceive failed, NullPointerException:\n" + e.getMessage());
+                        writeToUiAppend(output, "transceive failed, did you forget to tap a tag first ? : " + e.getMessage());
+                        return;
+                    } catch (IOException e) {
+                        Log.e(TAG, logString + " transceive failed, IOException:\n" + e.getMessage());
+                        writeToUiAppend(output, "transceive failed: " + e.getMessage());
+                        return;
+                    }
+                    // example response: length: 9 data: 0401013300160591af
+
+                    writeToUiAppend(output, "we received two information's from PICC:");
+                    byte[] responseData1 = Arrays.copyOfRange(response, 0, response.length - 2);
+                    byte[] responseStatus1 = Arrays.copyOfRange(response, response.length - 2, response.length);
+                    writeToUiAppend(output, printData("responseData1", responseData1));
+                    writeToUiAppend(output, printData("responseStatus1", responseStatus1));
+
+                    // check for status == '0x90af
+                    final byte[] statusMoreData = new byte[]{(byte) 0x91, (byte) 0xAF};
+                    // check for status == '0x00
+                    final byte[] statusOk = new byte[]{(byte) 0x91, (byte) 0x00};
+
+                    boolean isResponseStatus1MoreData = Arrays.equals(responseStatus1, statusMoreData);
+                    writeToUiAppend(output, "checking that more data will follow from PICC: " + isResponseStatus1MoreData);
+                    if (!isResponseStatus1MoreData) {
+                        writeToUiAppend(output, "no more data following, end requesting more data");
+                        return;
+                    }
 
-                // this predefined in the header
-                // GET_VERSION_COMMAND = (byte) 0x60;
-
-                // manually building the command string
-                byte[] command = new byte[5];
-                command[0] = (byte) 0x90; // fixed as trailer for wrapped commands
-                command[1] = GET_VERSION_COMMAND;
-                command[2] = (byte) 0x00; // is 0x00
-                command[3] = (byte) 0x00; // length of data, i 0 because we do not have any additional data to send
-                command[4] = (byte) 0x00; // trailing '00'
-                writeToUiAppend(output, "build the getVersion command manually");
-                writeToUiAppend(output, printData("command", command));
-
-                // we are sending this command to the PICC
-                byte[] response = new byte[0];
-                try {
-                    response = isoDep.transceive(command);
-                    writeToUiAppend(output, printData("response from PICC", response));
-                } catch (NullPointerException e) {
-                    Log.e(TAG, logString + " transceive failed, NullPointerException:\n" + e.getMessage());
-                    writeToUiAppend(output, "transceive failed, did you forget to tap a tag first ? : " + e.getMessage());
-                    return;
-                } catch (IOException e) {
-                    Log.e(TAG, logString + " transceive failed, IOException:\n" + e.getMessage());
-                    writeToUiAppend(output, "transceive failed: " + e.getMessage());
-                    return;
-                }
-                // example response: length: 9 data: 0401013300160591af
-
-                writeToUiAppend(output, "we received two information's from PICC:");
-                byte[] responseData1 = Arrays.copyOfRange(response, 0, response.length - 2);
-                byte[] responseStatus1 = Arrays.copyOfRange(response, response.length - 2, response.length);
-                writeToUiAppend(output, printData("responseData1", responseData1));
-                writeToUiAppend(output, printData("responseStatus1", responseStatus1));
-
-                // check for status == '0x90af
-                final byte[] statusMoreData = new byte[]{(byte) 0x91, (byte) 0xAF};
-                // check for status == '0x00
-                final byte[] statusOk = new byte[]{(byte) 0x91, (byte) 0x00};
-
-                boolean isResponseStatus1MoreData = Arrays.equals(responseStatus1, statusMoreData);
-                writeToUiAppend(output, "checking that more data will follow from PICC: " + isResponseStatus1MoreData);
-                if (!isResponseStatus1MoreData) {
-                    writeToUiAppend(output, "no more data following, end requesting more data");
-                    return;
-                }
+                    // now we are asking to get more data from PICC
+
+                    // this predefined in the header
+                    // MORE_DATA_COMMAND = (byte) 0xAF;
+
+                    // manually building the command string
+                    command = new byte[5];
+                    command[0] = (byte) 0x90; // fixed as trailer for wrapped commands
+                    command[1] = MORE_DATA_COMMAND;
+                    command[2] = (byte) 0x00; // is 0x00
+                    command[3] = (byte) 0x00; // length of data, i 0 because we do not have any additional data to send
+                    command[4] = (byte) 0x00; // trailing '00'
+                    writeToUiAppend(output, "build the getMoreData command manually");
+                    writeToUiAppend(output, printData("command", command));
+
+                    // we are sending this command to the PICC
+                    response = new byte[0];
+                    try {
+                        response = isoDep.transceive(command);
+                        writeToUiAppend(output, printData("response from PICC", response));
+                    } catch (NullPointerException e) {
+                        Log.e(TAG, logString + " transceive failed, NullPointerException:\n" + e.getMessage());
+                        writeToUiAppend(output, "transceive failed, did you forget to tap a tag first ? : " + e.getMessage());
+                        return;
+                    } catch (IOException e) {
+                        Log.e(TAG, logString + " transceive failed, IOException:\n" + e.getMessage());
+                        writeToUiAppend(output, "transceive failed: " + e.getMessage());
+                        return;
+                    }
+                    // example response: length: 9 data: 0401010300160591af
+
+                    writeToUiAppend(output, "we received two information's from PICC:");
+                    byte[] responseData2 = Arrays.copyOfRange(response, 0, response.length - 2);
+                    byte[] responseStatus2 = Arrays.copyOfRange(response, response.length - 2, response.length);
+                    writeToUiAppend(output, printData("responseData2", responseData2));
+                    writeToUiAppend(output, printData("responseStatus2", responseStatus2));
+
+                    // check for status == '0x90af
+                    boolean isResponseStatus2MoreData = Arrays.equals(responseStatus2, statusMoreData);
+                    writeToUiAppend(output, "checking that more data will follow from PICC: " + isResponseStatus2MoreData);
+                    if (!isResponseStatus2MoreData) {
+                        writeToUiAppend(output, "no more data following, end requesting more data");
+                        return;
+                    }
 
-                // now we are asking to get more data from PICC
-
-                // this predefined in the header
-                // MORE_DATA_COMMAND = (byte) 0xAF;
-
-                // manually building the command string
-                command = new byte[5];
-                command[0] = (byte) 0x90; // fixed as trailer for wrapped commands
-                command[1] = MORE_DATA_COMMAND;
-                command[2] = (byte) 0x00; // is 0x00
-                command[3] = (byte) 0x00; // length of data, i 0 because we do not have any additional data to send
-                command[4] = (byte) 0x00; // trailing '00'
-                writeToUiAppend(output, "build the getMoreData command manually");
-                writeToUiAppend(output, printData("command", command));
-
-                // we are sending this command to the PICC
-                response = new byte[0];
-                try {
-                    response = isoDep.transceive(command);
-                    writeToUiAppend(output, printData("response from PICC", response));
-                } catch (NullPointerException e) {
-                    Log.e(TAG, logString + " transceive failed, NullPointerException:\n" + e.getMessage());
-                    writeToUiAppend(output, "transceive failed, did you forget to tap a tag first ? : " + e.getMessage());
-                    return;
-                } catch (IOException e) {
-                    Log.e(TAG, logString + " transceive failed, IOException:\n" + e.getMessage());
-                    writeToUiAppend(output, "transceive failed: " + e.getMessage());
-                    return;
-                }
-                // example response: length: 9 data: 0401010300160591af
-
-                writeToUiAppend(output, "we received two information's from PICC:");
-                byte[] responseData2 = Arrays.copyOfRange(response, 0, response.length - 2);
-                byte[] responseStatus2 = Arrays.copyOfRange(response, response.length - 2, response.length);
-                writeToUiAppend(output, printData("responseData2", responseData2));
-                writeToUiAppend(output, printData("responseStatus2", responseStatus2));
-
-                // check for status == '0x90af
-                boolean isResponseStatus2MoreData = Arrays.equals(responseStatus2, statusMoreData);
-                writeToUiAppend(output, "checking that more data will follow from PICC: " + isResponseStatus2MoreData);
-                if (!isResponseStatus2MoreData) {
-                    writeToUiAppend(output, "no more data following, end requesting more data");
-                    return;
-                }
+                    // now we are asking to get more data from PICC a second time
+
+                    // this predefined in the header
+                    // MORE_DATA_COMMAND = (byte) 0xAF;
+
+                    // manually building the command string
+                    command = new byte[5];
+                    command[0] = (byte) 0x90; // fixed as trailer for wrapped commands
+                    command[1] = MORE_DATA_COMMAND;
+                    command[2] = (byte) 0x00; // is 0x00
+                    command[3] = (byte) 0x00; // length of data, i 0 because we do not have any additional data to send
+                    command[4] = (byte) 0x00; // trailing '00'
+                    writeToUiAppend(output, "build the getMoreData command manually");
+                    writeToUiAppend(output, printData("command", command));
+
+                    // we are sending this command to the PICC
+                    response = new byte[0];
+                    try {
+                        response = isoDep.transceive(command);
+                        writeToUiAppend(output, printData("response from PICC", response));
+                    } catch (NullPointerException e) {
+                        Log.e(TAG, logString + " transceive failed, NullPointerException:\n" + e.getMessage());
+                        writeToUiAppend(output, "transceive failed, did you forget to tap a tag first ? : " + e.getMessage());
+                        return;
+                    } catch (IOException e) {
+                        Log.e(TAG, logString + " transceive failed, IOException:\n" + e.getMessage());
+                        writeToUiAppend(output, "transceive failed: " + e.getMessage());
+                        return;
+                    }
+                    // example response: length: 16 data: 04597a32501490204664303048229100
+
+                    writeToUiAppend(output, "we received two information's from PICC:");
+                    byte[] responseData3 = Arrays.copyOfRange(response, 0, response.length - 2);
+                    byte[] responseStatus3 = Arrays.copyOfRange(response, response.length - 2, response.length);
+                    writeToUiAppend(output, printData("responseData3", responseData3));
+                    writeToUiAppend(output, printData("responseStatus3", responseStatus3));
+
+                    // check for status == '0x90af
+                    boolean isResponseStatus3MoreData = Arrays.equals(responseStatus3, statusMoreData);
+                    writeToUiAppend(output, "checking that more data will follow from PICC: " + isResponseStatus3MoreData);
+                    if (isResponseStatus3MoreData) {
+                        writeToUiAppend(output, "no more data following, end requesting more data");
+                        return;
+                    }
 
-                // now we are asking to get more data from PICC a second time
-
-                // this predefined in the header
-                // MORE_DATA_COMMAND = (byte) 0xAF;
-
-                // manually building the command string
-                command = new byte[5];
-                command[0] = (byte) 0x90; // fixed as trailer for wrapped commands
-                command[1] = MORE_DATA_COMMAND;
-                command[2] = (byte) 0x00; // is 0x00
-                command[3] = (byte) 0x00; // length of data, i 0 because we do not have any additional data to send
-                command[4] = (byte) 0x00; // trailing '00'
-                writeToUiAppend(output, "build the getMoreData command manually");
-                writeToUiAppend(output, printData("command", command));
-
-                // we are sending this command to the PICC
-                response = new byte[0];
-                try {
-                    response = isoDep.transceive(command);
-                    writeToUiAppend(output, printData("response from PICC", response));
-                } catch (NullPointerException e) {
-                    Log.e(TAG, logString + " transceive failed, NullPointerException:\n" + e.getMessage());
-                    writeToUiAppend(output, "transceive failed, did you forget to tap a tag first ? : " + e.getMessage());
-                    return;
-                } catch (IOException e) {
-                    Log.e(TAG, logString + " transceive failed, IOException:\n" + e.getMessage());
-                    writeToUiAppend(output, "transceive failed: " + e.getMessage());
-                    return;
-                }
-                // example response: length: 16 data: 04597a32501490204664303048229100
-
-                writeToUiAppend(output, "we received two information's from PICC:");
-                byte[] responseData3 = Arrays.copyOfRange(response, 0, response.length - 2);
-                byte[] responseStatus3 = Arrays.copyOfRange(response, response.length - 2, response.length);
-                writeToUiAppend(output, printData("responseData3", responseData3));
-                writeToUiAppend(output, printData("responseStatus3", responseStatus3));
-
-                // check for status == '0x90af
-                boolean isResponseStatus3MoreData = Arrays.equals(responseStatus3, statusMoreData);
-                writeToUiAppend(output, "checking that more data will follow from PICC: " + isResponseStatus3MoreData);
-                if (isResponseStatus3MoreData) {
-                    writeToUiAppend(output, "no more data following, end requesting more data");
-                    return;
-                }
+                    // check for status == '0x9000
+                    boolean isResponseStatus3Ok = Arrays.equals(responseStatus3, statusOk);
+                    writeToUiAppend(output, "checking that the status is OK" + isResponseStatus3Ok);
+                    if (!isResponseStatus3Ok) {
+                        writeToUiAppend(output, "final status is not '0x9100', aborted");
+                        return;
+                    }
+                    // now the status is OK and we can analyze the  data
+                    writeToUiAppend(output, "The final status is '0x9100' means SUCCESS");
+
+                    // concatenate the 3 parts
+                    writeToUiAppend(output, "concatenate the 3 response parts");
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    baos.write(responseData1, 0, responseData1.length);
+                    baos.write(responseData2, 0, responseData2.length);
+                    baos.write(responseData3, 0, responseData3.length);
+                    byte[] responseData = baos.toByteArray();
+                    writeToUiAppend(output, printData("complete responseData", responseData));
+                    // example length: 28 data: 040101330016050401010300160504597a3250149020466430304822
+
+                    // for analysis see the document MIFARE DESFire Light contactless application IC MF2DLHX0.pdf
+                    // on pages 67 - 69
+
+                    // to identify the hardware type see Mifare type identification procedure AN10833.pdf page 5
+
+                    // taking just some elements
+                    byte hardwareType = responseData[1];
+                    byte hardwareStorageSize = responseData[5];
+                    byte weekProduction = responseData[26];
+                    byte yearProduction = responseData[27];
+
+                    String hardwareTypeName = " is not a Mifare DESFire tag";
+                    if (hardwareType == (byte) 0x01) hardwareTypeName = " is a Mifare DESFire tag";
+                    int hardwareStorageSizeInt = (int) Math.pow(2, hardwareStorageSize >> 1); // get the storage size in bytes
+
+                    writeToUiAppend(output, "hardwareType: " + Utils.byteToHex(hardwareType) + hardwareTypeName);
+                    writeToUiAppend(output, "hardwareStorageSize (byte): " + Utils.byteToHex(hardwareStorageSize));
+                    writeToUiAppend(output, "hardwareStorageSize (int): " + hardwareStorageSizeInt);
+                    writeToUiAppend(output, "weekProduction: " + Utils.byteToHex(weekProduction));
+                    writeToUiAppend(output, "yearProduction: " + Utils.byteToHex(yearProduction));
 
-                // check for status == '0x9000
-                boolean isResponseStatus3Ok = Arrays.equals(responseStatus3, statusOk);
-                writeToUiAppend(output, "checking that the status is OK" + isResponseStatus3Ok);
-                if (!isResponseStatus3Ok) {
-                    writeToUiAppend(output, "final status is not '0x9100', aborted");
-                    return;
-                }
-                // now the status is OK and we can analyze the  data
-                writeToUiAppend(output, "The final status is '0x9100' means SUCCESS");
-
-                // concatenate the 3 parts
-                writeToUiAppend(output, "concatenate the 3 response parts");
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                baos.write(responseData1, 0, responseData1.length);
-                baos.write(responseData2, 0, responseData2.length);
-                baos.write(responseData3, 0, responseData3.length);
-                byte[] responseData = baos.toByteArray();
-                writeToUiAppend(output, printData("complete responseData", responseData));
-                // example length: 28 data: 040101330016050401010300160504597a3250149020466430304822
-
-                // for analysis see the document MIFARE DESFire Light contactless application IC MF2DLHX0.pdf
-                // on pages 67 - 69
-
-                // to identify the hardware type see Mifare type identification procedure AN10833.pdf page 5
-
-                // taking just some elements
-                byte hardwareType = responseData[1];
-                byte hardwareStorageSize = responseData[5];
-                byte weekProduction = responseData[26];
-                byte yearProduction = responseData[27];
-
-                String hardwareTypeName = " is not a Mifare DESFire tag";
-                if (hardwareType == (byte) 0x01) hardwareTypeName = " is a Mifare DESFire tag";
-                int hardwareStorageSizeInt = (int) Math.pow(2, hardwareStorageSize >> 1); // get the storage size in bytes
-
-                writeToUiAppend(output, "hardwareType: " + Utils.byteToHex(hardwareType) + hardwareTypeName);
-                writeToUiAppend(output, "hardwareStorageSize (byte): " + Utils.byteToHex(hardwareStorageSize));
-                writeToUiAppend(output, "hardwareStorageSize (int): " + hardwareStorageSizeInt);
-                writeToUiAppend(output, "weekProduction: " + Utils.byteToHex(weekProduction));
-                writeToUiAppend(output, "yearProduction: " + Utils.byteToHex(yearProduction));
-
-                vibrateShort();
+                    vibrateShort();
+                });
             }
         });
 
@@ -1822,16 +1897,18 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
                             case DialogInterface.BUTTON_POSITIVE:
                                 //Yes button clicked
 
-                                boolean success = desfireAuthenticateLegacy.formatPicc();
-                                byte[] responseData = desfireAuthenticateLegacy.getErrorCode();
-                                if (success) {
-                                    writeToUiAppend(output, logString + " SUCCESS");
-                                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
-                                    vibrateShort();
-                                } else {
-                                    writeToUiAppend(output, logString + " FAILURE with error " + EV3.getErrorCode(responseData));
-                                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
-                                }
+                                runOnCardThread("formatPicc", () -> {
+                                    boolean success = desfireAuthenticateLegacy.formatPicc();
+                                    byte[] responseData = desfireAuthenticateLegacy.getErrorCode();
+                                    if (success) {
+                                        writeToUiAppend(output, logString + " SUCCESS");
+                                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " SUCCESS", COLOR_GREEN);
+                                        vibrateShort();
+                                    } else {
+                                        writeToUiAppend(output, logString + " FAILURE with error " + EV3.getErrorCode(responseData));
+                                        writeToUiAppendBorderColor(errorCode, errorCodeLayout, logString + " FAILURE with error code: " + Utils.bytesToHexNpeUpperCase(responseData), COLOR_RED);
+                                    }
+                                });
                                 break;
                             case DialogInterface.BUTTON_NEGATIVE:
                                 //No button clicked
@@ -1864,81 +1941,83 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         test.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearOutputFields();
-                String logString = "Test select application by  isoSelect";
-                writeToUiAppend(output, logString);
-
-                byte[] isoFileId;
-                boolean success;
+                runOnCardThread("test", () -> {
+                    clearOutputFields();
+                    String logString = "Test select application by  isoSelect";
+                    writeToUiAppend(output, logString);
 
-                isoFileId = Utils.hexStringToByteArray("DF01"); // default app id, working
-                success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
-                Log.d(TAG, "for " + printData("isoFileId",isoFileId) + " : " + success);
+                    byte[] isoFileId;
+                    boolean success;
 
-                isoFileId = Utils.hexStringToByteArray("3F00"); // picc/mf app id, working
-                success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
-                Log.d(TAG, "for " + printData("isoFileId",isoFileId) + " : " + success);
+                    isoFileId = Utils.hexStringToByteArray("DF01"); // default app id, working
+                    success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
+                    Log.d(TAG, "for " + printData("isoFileId",isoFileId) + " : " + success);
 
-                isoFileId = Utils.hexStringToByteArray("EF04"); // false
-                success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
-                Log.d(TAG, "for " + printData("isoFileId",isoFileId) + " : " + success);
+                    isoFileId = Utils.hexStringToByteArray("3F00"); // picc/mf app id, working
+                    success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
+                    Log.d(TAG, "for " + printData("isoFileId",isoFileId) + " : " + success);
 
-                isoFileId = Utils.hexStringToByteArray("04DF"); // false
-                success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
-                Log.d(TAG, "for " + printData("isoFileId",isoFileId) + " : " + success);
+                    isoFileId = Utils.hexStringToByteArray("EF04"); // false
+                    success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
+                    Log.d(TAG, "for " + printData("isoFileId",isoFileId) + " : " + success);
 
-                /*
-                for (int i = 0; i < 65536; i++) {
-                    // this is testing all available isoFileIds from '0000' to 'FFFF'
-                    // a success should be when isoFileId is 'DF01' = default Application File Id and '3F00' = PICC/MF IsoFileId
-                    int iR = 65535 - i;
-                    isoFileId = Utils.intTo2ByteArrayInversed(iR);
+                    isoFileId = Utils.hexStringToByteArray("04DF"); // false
                     success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
-                    if (success) {
-                        // todo write iR and isoFileId to a file
-                        Log.e(TAG, "iR: " + iR+ " SUCCESS " + printData("isoFileId", isoFileId));
-                        writeToUiAppend(output, "success with i: " + i + printData(" isoFileId", isoFileId));
+                    Log.d(TAG, "for " + printData("isoFileId",isoFileId) + " : " + success);
+
+                    /*
+                    for (int i = 0; i < 65536; i++) {
+                        // this is testing all available isoFileIds from '0000' to 'FFFF'
+                        // a success should be when isoFileId is 'DF01' = default Application File Id and '3F00' = PICC/MF IsoFileId
+                        int iR = 65535 - i;
+                        isoFileId = Utils.intTo2ByteArrayInversed(iR);
+                        success = desfireLight.selectApplicationIsoByIsoFileIdGuess(isoFileId);
+                        if (success) {
+                            // todo write iR and isoFileId to a file
+                            Log.e(TAG, "iR: " + iR+ " SUCCESS " + printData("isoFileId", isoFileId));
+                            writeToUiAppend(output, "success with i: " + i + printData(" isoFileId", isoFileId));
+                        }
+                        Log.d(TAG, "i: " + i);
                     }
-                    Log.d(TAG, "i: " + i);
-                }
-*/
-
-
-
-/*
-                boolean success;
-                String stepString = "1 select Master Application";
-                success = desfireAuthenticateLegacy.selectApplication(DesfireAuthenticateLegacy.MASTER_APPLICATION_IDENTIFIER);
-                writeToUiAppend(output, stepString + " success ? : " + success);
-                if (!success) return;
-*/
-                /*
-                // this is DES to AES
-                stepString = "2 authenticate Master Application with DEFAULT DES key";
-                success = desfireAuthenticateLegacy.authenticateD40(Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_DES_DEFAULT);
-                writeToUiAppend(output, stepString + " success ? : " + success);
-                if (!success) return;
-
-                stepString = "3 change Master Application Key 00 from DES DEFAULT to AES DEFAULT";
-                success = desfireAuthenticateLegacy.changeDesKeyToAes(Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_AES_DEFAULT, Constants.MASTER_APPLICATION_KEY_DES_DEFAULT, "Master App Key");
-                writeToUiAppend(output, stepString + " success ? : " + success);
-                if (!success) return;
-                */
-/*
-                // this is AES to DES
-                stepString = "2 authenticate Master Application with DEFAULT AES key";
-                byte[] responseData = new byte[2];
-                success = desfireAuthenticateLegacy.authenticateAes(null, Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_AES_DEFAULT, false, responseData);
-                writeToUiAppend(output, stepString + " success ? : " + success);
-                if (!success) return;
-
-                stepString = "3 change Master Application Key 00 from AES DEFAULT to DES DEFAULT";
-                success = desfireAuthenticateLegacy.changeAesKeyToDes(Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_DES_DEFAULT, Constants.MASTER_APPLICATION_KEY_AES_DEFAULT, "Master App Key");
-                //success = desfireLight.changeApplicationKeyToDesFull(Constants.MASTER_APPLICATION_KEY_NUMBER, (byte) 0x00, Constants.MASTER_APPLICATION_KEY_DES_DEFAULT, Constants.MASTER_APPLICATION_KEY_AES_DEFAULT);
-                writeToUiAppend(output, stepString + " success ? : " + success);
-                if (!success) return;
-*/
+    */
+
+
+
+    /*
+                    boolean success;
+                    String stepString = "1 select Master Application";
+                    success = desfireAuthenticateLegacy.selectApplication(DesfireAuthenticateLegacy.MASTER_APPLICATION_IDENTIFIER);
+                    writeToUiAppend(output, stepString + " success ? : " + success);
+                    if (!success) return;
+    */
+                    /*
+                    // this is DES to AES
+                    stepString = "2 authenticate Master Application with DEFAULT DES key";
+                    success = desfireAuthenticateLegacy.authenticateD40(Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_DES_DEFAULT);
+                    writeToUiAppend(output, stepString + " success ? : " + success);
+                    if (!success) return;
+
+                    stepString = "3 change Master Application Key 00 from DES DEFAULT to AES DEFAULT";
+                    success = desfireAuthenticateLegacy.changeDesKeyToAes(Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_AES_DEFAULT, Constants.MASTER_APPLICATION_KEY_DES_DEFAULT, "Master App Key");
+                    writeToUiAppend(output, stepString + " success ? : " + success);
+                    if (!success) return;
+                    */
+    /*
+                    // this is AES to DES
+                    stepString = "2 authenticate Master Application with DEFAULT AES key";
+                    byte[] responseData = new byte[2];
+                    success = desfireAuthenticateLegacy.authenticateAes(null, Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_AES_DEFAULT, false, responseData);
+                    writeToUiAppend(output, stepString + " success ? : " + success);
+                    if (!success) return;
+
+                    stepString = "3 change Master Application Key 00 from AES DEFAULT to DES DEFAULT";
+                    success = desfireAuthenticateLegacy.changeAesKeyToDes(Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_NUMBER, Constants.MASTER_APPLICATION_KEY_DES_DEFAULT, Constants.MASTER_APPLICATION_KEY_AES_DEFAULT, "Master App Key");
+                    //success = desfireLight.changeApplicationKeyToDesFull(Constants.MASTER_APPLICATION_KEY_NUMBER, (byte) 0x00, Constants.MASTER_APPLICATION_KEY_DES_DEFAULT, Constants.MASTER_APPLICATION_KEY_AES_DEFAULT);
+                    writeToUiAppend(output, stepString + " success ? : " + success);
+                    if (!success) return;
+    */
 
+                });
             }
 
         });
@@ -2016,7 +2095,7 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
             // Plain
             // as some tasks like changeFileSettings require an authenticationEv2First a switch is
             // visible when a plain file was selected. Here we are checking the state of the switch
-            if ((swAuthenticateEv2First.getVisibility() == View.VISIBLE) && (swAuthenticateEv2First.isChecked())) {
+            if (isAuthenticateEv2FirstSwitchOn) {
                 // the switch is visible and checked
                 writeToUiAppend(output, methodName + " Using authenticateEv2First instead");
                 success = desfireLight.authenticateAesEv2First(keyNumber, keyForAuthentication);
@@ -2078,7 +2157,7 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
             // Plain
             // as some tasks like changeFileSettings require an authenticationEv2First a switch is
             // visible when a plain file was selected. Here we are checking the state of the switch
-            if ((swAuthenticateEv2First.getVisibility() == View.VISIBLE) && (swAuthenticateEv2First.isChecked())) {
+            if (isAuthenticateEv2FirstSwitchOn) {
                 // the switch is visible and checked
                 writeToUiAppend(output, methodName + " Using authenticateEv2First instead");
                 success = desfireLight.authenticateAesEv2First(keyNumber, keyForAuthentication);
@@ -2295,31 +2374,24 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
 
     // This method is run in another thread when a card is discovered
     // !!!! This method cannot cannot direct interact with the UI Thread
-    // Use `runOnUiThread` method to change the UI from this method
+    // The work is handed over to the card thread so the NFC binder thread returns at once,
+    // pending tasks for a previous tag are dropped
     @Override
     public void onTagDiscovered(Tag tag) {
+        cardExecutor.cancelPending();
+        runOnCardThread("tagDiscovered", () -> processTagDiscovered(tag));
+    }
 
-        clearOutputFields();
+    /**
+     * runs on the card thread, the first command (checkForDESFireLight) is sent as early as possible,
+     * the vibration and the UI updates follow afterwards
+     */
+    private void processTagDiscovered(Tag tag) {
         invalidateAllSelections();
-        writeToUiAppend(output, "NFC tag discovered");
         isoDep = null;
         try {
             isoDep = IsoDep.get(tag);
             if (isoDep != null) {
-                // Make a Vibration
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    ((Vibrator) getSystemService(VIBRATOR_SERVICE)).vibrate(VibrationEffect.createOneShot(150, 10));
-                } else {
-                    Vibrator v = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
-                    v.vibrate(200);
-                }
-
-                runOnUiThread(() -> {
-                    output.setText("");
-                    errorCode.setText("");
-                    errorCode.setBackgroundColor(getResources().getColor(R.color.white));
-                    allLayoutsInvisible();
-                });
                 isoDep.connect();
                 if (!isoDep.isConnected()) {
                     writeToUiAppendBorderColor(errorCode, errorCodeLayout, "could not connect to the tag, aborted", COLOR_RED);
@@ -2329,22 +2401,28 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
 
                 desfireAuthenticateLegacy = new DesfireAuthenticateLegacy(isoDep, true); // true means all data is logged
                 desfireLight = new DesfireLight(isoDep);
+                // the check runs on the card thread, so isDesfireLight is set before it is read below
+                isDesfireLight = desfireLight.checkForDESFireLight();
 
-                if (desfireLight != null) {
-                    runOnUiThread(() -> {
-                        isDesfireLight = desfireLight.checkForDESFireLight();
-                        if (!isDesfireLight) {
-                            showDialogWarningNotDesfireLight();
-                            writeToUiAppend(output, "The tag you are tapping is NOT a Mifare DESFire Light tag.\n" +
-                                    "All tag operations are disabled\n\n");
-                            writeToUiAppendBorderColor(errorCode, errorCodeLayout, "Wrong tag type (not a Mifare DESFire Light tag", COLOR_RED);
-                            // todo disable all operations by making the buttons invisible
-                            return;
-                        }
-                    });
+                // Make a Vibration
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    ((Vibrator) getSystemService(VIBRATOR_SERVICE)).vibrate(VibrationEffect.createOneShot(150, 10));
+                } else {
+                    Vibrator v = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
+                    v.vibrate(200);
+                }
+                clearOutputFields();
+                postUiUpdate(this::allLayoutsInvisible);
+                writeToUiAppend(output, "NFC tag discovered");
+
+                if (!isDesfireLight) {
+                    showDialogWarningNotDesfireLight();
+                    writeToUiAppend(output, "The tag you are tapping is NOT a Mifare DESFire Light tag.\n" +
+                            "All tag operations are disabled\n\n");
+                    writeToUiAppendBorderColor(errorCode, errorCodeLayout, "Wrong tag type (not a Mifare DESFire Light tag", COLOR_RED);
+                    // todo disable all operations by making the buttons invisible
+                    return;
                 }
-
-                if (!isDesfireLight) return;
 
                 // get tag ID
                 tagIdByte = tag.getId();
@@ -2397,6 +2475,14 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         super.onPause();
         if (mNfcAdapter != null)
             mNfcAdapter.disableReaderMode(this);
+        // wipe the keys read from the keystore when the app leaves the foreground
+        CustomKeystore.clearKeyCache();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cardExecutor.shutdown();
     }
 
     /**
@@ -2435,12 +2521,39 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         swAuthenticateEv2First.setChecked(false);
     }
 
+    /**
+     * section for card thread and UI updates
+     */
+
+    /**
+     * runs the task on the card thread, tasks are run one after the other in the order of submission
+     */
+    private void runOnCardThread(String taskName, Runnable task) {
+        cardExecutor.submit(taskName, () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                writeToUiAppend(output, "ERROR: Exception " + e.getMessage());
+                writeToUiAppendBorderColor(errorCode, errorCodeLayout, taskName + " Exception: " + e.getMessage(), COLOR_RED);
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * queues an UI update, all updates queued until the UI thread gets to run them are run in one pass
+     * (one runOnUiThread call instead of one per log line), the order of the updates is kept
+     */
+    private void postUiUpdate(Runnable update) {
+        uiUpdateQueue.post(update);
+    }
+
     /**
      * section for UI handling
      */
 
     private void writeToUiAppend(TextView textView, String message) {
-        runOnUiThread(() -> {
+        postUiUpdate(() -> {
             String oldString = textView.getText().toString();
             if (TextUtils.isEmpty(oldString)) {
                 textView.setText(message);
@@ -2453,7 +2566,7 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     }
 
     private void writeToUiAppendBorderColor(TextView textView, TextInputLayout textInputLayout, String message, int color) {
-        runOnUiThread(() -> {
+        postUiUpdate(() -> {
 
             // set the color to green
             //Color from rgb
@@ -2489,7 +2602,7 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     }
 
     private void writeToUiToast(String message) {
-        runOnUiThread(() -> {
+        postUiUpdate(() -> {
             Toast.makeText(getApplicationContext(),
                     message,
                     Toast.LENGTH_SHORT).show();
@@ -2497,33 +2610,33 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     }
 
     private void clearOutputFields() {
-        runOnUiThread(() -> {
+        postUiUpdate(() -> {
             output.setText("");
             errorCode.setText("");
+            // reset the border color to primary for errorCode
+            int color = R.color.colorPrimary;
+            int[][] states = new int[][]{
+                    new int[]{android.R.attr.state_focused}, // focused
+                    new int[]{android.R.attr.state_hovered}, // hovered
+                    new int[]{android.R.attr.state_enabled}, // enabled
+                    new int[]{}  //
+            };
+            int[] colors = new int[]{
+                    color,
+                    color,
+                    color,
+                    color
+            };
+            ColorStateList myColorList = new ColorStateList(states, colors);
+            errorCodeLayout.setBoxStrokeColorStateList(myColorList);
         });
-        // reset the border color to primary for errorCode
-        int color = R.color.colorPrimary;
-        int[][] states = new int[][]{
-                new int[]{android.R.attr.state_focused}, // focused
-                new int[]{android.R.attr.state_hovered}, // hovered
-                new int[]{android.R.attr.state_enabled}, // enabled
-                new int[]{}  //
-        };
-        int[] colors = new int[]{
-                color,
-                color,
-                color,
-                color
-        };
-        ColorStateList myColorList = new ColorStateList(states, colors);
-        errorCodeLayout.setBoxStrokeColorStateList(myColorList);
     }
 
     private void invalidateAllSelections() {
         selectedApplicationId = null;
         selectedFileId = "";
         selectedFileType = -1;
-        runOnUiThread(() -> {
+        postUiUpdate(() -> {
             applicationSelected.setText("");
             fileSelected.setText("");
         });
@@ -2686,20 +2799,23 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     }
 
     public void showDialog(Activity activity, String msg) {
-        final Dialog dialog = new Dialog(activity);
-        dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
-        dialog.setCancelable(true);
-        dialog.setContentView(R.layout.logdata);
-        TextView text = dialog.findViewById(R.id.tvLogData);
-        //text.setMovementMethod(new ScrollingMovementMethod());
-        text.setText(msg);
-        Button dialogButton = dialog.findViewById(R.id.btnLogDataOk);
-        dialogButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                dialog.dismiss();
-            }
+        // can be called from the card thread
+        postUiUpdate(() -> {
+            final Dialog dialog = new Dialog(activity);
+            dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
+            dialog.setCancelable(true);
+            dialog.setContentView(R.layout.logdata);
+            TextView text = dialog.findViewById(R.id.tvLogData);
+            //text.setMovementMethod(new ScrollingMovementMethod());
+            text.setText(msg);
+            Button dialogButton = dialog.findViewById(R.id.btnLogDataOk);
+            dialogButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    dialog.dismiss();
+                }
+            });
+            dialog.show();
         });
-        dialog.show();
     }
 }
\ No newline at end of file
@@ -0,0 +1,484 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class stores secret keys (DES, AES or any other byte array) in an append-only file that is read through a
+ * memory mapping. An in-memory index maps each alias to the offset of its latest record, so a lookup reads and
+ * decrypts exactly one record and a store appends one record instead of rewriting the whole file (as a BKS keystore
+ * does on each store).
+ * <p>
+ * File layout:
+ * header: magic 'DFKS' (4) || version (1) || reserved (3) || check value (16)
+ * record: length (4) || CRC32 of the payload (4) || payload
+ * payload: type (1, PUT or DELETE) || alias length (2) || alias (UTF-8) || [nonce (12) || encrypted key || tag (16)]
+ * <p>
+ * The keys are encrypted with AES-256 GCM (the alias is the additional authenticated data), the file key and the
+ * check value are derived from the storage password with HmacSHA256. A wrong password is detected on open by the
+ * check value. A record at the end of the file that was not completely written (e.g. the app was killed) fails the
+ * length or CRC check and is cut off when the file is opened. A corrupted record in the middle of the file is skipped,
+ * the following records stay available. Note: when the skipped record was the latest PUT or a DELETE of an alias
+ * the previous state of this alias is visible again.
+ * Overwritten and deleted records stay in the file until the store is compacted: the live records are copied to a
+ * new file that replaces the old one. This is done automatically when the garbage is larger than the live data and
+ * larger than COMPACTION_MINIMUM_GARBAGE_BYTES, or by calling compact().
+ * <p>
+ * All public methods are synchronized, one instance per file should be shared by all users.
+ */
+
+public class MappedKeyStore implements Closeable {
+
+    private static final byte[] MAGIC = new byte[]{(byte) 0x44, (byte) 0x46, (byte) 0x4B, (byte) 0x53}; // 'DFKS'
+    private static final byte VERSION = (byte) 0x01;
+    private static final int HEADER_LENGTH = 24;
+    private static final int CHECK_VALUE_LENGTH = 16;
+    private static final int RECORD_HEADER_LENGTH = 8; // length || CRC32
+    private static final byte RECORD_TYPE_PUT = (byte) 0x01;
+    private static final byte RECORD_TYPE_DELETE = (byte) 0x02;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int MAXIMUM_ALIAS_LENGTH = 255;
+    private static final int MAXIMUM_KEY_LENGTH = 64;
+    public static final long COMPACTION_MINIMUM_GARBAGE_BYTES = 64 * 1024;
+    private static final byte[] FILE_KEY_LABEL = "MappedKeyStore file key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CHECK_VALUE_LABEL = "MappedKeyStore check value".getBytes(StandardCharsets.UTF_8);
+
+    private final File file;
+    private final SecretKeySpec fileKey;
+    private final byte[] checkValue;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Cipher cipher; // AES GCM, initialized for each record
+    private final HashMap<String, Long> index = new HashMap<>(); // alias -> offset of the latest PUT record
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer mappedBuffer;
+    private long fileLength;
+    private long garbageBytes;
+    private long discardedBytes; // bytes of an incomplete record cut off on open
+    private long skippedBytes; // bytes of corrupted records in the middle of the file skipped on open
+
+    private MappedKeyStore(File file, byte[] storagePassword) throws GeneralSecurityException {
+        this.file = file;
+        byte[] fileKeyBytes = hmacSha256(storagePassword, FILE_KEY_LABEL);
+        this.fileKey = new SecretKeySpec(fileKeyBytes, "AES");
+        Arrays.fill(fileKeyBytes, (byte) 0x00);
+        this.checkValue = Arrays.copyOf(hmacSha256(storagePassword, CHECK_VALUE_LABEL), CHECK_VALUE_LENGTH);
+        this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    }
+
+    /**
+     * opens the key file or creates it when it does not exist and builds the index
+     *
+     * @param file            | the key file, e.g. in context.getFilesDir()
+     * @param storagePassword | the secret the file key is derived from, e.g. the derived keystore password
+     * @throws GeneralSecurityException when the file was created with another password
+     * @throws IOException              when the file can't be read or is not a key file
+     */
+    public static MappedKeyStore open(File file, byte[] storagePassword) throws IOException, GeneralSecurityException {
+        if ((file == null) || (storagePassword == null) || (storagePassword.length == 0)) {
+            throw new IllegalArgumentException("file or storagePassword is NULL or empty");
+        }
+        MappedKeyStore keyStore = new MappedKeyStore(file, storagePassword);
+        try {
+            keyStore.openFile();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            keyStore.close();
+            throw e;
+        }
+        return keyStore;
+    }
+
+    private void openFile() throws IOException, GeneralSecurityException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        fileLength = channel.size();
+        if (fileLength == 0) {
+            writeFully(channel, getHeader(), 0);
+            channel.force(true);
+            fileLength = HEADER_LENGTH;
+        }
+        if (fileLength < HEADER_LENGTH) {
+            throw new IOException("the file is not a key file: " + file.getName());
+        }
+        if (fileLength > Integer.MAX_VALUE) {
+            throw new IOException("the file is too large to be mapped: " + file.getName());
+        }
+        map();
+        byte[] header = new byte[HEADER_LENGTH];
+        readMapped(0, header);
+        if ((!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) || (header[4] != VERSION)) {
+            throw new IOException("the file is not a key file of version " + VERSION + ": " + file.getName());
+        }
+        if (!MessageDigest.isEqual(Arrays.copyOfRange(header, HEADER_LENGTH - CHECK_VALUE_LENGTH, HEADER_LENGTH), checkValue)) {
+            throw new GeneralSecurityException("the storage password does not match the key file");
+        }
+        long offset = scanRecords();
+        if (offset < fileLength) {
+            // an incomplete record at the end of the file, e.g. the app was killed during the write
+            discardedBytes = fileLength - offset;
+            channel.truncate(offset);
+            fileLength = offset;
+            map();
+        }
+    }
+
+    /**
+     * reads all records, builds the index and returns the offset behind the last complete record
+     * A corrupted record with a readable length in the middle of the file is skipped and counted as garbage,
+     * only an incomplete or corrupted record at the end of the file is left for the truncation.
+     *
+     * @throws IOException when a record in the middle of the file has an invalid length, the following records
+     *                     can't be found and the file is not truncated
+     */
+    private long scanRecords() throws IOException {
+        long offset = HEADER_LENGTH;
+        byte[] recordHeader = new byte[RECORD_HEADER_LENGTH];
+        while (offset + RECORD_HEADER_LENGTH <= fileLength) {
+            readMapped(offset, recordHeader);
+            ByteBuffer recordHeaderBuffer = ByteBuffer.wrap(recordHeader);
+            int payloadLength = recordHeaderBuffer.getInt();
+            int crc = recordHeaderBuffer.getInt();
+            if ((payloadLength < 3) && (!isZeroUntilEnd(offset))) {
+                throw new IOException("the record at offset " + offset + " has an invalid length: " + file.getName());
+            }
+            if ((payloadLength < 3) || (offset + RECORD_HEADER_LENGTH + payloadLength > fileLength)) break;
+            long recordLength = RECORD_HEADER_LENGTH + payloadLength;
+            boolean isLastRecord = (offset + recordLength == fileLength);
+            byte[] payload = new byte[payloadLength];
+            readMapped(offset + RECORD_HEADER_LENGTH, payload);
+            int aliasLength = ((payload[1] & 0xFF) << 8) | (payload[2] & 0xFF);
+            if ((getCrc32(payload) != crc) || (3 + aliasLength > payloadLength)
+                    || ((payload[0] != RECORD_TYPE_PUT) && (payload[0] != RECORD_TYPE_DELETE))) {
+                if (isLastRecord) break;
+                // the record is skipped and removed by the next compaction
+                skippedBytes += recordLength;
+                garbageBytes += recordLength;
+                offset += recordLength;
+                continue;
+            }
+            String alias = new String(payload, 3, aliasLength, StandardCharsets.UTF_8);
+            Long oldOffset;
+            if (payload[0] == RECORD_TYPE_PUT) {
+                oldOffset = index.put(alias, offset);
+            } else {
+                oldOffset = index.remove(alias);
+                garbageBytes += recordLength;
+            }
+            if (oldOffset != null) garbageBytes += getRecordLength(oldOffset);
+            offset += recordLength;
+        }
+        return offset;
+    }
+
+    private boolean isZeroUntilEnd(long offset) {
+        for (int i = (int) offset; i < fileLength; i++) {
+            if (mappedBuffer.get(i) != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * section for keys
+     */
+
+    /**
+     * @return the decrypted key or NULL when there is no key with this alias
+     * @throws GeneralSecurityException when the record can't be decrypted (modified file)
+     */
+    public synchronized byte[] getKey(String alias) throws GeneralSecurityException {
+        checkOpen();
+        Long offset = index.get(alias);
+        if (offset == null) return null;
+        int payloadLength = getRecordLength(offset) - RECORD_HEADER_LENGTH;
+        byte[] payload = new byte[payloadLength];
+        readMapped(offset + RECORD_HEADER_LENGTH, payload);
+        byte[] aliasBytes = alias.getBytes(StandardCharsets.UTF_8);
+        int nonceOffset = 3 + aliasBytes.length;
+        cipher.init(Cipher.DECRYPT_MODE, fileKey, new GCMParameterSpec(TAG_LENGTH * 8, payload, nonceOffset, NONCE_LENGTH));
+        cipher.updateAAD(aliasBytes);
+        byte[] key = cipher.doFinal(payload, nonceOffset + NONCE_LENGTH, payloadLength - nonceOffset - NONCE_LENGTH);
+        Arrays.fill(payload, (byte) 0x00);
+        return key;
+    }
+
+    /**
+     * stores the key under the alias, an existing key with this alias is replaced
+     */
+    public synchronized void putKey(String alias, byte[] key) throws IOException, GeneralSecurityException {
+        checkOpen();
+        appendKey(alias, key);
+        channel.force(false);
+        compactIfNecessary();
+    }
+
+    /**
+     * stores all keys with one sync of the file at the end, use this for bulk imports (e.g. thousands of
+     * diversified keys), existing keys with the same alias are replaced
+     */
+    public synchronized void putKeys(Map<String, byte[]> keys) throws IOException, GeneralSecurityException {
+        checkOpen();
+        for (Map.Entry<String, byte[]> entry : keys.entrySet()) {
+            appendKey(entry.getKey(), entry.getValue());
+        }
+        channel.force(false);
+        compactIfNecessary();
+    }
+
+    private void appendKey(String alias, byte[] key) throws IOException, GeneralSecurityException {
+        byte[] aliasBytes = checkAlias(alias);
+        if ((key == null) || (key.length == 0) || (key.length > MAXIMUM_KEY_LENGTH)) {
+            throw new IllegalArgumentException("key is NULL or not of length 1.." + MAXIMUM_KEY_LENGTH);
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        secureRandom.nextBytes(nonce);
+        cipher.init(Cipher.ENCRYPT_MODE, fileKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(aliasBytes);
+        byte[] encryptedKey = cipher.doFinal(key);
+        ByteBuffer payload = ByteBuffer.allocate(3 + aliasBytes.length + NONCE_LENGTH + encryptedKey.length);
+        payload.put(RECORD_TYPE_PUT);
+        payload.putShort((short) aliasBytes.length);
+        payload.put(aliasBytes);
+        payload.put(nonce);
+        payload.put(encryptedKey);
+        long offset = appendRecord(payload.array());
+        Long oldOffset = index.put(alias, offset);
+        if (oldOffset != null) garbageBytes += getRecordLength(oldOffset);
+    }
+
+    /**
+     * @return true when a key with this alias was deleted
+     */
+    public synchronized boolean deleteKey(String alias) throws IOException {
+        checkOpen();
+        byte[] aliasBytes = checkAlias(alias);
+        if (!index.containsKey(alias)) return false;
+        ByteBuffer payload = ByteBuffer.allocate(3 + aliasBytes.length);
+        payload.put(RECORD_TYPE_DELETE);
+        payload.putShort((short) aliasBytes.length);
+        payload.put(aliasBytes);
+        appendRecord(payload.array());
+        channel.force(false);
+        Long oldOffset = index.remove(alias);
+        garbageBytes += getRecordLength(oldOffset) + RECORD_HEADER_LENGTH + payload.capacity();
+        compactIfNecessary();
+        return true;
+    }
+
+    public synchronized boolean containsAlias(String alias) {
+        return index.containsKey(alias);
+    }
+
+    public synchronized List<String> getAliases() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return true when the store was opened with this storage password
+     */
+    public boolean isOpenedWith(byte[] storagePassword) {
+        try {
+            return MessageDigest.isEqual(Arrays.copyOf(hmacSha256(storagePassword, CHECK_VALUE_LABEL), CHECK_VALUE_LENGTH), checkValue);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * section for compaction
+     */
+
+    /**
+     * copies the live records to a new file that replaces the key file, the garbage of overwritten and deleted keys
+     * is removed
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        File compactedFile = new File(file.getPath() + ".compact");
+        HashMap<String, Long> compactedIndex = new HashMap<>();
+        try (RandomAccessFile compactedRandomAccessFile = new RandomAccessFile(compactedFile, "rw")) {
+            FileChannel compactedChannel = compactedRandomAccessFile.getChannel();
+            compactedChannel.truncate(0);
+            writeFully(compactedChannel, getHeader(), 0);
+            long offset = HEADER_LENGTH;
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                byte[] record = new byte[getRecordLength(entry.getValue())];
+                readMapped(entry.getValue(), record);
+                writeFully(compactedChannel, record, offset);
+                compactedIndex.put(entry.getKey(), offset);
+                offset += record.length;
+            }
+            compactedChannel.force(true);
+        }
+        closeFile();
+        if (!compactedFile.renameTo(file)) {
+            // the old file is still complete, continue with it
+            compactedFile.delete();
+            openFileAfterCompaction();
+            throw new IOException("the compacted file can't be renamed to " + file.getName());
+        }
+        openFileAfterCompaction();
+        index.clear();
+        index.putAll(compactedIndex);
+        garbageBytes = 0;
+    }
+
+    private void openFileAfterCompaction() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        fileLength = channel.size();
+        map();
+    }
+
+    private void compactIfNecessary() throws IOException {
+        long liveBytes = fileLength - HEADER_LENGTH - garbageBytes;
+        if ((garbageBytes > COMPACTION_MINIMUM_GARBAGE_BYTES) && (garbageBytes > liveBytes)) {
+            compact();
+        }
+    }
+
+    public synchronized long getFileLength() {
+        return fileLength;
+    }
+
+    public synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    public synchronized long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    public synchronized long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeFile();
+        index.clear();
+    }
+
+    private void closeFile() {
+        mappedBuffer = null;
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        randomAccessFile = null;
+        channel = null;
+    }
+
+    /**
+     * section for file access
+     */
+
+    private long appendRecord(byte[] payload) throws IOException {
+        if (fileLength + RECORD_HEADER_LENGTH + payload.length > Integer.MAX_VALUE) {
+            throw new IOException("the key file is too large");
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length);
+        record.putInt(payload.length);
+        record.putInt(getCrc32(payload));
+        record.put(payload);
+        long offset = fileLength;
+        writeFully(channel, record.array(), offset);
+        fileLength += record.capacity();
+        return offset;
+    }
+
+    private static void writeFully(FileChannel fileChannel, byte[] data, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            position += fileChannel.write(buffer, position);
+        }
+    }
+
+    private void map() throws IOException {
+        mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+    }
+
+    private void readMapped(long offset, byte[] data) {
+        if (offset + data.length > mappedBuffer.capacity()) {
+            // the record was appended after the last mapping
+            try {
+                map();
+            } catch (IOException e) {
+                throw new IllegalStateException("the key file can't be mapped: " + e.getMessage());
+            }
+        }
+        ByteBuffer buffer = mappedBuffer.duplicate();
+        buffer.position((int) offset);
+        buffer.get(data);
+    }
+
+    private int getRecordLength(long offset) {
+        byte[] length = new byte[4];
+        readMapped(offset, length);
+        return RECORD_HEADER_LENGTH + ByteBuffer.wrap(length).getInt();
+    }
+
+    private byte[] getHeader() {
+        byte[] header = new byte[HEADER_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[4] = VERSION;
+        System.arraycopy(checkValue, 0, header, HEADER_LENGTH - CHECK_VALUE_LENGTH, CHECK_VALUE_LENGTH);
+        return header;
+    }
+
+    private void checkOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("the key store is closed");
+        }
+    }
+
+    private static byte[] checkAlias(String alias) {
+        if ((alias == null) || (alias.length() == 0)) {
+            throw new IllegalArgumentException("alias is NULL or empty");
+        }
+        byte[] aliasBytes = alias.getBytes(StandardCharsets.UTF_8);
+        if (aliasBytes.length > MAXIMUM_ALIAS_LENGTH) {
+            throw new IllegalArgumentException("alias is longer than " + MAXIMUM_ALIAS_LENGTH + " bytes");
+        }
+        return aliasBytes;
+    }
+
+    private static int getCrc32(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        return (int) crc32.getValue();
+    }
+
+    private static byte[] hmacSha256(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+}
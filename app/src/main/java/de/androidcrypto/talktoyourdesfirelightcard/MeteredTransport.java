@@ -0,0 +1,72 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.io.IOException;
+
+/**
+ * An ApduTransport that forwards all APDUs to another transport and records the command byte, the length of
+ * the command and response APDU and the transceive latency in a CommandMetrics instance.
+ * The command byte is the INS byte of the (ISO wrapped) APDU, for a native command of length 1 it is the
+ * first byte.
+ * A transceive that throws an exception is recorded with 0 received bytes, the exception is passed through.
+ */
+
+public class MeteredTransport implements ApduTransport {
+
+    private final ApduTransport transport;
+    private final CommandMetrics commandMetrics;
+
+    public MeteredTransport(ApduTransport transport, CommandMetrics commandMetrics) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport is NULL");
+        }
+        if (commandMetrics == null) {
+            throw new IllegalArgumentException("commandMetrics is NULL");
+        }
+        this.transport = transport;
+        this.commandMetrics = commandMetrics;
+    }
+
+    @Override
+    public byte[] transceive(byte[] apdu) throws IOException {
+        byte command = getCommand(apdu);
+        int bytesSent = (apdu == null) ? 0 : apdu.length;
+        long start = System.nanoTime();
+        byte[] response = null;
+        try {
+            response = transport.transceive(apdu);
+            return response;
+        } finally {
+            long latencyNanos = System.nanoTime() - start;
+            commandMetrics.recordTransceive(command, bytesSent, (response == null) ? 0 : response.length, latencyNanos);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return transport.isConnected();
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return transport.getMaxTransceiveLength();
+    }
+
+    @Override
+    public boolean isExtendedLengthApduSupported() {
+        return transport.isExtendedLengthApduSupported();
+    }
+
+    public ApduTransport getTransport() {
+        return transport;
+    }
+
+    public CommandMetrics getCommandMetrics() {
+        return commandMetrics;
+    }
+
+    private static byte getCommand(byte[] apdu) {
+        if ((apdu == null) || (apdu.length == 0)) return (byte) 0x00;
+        if (apdu.length == 1) return apdu[0];
+        return apdu[1];
+    }
+}
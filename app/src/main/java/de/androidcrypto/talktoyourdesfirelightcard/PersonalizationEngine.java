@@ -0,0 +1,361 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class personalizes cards with the steps of a CardLayout, one command per step and no additional
+ * reads or checks between the steps, so a card is ready after the minimal number of round trips.
+ * <p>
+ * When a card is pulled during the personalization the engine remembers the failed step of the card (keyed by
+ * the UID) and resumes at this step when the card is presented again:
+ * - the last context steps before the resumed step are repeated (select the application, authenticate; the
+ * Master Application is selected instead of a repeated format)
+ * - file steps for files that exist on the card are skipped (one getAllFileIds instead of the create commands)
+ * - a DUPLICATE_ERROR of the resumed create step is a success, the card executed the command but the
+ * response was lost
+ * - a key change that was executed by the card before it was pulled is detected by authenticating with the
+ * new key (the authentication key) or by a change with the new key as old key (all other keys)
+ * The UID is used to identify the card, so cards with Random ID enabled are always personalized from the start.
+ * <p>
+ * The engine should live as long as the activity and is used by one NFC callback at a time, the progress and
+ * statistics methods are synchronized as the UI thread may read them.
+ */
+
+public class PersonalizationEngine {
+
+    private static final String TAG = PersonalizationEngine.class.getName();
+
+    public static final int DEFAULT_MAXIMUM_NUMBER_OF_OPEN_CARDS = 1024;
+    private static final byte[] RESPONSE_FAILURE = new byte[]{(byte) 0x91, (byte) 0xFF}; // general, undefined failure
+
+    private final CardLayout cardLayout;
+    private final List<PersonalizationStep> steps;
+    private final byte[] applicationIdentifier;
+    private final int maximumNumberOfOpenCards;
+    private final LinkedHashMap<String, Integer> openCards; // UID -> index of the step to resume at
+
+    /**
+     * section for statistics
+     */
+    private int numberOfPersonalizedCards;
+    private int numberOfFailedRuns;
+    private int numberOfResumedRuns;
+    private long numberOfExecutedSteps;
+    private long firstStartNanos = -1;
+    private long lastFinishedNanos;
+
+    public PersonalizationEngine(CardLayout cardLayout) {
+        this(cardLayout, DEFAULT_MAXIMUM_NUMBER_OF_OPEN_CARDS);
+    }
+
+    /**
+     * @param cardLayout               | the layout for all cards
+     * @param maximumNumberOfOpenCards | the number of not completed cards that can be resumed, minimum 1
+     */
+    public PersonalizationEngine(CardLayout cardLayout, int maximumNumberOfOpenCards) {
+        if (cardLayout == null) {
+            throw new IllegalArgumentException("cardLayout is NULL");
+        }
+        if (maximumNumberOfOpenCards < 1) {
+            throw new IllegalArgumentException("maximumNumberOfOpenCards is < 1");
+        }
+        this.cardLayout = cardLayout;
+        this.steps = cardLayout.getSteps();
+        this.applicationIdentifier = cardLayout.getApplicationIdentifier();
+        this.maximumNumberOfOpenCards = maximumNumberOfOpenCards;
+        // access order, the eldest entry is the least recently presented card
+        this.openCards = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * runs the steps of the layout on the card or resumes a failed personalization of the card
+     *
+     * @param desfireEv3 | a connected DesfireEv3 instance
+     * @param uid        | the UID of the card (tag.getId())
+     * @return the result, on failure the personalization is resumed at the failed step on the next call for the card
+     */
+    public PersonalizationResult personalize(DesfireEv3 desfireEv3, byte[] uid) {
+        if ((desfireEv3 == null) || (uid == null)) {
+            throw new IllegalArgumentException("desfireEv3 or uid is NULL");
+        }
+        long startNanos = System.nanoTime();
+        String cardKey = Utils.bytesToHexNpeUpperCase(uid);
+        int resumedStepIndex = getOpenStepIndex(cardKey);
+        PersonalizationResult result = new PersonalizationResult(steps.size(), resumedStepIndex);
+        int index = resumedStepIndex;
+        byte[] existingFileIds = null;
+        if (resumedStepIndex > 0) {
+            index = restoreContext(desfireEv3, uid, resumedStepIndex);
+            if (index < 0) {
+                result.setFailure(resumedStepIndex, steps.get(resumedStepIndex), desfireEv3.getErrorCode(),
+                        "could not restore the context of the resumed step: " + desfireEv3.getErrorCodeReason());
+                return finish(cardKey, resumedStepIndex, result, startNanos);
+            }
+            if (isApplicationSelected(index) && hasCreateFileStep(index)) {
+                // NULL when the file ids can't be read, the DUPLICATE_ERROR check of the resumed step remains
+                existingFileIds = desfireEv3.getAllFileIds();
+            }
+        }
+        for (; index < steps.size(); index++) {
+            PersonalizationStep step = steps.get(index);
+            if (step.isCreateFileStep() && contains(existingFileIds, step.getFileNumber())) {
+                result.countSkippedStep();
+                continue;
+            }
+            result.countExecutedStep();
+            if (!executeStep(desfireEv3, uid, index, (index == resumedStepIndex), result)) {
+                return finish(cardKey, index, result, startNanos);
+            }
+        }
+        result.setSuccess(desfireEv3.getErrorCode());
+        return finish(cardKey, steps.size(), result, startNanos);
+    }
+
+    private boolean executeStep(DesfireEv3 desfireEv3, byte[] uid, int index, boolean isResumedStep, PersonalizationResult result) {
+        PersonalizationStep step = steps.get(index);
+        byte[] data = step.getDataInternal();
+        boolean success;
+        switch (step.getType()) {
+            case FORMAT_PICC:
+                success = desfireEv3.formatPicc();
+                break;
+            case CREATE_APPLICATION:
+                success = desfireEv3.createApplicationAes(data, step.getParameter(0));
+                if (!success) success = isResumedStep && isDuplicateError(desfireEv3);
+                break;
+            case SELECT_APPLICATION:
+                success = desfireEv3.selectApplicationByAid(data);
+                break;
+            case CREATE_STANDARD_FILE:
+                success = desfireEv3.createAStandardFile(step.getFileNumber(), step.getCommunicationSettings(), data, step.getParameter(0), false);
+                if (!success) success = isResumedStep && isDuplicateError(desfireEv3);
+                break;
+            case CREATE_BACKUP_FILE:
+                success = desfireEv3.createABackupFile(step.getFileNumber(), step.getCommunicationSettings(), data, step.getParameter(0));
+                if (!success) success = isResumedStep && isDuplicateError(desfireEv3);
+                break;
+            case CREATE_VALUE_FILE:
+                success = desfireEv3.createAValueFile(step.getFileNumber(), step.getCommunicationSettings(), data,
+                        step.getParameter(0), step.getParameter(1), step.getParameter(2), (step.getParameter(3) == 1));
+                if (!success) success = isResumedStep && isDuplicateError(desfireEv3);
+                break;
+            case CREATE_LINEAR_RECORD_FILE:
+                success = desfireEv3.createALinearRecordFile(step.getFileNumber(), step.getCommunicationSettings(), data, step.getParameter(0), step.getParameter(1));
+                if (!success) success = isResumedStep && isDuplicateError(desfireEv3);
+                break;
+            case CREATE_CYCLIC_RECORD_FILE:
+                success = desfireEv3.createACyclicRecordFile(step.getFileNumber(), step.getCommunicationSettings(), data, step.getParameter(0), step.getParameter(1));
+                if (!success) success = isResumedStep && isDuplicateError(desfireEv3);
+                break;
+            case AUTHENTICATE:
+                success = desfireEv3.authenticateAesEv2First(step.getKeyNumber(), data);
+                break;
+            case CHANGE_APPLICATION_KEY:
+                byte[] keyNew = getNewKey(uid, step.getKeyNumber());
+                if (keyNew == null) {
+                    result.setFailure(index, step, RESPONSE_FAILURE, "the key provider has no key for key number " + step.getKeyNumber());
+                    return false;
+                }
+                byte keyVersion = (byte) step.getParameter(0);
+                success = desfireEv3.changeApplicationKeyFull(step.getKeyNumber(), keyVersion, keyNew, data);
+                PersonalizationStep authenticateStep = findAuthenticateStep(index);
+                if ((!success) && isResumedStep && (authenticateStep != null) && (authenticateStep.getKeyNumber() != step.getKeyNumber())) {
+                    // the card may have changed the key before it was pulled, the failed command ended the
+                    // authentication. A change with the new key as old key succeeds only if the card has the new key
+                    success = desfireEv3.authenticateAesEv2First(authenticateStep.getKeyNumber(), authenticateStep.getDataInternal())
+                            && desfireEv3.changeApplicationKeyFull(step.getKeyNumber(), keyVersion, keyNew, keyNew);
+                }
+                break;
+            default:
+                success = false;
+        }
+        if (!success) {
+            result.setFailure(index, step, desfireEv3.getErrorCode(), desfireEv3.getErrorCodeReason());
+        }
+        return success;
+    }
+
+    /**
+     * repeats the last select and authenticate steps before the resumed step
+     *
+     * @return the index of the step to continue with or -1 on failure
+     */
+    private int restoreContext(DesfireEv3 desfireEv3, byte[] uid, int resumedStepIndex) {
+        int selectIndex = -1;
+        int authenticateIndex = -1;
+        for (int i = 0; i < resumedStepIndex; i++) {
+            PersonalizationStep step = steps.get(i);
+            if ((step.getType() == PersonalizationStep.Type.FORMAT_PICC) || (step.getType() == PersonalizationStep.Type.SELECT_APPLICATION)) {
+                selectIndex = i;
+                authenticateIndex = -1; // a select ends the authentication
+            } else if (step.getType() == PersonalizationStep.Type.AUTHENTICATE) {
+                authenticateIndex = i;
+            }
+        }
+        if (selectIndex >= 0) {
+            PersonalizationStep selectStep = steps.get(selectIndex);
+            byte[] aid = (selectStep.getType() == PersonalizationStep.Type.FORMAT_PICC) ? DesfireEv3.MASTER_APPLICATION_IDENTIFIER : selectStep.getDataInternal();
+            if (!desfireEv3.selectApplicationByAid(aid)) return -1;
+        }
+        if (authenticateIndex < 0) return resumedStepIndex;
+        PersonalizationStep authenticateStep = steps.get(authenticateIndex);
+        byte keyNumber = authenticateStep.getKeyNumber();
+        boolean isKeyChanged = false;
+        for (int i = authenticateIndex + 1; i < resumedStepIndex; i++) {
+            if (isChangeOfKey(steps.get(i), keyNumber)) isKeyChanged = true;
+        }
+        byte[] keyNew = getNewKey(uid, keyNumber);
+        if (isKeyChanged) {
+            return ((keyNew != null) && desfireEv3.authenticateAesEv2First(keyNumber, keyNew)) ? resumedStepIndex : -1;
+        }
+        if (desfireEv3.authenticateAesEv2First(keyNumber, authenticateStep.getDataInternal())) return resumedStepIndex;
+        // the resumed step may be the change of the authentication key that was executed by the card before it was pulled
+        if ((keyNew != null) && isChangeOfKey(steps.get(resumedStepIndex), keyNumber)
+                && desfireEv3.authenticateAesEv2First(keyNumber, keyNew)) {
+            return resumedStepIndex + 1;
+        }
+        return -1;
+    }
+
+    private PersonalizationStep findAuthenticateStep(int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            if (steps.get(i).getType() == PersonalizationStep.Type.AUTHENTICATE) return steps.get(i);
+        }
+        return null;
+    }
+
+    private boolean isApplicationSelected(int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            PersonalizationStep.Type type = steps.get(i).getType();
+            if (type == PersonalizationStep.Type.SELECT_APPLICATION) return true;
+            if (type == PersonalizationStep.Type.FORMAT_PICC) return false;
+        }
+        return false;
+    }
+
+    private boolean hasCreateFileStep(int index) {
+        for (int i = index; i < steps.size(); i++) {
+            if (steps.get(i).isCreateFileStep()) return true;
+        }
+        return false;
+    }
+
+    private boolean isChangeOfKey(PersonalizationStep step, byte keyNumber) {
+        return (step.getType() == PersonalizationStep.Type.CHANGE_APPLICATION_KEY) && (step.getKeyNumber() == keyNumber);
+    }
+
+    private byte[] getNewKey(byte[] uid, byte keyNumber) {
+        KeyProvider keyProvider = cardLayout.getApplicationKeyProvider();
+        if (keyProvider == null) return null;
+        return keyProvider.getKey(uid, applicationIdentifier, keyNumber);
+    }
+
+    private boolean isDuplicateError(DesfireEv3 desfireEv3) {
+        return Arrays.equals(desfireEv3.getErrorCode(), DesfireEv3.RESPONSE_DUPLICATE_ERROR);
+    }
+
+    private static boolean contains(byte[] fileIds, byte fileNumber) {
+        if (fileIds == null) return false;
+        for (byte fileId : fileIds) {
+            if (fileId == fileNumber) return true;
+        }
+        return false;
+    }
+
+    private PersonalizationResult finish(String cardKey, int nextStepIndex, PersonalizationResult result, long startNanos) {
+        long finishedNanos = System.nanoTime();
+        result.setDurationNanos(finishedNanos - startNanos);
+        synchronized (this) {
+            if (result.isSuccess() || (nextStepIndex == 0)) {
+                openCards.remove(cardKey);
+            } else {
+                openCards.put(cardKey, nextStepIndex);
+                while (openCards.size() > maximumNumberOfOpenCards) {
+                    Iterator<Map.Entry<String, Integer>> iterator = openCards.entrySet().iterator();
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+            if (firstStartNanos < 0) firstStartNanos = startNanos;
+            lastFinishedNanos = finishedNanos;
+            numberOfExecutedSteps += result.getNumberOfExecutedSteps();
+            if (result.isResumed()) numberOfResumedRuns++;
+            if (result.isSuccess()) {
+                numberOfPersonalizedCards++;
+            } else {
+                numberOfFailedRuns++;
+            }
+        }
+        if (!result.isSuccess()) Log.d(TAG, cardLayout.getName() + " card " + cardKey + ": " + result);
+        return result;
+    }
+
+    /**
+     * section for progress
+     */
+
+    private synchronized int getOpenStepIndex(String cardKey) {
+        Integer index = openCards.get(cardKey);
+        return (index == null) ? 0 : index;
+    }
+
+    /**
+     * @return true when the personalization of the card failed and will be resumed
+     */
+    public synchronized boolean isOpen(byte[] uid) {
+        return openCards.containsKey(Utils.bytesToHexNpeUpperCase(uid));
+    }
+
+    /**
+     * forgets the progress of the card, the next personalization of the card runs all steps
+     * (e.g. when the card was formatted by another application after the failure)
+     */
+    public synchronized void resetProgress(byte[] uid) {
+        openCards.remove(Utils.bytesToHexNpeUpperCase(uid));
+    }
+
+    public synchronized int getNumberOfOpenCards() {
+        return openCards.size();
+    }
+
+    /**
+     * section for statistics
+     */
+
+    public synchronized int getNumberOfPersonalizedCards() {
+        return numberOfPersonalizedCards;
+    }
+
+    public synchronized int getNumberOfFailedRuns() {
+        return numberOfFailedRuns;
+    }
+
+    public synchronized int getNumberOfResumedRuns() {
+        return numberOfResumedRuns;
+    }
+
+    public synchronized long getNumberOfExecutedSteps() {
+        return numberOfExecutedSteps;
+    }
+
+    /**
+     * @return the personalized cards per minute from the start of the first run to the end of the last run,
+     * including the time for changing the cards, or 0 when no card is personalized
+     */
+    public synchronized double getCardsPerMinute() {
+        if ((numberOfPersonalizedCards == 0) || (lastFinishedNanos <= firstStartNanos)) return 0;
+        return numberOfPersonalizedCards * 60e9 / (lastFinishedNanos - firstStartNanos);
+    }
+
+    public synchronized String getStatistics() {
+        return cardLayout.getName() + ": personalized cards: " + numberOfPersonalizedCards + " failed runs: " + numberOfFailedRuns
+                + " resumed runs: " + numberOfResumedRuns + " open cards: " + openCards.size()
+                + " executed steps: " + numberOfExecutedSteps + " cards/minute: " + String.format("%.1f", getCardsPerMinute());
+    }
+}
@@ -0,0 +1,114 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * This class holds the result of PersonalizationEngine.personalize for one card. The personalization stops on the
+ * first failing step, the error code and reason are the ones of this step. A failed personalization of a card
+ * is resumed at the failed step when the card is presented again.
+ */
+
+public class PersonalizationResult {
+
+    private final int numberOfSteps;
+    private final int resumedStepIndex;
+    private int numberOfExecutedSteps;
+    private int numberOfSkippedSteps;
+    private int failedStepIndex = -1;
+    private String failedStep = "";
+    private byte[] errorCode = new byte[2];
+    private String errorCodeReason = "";
+    private long durationNanos;
+
+    PersonalizationResult(int numberOfSteps, int resumedStepIndex) {
+        this.numberOfSteps = numberOfSteps;
+        this.resumedStepIndex = resumedStepIndex;
+    }
+
+    void countExecutedStep() {
+        numberOfExecutedSteps++;
+    }
+
+    void countSkippedStep() {
+        numberOfSkippedSteps++;
+    }
+
+    void setFailure(int index, PersonalizationStep step, byte[] errorCode, String errorCodeReason) {
+        this.failedStepIndex = index;
+        this.failedStep = (step == null) ? "" : step.toString();
+        this.errorCode = (errorCode == null) ? new byte[2] : errorCode.clone();
+        this.errorCodeReason = errorCodeReason;
+    }
+
+    void setSuccess(byte[] errorCode) {
+        this.errorCode = (errorCode == null) ? new byte[2] : errorCode.clone();
+        this.errorCodeReason = "SUCCESS";
+    }
+
+    void setDurationNanos(long durationNanos) {
+        this.durationNanos = durationNanos;
+    }
+
+    public boolean isSuccess() {
+        return (failedStepIndex == -1);
+    }
+
+    public int getNumberOfSteps() {
+        return numberOfSteps;
+    }
+
+    /**
+     * @return the index of the step the personalization was resumed at or 0 for a new card
+     */
+    public int getResumedStepIndex() {
+        return resumedStepIndex;
+    }
+
+    public boolean isResumed() {
+        return (resumedStepIndex > 0);
+    }
+
+    /**
+     * @return the number of steps that were sent to the card in this run, including the failed one
+     * (the repeated context steps of a resumed personalization are not counted)
+     */
+    public int getNumberOfExecutedSteps() {
+        return numberOfExecutedSteps;
+    }
+
+    /**
+     * @return the number of file steps of a resumed personalization that were skipped because the file exists
+     */
+    public int getNumberOfSkippedSteps() {
+        return numberOfSkippedSteps;
+    }
+
+    /**
+     * @return the index of the failed step or -1 on success
+     */
+    public int getFailedStepIndex() {
+        return failedStepIndex;
+    }
+
+    public String getFailedStep() {
+        return failedStep;
+    }
+
+    public byte[] getErrorCode() {
+        return errorCode;
+    }
+
+    public String getErrorCodeReason() {
+        return errorCodeReason;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PersonalizationResult success: " + isSuccess() + " steps: " + numberOfSteps + " resumedStepIndex: " + resumedStepIndex
+                + " executed: " + numberOfExecutedSteps + " skipped: " + numberOfSkippedSteps
+                + " failedStepIndex: " + failedStepIndex + " (" + failedStep + ") errorCode: " + Utils.bytesToHexNpeUpperCase(errorCode)
+                + " reason: " + errorCodeReason + " durationMs: " + (durationNanos / 1000000);
+    }
+}
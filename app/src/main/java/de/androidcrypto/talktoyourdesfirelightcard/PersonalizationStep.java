@@ -0,0 +1,139 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * This class describes one step of a card personalization that is executed by the PersonalizationEngine,
+ * each step is one command to the card (AUTHENTICATE: the two parts of authenticateAesEv2First).
+ * The steps are created by CardLayout from the declarative layout and are immutable, the byte arrays are copied.
+ * <p>
+ * FORMAT_PICC, SELECT_APPLICATION and AUTHENTICATE are context steps: when a personalization is resumed after the
+ * card was pulled, the engine repeats the last context steps before the resumed step to get the card into the same
+ * state (FORMAT_PICC is not repeated, the Master Application is selected instead).
+ */
+
+public class PersonalizationStep {
+
+    public enum Type {
+        FORMAT_PICC, CREATE_APPLICATION, SELECT_APPLICATION, CREATE_STANDARD_FILE, CREATE_BACKUP_FILE,
+        CREATE_VALUE_FILE, CREATE_LINEAR_RECORD_FILE, CREATE_CYCLIC_RECORD_FILE, AUTHENTICATE, CHANGE_APPLICATION_KEY
+    }
+
+    private final Type type;
+    private final byte number; // the file number or the key number
+    private final DesfireEv3.CommunicationSettings communicationSettings;
+    private final byte[] data; // the AID, the access rights of a file or the (old) key
+    private final int[] parameters; // file size, value limits, record size and number, number of keys or key version
+
+    private PersonalizationStep(Type type, byte number, DesfireEv3.CommunicationSettings communicationSettings, byte[] data, int... parameters) {
+        this.type = type;
+        this.number = number;
+        this.communicationSettings = communicationSettings;
+        this.data = (data == null) ? null : data.clone();
+        this.parameters = parameters;
+    }
+
+    static PersonalizationStep formatPicc() {
+        return new PersonalizationStep(Type.FORMAT_PICC, (byte) 0, null, null);
+    }
+
+    static PersonalizationStep createApplication(byte[] applicationIdentifier, int numberOfApplicationKeys) {
+        return new PersonalizationStep(Type.CREATE_APPLICATION, (byte) 0, null, applicationIdentifier, numberOfApplicationKeys);
+    }
+
+    static PersonalizationStep selectApplication(byte[] applicationIdentifier) {
+        return new PersonalizationStep(Type.SELECT_APPLICATION, (byte) 0, null, applicationIdentifier);
+    }
+
+    static PersonalizationStep createStandardFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+        return new PersonalizationStep(Type.CREATE_STANDARD_FILE, fileNumber, communicationSettings, accessRights, fileSize);
+    }
+
+    static PersonalizationStep createBackupFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+        return new PersonalizationStep(Type.CREATE_BACKUP_FILE, fileNumber, communicationSettings, accessRights, fileSize);
+    }
+
+    static PersonalizationStep createValueFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue, boolean limitedCreditOperation) {
+        return new PersonalizationStep(Type.CREATE_VALUE_FILE, fileNumber, communicationSettings, accessRights, minimumValue, maximumValue, initialValue, limitedCreditOperation ? 1 : 0);
+    }
+
+    static PersonalizationStep createLinearRecordFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+        return new PersonalizationStep(Type.CREATE_LINEAR_RECORD_FILE, fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+    }
+
+    static PersonalizationStep createCyclicRecordFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+        return new PersonalizationStep(Type.CREATE_CYCLIC_RECORD_FILE, fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+    }
+
+    /**
+     * @param key | the key the card has before the personalization (AES-128)
+     */
+    static PersonalizationStep authenticate(byte keyNumber, byte[] key) {
+        return new PersonalizationStep(Type.AUTHENTICATE, keyNumber, null, key);
+    }
+
+    /**
+     * the new key is taken from the KeyProvider of the CardLayout when the step is executed
+     *
+     * @param keyVersion | the version of the new key
+     * @param keyOld     | the key the card has before the personalization (AES-128)
+     */
+    static PersonalizationStep changeApplicationKey(byte keyNumber, byte keyVersion, byte[] keyOld) {
+        return new PersonalizationStep(Type.CHANGE_APPLICATION_KEY, keyNumber, null, keyOld, keyVersion);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return true for FORMAT_PICC, SELECT_APPLICATION and AUTHENTICATE
+     */
+    public boolean isContextStep() {
+        return (type == Type.FORMAT_PICC) || (type == Type.SELECT_APPLICATION) || (type == Type.AUTHENTICATE);
+    }
+
+    /**
+     * @return true for the steps that create a file in the selected application
+     */
+    public boolean isCreateFileStep() {
+        return (type == Type.CREATE_STANDARD_FILE) || (type == Type.CREATE_BACKUP_FILE) || (type == Type.CREATE_VALUE_FILE)
+                || (type == Type.CREATE_LINEAR_RECORD_FILE) || (type == Type.CREATE_CYCLIC_RECORD_FILE);
+    }
+
+    public byte getFileNumber() {
+        return number;
+    }
+
+    public byte getKeyNumber() {
+        return number;
+    }
+
+    public DesfireEv3.CommunicationSettings getCommunicationSettings() {
+        return communicationSettings;
+    }
+
+    byte[] getDataInternal() {
+        return data;
+    }
+
+    int getParameter(int index) {
+        return parameters[index];
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case FORMAT_PICC:
+                return "format the PICC";
+            case CREATE_APPLICATION:
+                return "create the application " + Utils.bytesToHexNpeUpperCase(data);
+            case SELECT_APPLICATION:
+                return "select the application " + Utils.bytesToHexNpeUpperCase(data);
+            case AUTHENTICATE:
+                return "authenticate with key " + number;
+            case CHANGE_APPLICATION_KEY:
+                return "change the application key " + number;
+            default:
+                return "create file " + number + " (" + type + ", " + communicationSettings + ")";
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * This class is the EV2 secure messaging engine that is shared by DesfireLight and DesfireEv3. It is created
+ * after a successful authentication (authenticateAesEv2First or authenticateAesEv2NonFirst) with the session keys
+ * and the Transaction Identifier and holds the session CMAC, the session cipher and the SecureResponseStream.
+ * <p>
+ * Command (see Mifare DESFire Light Features and Hints AN12343.pdf):
+ * MACed: Data = CmdHeader || CmdData || MAC
+ * Full:  Data = CmdHeader || Enc(CmdData || Padding) || MAC
+ * MAC_Input = Cmd || CmdCounter || TI || CmdHeader || (Encrypted) CmdData, the CmdCounter is the one before the increase
+ * <p>
+ * Response:
+ * MACed: RespData || MAC
+ * Full:  Enc(RespData || Padding) || MAC
+ * MAC_Input = 00h || CmdCounter || TI || (Encrypted) RespData, the CmdCounter is the one after the increase
+ * <p>
+ * The CmdCounter is owned by the card class (it is increased after each successful command and reset on
+ * authentication), so all methods get the counter as parameter. All commands are build in one array without
+ * a ByteArrayOutputStream and the MAC input is fed directly to the CMAC, it is not concatenated.
+ * <p>
+ * The class does not do any logging and is not thread safe.
+ */
+
+public class SecureMessagingEngine {
+
+    public static final byte COMMUNICATION_MODE_PLAIN = (byte) 0x00;
+    public static final byte COMMUNICATION_MODE_MACED = (byte) 0x01;
+    public static final byte COMMUNICATION_MODE_FULL = (byte) 0x03;
+    public static final int MAC_LENGTH = 8;
+    private static final int BLOCK_SIZE = 16;
+    private static final int STATUS_LENGTH = 2;
+
+    private final SessionCmac sessionCmac;
+    private final SessionCipher sessionCipher;
+    private final SecureResponseStream responseStream;
+    private final byte[] transactionIdentifier;
+    private final byte[] macHeader = new byte[7]; // Cmd or 00h || CmdCounter || TI
+    private final byte[] receivedMac = new byte[MAC_LENGTH];
+    private final byte[] calculatedMac = new byte[MAC_LENGTH];
+
+    /**
+     * @param sesAuthEncKey         | the SesAuthENCKey of the session
+     * @param sesAuthMacKey         | the SesAuthMACKey of the session
+     * @param transactionIdentifier | the TI (4 bytes) received in authenticateAesEv2First
+     * @throws GeneralSecurityException when the AES cipher is not available
+     */
+    public SecureMessagingEngine(byte[] sesAuthEncKey, byte[] sesAuthMacKey, byte[] transactionIdentifier) throws GeneralSecurityException {
+        if ((transactionIdentifier == null) || (transactionIdentifier.length != 4)) {
+            throw new IllegalArgumentException("transactionIdentifier is NULL or not of length 4");
+        }
+        this.sessionCipher = new SessionCipher(sesAuthEncKey);
+        this.sessionCmac = new SessionCmac(sesAuthMacKey);
+        this.responseStream = new SecureResponseStream(sessionCmac, sessionCipher);
+        this.transactionIdentifier = transactionIdentifier.clone();
+    }
+
+    /**
+     * section for MAC
+     */
+
+    /**
+     * calculates the full (16 bytes) CMAC with the SesAuthMACKey
+     */
+    public byte[] calculateMac(byte[] input) {
+        return sessionCmac.calculateMac(input);
+    }
+
+    /**
+     * calculates the truncated command MAC, MAC_Input = Cmd || CmdCounter || TI || CmdHeader || CmdData
+     *
+     * @param command    | the command byte, e.g. 0xAD for ReadData
+     * @param cmdCounter | the CmdCounter before the increase
+     * @param header     | the CmdHeader, can be NULL
+     * @param data       | the (encrypted) CmdData, can be NULL
+     * @return the truncated MAC (8 bytes)
+     */
+    public byte[] calculateCommandMac(byte command, int cmdCounter, byte[] header, byte[] data) {
+        byte[] mac = new byte[MAC_LENGTH];
+        startMac(command, cmdCounter);
+        updateMac(header);
+        updateMac(data);
+        sessionCmac.doFinalTruncated(mac, 0);
+        return mac;
+    }
+
+    /**
+     * verifies the truncated response MAC, MAC_Input = 00h || CmdCounter || TI || RespData
+     *
+     * @param cmdCounter   | the CmdCounter after the increase
+     * @param responseData | the (encrypted) RespData without the MAC, can be NULL
+     * @param mac          | the received MAC (8 bytes)
+     * @return true if the received MAC equals the calculated MAC
+     */
+    public boolean verifyResponseMac(int cmdCounter, byte[] responseData, byte[] mac) {
+        if ((mac == null) || (mac.length != MAC_LENGTH)) return false;
+        return verifyResponseMac(cmdCounter, responseData, 0, (responseData == null) ? 0 : responseData.length, mac, 0);
+    }
+
+    private boolean verifyResponseMac(int cmdCounter, byte[] response, int offset, int length, byte[] mac, int macOffset) {
+        startMac((byte) 0x00, cmdCounter);
+        if (length > 0) {
+            sessionCmac.update(response, offset, length);
+        }
+        sessionCmac.doFinalTruncated(calculatedMac, 0);
+        System.arraycopy(mac, macOffset, receivedMac, 0, MAC_LENGTH);
+        return MessageDigest.isEqual(calculatedMac, receivedMac);
+    }
+
+    private void startMac(byte firstByte, int cmdCounter) {
+        macHeader[0] = firstByte;
+        macHeader[1] = (byte) cmdCounter; // LSB order
+        macHeader[2] = (byte) (cmdCounter >> 8);
+        System.arraycopy(transactionIdentifier, 0, macHeader, 3, 4);
+        sessionCmac.start();
+        sessionCmac.update(macHeader, 0, macHeader.length);
+    }
+
+    private void updateMac(byte[] data) {
+        if ((data != null) && (data.length > 0)) {
+            sessionCmac.update(data, 0, data.length);
+        }
+    }
+
+    /**
+     * the truncated MAC are the bytes with an odd index of the full MAC
+     */
+    public static byte[] truncateMac(byte[] fullMac) {
+        if ((fullMac == null) || (fullMac.length < 2)) return null;
+        byte[] truncatedMac = new byte[fullMac.length / 2];
+        for (int i = 0; i < truncatedMac.length; i++) {
+            truncatedMac[i] = fullMac[2 * i + 1];
+        }
+        return truncatedMac;
+    }
+
+    /**
+     * section for encryption
+     */
+
+    public byte[] encrypt(byte[] iv, byte[] data) {
+        return sessionCipher.encrypt(iv, data);
+    }
+
+    public byte[] decrypt(byte[] iv, byte[] data) {
+        return sessionCipher.decrypt(iv, data);
+    }
+
+    /**
+     * encrypts the padded CmdData with the IV for CmdData
+     *
+     * @param cmdCounter | the CmdCounter before the increase
+     */
+    public byte[] encryptCommandData(int cmdCounter, byte[] dataPadded) {
+        byte[] encryptedData = new byte[dataPadded.length];
+        sessionCipher.encryptCommandData(transactionIdentifier, cmdCounter, dataPadded, 0, dataPadded.length, encryptedData, 0);
+        return encryptedData;
+    }
+
+    /**
+     * decrypts the RespData with the IV for RespData
+     *
+     * @param cmdCounter | the CmdCounter after the increase
+     */
+    public byte[] decryptResponseData(int cmdCounter, byte[] encryptedData) {
+        byte[] decryptedData = new byte[encryptedData.length];
+        sessionCipher.decryptResponseData(transactionIdentifier, cmdCounter, encryptedData, 0, encryptedData.length, decryptedData, 0);
+        return decryptedData;
+    }
+
+    /**
+     * returns the length of the data after padding: the data is followed by 0x80 and filled with 0x00 up to
+     * the next multiple of 16, data with a length of a multiple of 16 gets a full block of padding
+     */
+    public static int getPaddedLength(int dataLength) {
+        return ((dataLength / BLOCK_SIZE) + 1) * BLOCK_SIZE;
+    }
+
+    /**
+     * section for command building
+     */
+
+    /**
+     * builds the data of a secure messaging command, the result is wrapped and send with the command byte.
+     * Plain:  CmdHeader || CmdData
+     * MACed:  CmdHeader || CmdData || MAC
+     * Full:   CmdHeader || Enc(CmdData || Padding) || MAC
+     *
+     * @param command           | the command byte
+     * @param cmdCounter        | the CmdCounter before the increase
+     * @param header            | the CmdHeader, can be NULL
+     * @param data              | the CmdData, can be NULL (in Full mode no data means no encrypted part)
+     * @param communicationMode | COMMUNICATION_MODE_PLAIN, _MACED or _FULL
+     * @return the command data
+     */
+    public byte[] buildCommand(byte command, int cmdCounter, byte[] header, byte[] data, byte communicationMode) {
+        int headerLength = (header == null) ? 0 : header.length;
+        int dataLength = (data == null) ? 0 : data.length;
+        if (communicationMode == COMMUNICATION_MODE_PLAIN) {
+            byte[] commandData = new byte[headerLength + dataLength];
+            if (headerLength > 0) System.arraycopy(header, 0, commandData, 0, headerLength);
+            if (dataLength > 0) System.arraycopy(data, 0, commandData, headerLength, dataLength);
+            return commandData;
+        }
+        boolean isEncrypted = (communicationMode == COMMUNICATION_MODE_FULL) && (dataLength > 0);
+        int bodyLength = isEncrypted ? getPaddedLength(dataLength) : dataLength;
+        byte[] commandData = new byte[headerLength + bodyLength + MAC_LENGTH];
+        if (headerLength > 0) System.arraycopy(header, 0, commandData, 0, headerLength);
+        if (dataLength > 0) System.arraycopy(data, 0, commandData, headerLength, dataLength);
+        if (isEncrypted) {
+            // padding 80h 00h .. in place, the array is already filled with 00h
+            commandData[headerLength + dataLength] = (byte) 0x80;
+            sessionCipher.encryptCommandData(transactionIdentifier, cmdCounter, commandData, headerLength, bodyLength, commandData, headerLength);
+        }
+        startMac(command, cmdCounter);
+        sessionCmac.update(commandData, 0, headerLength + bodyLength);
+        sessionCmac.doFinalTruncated(commandData, headerLength + bodyLength);
+        return commandData;
+    }
+
+    /**
+     * section for response unwrapping
+     */
+
+    /**
+     * verifies and unwraps a single frame response of a secure messaging command
+     * Plain: the response data is returned
+     * MACed: the MAC is verified and RespData is returned
+     * Full:  the MAC is verified and the decrypted RespData including the padding is returned
+     *
+     * @param cmdCounter        | the CmdCounter after the increase
+     * @param response          | the complete response including the status bytes (91 00)
+     * @param communicationMode | COMMUNICATION_MODE_PLAIN, _MACED or _FULL
+     * @return the response data or NULL if the response is too short, in Full mode not a multiple of 16 or
+     * if the MAC does not match. Use getReceivedMac and getCalculatedMac for details.
+     */
+    public byte[] unwrapResponse(int cmdCounter, byte[] response, byte communicationMode) {
+        if ((response == null) || (response.length < STATUS_LENGTH)) return null;
+        int responseLength = response.length - STATUS_LENGTH;
+        if (communicationMode == COMMUNICATION_MODE_PLAIN) {
+            return Arrays.copyOf(response, responseLength);
+        }
+        Arrays.fill(receivedMac, (byte) 0x00);
+        Arrays.fill(calculatedMac, (byte) 0x00);
+        if (responseLength < MAC_LENGTH) return null;
+        int dataLength = responseLength - MAC_LENGTH;
+        if (!verifyResponseMac(cmdCounter, response, 0, dataLength, response, dataLength)) return null;
+        if ((communicationMode != COMMUNICATION_MODE_FULL) || (dataLength == 0)) {
+            return Arrays.copyOf(response, dataLength);
+        }
+        if ((dataLength % BLOCK_SIZE) != 0) return null;
+        byte[] decryptedData = new byte[dataLength];
+        sessionCipher.decryptResponseData(transactionIdentifier, cmdCounter, response, 0, dataLength, decryptedData, 0);
+        return decryptedData;
+    }
+
+    /**
+     * @return the SecureResponseStream for responses that are received in several frames, it uses the session
+     * CMAC and cipher of this engine
+     */
+    public SecureResponseStream getResponseStream() {
+        return responseStream;
+    }
+
+    public byte[] getTransactionIdentifier() {
+        return transactionIdentifier.clone();
+    }
+
+    /**
+     * @return a copy of the MAC received in the last unwrapResponse call
+     */
+    public byte[] getReceivedMac() {
+        return receivedMac.clone();
+    }
+
+    /**
+     * @return a copy of the MAC calculated in the last unwrapResponse call
+     */
+    public byte[] getCalculatedMac() {
+        return calculatedMac.clone();
+    }
+}
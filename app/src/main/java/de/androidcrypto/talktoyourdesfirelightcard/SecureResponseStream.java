@@ -0,0 +1,191 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * This class processes a secure messaging response (Communication mode MACed or Full) that is received in
+ * several frames (status 0xAF). Each frame is fed to the response MAC calculation and, in Full mode, decrypted
+ * as soon as it arrives. The data is written to an output buffer that is given by the caller, so no frame needs
+ * to be collected or copied before the crypto runs.
+ * <p>
+ * The response is ResponseData || MAC (8 bytes). As a frame can end within the MAC the last 8 received bytes
+ * are kept back until the next frame arrives, at the end they are the received MAC.
+ * The response MAC is calculated as described in Mifare DESFire Light Features and Hints AN12343.pdf:
+ * MAC_Input = 00h || CmdCounter || TI || ResponseData, the CmdCounter is the one after the increase
+ * <p>
+ * usage: start() for each response, update() for each frame without the status bytes, finish() after the
+ * last frame. The instance can be reused for all responses of a session, the class is not thread safe.
+ */
+
+public class SecureResponseStream {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int MAC_LENGTH = 8;
+
+    private final SessionCmac sessionCmac;
+    private final SessionCipher sessionCipher;
+    private final byte[] macHeader = new byte[7]; // 00h || CmdCounter || TI
+    private final byte[] tail = new byte[MAC_LENGTH]; // the last received bytes
+    private final byte[] encryptedBlock = new byte[BLOCK_SIZE]; // collects a block that is split over two frames
+    private final byte[] calculatedMac = new byte[MAC_LENGTH];
+    private int tailLength;
+    private int encryptedBlockLength;
+    private boolean isEncrypted;
+    private byte[] output;
+    private int outputOffset;
+    private int maximumLength;
+    private int dataLength;
+    private int receivedLength;
+    private int numberOfFrames;
+
+    /**
+     * @param sessionCmac   | the CMAC with the SesAuthMACKey
+     * @param sessionCipher | the cipher with the SesAuthENCKey, can be NULL when only MACed responses are processed
+     */
+    public SecureResponseStream(SessionCmac sessionCmac, SessionCipher sessionCipher) {
+        if (sessionCmac == null) {
+            throw new IllegalArgumentException("sessionCmac is NULL");
+        }
+        this.sessionCmac = sessionCmac;
+        this.sessionCipher = sessionCipher;
+    }
+
+    /**
+     * starts the processing of a new response
+     *
+     * @param transactionIdentifier | the TI of the session
+     * @param cmdCounter            | the command counter after the increase for this command
+     * @param isEncrypted           | true for Communication mode Full, false for MACed
+     * @param output                | receives the (decrypted) response data, in Full mode including the padding
+     * @param outputOffset          | start position in output
+     * @param maximumLength         | the maximum length of response data (without MAC), in Full mode a multiple of 16
+     */
+    public void start(byte[] transactionIdentifier, int cmdCounter, boolean isEncrypted, byte[] output, int outputOffset, int maximumLength) {
+        if (isEncrypted && (sessionCipher == null)) {
+            throw new IllegalStateException("sessionCipher is NULL");
+        }
+        this.isEncrypted = isEncrypted;
+        this.output = output;
+        this.outputOffset = outputOffset;
+        this.maximumLength = maximumLength;
+        tailLength = 0;
+        encryptedBlockLength = 0;
+        dataLength = 0;
+        receivedLength = 0;
+        numberOfFrames = 0;
+        macHeader[0] = (byte) 0x00;
+        macHeader[1] = (byte) cmdCounter;
+        macHeader[2] = (byte) (cmdCounter >> 8);
+        System.arraycopy(transactionIdentifier, 0, macHeader, 3, 4);
+        sessionCmac.start();
+        sessionCmac.update(macHeader, 0, macHeader.length);
+        if (isEncrypted) {
+            sessionCipher.startResponseDecryption(transactionIdentifier, cmdCounter);
+        }
+    }
+
+    /**
+     * processes the next frame
+     *
+     * @param frame  | the received frame
+     * @param offset | start of the response data in the frame
+     * @param length | length of the response data in the frame, without the status bytes
+     * @return false when the response is longer than the maximum length
+     */
+    public boolean update(byte[] frame, int offset, int length) {
+        numberOfFrames++;
+        receivedLength += length;
+        // the stream is tail || frame, everything except the last 8 bytes is response data
+        int streamDataLength = Math.max(0, tailLength + length - MAC_LENGTH);
+        if (dataLength + streamDataLength > maximumLength) {
+            return false;
+        }
+        int dataFromTail = Math.min(tailLength, streamDataLength);
+        processData(tail, 0, dataFromTail);
+        int dataFromFrame = streamDataLength - dataFromTail;
+        processData(frame, offset, dataFromFrame);
+        // keep the last 8 bytes of the stream as new tail
+        int remainingTail = tailLength - dataFromTail;
+        System.arraycopy(tail, dataFromTail, tail, 0, remainingTail);
+        System.arraycopy(frame, offset + dataFromFrame, tail, remainingTail, length - dataFromFrame);
+        tailLength = remainingTail + length - dataFromFrame;
+        return true;
+    }
+
+    /**
+     * finishes the processing after the last frame and verifies the response MAC
+     *
+     * @return true when the response is complete (MAC received, Full mode data is a multiple of 16) and the
+     * received MAC is equal to the calculated one
+     */
+    public boolean finish() {
+        if ((tailLength != MAC_LENGTH) || (encryptedBlockLength != 0)) {
+            return false;
+        }
+        sessionCmac.doFinalTruncated(calculatedMac, 0);
+        return MessageDigest.isEqual(calculatedMac, tail);
+    }
+
+    private void processData(byte[] data, int offset, int length) {
+        if (length == 0) return;
+        sessionCmac.update(data, offset, length);
+        if (!isEncrypted) {
+            System.arraycopy(data, offset, output, outputOffset + dataLength, length);
+            dataLength += length;
+            return;
+        }
+        int position = offset;
+        int end = offset + length;
+        if (encryptedBlockLength > 0) {
+            // complete the block that was started before, it starts at the output position of the missing bytes
+            int copyLength = Math.min(BLOCK_SIZE - encryptedBlockLength, length);
+            System.arraycopy(data, position, encryptedBlock, encryptedBlockLength, copyLength);
+            encryptedBlockLength += copyLength;
+            position += copyLength;
+            dataLength += copyLength;
+            if (encryptedBlockLength < BLOCK_SIZE) return;
+            sessionCipher.decryptUpdate(encryptedBlock, 0, BLOCK_SIZE, output, outputOffset + dataLength - BLOCK_SIZE);
+            encryptedBlockLength = 0;
+        }
+        int completeBlocksLength = ((end - position) / BLOCK_SIZE) * BLOCK_SIZE;
+        sessionCipher.decryptUpdate(data, position, completeBlocksLength, output, outputOffset + dataLength);
+        position += completeBlocksLength;
+        dataLength += completeBlocksLength;
+        encryptedBlockLength = end - position;
+        System.arraycopy(data, position, encryptedBlock, 0, encryptedBlockLength);
+        dataLength += encryptedBlockLength;
+    }
+
+    /**
+     * @return the length of the response data without the MAC, in Full mode including the padding
+     */
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return the number of received bytes including the MAC
+     */
+    public int getReceivedLength() {
+        return receivedLength;
+    }
+
+    public int getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    /**
+     * @return a copy of the received MAC, valid after the last frame
+     */
+    public byte[] getReceivedMac() {
+        return Arrays.copyOf(tail, tailLength);
+    }
+
+    /**
+     * @return a copy of the calculated MAC, valid after finish()
+     */
+    public byte[] getCalculatedMac() {
+        return calculatedMac.clone();
+    }
+}
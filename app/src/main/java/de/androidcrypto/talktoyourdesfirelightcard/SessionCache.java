@@ -0,0 +1,114 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the EV2 authenticated sessions of recently seen cards, keyed by UID and application
+ * identifier, so that a card that is authenticated again within one connection (e.g. by another DesfireLight
+ * instance or task on the same ApduTransport) can continue its session instead of running a new
+ * authenticateAesEv2First (see DesfireLight.authenticateAesEv2Resume). The card loses the session on a field
+ * reset, a session of another connection is not resumed.
+ * <p>
+ * The cache is opt-in and holds session keys in memory: entries expire after maximumAgeMillis, the oldest
+ * entry is removed when more than maximumNumberOfEntries are stored and the keys of removed entries are wiped.
+ * The cache should live as long as the activity (a new DesfireLight is created on each tap).
+ * All methods are synchronized as the NFC callback and the UI thread may use the cache.
+ */
+
+public class SessionCache {
+
+    public static final int DEFAULT_MAXIMUM_NUMBER_OF_ENTRIES = 8;
+    public static final long DEFAULT_MAXIMUM_AGE_MILLIS = 30000;
+
+    private final int maximumNumberOfEntries;
+    private final long maximumAgeMillis;
+    private final LinkedHashMap<String, SessionState> sessions;
+    private int numberOfHits;
+    private int numberOfMisses;
+
+    public SessionCache() {
+        this(DEFAULT_MAXIMUM_NUMBER_OF_ENTRIES, DEFAULT_MAXIMUM_AGE_MILLIS);
+    }
+
+    /**
+     * @param maximumNumberOfEntries | minimum 1
+     * @param maximumAgeMillis       | the time a session is kept after it was stored, minimum 1
+     */
+    public SessionCache(int maximumNumberOfEntries, long maximumAgeMillis) {
+        if (maximumNumberOfEntries < 1) {
+            throw new IllegalArgumentException("maximumNumberOfEntries is < 1");
+        }
+        if (maximumAgeMillis < 1) {
+            throw new IllegalArgumentException("maximumAgeMillis is < 1");
+        }
+        this.maximumNumberOfEntries = maximumNumberOfEntries;
+        this.maximumAgeMillis = maximumAgeMillis;
+        // access order, the eldest entry is the least recently used one
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * stores the session, an older session for the same card and application is replaced
+     */
+    public synchronized void put(SessionState sessionState) {
+        SessionState oldState = sessions.put(getKey(sessionState.getUid(), sessionState.getApplicationIdentifier()), sessionState);
+        if ((oldState != null) && (oldState != sessionState)) oldState.wipe();
+        while (sessions.size() > maximumNumberOfEntries) {
+            Iterator<Map.Entry<String, SessionState>> iterator = sessions.entrySet().iterator();
+            iterator.next().getValue().wipe();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the session for the card and application or NULL if there is none or it is expired
+     */
+    public synchronized SessionState get(byte[] uid, byte[] applicationIdentifier) {
+        String key = getKey(uid, applicationIdentifier);
+        SessionState sessionState = sessions.get(key);
+        if ((sessionState != null) && (System.currentTimeMillis() - sessionState.getTimestampMillis() > maximumAgeMillis)) {
+            sessions.remove(key);
+            sessionState.wipe();
+            sessionState = null;
+        }
+        if (sessionState == null) {
+            numberOfMisses++;
+        } else {
+            numberOfHits++;
+        }
+        return sessionState;
+    }
+
+    /**
+     * removes the session, e.g. when the card did not accept it
+     */
+    public synchronized void remove(byte[] uid, byte[] applicationIdentifier) {
+        SessionState sessionState = sessions.remove(getKey(uid, applicationIdentifier));
+        if (sessionState != null) sessionState.wipe();
+    }
+
+    public synchronized void clear() {
+        for (SessionState sessionState : sessions.values()) {
+            sessionState.wipe();
+        }
+        sessions.clear();
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    public synchronized int getNumberOfHits() {
+        return numberOfHits;
+    }
+
+    public synchronized int getNumberOfMisses() {
+        return numberOfMisses;
+    }
+
+    private static String getKey(byte[] uid, byte[] applicationIdentifier) {
+        return Utils.bytesToHexNpeUpperCase(uid) + ":" + Utils.bytesToHexNpeUpperCase(applicationIdentifier);
+    }
+}
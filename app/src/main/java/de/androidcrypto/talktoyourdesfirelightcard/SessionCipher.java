@@ -0,0 +1,217 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class is a session scoped AES-CBC cipher for one fixed key, e.g. the SesAuthENCKey, and replaces the
+ * nfcjlib AES static helpers on the secure messaging path.
+ * The AES ciphers are looked up and initialized only once, the CBC chaining is done here so no IvParameterSpec
+ * or cipher re-initialization is needed per message. All methods with offset and length parameters work on
+ * caller-supplied buffers and do not allocate, input and output may be the same buffer (in place operation).
+ * This class does not do any logging.
+ * <p>
+ * The IVs for the secure messaging are calculated as described in Mifare DESFire Light Features and Hints AN12343.pdf:
+ * IV for CmdData  = Enc(SesAuthENCKey, A5h || 5Ah || TI || CmdCounter || 8 * 00h)
+ * IV for RespData = Enc(SesAuthENCKey, 5Ah || A5h || TI || CmdCounter || 8 * 00h)
+ * <p>
+ * The class is not thread safe as the chaining state is held in internal buffers.
+ */
+
+public class SessionCipher {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final byte[] IV_LABEL_ENC = new byte[]{(byte) 0xA5, (byte) 0x5A}; // use as header for command data encryption
+    private static final byte[] IV_LABEL_DEC = new byte[]{(byte) 0x5A, (byte) 0xA5}; // use as header for response data decryption
+
+    private final Cipher encryptCipher;
+    private final Cipher decryptCipher;
+    private byte[] chain = new byte[BLOCK_SIZE];
+    private byte[] cipherBlock = new byte[BLOCK_SIZE];
+    private final byte[] ivInput = new byte[BLOCK_SIZE];
+    private final byte[] iv = new byte[BLOCK_SIZE];
+
+    /**
+     * @param key | AES key of length 16
+     * @throws GeneralSecurityException when AES is not available or the key is invalid
+     */
+    public SessionCipher(byte[] key) throws GeneralSecurityException {
+        if ((key == null) || (key.length != BLOCK_SIZE)) {
+            throw new IllegalArgumentException("key is NULL or not of length 16");
+        }
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        encryptCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        encryptCipher.init(Cipher.ENCRYPT_MODE, keySpec);
+        decryptCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        decryptCipher.init(Cipher.DECRYPT_MODE, keySpec);
+    }
+
+    /**
+     * section for the IV calculation
+     */
+
+    /**
+     * calculates the IV for the encryption of command data and writes it to iv beginning at ivOffset
+     */
+    public void computeCommandIv(byte[] transactionIdentifier, int cmdCounter, byte[] iv, int ivOffset) {
+        computeIv(IV_LABEL_ENC, transactionIdentifier, cmdCounter, iv, ivOffset);
+    }
+
+    /**
+     * calculates the IV for the decryption of response data and writes it to iv beginning at ivOffset
+     */
+    public void computeResponseIv(byte[] transactionIdentifier, int cmdCounter, byte[] iv, int ivOffset) {
+        computeIv(IV_LABEL_DEC, transactionIdentifier, cmdCounter, iv, ivOffset);
+    }
+
+    private void computeIv(byte[] label, byte[] transactionIdentifier, int cmdCounter, byte[] iv, int ivOffset) {
+        // IV_Input (IV_Label || TI || CmdCounter || Padding), the CmdCounter is in LSB order
+        ivInput[0] = label[0];
+        ivInput[1] = label[1];
+        System.arraycopy(transactionIdentifier, 0, ivInput, 2, 4);
+        ivInput[6] = (byte) cmdCounter;
+        ivInput[7] = (byte) (cmdCounter >> 8);
+        for (int i = 8; i < BLOCK_SIZE; i++) {
+            ivInput[i] = (byte) 0x00;
+        }
+        encryptBlock(ivInput, 0, iv, ivOffset);
+    }
+
+    /**
+     * section for the secure messaging
+     */
+
+    /**
+     * encrypts padded command data with the IV for CmdData
+     *
+     * @param length | needs to be a multiple of 16
+     */
+    public void encryptCommandData(byte[] transactionIdentifier, int cmdCounter, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        computeCommandIv(transactionIdentifier, cmdCounter, iv, 0);
+        encrypt(iv, 0, input, inputOffset, length, output, outputOffset);
+    }
+
+    /**
+     * decrypts response data with the IV for RespData, the padding is not removed
+     *
+     * @param cmdCounter | the command counter after the increase for this command
+     * @param length     | needs to be a multiple of 16
+     */
+    public void decryptResponseData(byte[] transactionIdentifier, int cmdCounter, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        computeResponseIv(transactionIdentifier, cmdCounter, iv, 0);
+        decrypt(iv, 0, input, inputOffset, length, output, outputOffset);
+    }
+
+    /**
+     * section for incremental decryption, e.g. for a response that is received in several frames
+     * usage: startResponseDecryption(), decryptUpdate() for each part of the data
+     */
+
+    /**
+     * starts a running decryption with the IV for RespData
+     *
+     * @param cmdCounter | the command counter after the increase for this command
+     */
+    public void startResponseDecryption(byte[] transactionIdentifier, int cmdCounter) {
+        computeResponseIv(transactionIdentifier, cmdCounter, chain, 0);
+    }
+
+    /**
+     * decrypts the next blocks of a running decryption, the chaining value is kept between the calls
+     *
+     * @param length | needs to be a multiple of 16
+     */
+    public void decryptUpdate(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        checkLength(length);
+        decryptBlocks(input, inputOffset, length, output, outputOffset);
+    }
+
+    /**
+     * section for AES-CBC
+     */
+
+    /**
+     * encrypts the data in CBC mode
+     *
+     * @param length | needs to be a multiple of 16
+     */
+    public void encrypt(byte[] iv, int ivOffset, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        checkLength(length);
+        System.arraycopy(iv, ivOffset, chain, 0, BLOCK_SIZE);
+        for (int position = 0; position < length; position += BLOCK_SIZE) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                chain[i] ^= input[inputOffset + position + i];
+            }
+            encryptBlock(chain, 0, chain, 0);
+            System.arraycopy(chain, 0, output, outputOffset + position, BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * decrypts the data in CBC mode
+     *
+     * @param length | needs to be a multiple of 16
+     */
+    public void decrypt(byte[] iv, int ivOffset, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        checkLength(length);
+        System.arraycopy(iv, ivOffset, chain, 0, BLOCK_SIZE);
+        decryptBlocks(input, inputOffset, length, output, outputOffset);
+    }
+
+    private void decryptBlocks(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        for (int position = 0; position < length; position += BLOCK_SIZE) {
+            // keep the cipher text block as the next chaining value, the output may overwrite the input
+            System.arraycopy(input, inputOffset + position, cipherBlock, 0, BLOCK_SIZE);
+            decryptBlock(cipherBlock, output, outputOffset + position);
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                output[outputOffset + position + i] ^= chain[i];
+            }
+            byte[] swap = chain;
+            chain = cipherBlock;
+            cipherBlock = swap;
+        }
+    }
+
+    /**
+     * convenience methods returning a new array
+     */
+
+    public byte[] encrypt(byte[] iv, byte[] data) {
+        byte[] output = new byte[data.length];
+        encrypt(iv, 0, data, 0, data.length, output, 0);
+        return output;
+    }
+
+    public byte[] decrypt(byte[] iv, byte[] data) {
+        byte[] output = new byte[data.length];
+        decrypt(iv, 0, data, 0, data.length, output, 0);
+        return output;
+    }
+
+    private static void checkLength(int length) {
+        if ((length < 0) || ((length % BLOCK_SIZE) != 0)) {
+            throw new IllegalArgumentException("length is not a multiple of 16");
+        }
+    }
+
+    private void encryptBlock(byte[] input, int inputOffset, byte[] output, int outputOffset) {
+        try {
+            encryptCipher.update(input, inputOffset, BLOCK_SIZE, output, outputOffset);
+        } catch (ShortBufferException e) {
+            // should never happen as the caller provides a complete block
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void decryptBlock(byte[] input, byte[] output, int outputOffset) {
+        try {
+            decryptCipher.update(input, 0, BLOCK_SIZE, output, outputOffset);
+        } catch (ShortBufferException e) {
+            // should never happen as the caller provides a complete block
+            throw new IllegalStateException(e);
+        }
+    }
+}
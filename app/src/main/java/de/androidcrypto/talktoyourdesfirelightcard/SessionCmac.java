@@ -0,0 +1,196 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class is a session scoped AES-CMAC engine (NIST SP 800-38B) for one fixed key, e.g. the SesAuthMACKey.
+ * It is created once after a successful authentication. The AES cipher is looked up and initialized only once,
+ * the subkeys K1 and K2 are derived in the constructor, so each MAC calculation costs just the AES block
+ * encryptions of the message.
+ * <p>
+ * The result is identical to AesCmac (init with the same key, updateBlock and doFinal).
+ * <p>
+ * The class is not thread safe as the intermediate state is held in an internal buffer.
+ */
+
+public class SessionCmac {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final byte CONSTANT = (byte) 0x87;
+
+    private final Cipher aesCipher;
+    private final byte[] k1 = new byte[BLOCK_SIZE];
+    private final byte[] k2 = new byte[BLOCK_SIZE];
+    private final byte[] state = new byte[BLOCK_SIZE];
+    private final byte[] pendingBlock = new byte[BLOCK_SIZE]; // the last (up to 16) bytes of a running update
+    private int pendingLength = 0;
+
+    /**
+     * @param key | AES key of length 16
+     * @throws GeneralSecurityException when AES is not available or the key is invalid
+     */
+    public SessionCmac(byte[] key) throws GeneralSecurityException {
+        if ((key == null) || (key.length != BLOCK_SIZE)) {
+            throw new IllegalArgumentException("key is NULL or not of length 16");
+        }
+        // the CBC chaining is done in calculateMac, so the cipher does not need to be reinitialized between messages
+        aesCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        aesCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        byte[] k0 = aesCipher.doFinal(new byte[BLOCK_SIZE]);
+        doubleSubKey(k0, k1);
+        doubleSubKey(k1, k2);
+    }
+
+    private static void doubleSubKey(byte[] k, byte[] result) {
+        boolean firstBitSet = ((k[0] & 0x80) != 0);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            result[i] = (byte) (k[i] << 1);
+            if ((i + 1 < BLOCK_SIZE) && ((k[i + 1] & 0x80) != 0)) {
+                result[i] |= 0x01;
+            }
+        }
+        if (firstBitSet) {
+            result[BLOCK_SIZE - 1] ^= CONSTANT;
+        }
+    }
+
+    /**
+     * calculates the full (16 bytes) CMAC of the data
+     */
+    public byte[] calculateMac(byte[] data) {
+        return calculateMac(data, 0, (data == null) ? 0 : data.length);
+    }
+
+    public byte[] calculateMac(byte[] data, int offset, int length) {
+        byte[] mac = new byte[BLOCK_SIZE];
+        calculateMac(data, offset, length, mac, 0);
+        return mac;
+    }
+
+    /**
+     * calculates the full (16 bytes) CMAC of the data and writes it to mac beginning at macOffset
+     */
+    public void calculateMac(byte[] data, int offset, int length, byte[] mac, int macOffset) {
+        Arrays.fill(state, (byte) 0x00);
+        int position = offset;
+        int end = offset + length;
+        // all blocks except the last one
+        while (end - position > BLOCK_SIZE) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                state[i] ^= data[position + i];
+            }
+            encryptState();
+            position += BLOCK_SIZE;
+        }
+        // the last block is xored with K1 when complete or padded and xored with K2
+        int remaining = end - position;
+        byte[] subKey;
+        if (remaining == BLOCK_SIZE) {
+            subKey = k1;
+        } else {
+            subKey = k2;
+            state[remaining] ^= (byte) 0x80;
+        }
+        for (int i = 0; i < remaining; i++) {
+            state[i] ^= data[position + i];
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            state[i] ^= subKey[i];
+        }
+        encryptState();
+        System.arraycopy(state, 0, mac, macOffset, BLOCK_SIZE);
+    }
+
+    /**
+     * calculates the truncated (8 bytes) CMAC of the data as used by the DESFire EV2 secure messaging:
+     * the bytes with an odd index of the full CMAC
+     */
+    public byte[] calculateTruncatedMac(byte[] data) {
+        byte[] truncatedMac = new byte[BLOCK_SIZE / 2];
+        calculateTruncatedMac(data, 0, (data == null) ? 0 : data.length, truncatedMac, 0);
+        return truncatedMac;
+    }
+
+    public void calculateTruncatedMac(byte[] data, int offset, int length, byte[] truncatedMac, int truncatedMacOffset) {
+        calculateMac(data, offset, length, state, 0);
+        for (int i = 0; i < BLOCK_SIZE / 2; i++) {
+            truncatedMac[truncatedMacOffset + i] = state[2 * i + 1];
+        }
+    }
+
+    /**
+     * section for incremental MAC calculation, e.g. for a response that is received in several frames
+     * usage: start(), update() for each part of the data, doFinal()
+     * Note: calculateMac resets the running calculation
+     */
+
+    public void start() {
+        Arrays.fill(state, (byte) 0x00);
+        pendingLength = 0;
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        int position = offset;
+        int end = offset + length;
+        while (position < end) {
+            // a complete pending block is processed only when more data follows, the last block needs the subkey
+            if (pendingLength == BLOCK_SIZE) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    state[i] ^= pendingBlock[i];
+                }
+                encryptState();
+                pendingLength = 0;
+            }
+            int copyLength = Math.min(BLOCK_SIZE - pendingLength, end - position);
+            System.arraycopy(data, position, pendingBlock, pendingLength, copyLength);
+            pendingLength += copyLength;
+            position += copyLength;
+        }
+    }
+
+    /**
+     * finishes the running calculation and writes the full (16 bytes) CMAC to mac beginning at macOffset
+     */
+    public void doFinal(byte[] mac, int macOffset) {
+        byte[] subKey;
+        if (pendingLength == BLOCK_SIZE) {
+            subKey = k1;
+        } else {
+            subKey = k2;
+            state[pendingLength] ^= (byte) 0x80;
+        }
+        for (int i = 0; i < pendingLength; i++) {
+            state[i] ^= pendingBlock[i];
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            state[i] ^= subKey[i];
+        }
+        encryptState();
+        System.arraycopy(state, 0, mac, macOffset, BLOCK_SIZE);
+        pendingLength = 0;
+    }
+
+    /**
+     * finishes the running calculation and writes the truncated (8 bytes) CMAC to truncatedMac
+     */
+    public void doFinalTruncated(byte[] truncatedMac, int truncatedMacOffset) {
+        doFinal(state, 0);
+        for (int i = 0; i < BLOCK_SIZE / 2; i++) {
+            truncatedMac[truncatedMacOffset + i] = state[2 * i + 1];
+        }
+    }
+
+    private void encryptState() {
+        try {
+            aesCipher.update(state, 0, BLOCK_SIZE, state, 0);
+        } catch (ShortBufferException e) {
+            // should never happen as the state has the size of one block
+            throw new IllegalStateException(e);
+        }
+    }
+}
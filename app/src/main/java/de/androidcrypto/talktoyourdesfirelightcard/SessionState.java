@@ -0,0 +1,148 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.lang.ref.WeakReference;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * This class is a snapshot of an EV2 authenticated session that is stored in the SessionCache: the Transaction
+ * Identifier, the session keys and the CmdCounter together with the selected application and its file
+ * settings. The byte arrays are copied on creation and are wiped by wipe() when the entry leaves the cache.
+ * <p>
+ * The key that authenticated the session is not stored, only a check value (the CMAC of a constant under the key)
+ * so a session is continued only for a caller that knows the key. The connection (the ApduTransport) the session
+ * was stored on is referenced weakly: a card loses the session on every field reset, so a session of another
+ * connection is not worth a round trip.
+ */
+
+public class SessionState {
+
+    private static final byte[] KEY_CHECK_VALUE_INPUT = Utils.hexStringToByteArray("53657373696F6E5374617465204B4356"); // "SessionState KCV"
+
+    private final byte[] uid;
+    private final byte[] applicationIdentifier;
+    private final byte keyNumber;
+    private final byte[] transactionIdentifier;
+    private final byte[] sesAuthEncKey;
+    private final byte[] sesAuthMacKey;
+    private final int cmdCounter;
+    private final byte[] keyCheckValue;
+    private final WeakReference<Object> connection;
+    private final byte[] fileIds;
+    private final FileSettings[] fileSettings;
+    private final long timestampMillis;
+
+    /**
+     * @param keyCheckValue | the check value of the authentication key, see calculateKeyCheckValue
+     * @param connection    | the connection the session belongs to, e.g. the ApduTransport
+     */
+    public SessionState(byte[] uid, byte[] applicationIdentifier, byte keyNumber, byte[] transactionIdentifier, byte[] sesAuthEncKey,
+                        byte[] sesAuthMacKey, int cmdCounter, byte[] fileIds, FileSettings[] fileSettings, byte[] keyCheckValue,
+                        Object connection, long timestampMillis) {
+        if ((uid == null) || (applicationIdentifier == null) || (transactionIdentifier == null) || (sesAuthEncKey == null) || (sesAuthMacKey == null)) {
+            throw new IllegalArgumentException("uid, applicationIdentifier, transactionIdentifier or a session key is NULL");
+        }
+        if ((keyCheckValue == null) || (connection == null)) {
+            throw new IllegalArgumentException("keyCheckValue or connection is NULL");
+        }
+        this.uid = uid.clone();
+        this.applicationIdentifier = applicationIdentifier.clone();
+        this.keyNumber = keyNumber;
+        this.transactionIdentifier = transactionIdentifier.clone();
+        this.sesAuthEncKey = sesAuthEncKey.clone();
+        this.sesAuthMacKey = sesAuthMacKey.clone();
+        this.cmdCounter = cmdCounter;
+        this.fileIds = (fileIds == null) ? null : fileIds.clone();
+        this.fileSettings = (fileSettings == null) ? null : fileSettings.clone();
+        this.keyCheckValue = keyCheckValue.clone();
+        this.connection = new WeakReference<>(connection);
+        this.timestampMillis = timestampMillis;
+    }
+
+    public byte[] getUid() {
+        return uid.clone();
+    }
+
+    public byte[] getApplicationIdentifier() {
+        return applicationIdentifier.clone();
+    }
+
+    public byte getKeyNumber() {
+        return keyNumber;
+    }
+
+    public byte[] getTransactionIdentifier() {
+        return transactionIdentifier.clone();
+    }
+
+    public byte[] getSesAuthEncKey() {
+        return sesAuthEncKey.clone();
+    }
+
+    public byte[] getSesAuthMacKey() {
+        return sesAuthMacKey.clone();
+    }
+
+    public int getCmdCounter() {
+        return cmdCounter;
+    }
+
+    public byte[] getFileIds() {
+        return (fileIds == null) ? null : fileIds.clone();
+    }
+
+    public FileSettings[] getFileSettings() {
+        return (fileSettings == null) ? null : fileSettings.clone();
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    byte[] getKeyCheckValue() {
+        return keyCheckValue.clone();
+    }
+
+    /**
+     * @return true when the session was authenticated with the key
+     */
+    public boolean matchesKey(byte[] key) {
+        return MessageDigest.isEqual(keyCheckValue, calculateKeyCheckValue(key));
+    }
+
+    /**
+     * @return true when the session was stored on this connection
+     */
+    public boolean isSameConnection(Object connection) {
+        return (connection != null) && (this.connection.get() == connection);
+    }
+
+    /**
+     * @param key | AES key with length of 16 bytes
+     * @return the CMAC of a constant under the key (16 bytes)
+     */
+    static byte[] calculateKeyCheckValue(byte[] key) {
+        try {
+            return new SessionCmac(key).calculateMac(KEY_CHECK_VALUE_INPUT);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("CMAC calculation failed", e);
+        }
+    }
+
+    /**
+     * overwrites the session keys and the TI with zeros
+     */
+    void wipe() {
+        Arrays.fill(sesAuthEncKey, (byte) 0x00);
+        Arrays.fill(sesAuthMacKey, (byte) 0x00);
+        Arrays.fill(transactionIdentifier, (byte) 0x00);
+        Arrays.fill(keyCheckValue, (byte) 0x00);
+    }
+
+    @Override
+    public String toString() {
+        return "SessionState uid: " + Utils.bytesToHexNpeUpperCase(uid) + " aid: " + Utils.bytesToHexNpeUpperCase(applicationIdentifier)
+                + " keyNumber: " + keyNumber + " cmdCounter: " + cmdCounter;
+    }
+}
@@ -62,6 +62,14 @@ public class SetupTestEnvironmentActivity extends AppCompatActivity implements N
     private FileSettings fileSettings;
     private boolean isDesfireEv3 = false;
 
+    /**
+     * section for the personalization
+     */
+
+    private final CardLayout testEnvironmentLayout = buildTestEnvironmentLayout();
+    // keeps the progress of pulled tags as long as the activity lives
+    private final PersonalizationEngine personalizationEngine = new PersonalizationEngine(testEnvironmentLayout);
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -93,193 +101,53 @@ public class SetupTestEnvironmentActivity extends AppCompatActivity implements N
         String logString = "runSetupTestEnvironment";
         writeToUiAppend(output, logString);
         /**
-         * the method will do these 8 steps to prepare the tag for test usage
-         * 1) select Master Application ("000000")
-         * 2) authenticate with MASTER_APPLICATION_KEY_DES_DEFAULT ("0000000000000000")
-         * 3) format PICC
-         * 4) create a new application ("A1A2A3")
-         * 5) select the new application ("A1A2A3")
-         * 6) create a new file set Plain (Standard, Backup, Value, Linear Record and Cyclic Record files)
-         * 7) create a new file set MACed (Standard, Backup, Value, Linear Record and Cyclic Record files)
-         * 8) create a new file set Full (Standard, Backup, Value, Linear Record and Cyclic Record files)
+         * the personalization engine runs these steps to prepare the tag for test usage
+         * 1) format PICC (select Master Application "000000", authenticate with MASTER_APPLICATION_KEY_DES_DEFAULT, format)
+         * 2) create a new application ("A1A2A3")
+         * 3) select the new application ("A1A2A3")
+         * 4) create the Standard, Backup, Value, Linear Record and Cyclic Record files in Plain, MACed and Full comm modes
+         * When the tag is pulled during the setup, the engine resumes at the failed step when the tag is tapped again.
          */
-
-        boolean success;
-        byte[] errorCode;
-        String errorCodeReason = "";
         writeToUiAppend(output, "");
-
-        // the 'formatPicc' methods runs the 3 tasks in once
-
-        writeToUiAppend("step 1: select Master Application with ID 0x000000");
-        writeToUiAppend("step 2: authenticate with default DES Master Application Key");
-        writeToUiAppend("step 3: format the PICC");
-        success = desfireEv3.formatPicc();
-        errorCode = desfireEv3.getErrorCode();
-        if (success) {
-            writeToUiAppendBorderColor("format of the PICC SUCCESS", COLOR_GREEN);
-        } else {
-            writeToUiAppendBorderColor("format of the PICC FAILURE with error code: "
-                    + EV3.getErrorCode(errorCode) + ", aborted", COLOR_RED);
-            return;
+        writeToUiAppend("run the layout " + testEnvironmentLayout.getName() + " with " + testEnvironmentLayout.getSteps().size() + " steps");
+        PersonalizationResult result = personalizationEngine.personalize(desfireEv3, tagIdByte);
+        if (result.isResumed()) {
+            writeToUiAppend("resumed at step " + (result.getResumedStepIndex() + 1) + ", skipped steps for existing files: " + result.getNumberOfSkippedSteps());
         }
-
-        // If there are any failures on creating the activity isn't ending because the application or file can exist
-        writeToUiAppend("step 4: create a new application (\"A1A2A3\")");
-        success = desfireEv3.createApplicationAes(Constants.APPLICATION_IDENTIFIER_AES, Constants.APPLICATION_NUMBER_OF_KEYS_DEFAULT);
-        errorCode = desfireEv3.getErrorCode();
-        errorCodeReason = desfireEv3.getErrorCodeReason();
-        if (success) {
-            writeToUiAppendBorderColor("create a new application SUCCESS", COLOR_GREEN);
-        } else {
-            writeToUiAppendBorderColor("create a new application FAILURE with error code: "
-                    + EV3.getErrorCode(errorCode) + " = "
-                    + errorCodeReason + ", aborted", COLOR_RED);
-            //return;
-        }
-
-        writeToUiAppend("step 5: select the new application (\"A1A2A3\")");
-        success = desfireEv3.selectApplicationByAid(Constants.APPLICATION_IDENTIFIER_AES);
-        errorCode = desfireEv3.getErrorCode();
-        errorCodeReason = desfireEv3.getErrorCodeReason();
-        if (success) {
-            writeToUiAppendBorderColor("select the new application SUCCESS", COLOR_GREEN);
+        if (result.isSuccess()) {
+            writeToUiAppendBorderColor("setup of the test environment SUCCESS in " + (result.getDurationNanos() / 1000000) + " ms", COLOR_GREEN);
         } else {
-            writeToUiAppendBorderColor("select the new application FAILURE with error code: "
-                    + EV3.getErrorCode(errorCode) + " = "
-                    + errorCodeReason + ", aborted", COLOR_RED);
-            //return;
+            writeToUiAppendBorderColor("setup of the test environment FAILURE in step " + (result.getFailedStepIndex() + 1)
+                    + " (" + result.getFailedStep() + ") with error code: "
+                    + EV3.getErrorCode(result.getErrorCode()) + " = "
+                    + result.getErrorCodeReason() + ", tap the tag again to resume", COLOR_RED);
         }
-
-        // other sorting
-        writeToUiAppend("step 6: create new file sets  for Standard, Backup, Value, Linear Record and Cyclic Record files in PLain, MACed and Full comm modes");
-        success = createStandardFileSet();
-        success = createBackupFileSet();
-        success = createValueFileSet();
-        success = createLinearRecordFileSet();
-        success = createCyclicRecordFileSet();
-        errorCode = desfireEv3.getErrorCode();
-        errorCodeReason = desfireEv3.getErrorCodeReason();
-        if (success) {
-            writeToUiAppendBorderColor("create a new file set Plain SUCCESS", COLOR_GREEN);
-        } else {
-            writeToUiAppendBorderColor("create a new file set Plain FAILURE with error code: "
-                    + EV3.getErrorCode(errorCode) + " = "
-                    + errorCodeReason + ", aborted", COLOR_RED);
-            //return;
-        }
-
+        writeToUiAppend(personalizationEngine.getStatistics());
         writeToUiAppend(output, "");
         vibrateShort();
     }
 
-    private boolean createStandardFileSet() {
-        // create 3 Standard files with communication modes Plain, MACed and FUll
-        Log.d(TAG, "createStandardFileSet");
-        boolean createStandardFilePlain = desfireEv3.createAStandardFile(Constants.STANDARD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256, false);
-        boolean createStandardFileMaced = desfireEv3.createAStandardFile(Constants.STANDARD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256, false);
-        boolean createStandardFileFull = desfireEv3.createAStandardFile(Constants.STANDARD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256, false);
-        Log.d(TAG, "createStandardFilePlain result: " + createStandardFilePlain);
-        Log.d(TAG, "createStandardFileMaced result: " + createStandardFileMaced);
-        Log.d(TAG, "createStandardFileFull result: " + createStandardFileFull);
-        return true;
-    }
-
-    private boolean createBackupFileSet() {
-        // create 3 Backup files with communication modes Plain, MACed and FUll
-        Log.d(TAG, "createBackupFileSet");
-        boolean createBackupFilePlain = desfireEv3.createABackupFile(Constants.BACKUP_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32);
-        boolean createBackupFileMaced = desfireEv3.createABackupFile(Constants.BACKUP_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32);
-        boolean createBackupFileFull = desfireEv3.createABackupFile(Constants.BACKUP_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32);
-        Log.d(TAG, "createBackupFilePlain result: " + createBackupFilePlain);
-        Log.d(TAG, "createBackupFileMaced result: " + createBackupFileMaced);
-        Log.d(TAG, "createBackupFileFull result: " + createBackupFileFull);
-        return true;
-    }
-
-    private boolean createValueFileSet() {
-        // create 3 Value files with communication modes Plain, MACed and FUll
-        Log.d(TAG, "createValueFileSet");
-        boolean createValueFilePlain = desfireEv3.createAValueFile(Constants.VALUE_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 0,10000, 0,false);
-        boolean createValueFileMaced = desfireEv3.createAValueFile(Constants.VALUE_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 0,10000, 0,false);
-        boolean createValueFileFull = desfireEv3.createAValueFile(Constants.VALUE_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 0,10000, 0,false);
-        Log.d(TAG, "createValueFilePlain result: " + createValueFilePlain);
-        Log.d(TAG, "createValueFileMaced result: " + createValueFileMaced);
-        Log.d(TAG, "createValueFileFull result: " + createValueFileFull);
-        return true;
-    }
-
-    private boolean createLinearRecordFileSet() {
-        // create 3 Linear Record files with communication modes Plain, MACed and FUll
-        Log.d(TAG, "createLinearRecordFileSet");
-        boolean createLinearRecordFilePlain = desfireEv3.createALinearRecordFile(Constants.LINEAR_RECORD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3);
-        boolean createLinearRecordFileMaced = desfireEv3.createALinearRecordFile(Constants.LINEAR_RECORD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3);
-        boolean createLinearRecordFileFull = desfireEv3.createALinearRecordFile(Constants.LINEAR_RECORD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3);
-        Log.d(TAG, "createLinearRecordFilePlain result: " + createLinearRecordFilePlain);
-        Log.d(TAG, "createLinearRecordFileMaced result: " + createLinearRecordFileMaced);
-        Log.d(TAG, "createLinearRecordFileFull result: " + createLinearRecordFileFull);
-        return true;
-    }
-
-    private boolean createCyclicRecordFileSet() {
-        // create 3 Cyclic Record files with communication modes Plain, MACed and FUll
-        Log.d(TAG, "createCyclicRecordFileSet");
-        boolean createCyclicRecordFilePlain = desfireEv3.createACyclicRecordFile(Constants.CYCLIC_RECORD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4);
-        boolean createCyclicRecordFileMaced = desfireEv3.createACyclicRecordFile(Constants.CYCLIC_RECORD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4);
-        boolean createCyclicRecordFileFull = desfireEv3.createACyclicRecordFile(Constants.CYCLIC_RECORD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4);
-        Log.d(TAG, "createCyclicRecordFilePlain result: " + createCyclicRecordFilePlain);
-        Log.d(TAG, "createCyclicRecordFileMaced result: " + createCyclicRecordFileMaced);
-        Log.d(TAG, "createCyclicRecordFileFull result: " + createCyclicRecordFileFull);
-        return true;
-    }
-    
-    
-    private boolean createFileSetPlain() {
-        // create 5 files with communication settings PLAIN
-        Log.d(TAG, "createFileSetPlain"); // DesfireEv3.DesfireFileType.Standard, DesfireEv3.DesfireFileType.Backup, DesfireEv3.DesfireFileType.Value, DesfireEv3.DesfireFileType.LinearRecord, DesfireEv3.DesfireFileType.CyclicRecord
-        boolean createStandardFile = desfireEv3.createAStandardFile(Constants.STANDARD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256, false);
-        boolean createBackupFile = desfireEv3.createABackupFile(Constants.BACKUP_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32);
-        boolean createValueFile = desfireEv3.createAValueFile(Constants.VALUE_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT,0,10000, 0,false);
-        boolean createLinearRecordFile = desfireEv3.createALinearRecordFile(Constants.LINEAR_RECORD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3);
-        boolean createCyclicRecordFile = desfireEv3.createACyclicRecordFile(Constants.CYCLIC_RECORD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4);
-        Log.d(TAG, "createStandardFile result: " + createStandardFile);
-        Log.d(TAG, "createBackupFile result: " + createBackupFile);
-        Log.d(TAG, "createValueFile result: " + createValueFile);
-        Log.d(TAG, "createLinearRecordFile result: " + createLinearRecordFile);
-        Log.d(TAG, "createCyclicRecordFile result: " + createCyclicRecordFile);
-        return true; // returns true independent of results
-    }
-
-    private boolean createFileSetMACed() {
-        // create 5 files with communication settings MACed
-        Log.d(TAG, "createFileSetMACed"); // DesfireEv3.DesfireFileType.Standard, DesfireEv3.DesfireFileType.Backup, DesfireEv3.DesfireFileType.Value, DesfireEv3.DesfireFileType.LinearRecord, DesfireEv3.DesfireFileType.CyclicRecord
-        boolean createStandardFile = desfireEv3.createAStandardFile(Constants.STANDARD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256, false);
-        boolean createBackupFile = desfireEv3.createABackupFile(Constants.BACKUP_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32);
-        boolean createValueFile = desfireEv3.createAValueFile(Constants.VALUE_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT,0,10000, 0,false);
-        boolean createLinearRecordFile = desfireEv3.createALinearRecordFile(Constants.LINEAR_RECORD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3);
-        boolean createCyclicRecordFile = desfireEv3.createACyclicRecordFile(Constants.CYCLIC_RECORD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4);
-        Log.d(TAG, "createStandardFile result: " + createStandardFile);
-        Log.d(TAG, "createBackupFile result: " + createBackupFile);
-        Log.d(TAG, "createValueFile result: " + createValueFile);
-        Log.d(TAG, "createLinearRecordFile result: " + createLinearRecordFile);
-        Log.d(TAG, "createCyclicRecordFile result: " + createCyclicRecordFile);
-        return true; // returns true independent of results
-    }
-
-    private boolean createFileSetFull() {
-        // create 5 files with communication settings Full
-        Log.d(TAG, "createFileSetEncrypted"); // DesfireEv3.DesfireFileType.Standard, DesfireEv3.DesfireFileType.Backup, DesfireEv3.DesfireFileType.Value, DesfireEv3.DesfireFileType.LinearRecord, DesfireEv3.DesfireFileType.CyclicRecord
-        boolean createStandardFile = desfireEv3.createAStandardFile(Constants.STANDARD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256, false);
-        boolean createBackupFile = desfireEv3.createABackupFile(Constants.BACKUP_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32);
-        boolean createValueFile = desfireEv3.createAValueFile(Constants.VALUE_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT,0,10000, 0,false);
-        boolean createLinearRecordFile = desfireEv3.createALinearRecordFile(Constants.LINEAR_RECORD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3);
-        boolean createCyclicRecordFile = desfireEv3.createACyclicRecordFile(Constants.CYCLIC_RECORD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4);
-        Log.d(TAG, "createStandardFile result: " + createStandardFile);
-        Log.d(TAG, "createBackupFile result: " + createBackupFile);
-        Log.d(TAG, "createValueFile result: " + createValueFile);
-        Log.d(TAG, "createLinearRecordFile result: " + createLinearRecordFile);
-        Log.d(TAG, "createCyclicRecordFile result: " + createCyclicRecordFile);
-        return true; // returns true independent of results
+    /**
+     * the layout of the test environment, the file numbers are defined in Constants
+     */
+    private static CardLayout buildTestEnvironmentLayout() {
+        return new CardLayout("test environment", Constants.APPLICATION_IDENTIFIER_AES, Constants.APPLICATION_NUMBER_OF_KEYS_DEFAULT)
+                .formatPicc()
+                .addStandardFile(Constants.STANDARD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256)
+                .addStandardFile(Constants.STANDARD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256)
+                .addStandardFile(Constants.STANDARD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256)
+                .addBackupFile(Constants.BACKUP_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32)
+                .addBackupFile(Constants.BACKUP_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32)
+                .addBackupFile(Constants.BACKUP_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32)
+                .addValueFile(Constants.VALUE_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 0, 10000, 0, false)
+                .addValueFile(Constants.VALUE_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 0, 10000, 0, false)
+                .addValueFile(Constants.VALUE_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 0, 10000, 0, false)
+                .addLinearRecordFile(Constants.LINEAR_RECORD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3)
+                .addLinearRecordFile(Constants.LINEAR_RECORD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3)
+                .addLinearRecordFile(Constants.LINEAR_RECORD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 3)
+                .addCyclicRecordFile(Constants.CYCLIC_RECORD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4)
+                .addCyclicRecordFile(Constants.CYCLIC_RECORD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4)
+                .addCyclicRecordFile(Constants.CYCLIC_RECORD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32, 4);
     }
 
     /**
@@ -0,0 +1,362 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * This class tracks the Transaction MAC Input (TMI) of a transaction while the commands are issued and calculates
+ * the Transaction MAC Value (TMV) at the commit, see MIFARE DESFire Light contactless application IC MF2DLHX0.pdf
+ * pages 42 - 47. It is used on the reader side (DesfireLight) and in the back office (TmvBatchVerifier), so both
+ * rebuild the TMI with the same code. The DesfireLightEmulator calculates the TMV on its own, so a test against
+ * the emulator checks this implementation.
+ * <p>
+ * TMI update for each command within the transaction (the plain and secure command variants use the same command code):
+ * ReadData, WriteData, ReadRecords, WriteRecord: TMI = TMI || Cmd || CmdHeader || ZeroPadding || Data || ZeroPadding
+ * GetValue, Credit, Debit, LimitedCredit:        TMI = TMI || Cmd || FileNo || Value || ZeroPadding
+ * CommitReaderId:                                TMI = TMI || Cmd || TMRICur || ZeroPadding
+ * All parts are padded to a multiple of 16 bytes.
+ * <p>
+ * TMV = MACtTM(SesTMMACKey, TMI) with
+ * SesTMMACKey = MAC(AppTransactionMACKey, SV1), SV1 = 5Ah || 00h || 01h || 00h || 80h || (TMC + 1) || UID
+ * SesTMENCKey = MAC(AppTransactionMACKey, SV2), SV2 = A5h || 00h || 01h || 00h || 80h || (TMC + 1) || UID
+ * <p>
+ * When the AppTransactionMACKey and the current TMC are known at the start of the transaction the TMI is fed to
+ * the CMAC with each command, so the TMV is ready at the commit without a second pass over the TMI. Without
+ * the TMC the TMV is calculated from the recorded TMI at the commit, without the key the TMI is just recorded,
+ * e.g. for a verification in the back office with verifyTransactionMacValue.
+ * <p>
+ * The class is not thread safe, use one instance per card.
+ */
+
+public class TransactionMacTracker {
+
+    public static final int TRANSACTION_MAC_VALUE_LENGTH = 8;
+    public static final int TRANSACTION_MAC_COUNTER_UNKNOWN = -1;
+    private static final int BLOCK_SIZE = 16;
+    private static final int UID_LENGTH = 7;
+    public static final byte SV1_LABEL = (byte) 0x5A; // SesTMMACKey
+    public static final byte SV2_LABEL = (byte) 0xA5; // SesTMENCKey
+
+    // the command codes used in the TMI
+    private static final byte READ_DATA_FILE_COMMAND = (byte) 0xBD;
+    private static final byte READ_DATA_FILE_SECURE_COMMAND = (byte) 0xAD;
+    private static final byte WRITE_DATA_FILE_COMMAND = (byte) 0x3D;
+    private static final byte WRITE_DATA_FILE_SECURE_COMMAND = (byte) 0x8D;
+    private static final byte GET_VALUE_COMMAND = (byte) 0x6C;
+    private static final byte CREDIT_VALUE_FILE_COMMAND = (byte) 0x0C;
+    private static final byte DEBIT_VALUE_FILE_COMMAND = (byte) 0xDC;
+    private static final byte LIMITED_CREDIT_VALUE_FILE_COMMAND = (byte) 0x1C;
+    private static final byte READ_RECORD_FILE_COMMAND = (byte) 0xBB;
+    private static final byte READ_RECORD_FILE_SECURE_COMMAND = (byte) 0xAB;
+    private static final byte WRITE_RECORD_FILE_COMMAND = (byte) 0x3B;
+    private static final byte WRITE_RECORD_FILE_SECURE_COMMAND = (byte) 0x8B;
+    private static final byte COMMIT_READER_ID_SECURE_COMMAND = (byte) 0xC8;
+
+    private final byte[] uid;
+    private final byte[] transactionMacKey; // NULL when the TMI is just recorded
+    private final ByteArrayOutputStream transactionMacInput = new ByteArrayOutputStream();
+    private final byte[] block = new byte[2 * BLOCK_SIZE];
+    private byte[] transactionMacReaderIdCurrent;
+    private SessionCmac runningCmac; // keyed with the SesTMMACKey of runningTransactionMacCounter
+    private int runningTransactionMacCounter = TRANSACTION_MAC_COUNTER_UNKNOWN;
+    private boolean isStarted = false;
+    // the result of the last finished transaction
+    private byte[] lastTransactionMacInput;
+    private int lastTransactionMacCounter = TRANSACTION_MAC_COUNTER_UNKNOWN;
+    private byte[] lastTransactionMacValue;
+
+    /**
+     * @param uid               | the UID of the card (7 bytes), in case of a Random ID the real UID from GetCardUID
+     * @param transactionMacKey | the AppTransactionMACKey (AES-128) or NULL to record the TMI only
+     */
+    public TransactionMacTracker(byte[] uid, byte[] transactionMacKey) {
+        if ((uid == null) || (uid.length != UID_LENGTH)) {
+            throw new IllegalArgumentException("uid is NULL or not of length " + UID_LENGTH);
+        }
+        if ((transactionMacKey != null) && (transactionMacKey.length != BLOCK_SIZE)) {
+            throw new IllegalArgumentException("transactionMacKey is not of length " + BLOCK_SIZE);
+        }
+        this.uid = uid.clone();
+        this.transactionMacKey = (transactionMacKey == null) ? null : transactionMacKey.clone();
+    }
+
+    /**
+     * starts a new transaction, an unfinished transaction is discarded
+     *
+     * @param transactionMacCounter | the TMC that is stored in the Transaction MAC file now (before the commit),
+     *                              | TRANSACTION_MAC_COUNTER_UNKNOWN when not known
+     */
+    public void start(int transactionMacCounter) {
+        reset();
+        isStarted = true;
+        if ((transactionMacKey != null) && (transactionMacCounter >= 0)) {
+            try {
+                runningCmac = new SessionCmac(getSesTMMACKey(transactionMacKey, uid, transactionMacCounter + 1));
+                runningCmac.start();
+                runningTransactionMacCounter = transactionMacCounter + 1;
+            } catch (GeneralSecurityException e) {
+                // the TMV is calculated from the recorded TMI at the commit
+                runningCmac = null;
+            }
+        }
+    }
+
+    /**
+     * discards the TMI of the current transaction, e.g. on AbortTransaction or a new selection of the application
+     */
+    public void reset() {
+        transactionMacInput.reset();
+        transactionMacReaderIdCurrent = null;
+        runningCmac = null;
+        runningTransactionMacCounter = TRANSACTION_MAC_COUNTER_UNKNOWN;
+        isStarted = false;
+    }
+
+    /**
+     * appends a ReadData, WriteData, ReadRecords, WriteRecord, GetValue, Credit, Debit or LimitedCredit command to
+     * the TMI, a transaction that was not started is started with an unknown TMC
+     *
+     * @param command | the command code, the plain and secure variants are accepted
+     * @param header  | the CmdHeader (FileNo || Offset || Length or FileNo for Value file commands)
+     * @param data    | the plain data that was written or read, the value (4 bytes) for Value file commands
+     */
+    public void append(byte command, byte[] header, byte[] data) {
+        if (!isStarted) start(TRANSACTION_MAC_COUNTER_UNKNOWN);
+        byte normalizedCommand = normalizeCommand(command);
+        Arrays.fill(block, 0, BLOCK_SIZE, (byte) 0x00);
+        block[0] = normalizedCommand;
+        System.arraycopy(header, 0, block, 1, Math.min(header.length, BLOCK_SIZE - 1));
+        if ((normalizedCommand == GET_VALUE_COMMAND) || (normalizedCommand == CREDIT_VALUE_FILE_COMMAND)
+                || (normalizedCommand == DEBIT_VALUE_FILE_COMMAND) || (normalizedCommand == LIMITED_CREDIT_VALUE_FILE_COMMAND)) {
+            // Cmd || FileNo || Value || ZeroPadding
+            System.arraycopy(data, 0, block, 2, 4);
+            write(block, 0, BLOCK_SIZE);
+            return;
+        }
+        write(block, 0, BLOCK_SIZE);
+        write(data, 0, data.length);
+        int paddingLength = ((data.length + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE - data.length;
+        Arrays.fill(block, 0, paddingLength, (byte) 0x00);
+        write(block, 0, paddingLength);
+    }
+
+    /**
+     * appends a CommitReaderId command to the TMI, the reader id is the TMRICur of this transaction
+     *
+     * @param readerId | the TransactionMAC Reader ID (16 bytes)
+     */
+    public void appendCommitReaderId(byte[] readerId) {
+        if ((readerId == null) || (readerId.length != BLOCK_SIZE)) {
+            throw new IllegalArgumentException("readerId is NULL or not of length " + BLOCK_SIZE);
+        }
+        if (!isStarted) start(TRANSACTION_MAC_COUNTER_UNKNOWN);
+        // Cmd || TMRICur || ZeroPadding
+        Arrays.fill(block, (byte) 0x00);
+        block[0] = COMMIT_READER_ID_SECURE_COMMAND;
+        System.arraycopy(readerId, 0, block, 1, BLOCK_SIZE);
+        write(block, 0, block.length);
+        transactionMacReaderIdCurrent = readerId.clone();
+    }
+
+    private void write(byte[] data, int offset, int length) {
+        transactionMacInput.write(data, offset, length);
+        if (runningCmac != null) runningCmac.update(data, offset, length);
+    }
+
+    /**
+     * finishes the transaction after a successful CommitTransaction. The TMI, the TMC and the TMV are kept as the
+     * result of the last transaction (see getLastTransactionMacInput) and the tracker is reset.
+     *
+     * @param transactionMacCounter | the new TMC (after the commit, e.g. returned in TMC || TMV) or
+     *                              | TRANSACTION_MAC_COUNTER_UNKNOWN to use the TMC given on start + 1
+     * @return the expected TMV (8 bytes) or NULL when the TMV can't be calculated (no key, no TMC or an empty TMI)
+     */
+    public byte[] finish(int transactionMacCounter) {
+        if (transactionMacCounter == TRANSACTION_MAC_COUNTER_UNKNOWN) {
+            transactionMacCounter = runningTransactionMacCounter;
+        }
+        byte[] transactionMacValue = null;
+        if ((transactionMacKey != null) && (transactionMacCounter >= 0) && (transactionMacInput.size() > 0)) {
+            if ((runningCmac != null) && (transactionMacCounter == runningTransactionMacCounter)) {
+                transactionMacValue = new byte[TRANSACTION_MAC_VALUE_LENGTH];
+                runningCmac.doFinalTruncated(transactionMacValue, 0);
+            } else {
+                try {
+                    transactionMacValue = calculateTransactionMacValue(transactionMacKey, uid, transactionMacCounter, transactionMacInput.toByteArray());
+                } catch (GeneralSecurityException e) {
+                    transactionMacValue = null;
+                }
+            }
+        }
+        lastTransactionMacInput = transactionMacInput.toByteArray();
+        lastTransactionMacCounter = transactionMacCounter;
+        lastTransactionMacValue = transactionMacValue;
+        reset();
+        return (transactionMacValue == null) ? null : transactionMacValue.clone();
+    }
+
+    /**
+     * section for the offline verification
+     */
+
+    /**
+     * calculates the TMV of a recorded TMI, e.g. in the back office
+     *
+     * @param transactionMacKey     | the AppTransactionMACKey (AES-128)
+     * @param uid                   | the UID of the card (7 bytes)
+     * @param transactionMacCounter | the TMC after the commit (TMC + 1 in the notation of the data sheet)
+     * @param transactionMacInput   | the TMI
+     * @return the TMV (8 bytes)
+     */
+    public static byte[] calculateTransactionMacValue(byte[] transactionMacKey, byte[] uid, int transactionMacCounter, byte[] transactionMacInput) throws GeneralSecurityException {
+        SessionCmac sessionCmac = new SessionCmac(getSesTMMACKey(transactionMacKey, uid, transactionMacCounter));
+        byte[] transactionMacValue = new byte[TRANSACTION_MAC_VALUE_LENGTH];
+        byte[] fullMac = sessionCmac.calculateMac(transactionMacInput);
+        for (int i = 0; i < TRANSACTION_MAC_VALUE_LENGTH; i++) {
+            transactionMacValue[i] = fullMac[2 * i + 1];
+        }
+        return transactionMacValue;
+    }
+
+    /**
+     * verifies the TMC || TMV returned by the card (CommitTransaction with option 01h or a read of the
+     * Transaction MAC file) against a recorded TMI
+     *
+     * @param transactionMacKey               | the AppTransactionMACKey (AES-128)
+     * @param uid                             | the UID of the card (7 bytes)
+     * @param transactionMacCounterAndValue   | TMC (4 bytes LSB) || TMV (8 bytes)
+     * @param transactionMacInput             | the TMI
+     * @return true when the TMV matches
+     */
+    public static boolean verifyTransactionMacValue(byte[] transactionMacKey, byte[] uid, byte[] transactionMacCounterAndValue, byte[] transactionMacInput) throws GeneralSecurityException {
+        if ((transactionMacCounterAndValue == null) || (transactionMacCounterAndValue.length != 4 + TRANSACTION_MAC_VALUE_LENGTH)) {
+            return false;
+        }
+        if ((transactionMacInput == null) || (transactionMacInput.length == 0)) return false;
+        int transactionMacCounter = (transactionMacCounterAndValue[0] & 0xFF) | ((transactionMacCounterAndValue[1] & 0xFF) << 8)
+                | ((transactionMacCounterAndValue[2] & 0xFF) << 16) | ((transactionMacCounterAndValue[3] & 0xFF) << 24);
+        byte[] expectedTransactionMacValue = calculateTransactionMacValue(transactionMacKey, uid, transactionMacCounter, transactionMacInput);
+        byte[] receivedTransactionMacValue = Arrays.copyOfRange(transactionMacCounterAndValue, 4, 4 + TRANSACTION_MAC_VALUE_LENGTH);
+        return MessageDigest.isEqual(expectedTransactionMacValue, receivedTransactionMacValue);
+    }
+
+    /**
+     * section for the session keys
+     */
+
+    /**
+     * SesTMMACKey = MAC(AppTransactionMACKey, SV1) with SV1 = 5Ah || 00h || 01h || 00h || 80h || (TMC + 1) || UID
+     *
+     * @param transactionMacCounter | the TMC after the commit (TMC + 1 in the notation of the data sheet)
+     */
+    public static byte[] getSesTMMACKey(byte[] transactionMacKey, byte[] uid, int transactionMacCounter) throws GeneralSecurityException {
+        return getSessionKey(SV1_LABEL, transactionMacKey, uid, transactionMacCounter);
+    }
+
+    /**
+     * SesTMENCKey = MAC(AppTransactionMACKey, SV2) with SV2 = A5h || 00h || 01h || 00h || 80h || (TMC + 1) || UID
+     *
+     * @param transactionMacCounter | the TMC after the commit (TMC + 1 in the notation of the data sheet)
+     */
+    public static byte[] getSesTMENCKey(byte[] transactionMacKey, byte[] uid, int transactionMacCounter) throws GeneralSecurityException {
+        return getSessionKey(SV2_LABEL, transactionMacKey, uid, transactionMacCounter);
+    }
+
+    private static byte[] getSessionKey(byte label, byte[] transactionMacKey, byte[] uid, int transactionMacCounter) throws GeneralSecurityException {
+        byte[] sv = new byte[BLOCK_SIZE];
+        getSessionVector(label, uid, transactionMacCounter, sv);
+        return new SessionCmac(transactionMacKey).calculateMac(sv);
+    }
+
+    /**
+     * writes the session vector SV1 (label 5Ah, SesTMMACKey) or SV2 (label A5h, SesTMENCKey) to sv, e.g. for a
+     * verifier that derives the session key with its own (reused) CMAC instance
+     *
+     * @param transactionMacCounter | the TMC after the commit (TMC + 1 in the notation of the data sheet)
+     * @param sv                    | the output buffer (16 bytes)
+     */
+    public static void getSessionVector(byte label, byte[] uid, int transactionMacCounter, byte[] sv) {
+        if ((uid == null) || (uid.length != UID_LENGTH)) {
+            throw new IllegalArgumentException("uid is NULL or not of length " + UID_LENGTH);
+        }
+        sv[0] = label;
+        sv[1] = (byte) 0x00;
+        sv[2] = (byte) 0x01; // counter, fixed to 0001h as only 128-bit keys are generated
+        sv[3] = (byte) 0x00;
+        sv[4] = (byte) 0x80; // length, fixed to 0080h
+        sv[5] = (byte) transactionMacCounter;
+        sv[6] = (byte) (transactionMacCounter >> 8);
+        sv[7] = (byte) (transactionMacCounter >> 16);
+        sv[8] = (byte) (transactionMacCounter >> 24);
+        System.arraycopy(uid, 0, sv, 9, UID_LENGTH);
+    }
+
+    /**
+     * the TMI uses the command code of the secure command for plain and secure variants
+     */
+    private static byte normalizeCommand(byte command) {
+        switch (command) {
+            case READ_DATA_FILE_COMMAND:
+                return READ_DATA_FILE_SECURE_COMMAND;
+            case WRITE_DATA_FILE_COMMAND:
+                return WRITE_DATA_FILE_SECURE_COMMAND;
+            case READ_RECORD_FILE_COMMAND:
+                return READ_RECORD_FILE_SECURE_COMMAND;
+            case WRITE_RECORD_FILE_COMMAND:
+                return WRITE_RECORD_FILE_SECURE_COMMAND;
+            default:
+                return command;
+        }
+    }
+
+    /**
+     * getter
+     */
+
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    public boolean isEmpty() {
+        return transactionMacInput.size() == 0;
+    }
+
+    /**
+     * @return the length of the TMI of the current transaction
+     */
+    public int getInputLength() {
+        return transactionMacInput.size();
+    }
+
+    /**
+     * @return a copy of the TMI of the current transaction
+     */
+    public byte[] getTransactionMacInput() {
+        return transactionMacInput.toByteArray();
+    }
+
+    /**
+     * @return the TMRICur of the current transaction or NULL when no CommitReaderId was appended
+     */
+    public byte[] getTransactionMacReaderIdCurrent() {
+        return (transactionMacReaderIdCurrent == null) ? null : transactionMacReaderIdCurrent.clone();
+    }
+
+    public byte[] getUid() {
+        return uid.clone();
+    }
+
+    public byte[] getLastTransactionMacInput() {
+        return (lastTransactionMacInput == null) ? null : lastTransactionMacInput.clone();
+    }
+
+    public int getLastTransactionMacCounter() {
+        return lastTransactionMacCounter;
+    }
+
+    public byte[] getLastTransactionMacValue() {
+        return (lastTransactionMacValue == null) ? null : lastTransactionMacValue.clone();
+    }
+}
@@ -0,0 +1,44 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class collects the UI updates of the card thread (see CardExecutor) and runs them on the UI thread.
+ * All updates that are queued until the UI thread gets to run them are run in one pass, so a task that writes
+ * many log lines causes one runOnUiThread call instead of one per line. The order of the updates is kept.
+ */
+
+public class UiUpdateQueue {
+
+    private final Executor uiThreadExecutor;
+    private final ConcurrentLinkedQueue<Runnable> uiUpdates = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isUiUpdatePosted = new AtomicBoolean(false);
+
+    /**
+     * @param uiThreadExecutor | runs a Runnable on the UI thread, e.g. activity::runOnUiThread
+     */
+    public UiUpdateQueue(Executor uiThreadExecutor) {
+        this.uiThreadExecutor = uiThreadExecutor;
+    }
+
+    /**
+     * queues an UI update, the queue is posted to the UI thread when it is not posted already
+     */
+    public void post(Runnable update) {
+        uiUpdates.add(update);
+        if (isUiUpdatePosted.compareAndSet(false, true)) {
+            uiThreadExecutor.execute(this::runUiUpdates);
+        }
+    }
+
+    private void runUiUpdates() {
+        // reset the flag first, an update queued while we are running gets a new post
+        isUiUpdatePosted.set(false);
+        Runnable update;
+        while ((update = uiUpdates.poll()) != null) {
+            update.run();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * Tests for the chunk lengths of AdaptiveChunkingPolicy and for chunked writes and reads against the
+ * DesfireLightEmulator with a reader that reports extended length support.
+ */
+public class AdaptiveChunkingPolicyTest {
+
+    private static final byte PLAIN = (byte) 0x00;
+    private static final byte MACED = (byte) 0x01;
+    private static final byte FULL = (byte) 0x03;
+    private static final int SHORT_APDU_MAXIMUM_LENGTH = 261; // CLA INS P1 P2 Lc 255 bytes data Le
+    private static final int EXTENDED_MAX_TRANSCEIVE_LENGTH = 65279; // reported by many phones with extended length support
+    private static final int FILE_SIZE = DesfireLight.MAXIMUM_FILE_SIZE;
+
+    @Test
+    public void typicalReader_chunkLengths() {
+        AdaptiveChunkingPolicy policy = new AdaptiveChunkingPolicy(253, false, 240);
+        assertEquals(233, policy.getMaximumWriteLength(PLAIN));
+        assertEquals(225, policy.getMaximumWriteLength(MACED));
+        assertEquals(223, policy.getMaximumWriteLength(FULL));
+        assertEquals(240, policy.getMaximumReadLength(PLAIN));
+        assertEquals(232, policy.getMaximumReadLength(MACED));
+        assertEquals(223, policy.getMaximumReadLength(FULL));
+    }
+
+    @Test
+    public void extendedLengthReader_isLimitedToShortApdus() {
+        AdaptiveChunkingPolicy shortPolicy = new AdaptiveChunkingPolicy(EXTENDED_MAX_TRANSCEIVE_LENGTH, false, 240);
+        AdaptiveChunkingPolicy extendedPolicy = new AdaptiveChunkingPolicy(EXTENDED_MAX_TRANSCEIVE_LENGTH, true, 240);
+        for (byte communicationSettings : new byte[]{PLAIN, MACED, FULL}) {
+            assertEquals(shortPolicy.getMaximumWriteLength(communicationSettings), extendedPolicy.getMaximumWriteLength(communicationSettings));
+            assertEquals(shortPolicy.getMaximumReadLength(communicationSettings), extendedPolicy.getMaximumReadLength(communicationSettings));
+        }
+        // even with a (wrong) large card frame the command data stays within a short APDU
+        AdaptiveChunkingPolicy largeFramePolicy = new AdaptiveChunkingPolicy(EXTENDED_MAX_TRANSCEIVE_LENGTH, true, 4096);
+        assertTrue(largeFramePolicy.getMaximumWriteLength(PLAIN) + 7 <= 255);
+        assertTrue(largeFramePolicy.getMaximumReadLength(PLAIN) <= 256);
+    }
+
+    @Test
+    public void commandData_fitsIntoOneShortApduAndFrame() {
+        for (int maxTransceiveLength = 38; maxTransceiveLength <= 300; maxTransceiveLength++) {
+            for (int frameLength : new int[]{32, 64, 128, 240, 256}) {
+                for (boolean isExtendedLengthApduSupported : new boolean[]{false, true}) {
+                    AdaptiveChunkingPolicy policy = new AdaptiveChunkingPolicy(maxTransceiveLength, isExtendedLengthApduSupported, frameLength);
+                    String message = maxTransceiveLength + "/" + frameLength + "/" + isExtendedLengthApduSupported;
+                    int limit = Math.min(Math.min(maxTransceiveLength - 6, 255), frameLength);
+                    // CmdHeader || data, MACed: || MAC, Full: padded data || MAC
+                    assertTrue(message, 7 + policy.getMaximumWriteLength(PLAIN) <= limit);
+                    assertTrue(message, 7 + policy.getMaximumWriteLength(MACED) + 8 <= limit);
+                    assertTrue(message, 7 + ((policy.getMaximumWriteLength(FULL) / 16) + 1) * 16 + 8 <= limit);
+                    assertTrue(message, ((policy.getMaximumReadLength(FULL) / 16) + 1) * 16 + 8 <= Math.min(frameLength, 256));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void extendedLengthReader_writesAndReadsWithShortApdus() {
+        DesfireLightEmulator emulator = new DesfireLightEmulator(Utils.hexStringToByteArray("04112233445566"),
+                DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT, DesfireLight.APPLICATION_DF_NAME_DEFAULT, DesfireLight.APPLICATION_ISO_FILE_ID_DEFAULT);
+        emulator.addStandardFile((byte) 0x01, new byte[]{(byte) 0xEF, (byte) 0x01}, PLAIN, new byte[]{(byte) 0x30, (byte) 0x33}, FILE_SIZE);
+        emulator.addStandardFile((byte) 0x02, new byte[]{(byte) 0xEF, (byte) 0x02}, MACED, new byte[]{(byte) 0x30, (byte) 0x33}, FILE_SIZE);
+        emulator.addStandardFile((byte) 0x03, new byte[]{(byte) 0xEF, (byte) 0x03}, FULL, new byte[]{(byte) 0x30, (byte) 0x33}, FILE_SIZE);
+        ShortApduCheckingTransport transport = new ShortApduCheckingTransport(emulator);
+        transport.setExtendedLengthApduSupported(true);
+        DesfireLight desfireLight = new DesfireLight(transport);
+        desfireLight.printToLog = false;
+        assertTrue(desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT));
+        assertTrue(desfireLight.authenticateAesEv2First((byte) 3, new byte[16]));
+
+        byte[] data = new byte[FILE_SIZE];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 7 + 3);
+        // Full, MACed and Plain
+        for (byte fileNumber = 3; fileNumber >= 1; fileNumber--) {
+            boolean success = desfireLight.writeToADataFile(fileNumber, 0, data);
+            assertTrue("file " + fileNumber + ": " + desfireLight.getErrorCodeReason(), success);
+            assertArrayEquals("file " + fileNumber, data, desfireLight.readFromADataFile(fileNumber, 0, FILE_SIZE));
+        }
+        assertTrue(transport.numberOfCommands > 0);
+    }
+
+    /**
+     * a reader with extended length support, fails the test when an APDU does not fit into a short APDU
+     */
+    private static class ShortApduCheckingTransport extends InProcessTransport {
+
+        int numberOfCommands;
+
+        ShortApduCheckingTransport(DesfireLightEmulator emulator) {
+            super(emulator, EXTENDED_MAX_TRANSCEIVE_LENGTH);
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            numberOfCommands++;
+            assertTrue("APDU of " + apdu.length + " bytes", apdu.length <= SHORT_APDU_MAXIMUM_LENGTH);
+            if (apdu.length > 5) {
+                assertEquals("Lc of a short APDU", apdu.length - 6, apdu[4] & 0xFF);
+            }
+            return super.transceive(apdu);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for DesfireLight.executeBatch (validation of the file operations before sending, execution and the stop
+ * on the first failure) against the DesfireLightEmulator.
+ */
+public class BatchExecutionTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04112233445566");
+    private static final byte[] AID = DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT;
+    private static final byte[] TRANSACTION_MAC_KEY = Utils.hexStringToByteArray("00112233445566778899AABBCCDDEEFF");
+    private static final byte FULL = (byte) 0x03;
+    private static final byte DATA_FILE = (byte) 0x00;
+    private static final byte RECORD_FILE = (byte) 0x01;
+    private static final byte VALUE_FILE = (byte) 0x03;
+    private static final byte TRANSACTION_MAC_FILE = (byte) 0x0F;
+    private static final int DATA_FILE_SIZE = 256;
+    private static final int RECORD_SIZE = 16;
+    private static final int INITIAL_VALUE = 100;
+    private static final byte INS_AUTHENTICATE_EV2_FIRST = (byte) 0x71;
+    private static final byte INS_COMMIT_TRANSACTION = (byte) 0xC7;
+
+    private DesfireLightEmulator emulator;
+    private CountingTransport transport;
+    private DesfireLight desfireLight;
+
+    @Before
+    public void setUp() {
+        emulator = new DesfireLightEmulator(UID, AID, DesfireLight.APPLICATION_DF_NAME_DEFAULT, DesfireLight.APPLICATION_ISO_FILE_ID_DEFAULT);
+        emulator.addStandardFile(DATA_FILE, new byte[]{(byte) 0xEF, (byte) 0x00}, FULL, new byte[]{(byte) 0x30, (byte) 0x33}, DATA_FILE_SIZE);
+        emulator.addCyclicRecordFile(RECORD_FILE, new byte[]{(byte) 0xEF, (byte) 0x01}, FULL, new byte[]{(byte) 0x30, (byte) 0x12}, RECORD_SIZE, 5);
+        emulator.addValueFile(VALUE_FILE, FULL, new byte[]{(byte) 0x30, (byte) 0x12}, 0, 1000, INITIAL_VALUE, false);
+        emulator.addTransactionMacFile(TRANSACTION_MAC_FILE, FULL, new byte[]{(byte) 0xF0, (byte) 0x3F}, TRANSACTION_MAC_KEY);
+        transport = new CountingTransport(emulator);
+        desfireLight = new DesfireLight(transport);
+        desfireLight.printToLog = false;
+        desfireLight.setTransactionMacTracker(new TransactionMacTracker(UID, TRANSACTION_MAC_KEY));
+    }
+
+    @Test
+    public void fareFlow_isExecutedInOneBatch() {
+        byte[] record = sequence(RECORD_SIZE, 1);
+        byte[] data = sequence(DATA_FILE_SIZE, 7);
+        List<BatchOperation> operations = Arrays.asList(
+                BatchOperation.selectApplication(AID),
+                BatchOperation.authenticateFirst((byte) 3, new byte[16]),
+                BatchOperation.readValue(VALUE_FILE),
+                BatchOperation.debitValue(VALUE_FILE, 30),
+                BatchOperation.writeRecord(RECORD_FILE, 0, record),
+                // more than one chunk
+                BatchOperation.writeData(DATA_FILE, 0, data),
+                BatchOperation.readData(DATA_FILE, 5, 200),
+                BatchOperation.commit(true));
+        BatchResult batchResult = desfireLight.executeBatch(operations);
+
+        assertTrue(batchResult.getErrorCodeReason(), batchResult.isSuccess());
+        assertEquals(operations.size(), batchResult.getNumberOfExecutedOperations());
+        assertEquals(INITIAL_VALUE, batchResult.getValue(2));
+        assertArrayEquals(Arrays.copyOfRange(data, 5, 205), batchResult.getData(6));
+        assertEquals(12, batchResult.getData(7).length);
+        assertEquals(INITIAL_VALUE - 30, emulator.getValue(VALUE_FILE));
+        assertArrayEquals(data, emulator.getFileData(DATA_FILE));
+        assertEquals(1, emulator.getTransactionMacCounter());
+        assertTrue(desfireLight.isTransactionMacValueVerified());
+        assertEquals(emulator.getCmdCounter(), desfireLight.getCmdCounter());
+
+        // the committed record in a second batch
+        batchResult = desfireLight.executeBatch(Arrays.asList(
+                BatchOperation.selectApplication(AID),
+                BatchOperation.authenticateFirst((byte) 3, new byte[16]),
+                BatchOperation.readRecords(RECORD_FILE, 0, 1),
+                BatchOperation.readValue(VALUE_FILE)));
+        assertTrue(batchResult.getErrorCodeReason(), batchResult.isSuccess());
+        assertArrayEquals(record, batchResult.getData(2));
+        assertEquals(INITIAL_VALUE - 30, batchResult.getValue(3));
+    }
+
+    @Test
+    public void validationFailure_sendsNoCommandOfTheRange() {
+        List<BatchOperation> operations = Arrays.asList(
+                BatchOperation.selectApplication(AID),
+                BatchOperation.authenticateFirst((byte) 3, new byte[16]),
+                BatchOperation.readValue(VALUE_FILE),
+                // a value operation on a Data file
+                BatchOperation.debitValue(DATA_FILE, 1),
+                BatchOperation.commit(false));
+        BatchResult batchResult = desfireLight.executeBatch(operations);
+
+        assertFalse(batchResult.isSuccess());
+        assertEquals(3, batchResult.getFailedOperationIndex());
+        // only the selection was executed, the file settings are read on selection
+        assertEquals(1, batchResult.getNumberOfExecutedOperations());
+        assertEquals(0, transport.countCommands(INS_AUTHENTICATE_EV2_FIRST));
+        assertFalse(emulator.isAuthenticated());
+    }
+
+    @Test
+    public void validationFailure_lengthBeyondTheFileSize() {
+        BatchResult batchResult = desfireLight.executeBatch(Arrays.asList(
+                BatchOperation.selectApplication(AID),
+                BatchOperation.authenticateFirst((byte) 3, new byte[16]),
+                BatchOperation.readData(DATA_FILE, 200, 100)));
+        assertFalse(batchResult.isSuccess());
+        assertEquals(2, batchResult.getFailedOperationIndex());
+        assertEquals(0, transport.countCommands(INS_AUTHENTICATE_EV2_FIRST));
+    }
+
+    @Test
+    public void failureOnTheCard_stopsTheBatch() {
+        List<BatchOperation> operations = Arrays.asList(
+                BatchOperation.selectApplication(AID),
+                BatchOperation.authenticateFirst((byte) 3, new byte[16]),
+                // more than the balance, the PICC returns a BOUNDARY_ERROR
+                BatchOperation.debitValue(VALUE_FILE, INITIAL_VALUE + 1),
+                BatchOperation.writeRecord(RECORD_FILE, 0, sequence(RECORD_SIZE, 1)),
+                BatchOperation.commit(true));
+        BatchResult batchResult = desfireLight.executeBatch(operations);
+
+        assertFalse(batchResult.isSuccess());
+        assertEquals(2, batchResult.getFailedOperationIndex());
+        assertEquals(3, batchResult.getNumberOfExecutedOperations());
+        assertNull(batchResult.getData(4));
+        assertEquals(0, transport.countCommands(INS_COMMIT_TRANSACTION));
+        assertEquals(INITIAL_VALUE, emulator.getValue(VALUE_FILE));
+        assertEquals(0, emulator.getTransactionMacCounter());
+    }
+
+    @Test
+    public void emptyBatch_isRejected() {
+        BatchResult batchResult = desfireLight.executeBatch(null);
+        assertFalse(batchResult.isSuccess());
+        assertEquals(0, batchResult.getNumberOfOperations());
+        assertEquals(0, transport.countCommands(INS_AUTHENTICATE_EV2_FIRST));
+    }
+
+    private static byte[] sequence(int length, int factor) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (i * factor + 3);
+        return data;
+    }
+
+    /**
+     * counts the commands per instruction byte
+     */
+    private static class CountingTransport extends InProcessTransport {
+
+        private final int[] numberOfCommands = new int[256];
+
+        CountingTransport(DesfireLightEmulator emulator) {
+            super(emulator);
+        }
+
+        int countCommands(byte instruction) {
+            return numberOfCommands[instruction & 0xFF];
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            numberOfCommands[apdu[1] & 0xFF]++;
+            return super.transceive(apdu);
+        }
+    }
+}
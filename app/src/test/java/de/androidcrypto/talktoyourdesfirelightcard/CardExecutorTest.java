@@ -0,0 +1,161 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the card thread of CardExecutor (one thread, order of the tasks, cancelPending) and for the merged
+ * UI updates of UiUpdateQueue.
+ */
+public class CardExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final CardExecutor cardExecutor = new CardExecutor();
+
+    @After
+    public void tearDown() {
+        cardExecutor.shutdown();
+    }
+
+    @Test
+    public void tasks_runOnOneThreadInOrder() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        final boolean[] isCardThread = new boolean[1];
+        Future<?> lastTask = null;
+        for (int i = 0; i < 50; i++) {
+            final int number = i;
+            lastTask = cardExecutor.submit("task " + i, () -> {
+                order.add(number);
+                threads.add(Thread.currentThread());
+                if (number == 0) isCardThread[0] = cardExecutor.isCardThread();
+            });
+        }
+        lastTask.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) order.get(i));
+            assertEquals(threads.get(0), threads.get(i));
+        }
+        assertTrue(isCardThread[0]);
+        assertFalse(cardExecutor.isCardThread());
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void cancelPending_dropsTheWaitingTasks() throws Exception {
+        final CountDownLatch isRunning = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        Future<?> runningTask = cardExecutor.submit("running", () -> {
+            isRunning.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executed.add(0);
+        });
+        assertTrue(isRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        List<Future<?>> pendingTasks = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            final int number = i;
+            pendingTasks.add(cardExecutor.submit("pending " + i, () -> executed.add(number)));
+        }
+        assertEquals(5, cardExecutor.getQueueLength());
+
+        // e.g. a new tag was discovered, the running task is not interrupted
+        assertEquals(5, cardExecutor.cancelPending());
+        assertEquals(0, cardExecutor.getQueueLength());
+        release.countDown();
+        runningTask.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        for (Future<?> pendingTask : pendingTasks) {
+            assertTrue(pendingTask.isCancelled());
+        }
+        // a task for the new tag runs after the cancellation
+        cardExecutor.submit("new tag", () -> executed.add(6)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(2, executed.size());
+        assertEquals(0, (int) executed.get(0));
+        assertEquals(6, (int) executed.get(1));
+        assertEquals(0, cardExecutor.cancelPending());
+    }
+
+    @Test
+    public void failedTask_doesNotStopTheCardThread() throws Exception {
+        Future<?> failedTask = cardExecutor.submit("failing", () -> {
+            throw new IllegalStateException("tag was lost");
+        });
+        try {
+            failedTask.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("the task did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        final boolean[] isExecuted = new boolean[1];
+        cardExecutor.submit("next", () -> isExecuted[0] = true).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertTrue(isExecuted[0]);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledTask_isNotRun() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        cardExecutor.submit("running", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Future<?> pendingTask = cardExecutor.submit("pending", () -> {
+        });
+        cardExecutor.cancelPending();
+        release.countDown();
+        pendingTask.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void uiUpdates_areMergedIntoOnePost() throws Exception {
+        // the UI thread is simulated, the posted Runnables are run by the test
+        final List<Runnable> posts = Collections.synchronizedList(new ArrayList<>());
+        final UiUpdateQueue uiUpdateQueue = new UiUpdateQueue(posts::add);
+        final List<Integer> updates = Collections.synchronizedList(new ArrayList<>());
+        Future<?> lastTask = null;
+        for (int i = 0; i < 20; i++) {
+            final int number = i;
+            lastTask = cardExecutor.submit("task " + i, () -> uiUpdateQueue.post(() -> updates.add(number)));
+        }
+        lastTask.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(1, posts.size());
+        assertEquals(0, updates.size());
+
+        posts.remove(0).run();
+        assertEquals(20, updates.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (int) updates.get(i));
+        }
+
+        // an update queued while the updates are run gets a new post
+        uiUpdateQueue.post(() -> uiUpdateQueue.post(() -> updates.add(21)));
+        assertEquals(1, posts.size());
+        posts.remove(0).run();
+        assertEquals(1, posts.size());
+        posts.remove(0).run();
+        assertEquals(21, updates.size());
+        assertEquals(21, (int) updates.get(20));
+        assertEquals(0, posts.size());
+    }
+}
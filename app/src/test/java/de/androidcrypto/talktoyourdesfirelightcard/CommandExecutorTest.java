@@ -0,0 +1,136 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests for the Value and Data file commands that run through the CommandDescriptor table and the generic
+ * command executor of DesfireLight (Plain, MACed and Full) against the DesfireLightEmulator.
+ */
+public class CommandExecutorTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04112233445566");
+    private static final byte MACED = (byte) 0x01;
+    private static final byte FULL = (byte) 0x03;
+    private static final byte[] ACCESS_RIGHTS = new byte[]{(byte) 0x30, (byte) 0x33}; // key 3 for all access
+    private static final byte DATA_FILE_MACED = (byte) 0x01;
+    private static final byte DATA_FILE_FULL = (byte) 0x02;
+    private static final byte VALUE_FILE_MACED = (byte) 0x04;
+    private static final byte VALUE_FILE_FULL = (byte) 0x05;
+    private static final int FILE_SIZE = 256;
+    private static final byte INS_GET_VALUE = (byte) 0x6C;
+
+    private DesfireLightEmulator emulator;
+    private TamperingTransport transport;
+    private DesfireLight desfireLight;
+
+    @Before
+    public void setUp() {
+        emulator = new DesfireLightEmulator(UID, DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT,
+                DesfireLight.APPLICATION_DF_NAME_DEFAULT, DesfireLight.APPLICATION_ISO_FILE_ID_DEFAULT);
+        emulator.addStandardFile(DATA_FILE_MACED, new byte[]{(byte) 0xEF, (byte) 0x01}, MACED, ACCESS_RIGHTS, FILE_SIZE);
+        emulator.addStandardFile(DATA_FILE_FULL, new byte[]{(byte) 0xEF, (byte) 0x02}, FULL, ACCESS_RIGHTS, FILE_SIZE);
+        emulator.addValueFile(VALUE_FILE_MACED, MACED, ACCESS_RIGHTS, 0, 1000, 100, false);
+        emulator.addValueFile(VALUE_FILE_FULL, FULL, ACCESS_RIGHTS, 0, 1000, 200, false);
+        transport = new TamperingTransport(emulator);
+        desfireLight = new DesfireLight(transport);
+        desfireLight.printToLog = false;
+        // the Full mode read with response chaining does not use the executor
+        desfireLight.setFullModeResponseChainingEnabled(false);
+        assertTrue(desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT));
+        assertTrue(desfireLight.authenticateAesEv2First((byte) 3, new byte[16]));
+    }
+
+    @Test
+    public void dataFiles_writeAndRead_macedAndFull() {
+        byte[] data = new byte[FILE_SIZE];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 11 + 5);
+        for (byte fileNumber : new byte[]{DATA_FILE_MACED, DATA_FILE_FULL}) {
+            // more than one chunk
+            assertTrue("file " + fileNumber + ": " + desfireLight.getErrorCodeReason(), desfireLight.writeToADataFile(fileNumber, 0, data));
+            assertArrayEquals(data, emulator.getFileData(fileNumber));
+            assertArrayEquals(data, desfireLight.readFromADataFile(fileNumber, 0, FILE_SIZE));
+            // unaligned offset and length
+            assertArrayEquals(Arrays.copyOfRange(data, 7, 7 + 33), desfireLight.readFromADataFile(fileNumber, 7, 33));
+        }
+        assertEquals(emulator.getCmdCounter(), desfireLight.getCmdCounter());
+    }
+
+    @Test
+    public void valueFiles_creditDebitAndGetValue_macedAndFull() {
+        assertEquals(100, desfireLight.readFromAValueFile(VALUE_FILE_MACED));
+        assertEquals(200, desfireLight.readFromAValueFile(VALUE_FILE_FULL));
+        assertTrue(desfireLight.changeAValueFile(VALUE_FILE_MACED, 50, true));
+        assertTrue(desfireLight.changeAValueFile(VALUE_FILE_FULL, 30, false));
+        assertTrue(desfireLight.commitTransactionFull(false));
+        assertEquals(150, emulator.getValue(VALUE_FILE_MACED));
+        assertEquals(170, emulator.getValue(VALUE_FILE_FULL));
+        assertEquals(150, desfireLight.readFromAValueFile(VALUE_FILE_MACED));
+        assertEquals(170, desfireLight.readFromAValueFile(VALUE_FILE_FULL));
+        assertEquals(emulator.getCmdCounter(), desfireLight.getCmdCounter());
+    }
+
+    @Test
+    public void freeGetValue_isPlainAndKeepsTheCmdCounter() {
+        // the Value file 3 of the delivery configuration is Full with free GetValue access
+        emulator = DesfireLightEmulator.createDefaultLight(UID);
+        desfireLight = new DesfireLight(new TamperingTransport(emulator));
+        desfireLight.printToLog = false;
+        assertTrue(desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT));
+        assertTrue(desfireLight.authenticateAesEv2First((byte) 3, new byte[16]));
+        assertEquals(0, desfireLight.readFromAValueFile((byte) 0x03));
+        // the PICC increased the CmdCounter for the Plain command in the session, the next Full command works
+        assertEquals(emulator.getCmdCounter(), desfireLight.getCmdCounter());
+        assertEquals(256, desfireLight.readFromADataFile((byte) 0x00, 0, 256).length);
+    }
+
+    @Test
+    public void wrongResponseMac_isRejected() {
+        transport.tamperedInstruction = INS_GET_VALUE;
+        for (byte fileNumber : new byte[]{VALUE_FILE_MACED, VALUE_FILE_FULL}) {
+            assertEquals(-1, desfireLight.readFromAValueFile(fileNumber));
+            assertTrue(desfireLight.getErrorCodeReason(), desfireLight.getErrorCodeReason().contains("MAC"));
+        }
+    }
+
+    @Test
+    public void valueCommandOnDataFile_isNotSent() {
+        int numberOfCommands = transport.numberOfCommands;
+        assertEquals(-1, desfireLight.readFromAValueFile(DATA_FILE_FULL));
+        assertFalse(desfireLight.changeAValueFile(DATA_FILE_MACED, 1, true));
+        assertNull(desfireLight.readFromADataFile(VALUE_FILE_FULL, 0, 4));
+        assertEquals(numberOfCommands, transport.numberOfCommands);
+    }
+
+    /**
+     * flips a bit of the response MAC for the given instruction
+     */
+    private static class TamperingTransport extends InProcessTransport {
+
+        byte tamperedInstruction;
+        int numberOfCommands;
+
+        TamperingTransport(DesfireLightEmulator emulator) {
+            super(emulator);
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            numberOfCommands++;
+            byte[] response = super.transceive(apdu);
+            if ((tamperedInstruction != 0) && (apdu[1] == tamperedInstruction) && (response.length > 2)) {
+                response[response.length - 3] ^= (byte) 0x01;
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the CommandPipeline (the per session worker engine, the order of submit and take and the discarding
+ * of a precomputed command) and for executeBatch with an enabled pipeline against the DesfireLightEmulator.
+ */
+public class CommandPipelineTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04112233445566");
+    private static final byte[] AID = DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT;
+    private static final byte WRITE_DATA = (byte) 0x8D;
+    private static final byte FULL = SecureMessagingEngine.COMMUNICATION_MODE_FULL;
+    private static final byte MACED = SecureMessagingEngine.COMMUNICATION_MODE_MACED;
+    private static final byte[] TI_A = Utils.hexStringToByteArray("11223344");
+    private static final byte[] TI_B = Utils.hexStringToByteArray("55667788");
+    private static final byte DATA_FILE = (byte) 0x00; // Standard file of 256 bytes in Full mode, RW key 3
+
+    private final CommandPipeline commandPipeline = new CommandPipeline();
+
+    @After
+    public void tearDown() {
+        commandPipeline.close();
+    }
+
+    @Test
+    public void take_returnsTheCommandOfTheSubmittingSession() throws Exception {
+        // two sessions with different keys, each session object has its own worker engine
+        Object sessionA = new Object();
+        Object sessionB = new Object();
+        byte[] keyA = key(1);
+        byte[] keyB = key(2);
+        SecureMessagingEngine engineA = new SecureMessagingEngine(keyA, keyA, TI_A);
+        SecureMessagingEngine engineB = new SecureMessagingEngine(keyB, keyB, TI_B);
+        byte[] data = sequence(40);
+        int cmdCounter = 0;
+        for (Object session : new Object[]{sessionA, sessionB, sessionA, sessionA, sessionB}) {
+            boolean isSessionA = (session == sessionA);
+            byte[] header = header(cmdCounter);
+            commandPipeline.submit(session, isSessionA ? keyA : keyB, isSessionA ? keyA : keyB, isSessionA ? TI_A : TI_B,
+                    WRITE_DATA, cmdCounter, header, data, FULL);
+            SecureMessagingEngine engine = isSessionA ? engineA : engineB;
+            assertArrayEquals("command " + cmdCounter, engine.buildCommand(WRITE_DATA, cmdCounter, header, data, FULL),
+                    commandPipeline.take(header, cmdCounter));
+            cmdCounter++;
+        }
+        assertEquals(5, commandPipeline.getNumberOfHits());
+        assertEquals(0, commandPipeline.getNumberOfMisses());
+    }
+
+    @Test
+    public void newSessionObject_getsANewWorkerEngine() throws Exception {
+        // a new authentication creates a new session object with new keys, the old engine is not used
+        byte[] oldKey = key(1);
+        byte[] newKey = key(3);
+        byte[] header = header(0);
+        commandPipeline.submit(new Object(), oldKey, oldKey, TI_A, WRITE_DATA, 0, header, null, MACED);
+        commandPipeline.take(header, 0);
+        commandPipeline.submit(new Object(), newKey, newKey, TI_A, WRITE_DATA, 0, header, null, MACED);
+        assertArrayEquals(new SecureMessagingEngine(newKey, newKey, TI_A).buildCommand(WRITE_DATA, 0, header, null, MACED),
+                commandPipeline.take(header, 0));
+    }
+
+    @Test
+    public void submit_replacesTheCommandThatWasNotTaken() {
+        Object session = new Object();
+        byte[] key = key(1);
+        byte[] header1 = header(1);
+        byte[] header2 = header(2);
+        commandPipeline.submit(session, key, key, TI_A, WRITE_DATA, 1, header1, null, MACED);
+        commandPipeline.submit(session, key, key, TI_A, WRITE_DATA, 2, header2, null, MACED);
+        assertNull(commandPipeline.take(header1, 1));
+        assertEquals(1, commandPipeline.getNumberOfMisses());
+        // the miss discarded the second command as well
+        assertNull(commandPipeline.take(header2, 2));
+        assertEquals(0, commandPipeline.getNumberOfHits());
+    }
+
+    @Test
+    public void take_missesOnAnotherHeaderOrCmdCounter() {
+        Object session = new Object();
+        byte[] key = key(1);
+        byte[] header = header(1);
+        commandPipeline.submit(session, key, key, TI_A, WRITE_DATA, 1, header, null, MACED);
+        assertNull(commandPipeline.take(header, 2));
+        // the header is compared by identity, an equal copy is another command
+        commandPipeline.submit(session, key, key, TI_A, WRITE_DATA, 1, header, null, MACED);
+        assertNull(commandPipeline.take(header.clone(), 1));
+        assertEquals(2, commandPipeline.getNumberOfMisses());
+        assertEquals(0, commandPipeline.getNumberOfHits());
+    }
+
+    @Test
+    public void discard_dropsThePendingCommand() {
+        byte[] key = key(1);
+        byte[] header = header(1);
+        commandPipeline.submit(new Object(), key, key, TI_A, WRITE_DATA, 1, header, null, MACED);
+        commandPipeline.discard();
+        assertNull(commandPipeline.take(header, 1));
+        // nothing was pending, this is no miss
+        assertEquals(0, commandPipeline.getNumberOfMisses());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void submit_afterClose_isRejected() {
+        byte[] key = key(1);
+        commandPipeline.close();
+        commandPipeline.submit(new Object(), key, key, TI_A, WRITE_DATA, 0, header(0), null, MACED);
+    }
+
+    @Test
+    public void batch_withPipeline_isAcceptedByThePicc() {
+        byte[] data = sequence(256);
+        List<BatchOperation> operations = Arrays.asList(
+                BatchOperation.selectApplication(AID),
+                BatchOperation.authenticateFirst((byte) 3, new byte[16]),
+                BatchOperation.writeData(DATA_FILE, 0, data),
+                BatchOperation.readData(DATA_FILE, 3, 250),
+                BatchOperation.readValue((byte) 0x03));
+        DesfireLightEmulator emulator = DesfireLightEmulator.createDefaultLight(UID);
+        DesfireLight desfireLight = new DesfireLight(new InProcessTransport(emulator));
+        desfireLight.printToLog = false;
+        desfireLight.setCommandPipelineEnabled(true);
+
+        // the PICC verifies every precomputed MAC, two sessions in a row: the second authentication creates a new session
+        for (int batch = 0; batch < 2; batch++) {
+            BatchResult batchResult = desfireLight.executeBatch(operations);
+            assertTrue("batch " + batch + ": " + batchResult.getErrorCodeReason(), batchResult.isSuccess());
+            assertArrayEquals(Arrays.copyOfRange(data, 3, 253), batchResult.getData(3));
+            assertEquals(0, batchResult.getValue(4));
+            assertArrayEquals(data, emulator.getFileData(DATA_FILE));
+            assertEquals(emulator.getCmdCounter(), desfireLight.getCmdCounter());
+        }
+        CommandPipeline pipeline = desfireLight.getCommandPipeline();
+        assertTrue(pipeline.getNumberOfHits() > 0);
+        assertEquals(0, pipeline.getNumberOfMisses());
+
+        desfireLight.setCommandPipelineEnabled(false);
+        assertNull(desfireLight.getCommandPipeline());
+    }
+
+    @Test
+    public void batch_failedCommand_discardsThePrecomputedCommand() {
+        DesfireLightEmulator emulator = DesfireLightEmulator.createDefaultLight(UID);
+        DesfireLight desfireLight = new DesfireLight(new InProcessTransport(emulator));
+        desfireLight.printToLog = false;
+        desfireLight.setCommandPipelineEnabled(true);
+        // the PICC denies the write with key 1, the precomputed second chunk is not sent
+        BatchResult batchResult = desfireLight.executeBatch(Arrays.asList(
+                BatchOperation.selectApplication(AID),
+                BatchOperation.authenticateFirst((byte) 1, new byte[16]),
+                BatchOperation.writeData(DATA_FILE, 0, sequence(256))));
+        assertFalse(batchResult.isSuccess());
+        assertEquals(2, batchResult.getFailedOperationIndex());
+        assertArrayEquals(new byte[256], emulator.getFileData(DATA_FILE));
+        assertEquals(0, desfireLight.getCommandPipeline().getNumberOfHits());
+    }
+
+    private static byte[] header(int number) {
+        return new byte[]{(byte) 0x00, (byte) number, (byte) 0x00, (byte) 0x00, (byte) 0x10, (byte) 0x00, (byte) 0x00};
+    }
+
+    private static byte[] key(int number) {
+        byte[] key = new byte[16];
+        Arrays.fill(key, (byte) number);
+        return key;
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (i * 5 + 1);
+        return data;
+    }
+}
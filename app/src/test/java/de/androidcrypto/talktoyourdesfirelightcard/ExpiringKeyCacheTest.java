@@ -0,0 +1,122 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for the expiry, the LRU eviction of ExpiringKeyCache and the wiping of the removed keys.
+ */
+public class ExpiringKeyCacheTest {
+
+    private static final long MAXIMUM_AGE_MILLIS = 50;
+
+    @Test
+    public void leastRecentlyUsedEntry_isEvictedAndWiped() throws Exception {
+        ExpiringKeyCache keyCache = new ExpiringKeyCache(2, 60000);
+        keyCache.put("k1", key(1));
+        keyCache.put("k2", key(2));
+        List<byte[]> storedKeys = getStoredKeys(keyCache);
+        // the access makes k2 the least recently used entry
+        assertArrayEquals(key(1), keyCache.get("k1"));
+        keyCache.put("k3", key(3));
+
+        assertEquals(2, keyCache.size());
+        assertNull(keyCache.get("k2"));
+        assertArrayEquals(new byte[16], storedKeys.get(1));
+        assertArrayEquals(key(1), keyCache.get("k1"));
+        assertArrayEquals(key(3), keyCache.get("k3"));
+    }
+
+    @Test
+    public void keys_areCopied() {
+        ExpiringKeyCache keyCache = new ExpiringKeyCache(2, 60000);
+        byte[] key = key(1);
+        keyCache.put("k1", key);
+        Arrays.fill(key, (byte) 0x00);
+        byte[] cachedKey = keyCache.get("k1");
+        assertArrayEquals(key(1), cachedKey);
+        Arrays.fill(cachedKey, (byte) 0x00);
+        assertArrayEquals(key(1), keyCache.get("k1"));
+    }
+
+    @Test
+    public void expiredKeys_areWipedOnTheNextAccessOfAnyAlias() throws Exception {
+        ExpiringKeyCache keyCache = new ExpiringKeyCache(16, MAXIMUM_AGE_MILLIS);
+        keyCache.put("k1", key(1));
+        keyCache.put("k2", key(2));
+        List<byte[]> storedKeys = getStoredKeys(keyCache);
+        Thread.sleep(MAXIMUM_AGE_MILLIS * 2);
+
+        // k1 and k2 are never read again, a get of another alias removes them
+        assertNull(keyCache.get("k3"));
+        assertEquals(0, keyCache.size());
+        for (byte[] storedKey : storedKeys) {
+            assertArrayEquals(new byte[16], storedKey);
+        }
+    }
+
+    @Test
+    public void expiredKeys_areWipedOnPut() throws Exception {
+        ExpiringKeyCache keyCache = new ExpiringKeyCache(16, MAXIMUM_AGE_MILLIS);
+        keyCache.put("k1", key(1));
+        List<byte[]> storedKeys = getStoredKeys(keyCache);
+        Thread.sleep(MAXIMUM_AGE_MILLIS * 2);
+
+        keyCache.put("k2", key(2));
+        assertEquals(1, keyCache.size());
+        assertArrayEquals(new byte[16], storedKeys.get(0));
+        assertNull(keyCache.get("k1"));
+        assertArrayEquals(key(2), keyCache.get("k2"));
+    }
+
+    @Test
+    public void replacedRemovedAndClearedKeys_areWiped() throws Exception {
+        ExpiringKeyCache keyCache = new ExpiringKeyCache(16, 60000);
+        keyCache.put("k1", key(1));
+        keyCache.put("k2", key(2));
+        keyCache.put("k3", key(3));
+        List<byte[]> storedKeys = getStoredKeys(keyCache);
+
+        keyCache.put("k1", key(4));
+        assertArrayEquals(new byte[16], storedKeys.get(0));
+        assertArrayEquals(key(4), keyCache.get("k1"));
+        keyCache.remove("k2");
+        assertArrayEquals(new byte[16], storedKeys.get(1));
+        assertNull(keyCache.get("k2"));
+
+        storedKeys = getStoredKeys(keyCache);
+        keyCache.clear();
+        assertEquals(0, keyCache.size());
+        for (byte[] storedKey : storedKeys) {
+            assertArrayEquals(new byte[16], storedKey);
+        }
+    }
+
+    // the internal copies of the keys in LRU order, the cache never returns them
+    private static List<byte[]> getStoredKeys(ExpiringKeyCache keyCache) throws Exception {
+        Field keysField = ExpiringKeyCache.class.getDeclaredField("keys");
+        keysField.setAccessible(true);
+        List<byte[]> storedKeys = new ArrayList<>();
+        for (Object cachedKey : ((Map<?, ?>) keysField.get(keyCache)).values()) {
+            Field keyField = cachedKey.getClass().getDeclaredField("key");
+            keyField.setAccessible(true);
+            storedKeys.add((byte[]) keyField.get(cachedKey));
+        }
+        return storedKeys;
+    }
+
+    private static byte[] key(int number) {
+        byte[] key = new byte[16];
+        Arrays.fill(key, (byte) number);
+        return key;
+    }
+}
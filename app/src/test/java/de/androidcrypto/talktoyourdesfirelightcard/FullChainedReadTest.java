@@ -0,0 +1,153 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests for the Full mode read of a Data file with one command and 0xAF response chaining
+ * (DesfireLight.readFromADataFileFullChained and SecureResponseStream) against the DesfireLightEmulator.
+ */
+public class FullChainedReadTest {
+
+    private static final byte FILE_NUMBER = (byte) 0x00; // Standard file of 256 bytes in Full mode, RW key 3
+    private static final int FILE_SIZE = 256;
+    private static final int[] OFFSETS = new int[]{0, 3};
+    private static final int[] LENGTHS = new int[]{16, 32, 48, 64, 128, 240, 256, 1, 15, 17, 31, 100, 200, 253};
+
+    private DesfireLightEmulator emulator;
+    private RecordingTransport transport;
+    private DesfireLight desfireLight;
+    private byte[] fileData;
+
+    @Before
+    public void setUp() {
+        emulator = DesfireLightEmulator.createDefaultLight(Utils.hexStringToByteArray("04112233445566"));
+        transport = new RecordingTransport(new InProcessTransport(emulator));
+        desfireLight = new DesfireLight(transport);
+        desfireLight.printToLog = false;
+        assertTrue(desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT));
+        assertTrue(desfireLight.authenticateAesEv2First((byte) 3, new byte[16]));
+        fileData = new byte[FILE_SIZE];
+        for (int i = 0; i < FILE_SIZE; i++) fileData[i] = (byte) (i * 13 + 1);
+        assertTrue(desfireLight.writeToADataFile(FILE_NUMBER, 0, fileData));
+    }
+
+    @Test
+    public void chainedRead_allFrameSizes() {
+        for (int frameLength = 16; frameLength <= 240; frameLength++) {
+            emulator.setMaximumResponseFrameLength(frameLength);
+            for (int offset : OFFSETS) {
+                for (int length : LENGTHS) {
+                    if (offset + length > FILE_SIZE) continue;
+                    byte[] readData = desfireLight.readFromADataFileFullChained(FILE_NUMBER, offset, length);
+                    assertArrayEquals("frame " + frameLength + " offset " + offset + " length " + length + ": " + desfireLight.getErrorCodeReason(),
+                            Arrays.copyOfRange(fileData, offset, offset + length), readData);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void chainedRead_isUsedByReadFromADataFile() {
+        emulator.setMaximumResponseFrameLength(40);
+        transport.reset();
+        byte[] readData = desfireLight.readFromADataFile(FILE_NUMBER, 3, 200);
+        assertArrayEquals(Arrays.copyOfRange(fileData, 3, 203), readData);
+        assertEquals("one command and its 0xAF frames", 1, transport.numberOfCommands - transport.numberOfAdditionalFrameCommands);
+    }
+
+    @Test
+    public void chainedRead_checksTheFileSettingsBeforeSending() {
+        transport.reset();
+        // beyond the file size, a Plain Standard file, a Value file and a file that does not exist
+        assertNull(desfireLight.readFromADataFileFullChained(FILE_NUMBER, 200, 100));
+        assertNull(desfireLight.readFromADataFileFullChained((byte) 0x1F, 0, 16));
+        assertNull(desfireLight.readFromADataFileFullChained((byte) 0x03, 0, 4));
+        assertNull(desfireLight.readFromADataFileFullChained((byte) 0x09, 0, 16));
+        assertEquals(0, transport.numberOfCommands);
+        // the session is still valid
+        assertArrayEquals(Arrays.copyOf(fileData, 16), desfireLight.readFromADataFileFullChained(FILE_NUMBER, 0, 16));
+    }
+
+    @Test
+    public void alignedLength_isReceivedWithFullPaddingBlock() {
+        // the card pads 16 * n bytes of data with a full block: 16 * n + 16 bytes encrypted data || 8 bytes MAC
+        for (int length : new int[]{16, 32, 48, 240}) {
+            transport.reset();
+            byte[] readData = desfireLight.readFromADataFileFullChained(FILE_NUMBER, 0, length);
+            assertArrayEquals(Arrays.copyOf(fileData, length), readData);
+            assertEquals("length " + length, length + 16 + 8, transport.numberOfReceivedDataBytes);
+        }
+        for (int length : new int[]{1, 15, 17, 31}) {
+            transport.reset();
+            desfireLight.readFromADataFileFullChained(FILE_NUMBER, 0, length);
+            assertEquals("length " + length, ((length / 16) + 1) * 16 + 8, transport.numberOfReceivedDataBytes);
+        }
+    }
+
+    @Test
+    public void readWithoutChaining_alignedAndUnaligned() {
+        desfireLight.setFullModeResponseChainingEnabled(false);
+        for (int offset : OFFSETS) {
+            for (int length : LENGTHS) {
+                if (offset + length > FILE_SIZE) continue;
+                byte[] readData = desfireLight.readFromADataFile(FILE_NUMBER, offset, length);
+                assertArrayEquals("offset " + offset + " length " + length + ": " + desfireLight.getErrorCodeReason(),
+                        Arrays.copyOfRange(fileData, offset, offset + length), readData);
+            }
+        }
+    }
+
+    /**
+     * counts the commands and the received response data (without the status bytes)
+     */
+    private static class RecordingTransport implements ApduTransport {
+
+        private final ApduTransport transport;
+        int numberOfCommands;
+        int numberOfAdditionalFrameCommands;
+        int numberOfReceivedDataBytes;
+
+        RecordingTransport(ApduTransport transport) {
+            this.transport = transport;
+        }
+
+        void reset() {
+            numberOfCommands = 0;
+            numberOfAdditionalFrameCommands = 0;
+            numberOfReceivedDataBytes = 0;
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            numberOfCommands++;
+            if (apdu[1] == (byte) 0xAF) numberOfAdditionalFrameCommands++;
+            byte[] response = transport.transceive(apdu);
+            numberOfReceivedDataBytes += response.length - 2;
+            return response;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return transport.isConnected();
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return transport.getMaxTransceiveLength();
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return transport.isExtendedLengthApduSupported();
+        }
+    }
+}
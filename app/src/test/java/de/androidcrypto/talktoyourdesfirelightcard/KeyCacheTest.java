@@ -0,0 +1,103 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for the LRU eviction of KeyCache and the wiping of evicted keys.
+ */
+public class KeyCacheTest {
+
+    private static final String MASTER_KEY_ID = "master";
+    private static final byte[] AID = Utils.hexStringToByteArray("514649");
+
+    @Test
+    public void leastRecentlyUsedEntry_isEvicted() {
+        KeyCache keyCache = new KeyCache(2);
+        keyCache.put(MASTER_KEY_ID, uid(1), AID, (byte) 0, key(1));
+        keyCache.put(MASTER_KEY_ID, uid(2), AID, (byte) 0, key(2));
+        // the access makes card 2 the least recently used entry
+        assertArrayEquals(key(1), keyCache.get(MASTER_KEY_ID, uid(1), AID, (byte) 0));
+        keyCache.put(MASTER_KEY_ID, uid(3), AID, (byte) 0, key(3));
+
+        assertEquals(2, keyCache.size());
+        assertNull(keyCache.get(MASTER_KEY_ID, uid(2), AID, (byte) 0));
+        assertArrayEquals(key(1), keyCache.get(MASTER_KEY_ID, uid(1), AID, (byte) 0));
+        assertArrayEquals(key(3), keyCache.get(MASTER_KEY_ID, uid(3), AID, (byte) 0));
+        assertEquals(3, keyCache.getNumberOfHits());
+        assertEquals(1, keyCache.getNumberOfMisses());
+    }
+
+    @Test
+    public void entries_areKeyedByMasterKeyIdUidAidAndKeyNumber() {
+        KeyCache keyCache = new KeyCache();
+        keyCache.put(MASTER_KEY_ID, uid(1), AID, (byte) 0, key(1));
+        assertNull(keyCache.get("other", uid(1), AID, (byte) 0));
+        assertNull(keyCache.get(MASTER_KEY_ID, uid(2), AID, (byte) 0));
+        assertNull(keyCache.get(MASTER_KEY_ID, uid(1), Utils.hexStringToByteArray("514650"), (byte) 0));
+        assertNull(keyCache.get(MASTER_KEY_ID, uid(1), AID, (byte) 1));
+        assertNotNull(keyCache.get(MASTER_KEY_ID, uid(1), AID, (byte) 0));
+    }
+
+    @Test
+    public void keys_areCopied() {
+        KeyCache keyCache = new KeyCache();
+        byte[] key = key(1);
+        keyCache.put(MASTER_KEY_ID, uid(1), AID, (byte) 0, key);
+        Arrays.fill(key, (byte) 0x00);
+        byte[] cachedKey = keyCache.get(MASTER_KEY_ID, uid(1), AID, (byte) 0);
+        assertArrayEquals(key(1), cachedKey);
+        Arrays.fill(cachedKey, (byte) 0x00);
+        assertArrayEquals(key(1), keyCache.get(MASTER_KEY_ID, uid(1), AID, (byte) 0));
+    }
+
+    @Test
+    public void evictedReplacedAndClearedKeys_areWiped() throws Exception {
+        KeyCache keyCache = new KeyCache(2);
+        keyCache.put(MASTER_KEY_ID, uid(1), AID, (byte) 0, key(1));
+        keyCache.put(MASTER_KEY_ID, uid(2), AID, (byte) 0, key(2));
+        List<byte[]> storedKeys = getStoredKeys(keyCache);
+
+        keyCache.put(MASTER_KEY_ID, uid(3), AID, (byte) 0, key(3)); // evicts card 1
+        assertArrayEquals(new byte[16], storedKeys.get(0));
+        assertArrayEquals(key(2), storedKeys.get(1));
+
+        keyCache.put(MASTER_KEY_ID, uid(2), AID, (byte) 0, key(4)); // replaces the key of card 2
+        assertArrayEquals(new byte[16], storedKeys.get(1));
+
+        storedKeys = getStoredKeys(keyCache);
+        keyCache.clear();
+        assertEquals(0, keyCache.size());
+        for (byte[] storedKey : storedKeys) {
+            assertArrayEquals(new byte[16], storedKey);
+        }
+    }
+
+    // the internal copies of the keys in LRU order, the cache never returns them
+    @SuppressWarnings("unchecked")
+    private static List<byte[]> getStoredKeys(KeyCache keyCache) throws Exception {
+        Field field = KeyCache.class.getDeclaredField("keys");
+        field.setAccessible(true);
+        return new ArrayList<>(((Map<String, byte[]>) field.get(keyCache)).values());
+    }
+
+    private static byte[] uid(int number) {
+        return new byte[]{(byte) 0x04, (byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x44, (byte) 0x55, (byte) number};
+    }
+
+    private static byte[] key(int number) {
+        byte[] key = new byte[16];
+        Arrays.fill(key, (byte) number);
+        return key;
+    }
+}
@@ -0,0 +1,68 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Tests for KeyDiversification with the AES-128 example of AN10922 Symmetric key diversifications.pdf and against AesCmac.
+ */
+public class KeyDiversificationTest {
+
+    private static final byte[] AN10922_MASTER_KEY = Utils.hexStringToByteArray("00112233445566778899AABBCCDDEEFF");
+
+    @Test
+    public void an10922Example_aes128() throws Exception {
+        // M = UID 04782E21801D80 || AID 3042F5 || System Identifier 4E585020416275 ("NXP Abu")
+        byte[] diversificationInput = Utils.hexStringToByteArray("04782E21801D803042F54E585020416275");
+        KeyDiversification keyDiversification = new KeyDiversification(AN10922_MASTER_KEY);
+        assertArrayEquals(Utils.hexStringToByteArray("A8DD63A3B89D54B37CA802473FDA9175"), keyDiversification.diversify(diversificationInput));
+        // the instance is reused for the next card
+        assertArrayEquals(Utils.hexStringToByteArray("A8DD63A3B89D54B37CA802473FDA9175"), keyDiversification.diversify(diversificationInput));
+    }
+
+    @Test
+    public void inputOf16To31Bytes_matchesAesCmac() throws Exception {
+        // D = 01h || M has 17..32 bytes, the padding to 32 bytes is the same as the CMAC padding
+        Random random = new Random(7);
+        KeyDiversification keyDiversification = new KeyDiversification(AN10922_MASTER_KEY);
+        for (int length = 16; length <= KeyDiversification.MAXIMUM_DIVERSIFICATION_INPUT_LENGTH; length++) {
+            byte[] diversificationInput = new byte[length];
+            random.nextBytes(diversificationInput);
+            byte[] d = new byte[length + 1];
+            d[0] = (byte) 0x01;
+            System.arraycopy(diversificationInput, 0, d, 1, length);
+            AesCmac aesCmac = new AesCmac();
+            aesCmac.init(new SecretKeySpec(AN10922_MASTER_KEY, "AES"));
+            aesCmac.updateBlock(d);
+            assertArrayEquals("length " + length, aesCmac.doFinal(), keyDiversification.diversify(diversificationInput));
+        }
+    }
+
+    @Test
+    public void shortInput_isPaddedTo32Bytes() throws Exception {
+        // D = 01h || M is padded to 32 bytes and not to the next block, so the key differs from the plain CMAC
+        byte[] diversificationInput = Utils.hexStringToByteArray("04782E21801D80");
+        byte[] d = Utils.hexStringToByteArray("0104782E21801D80");
+        AesCmac aesCmac = new AesCmac();
+        aesCmac.init(new SecretKeySpec(AN10922_MASTER_KEY, "AES"));
+        aesCmac.updateBlock(d);
+        assertFalse(Arrays.equals(aesCmac.doFinal(), new KeyDiversification(AN10922_MASTER_KEY).diversify(diversificationInput)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inputOf32Bytes_isRejected() throws Exception {
+        new KeyDiversification(AN10922_MASTER_KEY).diversify(new byte[32]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyInput_isRejected() throws Exception {
+        new KeyDiversification(AN10922_MASTER_KEY).diversify(new byte[0]);
+    }
+}
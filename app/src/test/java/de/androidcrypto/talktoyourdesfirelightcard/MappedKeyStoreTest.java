@@ -0,0 +1,236 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.zip.CRC32;
+
+/**
+ * Tests for the persistence of MappedKeyStore: reopening, torn and corrupted records, compaction and the
+ * binding of a key to its alias.
+ */
+public class MappedKeyStoreTest {
+
+    private static final int HEADER_LENGTH = 24;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    // payload of an alias of 2 bytes and a key of 16 bytes: type || alias length || alias || nonce || encrypted key || tag
+    private static final int RECORD_LENGTH = RECORD_HEADER_LENGTH + 3 + 2 + 12 + 16 + 16;
+    private static final byte[] PASSWORD = "storage password".getBytes();
+
+    private File keyFile;
+
+    @Before
+    public void setUp() throws Exception {
+        keyFile = File.createTempFile("keys", ".dfks");
+        keyFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        keyFile.delete();
+        new File(keyFile.getPath() + ".compact").delete();
+    }
+
+    @Test
+    public void reopen_returnsTheStoredKeys() throws Exception {
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            keyStore.putKey("k1", key(1));
+            keyStore.putKey("k2", key(2));
+            keyStore.putKey("k1", key(3));
+            assertTrue(keyStore.deleteKey("k2"));
+        }
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertEquals(1, keyStore.size());
+            assertArrayEquals(key(3), keyStore.getKey("k1"));
+            assertNull(keyStore.getKey("k2"));
+            assertEquals(0, keyStore.getDiscardedBytes());
+            assertTrue(keyStore.getGarbageBytes() > 0);
+        }
+        try {
+            MappedKeyStore.open(keyFile, "other password".getBytes());
+            fail("opened with a wrong password");
+        } catch (GeneralSecurityException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void tornTail_isCutOff() throws Exception {
+        storeKeys(3);
+        long completeLength = keyFile.length();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(keyFile, "rw")) {
+            // the header and a part of the payload of a fourth record
+            randomAccessFile.seek(completeLength);
+            randomAccessFile.write(ByteBuffer.allocate(RECORD_HEADER_LENGTH).putInt(RECORD_LENGTH - RECORD_HEADER_LENGTH).putInt(0x12345678).array());
+            randomAccessFile.write(new byte[]{(byte) 0x01, (byte) 0x00, (byte) 0x02});
+        }
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertEquals(RECORD_HEADER_LENGTH + 3, keyStore.getDiscardedBytes());
+            assertEquals(completeLength, keyFile.length());
+            assertKeys(keyStore, 3);
+            keyStore.putKey("k4", key(4));
+        }
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertEquals(0, keyStore.getDiscardedBytes());
+            assertArrayEquals(key(4), keyStore.getKey("k4"));
+        }
+    }
+
+    @Test
+    public void corruptedLastRecord_isCutOff() throws Exception {
+        storeKeys(3);
+        flipByte(HEADER_LENGTH + 2 * RECORD_LENGTH + RECORD_LENGTH - 1);
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertEquals(RECORD_LENGTH, keyStore.getDiscardedBytes());
+            assertEquals(HEADER_LENGTH + 2 * RECORD_LENGTH, keyStore.getFileLength());
+            assertArrayEquals(key(1), keyStore.getKey("k1"));
+            assertArrayEquals(key(2), keyStore.getKey("k2"));
+            assertFalse(keyStore.containsAlias("k3"));
+        }
+    }
+
+    @Test
+    public void corruptedMiddleRecord_isSkippedAndTheFollowingRecordsAreKept() throws Exception {
+        storeKeys(3);
+        long length = keyFile.length();
+        flipByte(HEADER_LENGTH + RECORD_LENGTH + RECORD_HEADER_LENGTH + 20);
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertEquals(0, keyStore.getDiscardedBytes());
+            assertEquals(RECORD_LENGTH, keyStore.getSkippedBytes());
+            assertEquals(length, keyStore.getFileLength());
+            assertArrayEquals(key(1), keyStore.getKey("k1"));
+            assertFalse(keyStore.containsAlias("k2"));
+            assertArrayEquals(key(3), keyStore.getKey("k3"));
+            keyStore.putKey("k4", key(4));
+        }
+        // the append did not truncate the records behind the corrupted one
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertArrayEquals(key(3), keyStore.getKey("k3"));
+            assertArrayEquals(key(4), keyStore.getKey("k4"));
+            // the compaction removes the corrupted record
+            keyStore.compact();
+            assertEquals(HEADER_LENGTH + 3 * RECORD_LENGTH, keyStore.getFileLength());
+        }
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertEquals(0, keyStore.getSkippedBytes());
+            assertEquals(3, keyStore.size());
+        }
+    }
+
+    @Test
+    public void middleRecordWithInvalidLength_isNotTruncated() throws Exception {
+        storeKeys(3);
+        long length = keyFile.length();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(keyFile, "rw")) {
+            randomAccessFile.seek(HEADER_LENGTH + RECORD_LENGTH);
+            randomAccessFile.writeInt(0);
+        }
+        try {
+            MappedKeyStore.open(keyFile, PASSWORD);
+            fail("opened a key file with an invalid record length");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(length, keyFile.length());
+    }
+
+    @Test
+    public void compact_removesOverwrittenAndDeletedKeys() throws Exception {
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            for (int i = 0; i < 10; i++) {
+                keyStore.putKey("k1", key(i));
+                keyStore.putKey("k2", key(i + 100));
+            }
+            keyStore.putKey("k3", key(3));
+            assertTrue(keyStore.deleteKey("k3"));
+            assertTrue(keyStore.getGarbageBytes() > 0);
+            keyStore.compact();
+            assertEquals(0, keyStore.getGarbageBytes());
+            assertEquals(HEADER_LENGTH + 2 * RECORD_LENGTH, keyStore.getFileLength());
+            assertEquals(keyStore.getFileLength(), keyFile.length());
+            assertArrayEquals(key(9), keyStore.getKey("k1"));
+            assertArrayEquals(key(109), keyStore.getKey("k2"));
+            keyStore.putKey("k4", key(4));
+        }
+        assertFalse(new File(keyFile.getPath() + ".compact").exists());
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertEquals(3, keyStore.size());
+            assertArrayEquals(key(9), keyStore.getKey("k1"));
+            assertArrayEquals(key(109), keyStore.getKey("k2"));
+            assertArrayEquals(key(4), keyStore.getKey("k4"));
+            assertFalse(keyStore.containsAlias("k3"));
+        }
+    }
+
+    @Test
+    public void recordWithAnotherAlias_isNotDecrypted() throws Exception {
+        storeKeys(1);
+        // the alias of the record is changed from k1 to k9 with a valid CRC, the alias is the AAD of the key
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(keyFile, "rw")) {
+            byte[] payload = new byte[RECORD_LENGTH - RECORD_HEADER_LENGTH];
+            randomAccessFile.seek(HEADER_LENGTH + RECORD_HEADER_LENGTH);
+            randomAccessFile.readFully(payload);
+            payload[4] = (byte) '9';
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload, 0, payload.length);
+            randomAccessFile.seek(HEADER_LENGTH + 4);
+            randomAccessFile.writeInt((int) crc32.getValue());
+            randomAccessFile.write(payload);
+        }
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            assertEquals(0, keyStore.getSkippedBytes());
+            assertFalse(keyStore.containsAlias("k1"));
+            assertTrue(keyStore.containsAlias("k9"));
+            try {
+                keyStore.getKey("k9");
+                fail("the key was decrypted with another alias");
+            } catch (GeneralSecurityException e) {
+                // expected
+            }
+        }
+    }
+
+    private void storeKeys(int numberOfKeys) throws Exception {
+        try (MappedKeyStore keyStore = MappedKeyStore.open(keyFile, PASSWORD)) {
+            for (int i = 1; i <= numberOfKeys; i++) {
+                keyStore.putKey("k" + i, key(i));
+            }
+        }
+        assertEquals(HEADER_LENGTH + numberOfKeys * RECORD_LENGTH, keyFile.length());
+    }
+
+    private static void assertKeys(MappedKeyStore keyStore, int numberOfKeys) throws Exception {
+        assertEquals(numberOfKeys, keyStore.size());
+        for (int i = 1; i <= numberOfKeys; i++) {
+            assertArrayEquals(key(i), keyStore.getKey("k" + i));
+        }
+    }
+
+    private void flipByte(long position) throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(keyFile, "rw")) {
+            randomAccessFile.seek(position);
+            int b = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(b ^ 0x01);
+        }
+    }
+
+    private static byte[] key(int value) {
+        byte[] key = new byte[16];
+        for (int i = 0; i < key.length; i++) key[i] = (byte) (value + i);
+        return key;
+    }
+}
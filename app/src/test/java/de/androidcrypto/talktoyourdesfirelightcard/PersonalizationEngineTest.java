@@ -0,0 +1,339 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the PersonalizationEngine with a CardLayout against an empty DesfireLightEmulator, including cards that
+ * are pulled before and after the card executed a create or ChangeKey command and resumed on the next tap.
+ */
+public class PersonalizationEngineTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04112233445566");
+    private static final byte[] UID_2 = Utils.hexStringToByteArray("04112233445577");
+    private static final byte[] AID = Utils.hexStringToByteArray("A1A2A3");
+    private static final int NUMBER_OF_KEYS = 5;
+    private static final byte[] KEY_DEFAULT = new byte[16];
+    private static final byte[] ACCESS_RIGHTS = new byte[]{(byte) 0x12, (byte) 0x34};
+    private static final byte INS_CREATE_APPLICATION = (byte) 0xCA;
+    private static final byte INS_CREATE_STANDARD_FILE = (byte) 0xCD;
+    private static final byte INS_CREATE_VALUE_FILE = (byte) 0xCC;
+    private static final byte INS_CHANGE_KEY = (byte) 0xC4;
+    // CREATE_APPLICATION, SELECT_APPLICATION, 4 file steps, AUTHENTICATE, 5 key changes (key 4 first, key 0 last)
+    private static final int NUMBER_OF_STEPS = 12;
+    private static final int FIRST_FILE_STEP = 2;
+    private static final int FIRST_CHANGE_KEY_STEP = 7;
+
+    private CardLayout cardLayout;
+    private PersonalizationEngine engine;
+    private DesfireLightEmulator emulator;
+
+    @Before
+    public void setUp() {
+        cardLayout = new CardLayout("test", AID, NUMBER_OF_KEYS)
+                .addStandardFile((byte) 0x01, DesfireEv3.CommunicationSettings.Plain, ACCESS_RIGHTS, 32)
+                .addStandardFile((byte) 0x02, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 128)
+                .addValueFile((byte) 0x03, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 0, 1000, 10, false)
+                .addCyclicRecordFile((byte) 0x04, DesfireEv3.CommunicationSettings.MACed, ACCESS_RIGHTS, 16, 5)
+                .changeApplicationKeys(KEY_DEFAULT, new TestKeyProvider(), (byte) 0x01);
+        engine = new PersonalizationEngine(cardLayout);
+        emulator = DesfireLightEmulator.createEmptyPicc(UID);
+    }
+
+    @Test
+    public void layout_isCompiledInTheFixedOrder() {
+        List<PersonalizationStep> steps = cardLayout.getSteps();
+        assertEquals(NUMBER_OF_STEPS, steps.size());
+        assertEquals(PersonalizationStep.Type.CREATE_APPLICATION, steps.get(0).getType());
+        assertEquals(PersonalizationStep.Type.SELECT_APPLICATION, steps.get(1).getType());
+        for (int i = FIRST_FILE_STEP; i < FIRST_FILE_STEP + 4; i++) {
+            assertTrue(steps.get(i).isCreateFileStep());
+        }
+        assertEquals(PersonalizationStep.Type.AUTHENTICATE, steps.get(FIRST_CHANGE_KEY_STEP - 1).getType());
+        for (int keyNumber = NUMBER_OF_KEYS - 1; keyNumber >= 0; keyNumber--) {
+            PersonalizationStep step = steps.get(FIRST_CHANGE_KEY_STEP + NUMBER_OF_KEYS - 1 - keyNumber);
+            assertEquals(PersonalizationStep.Type.CHANGE_APPLICATION_KEY, step.getType());
+            assertEquals(keyNumber, step.getKeyNumber());
+        }
+    }
+
+    @Test
+    public void newCard_isPersonalizedInOneRun() {
+        PersonalizationResult result = engine.personalize(tap(new PullingTransport(emulator)), UID);
+        assertTrue(result.toString(), result.isSuccess());
+        assertFalse(result.isResumed());
+        assertEquals(NUMBER_OF_STEPS, result.getNumberOfExecutedSteps());
+        assertEquals(0, result.getNumberOfSkippedSteps());
+        assertCardIsPersonalized();
+        assertFalse(engine.isOpen(UID));
+        assertEquals(1, engine.getNumberOfPersonalizedCards());
+        assertEquals(NUMBER_OF_STEPS, engine.getNumberOfExecutedSteps());
+    }
+
+    @Test
+    public void pulledBeforeCreateFile_resumesAtTheFileStep() {
+        // the card is pulled before it receives the create command of the second file
+        PersonalizationResult result = engine.personalize(tap(new PullingTransport(emulator, INS_CREATE_STANDARD_FILE, 2, false)), UID);
+        assertFalse(result.isSuccess());
+        assertEquals(FIRST_FILE_STEP + 1, result.getFailedStepIndex());
+        assertArrayEquals(new byte[]{(byte) 0x01}, getFileIds());
+        assertTrue(engine.isOpen(UID));
+
+        result = engine.personalize(tap(new PullingTransport(emulator)), UID);
+        assertTrue(result.toString(), result.isSuccess());
+        assertTrue(result.isResumed());
+        assertEquals(FIRST_FILE_STEP + 1, result.getResumedStepIndex());
+        assertEquals(NUMBER_OF_STEPS - FIRST_FILE_STEP - 1, result.getNumberOfExecutedSteps());
+        assertEquals(0, result.getNumberOfSkippedSteps());
+        assertCardIsPersonalized();
+        assertFalse(engine.isOpen(UID));
+    }
+
+    @Test
+    public void pulledAfterCreateFile_skipsTheExistingFile() {
+        // the card created the Value file but the response was lost
+        PersonalizationResult result = engine.personalize(tap(new PullingTransport(emulator, INS_CREATE_VALUE_FILE, 1, true)), UID);
+        assertFalse(result.isSuccess());
+        assertEquals(FIRST_FILE_STEP + 2, result.getFailedStepIndex());
+        assertArrayEquals(new byte[]{(byte) 0x01, (byte) 0x02, (byte) 0x03}, getFileIds());
+
+        RecordingTransport transport = new RecordingTransport(emulator);
+        result = engine.personalize(tap(transport), UID);
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(FIRST_FILE_STEP + 2, result.getResumedStepIndex());
+        assertEquals(1, result.getNumberOfSkippedSteps());
+        assertFalse(transport.instructions.contains(INS_CREATE_VALUE_FILE));
+        assertEquals(1, count(transport.instructions, (byte) 0xC0)); // the Cyclic Record file
+        assertCardIsPersonalized();
+    }
+
+    @Test
+    public void pulledAfterCreateApplication_duplicateErrorIsAccepted() {
+        PersonalizationResult result = engine.personalize(tap(new PullingTransport(emulator, INS_CREATE_APPLICATION, 1, true)), UID);
+        assertFalse(result.isSuccess());
+        assertEquals(0, result.getFailedStepIndex());
+        // the first step is repeated on the next tap, the card answers with a DUPLICATE_ERROR
+        RecordingTransport transport = new RecordingTransport(emulator);
+        result = engine.personalize(tap(transport), UID);
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(INS_CREATE_APPLICATION, (byte) transport.instructions.get(0));
+        assertArrayEquals(DesfireEv3.RESPONSE_DUPLICATE_ERROR, transport.statusWords.get(0));
+        assertCardIsPersonalized();
+    }
+
+    @Test
+    public void pulledBeforeChangeKey_resumesWithTheOldKey() {
+        // the card is pulled before it receives the change of key 2
+        PersonalizationResult result = engine.personalize(tap(new PullingTransport(emulator, INS_CHANGE_KEY, 3, false)), UID);
+        assertFalse(result.isSuccess());
+        assertEquals(FIRST_CHANGE_KEY_STEP + 2, result.getFailedStepIndex());
+
+        result = engine.personalize(tap(new PullingTransport(emulator)), UID);
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(FIRST_CHANGE_KEY_STEP + 2, result.getResumedStepIndex());
+        assertEquals(3, result.getNumberOfExecutedSteps());
+        assertCardIsPersonalized();
+    }
+
+    @Test
+    public void pulledAfterChangeKey_detectsTheChangedKey() {
+        // the card changed key 2 but the response was lost, a change with the old key fails now
+        PersonalizationResult result = engine.personalize(tap(new PullingTransport(emulator, INS_CHANGE_KEY, 3, true)), UID);
+        assertFalse(result.isSuccess());
+        assertEquals(FIRST_CHANGE_KEY_STEP + 2, result.getFailedStepIndex());
+        assertTrue(authenticate((byte) 2, newKey((byte) 2)));
+
+        result = engine.personalize(tap(new PullingTransport(emulator)), UID);
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(FIRST_CHANGE_KEY_STEP + 2, result.getResumedStepIndex());
+        assertCardIsPersonalized();
+    }
+
+    @Test
+    public void pulledAfterChangeOfTheMasterKey_isCompletedWithTheNewKey() {
+        // the change of key 0 is the last step, the card executed it but the response was lost
+        PersonalizationResult result = engine.personalize(tap(new PullingTransport(emulator, INS_CHANGE_KEY, NUMBER_OF_KEYS, true)), UID);
+        assertFalse(result.isSuccess());
+        assertEquals(NUMBER_OF_STEPS - 1, result.getFailedStepIndex());
+
+        // the authentication with the old master key fails, the new key works: nothing is left to do
+        RecordingTransport transport = new RecordingTransport(emulator);
+        result = engine.personalize(tap(transport), UID);
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(0, result.getNumberOfExecutedSteps());
+        assertFalse(transport.instructions.contains(INS_CHANGE_KEY));
+        assertCardIsPersonalized();
+    }
+
+    @Test
+    public void statistics_andOpenCards() {
+        engine = new PersonalizationEngine(cardLayout, 1);
+        DesfireLightEmulator emulator2 = DesfireLightEmulator.createEmptyPicc(UID_2);
+        // card 1 is pulled, card 2 is pulled and replaces card 1 in the open cards (maximum 1)
+        engine.personalize(tap(new PullingTransport(emulator, INS_CREATE_STANDARD_FILE, 1, true)), UID);
+        assertTrue(engine.isOpen(UID));
+        engine.personalize(tap(new PullingTransport(emulator2, INS_CHANGE_KEY, 1, false)), UID_2);
+        assertFalse(engine.isOpen(UID));
+        assertTrue(engine.isOpen(UID_2));
+        assertEquals(1, engine.getNumberOfOpenCards());
+        assertEquals(2, engine.getNumberOfFailedRuns());
+
+        // card 2 is resumed, card 1 starts from the beginning and accepts its existing application and file
+        PersonalizationResult result2 = engine.personalize(tap(new PullingTransport(emulator2)), UID_2);
+        assertTrue(result2.toString(), result2.isSuccess());
+        assertTrue(result2.isResumed());
+        PersonalizationResult result1 = engine.personalize(tap(new PullingTransport(emulator)), UID);
+        assertFalse(result1.isResumed());
+        assertFalse(result1.isSuccess());
+        assertEquals(FIRST_FILE_STEP, result1.getFailedStepIndex());
+        assertArrayEquals(DesfireEv3.RESPONSE_DUPLICATE_ERROR, result1.getErrorCode());
+        // the card is open at the file step again, resetProgress forgets it
+        assertTrue(engine.isOpen(UID));
+        engine.resetProgress(UID);
+        assertFalse(engine.isOpen(UID));
+
+        assertEquals(1, engine.getNumberOfPersonalizedCards());
+        assertEquals(3, engine.getNumberOfFailedRuns());
+        assertEquals(1, engine.getNumberOfResumedRuns());
+        assertEquals(0, engine.getNumberOfOpenCards());
+        assertTrue(engine.getCardsPerMinute() > 0);
+        assertTrue(engine.getStatistics().contains("personalized cards: 1"));
+    }
+
+    /**
+     * checks the files and the new keys of the card
+     */
+    private void assertCardIsPersonalized() {
+        assertArrayEquals(new byte[]{(byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x04}, getFileIds());
+        for (byte keyNumber = 0; keyNumber < NUMBER_OF_KEYS; keyNumber++) {
+            assertTrue("new key " + keyNumber, authenticate(keyNumber, newKey(keyNumber)));
+            assertFalse("default key " + keyNumber, authenticate(keyNumber, KEY_DEFAULT));
+        }
+    }
+
+    private byte[] getFileIds() {
+        DesfireEv3 desfireEv3 = tap(new PullingTransport(emulator));
+        assertTrue(desfireEv3.selectApplicationByAid(AID));
+        byte[] fileIds = desfireEv3.getAllFileIds();
+        assertNotNull(fileIds);
+        Arrays.sort(fileIds);
+        return fileIds;
+    }
+
+    private boolean authenticate(byte keyNumber, byte[] key) {
+        DesfireEv3 desfireEv3 = tap(new PullingTransport(emulator));
+        assertTrue(desfireEv3.selectApplicationByAid(AID));
+        return desfireEv3.authenticateAesEv2First(keyNumber, key);
+    }
+
+    /**
+     * a new DesfireEv3 instance for a tap of the card
+     */
+    private DesfireEv3 tap(ApduTransport transport) {
+        DesfireEv3 desfireEv3 = new DesfireEv3(transport);
+        desfireEv3.printToLog = false;
+        return desfireEv3;
+    }
+
+    private static byte[] newKey(byte keyNumber) {
+        return new TestKeyProvider().getKey(UID, AID, keyNumber);
+    }
+
+    private static int count(List<Byte> instructions, byte instruction) {
+        int count = 0;
+        for (byte ins : instructions) {
+            if (ins == instruction) count++;
+        }
+        return count;
+    }
+
+    /**
+     * a different key for each card and key number
+     */
+    private static class TestKeyProvider implements KeyProvider {
+
+        @Override
+        public byte[] getKey(byte[] uid, byte[] applicationIdentifier, byte keyNumber) {
+            byte[] key = new byte[16];
+            for (int i = 0; i < key.length; i++) key[i] = (byte) (uid[6] + applicationIdentifier[0] + keyNumber * 17 + i);
+            return key;
+        }
+    }
+
+    /**
+     * a new tap of the card that is pulled from the reader at the n-th command with the given instruction: the card
+     * executes the command (the response is lost) or not, all following commands fail as well
+     */
+    private static class PullingTransport extends InProcessTransport {
+
+        private final DesfireLightEmulator emulator;
+        private final byte pullInstruction;
+        private final int pullOccurrence;
+        private final boolean isExecutedBeforePull;
+        private int numberOfOccurrences;
+        private boolean isPulled;
+
+        PullingTransport(DesfireLightEmulator emulator) {
+            this(emulator, (byte) 0x00, 0, false);
+        }
+
+        PullingTransport(DesfireLightEmulator emulator, byte pullInstruction, int pullOccurrence, boolean isExecutedBeforePull) {
+            super(emulator);
+            emulator.reset();
+            this.emulator = emulator;
+            this.pullInstruction = pullInstruction;
+            this.pullOccurrence = pullOccurrence;
+            this.isExecutedBeforePull = isExecutedBeforePull;
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            if (isPulled) throw new IOException("Tag was lost.");
+            if ((pullOccurrence > 0) && (apdu[1] == pullInstruction) && (++numberOfOccurrences == pullOccurrence)) {
+                if (isExecutedBeforePull) super.transceive(apdu);
+                isPulled = true;
+                emulator.reset();
+                throw new IOException("Tag was lost.");
+            }
+            return super.transceive(apdu);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !isPulled;
+        }
+    }
+
+    /**
+     * a new tap of the card that records the instructions and status words
+     */
+    private static class RecordingTransport extends InProcessTransport {
+
+        final List<Byte> instructions = new ArrayList<>();
+        final List<byte[]> statusWords = new ArrayList<>();
+
+        RecordingTransport(DesfireLightEmulator emulator) {
+            super(emulator);
+            emulator.reset();
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            byte[] response = super.transceive(apdu);
+            instructions.add(apdu[1]);
+            statusWords.add(Arrays.copyOfRange(response, response.length - 2, response.length));
+            return response;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Tests for SessionCipher against the JCE AES/CBC/NoPadding and AES/ECB/NoPadding ciphers.
+ */
+public class SessionCipherTest {
+
+    @Test
+    public void encryptAndDecrypt_matchJceCbc() throws Exception {
+        Random random = new Random(3);
+        for (int numberOfBlocks = 0; numberOfBlocks < 20; numberOfBlocks++) {
+            byte[] key = new byte[16];
+            byte[] iv = new byte[16];
+            byte[] data = new byte[16 * numberOfBlocks];
+            random.nextBytes(key);
+            random.nextBytes(iv);
+            random.nextBytes(data);
+            byte[] expected = jceCbc(Cipher.ENCRYPT_MODE, key, iv, data);
+
+            SessionCipher sessionCipher = new SessionCipher(key);
+            assertArrayEquals("blocks " + numberOfBlocks, expected, sessionCipher.encrypt(iv, data));
+            assertArrayEquals("blocks " + numberOfBlocks, data, sessionCipher.decrypt(iv, expected));
+        }
+    }
+
+    @Test
+    public void inPlaceWithOffsets_matchJceCbc() throws Exception {
+        Random random = new Random(4);
+        for (int numberOfBlocks = 0; numberOfBlocks < 20; numberOfBlocks++) {
+            byte[] key = new byte[16];
+            byte[] data = new byte[16 * numberOfBlocks];
+            random.nextBytes(key);
+            random.nextBytes(data);
+            // the IV is taken from a larger buffer at an offset
+            byte[] ivBuffer = new byte[21];
+            random.nextBytes(ivBuffer);
+            byte[] iv = Arrays.copyOfRange(ivBuffer, 5, 21);
+            byte[] expected = jceCbc(Cipher.ENCRYPT_MODE, key, iv, data);
+
+            SessionCipher sessionCipher = new SessionCipher(key);
+            byte[] buffer = new byte[data.length + 5];
+            System.arraycopy(data, 0, buffer, 5, data.length);
+            sessionCipher.encrypt(ivBuffer, 5, buffer, 5, data.length, buffer, 5);
+            assertArrayEquals("blocks " + numberOfBlocks, expected, Arrays.copyOfRange(buffer, 5, buffer.length));
+            sessionCipher.decrypt(ivBuffer, 5, buffer, 5, data.length, buffer, 5);
+            assertArrayEquals("blocks " + numberOfBlocks, data, Arrays.copyOfRange(buffer, 5, buffer.length));
+        }
+    }
+
+    @Test
+    public void incrementalResponseDecryption_matchesOneShot() throws Exception {
+        Random random = new Random(5);
+        byte[] key = new byte[16];
+        byte[] transactionIdentifier = new byte[4];
+        byte[] data = new byte[16 * 12];
+        random.nextBytes(key);
+        random.nextBytes(transactionIdentifier);
+        random.nextBytes(data);
+        SessionCipher sessionCipher = new SessionCipher(key);
+        byte[] iv = new byte[16];
+        sessionCipher.computeResponseIv(transactionIdentifier, 7, iv, 0);
+        byte[] encrypted = jceCbc(Cipher.ENCRYPT_MODE, key, iv, data);
+
+        byte[] decrypted = new byte[data.length];
+        sessionCipher.decryptResponseData(transactionIdentifier, 7, encrypted, 0, encrypted.length, decrypted, 0);
+        assertArrayEquals(data, decrypted);
+
+        // the response is decrypted frame by frame, the chaining value is kept between the calls
+        Arrays.fill(decrypted, (byte) 0);
+        sessionCipher.startResponseDecryption(transactionIdentifier, 7);
+        int[] frameLengths = new int[]{16, 48, 32, 96};
+        int position = 0;
+        for (int frameLength : frameLengths) {
+            sessionCipher.decryptUpdate(encrypted, position, frameLength, decrypted, position);
+            position += frameLength;
+        }
+        assertArrayEquals(data, decrypted);
+    }
+
+    @Test
+    public void ivCalculation_matchesAn12343() throws Exception {
+        // IV = Enc(SesAuthENCKey, label || TI || CmdCounter (LSB) || 8 * 00h)
+        Random random = new Random(6);
+        byte[] key = new byte[16];
+        byte[] transactionIdentifier = new byte[4];
+        random.nextBytes(key);
+        random.nextBytes(transactionIdentifier);
+        SessionCipher sessionCipher = new SessionCipher(key);
+        for (int cmdCounter : new int[]{0, 1, 0x1234, 0xFFFF}) {
+            byte[] ivInput = new byte[16];
+            System.arraycopy(transactionIdentifier, 0, ivInput, 2, 4);
+            ivInput[6] = (byte) cmdCounter;
+            ivInput[7] = (byte) (cmdCounter >> 8);
+
+            ivInput[0] = (byte) 0xA5;
+            ivInput[1] = (byte) 0x5A;
+            byte[] iv = new byte[18];
+            sessionCipher.computeCommandIv(transactionIdentifier, cmdCounter, iv, 2);
+            assertArrayEquals("command IV " + cmdCounter, jceEcb(key, ivInput), Arrays.copyOfRange(iv, 2, 18));
+
+            ivInput[0] = (byte) 0x5A;
+            ivInput[1] = (byte) 0xA5;
+            sessionCipher.computeResponseIv(transactionIdentifier, cmdCounter, iv, 2);
+            assertArrayEquals("response IV " + cmdCounter, jceEcb(key, ivInput), Arrays.copyOfRange(iv, 2, 18));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyOfWrongLength_isRejected() throws Exception {
+        new SessionCipher(new byte[24]);
+    }
+
+    private static byte[] jceCbc(int mode, byte[] key, byte[] iv, byte[] data) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+        cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        return cipher.doFinal(data);
+    }
+
+    private static byte[] jceEcb(byte[] key, byte[] data) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        return cipher.doFinal(data);
+    }
+}
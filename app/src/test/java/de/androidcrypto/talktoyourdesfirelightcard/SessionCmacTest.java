@@ -0,0 +1,91 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Tests for SessionCmac with the AES-128 examples of NIST SP 800-38B (Appendix D.1) and against AesCmac.
+ */
+public class SessionCmacTest {
+
+    private static final byte[] NIST_KEY = Utils.hexStringToByteArray("2b7e151628aed2a6abf7158809cf4f3c");
+    private static final String NIST_MESSAGE = "6bc1bee22e409f96e93d7e117393172a" + "ae2d8a571e03ac9c9eb76fac45af8e51"
+            + "30c81c46a35ce411e5fbc1191a0a52ef" + "f69f2445df4f9b17ad2b417be66c3710";
+
+    @Test
+    public void nistExample1_emptyMessage() throws Exception {
+        assertNistExample(0, "bb1d6929e95937287fa37d129b756746");
+    }
+
+    @Test
+    public void nistExample2_oneBlock() throws Exception {
+        assertNistExample(16, "070a16b46b4d4144f79bdd9dd04a287c");
+    }
+
+    @Test
+    public void nistExample3_partialLastBlock() throws Exception {
+        assertNistExample(40, "dfa66747de9ae63030ca32611497c827");
+    }
+
+    @Test
+    public void nistExample4_fourBlocks() throws Exception {
+        assertNistExample(64, "51f0bebf7e3b9d92fc49741779363cfe");
+    }
+
+    private void assertNistExample(int messageLength, String expectedMac) throws Exception {
+        byte[] message = Arrays.copyOf(Utils.hexStringToByteArray(NIST_MESSAGE), messageLength);
+        byte[] expected = Utils.hexStringToByteArray(expectedMac);
+        SessionCmac sessionCmac = new SessionCmac(NIST_KEY);
+        assertArrayEquals(expected, sessionCmac.calculateMac(message));
+        // the instance is reused for the next message of the session
+        assertArrayEquals(expected, sessionCmac.calculateMac(message));
+
+        // the message at an offset within a larger buffer
+        byte[] buffer = new byte[messageLength + 7];
+        System.arraycopy(message, 0, buffer, 3, messageLength);
+        byte[] mac = new byte[20];
+        sessionCmac.calculateMac(buffer, 3, messageLength, mac, 2);
+        assertArrayEquals(expected, Arrays.copyOfRange(mac, 2, 18));
+
+        // the truncated MAC are the bytes with an odd index
+        byte[] truncatedMac = new byte[8];
+        for (int i = 0; i < 8; i++) truncatedMac[i] = expected[2 * i + 1];
+        assertArrayEquals(truncatedMac, sessionCmac.calculateTruncatedMac(message));
+    }
+
+    @Test
+    public void incrementalCalculation_matchesOneShot() throws Exception {
+        byte[] message = Utils.hexStringToByteArray(NIST_MESSAGE);
+        SessionCmac sessionCmac = new SessionCmac(NIST_KEY);
+        for (int split = 0; split <= message.length; split++) {
+            sessionCmac.start();
+            sessionCmac.update(message, 0, split);
+            sessionCmac.update(message, split, message.length - split);
+            byte[] mac = new byte[16];
+            sessionCmac.doFinal(mac, 0);
+            assertArrayEquals("split at " + split, Utils.hexStringToByteArray("51f0bebf7e3b9d92fc49741779363cfe"), mac);
+        }
+    }
+
+    @Test
+    public void randomMessages_matchAesCmac() throws Exception {
+        Random random = new Random(1);
+        for (int length = 0; length < 300; length++) {
+            byte[] key = new byte[16];
+            random.nextBytes(key);
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            AesCmac aesCmac = new AesCmac();
+            aesCmac.init(new SecretKeySpec(key, "AES"));
+            aesCmac.updateBlock(data);
+            byte[] expected = aesCmac.doFinal();
+            assertArrayEquals("length " + length, expected, new SessionCmac(key).calculateMac(data));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for DesfireLight.authenticateAesEv2Resume with a SessionCache against the DesfireLightEmulator.
+ */
+public class SessionResumeTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04112233445566");
+    private static final byte[] AID = DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT;
+    private static final byte KEY_NUMBER = (byte) 3; // RW key of the Standard file 0 in Full mode
+    private static final byte[] KEY = new byte[16];
+    private static final byte INS_SELECT_APPLICATION = (byte) 0x5A;
+    private static final byte INS_GET_FILE_IDS = (byte) 0x6F;
+
+    private DesfireLightEmulator emulator;
+    private SessionCache sessionCache;
+    private byte[] fileData;
+
+    @Before
+    public void setUp() {
+        emulator = DesfireLightEmulator.createDefaultLight(UID);
+        sessionCache = new SessionCache();
+        fileData = new byte[50];
+        for (int i = 0; i < fileData.length; i++) fileData[i] = (byte) (i + 9);
+    }
+
+    @Test
+    public void sameConnection_continuesSessionWithTheProbeOnly() {
+        RecordingTransport transport = new RecordingTransport(emulator);
+        DesfireLight desfireLight = createDesfireLight(transport);
+        assertTrue(desfireLight.authenticateAesEv2Resume(UID, AID, KEY_NUMBER, KEY));
+        assertTrue(desfireLight.writeToADataFile((byte) 0x00, 0, fileData));
+        assertTrue(desfireLight.saveSession(UID));
+
+        transport.instructions.clear();
+        desfireLight = createDesfireLight(transport);
+        assertTrue(desfireLight.authenticateAesEv2Resume(UID, AID, KEY_NUMBER, KEY));
+        assertEquals(Arrays.asList(INS_GET_FILE_IDS), transport.instructions);
+        assertArrayEquals(fileData, desfireLight.readFromADataFile((byte) 0x00, 0, fileData.length));
+        assertEquals(1, sessionCache.getNumberOfHits());
+    }
+
+    @Test
+    public void sameConnection_otherKeyNumber_runsNonFirst() {
+        RecordingTransport transport = new RecordingTransport(emulator);
+        DesfireLight desfireLight = createDesfireLight(transport);
+        assertTrue(desfireLight.authenticateAesEv2Resume(UID, AID, KEY_NUMBER, KEY));
+        assertTrue(desfireLight.saveSession(UID));
+
+        transport.instructions.clear();
+        desfireLight = createDesfireLight(transport);
+        assertTrue(desfireLight.authenticateAesEv2Resume(UID, AID, (byte) 1, KEY));
+        assertFalse(transport.instructions.contains(INS_SELECT_APPLICATION));
+        assertEquals(INS_GET_FILE_IDS, (byte) transport.instructions.get(0));
+    }
+
+    @Test
+    public void sameKeyNumberWithWrongKey_isNotContinued() {
+        RecordingTransport transport = new RecordingTransport(emulator);
+        DesfireLight desfireLight = createDesfireLight(transport);
+        assertTrue(desfireLight.authenticateAesEv2Resume(UID, AID, KEY_NUMBER, KEY));
+        assertTrue(desfireLight.saveSession(UID));
+
+        transport.instructions.clear();
+        desfireLight = createDesfireLight(transport);
+        byte[] wrongKey = new byte[16];
+        Arrays.fill(wrongKey, (byte) 0x11);
+        assertFalse(desfireLight.authenticateAesEv2Resume(UID, AID, KEY_NUMBER, wrongKey));
+        // the cached session is not probed, the card runs (and rejects) a new authentication
+        assertEquals(INS_SELECT_APPLICATION, (byte) transport.instructions.get(0));
+        assertNull(desfireLight.readFromADataFile((byte) 0x00, 0, fileData.length));
+        assertEquals(0, sessionCache.size());
+    }
+
+    @Test
+    public void newConnection_skipsTheProbe() {
+        DesfireLight desfireLight = createDesfireLight(new RecordingTransport(emulator));
+        assertTrue(desfireLight.authenticateAesEv2Resume(UID, AID, KEY_NUMBER, KEY));
+        assertTrue(desfireLight.writeToADataFile((byte) 0x00, 0, fileData));
+        assertTrue(desfireLight.saveSession(UID));
+
+        // the card is presented again: field reset and a new connection
+        emulator.reset();
+        RecordingTransport transport = new RecordingTransport(emulator);
+        desfireLight = createDesfireLight(transport);
+        assertTrue(desfireLight.authenticateAesEv2Resume(UID, AID, KEY_NUMBER, KEY));
+        // no MACed GetFileIds probe, the application is selected right away
+        assertEquals(INS_SELECT_APPLICATION, (byte) transport.instructions.get(0));
+        assertArrayEquals(fileData, desfireLight.readFromADataFile((byte) 0x00, 0, fileData.length));
+    }
+
+    @Test
+    public void sessionAuthenticatedBeforeTheCacheWasSet_isNotStored() {
+        DesfireLight desfireLight = new DesfireLight(new RecordingTransport(emulator));
+        desfireLight.printToLog = false;
+        assertTrue(desfireLight.selectApplicationByAid(AID));
+        assertTrue(desfireLight.authenticateAesEv2First(KEY_NUMBER, KEY));
+        desfireLight.setSessionCache(sessionCache);
+        assertFalse(desfireLight.saveSession(UID));
+        assertEquals(0, sessionCache.size());
+    }
+
+    private DesfireLight createDesfireLight(ApduTransport transport) {
+        DesfireLight desfireLight = new DesfireLight(transport);
+        desfireLight.printToLog = false;
+        desfireLight.setSessionCache(sessionCache);
+        return desfireLight;
+    }
+
+    /**
+     * records the instruction byte of each command
+     */
+    private static class RecordingTransport extends InProcessTransport {
+
+        final List<Byte> instructions = new ArrayList<>();
+
+        RecordingTransport(DesfireLightEmulator emulator) {
+            super(emulator);
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            instructions.add(apdu[1]);
+            return super.transceive(apdu);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests for the Transaction MAC (TransactionMacTracker and the DesfireLightEmulator) against fixed vectors.
+ * The vectors were calculated with an AES-CMAC implementation outside of this project:
+ * SesTMMACKey = CMAC(AppTransactionMACKey, SV1), SV1 = 5Ah || 00h || 01h || 00h || 80h || (TMC + 1) || UID
+ * TMV = the bytes with an odd index of CMAC(SesTMMACKey, TMI)
+ */
+public class TransactionMacTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04112233445566");
+    private static final byte[] TRANSACTION_MAC_KEY = Utils.hexStringToByteArray("00112233445566778899AABBCCDDEEFF");
+    private static final byte[] SV1_TMC_1 = Utils.hexStringToByteArray("5A000100800100000004112233445566");
+    private static final byte[] SES_TM_MAC_KEY_TMC_1 = Utils.hexStringToByteArray("68275EEA4F40BC9AE9D7791F37A8988E");
+    private static final byte[] SES_TM_MAC_KEY_TMC_01020304 = Utils.hexStringToByteArray("BE06A4B7564C2D0EE221C06DF5D8D863");
+
+    // WriteData (file 5, offset 3, 40 bytes 00..27h), Credit (file 3, value 7), WriteRecord (file 1, 16 bytes 00..0Fh)
+    private static final byte[] TRACE_TMI = Utils.hexStringToByteArray(
+            "8D050300002800000000000000000000" + "000102030405060708090A0B0C0D0E0F" + "101112131415161718191A1B1C1D1E1F"
+                    + "20212223242526270000000000000000" + "0C030700000000000000000000000000"
+                    + "8B010000001000000000000000000000" + "000102030405060708090A0B0C0D0E0F");
+    private static final byte[] TRACE_TMV_TMC_1 = Utils.hexStringToByteArray("ED2E4C2FF4401050");
+
+    @Test
+    public void sessionVectorAndSesTMMACKey_matchVectors() throws Exception {
+        byte[] sv = new byte[16];
+        TransactionMacTracker.getSessionVector(TransactionMacTracker.SV1_LABEL, UID, 1, sv);
+        assertArrayEquals(SV1_TMC_1, sv);
+        assertArrayEquals(SES_TM_MAC_KEY_TMC_1, TransactionMacTracker.getSesTMMACKey(TRANSACTION_MAC_KEY, UID, 1));
+        // the TMC is encoded LSB first
+        assertArrayEquals(SES_TM_MAC_KEY_TMC_01020304, TransactionMacTracker.getSesTMMACKey(TRANSACTION_MAC_KEY, UID, 0x01020304));
+    }
+
+    @Test
+    public void tracker_writeCommitTrace_matchesVectors() throws Exception {
+        byte[] data = sequence(40);
+        // the plain command codes are written with the command code of the secure command
+        for (int transactionMacCounter : new int[]{0, TransactionMacTracker.TRANSACTION_MAC_COUNTER_UNKNOWN}) {
+            TransactionMacTracker tracker = new TransactionMacTracker(UID, TRANSACTION_MAC_KEY);
+            tracker.start(transactionMacCounter);
+            tracker.append((byte) 0x3D, Utils.hexStringToByteArray("05030000280000"), data);
+            tracker.append((byte) 0x0C, new byte[]{(byte) 0x03}, Utils.hexStringToByteArray("07000000"));
+            tracker.append((byte) 0x3B, Utils.hexStringToByteArray("01000000100000"), Arrays.copyOf(data, 16));
+            assertArrayEquals(TRACE_TMI, tracker.getTransactionMacInput());
+            assertArrayEquals("TMC " + transactionMacCounter, TRACE_TMV_TMC_1, tracker.finish(1));
+        }
+        assertArrayEquals(TRACE_TMV_TMC_1, TransactionMacTracker.calculateTransactionMacValue(TRANSACTION_MAC_KEY, UID, 1, TRACE_TMI));
+        byte[] tmcv = Utils.hexStringToByteArray("01000000ED2E4C2FF4401050");
+        assertTrue(TransactionMacTracker.verifyTransactionMacValue(TRANSACTION_MAC_KEY, UID, tmcv, TRACE_TMI));
+        tmcv[0] = (byte) 0x02;
+        assertFalse(TransactionMacTracker.verifyTransactionMacValue(TRANSACTION_MAC_KEY, UID, tmcv, TRACE_TMI));
+    }
+
+    @Test
+    public void emulator_writeCommitTrace_matchesVectors() {
+        DesfireLightEmulator emulator = new DesfireLightEmulator(UID, DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT,
+                DesfireLight.APPLICATION_DF_NAME_DEFAULT, DesfireLight.APPLICATION_ISO_FILE_ID_DEFAULT);
+        emulator.addCyclicRecordFile((byte) 0x01, new byte[]{(byte) 0xEF, (byte) 0x01}, (byte) 0x03, new byte[]{(byte) 0x30, (byte) 0x12}, 16, 5);
+        emulator.addValueFile((byte) 0x03, (byte) 0x03, new byte[]{(byte) 0x30, (byte) 0x12}, 0, 1000, 0, false);
+        emulator.addBackupFile((byte) 0x05, new byte[]{(byte) 0xE1, (byte) 0x05}, (byte) 0x03, new byte[]{(byte) 0x30, (byte) 0x33}, 64);
+        emulator.addTransactionMacFile((byte) 0x0F, (byte) 0x03, new byte[]{(byte) 0xF0, (byte) 0x3F}, TRANSACTION_MAC_KEY);
+        DesfireLight desfireLight = new DesfireLight(new InProcessTransport(emulator));
+        desfireLight.printToLog = false;
+        TransactionMacTracker tracker = new TransactionMacTracker(UID, TRANSACTION_MAC_KEY);
+        desfireLight.setTransactionMacTracker(tracker);
+
+        byte[] data = sequence(40);
+        assertTrue(desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT));
+        assertTrue(desfireLight.authenticateAesEv2First((byte) 3, new byte[16]));
+        assertTrue(desfireLight.writeToADataFile((byte) 0x05, 3, data));
+        assertTrue(desfireLight.changeAValueFile((byte) 0x03, 7, true));
+        assertTrue(desfireLight.writeToARecordFile((byte) 0x01, 0, Arrays.copyOf(data, 16)));
+        assertTrue(desfireLight.commitTransactionFull(true));
+
+        assertEquals(1, emulator.getTransactionMacCounter());
+        assertArrayEquals(TRACE_TMV_TMC_1, emulator.getTransactionMacValue());
+        assertArrayEquals(TRACE_TMI, tracker.getLastTransactionMacInput());
+        assertArrayEquals(TRACE_TMV_TMC_1, tracker.getLastTransactionMacValue());
+        assertTrue(desfireLight.isTransactionMacValueVerified());
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) i;
+        return data;
+    }
+}
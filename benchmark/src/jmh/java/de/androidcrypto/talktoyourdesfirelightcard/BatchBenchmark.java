@@ -0,0 +1,78 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * benchmarks for a fare flow (select application -> authenticate -> read value -> credit -> write data ->
+ * read data) that is run with single method calls or with one executeBatch call. With commandPipeline the batch
+ * builds the next secure messaging command on a worker thread while the current command is transceived.
+ * The flow does not commit as the default emulator application has a Transaction MAC file with enabled
+ * CommitReaderId, the open transaction is discarded by the next selection.
+ */
+
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    private static final byte[] UID = new byte[]{(byte) 0x04, (byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x44, (byte) 0x55, (byte) 0x66};
+    private static final byte KEY_NUMBER_RW = (byte) 0x03; // Read & Write access key of files 0x00 and 0x03
+    private static final byte DATA_FILE_NUMBER = (byte) 0x00; // Standard file with communication mode Full
+    private static final byte VALUE_FILE_NUMBER = (byte) 0x03; // Value file with communication mode Full
+    private static final int DATA_LENGTH = 32;
+
+    @Param({"false", "true"})
+    public boolean commandPipeline;
+
+    private InProcessTransport transport;
+    private DesfireLight desfireLight;
+    private byte[] data;
+    private List<BatchOperation> operations;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        data = new byte[DATA_LENGTH];
+        random.nextBytes(data);
+        transport = new InProcessTransport(DesfireLightEmulator.createDefaultLight(UID));
+        transport.connect();
+        desfireLight = new DesfireLight(transport);
+        desfireLight.printToLog = false;
+        desfireLight.setCommandPipelineEnabled(commandPipeline);
+        operations = Arrays.asList(
+                BatchOperation.selectApplication(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT),
+                BatchOperation.authenticateFirst(KEY_NUMBER_RW, new byte[16]),
+                BatchOperation.readValue(VALUE_FILE_NUMBER),
+                BatchOperation.creditValue(VALUE_FILE_NUMBER, 1),
+                BatchOperation.writeData(DATA_FILE_NUMBER, 0, data),
+                BatchOperation.readData(DATA_FILE_NUMBER, 0, DATA_LENGTH));
+    }
+
+    @TearDown
+    public void tearDown() {
+        desfireLight.setCommandPipelineEnabled(false);
+        transport.close();
+    }
+
+    @Benchmark
+    public byte[] singleCalls() {
+        if (!desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT)) return null;
+        if (!desfireLight.authenticateAesEv2First(KEY_NUMBER_RW, new byte[16])) return null;
+        if (desfireLight.readFromAValueFile(VALUE_FILE_NUMBER) < 0) return null;
+        if (!desfireLight.changeAValueFile(VALUE_FILE_NUMBER, 1, true)) return null;
+        if (!desfireLight.writeToADataFile(DATA_FILE_NUMBER, 0, data)) return null;
+        return desfireLight.readFromADataFile(DATA_FILE_NUMBER, 0, DATA_LENGTH);
+    }
+
+    @Benchmark
+    public BatchResult batch() {
+        return desfireLight.executeBatch(operations);
+    }
+}
@@ -0,0 +1,81 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+
+/**
+ * benchmarks for reading and writing a complete Data file (256 bytes, CommunicationMode Full) with the
+ * chunking methods readFromADataFile and writeToADataFile and different ChunkingPolicies:
+ * fixed = FixedChunkingPolicy with 40 bytes per command,
+ * adaptive = AdaptiveChunkingPolicy for a reader with a maximum transceive length of 253 bytes.
+ * The card accepts short APDUs only, so a reader with extended length support gets the same chunks as adaptive.
+ * With responseChaining the read is done with one command and the PICC returns the data in several frames,
+ * the ChunkingPolicy is then used for the write only.
+ * The emulator answers immediately, so the results show the crypto and APDU handling per file and not the
+ * RF round trips that dominate on a real tag (see the CommandMetrics for the number of commands).
+ */
+
+@State(Scope.Thread)
+public class ChunkingBenchmark {
+
+    private static final byte[] UID = new byte[]{(byte) 0x04, (byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x44, (byte) 0x55, (byte) 0x66};
+    private static final byte FILE_NUMBER = (byte) 0x00; // Standard file with communication mode Full, 256 bytes
+    private static final byte KEY_NUMBER_RW = (byte) 0x03; // Read & Write access key of file 0x00
+    private static final int FILE_SIZE = 256;
+
+    @Param({"fixed", "adaptive"})
+    public String chunkingPolicy;
+
+    @Param({"false", "true"})
+    public boolean responseChaining;
+
+    private InProcessTransport transport;
+    private DesfireLight desfireLight;
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        data = new byte[FILE_SIZE];
+        random.nextBytes(data);
+        DesfireLightEmulator emulator = DesfireLightEmulator.createDefaultLight(UID);
+        transport = new InProcessTransport(emulator);
+        transport.connect();
+        desfireLight = new DesfireLight(transport);
+        desfireLight.printToLog = false;
+        desfireLight.setFullModeResponseChainingEnabled(responseChaining);
+        if (chunkingPolicy.equals("fixed")) {
+            desfireLight.setChunkingPolicy(new FixedChunkingPolicy());
+        }
+        if (!desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT)) {
+            throw new IllegalStateException("selectApplicationByAid failed");
+        }
+        if (!desfireLight.authenticateAesEv2First(KEY_NUMBER_RW, new byte[16])) {
+            throw new IllegalStateException("authenticateAesEv2First failed");
+        }
+        if (!desfireLight.writeToADataFile(FILE_NUMBER, 0, data)) {
+            throw new IllegalStateException("writeToADataFile failed");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+    }
+
+    @Benchmark
+    public byte[] readFromADataFile() {
+        return desfireLight.readFromADataFile(FILE_NUMBER, 0, FILE_SIZE);
+    }
+
+    @Benchmark
+    public boolean writeToADataFile() {
+        return desfireLight.writeToADataFile(FILE_NUMBER, 0, data);
+    }
+}
@@ -0,0 +1,95 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import de.androidcrypto.talktoyourdesfirelightcard.nfcjlib.AES;
+
+/**
+ * benchmarks for the crypto primitives used by the secure messaging: the CMAC calculation
+ * (calculateDiverseKey creates a new AesCmac on each call, AesCmac.calculateHash reuses an initialized instance,
+ * SessionCmac is the session scoped engine used for the SesAuthMACKey)
+ * and the AES CBC encryption and decryption of the nfcjlib AES class and the session scoped SessionCipher
+ * (working on a preallocated output buffer)
+ */
+
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+    @Param({"16", "64", "256"})
+    public int dataLength;
+
+    private DesfireLight desfireLight;
+    private AesCmac aesCmac;
+    private SessionCmac sessionCmac;
+    private SessionCipher sessionCipher;
+    private byte[] output;
+    private byte[] key;
+    private byte[] iv;
+    private byte[] data;
+    private byte[] encryptedData;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        Random random = new Random(42);
+        key = new byte[16];
+        iv = new byte[16];
+        data = new byte[dataLength];
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        random.nextBytes(data);
+        desfireLight = new DesfireLight((ApduTransport) null);
+        desfireLight.printToLog = false;
+        aesCmac = new AesCmac();
+        aesCmac.init(new SecretKeySpec(key, "AES"));
+        sessionCmac = new SessionCmac(key);
+        sessionCipher = new SessionCipher(key);
+        output = new byte[dataLength];
+        encryptedData = AES.encrypt(iv, key, data);
+    }
+
+    @Benchmark
+    public byte[] calculateDiverseKey() {
+        return desfireLight.calculateDiverseKey(key, data);
+    }
+
+    @Benchmark
+    public byte[] aesCmacCalculateHash() {
+        return aesCmac.calculateHash(data);
+    }
+
+    @Benchmark
+    public byte[] sessionCmacCalculateMac() {
+        return sessionCmac.calculateMac(data);
+    }
+
+    @Benchmark
+    public byte[] aesEncrypt() {
+        return AES.encrypt(iv, key, data);
+    }
+
+    @Benchmark
+    public byte[] aesDecrypt() {
+        return AES.decrypt(iv, key, encryptedData);
+    }
+
+    @Benchmark
+    public byte[] sessionCipherEncrypt() {
+        sessionCipher.encrypt(iv, 0, data, 0, dataLength, output, 0);
+        return output;
+    }
+
+    @Benchmark
+    public byte[] sessionCipherDecrypt() {
+        sessionCipher.decrypt(iv, 0, encryptedData, 0, dataLength, output, 0);
+        return output;
+    }
+}
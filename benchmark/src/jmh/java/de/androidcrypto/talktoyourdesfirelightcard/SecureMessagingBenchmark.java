@@ -0,0 +1,111 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * benchmarks for the secure messaging of DesfireLight in an authenticated session
+ * The transport is an InProcessTransport with a DesfireLightEmulator, so the readFromADataFileRawFull and
+ * writeToADataFileRawFull results include the (comparable) crypto work on the PICC side.
+ * The printToLog parameter shows the cost of the internal command log.
+ */
+
+@State(Scope.Thread)
+public class SecureMessagingBenchmark {
+
+    private static final byte[] UID = new byte[]{(byte) 0x04, (byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x44, (byte) 0x55, (byte) 0x66};
+    private static final byte FILE_NUMBER = (byte) 0x00; // Standard file with communication mode Full
+    private static final byte KEY_NUMBER_RW = (byte) 0x03; // Read & Write access key of file 0x00
+
+    @Param({"16", "40"}) // 40 bytes is the maximum for the RawFull methods
+    public int dataLength;
+
+    @Param({"false", "true"}) // the internal command log is a bounded ring buffer, so it can stay enabled
+    public boolean printToLog;
+
+    private InProcessTransport transport;
+    private DesfireLight desfireLight;
+    private byte[] data;
+    private byte[] options;
+    private byte[] fullMac;
+    private byte[] responseMac;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        Random random = new Random(42);
+        data = new byte[dataLength];
+        random.nextBytes(data);
+        transport = new InProcessTransport(DesfireLightEmulator.createDefaultLight(UID));
+        transport.connect();
+        desfireLight = new DesfireLight(transport);
+        desfireLight.printToLog = printToLog;
+        if (!desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT)) {
+            throw new IllegalStateException("selectApplicationByAid failed");
+        }
+        if (!desfireLight.authenticateAesEv2First(KEY_NUMBER_RW, new byte[16])) {
+            throw new IllegalStateException("authenticateAesEv2First failed");
+        }
+        if (!desfireLight.writeToADataFileRawFull(FILE_NUMBER, 0, data)) {
+            throw new IllegalStateException("writeToADataFileRawFull failed");
+        }
+        // header of a ReadData command: fileNumber || offset || length
+        options = new byte[]{FILE_NUMBER, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) dataLength, (byte) 0x00, (byte) 0x00};
+        // a valid response MAC for the current session state
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int cmdCounter = desfireLight.getCmdCounter();
+        baos.write((byte) 0x00);
+        baos.write((byte) cmdCounter);
+        baos.write((byte) (cmdCounter >> 8));
+        baos.write(desfireLight.getTransactionIdentifier(), 0, 4);
+        baos.write(data, 0, data.length);
+        AesCmac aesCmac = new AesCmac();
+        aesCmac.init(new SecretKeySpec(desfireLight.getSesAuthMACKey(), "AES"));
+        fullMac = aesCmac.calculateHash(baos.toByteArray());
+        responseMac = desfireLight.truncateMAC(fullMac);
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+    }
+
+    @Benchmark
+    public byte[] getMacInput() {
+        return desfireLight.getMacInput((byte) 0xAD, options, data);
+    }
+
+    @Benchmark
+    public byte[] truncateMAC() {
+        return desfireLight.truncateMAC(fullMac);
+    }
+
+    @Benchmark
+    public boolean verifyResponseMac() {
+        return desfireLight.verifyResponseMac(responseMac, data);
+    }
+
+    @Benchmark
+    public byte[] readFromADataFileRawFull() {
+        return desfireLight.readFromADataFileRawFull(FILE_NUMBER, 0, dataLength);
+    }
+
+    @Benchmark
+    public byte[] readFromADataFileFullChained() {
+        return desfireLight.readFromADataFileFullChained(FILE_NUMBER, 0, dataLength);
+    }
+
+    @Benchmark
+    public boolean writeToADataFileRawFull() {
+        return desfireLight.writeToADataFileRawFull(FILE_NUMBER, 0, data);
+    }
+}
@@ -0,0 +1,133 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+/**
+ * benchmarks for the SecureMessagingEngine that is shared by DesfireLight and DesfireEv3
+ * buildCommand and unwrapResponse are the command and response side of a ReadData / WriteData command in
+ * Communication mode Full without any transport. The readFromADataFile and writeToADataFile benchmarks run the
+ * complete command for the card class given by the card parameter against a DesfireLightEmulator, the internal
+ * log is disabled for both card classes.
+ */
+
+@State(Scope.Thread)
+public class SecureMessagingEngineBenchmark {
+
+    private static final byte[] UID = new byte[]{(byte) 0x04, (byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x44, (byte) 0x55, (byte) 0x66};
+    private static final byte[] TRANSACTION_IDENTIFIER = new byte[]{(byte) 0x9A, (byte) 0x3B, (byte) 0x5C, (byte) 0x7D};
+    private static final byte FILE_NUMBER = (byte) 0x00; // Standard file with communication mode Full
+    private static final byte KEY_NUMBER_RW = (byte) 0x03; // Read & Write access key of file 0x00
+    private static final byte READ_DATA_FILE_SECURE_COMMAND = (byte) 0xAD;
+    private static final byte WRITE_DATA_FILE_SECURE_COMMAND = (byte) 0x8D;
+    private static final int CMD_COUNTER = 5;
+
+    @Param({"16", "40"})
+    public int dataLength;
+
+    @Param({"light", "ev3"})
+    public String card;
+
+    private SecureMessagingEngine engine;
+    private byte[] data;
+    private byte[] cmdHeader;
+    private byte[] response;
+    private InProcessTransport transport;
+    private DesfireLight desfireLight;
+    private DesfireEv3 desfireEv3;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        Random random = new Random(42);
+        byte[] sesAuthEncKey = new byte[16];
+        byte[] sesAuthMacKey = new byte[16];
+        random.nextBytes(sesAuthEncKey);
+        random.nextBytes(sesAuthMacKey);
+        data = new byte[dataLength];
+        random.nextBytes(data);
+        engine = new SecureMessagingEngine(sesAuthEncKey, sesAuthMacKey, TRANSACTION_IDENTIFIER);
+        // header of a ReadData / WriteData command: fileNumber || offset || length
+        cmdHeader = new byte[]{FILE_NUMBER, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) dataLength, (byte) 0x00, (byte) 0x00};
+        response = getFullResponse(sesAuthEncKey, sesAuthMacKey, CMD_COUNTER + 1, data);
+
+        transport = new InProcessTransport(DesfireLightEmulator.createDefaultLight(UID));
+        transport.connect();
+        boolean isAuthenticated;
+        if (card.equals("ev3")) {
+            desfireEv3 = new DesfireEv3(transport);
+            desfireEv3.printToLog = false; // DesfireEv3 still concatenates its internal log string
+            isAuthenticated = desfireEv3.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT)
+                    && desfireEv3.authenticateAesEv2First(KEY_NUMBER_RW, new byte[16]);
+        } else {
+            desfireLight = new DesfireLight(transport);
+            desfireLight.printToLog = false;
+            isAuthenticated = desfireLight.selectApplicationByAid(DesfireLightEmulator.APPLICATION_IDENTIFIER_DEFAULT)
+                    && desfireLight.authenticateAesEv2First(KEY_NUMBER_RW, new byte[16]);
+        }
+        if (!isAuthenticated) {
+            throw new IllegalStateException("selectApplicationByAid or authenticateAesEv2First failed");
+        }
+    }
+
+    /**
+     * builds the response of the PICC: Enc(RespData || Padding) || MAC || 91 00
+     */
+    private static byte[] getFullResponse(byte[] sesAuthEncKey, byte[] sesAuthMacKey, int cmdCounter, byte[] data) throws GeneralSecurityException {
+        int paddedLength = SecureMessagingEngine.getPaddedLength(data.length);
+        byte[] fullResponse = new byte[paddedLength + SecureMessagingEngine.MAC_LENGTH + 2];
+        System.arraycopy(data, 0, fullResponse, 0, data.length);
+        fullResponse[data.length] = (byte) 0x80;
+        SessionCipher sessionCipher = new SessionCipher(sesAuthEncKey);
+        byte[] iv = new byte[16];
+        sessionCipher.computeResponseIv(TRANSACTION_IDENTIFIER, cmdCounter, iv, 0);
+        sessionCipher.encrypt(iv, 0, fullResponse, 0, paddedLength, fullResponse, 0);
+        SessionCmac sessionCmac = new SessionCmac(sesAuthMacKey);
+        sessionCmac.start();
+        sessionCmac.update(new byte[]{(byte) 0x00, (byte) cmdCounter, (byte) (cmdCounter >> 8)}, 0, 3);
+        sessionCmac.update(TRANSACTION_IDENTIFIER, 0, TRANSACTION_IDENTIFIER.length);
+        sessionCmac.update(fullResponse, 0, paddedLength);
+        sessionCmac.doFinalTruncated(fullResponse, paddedLength);
+        fullResponse[fullResponse.length - 2] = (byte) 0x91;
+        fullResponse[fullResponse.length - 1] = (byte) 0x00;
+        return fullResponse;
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+    }
+
+    @Benchmark
+    public byte[] buildReadCommand() {
+        return engine.buildCommand(READ_DATA_FILE_SECURE_COMMAND, CMD_COUNTER, cmdHeader, null, SecureMessagingEngine.COMMUNICATION_MODE_FULL);
+    }
+
+    @Benchmark
+    public byte[] buildWriteCommand() {
+        return engine.buildCommand(WRITE_DATA_FILE_SECURE_COMMAND, CMD_COUNTER, cmdHeader, data, SecureMessagingEngine.COMMUNICATION_MODE_FULL);
+    }
+
+    @Benchmark
+    public byte[] unwrapResponse() {
+        return engine.unwrapResponse(CMD_COUNTER + 1, response, SecureMessagingEngine.COMMUNICATION_MODE_FULL);
+    }
+
+    @Benchmark
+    public byte[] readFromADataFile() {
+        if (desfireEv3 != null) return desfireEv3.readFromADataFile(FILE_NUMBER, 0, dataLength);
+        return desfireLight.readFromADataFile(FILE_NUMBER, 0, dataLength);
+    }
+
+    @Benchmark
+    public boolean writeToADataFile() {
+        if (desfireEv3 != null) return desfireEv3.writeToADataFile(FILE_NUMBER, 0, data);
+        return desfireLight.writeToADataFile(FILE_NUMBER, 0, data);
+    }
+}
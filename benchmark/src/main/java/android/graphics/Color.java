@@ -0,0 +1,16 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for android.graphics.Color
+ */
+
+public class Color {
+
+    public static final int BLACK = 0xFF000000;
+    public static final int RED = 0xFFFF0000;
+    public static final int GREEN = 0xFF00FF00;
+
+    public static int rgb(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+}
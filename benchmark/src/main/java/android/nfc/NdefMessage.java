@@ -0,0 +1,15 @@
+package android.nfc;
+
+/**
+ * JVM stand-in for android.nfc.NdefMessage, the NDEF helpers are not part of the benchmarks
+ */
+
+public final class NdefMessage {
+
+    public NdefMessage(NdefRecord record, NdefRecord... records) {
+    }
+
+    public byte[] toByteArray() {
+        return new byte[0];
+    }
+}
@@ -0,0 +1,20 @@
+package android.nfc;
+
+/**
+ * JVM stand-in for android.nfc.NdefRecord, the NDEF helpers are not part of the benchmarks
+ */
+
+public final class NdefRecord {
+
+    public static NdefRecord createUri(String uriString) {
+        return new NdefRecord();
+    }
+
+    public static NdefRecord createTextRecord(String languageCode, String text) {
+        return new NdefRecord();
+    }
+
+    public byte[] toByteArray() {
+        return new byte[0];
+    }
+}
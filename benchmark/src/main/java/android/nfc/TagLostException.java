@@ -0,0 +1,18 @@
+package android.nfc;
+
+import java.io.IOException;
+
+/**
+ * JVM stand-in for android.nfc.TagLostException
+ */
+
+public class TagLostException extends IOException {
+
+    public TagLostException() {
+        super();
+    }
+
+    public TagLostException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,50 @@
+package android.nfc.tech;
+
+import android.nfc.Tag;
+
+import java.io.IOException;
+
+/**
+ * JVM stand-in for android.nfc.tech.IsoDep, the benchmarks use an InProcessTransport instead
+ */
+
+public final class IsoDep {
+
+    public static IsoDep get(Tag tag) {
+        return null;
+    }
+
+    public Tag getTag() {
+        return null;
+    }
+
+    public void connect() throws IOException {
+        throw new IOException("IsoDep is not available on the JVM");
+    }
+
+    public void close() throws IOException {
+    }
+
+    public boolean isConnected() {
+        return false;
+    }
+
+    public byte[] transceive(byte[] data) throws IOException {
+        throw new IOException("IsoDep is not available on the JVM");
+    }
+
+    public int getMaxTransceiveLength() {
+        return 253;
+    }
+
+    public boolean isExtendedLengthApduSupported() {
+        return false;
+    }
+
+    public void setTimeout(int timeout) {
+    }
+
+    public int getTimeout() {
+        return 0;
+    }
+}
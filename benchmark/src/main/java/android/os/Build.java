@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.Build, reports the target SDK of the app
+ */
+
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 33;
+    }
+
+    public static class VERSION_CODES {
+        public static final int M = 23;
+        public static final int O = 26;
+        public static final int P = 28;
+        public static final int R = 30;
+        public static final int S = 31;
+    }
+}
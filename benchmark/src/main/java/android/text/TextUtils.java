@@ -0,0 +1,12 @@
+package android.text;
+
+/**
+ * JVM stand-in for android.text.TextUtils
+ */
+
+public class TextUtils {
+
+    public static boolean isEmpty(CharSequence str) {
+        return (str == null) || (str.length() == 0);
+    }
+}
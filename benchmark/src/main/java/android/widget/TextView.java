@@ -0,0 +1,18 @@
+package android.widget;
+
+/**
+ * JVM stand-in for android.widget.TextView, only used by the UI helpers in Utils
+ */
+
+public class TextView {
+
+    private CharSequence text = "";
+
+    public void setText(CharSequence text) {
+        this.text = text;
+    }
+
+    public CharSequence getText() {
+        return text;
+    }
+}
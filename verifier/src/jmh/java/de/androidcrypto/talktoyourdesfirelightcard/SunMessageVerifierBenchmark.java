@@ -0,0 +1,135 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * throughput of the SUN message verification in scans per second, all benchmark threads share one
+ * SunMessageVerifier and one counter store like the request threads of a server (verifyStriped: the in-memory
+ * StripedSdmReadCounterStore, verifyMapped: the lock-free MappedSdmReadCounterStore with its append log). Each thread verifies its own
+ * pregenerated messages (different cards and increasing read counters), after the first pass the messages are
+ * replays, which costs the same crypto as a valid message as the SDMMAC is checked before the counter.
+ * <p>
+ * run: ./gradlew :verifier:jmh, change the number of threads with jmh { threads = n } in build.gradle
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+public class SunMessageVerifierBenchmark {
+
+    private static final int NUMBER_OF_MESSAGES = 4096;
+    private static final byte[] SDM_META_READ_KEY = new byte[16];
+    private static final byte[] SDM_FILE_READ_KEY = new byte[16];
+
+    @State(Scope.Benchmark)
+    public static class SharedState {
+        SunMessageVerifier stripedVerifier;
+        SunMessageVerifier mappedVerifier;
+        MappedSdmReadCounterStore mappedStore;
+        File counterFile;
+        final AtomicInteger threadIndex = new AtomicInteger();
+
+        @Setup
+        public void setup() throws IOException {
+            KeyProvider keyProvider = (uid, applicationIdentifier, keyNumber) -> SDM_FILE_READ_KEY;
+            stripedVerifier = new SunMessageVerifier(SDM_META_READ_KEY, keyProvider, new byte[3], (byte) 0x02, new StripedSdmReadCounterStore());
+            counterFile = File.createTempFile("sdm_counters", ".log");
+            counterFile.delete();
+            mappedStore = MappedSdmReadCounterStore.open(counterFile, 1024 * 1024);
+            mappedVerifier = new SunMessageVerifier(SDM_META_READ_KEY, keyProvider, new byte[3], (byte) 0x02, mappedStore);
+        }
+
+        @TearDown
+        public void tearDown() {
+            mappedStore.close();
+            counterFile.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        String[] piccData = new String[NUMBER_OF_MESSAGES];
+        String[] sdmMac = new String[NUMBER_OF_MESSAGES];
+        int index;
+
+        @Setup
+        public void setup(SharedState sharedState) throws GeneralSecurityException {
+            int thread = sharedState.threadIndex.getAndIncrement();
+            Random random = new Random(thread);
+            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(SDM_META_READ_KEY, "AES"));
+            AesCmac aesCmac = new AesCmac();
+            for (int i = 0; i < NUMBER_OF_MESSAGES; i++) {
+                // PICCDataTag (UID and SDMReadCtr mirrored, UID length 7) || UID || SDMReadCtr || RandomPadding
+                byte[] plainPiccData = new byte[16];
+                random.nextBytes(plainPiccData);
+                plainPiccData[0] = (byte) 0xC7;
+                plainPiccData[1] = (byte) 0x04;
+                plainPiccData[2] = (byte) thread;
+                plainPiccData[3] = (byte) 0x00;
+                plainPiccData[4] = (byte) 0x00;
+                plainPiccData[5] = (byte) 0x00;
+                plainPiccData[6] = (byte) 0x00;
+                plainPiccData[7] = (byte) (i & 0x3F); // 64 cards per thread
+                int readCounter = (i >> 6) + 1;
+                plainPiccData[8] = (byte) readCounter;
+                plainPiccData[9] = (byte) (readCounter >> 8);
+                plainPiccData[10] = (byte) 0x00;
+                byte[] sv2 = new byte[16];
+                sv2[0] = (byte) 0x3C;
+                sv2[1] = (byte) 0xC3;
+                sv2[3] = (byte) 0x01;
+                sv2[5] = (byte) 0x80;
+                System.arraycopy(plainPiccData, 1, sv2, 6, 10);
+                aesCmac.init(new SecretKeySpec(SDM_FILE_READ_KEY, "AES"));
+                byte[] sesSdmFileReadMacKey = aesCmac.calculateHash(sv2);
+                aesCmac.init(new SecretKeySpec(sesSdmFileReadMacKey, "AES"));
+                byte[] fullMac = aesCmac.calculateHash(new byte[0]);
+                byte[] mac = new byte[8];
+                for (int j = 0; j < 8; j++) {
+                    mac[j] = fullMac[2 * j + 1];
+                }
+                piccData[i] = toHex(cipher.doFinal(plainPiccData));
+                sdmMac[i] = toHex(mac);
+            }
+        }
+    }
+
+    @Benchmark
+    public SunVerificationResult verifyStriped(SharedState sharedState, ThreadState threadState) {
+        int i = threadState.index;
+        threadState.index = (i + 1) % NUMBER_OF_MESSAGES;
+        return sharedState.stripedVerifier.verify(threadState.piccData[i], threadState.sdmMac[i]);
+    }
+
+    @Benchmark
+    public SunVerificationResult verifyMapped(SharedState sharedState, ThreadState threadState) {
+        int i = threadState.index;
+        threadState.index = (i + 1) % NUMBER_OF_MESSAGES;
+        return sharedState.mappedVerifier.verify(threadState.piccData[i], threadState.sdmMac[i]);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) sb.append(String.format("%02X", b));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,361 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This SdmReadCounterStore keeps the last accepted SDMReadCtr of each card in a lock-free hash table of primitives
+ * and writes each accepted counter to a memory-mapped append log, so the counters survive a restart of the server.
+ * <p>
+ * The table uses open addressing with linear probing over two arrays: the packed UIDs (AtomicLongArray) and the
+ * counters (AtomicIntegerArray). A card is inserted with a compare-and-set of its UID slot, a counter is accepted
+ * with a compare-and-set from the old to the new counter, so a replay check needs no lock and no allocation:
+ * a replayed message is rejected after the lookup, an accepted message costs one CAS on the counter and one
+ * atomic increment of the log position. The table does not grow, the maximum number of cards is given on open.
+ * <p>
+ * File layout:
+ * header: magic 'SDMC' (4) || version (1) || reserved (11)
+ * record: packed UID (8) || read counter (4) || check value (4)
+ * The file is mapped in segments of SEGMENT_LENGTH bytes, a new segment is mapped (and the file extended) when
+ * the log position reaches it. The writes go to the page cache and survive a crash of the process, call sync()
+ * (e.g. every second) to force them to the storage device. As several threads append at the same time, the records
+ * are not in the order of the counter updates and a crash can leave an unwritten (zero) record between written
+ * ones. On open all records with a valid check value are read and the highest counter per card wins, unwritten
+ * and torn records are skipped.
+ * The log gets one record per accepted scan, it is compacted to one record per card on open when it holds more
+ * than twice the records of the live cards, or by calling compact().
+ */
+
+public class MappedSdmReadCounterStore implements SdmReadCounterStore, Closeable {
+
+    private static final byte[] MAGIC = new byte[]{(byte) 0x53, (byte) 0x44, (byte) 0x4D, (byte) 0x43}; // 'SDMC'
+    private static final byte VERSION = (byte) 0x01;
+    private static final int HEADER_LENGTH = 16;
+    private static final int RECORD_LENGTH = 16;
+    public static final int SEGMENT_LENGTH = 16 * 1024 * 1024; // 1M records
+    private static final int MAXIMUM_NUMBER_OF_SEGMENTS = 4096;
+    private static final long OCCUPIED = 1L << 63; // marks a used UID slot, a packed UID uses the lower 56 bits only
+    private static final long EMPTY = 0L;
+    private static final int COMPACTION_MINIMUM_RECORDS = 64 * 1024;
+
+    private final File file;
+    private final int maximumNumberOfCards;
+    private final int tableMask;
+    private final AtomicLongArray uids;
+    private final AtomicIntegerArray readCounters;
+    private final AtomicInteger numberOfCards = new AtomicInteger();
+    private final AtomicLong logPosition = new AtomicLong();
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(MAXIMUM_NUMBER_OF_SEGMENTS);
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private long numberOfDiscardedRecords; // records with a wrong check value found on open
+
+    private MappedSdmReadCounterStore(File file, int maximumNumberOfCards) {
+        this.file = file;
+        this.maximumNumberOfCards = maximumNumberOfCards;
+        // a load factor of at most 0.5 keeps the probe sequences short
+        int tableSize = Integer.highestOneBit(maximumNumberOfCards) << 2;
+        this.tableMask = tableSize - 1;
+        this.uids = new AtomicLongArray(tableSize);
+        this.readCounters = new AtomicIntegerArray(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            readCounters.set(i, COUNTER_UNKNOWN);
+        }
+    }
+
+    /**
+     * opens the counter file or creates it when it does not exist and loads the counters
+     *
+     * @param file                 | the counter file
+     * @param maximumNumberOfCards | the capacity of the table (1 .. 2^26)
+     * @throws IOException when the file can't be read or is not a counter file
+     */
+    public static MappedSdmReadCounterStore open(File file, int maximumNumberOfCards) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file is NULL");
+        }
+        if ((maximumNumberOfCards < 1) || (maximumNumberOfCards > (1 << 26))) {
+            throw new IllegalArgumentException("maximumNumberOfCards is not in range 1 .. 2^26");
+        }
+        MappedSdmReadCounterStore store = new MappedSdmReadCounterStore(file, maximumNumberOfCards);
+        try {
+            store.openFile();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void openFile() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        long fileLength = channel.size();
+        if (fileLength == 0) {
+            writeHeader(channel);
+            channel.force(true);
+            logPosition.set(HEADER_LENGTH);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) break;
+        }
+        if ((header.hasRemaining()) || (!Arrays.equals(Arrays.copyOf(header.array(), MAGIC.length), MAGIC)) || (header.get(4) != VERSION)) {
+            throw new IOException("the file is not a counter file of version " + VERSION + ": " + file.getName());
+        }
+        long numberOfRecords = loadRecords(fileLength);
+        if ((numberOfRecords > COMPACTION_MINIMUM_RECORDS) && (numberOfRecords > 2L * numberOfCards.get())) {
+            compact();
+        }
+    }
+
+    /**
+     * reads all records of the log into the table and sets the log position behind the last valid record
+     *
+     * @return the number of valid records
+     */
+    private long loadRecords(long fileLength) throws IOException {
+        long numberOfRecords = 0;
+        long endOfLog = HEADER_LENGTH;
+        for (long position = HEADER_LENGTH; position + RECORD_LENGTH <= fileLength; position += RECORD_LENGTH) {
+            MappedByteBuffer segment = getSegment(position);
+            int offset = (int) (position % SEGMENT_LENGTH);
+            long uid = segment.getLong(offset);
+            int readCounter = segment.getInt(offset + 8);
+            int checkValue = segment.getInt(offset + 12);
+            if (checkValue != getCheckValue(uid, readCounter)) {
+                if ((uid != 0) || (readCounter != 0) || (checkValue != 0)) numberOfDiscardedRecords++;
+                continue;
+            }
+            int slot = findSlot(uid, true);
+            int lastReadCounter = readCounters.get(slot);
+            if (readCounter > lastReadCounter) readCounters.set(slot, readCounter);
+            numberOfRecords++;
+            endOfLog = position + RECORD_LENGTH;
+        }
+        logPosition.set(endOfLog);
+        return numberOfRecords;
+    }
+
+    /**
+     * section for the counters
+     */
+
+    @Override
+    public boolean update(long uid, int readCounter) {
+        int slot = findSlot(uid, true);
+        while (true) {
+            int lastReadCounter = readCounters.get(slot);
+            if (readCounter <= lastReadCounter) return false;
+            if (readCounters.compareAndSet(slot, lastReadCounter, readCounter)) break;
+        }
+        appendRecord(uid, readCounter);
+        return true;
+    }
+
+    @Override
+    public int get(long uid) {
+        int slot = findSlot(uid, false);
+        return (slot < 0) ? COUNTER_UNKNOWN : readCounters.get(slot);
+    }
+
+    @Override
+    public int size() {
+        return numberOfCards.get();
+    }
+
+    /**
+     * @param insert | true to insert the UID when it is not in the table
+     * @return the slot of the UID or -1 when the UID is not in the table and insert is false
+     */
+    private int findSlot(long uid, boolean insert) {
+        long key = uid | OCCUPIED;
+        int slot = (int) ((uid * 0x9E3779B97F4A7C15L) >>> 36) & tableMask;
+        while (true) {
+            long slotKey = uids.get(slot);
+            if (slotKey == key) return slot;
+            if (slotKey == EMPTY) {
+                if (!insert) return -1;
+                if (numberOfCards.get() >= maximumNumberOfCards) {
+                    throw new IllegalStateException("the counter store is full (" + maximumNumberOfCards + " cards)");
+                }
+                if (uids.compareAndSet(slot, EMPTY, key)) {
+                    numberOfCards.incrementAndGet();
+                    return slot;
+                }
+                // another thread has taken the slot, it may be the same UID
+                if (uids.get(slot) == key) return slot;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    /**
+     * section for the log
+     */
+
+    private void appendRecord(long uid, int readCounter) {
+        long position = logPosition.getAndAdd(RECORD_LENGTH);
+        MappedByteBuffer segment;
+        try {
+            segment = getSegment(position);
+        } catch (IOException e) {
+            throw new IllegalStateException("the counter file can't be mapped: " + e.getMessage());
+        }
+        // absolute puts, each thread writes its own record
+        int offset = (int) (position % SEGMENT_LENGTH);
+        segment.putLong(offset, uid);
+        segment.putInt(offset + 8, readCounter);
+        segment.putInt(offset + 12, getCheckValue(uid, readCounter));
+    }
+
+    private MappedByteBuffer getSegment(long position) throws IOException {
+        int segmentIndex = (int) (position / SEGMENT_LENGTH);
+        if (segmentIndex >= MAXIMUM_NUMBER_OF_SEGMENTS) {
+            throw new IOException("the counter file is too large, compact it");
+        }
+        MappedByteBuffer segment = segments.get(segmentIndex);
+        if (segment != null) return segment;
+        synchronized (segments) {
+            segment = segments.get(segmentIndex);
+            if (segment == null) {
+                FileChannel fileChannel = channel;
+                if (fileChannel == null) throw new IOException("the counter file is closed");
+                // mapping beyond the end of the file extends the file
+                segment = fileChannel.map(FileChannel.MapMode.READ_WRITE, (long) segmentIndex * SEGMENT_LENGTH, SEGMENT_LENGTH);
+                segments.set(segmentIndex, segment);
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * detects unwritten (zero) and torn records, it is not a protection against a manipulation of the file
+     */
+    private static int getCheckValue(long uid, int readCounter) {
+        long hash = (uid ^ 0x53444D43L) * 0x9E3779B97F4A7C15L + readCounter;
+        hash = (hash ^ (hash >>> 29)) * 0xBF58476D1CE4E5B9L;
+        return (int) (hash ^ (hash >>> 32)) | 1;
+    }
+
+    private static void writeHeader(FileChannel fileChannel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC);
+        header.put(VERSION);
+        header.rewind();
+        while (header.hasRemaining()) {
+            fileChannel.write(header, header.position());
+        }
+    }
+
+    /**
+     * forces the appended records to the storage device
+     */
+    public void sync() {
+        int numberOfSegments = (int) ((logPosition.get() + SEGMENT_LENGTH - 1) / SEGMENT_LENGTH);
+        for (int i = 0; i < Math.min(numberOfSegments, MAXIMUM_NUMBER_OF_SEGMENTS); i++) {
+            MappedByteBuffer segment = segments.get(i);
+            if (segment != null) segment.force();
+        }
+    }
+
+    /**
+     * section for compaction
+     */
+
+    /**
+     * writes one record per card to a new file that replaces the counter file. This must not run while other
+     * threads call update, e.g. call it on a maintenance schedule or let open() do it on a restart.
+     */
+    public synchronized void compact() throws IOException {
+        if (channel == null) throw new IOException("the counter file is closed");
+        File compactedFile = new File(file.getPath() + ".compact");
+        long position = HEADER_LENGTH;
+        try (RandomAccessFile compactedRandomAccessFile = new RandomAccessFile(compactedFile, "rw")) {
+            FileChannel compactedChannel = compactedRandomAccessFile.getChannel();
+            compactedChannel.truncate(0);
+            writeHeader(compactedChannel);
+            ByteBuffer records = ByteBuffer.allocate(64 * RECORD_LENGTH);
+            for (int slot = 0; slot <= tableMask; slot++) {
+                long key = uids.get(slot);
+                if (key == EMPTY) continue;
+                long uid = key & ~OCCUPIED;
+                int readCounter = readCounters.get(slot);
+                records.putLong(uid);
+                records.putInt(readCounter);
+                records.putInt(getCheckValue(uid, readCounter));
+                if (!records.hasRemaining()) position = writeRecords(compactedChannel, records, position);
+            }
+            position = writeRecords(compactedChannel, records, position);
+            compactedChannel.force(true);
+        }
+        closeFile();
+        if (!compactedFile.renameTo(file)) {
+            // the old file is still complete, continue with it
+            compactedFile.delete();
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            channel = randomAccessFile.getChannel();
+            throw new IOException("the compacted file can't be renamed to " + file.getName());
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        logPosition.set(position);
+    }
+
+    private static long writeRecords(FileChannel fileChannel, ByteBuffer records, long position) throws IOException {
+        records.flip();
+        while (records.hasRemaining()) {
+            position += fileChannel.write(records, position);
+        }
+        records.clear();
+        return position;
+    }
+
+    public long getLogLength() {
+        return logPosition.get();
+    }
+
+    public long getNumberOfDiscardedRecords() {
+        return numberOfDiscardedRecords;
+    }
+
+    public int getMaximumNumberOfCards() {
+        return maximumNumberOfCards;
+    }
+
+    /**
+     * forces the records to the storage device and closes the file, no update may run during the close
+     */
+    @Override
+    public synchronized void close() {
+        sync();
+        closeFile();
+    }
+
+    private void closeFile() {
+        for (int i = 0; i < MAXIMUM_NUMBER_OF_SEGMENTS; i++) {
+            segments.set(i, null);
+        }
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        randomAccessFile = null;
+        channel = null;
+    }
+}
@@ -0,0 +1,51 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * A SdmReadCounterStore keeps the last accepted SDMReadCtr per card for the replay detection of SUN messages
+ * (see SunMessageVerifier). The SDMReadCtr of a card is increased on each read of the SDM file (each tap),
+ * so a message with a counter that is not greater than the last accepted counter is a replay.
+ * The counter is mirrored only when the SDMReadCtr option is enabled in the file settings
+ * (FileSettings.isSdmOptionsBit6_SDMReadCtr), without it there is no replay detection.
+ * The UID (7 bytes) is packed into a long with packUid, so no byte array is allocated for a lookup.
+ * Implementations need to be thread safe: StripedSdmReadCounterStore (in memory) and MappedSdmReadCounterStore
+ * (lock-free, persisted in a memory-mapped append log).
+ */
+
+public interface SdmReadCounterStore {
+
+    int COUNTER_UNKNOWN = -1;
+
+    /**
+     * accepts the read counter when it is greater than the last accepted counter of the card
+     *
+     * @param uid         | the packed UID (see packUid)
+     * @param readCounter | the SDMReadCtr (0 .. 0xFFFFFF)
+     * @return true when the counter is accepted, false on a replay
+     */
+    boolean update(long uid, int readCounter);
+
+    /**
+     * @param uid | the packed UID (see packUid)
+     * @return the last accepted read counter or COUNTER_UNKNOWN when the card is unknown
+     */
+    int get(long uid);
+
+    /**
+     * @return the number of cards in the store
+     */
+    int size();
+
+    /**
+     * packs the 7 bytes UID (MSB first, as mirrored by the card) into the lower 56 bits of a long
+     */
+    static long packUid(byte[] uid) {
+        if ((uid == null) || (uid.length != 7)) {
+            throw new IllegalArgumentException("uid is NULL or not of length 7");
+        }
+        long packedUid = 0;
+        for (int i = 0; i < 7; i++) {
+            packedUid = (packedUid << 8) | (uid[i] & 0xFF);
+        }
+        return packedUid;
+    }
+}
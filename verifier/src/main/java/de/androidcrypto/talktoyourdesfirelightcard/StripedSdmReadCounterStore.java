@@ -0,0 +1,86 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.HashMap;
+
+/**
+ * This SdmReadCounterStore keeps the counters in memory in a striped map: the cards are spread by their UID over
+ * a fixed number of stripes, each stripe is a HashMap with its own lock. Two scans of different cards take the
+ * same lock only when their UIDs fall into the same stripe, so the verifier threads rarely wait for each other.
+ * The check and the update of a counter are done under the stripe lock, so two scans with the same counter are
+ * never both accepted.
+ * <p>
+ * The counters are lost on a restart.
+ */
+
+public class StripedSdmReadCounterStore implements SdmReadCounterStore {
+
+    private static final int DEFAULT_NUMBER_OF_STRIPES = 64;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    private static final class Stripe {
+        private final HashMap<Long, Integer> readCounters = new HashMap<>();
+    }
+
+    public StripedSdmReadCounterStore() {
+        this(DEFAULT_NUMBER_OF_STRIPES);
+    }
+
+    /**
+     * @param numberOfStripes | is rounded up to a power of 2, e.g. 4 times the number of verifier threads
+     */
+    public StripedSdmReadCounterStore(int numberOfStripes) {
+        if (numberOfStripes < 1) {
+            throw new IllegalArgumentException("numberOfStripes is < 1");
+        }
+        int powerOfTwo = Integer.highestOneBit(numberOfStripes);
+        if (powerOfTwo < numberOfStripes) powerOfTwo <<= 1;
+        stripes = new Stripe[powerOfTwo];
+        for (int i = 0; i < powerOfTwo; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = powerOfTwo - 1;
+    }
+
+    private Stripe getStripe(long uid) {
+        // the last UID bytes are the most random ones, mix all bytes anyway for sequential UIDs
+        long hash = uid * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 40) & stripeMask];
+    }
+
+    @Override
+    public boolean update(long uid, int readCounter) {
+        Stripe stripe = getStripe(uid);
+        synchronized (stripe) {
+            Integer lastReadCounter = stripe.readCounters.get(uid);
+            if ((lastReadCounter != null) && (readCounter <= lastReadCounter)) return false;
+            stripe.readCounters.put(uid, readCounter);
+            return true;
+        }
+    }
+
+    @Override
+    public int get(long uid) {
+        Stripe stripe = getStripe(uid);
+        synchronized (stripe) {
+            Integer lastReadCounter = stripe.readCounters.get(uid);
+            return (lastReadCounter == null) ? COUNTER_UNKNOWN : lastReadCounter;
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.readCounters.size();
+            }
+        }
+        return size;
+    }
+
+    public int getNumberOfStripes() {
+        return stripes.length;
+    }
+}
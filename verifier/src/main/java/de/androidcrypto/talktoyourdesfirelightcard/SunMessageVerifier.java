@@ -0,0 +1,281 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class verifies the Secure Unique NFC (SUN) messages that a card with Secure Dynamic Messaging (SDM) mirrors
+ * into the URL of its NDEF file, e.g.
+ * https://choose.url.com/ntag424?e=EF963FF7828658A599F3041510671E88&c=94EED9EE65337086
+ * https://sdm.nfcdeveloper.com/tag?picc_data=1D963945833B280C8E0CE5D3F86127E0&enc=AFAE6C123CC478734FED103FD6851AA8&cmac=FCAC93426335D213
+ * (see changeFileSettingsNtag424Dna in DesfireEv3 and DesfireLight for the SDM configuration of the card).
+ * <p>
+ * The verification follows NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf pages 12 - 19 and
+ * NTAG 424 DNA NT4H2421Gx.pdf pages 37 - 42:
+ * 1 decrypt the PICCData with the SDMMetaRead key: PICCDataTag || UID || SDMReadCtr || RandomPadding
+ * 2 derive the session keys with the SDMFileRead key of the card:
+ * SesSDMFileReadENCKey = MAC(KSDMFileRead, C3h || 3Ch || 00h || 01h || 00h || 80h || UID || SDMReadCtr || ZeroPadding)
+ * SesSDMFileReadMACKey = MAC(KSDMFileRead, 3Ch || C3h || 00h || 01h || 00h || 80h || UID || SDMReadCtr || ZeroPadding)
+ * 3 check the SDMMAC = MACt(SesSDMFileReadMACKey, DynamicFileData[SDMMACInputOffset .. SDMMACOffset - 1])
+ * 4 decrypt the SDMENCFileData (if present) with the SesSDMFileReadENCKey,
+ * IV = E(SesSDMFileReadENCKey, SDMReadCtr || 13 bytes 00h)
+ * 5 accept the SDMReadCtr in the SdmReadCounterStore only when it is greater than the last accepted counter
+ * <p>
+ * The class is thread safe and meant to be shared by all request threads of a server. Each thread keeps its own
+ * AES ciphers and AesCmac instance, the cipher for the PICCData is initialized only once per thread as the
+ * SDMMetaRead key is the same for all cards. The SDMFileRead key is taken from a KeyProvider, so it can be
+ * diversified with the UID of the card.
+ */
+
+public class SunMessageVerifier {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int UID_LENGTH = 7;
+    private static final int READ_COUNTER_LENGTH = 3;
+    private static final int SDM_MAC_LENGTH = 8;
+    private static final byte PICC_DATA_TAG_UID_MIRRORING = (byte) 0x80;
+    private static final byte PICC_DATA_TAG_READ_COUNTER_MIRRORING = (byte) 0x40;
+    private static final byte[] SV1_LABEL = new byte[]{(byte) 0xC3, (byte) 0x3C}; // SesSDMFileReadENCKey
+    private static final byte[] SV2_LABEL = new byte[]{(byte) 0x3C, (byte) 0xC3}; // SesSDMFileReadMACKey
+    // URL parameter names, the short ones are used by AN12196, the long ones by sdm.nfcdeveloper.com
+    private static final String[] PICC_DATA_PARAMETERS = new String[]{"e", "picc_data"};
+    private static final String[] ENC_FILE_DATA_PARAMETERS = new String[]{"enc"};
+    private static final String[] SDM_MAC_PARAMETERS = new String[]{"c", "cmac"};
+
+    private final byte[] sdmMetaReadKey;
+    private final KeyProvider sdmFileReadKeyProvider;
+    private final byte[] applicationIdentifier;
+    private final byte sdmFileReadKeyNumber;
+    private final SdmReadCounterStore readCounterStore;
+    private final ThreadLocal<Worker> workers;
+
+    /**
+     * holds the objects that are reused by one request thread for all of its messages
+     */
+    private static final class Worker {
+        private final Cipher piccDataCipher; // AES-ECB decryption with the SDMMetaRead key (CBC with zero IV on one block)
+        private final Cipher ecbCipher; // AES-ECB encryption for the IV of the SDMENCFileData
+        private final Cipher cbcCipher; // AES-CBC decryption of the SDMENCFileData
+        private final AesCmac aesCmac;
+        private final byte[] piccData = new byte[BLOCK_SIZE];
+        private final byte[] sv = new byte[BLOCK_SIZE];
+
+        Worker(byte[] sdmMetaReadKey) {
+            try {
+                piccDataCipher = Cipher.getInstance("AES/ECB/NoPadding");
+                piccDataCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(sdmMetaReadKey, "AES"));
+                ecbCipher = Cipher.getInstance("AES/ECB/NoPadding");
+                cbcCipher = Cipher.getInstance("AES/CBC/NoPadding");
+                aesCmac = new AesCmac();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES is not available", e);
+            }
+        }
+    }
+
+    /**
+     * @param sdmMetaReadKey         | the SDMMetaRead key (AES-128) that encrypts the PICCData, the same for all cards
+     * @param sdmFileReadKeyProvider | returns the SDMFileRead key (AES-128) for the UID of a card
+     * @param applicationIdentifier  | the AID that is passed to the key provider (length 3)
+     * @param sdmFileReadKeyNumber   | the key number of the SDMFileRead key, passed to the key provider
+     * @param readCounterStore       | the last accepted read counters for the replay detection
+     */
+    public SunMessageVerifier(byte[] sdmMetaReadKey, KeyProvider sdmFileReadKeyProvider, byte[] applicationIdentifier,
+                              byte sdmFileReadKeyNumber, SdmReadCounterStore readCounterStore) {
+        if ((sdmMetaReadKey == null) || (sdmMetaReadKey.length != BLOCK_SIZE)) {
+            throw new IllegalArgumentException("sdmMetaReadKey is NULL or not of length 16");
+        }
+        if ((sdmFileReadKeyProvider == null) || (applicationIdentifier == null) || (readCounterStore == null)) {
+            throw new IllegalArgumentException("sdmFileReadKeyProvider, applicationIdentifier or readCounterStore is NULL");
+        }
+        this.sdmMetaReadKey = sdmMetaReadKey.clone();
+        this.sdmFileReadKeyProvider = sdmFileReadKeyProvider;
+        this.applicationIdentifier = applicationIdentifier.clone();
+        this.sdmFileReadKeyNumber = sdmFileReadKeyNumber;
+        this.readCounterStore = readCounterStore;
+        this.workers = ThreadLocal.withInitial(() -> new Worker(this.sdmMetaReadKey));
+    }
+
+    /**
+     * verifies a SUN URL, the PICCData, SDMENCFileData and SDMMAC are taken from the query parameters
+     * e/picc_data, enc and c/cmac. Without SDMENCFileData the SDMMAC is calculated over an empty input
+     * (SDMMACInputOffset = SDMMACOffset), with SDMENCFileData the input runs from the beginning of the
+     * SDMENCFileData to the beginning of the SDMMAC (e.g. "AFAE...1AA8&cmac=")
+     */
+    public SunVerificationResult verifyUrl(String url) {
+        if (url == null) return malformed("url is NULL");
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) return malformed("url has no query");
+        String piccData = null;
+        String encFileData = null;
+        String sdmMac = null;
+        int encFileDataStart = -1;
+        int sdmMacStart = -1;
+        int parameterStart = queryStart + 1;
+        while (parameterStart < url.length()) {
+            int parameterEnd = url.indexOf('&', parameterStart);
+            if (parameterEnd < 0) parameterEnd = url.length();
+            int equalsSign = url.indexOf('=', parameterStart);
+            if ((equalsSign > 0) && (equalsSign < parameterEnd)) {
+                String name = url.substring(parameterStart, equalsSign);
+                String value = url.substring(equalsSign + 1, parameterEnd);
+                if (isOneOf(name, PICC_DATA_PARAMETERS)) {
+                    piccData = value;
+                } else if (isOneOf(name, ENC_FILE_DATA_PARAMETERS)) {
+                    encFileData = value;
+                    encFileDataStart = equalsSign + 1;
+                } else if (isOneOf(name, SDM_MAC_PARAMETERS)) {
+                    sdmMac = value;
+                    sdmMacStart = equalsSign + 1;
+                }
+            }
+            parameterStart = parameterEnd + 1;
+        }
+        if ((piccData == null) || (sdmMac == null)) return malformed("url has no PICCData or SDMMAC parameter");
+        byte[] macInput = new byte[0];
+        if (encFileData != null) {
+            if (encFileDataStart > sdmMacStart) return malformed("SDMENCFileData is behind the SDMMAC");
+            macInput = url.substring(encFileDataStart, sdmMacStart).getBytes(StandardCharsets.US_ASCII);
+        }
+        return verify(piccData, encFileData, sdmMac, macInput);
+    }
+
+    /**
+     * verifies a SUN message without SDMENCFileData and with an empty SDMMAC input
+     *
+     * @param encPiccData | the encrypted PICCData (32 hex characters)
+     * @param sdmMac      | the SDMMAC (16 hex characters)
+     */
+    public SunVerificationResult verify(String encPiccData, String sdmMac) {
+        return verify(encPiccData, null, sdmMac, new byte[0]);
+    }
+
+    /**
+     * verifies a SUN message
+     *
+     * @param encPiccData | the encrypted PICCData (32 hex characters)
+     * @param encFileData | the SDMENCFileData (a multiple of 32 hex characters) or NULL
+     * @param sdmMac      | the SDMMAC (16 hex characters)
+     * @param macInput    | the mirrored file data from SDMMACInputOffset to SDMMACOffset (ASCII)
+     */
+    public SunVerificationResult verify(String encPiccData, String encFileData, String sdmMac, byte[] macInput) {
+        byte[] encPiccDataBytes = TmvBatchVerifier.hexToBytes(encPiccData);
+        if ((encPiccDataBytes == null) || (encPiccDataBytes.length != BLOCK_SIZE)) return malformed("PICCData is invalid");
+        byte[] sdmMacBytes = TmvBatchVerifier.hexToBytes(sdmMac);
+        if ((sdmMacBytes == null) || (sdmMacBytes.length != SDM_MAC_LENGTH)) return malformed("SDMMAC is invalid");
+        byte[] encFileDataBytes = null;
+        if (encFileData != null) {
+            encFileDataBytes = TmvBatchVerifier.hexToBytes(encFileData);
+            if ((encFileDataBytes == null) || (encFileDataBytes.length == 0) || ((encFileDataBytes.length % BLOCK_SIZE) != 0)) {
+                return malformed("SDMENCFileData is invalid");
+            }
+        }
+        if (macInput == null) return malformed("macInput is NULL");
+
+        Worker worker = workers.get();
+        byte[] uid;
+        int readCounter = SdmReadCounterStore.COUNTER_UNKNOWN;
+        byte[] fileData = null;
+        try {
+            // step 1: PICCDataTag || UID || SDMReadCtr || RandomPadding
+            worker.piccDataCipher.doFinal(encPiccDataBytes, 0, BLOCK_SIZE, worker.piccData, 0);
+            byte piccDataTag = worker.piccData[0];
+            if (((piccDataTag & PICC_DATA_TAG_UID_MIRRORING) == 0) || ((piccDataTag & 0x0F) != UID_LENGTH)) {
+                return malformed("PICCData has no UID (wrong SDMMetaRead key ?)");
+            }
+            uid = new byte[UID_LENGTH];
+            System.arraycopy(worker.piccData, 1, uid, 0, UID_LENGTH);
+            boolean isReadCounterMirrored = ((piccDataTag & PICC_DATA_TAG_READ_COUNTER_MIRRORING) != 0);
+            if (isReadCounterMirrored) {
+                readCounter = (worker.piccData[1 + UID_LENGTH] & 0xFF) | ((worker.piccData[2 + UID_LENGTH] & 0xFF) << 8)
+                        | ((worker.piccData[3 + UID_LENGTH] & 0xFF) << 16);
+            }
+
+            // step 2: SesSDMFileReadMACKey
+            byte[] sdmFileReadKey = sdmFileReadKeyProvider.getKey(uid, applicationIdentifier, sdmFileReadKeyNumber);
+            if ((sdmFileReadKey == null) || (sdmFileReadKey.length != BLOCK_SIZE)) {
+                return new SunVerificationResult(SunVerificationResult.Status.NO_KEY, "no SDMFileRead key for the UID", uid, readCounter, null);
+            }
+            SecretKeySpec sdmFileReadKeySpec = new SecretKeySpec(sdmFileReadKey, "AES");
+            getSessionVector(SV2_LABEL, worker.piccData, isReadCounterMirrored, worker.sv);
+            worker.aesCmac.init(sdmFileReadKeySpec);
+            byte[] sesSdmFileReadMacKey = worker.aesCmac.calculateHash(worker.sv);
+
+            // step 3: SDMMAC
+            worker.aesCmac.init(new SecretKeySpec(sesSdmFileReadMacKey, "AES"));
+            byte[] fullMac = worker.aesCmac.calculateHash(macInput);
+            byte[] expectedSdmMac = new byte[SDM_MAC_LENGTH];
+            for (int i = 0; i < SDM_MAC_LENGTH; i++) {
+                expectedSdmMac[i] = fullMac[2 * i + 1];
+            }
+            if (!MessageDigest.isEqual(expectedSdmMac, sdmMacBytes)) {
+                return new SunVerificationResult(SunVerificationResult.Status.INVALID_MAC, "SDMMAC does not match", uid, readCounter, null);
+            }
+
+            // step 4: SDMENCFileData
+            if (encFileDataBytes != null) {
+                if (!isReadCounterMirrored) return malformed("SDMENCFileData needs a mirrored SDMReadCtr");
+                getSessionVector(SV1_LABEL, worker.piccData, true, worker.sv);
+                worker.aesCmac.init(sdmFileReadKeySpec);
+                SecretKeySpec sesSdmFileReadEncKeySpec = new SecretKeySpec(worker.aesCmac.calculateHash(worker.sv), "AES");
+                byte[] ivInput = new byte[BLOCK_SIZE];
+                System.arraycopy(worker.piccData, 1 + UID_LENGTH, ivInput, 0, READ_COUNTER_LENGTH);
+                worker.ecbCipher.init(Cipher.ENCRYPT_MODE, sesSdmFileReadEncKeySpec);
+                byte[] iv = worker.ecbCipher.doFinal(ivInput);
+                worker.cbcCipher.init(Cipher.DECRYPT_MODE, sesSdmFileReadEncKeySpec, new IvParameterSpec(iv));
+                fileData = worker.cbcCipher.doFinal(encFileDataBytes);
+            }
+        } catch (GeneralSecurityException e) {
+            return malformed("crypto error: " + e.getMessage());
+        }
+
+        // step 5: replay detection, only a message with a valid SDMMAC may move the counter
+        if (readCounter == SdmReadCounterStore.COUNTER_UNKNOWN) {
+            return new SunVerificationResult(SunVerificationResult.Status.VALID, "SDMReadCtr is not mirrored, no replay detection", uid, readCounter, fileData);
+        }
+        if (!readCounterStore.update(SdmReadCounterStore.packUid(uid), readCounter)) {
+            return new SunVerificationResult(SunVerificationResult.Status.REPLAYED, "SDMReadCtr was accepted before", uid, readCounter, null);
+        }
+        return new SunVerificationResult(SunVerificationResult.Status.VALID, "SUCCESS", uid, readCounter, fileData);
+    }
+
+    /**
+     * label || 00h || 01h || 00h || 80h || UID || SDMReadCtr (if mirrored) || ZeroPadding
+     */
+    private static void getSessionVector(byte[] label, byte[] piccData, boolean isReadCounterMirrored, byte[] sv) {
+        sv[0] = label[0];
+        sv[1] = label[1];
+        sv[2] = (byte) 0x00;
+        sv[3] = (byte) 0x01; // counter, fixed to 0001h
+        sv[4] = (byte) 0x00;
+        sv[5] = (byte) 0x80; // length, fixed to 0080h
+        System.arraycopy(piccData, 1, sv, 6, UID_LENGTH);
+        if (isReadCounterMirrored) {
+            System.arraycopy(piccData, 1 + UID_LENGTH, sv, 6 + UID_LENGTH, READ_COUNTER_LENGTH);
+        } else {
+            sv[13] = (byte) 0x00;
+            sv[14] = (byte) 0x00;
+            sv[15] = (byte) 0x00;
+        }
+    }
+
+    private static boolean isOneOf(String name, String[] names) {
+        for (String candidate : names) {
+            if (candidate.equals(name)) return true;
+        }
+        return false;
+    }
+
+    private static SunVerificationResult malformed(String reason) {
+        return new SunVerificationResult(SunVerificationResult.Status.MALFORMED, reason, null, SdmReadCounterStore.COUNTER_UNKNOWN, null);
+    }
+
+    public SdmReadCounterStore getReadCounterStore() {
+        return readCounterStore;
+    }
+}
@@ -0,0 +1,77 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+/**
+ * This class holds the result of SunMessageVerifier.verify for one scanned SUN message.
+ * The UID and the read counter are available when the PICCData could be decrypted (also for an invalid MAC or a
+ * replay), the decrypted file data only for a valid message with SDMENCFileData.
+ */
+
+public class SunVerificationResult {
+
+    public enum Status {
+        VALID,         // the SDMMAC is valid and the read counter is new
+        INVALID_MAC,   // the SDMMAC does not match (a manipulated or guessed message or a wrong key)
+        REPLAYED,      // the SDMMAC is valid but the read counter was accepted before
+        NO_KEY,        // the key provider has no SDMFileRead key for the UID
+        MALFORMED      // the message can't be parsed or the PICCData is not valid
+    }
+
+    private final Status status;
+    private final String reason;
+    private final byte[] uid;
+    private final int readCounter;
+    private final byte[] fileData;
+
+    SunVerificationResult(Status status, String reason, byte[] uid, int readCounter, byte[] fileData) {
+        this.status = status;
+        this.reason = reason;
+        this.uid = uid;
+        this.readCounter = readCounter;
+        this.fileData = fileData;
+    }
+
+    public boolean isValid() {
+        return (status == Status.VALID);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the mirrored UID (7 bytes) or NULL when the UID is not known
+     */
+    public byte[] getUid() {
+        return (uid == null) ? null : uid.clone();
+    }
+
+    /**
+     * @return the SDMReadCtr or SdmReadCounterStore.COUNTER_UNKNOWN when the counter is not mirrored
+     */
+    public int getReadCounter() {
+        return readCounter;
+    }
+
+    /**
+     * @return the decrypted SDMENCFileData or NULL
+     */
+    public byte[] getFileData() {
+        return (fileData == null) ? null : fileData.clone();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(status).append(": ").append(reason);
+        if (uid != null) {
+            sb.append(" uid: ");
+            for (byte b : uid) sb.append(String.format("%02X", b));
+        }
+        if (readCounter != SdmReadCounterStore.COUNTER_UNKNOWN) sb.append(" readCounter: ").append(readCounter);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,400 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class verifies the Transaction MAC Values (TMV) of committed transactions in the back office, e.g. in a
+ * nightly reconciliation of all transactions the readers have uploaded. For each transaction the Transaction MAC
+ * Input (TMI) is rebuilt from the command trace with TransactionMacTracker, the SesTMMACKey is derived from the
+ * AppTransactionMACKey, the TMC and the UID and the TMV is recalculated with AesCmac (see MIFARE DESFire Light
+ * contactless application IC MF2DLHX0.pdf pages 42 - 47).
+ * <p>
+ * The input file is read line by line by the calling thread and handed in chunks to a ForkJoinPool, a chunk is split
+ * into halves until it is small enough, so all cores are busy and a file with millions of transactions is never
+ * held in memory at once (at most maximumChunksInFlight chunks are waiting for a worker). Each worker thread keeps
+ * its own AesCmac instance (the AES Cipher is looked up once per thread and only initialized with the key of each
+ * transaction), the results are counted per task and merged when the tasks are joined.
+ * <p>
+ * Input format, one transaction per line, the fields are separated by ';', empty lines and lines starting with #
+ * are skipped:
+ * UID ; TMC ; TMV ; TMRI ; command trace
+ * UID:   the UID of the card (7 bytes hex)
+ * TMC:   the TMC returned by CommitTransaction (the counter after the commit, decimal)
+ * TMV:   the TMV returned by CommitTransaction (8 bytes hex)
+ * TMRI:  the reader id of CommitReaderId (16 bytes hex), empty when no CommitReaderId was sent
+ * command trace: the commands of the transaction in the order they were sent, separated by ',' as
+ *                Cmd:CmdHeader:Data in hex (the plain data that was written or read, the 4 bytes value for
+ *                Value file commands), CommitReaderId is written as C8 and uses the TMRI of the line
+ * example:
+ * 04514032501490;2;1A2B3C4D5E6F7081;;6C:03:07000000,DC:03:02000000,AD:00000000040000:01020304
+ * <p>
+ * The AppTransactionMACKey is taken from a KeyProvider, so a fixed key and per card (diversified) keys are possible.
+ */
+
+public class TmvBatchVerifier {
+
+    private static final int CHUNK_SIZE = 4096; // lines per submitted chunk
+    private static final int SPLIT_THRESHOLD = 256; // lines verified by one task without a further split
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final int UID_LENGTH = 7;
+    private static final int BLOCK_SIZE = 16;
+    private static final int TRANSACTION_MAC_VALUE_LENGTH = TransactionMacTracker.TRANSACTION_MAC_VALUE_LENGTH;
+    private static final byte COMMIT_READER_ID_COMMAND = (byte) 0xC8;
+    private static final String REASON_TMV_MISMATCH = "TMV does not match";
+
+    private final KeyProvider keyProvider;
+    private final byte[] applicationIdentifier;
+    private final byte keyNumber;
+    private final ForkJoinPool forkJoinPool;
+    private final int maximumChunksInFlight;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    /**
+     * a FailureListener gets every record that was not verified, it is called by the worker threads and needs to
+     * be thread safe
+     */
+    public interface FailureListener {
+        /**
+         * @param lineNumber | the line number in the input file (beginning with 1)
+         * @param line       | the complete line
+         * @param reason     | why the record is failed or rejected
+         */
+        void onFailure(long lineNumber, String line, String reason);
+    }
+
+    /**
+     * holds the objects that are reused by one worker thread for all of its transactions
+     */
+    private static final class Worker {
+        private final AesCmac aesCmac;
+        private final byte[] sv = new byte[BLOCK_SIZE];
+
+        Worker() {
+            try {
+                aesCmac = new AesCmac();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("AES CMAC is not available", e);
+            }
+        }
+    }
+
+    /**
+     * @param keyProvider           | returns the AppTransactionMACKey for the UID of a transaction
+     * @param applicationIdentifier | the AID that is passed to the key provider (length 3)
+     * @param keyNumber             | the key number that is passed to the key provider
+     * @param parallelism           | the number of worker threads, e.g. Runtime.getRuntime().availableProcessors()
+     */
+    public TmvBatchVerifier(KeyProvider keyProvider, byte[] applicationIdentifier, byte keyNumber, int parallelism) {
+        if ((keyProvider == null) || (applicationIdentifier == null)) {
+            throw new IllegalArgumentException("keyProvider or applicationIdentifier is NULL");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism is < 1");
+        }
+        this.keyProvider = keyProvider;
+        this.applicationIdentifier = applicationIdentifier.clone();
+        this.keyNumber = keyNumber;
+        this.forkJoinPool = new ForkJoinPool(parallelism);
+        this.maximumChunksInFlight = 2 * parallelism;
+    }
+
+    /**
+     * verifies all transactions of the input file
+     *
+     * @param inputFileName   | the file with one transaction per line
+     * @param failureListener | gets the failed and rejected records, can be NULL
+     */
+    public TmvVerificationReport verify(String inputFileName, FailureListener failureListener) throws IOException {
+        try (InputStream inputStream = new FileInputStream(inputFileName)) {
+            return verify(inputStream, failureListener);
+        }
+    }
+
+    /**
+     * verifies all transactions that are read from the input stream, the stream is not closed
+     *
+     * @param inputStream     | the transactions, one per line (US-ASCII)
+     * @param failureListener | gets the failed and rejected records, can be NULL
+     */
+    public TmvVerificationReport verify(InputStream inputStream, FailureListener failureListener) throws IOException {
+        long start = System.nanoTime();
+        TmvVerificationReport report = new TmvVerificationReport();
+        ArrayDeque<ForkJoinTask<TmvVerificationReport>> pendingChunks = new ArrayDeque<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.US_ASCII), READ_BUFFER_SIZE);
+        try {
+            String[] lines = new String[CHUNK_SIZE];
+            int numberOfLines = 0;
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines[numberOfLines++] = line;
+                lineNumber++;
+                if (numberOfLines == CHUNK_SIZE) {
+                    pendingChunks.add(forkJoinPool.submit(new VerifyTask(lines, lineNumber - numberOfLines + 1, 0, numberOfLines, failureListener)));
+                    lines = new String[CHUNK_SIZE];
+                    numberOfLines = 0;
+                    // back pressure, the reader waits for the oldest chunk when the workers are behind
+                    while (pendingChunks.size() > maximumChunksInFlight) {
+                        report.add(pendingChunks.poll().join());
+                    }
+                }
+            }
+            if (numberOfLines > 0) {
+                pendingChunks.add(forkJoinPool.submit(new VerifyTask(lines, lineNumber - numberOfLines + 1, 0, numberOfLines, failureListener)));
+            }
+            while (!pendingChunks.isEmpty()) {
+                report.add(pendingChunks.poll().join());
+            }
+        } finally {
+            for (ForkJoinTask<TmvVerificationReport> pendingChunk : pendingChunks) {
+                pendingChunk.cancel(false);
+            }
+        }
+        report.setDurationNanos(System.nanoTime() - start);
+        report.setParallelism(forkJoinPool.getParallelism());
+        return report;
+    }
+
+    /**
+     * verifies the lines [from, to) of a chunk, splits the range into halves while it is larger than SPLIT_THRESHOLD
+     */
+    private final class VerifyTask extends RecursiveTask<TmvVerificationReport> {
+        private static final long serialVersionUID = 1L; // the task is never serialized
+        private final String[] lines;
+        private final long firstLineNumber; // the line number of lines[0]
+        private final int from;
+        private final int to;
+        private final FailureListener failureListener;
+
+        VerifyTask(String[] lines, long firstLineNumber, int from, int to, FailureListener failureListener) {
+            this.lines = lines;
+            this.firstLineNumber = firstLineNumber;
+            this.from = from;
+            this.to = to;
+            this.failureListener = failureListener;
+        }
+
+        @Override
+        protected TmvVerificationReport compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                VerifyTask left = new VerifyTask(lines, firstLineNumber, from, middle, failureListener);
+                left.fork();
+                TmvVerificationReport report = new VerifyTask(lines, firstLineNumber, middle, to, failureListener).compute();
+                report.add(left.join());
+                return report;
+            }
+            TmvVerificationReport report = new TmvVerificationReport();
+            Worker worker = workers.get();
+            for (int i = from; i < to; i++) {
+                String line = lines[i];
+                if ((line.isEmpty()) || (line.charAt(0) == '#')) {
+                    report.countSkipped();
+                    continue;
+                }
+                String reason = verifyLine(worker, line);
+                if (reason == null) {
+                    report.countVerified();
+                    continue;
+                }
+                if (reason.equals(REASON_TMV_MISMATCH)) {
+                    report.countFailed();
+                } else {
+                    report.countRejected();
+                }
+                if (failureListener != null) failureListener.onFailure(firstLineNumber + i, line, reason);
+            }
+            return report;
+        }
+    }
+
+    /**
+     * section for the verification of one transaction
+     */
+
+    /**
+     * @return NULL when the TMV is verified, otherwise the reason why the record failed or was rejected
+     */
+    private String verifyLine(Worker worker, String line) {
+        String[] fields = line.split(";", -1);
+        if (fields.length != 5) return "wrong number of fields";
+        byte[] uid = hexToBytes(fields[0].trim());
+        if ((uid == null) || (uid.length != UID_LENGTH)) return "UID is invalid";
+        int transactionMacCounter;
+        try {
+            long counter = Long.parseLong(fields[1].trim());
+            if ((counter < 1) || (counter > 0xFFFFFFFFL)) return "TMC is out of range";
+            transactionMacCounter = (int) counter;
+        } catch (NumberFormatException e) {
+            return "TMC is invalid";
+        }
+        byte[] transactionMacValue = hexToBytes(fields[2].trim());
+        if ((transactionMacValue == null) || (transactionMacValue.length != TRANSACTION_MAC_VALUE_LENGTH)) return "TMV is invalid";
+        String readerIdField = fields[3].trim();
+        byte[] readerId = null;
+        if (!readerIdField.isEmpty()) {
+            readerId = hexToBytes(readerIdField);
+            if ((readerId == null) || (readerId.length != BLOCK_SIZE)) return "TMRI is invalid";
+        }
+        byte[] transactionMacInput = buildTransactionMacInput(uid, readerId, fields[4].trim());
+        if (transactionMacInput == null) return "command trace is invalid";
+
+        byte[] transactionMacKey = keyProvider.getKey(uid, applicationIdentifier, keyNumber);
+        if ((transactionMacKey == null) || (transactionMacKey.length != BLOCK_SIZE)) return "no AppTransactionMACKey for the UID";
+        try {
+            // SesTMMACKey = MAC(AppTransactionMACKey, SV1), TMV = MACt(SesTMMACKey, TMI)
+            TransactionMacTracker.getSessionVector(TransactionMacTracker.SV1_LABEL, uid, transactionMacCounter, worker.sv);
+            worker.aesCmac.init(new SecretKeySpec(transactionMacKey, "AES"));
+            byte[] sesTMMACKey = worker.aesCmac.calculateHash(worker.sv);
+            worker.aesCmac.init(new SecretKeySpec(sesTMMACKey, "AES"));
+            byte[] fullMac = worker.aesCmac.calculateHash(transactionMacInput);
+            byte[] expectedTransactionMacValue = new byte[TRANSACTION_MAC_VALUE_LENGTH];
+            for (int i = 0; i < TRANSACTION_MAC_VALUE_LENGTH; i++) {
+                expectedTransactionMacValue[i] = fullMac[2 * i + 1];
+            }
+            if (!MessageDigest.isEqual(expectedTransactionMacValue, transactionMacValue)) return REASON_TMV_MISMATCH;
+        } catch (GeneralSecurityException e) {
+            return "crypto error: " + e.getMessage();
+        }
+        return null;
+    }
+
+    /**
+     * rebuilds the TMI from the command trace with the same code the reader uses (TransactionMacTracker)
+     *
+     * @return the TMI or NULL when the trace is empty or malformed
+     */
+    private static byte[] buildTransactionMacInput(byte[] uid, byte[] readerId, String commandTrace) {
+        if (commandTrace.isEmpty()) return null;
+        TransactionMacTracker transactionMacTracker = new TransactionMacTracker(uid, null);
+        for (String command : commandTrace.split(",")) {
+            String[] parts = command.trim().split(":", -1);
+            byte[] commandCode = hexToBytes(parts[0]);
+            if ((commandCode == null) || (commandCode.length != 1)) return null;
+            if (commandCode[0] == COMMIT_READER_ID_COMMAND) {
+                if ((parts.length != 1) || (readerId == null)) return null;
+                transactionMacTracker.appendCommitReaderId(readerId);
+                continue;
+            }
+            if (parts.length != 3) return null;
+            byte[] header = hexToBytes(parts[1]);
+            byte[] data = hexToBytes(parts[2]);
+            if ((header == null) || (header.length < 1) || (header.length > BLOCK_SIZE - 1) || (data == null)) return null;
+            if ((isValueFileCommand(commandCode[0])) && (data.length != 4)) return null;
+            transactionMacTracker.append(commandCode[0], header, data);
+        }
+        return transactionMacTracker.getTransactionMacInput();
+    }
+
+    /**
+     * GetValue, Credit, Debit and LimitedCredit carry the 4 bytes value as data
+     */
+    private static boolean isValueFileCommand(byte command) {
+        return ((command == (byte) 0x6C) || (command == (byte) 0x0C) || (command == (byte) 0xDC) || (command == (byte) 0x1C));
+    }
+
+    /**
+     * @return the bytes or NULL when the string is not a valid hex string
+     */
+    static byte[] hexToBytes(String hex) {
+        if ((hex.length() % 2) != 0) return null;
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if ((high < 0) || (low < 0)) return null;
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    public void shutdown() {
+        forkJoinPool.shutdown();
+    }
+
+    /**
+     * section for the command line
+     */
+
+    /**
+     * usage: TmvBatchVerifier inputFile AppTransactionMACKey(hex) [parallelism] [failureFile]
+     * The failed and rejected records are written to the failure file (or stderr) with the line number and the
+     * reason, the exit code is 0 when all records are verified, 1 when not and 2 on a usage or read error.
+     */
+    public static void main(String[] args) {
+        if ((args.length < 2) || (args.length > 4)) {
+            System.err.println("usage: TmvBatchVerifier inputFile AppTransactionMACKey(hex) [parallelism] [failureFile]");
+            System.exit(2);
+        }
+        final byte[] transactionMacKey = hexToBytes(args[1]);
+        if ((transactionMacKey == null) || (transactionMacKey.length != BLOCK_SIZE)) {
+            System.err.println("the AppTransactionMACKey needs to be 16 bytes hex");
+            System.exit(2);
+        }
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        if (args.length > 2) {
+            try {
+                parallelism = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                parallelism = 0;
+            }
+            if (parallelism < 1) {
+                System.err.println("parallelism needs to be a number > 0");
+                System.exit(2);
+            }
+        }
+        // one AppTransactionMACKey for all cards
+        KeyProvider keyProvider = (uid, applicationIdentifier, keyNumber) -> transactionMacKey;
+        TmvBatchVerifier verifier = new TmvBatchVerifier(keyProvider, new byte[3], (byte) 0x00, parallelism);
+        TmvVerificationReport report;
+        try {
+            if (args.length > 3) {
+                try (PrintWriter failureWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[3]), StandardCharsets.US_ASCII))) {
+                    report = verifyAndWriteFailures(verifier, args[0], failureWriter);
+                }
+            } else {
+                // System.err stays open for the messages below, the writer is flushed only
+                PrintWriter failureWriter = new PrintWriter(new OutputStreamWriter(System.err, StandardCharsets.US_ASCII));
+                try {
+                    report = verifyAndWriteFailures(verifier, args[0], failureWriter);
+                } finally {
+                    failureWriter.flush();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("could not read " + args[0] + ": " + e.getMessage());
+            System.exit(2);
+            return;
+        } finally {
+            verifier.shutdown();
+        }
+        System.out.println(report);
+        System.exit(report.isSuccess() ? 0 : 1);
+    }
+
+    // writes each failure as lineNumber;reason;line
+    private static TmvVerificationReport verifyAndWriteFailures(TmvBatchVerifier verifier, String inputFile, PrintWriter failureWriter) throws IOException {
+        return verifier.verify(inputFile, (lineNumber, line, reason) -> {
+            synchronized (failureWriter) {
+                failureWriter.println(lineNumber + ";" + reason + ";" + line);
+            }
+        });
+    }
+}
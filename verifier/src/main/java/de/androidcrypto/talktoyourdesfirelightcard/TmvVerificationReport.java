@@ -0,0 +1,108 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import java.util.Locale;
+
+/**
+ * This class holds the result of a TmvBatchVerifier run. Each fork-join task counts its own records, the reports
+ * of the tasks are merged with add when the tasks are joined, so no counter is shared between the threads.
+ * <p>
+ * verified: the recalculated TMV matches the uploaded TMV
+ * failed:   the TMV does not match (a manipulated or incomplete command trace, a wrong TMC or a wrong key)
+ * rejected: the record can't be verified (malformed line or no key for the UID)
+ * skipped:  empty lines and comment lines starting with #
+ */
+
+public class TmvVerificationReport {
+
+    private long numberOfVerifiedRecords;
+    private long numberOfFailedRecords;
+    private long numberOfRejectedRecords;
+    private long numberOfSkippedLines;
+    private long durationNanos;
+    private int parallelism;
+
+    void countVerified() {
+        numberOfVerifiedRecords++;
+    }
+
+    void countFailed() {
+        numberOfFailedRecords++;
+    }
+
+    void countRejected() {
+        numberOfRejectedRecords++;
+    }
+
+    void countSkipped() {
+        numberOfSkippedLines++;
+    }
+
+    /**
+     * merges the counters of another (partial) report into this report
+     */
+    void add(TmvVerificationReport report) {
+        numberOfVerifiedRecords += report.numberOfVerifiedRecords;
+        numberOfFailedRecords += report.numberOfFailedRecords;
+        numberOfRejectedRecords += report.numberOfRejectedRecords;
+        numberOfSkippedLines += report.numberOfSkippedLines;
+    }
+
+    void setDurationNanos(long durationNanos) {
+        this.durationNanos = durationNanos;
+    }
+
+    void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return true when all records were verified
+     */
+    public boolean isSuccess() {
+        return ((numberOfFailedRecords == 0) && (numberOfRejectedRecords == 0));
+    }
+
+    public long getNumberOfRecords() {
+        return numberOfVerifiedRecords + numberOfFailedRecords + numberOfRejectedRecords;
+    }
+
+    public long getNumberOfVerifiedRecords() {
+        return numberOfVerifiedRecords;
+    }
+
+    public long getNumberOfFailedRecords() {
+        return numberOfFailedRecords;
+    }
+
+    public long getNumberOfRejectedRecords() {
+        return numberOfRejectedRecords;
+    }
+
+    public long getNumberOfSkippedLines() {
+        return numberOfSkippedLines;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the throughput of the run in records per second (including the time for reading the input)
+     */
+    public double getRecordsPerSecond() {
+        if (durationNanos == 0) return 0;
+        return getNumberOfRecords() * 1000000000.0 / durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "records: %d verified: %d failed: %d rejected: %d skipped lines: %d%n"
+                        + "duration: %d ms with %d threads, throughput: %.0f records/s",
+                getNumberOfRecords(), numberOfVerifiedRecords, numberOfFailedRecords, numberOfRejectedRecords,
+                numberOfSkippedLines, durationNanos / 1000000, parallelism, getRecordsPerSecond());
+    }
+}
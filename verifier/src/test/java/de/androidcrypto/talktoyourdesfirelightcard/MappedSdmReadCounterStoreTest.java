@@ -0,0 +1,141 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Tests for the persistence of MappedSdmReadCounterStore: reopening, compaction and unwritten or torn records.
+ */
+public class MappedSdmReadCounterStoreTest {
+
+    private static final int HEADER_LENGTH = 16;
+    private static final int RECORD_LENGTH = 16;
+
+    private File counterFile;
+
+    @Before
+    public void setUp() throws Exception {
+        counterFile = File.createTempFile("sdm", ".ctr");
+        counterFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        counterFile.delete();
+        new File(counterFile.getPath() + ".compact").delete();
+    }
+
+    @Test
+    public void update_acceptsIncreasingCountersOnly() throws Exception {
+        try (MappedSdmReadCounterStore store = MappedSdmReadCounterStore.open(counterFile, 100)) {
+            assertEquals(SdmReadCounterStore.COUNTER_UNKNOWN, store.get(1));
+            assertTrue(store.update(1, 0));
+            assertTrue(store.update(1, 5));
+            assertFalse(store.update(1, 5));
+            assertFalse(store.update(1, 4));
+            assertTrue(store.update(2, 3));
+            assertEquals(5, store.get(1));
+            assertEquals(2, store.size());
+            // one record per accepted counter
+            assertEquals(HEADER_LENGTH + 3 * RECORD_LENGTH, store.getLogLength());
+        }
+    }
+
+    @Test
+    public void reopen_keepsTheHighestCounterPerCard() throws Exception {
+        byte[] olderRecord = new byte[RECORD_LENGTH];
+        try (MappedSdmReadCounterStore store = MappedSdmReadCounterStore.open(counterFile, 100)) {
+            for (int readCounter = 1; readCounter <= 10; readCounter++) {
+                for (long uid = 1; uid <= 3; uid++) {
+                    assertTrue(store.update(uid, readCounter * (int) uid));
+                }
+            }
+        }
+        // append the first record of card 1 (counter 1) again, the log is not in the order of the updates
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(counterFile, "rw")) {
+            randomAccessFile.seek(HEADER_LENGTH);
+            randomAccessFile.readFully(olderRecord);
+            randomAccessFile.seek(HEADER_LENGTH + 30 * RECORD_LENGTH);
+            randomAccessFile.write(olderRecord);
+        }
+        try (MappedSdmReadCounterStore store = MappedSdmReadCounterStore.open(counterFile, 100)) {
+            assertEquals(3, store.size());
+            assertEquals(10, store.get(1));
+            assertEquals(20, store.get(2));
+            assertEquals(30, store.get(3));
+            assertEquals(0, store.getNumberOfDiscardedRecords());
+            assertFalse(store.update(1, 10));
+            assertTrue(store.update(1, 11));
+        }
+        try (MappedSdmReadCounterStore store = MappedSdmReadCounterStore.open(counterFile, 100)) {
+            assertEquals(11, store.get(1));
+        }
+    }
+
+    @Test
+    public void compact_keepsOneRecordPerCard() throws Exception {
+        try (MappedSdmReadCounterStore store = MappedSdmReadCounterStore.open(counterFile, 100)) {
+            for (int readCounter = 1; readCounter <= 20; readCounter++) {
+                for (long uid = 1; uid <= 5; uid++) {
+                    store.update(uid, readCounter);
+                }
+            }
+            assertEquals(HEADER_LENGTH + 100 * RECORD_LENGTH, store.getLogLength());
+            store.compact();
+            assertEquals(HEADER_LENGTH + 5 * RECORD_LENGTH, store.getLogLength());
+            assertEquals(HEADER_LENGTH + 5 * RECORD_LENGTH, counterFile.length());
+            assertEquals(20, store.get(3));
+            // the store continues to append behind the compacted records
+            assertTrue(store.update(3, 21));
+        }
+        try (MappedSdmReadCounterStore store = MappedSdmReadCounterStore.open(counterFile, 100)) {
+            assertEquals(5, store.size());
+            assertEquals(HEADER_LENGTH + 6 * RECORD_LENGTH, store.getLogLength());
+            for (long uid = 1; uid <= 5; uid++) {
+                assertEquals(uid == 3 ? 21 : 20, store.get(uid));
+            }
+        }
+    }
+
+    @Test
+    public void zeroedAndTornRecords_areSkippedOnOpen() throws Exception {
+        try (MappedSdmReadCounterStore store = MappedSdmReadCounterStore.open(counterFile, 100)) {
+            store.update(1, 1);
+            store.update(2, 1);
+            store.update(1, 2);
+            store.update(3, 1);
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(counterFile, "rw")) {
+            // the record of card 2 was never written (a crash between two appends)
+            randomAccessFile.seek(HEADER_LENGTH + RECORD_LENGTH);
+            randomAccessFile.write(new byte[RECORD_LENGTH]);
+            // the second record of card 1 is torn
+            randomAccessFile.seek(HEADER_LENGTH + 2 * RECORD_LENGTH + 11);
+            randomAccessFile.write(0x77);
+        }
+        try (MappedSdmReadCounterStore store = MappedSdmReadCounterStore.open(counterFile, 100)) {
+            assertEquals(1, store.getNumberOfDiscardedRecords()); // the zeroed record is not counted
+            assertEquals(2, store.size());
+            assertEquals(1, store.get(1));
+            assertEquals(SdmReadCounterStore.COUNTER_UNKNOWN, store.get(2));
+            assertEquals(1, store.get(3)); // the record behind the skipped ones is loaded
+            assertEquals(HEADER_LENGTH + 4 * RECORD_LENGTH, store.getLogLength());
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void fileWithoutHeader_isRejected() throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(counterFile, "rw")) {
+            randomAccessFile.write(new byte[HEADER_LENGTH + RECORD_LENGTH]);
+        }
+        MappedSdmReadCounterStore.open(counterFile, 100).close();
+    }
+}
@@ -0,0 +1,106 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for SunMessageVerifier with the SUN examples of NXP's AN12196 NTAG 424 DNA and NTAG 424 DNA TagTamper
+ * features and hints.pdf (all keys are the default zero keys) and for the replay detection.
+ */
+public class SunMessageVerifierTest {
+
+    private static final byte[] ZERO_KEY = new byte[16];
+    // PICCData with UID 04DE5F1EACC040 and SDMReadCtr 3Dh (61), SDMMAC over an empty input
+    private static final String AN12196_ENC_PICC_DATA = "EF963FF7828658A599F3041510671E88";
+    private static final String AN12196_SDM_MAC = "94EED9EE65337086";
+    private static final String AN12196_URL = "https://choose.url.com/ntag424?e=" + AN12196_ENC_PICC_DATA + "&c=" + AN12196_SDM_MAC;
+    private static final byte[] AN12196_UID = new byte[]{(byte) 0x04, (byte) 0xDE, (byte) 0x5F, (byte) 0x1E, (byte) 0xAC, (byte) 0xC0, (byte) 0x40};
+    // PICCData with UID 04958CAA5C5E80 and SDMReadCtr 8, SDMENCFileData with the plain text "xxxxxxxxxxxxxxxx"
+    private static final String AN12196_URL_ENC_FILE_DATA = "https://www.my424dna.com/?picc_data=FD91EC264309878BE6345CBE53BADF40"
+            + "&enc=CEE9A53E3E463EF1F459635736738962&cmac=ECC1E7F6C6C73BF6";
+
+    private File counterFile;
+
+    @Before
+    public void setUp() throws Exception {
+        counterFile = File.createTempFile("sdm", ".ctr");
+        counterFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        counterFile.delete();
+    }
+
+    private static SunMessageVerifier createVerifier(SdmReadCounterStore readCounterStore) {
+        return new SunMessageVerifier(ZERO_KEY, (uid, applicationIdentifier, keyNumber) -> ZERO_KEY, new byte[3], (byte) 0x02, readCounterStore);
+    }
+
+    @Test
+    public void an12196Example_piccDataAndSdmMac() {
+        SunVerificationResult result = createVerifier(new StripedSdmReadCounterStore()).verifyUrl(AN12196_URL);
+        assertEquals(SunVerificationResult.Status.VALID, result.getStatus());
+        assertArrayEquals(AN12196_UID, result.getUid());
+        assertEquals(61, result.getReadCounter());
+    }
+
+    @Test
+    public void an12196Example_encryptedFileData() {
+        SunVerificationResult result = createVerifier(new StripedSdmReadCounterStore()).verifyUrl(AN12196_URL_ENC_FILE_DATA);
+        assertEquals(SunVerificationResult.Status.VALID, result.getStatus());
+        assertArrayEquals(new byte[]{(byte) 0x04, (byte) 0x95, (byte) 0x8C, (byte) 0xAA, (byte) 0x5C, (byte) 0x5E, (byte) 0x80}, result.getUid());
+        assertEquals(8, result.getReadCounter());
+        assertArrayEquals("xxxxxxxxxxxxxxxx".getBytes(StandardCharsets.US_ASCII), result.getFileData());
+    }
+
+    @Test
+    public void replayedMessage_isRejected() {
+        SdmReadCounterStore readCounterStore = new StripedSdmReadCounterStore();
+        SunMessageVerifier verifier = createVerifier(readCounterStore);
+        assertEquals(SunVerificationResult.Status.VALID, verifier.verify(AN12196_ENC_PICC_DATA, AN12196_SDM_MAC).getStatus());
+        assertEquals(SunVerificationResult.Status.REPLAYED, verifier.verify(AN12196_ENC_PICC_DATA, AN12196_SDM_MAC).getStatus());
+        assertEquals(SunVerificationResult.Status.REPLAYED, verifier.verifyUrl(AN12196_URL).getStatus());
+        assertEquals(61, readCounterStore.get(SdmReadCounterStore.packUid(AN12196_UID)));
+    }
+
+    @Test
+    public void messageWithAnOlderCounter_isRejected() {
+        SdmReadCounterStore readCounterStore = new StripedSdmReadCounterStore();
+        long uid = SdmReadCounterStore.packUid(AN12196_UID);
+        readCounterStore.update(uid, 62); // the card was scanned after the message was generated
+        assertEquals(SunVerificationResult.Status.REPLAYED, createVerifier(readCounterStore).verifyUrl(AN12196_URL).getStatus());
+        assertEquals(62, readCounterStore.get(uid));
+    }
+
+    @Test
+    public void replayAfterRestart_isRejected() throws Exception {
+        try (MappedSdmReadCounterStore readCounterStore = MappedSdmReadCounterStore.open(counterFile, 1000)) {
+            assertEquals(SunVerificationResult.Status.VALID, createVerifier(readCounterStore).verifyUrl(AN12196_URL).getStatus());
+        }
+        try (MappedSdmReadCounterStore readCounterStore = MappedSdmReadCounterStore.open(counterFile, 1000)) {
+            assertEquals(SunVerificationResult.Status.REPLAYED, createVerifier(readCounterStore).verifyUrl(AN12196_URL).getStatus());
+        }
+    }
+
+    @Test
+    public void manipulatedSdmMac_isRejected() {
+        SunMessageVerifier verifier = createVerifier(new StripedSdmReadCounterStore());
+        assertEquals(SunVerificationResult.Status.INVALID_MAC, verifier.verify(AN12196_ENC_PICC_DATA, "94EED9EE65337087").getStatus());
+        // the rejected message does not consume the counter
+        assertEquals(SunVerificationResult.Status.VALID, verifier.verify(AN12196_ENC_PICC_DATA, AN12196_SDM_MAC).getStatus());
+    }
+
+    @Test
+    public void malformedMessage_isRejected() {
+        SunMessageVerifier verifier = createVerifier(new StripedSdmReadCounterStore());
+        assertEquals(SunVerificationResult.Status.MALFORMED, verifier.verifyUrl("https://choose.url.com/ntag424?e=zz&c=00").getStatus());
+        assertEquals(SunVerificationResult.Status.MALFORMED, verifier.verifyUrl("https://choose.url.com/ntag424").getStatus());
+    }
+}
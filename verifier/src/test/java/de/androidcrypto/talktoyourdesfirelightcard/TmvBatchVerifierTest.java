@@ -0,0 +1,219 @@
+package de.androidcrypto.talktoyourdesfirelightcard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for TmvBatchVerifier with transactions whose TMV was calculated by TransactionMacTracker: the fork-join
+ * path over several chunks with per card keys, tampered and malformed records and the back pressure of the reader.
+ */
+public class TmvBatchVerifierTest {
+
+    private static final int PARALLELISM = 4;
+    private static final int NUMBER_OF_TRANSACTIONS = 10000; // more than two chunks of 4096 lines
+    private static final int NUMBER_OF_CARDS = 16;
+    private static final int TAMPERED_LINE_NUMBER = 5000;
+    private static final byte[] READER_ID = TmvBatchVerifier.hexToBytes("000102030405060708090A0B0C0D0E0F");
+
+    private final Set<Thread> keyProviderThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    // a diversified AppTransactionMACKey per card, the worker AesCmac is initialized with another key on each record
+    private final KeyProvider keyProvider = (uid, applicationIdentifier, keyNumber) -> {
+        keyProviderThreads.add(Thread.currentThread());
+        return key(uid[6]);
+    };
+    private TmvBatchVerifier verifier;
+
+    @After
+    public void tearDown() {
+        if (verifier != null) verifier.shutdown();
+    }
+
+    @Test
+    public void batch_withOneTamperedEntry() throws Exception {
+        StringBuilder input = new StringBuilder("# uid;tmc;tmv;tmri;command trace\n");
+        for (int i = 1; i <= NUMBER_OF_TRANSACTIONS; i++) {
+            // line i + 1 of the input
+            input.append(transactionLine(i, (i + 1) == TAMPERED_LINE_NUMBER)).append('\n');
+        }
+        input.append('\n');
+        input.append("04000000000001;1;0011;;3D:00000000010000:01\n"); // a TMV of the wrong length
+
+        Map<Long, String> failures = new ConcurrentHashMap<>();
+        verifier = new TmvBatchVerifier(keyProvider, new byte[3], (byte) 0x01, PARALLELISM);
+        TmvVerificationReport report = verifier.verify(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.US_ASCII)),
+                (lineNumber, line, reason) -> failures.put(lineNumber, reason));
+
+        assertFalse(report.isSuccess());
+        assertEquals(NUMBER_OF_TRANSACTIONS + 1, report.getNumberOfRecords());
+        assertEquals(NUMBER_OF_TRANSACTIONS - 1, report.getNumberOfVerifiedRecords());
+        assertEquals(1, report.getNumberOfFailedRecords());
+        assertEquals(1, report.getNumberOfRejectedRecords());
+        assertEquals(2, report.getNumberOfSkippedLines());
+        assertEquals(PARALLELISM, report.getParallelism());
+        assertEquals(2, failures.size());
+        assertEquals("TMV does not match", failures.get((long) TAMPERED_LINE_NUMBER));
+        assertEquals("TMV is invalid", failures.get((long) NUMBER_OF_TRANSACTIONS + 3));
+        // the records are verified on the worker threads only
+        assertFalse(keyProviderThreads.contains(Thread.currentThread()));
+        assertTrue(keyProviderThreads.size() <= PARALLELISM);
+    }
+
+    @Test
+    public void untamperedBatch_isVerified() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 1; i <= 300; i++) {
+            input.append(transactionLine(i, false)).append('\n');
+        }
+        verifier = new TmvBatchVerifier(keyProvider, new byte[3], (byte) 0x01, 1);
+        // the worker objects of a thread are reused for a second run
+        for (int run = 0; run < 2; run++) {
+            TmvVerificationReport report = verifier.verify(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.US_ASCII)), null);
+            assertTrue(report.toString(), report.isSuccess());
+            assertEquals(300, report.getNumberOfVerifiedRecords());
+        }
+    }
+
+    @Test
+    public void reader_waitsForTheWorkers() throws Exception {
+        // one worker is blocked on the first record, the reader stops after a few chunks instead of reading the whole input
+        final CountDownLatch releaseWorker = new CountDownLatch(1);
+        KeyProvider blockingKeyProvider = (uid, applicationIdentifier, keyNumber) -> {
+            try {
+                releaseWorker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return key(uid[6]);
+        };
+        final CommentLinesInputStream inputStream = new CommentLinesInputStream(transactionLine(1, false), 40 * 4096);
+        verifier = new TmvBatchVerifier(blockingKeyProvider, new byte[3], (byte) 0x01, 1);
+        FutureTask<TmvVerificationReport> verification = new FutureTask<>(() -> verifier.verify(inputStream, null));
+        new Thread(verification, "TmvBatchVerifierTest").start();
+        try {
+            long bytesRead = waitUntilStalled(inputStream);
+            assertTrue("read " + bytesRead + " of " + inputStream.getLength() + " bytes", bytesRead < inputStream.getLength() / 4);
+        } finally {
+            releaseWorker.countDown();
+        }
+        TmvVerificationReport report = verification.get(60, TimeUnit.SECONDS);
+        assertEquals(inputStream.getLength(), inputStream.getNumberOfBytesRead());
+        assertEquals(1, report.getNumberOfVerifiedRecords());
+        assertEquals(40 * 4096, report.getNumberOfSkippedLines());
+    }
+
+    // the number of bytes read when the reader made no progress for 300 ms
+    private static long waitUntilStalled(CommentLinesInputStream inputStream) throws InterruptedException {
+        long bytesRead = -1;
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(300);
+            long current = inputStream.getNumberOfBytesRead();
+            if (current == bytesRead) break;
+            bytesRead = current;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * UID ; TMC ; TMV ; TMRI ; command trace with the TMV calculated by TransactionMacTracker, every third
+     * transaction ends with a CommitReaderId
+     */
+    private static String transactionLine(int number, boolean isTampered) {
+        byte[] uid = new byte[]{(byte) 0x04, (byte) 0x51, (byte) 0x40, (byte) 0x32, (byte) 0x50, (byte) 0x14, (byte) (number % NUMBER_OF_CARDS)};
+        int transactionMacCounter = number / NUMBER_OF_CARDS + 1;
+        byte[] data = new byte[20];
+        Arrays.fill(data, (byte) number);
+        byte[] value = new byte[]{(byte) (number & 0x7F), (byte) 0x00, (byte) 0x00, (byte) 0x00};
+        byte[] writeHeader = TmvBatchVerifier.hexToBytes("05000000140000");
+        byte[] debitHeader = new byte[]{(byte) 0x03};
+        boolean isWithReaderId = ((number % 3) == 0);
+
+        TransactionMacTracker tracker = new TransactionMacTracker(uid, key(uid[6]));
+        tracker.start(transactionMacCounter - 1);
+        tracker.append((byte) 0x8D, writeHeader, data);
+        tracker.append((byte) 0xDC, debitHeader, value);
+        if (isWithReaderId) tracker.appendCommitReaderId(READER_ID);
+        byte[] transactionMacValue = tracker.finish(transactionMacCounter);
+
+        if (isTampered) data[3] ^= (byte) 0x01;
+        return toHex(uid) + ";" + transactionMacCounter + ";" + toHex(transactionMacValue) + ";" + (isWithReaderId ? toHex(READER_ID) : "")
+                + ";8D:" + toHex(writeHeader) + ":" + toHex(data) + ",DC:" + toHex(debitHeader) + ":" + toHex(value)
+                + (isWithReaderId ? ",C8" : "");
+    }
+
+    private static byte[] key(byte diversification) {
+        byte[] key = new byte[16];
+        for (int i = 0; i < key.length; i++) key[i] = (byte) (i * 17 + diversification);
+        return key;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) hex.append(String.format("%02X", b));
+        return hex.toString();
+    }
+
+    /**
+     * returns the first line followed by comment lines of 100 bytes, the lines are generated while they are read
+     */
+    private static class CommentLinesInputStream extends InputStream {
+
+        private static final int COMMENT_LINE_LENGTH = 100;
+        private final byte[] firstLine;
+        private final long length;
+        private final AtomicLong numberOfBytesRead = new AtomicLong();
+
+        CommentLinesInputStream(String firstLine, int numberOfCommentLines) {
+            this.firstLine = (firstLine + "\n").getBytes(StandardCharsets.US_ASCII);
+            this.length = this.firstLine.length + (long) numberOfCommentLines * COMMENT_LINE_LENGTH;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        long getNumberOfBytesRead() {
+            return numberOfBytesRead.get();
+        }
+
+        @Override
+        public int read() {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int len) {
+            long position = numberOfBytesRead.get();
+            if (position >= length) return -1;
+            int count = (int) Math.min(len, length - position);
+            for (int i = 0; i < count; i++) {
+                long index = position + i;
+                if (index < firstLine.length) {
+                    buffer[offset + i] = firstLine[(int) index];
+                } else {
+                    int column = (int) ((index - firstLine.length) % COMMENT_LINE_LENGTH);
+                    buffer[offset + i] = (byte) ((column == 0) ? '#' : ((column == COMMENT_LINE_LENGTH - 1) ? '\n' : 'x'));
+                }
+            }
+            numberOfBytesRead.addAndGet(count);
+            return count;
+        }
+    }
+}